@@ -7,10 +7,11 @@ import java.util.stream.Collectors;
 /**
  * 高级LLM Agent
  * 集成记忆管理、RAG、工具调用和上下文工程
+ * 用完后应调用 {@link #close()} 释放记忆管理器的写回线程与数据库连接
  * 
  * @author 山泽
  */
-public class AdvancedAgent {
+public class AdvancedAgent implements AutoCloseable {
     
     private final String name;                      // Agent名称
     private final String systemPrompt;             // 系统提示
@@ -271,6 +272,14 @@ public class AdvancedAgent {
         return llmSimulator;
     }
     
+    /**
+     * 关闭Agent：提交并关闭记忆管理器
+     */
+    @Override
+    public void close() {
+        memoryManager.close();
+    }
+    
     /**
      * 生成LLM响应
      */
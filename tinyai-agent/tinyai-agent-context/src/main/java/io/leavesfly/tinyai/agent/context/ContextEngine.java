@@ -6,14 +6,67 @@ import java.util.stream.Collectors;
 /**
  * 上下文工程引擎
  * 负责构建和管理对话上下文
+ * 上下文按 系统指令、可用工具、对话历史、相关记忆、相关文档、当前问题 的顺序组织，变化少的部分在前，
+ * 相邻两轮之间的公共前缀尽量保持不变，便于模型复用前缀的KV缓存。
+ * 每一行只在首次出现时计算token数，之后复用；超出预算时按优先级整行取舍，不再拼接后按字符截断
  * 
  * @author 山泽
  */
 public class ContextEngine {
     
-    private final int maxContextLength;                 // 最大上下文长度
+    private static final int HISTORY_WINDOW = 6;        // 至少保留最近3轮对话
+    private static final int HISTORY_STRIDE = 4;        // 历史窗口起点按2轮对齐
+    private static final int MAX_MESSAGE_LENGTH = 200;  // 单条消息最大长度
+    private static final int TOKEN_CACHE_SIZE = 4096;   // 行token数缓存容量
+    
+    private static final String SYSTEM_HEADER = "系统指令：";
+    private static final String TOOLS_HEADER = "可用工具：";
+    private static final String HISTORY_HEADER = "对话历史：";
+    private static final String MEMORY_HEADER = "相关记忆：";
+    private static final String RAG_HEADER = "相关文档：";
+    private static final String QUERY_HEADER = "当前问题：";
+    
+    /**
+     * token计数器，通常接入模型实际使用的分词器
+     * 计数应近似满足按行可加，即整段文本的token数约等于各行token数之和
+     */
+    public interface TokenCounter {
+        int count(String text);
+    }
+    
+    private final int maxContextLength;                 // 最大上下文长度（字符）
+    private final int maxContextTokens;                 // 最大上下文token数
+    private final TokenCounter tokenCounter;
     private final List<Message> conversationHistory;   // 对话历史
+    private final List<String> historyLines;           // 对话历史对应的渲染行
     private final List<String> systemPrompts;          // 系统提示
+    private final Map<String, Integer> tokenCache;      // 行 -> token数
+    
+    // 上一次构建的结果
+    private List<String> lastPieces = new ArrayList<>();
+    private final Map<String, Integer> lastSectionTokens = new LinkedHashMap<>();
+    private int lastContextTokens;
+    private int lastReusedPrefixTokens;
+    
+    /**
+     * 上下文中的一个部分：标题加若干行
+     */
+    private static class Section {
+        final String header;
+        final String name;
+        final boolean inline;           // 标题与内容在同一行
+        final boolean keepLatest;       // 超出预算时保留末尾的行
+        final List<String> lines;
+        final List<String> selected = new ArrayList<>();
+        
+        Section(String name, String header, boolean inline, boolean keepLatest, List<String> lines) {
+            this.name = name;
+            this.header = header;
+            this.inline = inline;
+            this.keepLatest = keepLatest;
+            this.lines = lines;
+        }
+    }
     
     // 构造函数
     public ContextEngine() {
@@ -21,9 +74,33 @@ public class ContextEngine {
     }
     
     public ContextEngine(int maxContextLength) {
+        this(maxContextLength, maxContextLength, ContextEngine::estimateTokens);
+    }
+    
+    /**
+     * @param maxContextLength 最大上下文长度（字符）
+     * @param maxContextTokens 最大上下文token数
+     * @param tokenCounter token计数器
+     */
+    public ContextEngine(int maxContextLength, int maxContextTokens, TokenCounter tokenCounter) {
+        if (maxContextLength <= 0 || maxContextTokens <= 0) {
+            throw new IllegalArgumentException("上下文长度与token预算必须为正数");
+        }
+        if (tokenCounter == null) {
+            throw new IllegalArgumentException("token计数器不能为null");
+        }
         this.maxContextLength = maxContextLength;
+        this.maxContextTokens = maxContextTokens;
+        this.tokenCounter = tokenCounter;
         this.conversationHistory = new ArrayList<>();
+        this.historyLines = new ArrayList<>();
         this.systemPrompts = new ArrayList<>();
+        this.tokenCache = new LinkedHashMap<String, Integer>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > TOKEN_CACHE_SIZE;
+            }
+        };
     }
     
     /**
@@ -41,6 +118,7 @@ public class ContextEngine {
     public void addMessage(Message message) {
         if (message != null) {
             conversationHistory.add(message);
+            historyLines.add(renderMessage(message));
         }
     }
     
@@ -55,50 +133,62 @@ public class ContextEngine {
      */
     public String buildContext(String currentQuery, List<Memory> relevantMemories, 
                              String ragContext, String toolsInfo) {
-        List<String> contextParts = new ArrayList<>();
+        List<Section> sections = new ArrayList<>(6);
         
         // 1. 系统提示
-        if (!systemPrompts.isEmpty()) {
-            contextParts.add("系统指令：\n" + String.join("\n", systemPrompts));
-        }
+        Section system = new Section("system", SYSTEM_HEADER, false, false, systemPrompts);
+        sections.add(system);
         
         // 2. 工具信息
+        Section tools = null;
         if (toolsInfo != null && !toolsInfo.trim().isEmpty()) {
-            contextParts.add("可用工具：\n" + toolsInfo);
+            tools = new Section("tools", TOOLS_HEADER, false, false, Arrays.asList(toolsInfo.split("\n")));
+            sections.add(tools);
         }
         
-        // 3. 相关记忆
+        // 3. 对话历史（窗口起点对齐，相邻几轮只在末尾追加）
+        Section history = new Section("history", HISTORY_HEADER, false, true, recentHistoryLines());
+        sections.add(history);
+        
+        // 4. 相关记忆
+        Section memories = null;
         if (relevantMemories != null && !relevantMemories.isEmpty()) {
             List<String> memoryTexts = relevantMemories.stream()
                     .map(memory -> String.format("[%s记忆] %s", memory.getMemoryType(), memory.getContent()))
                     .collect(Collectors.toList());
-            contextParts.add("相关记忆：\n" + String.join("\n", memoryTexts));
+            memories = new Section("memory", MEMORY_HEADER, false, false, memoryTexts);
+            sections.add(memories);
         }
         
-        // 4. RAG上下文
+        // 5. RAG上下文
+        Section rag = null;
         if (ragContext != null && !ragContext.trim().isEmpty()) {
-            contextParts.add("相关文档：\n" + ragContext);
-        }
-        
-        // 5. 对话历史（压缩）
-        String compressedHistory = compressConversationHistory();
-        if (!compressedHistory.isEmpty()) {
-            contextParts.add("对话历史：\n" + compressedHistory);
+            rag = new Section("rag", RAG_HEADER, false, false, Arrays.asList(ragContext.split("\n")));
+            sections.add(rag);
         }
         
         // 6. 当前查询
+        Section query = null;
         if (currentQuery != null && !currentQuery.trim().isEmpty()) {
-            contextParts.add("当前问题：" + currentQuery);
+            query = new Section("query", QUERY_HEADER, true, false, Collections.singletonList(currentQuery));
+            sections.add(query);
         }
         
-        // 组合并截断
-        String fullContext = String.join("\n\n", contextParts);
-        
-        if (fullContext.length() > maxContextLength) {
-            fullContext = truncateContext(fullContext);
+        // 系统指令与当前问题必须保留，其余部分按优先级填充剩余预算
+        int[] budget = {maxContextTokens, maxContextLength};
+        for (Section section : sections) {
+            if ((section == system || section == query) && !section.lines.isEmpty()) {
+                section.selected.addAll(section.lines);
+                charge(budget, section, section.lines);
+            }
+        }
+        for (Section section : Arrays.asList(tools, history, memories, rag)) {
+            if (section != null) {
+                fit(section, budget);
+            }
         }
         
-        return fullContext;
+        return render(sections);
     }
     
     /**
@@ -113,153 +203,177 @@ public class ContextEngine {
     }
     
     /**
-     * 压缩对话历史
+     * 对话历史窗口：至少包含最近 HISTORY_WINDOW 条消息，起点按 HISTORY_STRIDE 对齐
      */
-    private String compressConversationHistory() {
-        if (conversationHistory.isEmpty()) {
-            return "";
+    private List<String> recentHistoryLines() {
+        int size = historyLines.size();
+        if (size <= HISTORY_WINDOW) {
+            return historyLines;
         }
-        
-        // 保留最近的几轮对话
-        int maxMessages = 6;  // 最近3轮对话
-        List<Message> recentMessages = conversationHistory.stream()
-                .skip(Math.max(0, conversationHistory.size() - maxMessages))
-                .collect(Collectors.toList());
-        
-        List<String> compressed = new ArrayList<>();
-        
-        for (Message msg : recentMessages) {
-            String role = getRoleDisplayName(msg.getRole());
-            String content = msg.getContent();
-            
-            // 截断过长内容
-            if (content.length() > 200) {
-                content = content.substring(0, 197) + "...";
-            }
-            
-            compressed.add(role + ": " + content);
-        }
-        
-        return String.join("\n", compressed);
+        int start = (size - HISTORY_WINDOW) / HISTORY_STRIDE * HISTORY_STRIDE;
+        return historyLines.subList(start, size);
     }
     
     /**
-     * 获取角色显示名称
+     * 渲染单条消息（截断过长内容）
      */
-    private String getRoleDisplayName(String role) {
-        if (role == null) {
-            return "未知";
-        }
-        
-        switch (role.toLowerCase()) {
-            case "user":
-                return "用户";
-            case "assistant":
-                return "助手";
-            case "system":
-                return "系统";
-            case "tool":
-                return "工具";
-            default:
-                return role;
+    private String renderMessage(Message message) {
+        String role = getRoleDisplayName(message.getRole());
+        String content = message.getContent();
+        if (content.length() > MAX_MESSAGE_LENGTH) {
+            content = content.substring(0, MAX_MESSAGE_LENGTH - 3) + "...";
         }
+        return role + ": " + content;
     }
     
     /**
-     * 截断上下文以适应长度限制
+     * 在剩余预算内选取部分的行，容不下标题和至少一行时整体舍弃
      */
-    private String truncateContext(String context) {
-        if (context.length() <= maxContextLength) {
-            return context;
+    private void fit(Section section, int[] budget) {
+        int tokens = tokens(section.header);
+        int chars = section.header.length() + 2;
+        if (tokens > budget[0] || chars > budget[1]) {
+            return;
         }
-        
-        String[] lines = context.split("\n");
-        
-        // 找到重要部分的索引
-        int systemEnd = findSectionEnd(lines, "系统指令：");
-        int currentQueryStart = findSectionStart(lines, "当前问题：");
-        
-        // 如果找不到当前问题，则使用最后一行
-        if (currentQueryStart == -1) {
-            currentQueryStart = lines.length - 1;
+        int size = section.lines.size();
+        int taken = 0;
+        for (int i = 0; i < size; i++) {
+            String line = section.lines.get(section.keepLatest ? size - 1 - i : i);
+            int lineTokens = tokens(line);
+            int lineChars = line.length() + 1;
+            if (tokens + lineTokens > budget[0] || chars + lineChars > budget[1]) {
+                break;
+            }
+            tokens += lineTokens;
+            chars += lineChars;
+            taken++;
         }
-        
-        // 保留系统指令和当前查询
-        List<String> importantParts = new ArrayList<>();
-        
-        // 添加系统指令部分
-        for (int i = 0; i <= systemEnd && i < lines.length; i++) {
-            importantParts.add(lines[i]);
+        if (taken == 0) {
+            return;
         }
-        
-        // 添加当前查询部分
-        for (int i = currentQueryStart; i < lines.length; i++) {
-            importantParts.add(lines[i]);
+        List<String> selected = section.keepLatest
+                ? section.lines.subList(size - taken, size) : section.lines.subList(0, taken);
+        section.selected.addAll(selected);
+        budget[0] -= tokens;
+        budget[1] -= chars;
+    }
+    
+    private void charge(int[] budget, Section section, List<String> lines) {
+        budget[0] -= tokens(section.header);
+        budget[1] -= section.header.length() + 2;
+        for (String line : lines) {
+            budget[0] -= tokens(line);
+            budget[1] -= line.length() + 1;
         }
-        
-        String importantText = String.join("\n", importantParts);
-        
-        // 计算剩余空间
-        int remainingSpace = maxContextLength - importantText.length();
-        
-        if (remainingSpace > 100) {  // 如果还有空间，添加其他内容
-            List<String> middleParts = new ArrayList<>();
-            for (int i = systemEnd + 1; i < currentQueryStart; i++) {
-                middleParts.add(lines[i]);
+    }
+    
+    /**
+     * 拼接选中的行，同时统计token数与上一次构建的公共前缀
+     */
+    private String render(List<Section> sections) {
+        List<String> pieces = new ArrayList<>();
+        lastSectionTokens.clear();
+        int totalTokens = 0;
+        int length = 0;
+        for (Section section : sections) {
+            if (section.selected.isEmpty()) {
+                continue;
             }
-            
-            String middleText = String.join("\n", middleParts);
-            
-            if (middleText.length() <= remainingSpace) {
-                return context;
+            int sectionTokens = tokens(section.header);
+            String head = section.inline ? section.header : section.header + "\n";
+            String prefix = pieces.isEmpty() ? head : "\n\n" + head;
+            if (section.inline) {
+                // 标题与唯一一行作为一个片段
+                pieces.add(prefix + section.selected.get(0));
+                sectionTokens += tokens(section.selected.get(0));
             } else {
-                // 截断中间部分
-                String truncatedMiddle = middleText.substring(0, remainingSpace - 50) + "\n\n[内容被截断...]\n";
-                
-                List<String> result = new ArrayList<>();
-                for (int i = 0; i <= systemEnd && i < lines.length; i++) {
-                    result.add(lines[i]);
-                }
-                result.add(truncatedMiddle);
-                for (int i = currentQueryStart; i < lines.length; i++) {
-                    result.add(lines[i]);
+                pieces.add(prefix);
+                for (int i = 0; i < section.selected.size(); i++) {
+                    String line = section.selected.get(i);
+                    pieces.add(i == 0 ? line : "\n" + line);
+                    sectionTokens += tokens(line);
                 }
-                
-                return String.join("\n", result);
             }
+            lastSectionTokens.put(section.name, sectionTokens);
+            totalTokens += sectionTokens;
+        }
+        
+        int reusedTokens = 0;
+        int common = Math.min(pieces.size(), lastPieces.size());
+        for (int i = 0; i < common && pieces.get(i).equals(lastPieces.get(i)); i++) {
+            reusedTokens += tokens(pieces.get(i).trim());
         }
         
-        return importantText;
+        StringBuilder sb = new StringBuilder(pieces.stream().mapToInt(String::length).sum());
+        for (String piece : pieces) {
+            sb.append(piece);
+        }
+        lastPieces = pieces;
+        lastContextTokens = totalTokens;
+        lastReusedPrefixTokens = reusedTokens;
+        return sb.toString();
     }
     
     /**
-     * 查找指定部分的结束位置
+     * 文本的token数（按行缓存）
      */
-    private int findSectionEnd(String[] lines, String sectionStart) {
-        for (int i = 0; i < lines.length; i++) {
-            if (lines[i].startsWith(sectionStart)) {
-                // 找到下一个部分的开始或数组结束
-                for (int j = i + 1; j < lines.length; j++) {
-                    if (lines[j].contains("：") && !lines[j].startsWith(" ") && !lines[j].startsWith("\t")) {
-                        return j - 1;
-                    }
-                }
-                return lines.length - 1;
-            }
+    private int tokens(String text) {
+        Integer cached = tokenCache.get(text);
+        if (cached == null) {
+            cached = tokenCounter.count(text);
+            tokenCache.put(text, cached);
         }
-        return 0;
+        return cached;
     }
     
     /**
-     * 查找指定部分的开始位置
+     * 默认的token估算：汉字、假名、谚文按1个token计，连续的字母数字约4个字符1个token，其他符号按1个token计
      */
-    private int findSectionStart(String[] lines, String sectionStart) {
-        for (int i = 0; i < lines.length; i++) {
-            if (lines[i].startsWith(sectionStart)) {
-                return i;
+    public static int estimateTokens(String text) {
+        int tokens = 0;
+        int run = 0;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (Character.isLetterOrDigit(cp) && !isCjk(cp)) {
+                run++;
+                continue;
+            }
+            tokens += (run + 3) / 4;
+            run = 0;
+            if (!Character.isWhitespace(cp)) {
+                tokens++;
             }
         }
-        return -1;
+        return tokens + (run + 3) / 4;
+    }
+    
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL;
+    }
+    
+    /**
+     * 获取角色显示名称
+     */
+    private String getRoleDisplayName(String role) {
+        if (role == null) {
+            return "未知";
+        }
+        
+        switch (role.toLowerCase()) {
+            case "user":
+                return "用户";
+            case "assistant":
+                return "助手";
+            case "system":
+                return "系统";
+            case "tool":
+                return "工具";
+            default:
+                return role;
+        }
     }
     
     /**
@@ -267,6 +381,7 @@ public class ContextEngine {
      */
     public void clearConversationHistory() {
         conversationHistory.clear();
+        historyLines.clear();
     }
     
     /**
@@ -297,6 +412,27 @@ public class ContextEngine {
         return maxContextLength;
     }
     
+    /**
+     * 获取最大上下文token数
+     */
+    public int getMaxContextTokens() {
+        return maxContextTokens;
+    }
+    
+    /**
+     * 上一次构建的上下文token数
+     */
+    public int getLastContextTokens() {
+        return lastContextTokens;
+    }
+    
+    /**
+     * 上一次构建与其前一次构建相同前缀的token数（可复用的KV缓存长度）
+     */
+    public int getLastReusedPrefixTokens() {
+        return lastReusedPrefixTokens;
+    }
+    
     /**
      * 获取当前上下文统计信息
      */
@@ -305,6 +441,10 @@ public class ContextEngine {
         stats.put("max_context_length", maxContextLength);
         stats.put("conversation_history_count", conversationHistory.size());
         stats.put("system_prompts_count", systemPrompts.size());
+        stats.put("max_context_tokens", maxContextTokens);
+        stats.put("last_context_tokens", lastContextTokens);
+        stats.put("last_reused_prefix_tokens", lastReusedPrefixTokens);
+        stats.put("last_section_tokens", new LinkedHashMap<>(lastSectionTokens));
         
         if (!conversationHistory.isEmpty()) {
             int totalLength = conversationHistory.stream()
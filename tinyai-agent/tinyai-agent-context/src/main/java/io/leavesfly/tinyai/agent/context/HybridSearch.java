@@ -0,0 +1,70 @@
+package io.leavesfly.tinyai.agent.context;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 混合检索工具
+ * 提供检索器并行执行所用的共享线程池，以及倒数排名融合（RRF）：
+ * score(d) = Σ 1 / (k + rank_i(d))，rank 从1开始，只依赖名次，不要求各检索器的得分可比
+ *
+ * @author 山泽
+ */
+public final class HybridSearch {
+
+    public static final int DEFAULT_RRF_K = 60;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                Thread thread = new Thread(r, "hybrid-retriever");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private HybridSearch() {
+    }
+
+    /**
+     * 在共享线程池上异步执行检索器
+     */
+    public static <T> CompletableFuture<T> submit(Supplier<T> retriever) {
+        return CompletableFuture.supplyAsync(retriever, EXECUTOR);
+    }
+
+    /**
+     * 倒数排名融合
+     * @param rankings 各检索器按相关性降序的结果
+     * @param idOf 结果的文档ID，同一文档在不同列表中视为同一项
+     * @param k 平滑常数
+     * @param topK 返回数量
+     * @return 按融合得分降序排列的 (结果, 得分)，同分时先出现者在前；结果取该文档第一次出现的对象
+     */
+    public static <T> List<Map.Entry<T, Double>> reciprocalRankFusion(List<List<T>> rankings,
+                                                                       Function<? super T, String> idOf,
+                                                                       int k, int topK) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("RRF常数必须为正数: " + k);
+        }
+        Map<String, T> firstSeen = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        for (List<T> ranking : rankings) {
+            for (int i = 0; i < ranking.size(); i++) {
+                T item = ranking.get(i);
+                String id = idOf.apply(item);
+                firstSeen.putIfAbsent(id, item);
+                scores.merge(id, 1.0 / (k + i + 1), Double::sum);
+            }
+        }
+        List<Map.Entry<T, Double>> fused = new ArrayList<>(firstSeen.size());
+        for (Map.Entry<String, T> entry : firstSeen.entrySet()) {
+            fused.add(new AbstractMap.SimpleImmutableEntry<>(entry.getValue(), scores.get(entry.getKey())));
+        }
+        // 稳定排序保证同分时的先后顺序
+        fused.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+        return fused.size() > topK ? new ArrayList<>(fused.subList(0, Math.max(0, topK))) : fused;
+    }
+}
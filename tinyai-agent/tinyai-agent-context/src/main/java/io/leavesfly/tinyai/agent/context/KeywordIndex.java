@@ -0,0 +1,83 @@
+package io.leavesfly.tinyai.agent.context;
+
+import java.util.*;
+
+/**
+ * 关键词倒排索引
+ * 词项 -> 包含该词的文档ID；按BM25打分（词项以集合形式给出，词频视为1）
+ *
+ * @author 山泽
+ */
+class KeywordIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final Map<String, Set<String>> postings = new HashMap<>();
+    private final Map<String, Set<String>> documentTerms = new HashMap<>();
+    private long totalLength;
+
+    /**
+     * 添加或替换文档
+     */
+    void add(String docId, Set<String> terms) {
+        remove(docId);
+        Set<String> copy = new HashSet<>(terms);
+        documentTerms.put(docId, copy);
+        totalLength += copy.size();
+        for (String term : copy) {
+            postings.computeIfAbsent(term, k -> new HashSet<>()).add(docId);
+        }
+    }
+
+    boolean remove(String docId) {
+        Set<String> terms = documentTerms.remove(docId);
+        if (terms == null) {
+            return false;
+        }
+        totalLength -= terms.size();
+        for (String term : terms) {
+            Set<String> docs = postings.get(term);
+            docs.remove(docId);
+            if (docs.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+        return true;
+    }
+
+    void clear() {
+        postings.clear();
+        documentTerms.clear();
+        totalLength = 0;
+    }
+
+    /**
+     * 只遍历查询词的倒排表，返回按得分降序的 (文档ID, 得分)
+     */
+    List<Map.Entry<String, Double>> search(Set<String> queryTerms, int topK) {
+        int n = documentTerms.size();
+        if (n == 0 || topK <= 0) {
+            return new ArrayList<>();
+        }
+        double avgLength = (double) totalLength / n;
+        Map<String, Double> scores = new HashMap<>();
+        for (String term : queryTerms) {
+            Set<String> docs = postings.get(term);
+            if (docs == null) {
+                continue;
+            }
+            double idf = Math.log(1.0 + (n - docs.size() + 0.5) / (docs.size() + 0.5));
+            for (String docId : docs) {
+                double norm = 1.0 - B + B * documentTerms.get(docId).size() / avgLength;
+                scores.merge(docId, idf * (K1 + 1.0) / (1.0 + K1 * norm), Double::sum);
+            }
+        }
+        List<Map.Entry<String, Double>> results = new ArrayList<>(scores.entrySet());
+        results.sort((a, b) -> {
+            int cmp = Double.compare(b.getValue(), a.getValue());
+            return cmp != 0 ? cmp : a.getKey().compareTo(b.getKey());
+        });
+        return results.size() > topK ? new ArrayList<>(results.subList(0, topK)) : results;
+    }
+}
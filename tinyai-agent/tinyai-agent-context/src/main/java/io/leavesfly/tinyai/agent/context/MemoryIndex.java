@@ -0,0 +1,204 @@
+package io.leavesfly.tinyai.agent.context;
+
+import java.util.*;
+
+/**
+ * 记忆检索索引
+ * 关键词倒排：字符一元/二元组 -> 记忆ID（用于"内容包含查询"），整词 -> 记忆ID（用于词汇重叠），
+ * 查询时只取倒排表给出的候选，不再线性扫描全部记忆；
+ * 向量：嵌入按行连续存储，按点积打分，可按记忆类型过滤
+ *
+ * @author 山泽
+ */
+class MemoryIndex {
+
+    private final int dimension;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Set<String>> gramPostings = new HashMap<>();
+    private final Map<String, Set<String>> wordPostings = new HashMap<>();
+
+    private float[] matrix = new float[0];      // 嵌入矩阵（行优先）
+    private Entry[] rows = new Entry[0];        // 行号 -> 记忆
+    private int rowCount;
+    private long sequence;                      // 插入序号，用于同分时保持插入顺序
+
+    private static class Entry {
+        final Memory memory;
+        final Set<String> grams;
+        final Set<String> words;
+        final long sequence;
+        int row;
+
+        Entry(Memory memory, Set<String> grams, Set<String> words, long sequence) {
+            this.memory = memory;
+            this.grams = grams;
+            this.words = words;
+            this.sequence = sequence;
+        }
+    }
+
+    MemoryIndex(int dimension) {
+        this.dimension = dimension;
+    }
+
+    /**
+     * 添加或替换记忆
+     * @param memory 记忆
+     * @param words 记忆内容的词汇集合（小写）
+     * @param vector 归一化后的嵌入
+     */
+    void add(Memory memory, Set<String> words, float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("嵌入维度不匹配: " + vector.length + " != " + dimension);
+        }
+        remove(memory.getId());
+        Entry entry = new Entry(memory, grams(memory.getContent().toLowerCase()), words, sequence++);
+        entries.put(memory.getId(), entry);
+        for (String gram : entry.grams) {
+            gramPostings.computeIfAbsent(gram, k -> new HashSet<>()).add(memory.getId());
+        }
+        for (String word : words) {
+            wordPostings.computeIfAbsent(word, k -> new HashSet<>()).add(memory.getId());
+        }
+
+        if (rowCount == rows.length) {
+            int capacity = Math.max(16, rows.length * 2);
+            rows = Arrays.copyOf(rows, capacity);
+            matrix = Arrays.copyOf(matrix, capacity * dimension);
+        }
+        entry.row = rowCount;
+        rows[rowCount] = entry;
+        System.arraycopy(vector, 0, matrix, rowCount * dimension, dimension);
+        rowCount++;
+    }
+
+    boolean remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        removePostings(gramPostings, entry.grams, id);
+        removePostings(wordPostings, entry.words, id);
+
+        // 末行移入空位
+        int last = rowCount - 1;
+        if (entry.row != last) {
+            Entry moved = rows[last];
+            System.arraycopy(matrix, last * dimension, matrix, entry.row * dimension, dimension);
+            rows[entry.row] = moved;
+            moved.row = entry.row;
+        }
+        rows[last] = null;
+        rowCount--;
+        return true;
+    }
+
+    boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * 关键词候选：包含查询全部字符组的记忆 ∪ 与查询有公共词的记忆，按插入顺序返回
+     * @param query 查询（小写）
+     * @param queryWords 查询的词汇集合（小写）
+     */
+    List<Memory> candidates(String query, Set<String> queryWords) {
+        Set<String> ids = new HashSet<>();
+        if (query.isEmpty()) {
+            // 空查询被任何内容包含
+            ids.addAll(entries.keySet());
+        }
+        // 包含关系：内容必然含有查询的每个字符组，取最短的倒排表即可
+        Set<String> shortest = null;
+        for (String gram : grams(query)) {
+            Set<String> posting = gramPostings.get(gram);
+            if (posting == null) {
+                shortest = Collections.emptySet();
+                break;
+            }
+            if (shortest == null || posting.size() < shortest.size()) {
+                shortest = posting;
+            }
+        }
+        if (shortest != null) {
+            ids.addAll(shortest);
+        }
+        for (String word : queryWords) {
+            Set<String> posting = wordPostings.get(word);
+            if (posting != null) {
+                ids.addAll(posting);
+            }
+        }
+
+        List<Entry> hits = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            hits.add(entries.get(id));
+        }
+        hits.sort(Comparator.comparingLong(e -> e.sequence));
+        List<Memory> result = new ArrayList<>(hits.size());
+        for (Entry hit : hits) {
+            result.add(hit.memory);
+        }
+        return result;
+    }
+
+    /**
+     * 按嵌入相似度检索
+     * @param query 归一化后的查询嵌入
+     * @param memoryType 记忆类型过滤（null表示不过滤）
+     * @param limit 返回数量
+     * @return 按相似度降序排列的 (记忆, 相似度)
+     */
+    List<Map.Entry<Memory, Double>> searchSimilar(float[] query, String memoryType, int limit) {
+        float[] scores = new float[rowCount];
+        SimpleEmbedding.batchDot(matrix, rowCount, dimension, query, scores);
+        if (memoryType != null) {
+            for (int i = 0; i < rowCount; i++) {
+                if (!memoryType.equals(rows[i].memory.getMemoryType().toLowerCase())) {
+                    scores[i] = Float.NEGATIVE_INFINITY;
+                }
+            }
+        }
+        List<Map.Entry<Memory, Double>> results = new ArrayList<>();
+        for (int i : SimpleEmbedding.topK(scores, rowCount, limit)) {
+            if (scores[i] > 0) {
+                results.add(new AbstractMap.SimpleImmutableEntry<>(rows[i].memory, (double) scores[i]));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 文本的字符一元组与二元组
+     */
+    static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+        if (text.length() == 1) {
+            grams.add(text);
+            return grams;
+        }
+        for (int i = 0; i + 1 < text.length(); i++) {
+            grams.add(text.substring(i, i + 2));
+        }
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+        }
+        return grams;
+    }
+
+    private static void removePostings(Map<String, Set<String>> postings, Set<String> keys, String id) {
+        for (String key : keys) {
+            Set<String> posting = postings.get(key);
+            if (posting != null) {
+                posting.remove(id);
+                if (posting.isEmpty()) {
+                    postings.remove(key);
+                }
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package io.leavesfly.tinyai.agent.context;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.*;
@@ -7,6 +9,11 @@ import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -14,12 +21,19 @@ import java.util.stream.Collectors;
 /**
  * 记忆管理系统
  * 负责管理工作记忆、情节记忆和语义记忆
+ * 检索通过倒排索引取候选而不是逐条扫描；数据库写入（新增、访问计数、删除）先进入写回队列，
+ * 定期或积压到一定数量时在一个事务中批量提交，同一记忆的多次更新合并为一次写入。
+ * 嵌入与记忆一起持久化，启动时从数据库加载，不重新计算。
+ * 用完后应调用 {@link #close()}；关闭后新增、删除与检索记忆抛出 {@link IllegalStateException}
  * 
  * @author 山泽
  */
-public class MemoryManager {
+public class MemoryManager implements AutoCloseable {
     
     private static final int WORKING_MEMORY_MAX_SIZE = 10;  // 工作记忆容量限制
+    private static final int EMBEDDING_DIMENSION = 128;     // 记忆嵌入维度
+    private static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;  // 写回周期
+    private static final int MAX_PENDING_WRITES = 256;      // 积压超过该数量时立即写回
     
     private final String dbPath;
     private Connection connection;
@@ -30,20 +44,55 @@ public class MemoryManager {
     private final Map<String, Memory> semanticMemory;    // 语义记忆
     private final Map<String, Memory> memoryIndex;       // 记忆索引
     
+    // 检索索引与嵌入
+    private final SimpleEmbedding embeddingModel;        // 特征哈希嵌入
+    private final MemoryIndex retrievalIndex;            // 关键词倒排与嵌入矩阵
+    
+    // 写回队列
+    private final Map<String, Memory> pendingUpserts;    // 待写入的记忆（按ID合并）
+    private final Set<String> pendingDeletes;            // 待删除的记忆ID
+    private final Object flushLock = new Object();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+    private volatile boolean closed;
+    
     // 构造函数
     public MemoryManager() {
         this(":memory:");
     }
     
     public MemoryManager(String dbPath) {
+        this(dbPath, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+    
+    /**
+     * @param dbPath 数据库路径
+     * @param flushIntervalMillis 写回队列的提交周期（毫秒）
+     */
+    public MemoryManager(String dbPath, long flushIntervalMillis) {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("写回周期必须为正数: " + flushIntervalMillis);
+        }
         this.dbPath = dbPath;
         this.workingMemory = new ConcurrentLinkedDeque<>();
         this.episodicMemory = new ArrayList<>();
         this.semanticMemory = new HashMap<>();
         this.memoryIndex = new HashMap<>();
+        this.embeddingModel = new SimpleEmbedding(EMBEDDING_DIMENSION);
+        this.retrievalIndex = new MemoryIndex(EMBEDDING_DIMENSION);
+        this.pendingUpserts = new LinkedHashMap<>();
+        this.pendingDeletes = new LinkedHashSet<>();
         
-        // 初始化数据库
+        // 初始化数据库并加载已有记忆
         initDatabase();
+        loadMemoriesFromDb();
+        
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "memory-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
     }
     
     /**
@@ -85,6 +134,7 @@ public class MemoryManager {
      * @return 记忆ID
      */
     public String addMemory(String content, String memoryType, double importance, Map<String, Object> metadata) {
+        ensureOpen();
         String memoryId = generateMemoryId(content);
         
         Memory memory = new Memory(memoryId, content, memoryType, importance);
@@ -92,12 +142,25 @@ public class MemoryManager {
             memory.setMetadata(metadata);
         }
         
-        // 根据记忆类型存储
-        switch (memoryType.toLowerCase()) {
+        float[] vector = embeddingModel.encodeHashed(content);
+        storeMemory(memory, vector);
+        
+        // 加入写回队列
+        scheduleWrite(memory);
+        
+        return memoryId;
+    }
+    
+    /**
+     * 按记忆类型存储并加入检索索引
+     */
+    private void storeMemory(Memory memory, float[] vector) {
+        switch (memory.getMemoryType().toLowerCase()) {
             case "working":
                 // 工作记忆有容量限制
                 if (workingMemory.size() >= WORKING_MEMORY_MAX_SIZE) {
-                    workingMemory.removeFirst();  // 移除最旧的记忆
+                    Memory evicted = workingMemory.removeFirst();  // 移除最旧的记忆
+                    retrievalIndex.remove(evicted.getId());
                 }
                 workingMemory.addLast(memory);
                 break;
@@ -107,21 +170,21 @@ public class MemoryManager {
                 break;
                 
             case "semantic":
-                String semanticKey = extractSemanticKey(content);
-                semanticMemory.put(semanticKey, memory);
+                String semanticKey = extractSemanticKey(memory.getContent());
+                Memory replaced = semanticMemory.put(semanticKey, memory);
+                if (replaced != null) {
+                    retrievalIndex.remove(replaced.getId());
+                }
                 break;
                 
             default:
-                throw new IllegalArgumentException("不支持的记忆类型: " + memoryType);
+                throw new IllegalArgumentException("不支持的记忆类型: " + memory.getMemoryType());
         }
         
         // 添加到索引
-        memoryIndex.put(memoryId, memory);
-        
-        // 保存到数据库
-        saveMemoryToDb(memory);
-        
-        return memoryId;
+        memoryIndex.put(memory.getId(), memory);
+        memory.setEmbedding(toList(vector));
+        retrievalIndex.add(memory, extractWords(memory.getContent().toLowerCase()), vector);
     }
     
     /**
@@ -144,32 +207,17 @@ public class MemoryManager {
      * @return 相关记忆列表
      */
     public List<Memory> retrieveMemories(String query, String memoryType, int limit) {
+        ensureOpen();
         List<Memory> memories = new ArrayList<>();
-        
-        // 从工作记忆检索
-        if (memoryType == null || "working".equals(memoryType)) {
-            for (Memory memory : workingMemory) {
-                if (isRelevant(query, memory.getContent())) {
-                    memories.add(memory);
-                }
-            }
-        }
-        
-        // 从情节记忆检索
-        if (memoryType == null || "episodic".equals(memoryType)) {
-            for (Memory memory : episodicMemory) {
-                if (isRelevant(query, memory.getContent())) {
-                    memories.add(memory);
-                }
-            }
+        if (query == null) {
+            return memories;
         }
         
-        // 从语义记忆检索
-        if (memoryType == null || "semantic".equals(memoryType)) {
-            for (Memory memory : semanticMemory.values()) {
-                if (isRelevant(query, memory.getContent())) {
-                    memories.add(memory);
-                }
+        // 倒排索引给出候选，再逐个确认相关性
+        String lowerQuery = query.toLowerCase();
+        for (Memory memory : retrievalIndex.candidates(lowerQuery, extractWords(lowerQuery))) {
+            if (matchesType(memory, memoryType) && isRelevant(query, memory.getContent())) {
+                memories.add(memory);
             }
         }
         
@@ -189,12 +237,40 @@ public class MemoryManager {
         
         for (Memory memory : result) {
             memory.incrementAccess();
-            saveMemoryToDb(memory);
+            scheduleWrite(memory);
         }
         
         return result;
     }
     
+    /**
+     * 按嵌入相似度检索记忆，可检索到与查询没有字面重叠的记忆
+     * 
+     * @param query 查询内容
+     * @param memoryType 记忆类型过滤（可选）
+     * @param limit 返回数量限制
+     * @return 按相似度降序排列的记忆
+     */
+    public List<Memory> retrieveSimilarMemories(String query, String memoryType, int limit) {
+        ensureOpen();
+        List<Memory> result = new ArrayList<>();
+        if (query == null) {
+            return result;
+        }
+        for (Map.Entry<Memory, Double> hit : retrievalIndex.searchSimilar(
+                embeddingModel.encodeHashed(query), memoryType, limit)) {
+            Memory memory = hit.getKey();
+            memory.incrementAccess();
+            scheduleWrite(memory);
+            result.add(memory);
+        }
+        return result;
+    }
+    
+    private static boolean matchesType(Memory memory, String memoryType) {
+        return memoryType == null || memoryType.equals(memory.getMemoryType().toLowerCase());
+    }
+    
     /**
      * 检索相关记忆（重载方法）
      */
@@ -229,7 +305,7 @@ public class MemoryManager {
             episodicMemory.add(memory);
             
             // 更新数据库
-            saveMemoryToDb(memory);
+            scheduleWrite(memory);
         }
     }
     
@@ -242,6 +318,7 @@ public class MemoryManager {
         stats.put("episodic_memory_count", episodicMemory.size());
         stats.put("semantic_memory_count", semanticMemory.size());
         stats.put("total_memories", workingMemory.size() + episodicMemory.size() + semanticMemory.size());
+        stats.put("pending_writes", getPendingWriteCount());
         return stats;
     }
     
@@ -256,6 +333,7 @@ public class MemoryManager {
      * 删除记忆
      */
     public boolean deleteMemory(String id) {
+        ensureOpen();
         Memory memory = memoryIndex.remove(id);
         if (memory == null) {
             return false;
@@ -273,17 +351,12 @@ public class MemoryManager {
                 semanticMemory.values().remove(memory);
                 break;
         }
+        retrievalIndex.remove(id);
         
-        // 从数据库删除
-        try {
-            String sql = "DELETE FROM memories WHERE id = ?";
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, id);
-                pstmt.executeUpdate();
-            }
-        } catch (SQLException e) {
-            System.err.println("删除记忆失败: " + e.getMessage());
-            return false;
+        // 从数据库删除（写回队列）
+        synchronized (pendingUpserts) {
+            pendingUpserts.remove(id);
+            pendingDeletes.add(id);
         }
         
         return true;
@@ -377,38 +450,206 @@ public class MemoryManager {
     }
     
     /**
-     * 保存记忆到数据库
+     * 从数据库加载记忆，已保存的嵌入直接使用；缺少嵌入的旧记录补算后写回
      */
-    private void saveMemoryToDb(Memory memory) {
-        try {
-            String sql = "INSERT OR REPLACE INTO memories " +
-                    "(id, content, memory_type, timestamp, importance, access_count, " +
-                    "last_accessed, embedding, metadata) " +
-                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            
-            try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-                pstmt.setString(1, memory.getId());
-                pstmt.setString(2, memory.getContent());
-                pstmt.setString(3, memory.getMemoryType());
-                pstmt.setDouble(4, memory.getTimestamp().toEpochSecond(ZoneOffset.UTC));
-                pstmt.setDouble(5, memory.getImportance());
-                pstmt.setInt(6, memory.getAccessCount());
-                pstmt.setDouble(7, memory.getLastAccessed().toEpochSecond(ZoneOffset.UTC));
-                pstmt.setString(8, null); // embedding暂时为null
-                pstmt.setString(9, "{}"); // metadata简化为空JSON
+    private void loadMemoriesFromDb() {
+        if (connection == null) {
+            return;
+        }
+        String sql = "SELECT id, content, memory_type, timestamp, importance, access_count, " +
+                "last_accessed, embedding FROM memories ORDER BY timestamp, rowid";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                Memory memory = new Memory(rs.getString(1), rs.getString(2), rs.getString(3), rs.getDouble(5));
+                memory.setTimestamp(LocalDateTime.ofEpochSecond((long) rs.getDouble(4), 0, ZoneOffset.UTC));
+                memory.setAccessCount(rs.getInt(6));
+                memory.setLastAccessed(LocalDateTime.ofEpochSecond((long) rs.getDouble(7), 0, ZoneOffset.UTC));
                 
-                pstmt.executeUpdate();
+                float[] vector = decodeEmbedding(rs.getString(8));
+                boolean missing = vector == null || vector.length != EMBEDDING_DIMENSION;
+                if (missing) {
+                    vector = embeddingModel.encodeHashed(memory.getContent());
+                }
+                storeMemory(memory, vector);
+                if (missing) {
+                    scheduleWrite(memory);
+                }
             }
-            
+        } catch (SQLException | IllegalArgumentException e) {
+            System.err.println("加载记忆失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 加入写回队列，同一记忆的多次更新合并为一次写入
+     */
+    private void scheduleWrite(Memory memory) {
+        ensureOpen();
+        boolean full;
+        synchronized (pendingUpserts) {
+            pendingDeletes.remove(memory.getId());
+            pendingUpserts.put(memory.getId(), memory);
+            full = pendingUpserts.size() + pendingDeletes.size() >= MAX_PENDING_WRITES;
+        }
+        if (full && flusher != null && flushScheduled.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // 与close()并发：close会提交剩余的写回队列
+                flushScheduled.set(false);
+            }
+        }
+    }
+    
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("MemoryManager已关闭");
+        }
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * 待写回的记录数
+     */
+    public int getPendingWriteCount() {
+        synchronized (pendingUpserts) {
+            return pendingUpserts.size() + pendingDeletes.size();
+        }
+    }
+    
+    /**
+     * 将写回队列中的新增、更新与删除在一个事务中提交
+     * 失败时回滚，未被后续操作覆盖的记录留待下次重试
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            flushScheduled.set(false);
+            Map<String, Memory> upserts;
+            Set<String> deletes;
+            synchronized (pendingUpserts) {
+                if (pendingUpserts.isEmpty() && pendingDeletes.isEmpty()) {
+                    return;
+                }
+                upserts = new LinkedHashMap<>(pendingUpserts);
+                deletes = new LinkedHashSet<>(pendingDeletes);
+                pendingUpserts.clear();
+                pendingDeletes.clear();
+            }
+            if (connection == null) {
+                return;
+            }
+            try {
+                writeBatch(upserts.values(), deletes);
+            } catch (SQLException e) {
+                System.err.println("保存记忆到数据库失败: " + e.getMessage());
+                synchronized (pendingUpserts) {
+                    for (Map.Entry<String, Memory> entry : upserts.entrySet()) {
+                        if (!pendingDeletes.contains(entry.getKey())) {
+                            pendingUpserts.putIfAbsent(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    for (String id : deletes) {
+                        if (!pendingUpserts.containsKey(id)) {
+                            pendingDeletes.add(id);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * 批量写入记忆到数据库（单个事务）
+     */
+    private void writeBatch(Collection<Memory> upserts, Collection<String> deletes) throws SQLException {
+        String upsertSql = "INSERT OR REPLACE INTO memories " +
+                "(id, content, memory_type, timestamp, importance, access_count, " +
+                "last_accessed, embedding, metadata) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        String deleteSql = "DELETE FROM memories WHERE id = ?";
+        
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement upsert = connection.prepareStatement(upsertSql);
+             PreparedStatement delete = connection.prepareStatement(deleteSql)) {
+            for (String id : deletes) {
+                delete.setString(1, id);
+                delete.addBatch();
+            }
+            for (Memory memory : upserts) {
+                upsert.setString(1, memory.getId());
+                upsert.setString(2, memory.getContent());
+                upsert.setString(3, memory.getMemoryType());
+                upsert.setDouble(4, memory.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+                upsert.setDouble(5, memory.getImportance());
+                upsert.setInt(6, memory.getAccessCount());
+                upsert.setDouble(7, memory.getLastAccessed().toEpochSecond(ZoneOffset.UTC));
+                upsert.setString(8, encodeEmbedding(memory.getEmbedding()));
+                upsert.setString(9, "{}"); // metadata简化为空JSON
+                upsert.addBatch();
+            }
+            if (!deletes.isEmpty()) {
+                delete.executeBatch();
+            }
+            if (!upserts.isEmpty()) {
+                upsert.executeBatch();
+            }
+            connection.commit();
         } catch (SQLException e) {
-            System.err.println("保存记忆到数据库失败: " + e.getMessage());
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
         }
     }
     
     /**
-     * 关闭资源
+     * 嵌入编码为 float32 小端字节的 Base64 文本
      */
-    public void close() {
+    private static String encodeEmbedding(List<Double> embedding) {
+        if (embedding == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.size() * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (Double value : embedding) {
+            buffer.putFloat(value.floatValue());
+        }
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+    
+    private static float[] decodeEmbedding(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(encoded)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+    
+    private static List<Double> toList(float[] vector) {
+        List<Double> list = new ArrayList<>(vector.length);
+        for (float value : vector) {
+            list.add((double) value);
+        }
+        return list;
+    }
+    
+    /**
+     * 关闭资源（先提交写回队列，重复关闭无效）
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.shutdownNow();
+        flush();
         try {
             if (connection != null && !connection.isClosed()) {
                 connection.close();
@@ -417,4 +658,4 @@ public class MemoryManager {
             System.err.println("关闭数据库连接失败: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,143 @@
+package io.leavesfly.tinyai.agent.context;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 查询结果缓存
+ * 容量有界的LRU缓存，条目超过存活时间后失效；
+ * 文档集合变更时调用 {@link #invalidateAll()} 整体失效，
+ * 变更前开始、变更后才完成的检索结果按代数丢弃，不会写入缓存
+ *
+ * @author 山泽
+ */
+public class QueryCache<V> {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000L;
+
+    private final int maxEntries;                       // 最大条目数，0表示禁用缓存
+    private final long ttlNanos;                        // 条目存活时间
+    private final LinkedHashMap<String, Entry<V>> entries;
+
+    private long generation;                            // 失效代数
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public QueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * @param maxEntries 最大条目数，0表示禁用缓存
+     * @param ttlMillis 条目存活时间（毫秒）
+     */
+    public QueryCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("缓存容量不能为负数: " + maxEntries);
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("缓存存活时间必须为正数: " + ttlMillis);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 获取缓存值，不存在或已过期时返回null
+     */
+    public synchronized V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.createdAt > ttlNanos) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * 当前失效代数，检索开始前获取，写入时传给 {@link #put(String, Object, long)}
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * 写入缓存；若期间发生过失效（代数已变化）则丢弃
+     */
+    public synchronized void put(String key, V value, long expectedGeneration) {
+        if (maxEntries == 0 || expectedGeneration != generation) {
+            return;
+        }
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+        Iterator<Map.Entry<String, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void put(String key, V value) {
+        put(key, value, generation);
+    }
+
+    /**
+     * 使全部条目失效
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * 命中率，无请求时为0
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", entries.size());
+        stats.put("max_entries", maxEntries);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("hit_rate", getHitRate());
+        return stats;
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long createdAt;
+
+        Entry(V value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -2,20 +2,28 @@ package io.leavesfly.tinyai.agent.context;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * RAG (检索增强生成) 系统
  * 负责文档存储、检索和上下文生成
+ * 上下文检索使用关键词与向量两路并行的混合检索，结果按倒数排名融合并缓存，文档变更时缓存失效。
+ * 嵌入模型按文档增量训练，添加或修改文档时只编码该文档，已有文档的向量不重新计算
  * 
  * @author 山泽
  */
 public class RAGSystem {
     
     private final List<Document> documents;           // 文档库
-    private final List<List<Double>> documentEmbeddings; // 文档嵌入向量
+    private float[] embeddingMatrix;                  // 文档嵌入矩阵（按行连续存储）
+    private float[] embeddingNorms;                   // 每个文档嵌入的L2范数
     private final SimpleEmbedding embeddingModel;     // 嵌入模型
     private final Map<String, Integer> documentIndex; // 文档索引
+    private final KeywordIndex keywordIndex;          // 关键词倒排索引
+    private final RetrievalMetrics metrics;           // 检索各阶段耗时
+    private volatile QueryCache<List<RetrievalResult>> queryCache; // 混合检索结果缓存
+    
+    private static final int HYBRID_CANDIDATES = 20;  // 每路检索参与融合的候选数
     
     // 构造函数
     public RAGSystem() {
@@ -24,9 +32,13 @@ public class RAGSystem {
     
     public RAGSystem(int embeddingDim) {
         this.documents = new ArrayList<>();
-        this.documentEmbeddings = new ArrayList<>();
+        this.embeddingMatrix = new float[0];
+        this.embeddingNorms = new float[0];
         this.embeddingModel = new SimpleEmbedding(embeddingDim);
         this.documentIndex = new HashMap<>();
+        this.keywordIndex = new KeywordIndex();
+        this.metrics = new RetrievalMetrics();
+        this.queryCache = new QueryCache<>();
     }
     
     /**
@@ -48,9 +60,18 @@ public class RAGSystem {
         
         // 更新文档索引
         documentIndex.put(docId, documents.size() - 1);
+        keywordIndex.add(docId, embeddingModel.extractWords(content));
+        queryCache.invalidateAll();
         
-        // 重新训练嵌入模型并计算所有文档的嵌入向量
-        rebuildEmbeddings();
+        // 增量更新文档频率，只为新文档追加一行嵌入
+        embeddingModel.partialFit(content);
+        int dim = embeddingModel.getDimension();
+        int rows = embeddingNorms.length;
+        float[] matrix = Arrays.copyOf(embeddingMatrix, (rows + 1) * dim);
+        float[] norms = Arrays.copyOf(embeddingNorms, rows + 1);
+        encodeRow(content, matrix, norms, rows);
+        embeddingMatrix = matrix;
+        embeddingNorms = norms;
     }
     
     public void addDocument(String docId, String content) {
@@ -67,14 +88,19 @@ public class RAGSystem {
         }
         
         Document document = documents.get(index);
+        embeddingModel.removeText(document.getContent());
+        embeddingModel.partialFit(content);
         document.setContent(content);
         document.setTimestamp(LocalDateTime.now());
         
         if (metadata != null) {
             document.setMetadata(metadata);
         }
+        keywordIndex.add(docId, embeddingModel.extractWords(content));
+        queryCache.invalidateAll();
         
-        rebuildEmbeddings();
+        // 只重新编码被修改的文档
+        encodeRow(content, embeddingMatrix, embeddingNorms, index);
     }
     
     /**
@@ -86,8 +112,22 @@ public class RAGSystem {
             return false;
         }
         
-        documents.remove(index.intValue());
-        documentEmbeddings.remove(index.intValue());
+        Document removed = documents.remove(index.intValue());
+        embeddingModel.removeText(removed.getContent());
+        keywordIndex.remove(docId);
+        queryCache.invalidateAll();
+        
+        // 后续行前移，保持与文档列表一致
+        int dim = embeddingModel.getDimension();
+        int rows = embeddingNorms.length;
+        float[] matrix = new float[(rows - 1) * dim];
+        System.arraycopy(embeddingMatrix, 0, matrix, 0, index * dim);
+        System.arraycopy(embeddingMatrix, (index + 1) * dim, matrix, index * dim, (rows - index - 1) * dim);
+        float[] norms = new float[rows - 1];
+        System.arraycopy(embeddingNorms, 0, norms, 0, index);
+        System.arraycopy(embeddingNorms, index + 1, norms, index, rows - index - 1);
+        embeddingMatrix = matrix;
+        embeddingNorms = norms;
         
         // 重建索引
         documentIndex.clear();
@@ -106,29 +146,105 @@ public class RAGSystem {
             return new ArrayList<>();
         }
         
-        List<Double> queryEmbedding = embeddingModel.encode(query);
-        List<RetrievalResult> results = new ArrayList<>();
+        float[] queryEmbedding = embeddingModel.encodeVector(query);
+        double queryNorm = SimpleEmbedding.l2Norm(queryEmbedding, 0, queryEmbedding.length);
         
-        for (int i = 0; i < documents.size(); i++) {
-            Document doc = documents.get(i);
-            List<Double> docEmbedding = documentEmbeddings.get(i);
-            double similarity = embeddingModel.similarity(queryEmbedding, docEmbedding);
-            results.add(new RetrievalResult(doc, similarity));
+        // 一次遍历对全部文档打分，范数已预先计算
+        int rows = embeddingNorms.length;
+        float[] scores = new float[rows];
+        SimpleEmbedding.batchDot(embeddingMatrix, rows, embeddingModel.getDimension(), queryEmbedding, scores);
+        for (int i = 0; i < rows; i++) {
+            double denominator = queryNorm * embeddingNorms[i];
+            scores[i] = denominator == 0.0 ? 0.0f : (float) (scores[i] / denominator);
         }
         
-        results.sort((a, b) -> Double.compare(b.getSimilarity(), a.getSimilarity()));
-        return results.stream().limit(topK).collect(Collectors.toList());
+        List<RetrievalResult> results = new ArrayList<>();
+        for (int i : SimpleEmbedding.topK(scores, rows, topK)) {
+            results.add(new RetrievalResult(documents.get(i), scores[i]));
+        }
+        return results;
     }
     
     public List<RetrievalResult> retrieve(String query) {
         return retrieve(query, 3);
     }
     
+    /**
+     * 关键词检索（BM25）
+     */
+    public List<RetrievalResult> keywordRetrieve(String query, int topK) {
+        List<RetrievalResult> results = new ArrayList<>();
+        for (Map.Entry<String, Double> hit : keywordIndex.search(embeddingModel.extractWords(query), topK)) {
+            results.add(new RetrievalResult(documents.get(documentIndex.get(hit.getKey())), hit.getValue()));
+        }
+        return results;
+    }
+    
+    /**
+     * 混合检索
+     * 关键词检索在线程池上与向量检索并行执行，两路结果按倒数排名融合，得分为RRF得分；
+     * 相同查询命中缓存时不再扫描文档库
+     */
+    public List<RetrievalResult> hybridRetrieve(String query, int topK) {
+        String key = topK + ":" + query;
+        QueryCache<List<RetrievalResult>> cache = queryCache;
+        List<RetrievalResult> cached = cache.get(key);
+        if (cached != null) {
+            return new ArrayList<>(cached);
+        }
+        long generation = cache.getGeneration();
+        long start = System.nanoTime();
+        int candidates = Math.max(topK, HYBRID_CANDIDATES);
+        
+        CompletableFuture<List<RetrievalResult>> lexical = HybridSearch.submit(() -> {
+            long t = System.nanoTime();
+            List<RetrievalResult> hits = keywordRetrieve(query, candidates);
+            metrics.record(RetrievalMetrics.LEXICAL, System.nanoTime() - t);
+            return hits;
+        });
+        long vectorStart = System.nanoTime();
+        List<RetrievalResult> vector = retrieve(query, candidates);
+        metrics.record(RetrievalMetrics.VECTOR, System.nanoTime() - vectorStart);
+        
+        long fusionStart = System.nanoTime();
+        List<RetrievalResult> results = new ArrayList<>();
+        for (Map.Entry<RetrievalResult, Double> entry : HybridSearch.reciprocalRankFusion(
+                Arrays.asList(lexical.join(), vector), r -> r.getDocument().getId(),
+                HybridSearch.DEFAULT_RRF_K, topK)) {
+            results.add(new RetrievalResult(entry.getKey().getDocument(), entry.getValue()));
+        }
+        long end = System.nanoTime();
+        metrics.record(RetrievalMetrics.FUSION, end - fusionStart);
+        metrics.record(RetrievalMetrics.TOTAL, end - start);
+        
+        cache.put(key, Collections.unmodifiableList(new ArrayList<>(results)), generation);
+        return results;
+    }
+    
+    /**
+     * 重新配置查询缓存（原有缓存条目丢弃）
+     * @param maxEntries 最大条目数，0表示禁用缓存
+     * @param ttlMillis 条目存活时间（毫秒）
+     */
+    public void configureQueryCache(int maxEntries, long ttlMillis) {
+        QueryCache<List<RetrievalResult>> old = queryCache;
+        queryCache = new QueryCache<>(maxEntries, ttlMillis);
+        old.invalidateAll();
+    }
+    
+    public QueryCache<List<RetrievalResult>> getQueryCache() {
+        return queryCache;
+    }
+    
+    public RetrievalMetrics getMetrics() {
+        return metrics;
+    }
+    
     /**
      * 获取查询相关的上下文
      */
     public String getContext(String query, int maxLength) {
-        List<RetrievalResult> relevantDocs = retrieve(query);
+        List<RetrievalResult> relevantDocs = hybridRetrieve(query, 3);
         
         if (relevantDocs.isEmpty()) {
             return "";
@@ -178,34 +294,26 @@ public class RAGSystem {
         stats.put("embedding_dimension", embeddingModel.getDimension());
         stats.put("vocabulary_size", embeddingModel.getVocabularySize());
         stats.put("is_trained", embeddingModel.isTrained());
+        stats.put("query_cache", queryCache.getStats());
+        stats.put("retrieval_metrics", metrics.getStats());
         return stats;
     }
     
     public void clear() {
         documents.clear();
-        documentEmbeddings.clear();
+        embeddingMatrix = new float[0];
+        embeddingNorms = new float[0];
         documentIndex.clear();
+        keywordIndex.clear();
+        queryCache.invalidateAll();
     }
     
     /**
-     * 重新构建嵌入向量
+     * 编码文本并写入矩阵的指定行
      */
-    private void rebuildEmbeddings() {
-        if (documents.isEmpty()) {
-            documentEmbeddings.clear();
-            return;
-        }
-        
-        List<String> allTexts = documents.stream()
-                .map(Document::getContent)
-                .collect(Collectors.toList());
-        
-        embeddingModel.fit(allTexts);
-        
-        documentEmbeddings.clear();
-        for (Document doc : documents) {
-            List<Double> embedding = embeddingModel.encode(doc.getContent());
-            documentEmbeddings.add(embedding);
-        }
+    private void encodeRow(String content, float[] matrix, float[] norms, int row) {
+        int dim = embeddingModel.getDimension();
+        System.arraycopy(embeddingModel.encodeVector(content), 0, matrix, row * dim, dim);
+        norms[row] = (float) SimpleEmbedding.l2Norm(matrix, row * dim, dim);
     }
 }
\ No newline at end of file
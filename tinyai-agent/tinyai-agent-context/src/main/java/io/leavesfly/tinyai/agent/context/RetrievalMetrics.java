@@ -0,0 +1,82 @@
+package io.leavesfly.tinyai.agent.context;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 检索各阶段耗时统计
+ * 按阶段名（如 lexical、vector、fusion、total）累计调用次数、总耗时与最大耗时，可并发记录
+ *
+ * @author 山泽
+ */
+public class RetrievalMetrics {
+
+    public static final String LEXICAL = "lexical";
+    public static final String VECTOR = "vector";
+    public static final String FUSION = "fusion";
+    public static final String TOTAL = "total";
+
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次阶段耗时
+     * @param stage 阶段名
+     * @param nanos 耗时（纳秒）
+     */
+    public void record(String stage, long nanos) {
+        Stage s = stages.computeIfAbsent(stage, k -> new Stage());
+        s.count.increment();
+        s.totalNanos.add(nanos);
+        s.maxNanos.accumulate(nanos);
+    }
+
+    public long getCount(String stage) {
+        Stage s = stages.get(stage);
+        return s == null ? 0 : s.count.sum();
+    }
+
+    /**
+     * 平均耗时（毫秒），无记录时为0
+     */
+    public double getAverageMillis(String stage) {
+        Stage s = stages.get(stage);
+        if (s == null) {
+            return 0.0;
+        }
+        long count = s.count.sum();
+        return count == 0 ? 0.0 : s.totalNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxMillis(String stage) {
+        Stage s = stages.get(stage);
+        return s == null ? 0.0 : s.maxNanos.get() / 1e6;
+    }
+
+    /**
+     * 各阶段统计快照：阶段名 -> {count, avg_ms, max_ms}
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new TreeMap<>();
+        for (String stage : stages.keySet()) {
+            Map<String, Object> stageStats = new TreeMap<>();
+            stageStats.put("count", getCount(stage));
+            stageStats.put("avg_ms", getAverageMillis(stage));
+            stageStats.put("max_ms", getMaxMillis(stage));
+            stats.put(stage, stageStats);
+        }
+        return stats;
+    }
+
+    public void reset() {
+        stages.clear();
+    }
+
+    private static class Stage {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+    }
+}
@@ -15,7 +15,8 @@ public class SimpleEmbedding {
     
     private final int dimension;                        // 向量维度
     private Map<String, Integer> vocabulary;            // 词汇表
-    private Map<String, Double> idf;                    // 逆文档频率
+    private Map<String, Integer> docFrequency;          // 文档频率（可增量更新）
+    private int documentCount;                          // 参与统计的文档数
     private boolean isTrained;                          // 是否已训练
     
     // 构造函数
@@ -26,7 +27,7 @@ public class SimpleEmbedding {
     public SimpleEmbedding(int dimension) {
         this.dimension = dimension;
         this.vocabulary = new HashMap<>();
-        this.idf = new HashMap<>();
+        this.docFrequency = new HashMap<>();
         this.isTrained = false;
     }
     
@@ -67,22 +68,61 @@ public class SimpleEmbedding {
             }
         }
         
-        // 计算IDF值
-        this.idf = new HashMap<>();
-        int numDocs = texts.size();
+        // 记录文档频率，IDF按需计算
+        this.docFrequency = new HashMap<>();
+        this.documentCount = texts.size();
         for (Map.Entry<String, Set<Integer>> entry : docWordCounts.entrySet()) {
-            String word = entry.getKey();
-            if (vocabulary.containsKey(word)) {
-                int docFreq = entry.getValue().size();
-                // 使用平滑化的IDF计算，避免IDF为0
-                double idfValue = Math.log((double) (numDocs + 1) / (docFreq + 1)) + 1.0;
-                this.idf.put(word, idfValue);
+            if (vocabulary.containsKey(entry.getKey())) {
+                docFrequency.put(entry.getKey(), entry.getValue().size());
             }
         }
         
         this.isTrained = true;
     }
     
+    /**
+     * 增量训练：计入一个新文本的词汇与文档频率
+     * 新词追加到词汇表末尾，已有词汇的索引不变，因此已编码的向量维度含义保持一致
+     * 
+     * @param text 新文本
+     */
+    public void partialFit(String text) {
+        for (String word : extractWords(text)) {
+            if (!vocabulary.containsKey(word)) {
+                vocabulary.put(word, vocabulary.size());
+            }
+            docFrequency.merge(word, 1, Integer::sum);
+        }
+        documentCount++;
+        isTrained = true;
+    }
+    
+    /**
+     * 从文档频率中扣除一个已删除（或被修改）的文本，词汇表保持不变
+     * 
+     * @param text 原文本
+     */
+    public void removeText(String text) {
+        if (documentCount == 0) {
+            return;
+        }
+        for (String word : extractWords(text)) {
+            docFrequency.computeIfPresent(word, (k, df) -> df > 1 ? df - 1 : null);
+        }
+        documentCount--;
+    }
+    
+    /**
+     * 平滑化的IDF，避免IDF为0
+     */
+    private double idf(String word) {
+        Integer docFreq = docFrequency.get(word);
+        if (docFreq == null) {
+            return 1.0;
+        }
+        return Math.log((double) (documentCount + 1) / (docFreq + 1)) + 1.0;
+    }
+    
     /**
      * 编码文本为向量
      * 
@@ -90,7 +130,22 @@ public class SimpleEmbedding {
      * @return 向量表示
      */
     public List<Double> encode(String text) {
-        List<Double> vector = new ArrayList<>(Collections.nCopies(dimension, 0.0));
+        float[] vector = encodeVector(text);
+        List<Double> result = new ArrayList<>(vector.length);
+        for (float value : vector) {
+            result.add((double) value);
+        }
+        return result;
+    }
+    
+    /**
+     * 编码文本为连续存储的向量（L2归一化）
+     * 
+     * @param text 输入文本
+     * @return 向量表示
+     */
+    public float[] encodeVector(String text) {
+        float[] vector = new float[dimension];
         
         if (!isTrained || vocabulary.isEmpty()) {
             return vector;
@@ -114,26 +169,42 @@ public class SimpleEmbedding {
             String word = entry.getKey();
             int count = entry.getValue();
             
-            if (vocabulary.containsKey(word)) {
-                int wordIndex = vocabulary.get(word) % dimension;
+            Integer vocabIndex = vocabulary.get(word);
+            if (vocabIndex != null) {
+                int wordIndex = vocabIndex % dimension;
                 
                 // 计算TF-IDF值
                 double tf = (double) count / totalWords;
-                double idfValue = idf.getOrDefault(word, 1.0);
-                double tfidf = tf * idfValue;
+                double idfValue = idf(word);
                 
                 // 累加到对应维度
-                vector.set(wordIndex, vector.get(wordIndex) + tfidf);
+                vector[wordIndex] += (float) (tf * idfValue);
             } else {
                 // 处理未知词汇：使用一个固定的缺省值和随机维度
-                int unknownIndex = Math.abs(word.hashCode()) % dimension;
-                double unknownValue = 0.1; // 给未知词一个小的值
-                vector.set(unknownIndex, vector.get(unknownIndex) + unknownValue);
+                int unknownIndex = Math.abs(word.hashCode() % dimension);
+                vector[unknownIndex] += 0.1f; // 给未知词一个小的值
             }
         }
         
         // L2归一化
-        return normalize(vector);
+        normalize(vector);
+        return vector;
+    }
+    
+    /**
+     * 特征哈希编码（L2归一化）
+     * 不依赖词汇表和训练状态，同一文本始终得到相同向量，适合需要持久化的嵌入
+     * 
+     * @param text 输入文本
+     * @return 向量表示
+     */
+    public float[] encodeHashed(String text) {
+        float[] vector = new float[dimension];
+        for (String word : extractWords(text)) {
+            vector[Math.floorMod(word.hashCode(), dimension)] += 1.0f;
+        }
+        normalize(vector);
+        return vector;
     }
     
     /**
@@ -168,6 +239,25 @@ public class SimpleEmbedding {
         return dotProduct / (Math.sqrt(norm1) * Math.sqrt(norm2));
     }
     
+    /**
+     * 计算两个向量的余弦相似度
+     * 
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 相似度值 (0-1)
+     */
+    public double similarity(float[] vec1, float[] vec2) {
+        if (vec1 == null || vec2 == null || vec1.length != vec2.length) {
+            return 0.0;
+        }
+        double norm1 = dot(vec1, 0, vec1, vec1.length);
+        double norm2 = dot(vec2, 0, vec2, vec2.length);
+        if (norm1 == 0.0 || norm2 == 0.0) {
+            return 0.0;
+        }
+        return dot(vec1, 0, vec2, vec1.length) / (Math.sqrt(norm1) * Math.sqrt(norm2));
+    }
+    
     /**
      * 计算文本相似度
      * 
@@ -176,9 +266,7 @@ public class SimpleEmbedding {
      * @return 相似度值 (0-1)
      */
     public double textSimilarity(String text1, String text2) {
-        List<Double> vec1 = encode(text1);
-        List<Double> vec2 = encode(text2);
-        return similarity(vec1, vec2);
+        return similarity(encodeVector(text1), encodeVector(text2));
     }
     
     /**
@@ -193,6 +281,20 @@ public class SimpleEmbedding {
                 .collect(Collectors.toList());
     }
     
+    /**
+     * 批量编码文本为按行连续存储的矩阵
+     * 
+     * @param texts 文本列表
+     * @return 形状为 (texts.size(), dimension) 的行优先矩阵
+     */
+    public float[] batchEncodeMatrix(List<String> texts) {
+        float[] matrix = new float[texts.size() * dimension];
+        for (int i = 0; i < texts.size(); i++) {
+            System.arraycopy(encodeVector(texts.get(i)), 0, matrix, i * dimension, dimension);
+        }
+        return matrix;
+    }
+    
     /**
      * 在文本集合中查找最相似的文本
      * 
@@ -202,25 +304,100 @@ public class SimpleEmbedding {
      * @return 相似度排序的结果
      */
     public List<SimilarityResult> findMostSimilar(String query, List<String> candidates, int topK) {
-        List<Double> queryVector = encode(query);
+        float[] queryVector = encodeVector(query);
+        float[] matrix = batchEncodeMatrix(candidates);
         
-        List<SimilarityResult> results = new ArrayList<>();
+        // 向量均已归一化，点积即余弦相似度
+        float[] scores = new float[candidates.size()];
+        batchDot(matrix, candidates.size(), dimension, queryVector, scores);
         
-        for (int i = 0; i < candidates.size(); i++) {
-            String candidate = candidates.get(i);
-            List<Double> candidateVector = encode(candidate);
-            double similarity = similarity(queryVector, candidateVector);
-            
-            results.add(new SimilarityResult(i, candidate, similarity));
+        List<SimilarityResult> results = new ArrayList<>();
+        for (int i : topK(scores, scores.length, topK)) {
+            results.add(new SimilarityResult(i, candidates.get(i), scores[i]));
+        }
+        return results;
+    }
+    
+    /**
+     * 批量点积：一次遍历计算按行连续存储的矩阵与查询向量的点积
+     * 
+     * @param matrix 行优先存储的矩阵，形状 (rows, dim)
+     * @param rows 行数
+     * @param dim 维度
+     * @param query 查询向量
+     * @param out 输出，长度至少为rows
+     */
+    public static void batchDot(float[] matrix, int rows, int dim, float[] query, float[] out) {
+        for (int r = 0; r < rows; r++) {
+            out[r] = (float) dot(matrix, r * dim, query, dim);
         }
-        
-        // 按相似度降序排序
-        results.sort((a, b) -> Double.compare(b.getSimilarity(), a.getSimilarity()));
-        
-        // 返回前topK个结果
-        return results.stream()
-                .limit(topK)
-                .collect(Collectors.toList());
+    }
+    
+    /**
+     * 有界小顶堆选出分数最高的k个下标，代替整体排序
+     * 
+     * @param scores 分数
+     * @param count 有效分数个数
+     * @param k 返回数量
+     * @return 按分数降序排列的下标
+     */
+    public static int[] topK(float[] scores, int count, int k) {
+        int size = Math.max(0, Math.min(k, count));
+        if (size == 0) {
+            return new int[0];
+        }
+        // 堆顶为当前入选者中最差的（分数最低，同分时下标最大），同分保留靠前的
+        PriorityQueue<Integer> heap = new PriorityQueue<>(size, (a, b) -> {
+            int cmp = Float.compare(scores[a], scores[b]);
+            return cmp != 0 ? cmp : Integer.compare(b, a);
+        });
+        for (int i = 0; i < count; i++) {
+            if (heap.size() < size) {
+                heap.add(i);
+            } else if (scores[i] > scores[heap.peek()]) {
+                heap.poll();
+                heap.add(i);
+            }
+        }
+        int[] result = new int[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            result[i] = heap.poll();
+        }
+        return result;
+    }
+    
+    /**
+     * 计算矩阵中一行的L2范数
+     * 
+     * @param matrix 行优先存储的矩阵
+     * @param offset 行起始位置
+     * @param dim 维度
+     * @return L2范数
+     */
+    public static double l2Norm(float[] matrix, int offset, int dim) {
+        double sum = 0.0;
+        for (int i = offset; i < offset + dim; i++) {
+            sum += (double) matrix[i] * matrix[i];
+        }
+        return Math.sqrt(sum);
+    }
+    
+    /**
+     * 四路展开、独立累加的点积
+     */
+    private static double dot(float[] a, int offset, float[] b, int length) {
+        float s0 = 0.0f, s1 = 0.0f, s2 = 0.0f, s3 = 0.0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[offset + i] * b[i];
+            s1 += a[offset + i + 1] * b[i + 1];
+            s2 += a[offset + i + 2] * b[i + 2];
+            s3 += a[offset + i + 3] * b[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[offset + i] * b[i];
+        }
+        return (double) s0 + s1 + s2 + s3;
     }
     
     /**
@@ -270,22 +447,18 @@ public class SimpleEmbedding {
     }
     
     /**
-     * L2归一化向量
+     * 原地L2归一化向量
      */
-    private List<Double> normalize(List<Double> vector) {
-        double normSquared = 0.0;
-        for (double value : vector) {
-            normSquared += value * value;
-        }
-        
+    private void normalize(float[] vector) {
+        double normSquared = dot(vector, 0, vector, vector.length);
         if (normSquared == 0.0) {
-            return vector;
+            return;
         }
         
-        final double norm = Math.sqrt(normSquared);
-        return vector.stream()
-                .map(value -> value / norm)
-                .collect(Collectors.toList());
+        float inv = (float) (1.0 / Math.sqrt(normSquared));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= inv;
+        }
     }
     
     // Getter 方法
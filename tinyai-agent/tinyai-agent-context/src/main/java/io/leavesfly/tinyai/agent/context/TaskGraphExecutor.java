@@ -0,0 +1,457 @@
+package io.leavesfly.tinyai.agent.context;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 任务依赖图执行器
+ * 依赖全部完成的任务进入就绪队列，按加入顺序提交到有界线程池并行执行，
+ * 依赖任务的结果作为参数传给后继任务；每个任务有独立的超时，
+ * 任务失败（或超时）时取消正在执行和尚未开始的任务（fail-fast），
+ * 或只取消依赖它的任务。执行报告给出墙钟时间、任务累计时间与关键路径。
+ * 线程池在第一次执行时创建，用完后应调用 {@link #shutdown()} 释放
+ *
+ * @author 山泽
+ */
+public class TaskGraphExecutor {
+
+    private static final AtomicInteger POOL_SEQUENCE = new AtomicInteger();
+
+    /**
+     * 任务体
+     * @param <R> 任务结果类型
+     */
+    public interface TaskBody<R> {
+        /**
+         * @param dependencyResults 依赖任务ID -> 结果
+         */
+        R run(Map<String, R> dependencyResults) throws Exception;
+    }
+
+    /**
+     * 任务依赖图
+     */
+    public static class Graph<R> {
+        private final Map<String, List<String>> dependencies = new LinkedHashMap<>();
+        private final Map<String, TaskBody<R>> bodies = new HashMap<>();
+
+        public Graph<R> add(String id, Collection<String> dependsOn, TaskBody<R> body) {
+            if (id == null || body == null) {
+                throw new IllegalArgumentException("任务ID和任务体不能为null");
+            }
+            if (bodies.containsKey(id)) {
+                throw new IllegalArgumentException("任务ID重复: " + id);
+            }
+            dependencies.put(id, dependsOn == null ? new ArrayList<>() : new ArrayList<>(dependsOn));
+            bodies.put(id, body);
+            return this;
+        }
+
+        public int size() {
+            return bodies.size();
+        }
+
+        /**
+         * 校验依赖并返回拓扑顺序（同层保持加入顺序）
+         */
+        List<String> topologicalOrder() {
+            Map<String, Integer> inDegree = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> entry : dependencies.entrySet()) {
+                for (String dependency : entry.getValue()) {
+                    if (!bodies.containsKey(dependency)) {
+                        throw new IllegalArgumentException("任务 " + entry.getKey() + " 依赖不存在的任务: " + dependency);
+                    }
+                }
+                inDegree.put(entry.getKey(), new HashSet<>(entry.getValue()).size());
+            }
+            Map<String, List<String>> dependants = dependants();
+            Deque<String> queue = new ArrayDeque<>();
+            inDegree.forEach((id, degree) -> {
+                if (degree == 0) {
+                    queue.add(id);
+                }
+            });
+            List<String> order = new ArrayList<>(inDegree.size());
+            while (!queue.isEmpty()) {
+                String id = queue.poll();
+                order.add(id);
+                for (String dependant : dependants.get(id)) {
+                    if (inDegree.merge(dependant, -1, Integer::sum) == 0) {
+                        queue.add(dependant);
+                    }
+                }
+            }
+            if (order.size() != inDegree.size()) {
+                throw new IllegalArgumentException("任务依赖存在环");
+            }
+            return order;
+        }
+
+        Map<String, List<String>> dependants() {
+            Map<String, List<String>> dependants = new LinkedHashMap<>();
+            for (String id : dependencies.keySet()) {
+                dependants.put(id, new ArrayList<>());
+            }
+            for (Map.Entry<String, List<String>> entry : dependencies.entrySet()) {
+                for (String dependency : new LinkedHashSet<>(entry.getValue())) {
+                    dependants.get(dependency).add(entry.getKey());
+                }
+            }
+            return dependants;
+        }
+    }
+
+    /**
+     * 执行报告
+     */
+    public static class Report<R> {
+        private final List<String> order;
+        private final Map<String, R> results = new LinkedHashMap<>();
+        private final Map<String, Throwable> errors = new LinkedHashMap<>();
+        private final Set<String> cancelled = new LinkedHashSet<>();
+        private final Map<String, Long> durationNanos = new HashMap<>();
+        private long wallNanos;
+        private long criticalPathNanos;
+        private List<String> criticalPath = new ArrayList<>();
+
+        Report(List<String> order) {
+            this.order = order;
+        }
+
+        public boolean isSuccessful() {
+            return errors.isEmpty() && cancelled.isEmpty();
+        }
+
+        public boolean isCompleted(String id) {
+            return results.containsKey(id);
+        }
+
+        public R getResult(String id) {
+            return results.get(id);
+        }
+
+        /**
+         * 已完成任务的结果（按拓扑顺序）
+         */
+        public Map<String, R> getResults() {
+            Map<String, R> ordered = new LinkedHashMap<>();
+            for (String id : order) {
+                if (results.containsKey(id)) {
+                    ordered.put(id, results.get(id));
+                }
+            }
+            return ordered;
+        }
+
+        /**
+         * 失败或超时的任务及其异常
+         */
+        public Map<String, Throwable> getErrors() {
+            return new LinkedHashMap<>(errors);
+        }
+
+        /**
+         * 因其他任务失败而被取消的任务
+         */
+        public Set<String> getCancelled() {
+            return new LinkedHashSet<>(cancelled);
+        }
+
+        public double getDurationMillis(String id) {
+            return durationNanos.getOrDefault(id, 0L) / 1e6;
+        }
+
+        public double getWallMillis() {
+            return wallNanos / 1e6;
+        }
+
+        /**
+         * 各任务执行时间之和（顺序执行所需的时间）
+         */
+        public double getTotalTaskMillis() {
+            return durationNanos.values().stream().mapToLong(Long::longValue).sum() / 1e6;
+        }
+
+        /**
+         * 关键路径时间：已完成任务中耗时最长的依赖链
+         */
+        public double getCriticalPathMillis() {
+            return criticalPathNanos / 1e6;
+        }
+
+        public List<String> getCriticalPath() {
+            return new ArrayList<>(criticalPath);
+        }
+
+        public Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("tasks", order.size());
+            stats.put("completed", results.size());
+            stats.put("failed", errors.size());
+            stats.put("cancelled", cancelled.size());
+            stats.put("wall_time_ms", getWallMillis());
+            stats.put("total_task_time_ms", getTotalTaskMillis());
+            stats.put("critical_path_ms", getCriticalPathMillis());
+            stats.put("critical_path", getCriticalPath());
+            return stats;
+        }
+    }
+
+    private static final class Outcome<R> {
+        final R value;
+        final Throwable error;
+        final long startNanos;
+        final long endNanos;
+
+        Outcome(R value, Throwable error, long startNanos, long endNanos) {
+            this.value = value;
+            this.error = error;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+        }
+    }
+
+    private final int parallelism;
+    private final long taskTimeoutMillis;
+    private final boolean failFast;
+    private ExecutorService pool;         // 第一次执行时创建
+    private boolean shutdown;
+
+    public TaskGraphExecutor() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()), 30_000, true);
+    }
+
+    /**
+     * @param parallelism 最大并行任务数
+     * @param taskTimeoutMillis 单个任务的超时时间（毫秒，从任务开始执行算起），不大于0表示不限时
+     * @param failFast 任务失败时是否取消所有未完成的任务；否则只取消依赖它的任务
+     */
+    public TaskGraphExecutor(int parallelism, long taskTimeoutMillis, boolean failFast) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("并行度必须为正数: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.taskTimeoutMillis = taskTimeoutMillis;
+        this.failFast = failFast;
+    }
+
+    /**
+     * 获取线程池，首次调用时创建；线程按 "task-graph-池序号-线程序号" 命名
+     */
+    private synchronized ExecutorService pool() {
+        if (shutdown) {
+            throw new IllegalStateException("TaskGraphExecutor已关闭");
+        }
+        if (pool == null) {
+            int poolId = POOL_SEQUENCE.incrementAndGet();
+            AtomicInteger threadIndex = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(parallelism, r -> {
+                Thread thread = new Thread(r, "task-graph-" + poolId + "-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * 执行任务图，阻塞直到所有任务完成、失败或被取消
+     */
+    public <R> Report<R> execute(Graph<R> graph) {
+        List<String> order = graph.topologicalOrder();
+        Map<String, List<String>> dependants = graph.dependants();
+        Report<R> report = new Report<>(order);
+
+        Map<String, Integer> remaining = new HashMap<>();
+        Deque<String> ready = new ArrayDeque<>();
+        for (String id : graph.dependencies.keySet()) {
+            int degree = new HashSet<>(graph.dependencies.get(id)).size();
+            remaining.put(id, degree);
+            if (degree == 0) {
+                ready.add(id);
+            }
+        }
+
+        CompletionService<Outcome<R>> completion = new ExecutorCompletionService<>(pool());
+        Map<Future<Outcome<R>>, String> running = new HashMap<>();
+        // 任务真正开始执行的时间，由任务线程写入；超时从开始执行算起，排队等待线程的时间不计入
+        Map<String, Long> startNanos = new ConcurrentHashMap<>();
+        Set<String> blocked = new HashSet<>();
+        long timeoutNanos = taskTimeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(taskTimeoutMillis) : Long.MAX_VALUE;
+        long begin = System.nanoTime();
+        boolean stopping = false;
+
+        try {
+            while (!running.isEmpty() || (!stopping && !ready.isEmpty())) {
+                // 提交就绪任务，正在执行的任务数不超过并行度
+                while (!stopping && running.size() < parallelism && !ready.isEmpty()) {
+                    String id = ready.poll();
+                    if (blocked.contains(id)) {
+                        continue;
+                    }
+                    Map<String, R> inputs = new LinkedHashMap<>();
+                    for (String dependency : graph.dependencies.get(id)) {
+                        inputs.put(dependency, report.results.get(dependency));
+                    }
+                    TaskBody<R> body = graph.bodies.get(id);
+                    Future<Outcome<R>> future = completion.submit(() -> {
+                        long start = System.nanoTime();
+                        startNanos.put(id, start);
+                        try {
+                            R value = body.run(inputs);
+                            return new Outcome<>(value, null, start, System.nanoTime());
+                        } catch (Exception e) {
+                            return new Outcome<>(null, e, start, System.nanoTime());
+                        }
+                    });
+                    running.put(future, id);
+                }
+                if (running.isEmpty()) {
+                    continue;
+                }
+
+                // 尚未开始的任务，截止时间不早于"现在 + 超时"，到时重新计算
+                long nearest = Long.MAX_VALUE;
+                if (timeoutNanos != Long.MAX_VALUE) {
+                    long now = System.nanoTime();
+                    for (String id : running.values()) {
+                        nearest = Math.min(nearest, startNanos.getOrDefault(id, now) + timeoutNanos);
+                    }
+                }
+                Future<Outcome<R>> done = nearest == Long.MAX_VALUE
+                        ? completion.take()
+                        : completion.poll(Math.max(0, nearest - System.nanoTime()), TimeUnit.NANOSECONDS);
+
+                if (done == null) {
+                    // 已开始且超时的任务按失败处理
+                    long now = System.nanoTime();
+                    for (Map.Entry<Future<Outcome<R>>, String> entry : new ArrayList<>(running.entrySet())) {
+                        Long start = startNanos.get(entry.getValue());
+                        if (start != null && start + timeoutNanos <= now) {
+                            String id = running.remove(entry.getKey());
+                            entry.getKey().cancel(true);
+                            report.durationNanos.put(id, now - start);
+                            report.errors.put(id, new TimeoutException("任务超时: " + id));
+                            stopping |= onFailure(id, dependants, blocked, running, report);
+                        }
+                    }
+                    continue;
+                }
+
+                String id = running.remove(done);
+                if (id == null || done.isCancelled()) {
+                    continue;   // 已按超时或取消处理
+                }
+                Outcome<R> outcome = done.get();
+                report.durationNanos.put(id, outcome.endNanos - outcome.startNanos);
+                if (outcome.error != null) {
+                    report.errors.put(id, outcome.error);
+                    stopping |= onFailure(id, dependants, blocked, running, report);
+                    continue;
+                }
+                report.results.put(id, outcome.value);
+                for (String dependant : dependants.get(id)) {
+                    if (remaining.merge(dependant, -1, Integer::sum) == 0 && !blocked.contains(dependant)) {
+                        ready.add(dependant);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelRunning(running, report);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // 任务体的异常已在Outcome中捕获，这里只可能是执行器内部错误
+            throw new IllegalStateException("任务执行器异常", e.getCause());
+        }
+
+        // 未执行的任务记为取消
+        for (String id : order) {
+            if (!report.results.containsKey(id) && !report.errors.containsKey(id)) {
+                report.cancelled.add(id);
+            }
+        }
+        report.wallNanos = System.nanoTime() - begin;
+        computeCriticalPath(graph, order, report);
+        return report;
+    }
+
+    /**
+     * 处理任务失败，返回是否停止提交新任务
+     */
+    private <R> boolean onFailure(String failed, Map<String, List<String>> dependants, Set<String> blocked,
+                                  Map<Future<Outcome<R>>, String> running, Report<R> report) {
+        if (failFast) {
+            cancelRunning(running, report);
+            return true;
+        }
+        // 只阻断依赖失败任务的后继
+        Deque<String> queue = new ArrayDeque<>(dependants.get(failed));
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (blocked.add(id)) {
+                queue.addAll(dependants.get(id));
+            }
+        }
+        return false;
+    }
+
+    private <R> void cancelRunning(Map<Future<Outcome<R>>, String> running, Report<R> report) {
+        for (Map.Entry<Future<Outcome<R>>, String> entry : running.entrySet()) {
+            entry.getKey().cancel(true);
+            report.cancelled.add(entry.getValue());
+        }
+        running.clear();
+    }
+
+    /**
+     * 关键路径：按拓扑顺序累加已完成任务的执行时间，取最长的依赖链
+     */
+    private static <R> void computeCriticalPath(Graph<R> graph, List<String> order, Report<R> report) {
+        Map<String, Long> finish = new HashMap<>();
+        Map<String, String> previous = new HashMap<>();
+        String last = null;
+        for (String id : order) {
+            if (!report.results.containsKey(id)) {
+                continue;
+            }
+            long longest = 0;
+            for (String dependency : graph.dependencies.get(id)) {
+                Long value = finish.get(dependency);
+                if (value != null && value > longest) {
+                    longest = value;
+                    previous.put(id, dependency);
+                }
+            }
+            long total = longest + report.durationNanos.getOrDefault(id, 0L);
+            finish.put(id, total);
+            if (last == null || total > finish.get(last)) {
+                last = id;
+            }
+        }
+        LinkedList<String> path = new LinkedList<>();
+        for (String id = last; id != null; id = previous.get(id)) {
+            path.addFirst(id);
+        }
+        report.criticalPath = path;
+        report.criticalPathNanos = last == null ? 0 : finish.get(last);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public long getTaskTimeoutMillis() {
+        return taskTimeoutMillis;
+    }
+
+    /**
+     * 关闭线程池（重复关闭无效），之后不能再执行任务图
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -65,6 +65,7 @@ public class AgentDemo {
         System.out.println("\n📊 最终统计信息:");
         Map<String, Object> finalStats = agent.getStats();
         finalStats.forEach((key, value) -> System.out.println("  " + key + ": " + value));
+        agent.close();
         
         System.out.println("\n👋 演示结束！");
     }
@@ -275,6 +276,7 @@ public class AgentDemo {
             }
         }
         
+        agent.close();
         scanner.close();
     }
     
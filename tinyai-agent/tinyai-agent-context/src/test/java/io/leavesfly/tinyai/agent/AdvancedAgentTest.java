@@ -1,6 +1,8 @@
 package io.leavesfly.tinyai.agent;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import io.leavesfly.tinyai.agent.context.AdvancedAgent;
 import io.leavesfly.tinyai.agent.context.ContextEngine;
@@ -8,14 +10,17 @@ import io.leavesfly.tinyai.agent.context.LLMSimulator;
 import io.leavesfly.tinyai.agent.context.Memory;
 import io.leavesfly.tinyai.agent.context.MemoryManager;
 import io.leavesfly.tinyai.agent.context.Message;
+import io.leavesfly.tinyai.agent.context.QueryCache;
 import io.leavesfly.tinyai.agent.context.RAGSystem;
 import io.leavesfly.tinyai.agent.context.RetrievalResult;
+import io.leavesfly.tinyai.agent.context.TaskGraphExecutor;
 import io.leavesfly.tinyai.agent.context.ToolCall;
 import io.leavesfly.tinyai.agent.context.ToolRegistry;
 
 import static org.junit.Assert.*;
 
 import java.util.*;
+import java.util.concurrent.TimeoutException;
 
 /**
  * AdvancedAgent 单元测试
@@ -24,6 +29,9 @@ import java.util.*;
  */
 public class AdvancedAgentTest {
     
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
     @Test
     public void testAgentCreation() {
         AdvancedAgent agent = new AdvancedAgent("测试助手");
@@ -88,6 +96,78 @@ public class AdvancedAgentTest {
         assertEquals("记忆类型应匹配", "working", memory.getMemoryType());
     }
     
+    @Test
+    public void testIndexedMemoryRetrieval() {
+        MemoryManager memoryManager = new MemoryManager();
+        for (int i = 0; i < 15; i++) {
+            memoryManager.addMemory("第" + i + "条工作记忆", "working", 0.5);
+        }
+        memoryManager.addMemory("用户喜欢机器学习", "episodic", 0.8);
+        memoryManager.addMemory("Java is a programming language", "semantic", 0.6);
+        
+        // 工作记忆被淘汰的条目不再被检索到
+        assertTrue("被淘汰的记忆不应被检索到", memoryManager.retrieveMemories("第0条", 5).isEmpty());
+        assertEquals("中文子串应能命中", 1, memoryManager.retrieveMemories("第14条", 5).size());
+        
+        // 记忆类型过滤
+        assertTrue(memoryManager.retrieveMemories("机器学习", "working", 5).isEmpty());
+        assertEquals(1, memoryManager.retrieveMemories("机器学习", "episodic", 5).size());
+        assertEquals("词汇重叠应能命中", 1, memoryManager.retrieveMemories("python language", "semantic", 5).size());
+        
+        // 嵌入相似度检索
+        List<Memory> similar = memoryManager.retrieveSimilarMemories("programming language java", null, 3);
+        assertEquals("Java is a programming language", similar.get(0).getContent());
+        assertEquals(128, similar.get(0).getEmbedding().size());
+        
+        assertTrue(memoryManager.deleteMemory(similar.get(0).getId()));
+        assertTrue(memoryManager.retrieveMemories("language", 5).isEmpty());
+        memoryManager.close();
+    }
+    
+    @Test
+    public void testMemoryWriteBehindPersistence() throws Exception {
+        String dbPath = folder.newFile("memory.db").getAbsolutePath();
+        MemoryManager memoryManager = new MemoryManager(dbPath, 60_000);
+        String id = memoryManager.addMemory("用户偏好深色主题", "semantic", 0.9);
+        memoryManager.addMemory("上午讨论了数据库设计", "episodic", 0.5);
+        for (int i = 0; i < 3; i++) {
+            memoryManager.retrieveMemories("深色主题", 5);
+        }
+        // 同一记忆的多次更新合并为一条待写记录
+        assertEquals(2, memoryManager.getPendingWriteCount());
+        memoryManager.flush();
+        assertEquals(0, memoryManager.getPendingWriteCount());
+        memoryManager.close();
+        
+        // 重新打开：记忆、访问计数与嵌入从数据库加载
+        MemoryManager reopened = new MemoryManager(dbPath, 60_000);
+        assertEquals(0, reopened.getPendingWriteCount());
+        assertEquals(2, reopened.getMemoryStats().get("total_memories"));
+        List<Memory> memories = reopened.retrieveSimilarMemories("深色主题", "semantic", 1);
+        assertEquals(id, memories.get(0).getId());
+        assertEquals(4, memories.get(0).getAccessCount());
+        assertEquals(128, memories.get(0).getEmbedding().size());
+        reopened.close();
+    }
+    
+    @Test
+    public void testAgentCloseReleasesMemoryManager() {
+        AdvancedAgent agent = new AdvancedAgent("测试助手");
+        agent.processMessage("你好");
+        MemoryManager memoryManager = agent.getMemoryManager();
+        agent.close();
+        agent.close();
+        assertTrue(memoryManager.isClosed());
+        
+        // 关闭后写入给出明确的状态错误
+        try {
+            memoryManager.addMemory("关闭后写入", "episodic", 0.5);
+            fail("关闭后写入应抛出IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("已关闭"));
+        }
+    }
+    
     @Test
     public void testRAGSystem() {
         AdvancedAgent agent = new AdvancedAgent("测试助手");
@@ -107,6 +187,118 @@ public class AdvancedAgentTest {
         assertTrue("相似度应大于0", firstResult.getSimilarity() > 0);
     }
     
+    @Test
+    public void testHybridRetrievalCache() {
+        RAGSystem ragSystem = new RAGSystem();
+        ragSystem.addDocument("doc1", "人工智能是计算机科学的一个分支");
+        ragSystem.addDocument("doc2", "机器学习是人工智能的子领域");
+        ragSystem.addDocument("doc3", "数据库用于存储数据");
+        
+        List<RetrievalResult> results = ragSystem.hybridRetrieve("机器学习", 2);
+        assertEquals("融合结果应以关键词与向量都命中的文档为首", "doc2", results.get(0).getDocument().getId());
+        
+        // 重复提问命中缓存
+        String context = ragSystem.getContext("机器学习");
+        assertEquals(context, ragSystem.getContext("机器学习"));
+        assertEquals(1, ragSystem.getQueryCache().getHitCount());
+        
+        // 文档变更后缓存失效
+        ragSystem.deleteDocument("doc2");
+        assertFalse("删除后上下文不应包含该文档", ragSystem.getContext("机器学习").contains("doc2"));
+        assertEquals(1, ragSystem.getQueryCache().getHitCount());
+    }
+    
+    @Test
+    public void testQueryCacheLruAndTtl() throws InterruptedException {
+        QueryCache<String> cache = new QueryCache<>(2, 60_000);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        cache.put("c", "C");
+        assertNull("最久未使用的条目应被淘汰", cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        
+        // 失效前开始的检索结果不写入
+        long generation = cache.getGeneration();
+        cache.invalidateAll();
+        cache.put("d", "D", generation);
+        assertNull(cache.get("d"));
+        
+        QueryCache<String> shortLived = new QueryCache<>(10, 20);
+        shortLived.put("a", "A");
+        Thread.sleep(50);
+        assertNull("过期条目应失效", shortLived.get("a"));
+    }
+    
+    @Test
+    public void testTaskGraphParallelExecution() {
+        TaskGraphExecutor executor = new TaskGraphExecutor(4, 5000, true);
+        TaskGraphExecutor.Graph<Integer> graph = new TaskGraphExecutor.Graph<Integer>()
+                .add("a", null, deps -> sleepAndReturn(200, 1))
+                .add("b", null, deps -> sleepAndReturn(200, 2))
+                .add("c", null, deps -> sleepAndReturn(50, 3))
+                .add("sum", Arrays.asList("a", "b", "c"),
+                        deps -> deps.values().stream().mapToInt(Integer::intValue).sum());
+        
+        TaskGraphExecutor.Report<Integer> report = executor.execute(graph);
+        assertTrue(report.isSuccessful());
+        assertEquals(Integer.valueOf(6), report.getResult("sum"));
+        // 独立任务并行执行：墙钟时间接近最长的一条依赖链，而不是各任务之和
+        assertTrue(report.getWallMillis() < report.getTotalTaskMillis());
+        assertEquals("sum", report.getCriticalPath().get(report.getCriticalPath().size() - 1));
+        assertTrue(report.getCriticalPathMillis() >= 200);
+        
+        // 超时按失败处理，fail-fast 取消其余任务
+        TaskGraphExecutor.Graph<Integer> failing = new TaskGraphExecutor.Graph<Integer>()
+                .add("slow", null, deps -> sleepAndReturn(100, 1))
+                .add("stuck", null, deps -> sleepAndReturn(10_000, 2))
+                .add("after", Collections.singletonList("slow"), deps -> 3);
+        TaskGraphExecutor.Report<Integer> failed = new TaskGraphExecutor(4, 300, true).execute(failing);
+        assertFalse(failed.isSuccessful());
+        assertTrue(failed.getErrors().containsKey("stuck"));
+        assertTrue(failed.getWallMillis() < 5000);
+        
+        try {
+            executor.execute(new TaskGraphExecutor.Graph<Integer>()
+                    .add("x", Collections.singletonList("y"), deps -> 1)
+                    .add("y", Collections.singletonList("x"), deps -> 2));
+            fail("依赖环应被拒绝");
+        } catch (IllegalArgumentException expected) {
+            // 预期异常
+        }
+        executor.shutdown();
+    }
+    
+    @Test
+    public void testTaskGraphTimeoutStartsWhenTaskRuns() {
+        // 单线程：超时的任务忽略中断继续占用线程，后续任务排队期间不计入它的超时
+        TaskGraphExecutor executor = new TaskGraphExecutor(1, 300, false);
+        TaskGraphExecutor.Report<Integer> report = executor.execute(new TaskGraphExecutor.Graph<Integer>()
+                .add("stuck", null, deps -> ignoreInterruptsFor(900, 1))
+                .add("next", null, deps -> 2));
+        executor.shutdown();
+        
+        assertTrue(report.getErrors().get("stuck") instanceof TimeoutException);
+        assertEquals(Integer.valueOf(2), report.getResult("next"));
+    }
+    
+    private static Integer ignoreInterruptsFor(long millis, int value) {
+        long end = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < end) {
+            try {
+                Thread.sleep(Math.max(1, end - System.currentTimeMillis()));
+            } catch (InterruptedException ignored) {
+                // 模拟不响应中断的任务
+            }
+        }
+        return value;
+    }
+    
+    private static Integer sleepAndReturn(long millis, int value) throws InterruptedException {
+        Thread.sleep(millis);
+        return value;
+    }
+    
     @Test
     public void testToolExecution() {
         AdvancedAgent agent = new AdvancedAgent("测试助手");
@@ -143,6 +335,39 @@ public class AdvancedAgentTest {
         assertTrue("上下文应包含当前查询", context.contains("当前查询"));
     }
     
+    @Test
+    public void testContextTokenBudgetAndPrefixReuse() {
+        ContextEngine contextEngine = new ContextEngine(100000, 80, ContextEngine::estimateTokens);
+        contextEngine.addSystemPrompt("你是一个助手");
+        for (int i = 0; i < 4; i++) {
+            contextEngine.addMessage(new Message("user", "第" + i + "个问题"));
+        }
+        
+        String first = contextEngine.buildContext("问题A", null, "文档内容", "calculator");
+        assertTrue(contextEngine.getLastContextTokens() <= 80);
+        assertTrue(first.startsWith("系统指令：\n你是一个助手\n\n可用工具：\ncalculator\n\n对话历史："));
+        assertTrue(first.endsWith("当前问题：问题A"));
+        
+        // 追加消息后系统指令、工具与已有历史构成的前缀保持不变
+        contextEngine.addMessage(new Message("assistant", "回答"));
+        String second = contextEngine.buildContext("问题B", null, "文档内容", "calculator");
+        assertTrue(second.startsWith(first.substring(0, first.indexOf("\n\n相关文档"))));
+        assertTrue(contextEngine.getLastReusedPrefixTokens() > 0);
+        
+        // 预算不足时先舍弃低优先级部分，较早的历史先于较新的历史被舍弃
+        StringBuilder longDoc = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            longDoc.append("很长的一段文档内容").append(i).append("\n");
+        }
+        String fitted = contextEngine.buildContext("问题C", null, longDoc.toString(), "calculator");
+        assertTrue(contextEngine.getLastContextTokens() <= 80);
+        assertTrue(fitted.contains("助手: 回答"));
+        assertFalse(fitted.contains("很长的一段文档内容9"));
+        
+        assertEquals(4, ContextEngine.estimateTokens("机器学习"));
+        assertEquals(5, ContextEngine.estimateTokens("hello world!"));
+    }
+    
     @Test
     public void testAgentStats() {
         AdvancedAgent agent = new AdvancedAgent("测试助手");
@@ -260,7 +260,9 @@ public abstract class BaseAgent {
     protected ToolCall callTool(String toolName, Map<String, Object> arguments) {
         this.lastActiveAt = LocalDateTime.now();
         ToolCall toolCall = toolRegistry.callTool(toolName, arguments);
-        toolCallHistory.add(toolCall);
+        synchronized (toolCallHistory) {   // 计划中的任务可能并行调用工具
+            toolCallHistory.add(toolCall);
+        }
         return toolCall;
     }
     
@@ -7,6 +7,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import io.leavesfly.tinyai.agent.context.Message;
+import io.leavesfly.tinyai.agent.context.TaskGraphExecutor;
 import io.leavesfly.tinyai.agent.context.ToolCall;
 
 /**
@@ -16,7 +17,7 @@ import io.leavesfly.tinyai.agent.context.ToolCall;
  * 
  * @author 山泽
  */
-public class Manus extends ToolCallAgent {
+public class Manus extends ToolCallAgent implements AutoCloseable {
     
     // 执行模式和配置
     private ExecutionMode executionMode;            // 当前执行模式
@@ -35,6 +36,9 @@ public class Manus extends ToolCallAgent {
     private int totalExecutedPlans;                // 执行的计划总数
     private int totalFlowExecutions;               // Flow执行总数
     
+    // 计划执行器：依赖就绪的任务并行执行，单任务30秒超时，任一任务失败即取消其余任务；线程在首次执行计划时创建，close()释放
+    private final TaskGraphExecutor planExecutor = new TaskGraphExecutor(4, 30_000, true);
+    
     /**
      * 构造函数
      */
@@ -287,9 +291,14 @@ public class Manus extends ToolCallAgent {
             
             // 简单的计划分解逻辑
             if (planningResponse.contains("工具") || planningResponse.contains("计算") || planningResponse.contains("查询")) {
-                plan.addTask("分析需求", "thinking");
-                plan.addTask("选择并执行工具", "action");
-                plan.addTask("整合结果", "thinking");
+                // 需求分析与工具调用互不依赖，可并行执行；整合结果依赖二者
+                Task analyze = new Task("分析需求", "thinking");
+                Task action = new Task("选择并执行工具", "action");
+                Task integrate = new Task("整合结果", "thinking").dependsOn(analyze, action);
+                plan.addTask(analyze);
+                plan.addTask(action);
+                plan.addTask(integrate);
+                plan.setAllowParallel(true);
             } else {
                 plan.addTask("理解任务", "thinking");
                 plan.addTask("执行操作", "action");
@@ -304,35 +313,52 @@ public class Manus extends ToolCallAgent {
     
     /**
      * 使用LLM执行计划
+     * 按任务依赖图执行：依赖已完成的任务并行执行，前置任务的结果传给后继任务
      */
     private String executePlanWithLLM(Plan plan, String originalQuery) {
         StringBuilder result = new StringBuilder();
         plan.start();
         
-        while (!plan.isCompleted() && !plan.isFailed()) {
-            Task nextTask = plan.getNextTask();
-            if (nextTask == null) break;
-            
-            result.append("执行任务：").append(nextTask.getDescription()).append("\n");
-            
-            try {
-                Object taskResult = executeTaskWithLLM(nextTask, originalQuery);
-                plan.completeCurrentTask(taskResult);
+        List<Task> tasks = plan.getTasks();
+        TaskGraphExecutor.Graph<Object> graph = new TaskGraphExecutor.Graph<>();
+        for (Task task : tasks) {
+            graph.add(task.getId(), plan.getEffectiveDependencies(task), dependencyResults -> {
+                task.start();
+                return executeTaskWithLLM(task, originalQuery, dependencyResults);
+            });
+        }
+        TaskGraphExecutor.Report<Object> report = planExecutor.execute(graph);
+        
+        // 按计划顺序汇总结果，被取消的任务不输出
+        for (Task task : tasks) {
+            if (report.isCompleted(task.getId())) {
+                Object taskResult = report.getResult(task.getId());
+                plan.completeTask(task, taskResult);
+                result.append("执行任务：").append(task.getDescription()).append("\n");
                 result.append("任务结果：").append(taskResult).append("\n\n");
-            } catch (Exception e) {
-                plan.failCurrentTask("任务执行失败：" + e.getMessage());
-                result.append("任务失败：").append(e.getMessage()).append("\n\n");
-                break;
+            }
+        }
+        for (Map.Entry<String, Throwable> error : report.getErrors().entrySet()) {
+            for (Task task : tasks) {
+                if (task.getId().equals(error.getKey())) {
+                    plan.failTask(task, "任务执行失败：" + error.getValue().getMessage());
+                    result.append("执行任务：").append(task.getDescription()).append("\n");
+                    result.append("任务失败：").append(error.getValue().getMessage()).append("\n\n");
+                }
             }
         }
         
+        plan.addMetadata("wall_time_ms", report.getWallMillis());
+        plan.addMetadata("total_task_time_ms", report.getTotalTaskMillis());
+        plan.addMetadata("critical_path_ms", report.getCriticalPathMillis());
+        
         return result.toString();
     }
     
     /**
      * 使用LLM执行任务
      */
-    private Object executeTaskWithLLM(Task task, String originalQuery) {
+    private Object executeTaskWithLLM(Task task, String originalQuery, Map<String, Object> dependencyResults) {
         String taskType = task.getType();
         String description = task.getDescription();
         
@@ -343,6 +369,9 @@ public class Manus extends ToolCallAgent {
         try {
             if ("thinking".equals(taskType)) {
                 String context = String.format("任务：%s\n原始查询：%s", description, originalQuery);
+                if (!dependencyResults.isEmpty()) {
+                    context += "\n前置任务结果：" + dependencyResults.values();
+                }
                 return generateLLMResponse("请进行思考分析", context);
             } else if ("action".equals(taskType)) {
                 // 对于行动任务，执行实际的工具调用
@@ -734,4 +763,12 @@ public class Manus extends ToolCallAgent {
     public Map<String, Object> getSystemMetrics() {
         return new HashMap<>(systemMetrics);
     }
+    
+    /**
+     * 释放计划执行线程池，之后不能再执行计划
+     */
+    @Override
+    public void close() {
+        planExecutor.shutdown();
+    }
 }
\ No newline at end of file
@@ -141,6 +141,40 @@ public class Plan {
         }
     }
     
+    /**
+     * 任务的实际依赖：声明了依赖时使用声明的依赖；
+     * 未声明时，顺序计划依赖前一个任务，并行计划视为无依赖
+     */
+    public List<String> getEffectiveDependencies(Task task) {
+        if (task.hasDependencies()) {
+            return task.getDependencies();
+        }
+        int index = tasks.indexOf(task);
+        if (!allowParallel && index > 0) {
+            return Collections.singletonList(tasks.get(index - 1).getId());
+        }
+        return new ArrayList<>();
+    }
+    
+    /**
+     * 标记指定任务完成（按依赖图执行时使用）
+     */
+    public void completeTask(Task task, Object result) {
+        task.complete(result);
+        if (!isFailed()) {
+            checkPlanCompletion();
+        }
+    }
+    
+    /**
+     * 标记指定任务失败，计划随之失败（按依赖图执行时使用）
+     */
+    public void failTask(Task task, String errorMessage) {
+        task.fail(errorMessage);
+        this.status = "failed";
+        this.completedAt = LocalDateTime.now();
+    }
+    
     /**
      * 检查计划是否完成
      */
@@ -198,6 +232,13 @@ public class Plan {
             stats.put("execution_time_ms", executionTime);
         }
         
+        // 按依赖图执行时记录的关键路径信息
+        for (String key : Arrays.asList("critical_path_ms", "total_task_time_ms", "wall_time_ms")) {
+            if (metadata.containsKey(key)) {
+                stats.put(key, metadata.get(key));
+            }
+        }
+        
         return stats;
     }
     
@@ -1,8 +1,11 @@
 package io.leavesfly.tinyai.agent.manus;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 任务类
@@ -12,6 +15,8 @@ import java.util.Map;
  */
 public class Task {
     
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong();
+    
     private String id;                          // 任务ID
     private String description;                 // 任务描述
     private String type;                        // 任务类型：thinking, action, observation
@@ -23,6 +28,7 @@ public class Task {
     private LocalDateTime startedAt;            // 开始时间
     private LocalDateTime completedAt;          // 完成时间
     private int priority;                       // 优先级
+    private List<String> dependencies;          // 依赖的任务ID
     
     /**
      * 构造函数
@@ -33,6 +39,7 @@ public class Task {
         this.parameters = new HashMap<>();
         this.createdAt = LocalDateTime.now();
         this.priority = 0;
+        this.dependencies = new ArrayList<>();
     }
     
     public Task(String description, String type) {
@@ -50,7 +57,7 @@ public class Task {
      * 生成任务ID
      */
     private String generateTaskId() {
-        return "task_" + System.currentTimeMillis() + "_" + (int)(Math.random() * 1000);
+        return "task_" + System.currentTimeMillis() + "_" + ID_SEQUENCE.incrementAndGet();
     }
     
     /**
@@ -196,6 +203,30 @@ public class Task {
         this.priority = priority;
     }
     
+    public List<String> getDependencies() {
+        return new ArrayList<>(dependencies);
+    }
+    
+    public void setDependencies(List<String> dependencies) {
+        this.dependencies = dependencies != null ? new ArrayList<>(dependencies) : new ArrayList<>();
+    }
+    
+    /**
+     * 声明依赖：依赖的任务完成后本任务才能执行，并可读取其结果
+     */
+    public Task dependsOn(Task... tasks) {
+        for (Task task : tasks) {
+            if (!dependencies.contains(task.getId())) {
+                dependencies.add(task.getId());
+            }
+        }
+        return this;
+    }
+    
+    public boolean hasDependencies() {
+        return !dependencies.isEmpty();
+    }
+    
     @Override
     public String toString() {
         return String.format("Task{id='%s', type='%s', status='%s', description='%s'}", 
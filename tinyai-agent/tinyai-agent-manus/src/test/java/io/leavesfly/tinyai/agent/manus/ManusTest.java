@@ -1,5 +1,6 @@
 package io.leavesfly.tinyai.agent.manus;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -25,6 +26,11 @@ public class ManusTest {
         manus = new Manus("TestManus");
     }
 
+    @After
+    public void tearDown() {
+        manus.close();
+    }
+
     @Test
     public void testBasicInitialization() {
         // 测试基本初始化
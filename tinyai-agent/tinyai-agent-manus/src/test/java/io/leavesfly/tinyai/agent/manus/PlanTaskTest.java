@@ -3,6 +3,8 @@ package io.leavesfly.tinyai.agent.manus;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -239,4 +241,33 @@ public class PlanTaskTest {
         assertNotNull(task2);
         assertNotEquals(task1.getId(), task2.getId());
     }
-}
\ No newline at end of file
+    
+    @Test
+    public void testPlanTaskDependencies() {
+        // 顺序计划中未声明依赖的任务依赖前一个任务
+        Task first = new Task("第一步", "thinking");
+        Task second = new Task("第二步", "action");
+        plan.addTask(first);
+        plan.addTask(second);
+        assertTrue(plan.getEffectiveDependencies(first).isEmpty());
+        assertEquals(Collections.singletonList(first.getId()), plan.getEffectiveDependencies(second));
+        
+        // 并行计划使用声明的依赖
+        Plan parallel = new Plan("并行计划", "目标");
+        parallel.setAllowParallel(true);
+        Task a = new Task("任务A", "action");
+        Task b = new Task("任务B", "action");
+        Task merge = new Task("合并", "thinking").dependsOn(a, b);
+        parallel.addTask(a);
+        parallel.addTask(b);
+        parallel.addTask(merge);
+        assertTrue(parallel.getEffectiveDependencies(b).isEmpty());
+        assertEquals(Arrays.asList(a.getId(), b.getId()), parallel.getEffectiveDependencies(merge));
+        
+        parallel.start();
+        parallel.completeTask(a, "A");
+        parallel.failTask(b, "失败");
+        parallel.completeTask(merge, "M");
+        assertTrue("任一任务失败计划即失败", parallel.isFailed());
+    }
+}
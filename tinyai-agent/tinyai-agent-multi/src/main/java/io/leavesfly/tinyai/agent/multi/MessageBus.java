@@ -1,53 +1,251 @@
 package io.leavesfly.tinyai.agent.multi;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
  * 消息总线系统
  * 负责Agent间的通信，支持点对点消息和广播消息
+ * 每个Agent拥有一个有界邮箱，邮箱按Agent ID固定分配到若干单线程分片上依次处理，
+ * 因此同一Agent收到的消息严格按发布顺序处理，不同Agent之间并行；
+ * 邮箱满时按溢出策略阻塞等待或丢弃消息。消息历史保存在无锁环形缓冲区中
  * 
  * @author 山泽
  */
 public class MessageBus {
     
-    // 订阅者管理：Agent ID -> 消息处理回调列表
-    private final Map<String, List<Consumer<AgentMessage>>> subscribers;
+    /**
+     * 邮箱满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞发布方直到有空位，超时后丢弃该消息；
+         * 由接收者所在分片的处理线程发布时不阻塞（否则分片会等待自己），邮箱满时暂存到溢出队列，
+         * 溢出队列与邮箱容量相同，也满时丢弃该消息
+         */
+        BLOCK,
+        /** 丢弃新到的消息 */
+        DROP_NEWEST,
+        /** 丢弃邮箱中最旧的消息 */
+        DROP_OLDEST
+    }
+    
+    private static final int DEFAULT_MAILBOX_CAPACITY = 1024;
+    private static final long BLOCK_TIMEOUT_MILLIS = 1000;   // 阻塞策略的最长等待时间
+    private static final int DRAIN_BATCH_SIZE = 64;          // 单次调度最多处理的消息数，避免一个Agent长期占用分片
+    
+    // 当前线程正在处理的分片（只在分片处理线程上有值）
+    private static final ThreadLocal<ExecutorService> CURRENT_SHARD = new ThreadLocal<>();
+    
+    /**
+     * 排队中的消息及其入队时间
+     */
+    private static final class Envelope {
+        final AgentMessage message;
+        final long enqueuedNanos;
+        
+        Envelope(AgentMessage message) {
+            this.message = message;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
+    
+    /**
+     * Agent邮箱：回调列表、有界队列与处理指标
+     */
+    private final class Mailbox {
+        final String agentId;
+        final List<Consumer<AgentMessage>> callbacks = new CopyOnWriteArrayList<>();
+        final BlockingQueue<Envelope> queue = new ArrayBlockingQueue<>(mailboxCapacity);
+        final BlockingQueue<Envelope> overflow = new LinkedBlockingQueue<>(mailboxCapacity);   // 分片自身发布、邮箱已满时的暂存
+        final ExecutorService shard;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final LongAdder delivered = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder totalLatencyNanos = new LongAdder();
+        final AtomicLong maxLatencyNanos = new AtomicLong();
+        
+        Mailbox(String agentId) {
+            this.agentId = agentId;
+            this.shard = shards[Math.floorMod(agentId.hashCode(), shards.length)];
+        }
+        
+        /**
+         * 投递消息到邮箱，返回是否入队
+         */
+        boolean offer(AgentMessage message) {
+            Envelope envelope = new Envelope(message);
+            boolean accepted;
+            switch (overflowPolicy) {
+                case DROP_NEWEST:
+                    accepted = queue.offer(envelope);
+                    break;
+                case DROP_OLDEST:
+                    accepted = queue.offer(envelope);
+                    while (!accepted) {
+                        if (queue.poll() != null) {
+                            dropped.increment();
+                            droppedMessages.increment();
+                        }
+                        accepted = queue.offer(envelope);
+                    }
+                    break;
+                default:
+                    if (CURRENT_SHARD.get() == shard) {
+                        // 分片处理线程向同一分片上的邮箱发布：阻塞会使分片等待自己，改为暂存，
+                        // 溢出队列非空时后续消息也进入溢出队列，保持发布顺序；溢出队列也满时丢弃
+                        accepted = (overflow.isEmpty() && queue.offer(envelope)) || overflow.offer(envelope);
+                        break;
+                    }
+                    try {
+                        accepted = queue.offer(envelope, BLOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        accepted = false;
+                    }
+            }
+            if (!accepted) {
+                dropped.increment();
+                droppedMessages.increment();
+                System.err.println("Agent " + agentId + " 的邮箱已满，消息被丢弃: " + message.getId());
+                return false;
+            }
+            schedule();
+            return true;
+        }
+        
+        /**
+         * 邮箱同一时刻只在分片上排一个处理任务，保证消息按顺序处理
+         */
+        void schedule() {
+            if ((!queue.isEmpty() || !overflow.isEmpty()) && scheduled.compareAndSet(false, true)) {
+                try {
+                    shard.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+        
+        void drain() {
+            CURRENT_SHARD.set(shard);
+            try {
+                // 关闭后不能再次调度，需一次处理完
+                for (int i = 0; i < DRAIN_BATCH_SIZE || shard.isShutdown(); i++) {
+                    Envelope envelope = queue.poll();
+                    if (envelope == null) {
+                        envelope = overflow.poll();
+                    }
+                    if (envelope == null) {
+                        break;
+                    }
+                    long latency = System.nanoTime() - envelope.enqueuedNanos;
+                    totalLatencyNanos.add(latency);
+                    maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                    deliver(envelope.message);
+                }
+            } finally {
+                CURRENT_SHARD.remove();
+                scheduled.set(false);
+                schedule();
+            }
+        }
+        
+        void deliver(AgentMessage message) {
+            for (Consumer<AgentMessage> callback : callbacks) {
+                try {
+                    callback.accept(message);
+                } catch (Exception e) {
+                    System.err.println("向Agent " + agentId + " 发送消息失败: " + e.getMessage());
+                }
+            }
+            delivered.increment();
+        }
+        
+        Map<String, Object> getStatistics() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long count = delivered.sum();
+            stats.put("queueDepth", queue.size() + overflow.size());
+            stats.put("delivered", count);
+            stats.put("dropped", dropped.sum());
+            stats.put("averageLatencyMillis", count == 0 ? 0.0 : totalLatencyNanos.sum() / 1e6 / count);
+            stats.put("maxLatencyMillis", maxLatencyNanos.get() / 1e6);
+            return stats;
+        }
+    }
+    
+    // 订阅者管理：Agent ID -> 邮箱
+    private final Map<String, Mailbox> mailboxes;
     
     // 消息历史记录
-    private final List<AgentMessage> messageHistory;
+    private volatile MessageRingBuffer messageHistory;
     
     // 最大历史记录数
     private final int maxHistory;
     
-    // 异步消息处理线程池
-    private final ExecutorService executorService;
+    // 分片执行器（每个分片单线程）与邮箱配置
+    private final ExecutorService[] shards;
+    private final int mailboxCapacity;
+    private final OverflowPolicy overflowPolicy;
     
     // 统计信息
-    private volatile long totalMessages = 0;
-    private volatile long broadcastMessages = 0;
-    private volatile long pointToPointMessages = 0;
+    private final LongAdder totalMessages = new LongAdder();
+    private final LongAdder broadcastMessages = new LongAdder();
+    private final LongAdder pointToPointMessages = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
     
     public MessageBus() {
         this(1000);
     }
     
     public MessageBus(int maxHistory) {
-        this.subscribers = new ConcurrentHashMap<>();
-        this.messageHistory = new CopyOnWriteArrayList<>();
+        this(maxHistory, Math.max(2, Runtime.getRuntime().availableProcessors()),
+                DEFAULT_MAILBOX_CAPACITY, OverflowPolicy.BLOCK);
+    }
+    
+    /**
+     * @param maxHistory 最大历史记录数
+     * @param shardCount 分片（处理线程）数
+     * @param mailboxCapacity 每个Agent邮箱的容量
+     * @param overflowPolicy 邮箱满时的处理策略
+     */
+    public MessageBus(int maxHistory, int shardCount, int mailboxCapacity, OverflowPolicy overflowPolicy) {
+        if (shardCount <= 0 || mailboxCapacity <= 0) {
+            throw new IllegalArgumentException("分片数与邮箱容量必须为正数");
+        }
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("溢出策略不能为null");
+        }
+        this.mailboxes = new ConcurrentHashMap<>();
         this.maxHistory = maxHistory;
-        this.executorService = Executors.newCachedThreadPool(r -> {
-            Thread t = new Thread(r, "MessageBus-Worker");
-            t.setDaemon(true);
-            return t;
-        });
+        this.messageHistory = new MessageRingBuffer(Math.max(1, maxHistory));
+        this.mailboxCapacity = mailboxCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name = "MessageBus-Shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
     }
     
     /**
@@ -56,40 +254,51 @@ public class MessageBus {
      * @param callback 消息处理回调函数
      */
     public void subscribe(String agentId, Consumer<AgentMessage> callback) {
-        subscribers.computeIfAbsent(agentId, k -> new CopyOnWriteArrayList<>()).add(callback);
+        mailboxes.computeIfAbsent(agentId, Mailbox::new).callbacks.add(callback);
     }
     
     /**
-     * 取消订阅
+     * 取消订阅（邮箱中尚未处理的消息被丢弃）
      * @param agentId Agent ID
      */
     public void unsubscribe(String agentId) {
-        subscribers.remove(agentId);
+        Mailbox mailbox = mailboxes.remove(agentId);
+        if (mailbox != null) {
+            mailbox.queue.clear();
+            mailbox.overflow.clear();
+        }
     }
     
     /**
      * 发布消息（异步）
+     * 消息进入接收者的邮箱，由其所在分片按顺序处理
      * @param message 要发布的消息
+     * @return 是否已投递到所有接收者的邮箱；邮箱满被丢弃或接收者不存在时返回false（丢弃数计入统计）
      */
-    public void publishAsync(AgentMessage message) {
+    public boolean publishAsync(AgentMessage message) {
         // 记录消息历史
         addToHistory(message);
         
-        // 异步处理消息分发
-        executorService.submit(() -> {
-            try {
-                if ("broadcast".equals(message.getReceiverId())) {
-                    // 广播消息
-                    handleBroadcast(message);
-                } else {
-                    // 点对点消息
-                    handlePointToPoint(message);
+        if ("broadcast".equals(message.getReceiverId())) {
+            // 广播消息：投递到每个订阅者的邮箱，各自并行处理
+            broadcastMessages.increment();
+            boolean delivered = true;
+            for (Mailbox mailbox : mailboxes.values()) {
+                if (!mailbox.agentId.equals(message.getSenderId())) {
+                    delivered &= mailbox.offer(message);
                 }
-            } catch (Exception e) {
-                System.err.println("消息处理异常: " + e.getMessage());
-                e.printStackTrace();
             }
-        });
+            return delivered;
+        } else {
+            // 点对点消息
+            pointToPointMessages.increment();
+            Mailbox mailbox = mailboxes.get(message.getReceiverId());
+            if (mailbox != null) {
+                return mailbox.offer(message);
+            }
+            System.out.println("接收者 " + message.getReceiverId() + " 未找到，消息未送达");
+            return false;
+        }
     }
     
     /**
@@ -118,21 +327,12 @@ public class MessageBus {
      * 处理广播消息
      */
     private void handleBroadcast(AgentMessage message) {
-        broadcastMessages++;
+        broadcastMessages.increment();
         
-        for (Map.Entry<String, List<Consumer<AgentMessage>>> entry : subscribers.entrySet()) {
-            String agentId = entry.getKey();
-            
+        for (Mailbox mailbox : mailboxes.values()) {
             // 不发送给自己
-            if (!agentId.equals(message.getSenderId())) {
-                List<Consumer<AgentMessage>> callbacks = entry.getValue();
-                for (Consumer<AgentMessage> callback : callbacks) {
-                    try {
-                        callback.accept(message);
-                    } catch (Exception e) {
-                        System.err.println("向Agent " + agentId + " 发送广播消息失败: " + e.getMessage());
-                    }
-                }
+            if (!mailbox.agentId.equals(message.getSenderId())) {
+                mailbox.deliver(message);
             }
         }
     }
@@ -141,35 +341,24 @@ public class MessageBus {
      * 处理点对点消息
      */
     private void handlePointToPoint(AgentMessage message) {
-        pointToPointMessages++;
+        pointToPointMessages.increment();
         
         String receiverId = message.getReceiverId();
-        List<Consumer<AgentMessage>> callbacks = subscribers.get(receiverId);
+        Mailbox mailbox = mailboxes.get(receiverId);
         
-        if (callbacks != null) {
-            for (Consumer<AgentMessage> callback : callbacks) {
-                try {
-                    callback.accept(message);
-                } catch (Exception e) {
-                    System.err.println("向Agent " + receiverId + " 发送消息失败: " + e.getMessage());
-                }
-            }
+        if (mailbox != null) {
+            mailbox.deliver(message);
         } else {
             System.out.println("接收者 " + receiverId + " 未找到，消息未送达");
         }
     }
     
     /**
-     * 添加到消息历史
+     * 添加到消息历史（超出容量时覆盖最旧的记录）
      */
     private void addToHistory(AgentMessage message) {
-        totalMessages++;
+        totalMessages.increment();
         messageHistory.add(message);
-        
-        // 限制历史记录数量
-        while (messageHistory.size() > maxHistory) {
-            messageHistory.remove(0);
-        }
     }
     
     /**
@@ -180,11 +369,12 @@ public class MessageBus {
      * @return 对话历史列表（按时间排序）
      */
     public List<AgentMessage> getConversationHistory(String agent1Id, String agent2Id, int limit) {
+        List<AgentMessage> history = messageHistory.snapshot();
         List<AgentMessage> conversation = new ArrayList<>();
         
         // 倒序遍历历史记录
-        for (int i = messageHistory.size() - 1; i >= 0 && conversation.size() < limit; i--) {
-            AgentMessage msg = messageHistory.get(i);
+        for (int i = history.size() - 1; i >= 0 && conversation.size() < limit; i--) {
+            AgentMessage msg = history.get(i);
             
             // 检查是否是两个Agent之间的对话
             if ((msg.getSenderId().equals(agent1Id) && msg.getReceiverId().equals(agent2Id)) ||
@@ -203,9 +393,10 @@ public class MessageBus {
      * @return 消息历史列表
      */
     public List<AgentMessage> getAgentMessages(String agentId, int limit) {
-        return messageHistory.stream()
+        List<AgentMessage> history = messageHistory.snapshot();
+        return history.stream()
                 .filter(msg -> msg.getSenderId().equals(agentId) || msg.getReceiverId().equals(agentId))
-                .skip(Math.max(0, messageHistory.size() - limit))
+                .skip(Math.max(0, history.size() - limit))
                 .collect(Collectors.toList());
     }
     
@@ -215,8 +406,9 @@ public class MessageBus {
      * @return 最近的消息列表
      */
     public List<AgentMessage> getRecentMessages(int limit) {
-        int start = Math.max(0, messageHistory.size() - limit);
-        return new ArrayList<>(messageHistory.subList(start, messageHistory.size()));
+        List<AgentMessage> history = messageHistory.snapshot();
+        int start = Math.max(0, history.size() - limit);
+        return new ArrayList<>(history.subList(start, history.size()));
     }
     
     /**
@@ -224,17 +416,18 @@ public class MessageBus {
      * @return 完整的消息历史列表
      */
     public List<AgentMessage> getAllMessages() {
-        return new ArrayList<>(messageHistory);
+        return messageHistory.snapshot();
     }
     
     /**
      * 清空消息历史
      */
     public void clearHistory() {
-        messageHistory.clear();
-        totalMessages = 0;
-        broadcastMessages = 0;
-        pointToPointMessages = 0;
+        messageHistory = new MessageRingBuffer(Math.max(1, maxHistory));
+        totalMessages.reset();
+        broadcastMessages.reset();
+        pointToPointMessages.reset();
+        droppedMessages.reset();
     }
     
     /**
@@ -242,7 +435,7 @@ public class MessageBus {
      * @return Agent ID列表
      */
     public List<String> getSubscribedAgents() {
-        return new ArrayList<>(subscribers.keySet());
+        return new ArrayList<>(mailboxes.keySet());
     }
     
     /**
@@ -251,7 +444,7 @@ public class MessageBus {
      * @return 是否已订阅
      */
     public boolean isSubscribed(String agentId) {
-        return subscribers.containsKey(agentId);
+        return mailboxes.containsKey(agentId);
     }
     
     /**
@@ -260,26 +453,45 @@ public class MessageBus {
      */
     public Map<String, Object> getStatistics() {
         Map<String, Object> stats = new ConcurrentHashMap<>();
-        stats.put("totalMessages", totalMessages);
-        stats.put("broadcastMessages", broadcastMessages);
-        stats.put("pointToPointMessages", pointToPointMessages);
+        stats.put("totalMessages", totalMessages.sum());
+        stats.put("broadcastMessages", broadcastMessages.sum());
+        stats.put("pointToPointMessages", pointToPointMessages.sum());
+        stats.put("droppedMessages", droppedMessages.sum());
         stats.put("messageHistorySize", messageHistory.size());
-        stats.put("subscribedAgents", subscribers.size());
+        stats.put("subscribedAgents", mailboxes.size());
         stats.put("maxHistory", maxHistory);
+        stats.put("shards", shards.length);
+        stats.put("mailboxCapacity", mailboxCapacity);
+        stats.put("overflowPolicy", overflowPolicy.name());
+        
+        // 各Agent邮箱的队列深度与处理延迟
+        Map<String, Object> mailboxStats = new LinkedHashMap<>();
+        for (Mailbox mailbox : mailboxes.values()) {
+            mailboxStats.put(mailbox.agentId, mailbox.getStatistics());
+        }
+        stats.put("mailboxes", mailboxStats);
         return stats;
     }
     
     /**
-     * 关闭消息总线
+     * 关闭消息总线（已入队的消息处理完后停止）
      */
     public void shutdown() {
-        executorService.shutdown();
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
         try {
-            if (!executorService.awaitTermination(5, java.util.concurrent.TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            for (ExecutorService shard : shards) {
+                long remaining = deadline - System.nanoTime();
+                if (!shard.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                    shard.shutdownNow();
+                }
             }
         } catch (InterruptedException e) {
-            executorService.shutdownNow();
+            for (ExecutorService shard : shards) {
+                shard.shutdownNow();
+            }
             Thread.currentThread().interrupt();
         }
     }
@@ -287,6 +499,6 @@ public class MessageBus {
     @Override
     public String toString() {
         return String.format("MessageBus{totalMessages=%d, subscribers=%d, historySize=%d}", 
-                totalMessages, subscribers.size(), messageHistory.size());
+                totalMessages.sum(), mailboxes.size(), messageHistory.size());
     }
-}
\ No newline at end of file
+}
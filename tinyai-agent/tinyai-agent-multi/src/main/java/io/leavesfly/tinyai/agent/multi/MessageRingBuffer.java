@@ -0,0 +1,77 @@
+package io.leavesfly.tinyai.agent.multi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 无锁消息环形缓冲区
+ * 写入方通过原子递增的序号占位，容量满后覆盖最旧的消息（只允许新序号覆盖旧序号）；
+ * 读取方按序号取快照，跳过尚未写完或已被覆盖的槽位
+ *
+ * @author 山泽
+ */
+class MessageRingBuffer {
+
+    private static final class Slot {
+        final long sequence;
+        final AgentMessage message;
+
+        Slot(long sequence, AgentMessage message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final int capacity;
+
+    MessageRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("历史容量必须为正数: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * 写入消息；槽位只能被更大的序号覆盖，落后的写入方发现槽位已被更新一圈的消息占用时放弃写入
+     * （它的消息本就已被淘汰），因此较新的消息不会被较旧的覆盖
+     */
+    void add(AgentMessage message) {
+        long sequence = nextSequence.getAndIncrement();
+        int index = (int) (sequence % capacity);
+        Slot slot = new Slot(sequence, message);
+        while (true) {
+            Slot current = slots.get(index);
+            if (current != null && current.sequence >= sequence) {
+                return;
+            }
+            if (slots.compareAndSet(index, current, slot)) {
+                return;
+            }
+        }
+    }
+
+    int size() {
+        return (int) Math.min(nextSequence.get(), capacity);
+    }
+
+    /**
+     * 按时间顺序返回当前保留的消息
+     */
+    List<AgentMessage> snapshot() {
+        long end = nextSequence.get();
+        long start = Math.max(0, end - capacity);
+        List<AgentMessage> messages = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot slot = slots.get((int) (sequence % capacity));
+            if (slot != null && slot.sequence == sequence) {
+                messages.add(slot.message);
+            }
+        }
+        return messages;
+    }
+}
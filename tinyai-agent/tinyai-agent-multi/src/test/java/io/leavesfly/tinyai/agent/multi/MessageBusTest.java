@@ -0,0 +1,298 @@
+package io.leavesfly.tinyai.agent.multi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 消息总线单元测试：溢出策略、按发送方有序、分片隔离与消息历史
+ *
+ * @author 山泽
+ */
+public class MessageBusTest {
+
+    private MessageBus bus;
+
+    @After
+    public void tearDown() {
+        if (bus != null) {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void testDropNewestRejectsWhenMailboxFull() throws Exception {
+        bus = new MessageBus(100, 1, 2, MessageBus.OverflowPolicy.DROP_NEWEST);
+        GatedReceiver receiver = new GatedReceiver();
+        bus.subscribe("a", receiver);
+
+        assertTrue(bus.publishAsync(message("s", "a", "m0")));
+        receiver.awaitFirst();
+        assertTrue(bus.publishAsync(message("s", "a", "m1")));
+        assertTrue(bus.publishAsync(message("s", "a", "m2")));
+        assertFalse(bus.publishAsync(message("s", "a", "m3")));
+
+        receiver.release();
+        assertEquals(List.of("m0", "m1", "m2"), receiver.awaitContents(3));
+        assertEquals(1L, bus.getStatistics().get("droppedMessages"));
+    }
+
+    @Test
+    public void testDropOldestEvictsQueuedMessage() throws Exception {
+        bus = new MessageBus(100, 1, 2, MessageBus.OverflowPolicy.DROP_OLDEST);
+        GatedReceiver receiver = new GatedReceiver();
+        bus.subscribe("a", receiver);
+
+        bus.publishAsync(message("s", "a", "m0"));
+        receiver.awaitFirst();
+        bus.publishAsync(message("s", "a", "m1"));
+        bus.publishAsync(message("s", "a", "m2"));
+        assertTrue(bus.publishAsync(message("s", "a", "m3")));
+
+        receiver.release();
+        assertEquals(List.of("m0", "m2", "m3"), receiver.awaitContents(3));
+        assertEquals(1L, bus.getStatistics().get("droppedMessages"));
+    }
+
+    @Test
+    public void testBlockWaitsForSpace() throws Exception {
+        bus = new MessageBus(100, 1, 2, MessageBus.OverflowPolicy.BLOCK);
+        GatedReceiver receiver = new GatedReceiver();
+        bus.subscribe("a", receiver);
+
+        bus.publishAsync(message("s", "a", "m0"));
+        receiver.awaitFirst();
+        bus.publishAsync(message("s", "a", "m1"));
+        bus.publishAsync(message("s", "a", "m2"));
+
+        // 邮箱已满，发布方阻塞直到接收方腾出空间
+        Thread releaser = new Thread(() -> {
+            sleep(100);
+            receiver.release();
+        });
+        releaser.start();
+        assertTrue(bus.publishAsync(message("s", "a", "m3")));
+        releaser.join();
+
+        assertEquals(List.of("m0", "m1", "m2", "m3"), receiver.awaitContents(4));
+        assertEquals(0L, bus.getStatistics().get("droppedMessages"));
+    }
+
+    @Test
+    public void testBlockReportsDropAfterTimeout() throws Exception {
+        bus = new MessageBus(100, 1, 1, MessageBus.OverflowPolicy.BLOCK);
+        GatedReceiver receiver = new GatedReceiver();
+        bus.subscribe("a", receiver);
+
+        bus.publishAsync(message("s", "a", "m0"));
+        receiver.awaitFirst();
+        bus.publishAsync(message("s", "a", "m1"));
+        assertFalse(bus.publishAsync(message("s", "a", "m2")));
+        assertEquals(1L, bus.getStatistics().get("droppedMessages"));
+
+        receiver.release();
+        assertEquals(List.of("m0", "m1"), receiver.awaitContents(2));
+    }
+
+    @Test
+    public void testBlockPublishFromOwnShardDoesNotStall() throws Exception {
+        // 单分片：a的回调运行在b所在分片的处理线程上，b的邮箱容量为3，5条消息放满邮箱后进入溢出队列
+        bus = new MessageBus(100, 1, 3, MessageBus.OverflowPolicy.BLOCK);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(5);
+        AtomicBoolean allAccepted = new AtomicBoolean(true);
+        bus.subscribe("b", msg -> {
+            received.add((String) msg.getContent());
+            done.countDown();
+        });
+        bus.subscribe("a", msg -> {
+            for (int i = 0; i < 5; i++) {
+                allAccepted.compareAndSet(true, bus.publishAsync(message("a", "b", "r" + i)));
+            }
+        });
+
+        long start = System.nanoTime();
+        bus.publishAsync(message("s", "a", "go"));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertTrue(allAccepted.get());
+        assertEquals(List.of("r0", "r1", "r2", "r3", "r4"), received);
+        assertEquals(0L, bus.getStatistics().get("droppedMessages"));
+    }
+
+    @Test
+    public void testBlockOverflowFromOwnShardIsBounded() throws Exception {
+        // a 在处理消息时向自己发布：邮箱容量2，溢出队列容量2，其余消息被丢弃
+        bus = new MessageBus(100, 1, 2, MessageBus.OverflowPolicy.BLOCK);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean[] results = new AtomicBoolean[10];
+        CountDownLatch published = new CountDownLatch(1);
+        bus.subscribe("a", msg -> {
+            String content = (String) msg.getContent();
+            received.add(content);
+            if ("go".equals(content)) {
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = new AtomicBoolean(bus.publishAsync(message("a", "a", "r" + i)));
+                }
+                published.countDown();
+            }
+        });
+
+        bus.publishAsync(message("s", "a", "go"));
+        assertTrue(published.await(2, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (received.size() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i < 4, results[i].get());
+        }
+        assertEquals(List.of("go", "r0", "r1", "r2", "r3"), new ArrayList<>(received));
+        assertEquals(6L, bus.getStatistics().get("droppedMessages"));
+    }
+
+    @Test
+    public void testPerSenderOrdering() throws Exception {
+        bus = new MessageBus(100, 4, 64, MessageBus.OverflowPolicy.BLOCK);
+        int senders = 4;
+        int perSender = 500;
+        List<AgentMessage> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(senders * perSender);
+        bus.subscribe("r", msg -> {
+            received.add(msg);
+            done.countDown();
+        });
+
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            String senderId = "sender-" + s;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perSender; i++) {
+                    bus.publishAsync(new AgentMessage(senderId, "r", MessageType.TEXT, i));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        Map<String, Integer> lastSeen = new HashMap<>();
+        for (AgentMessage msg : new ArrayList<>(received)) {
+            int value = (Integer) msg.getContent();
+            Integer previous = lastSeen.put(msg.getSenderId(), value);
+            assertEquals(previous == null ? 0 : previous + 1, value);
+        }
+        assertEquals(senders, lastSeen.size());
+    }
+
+    @Test
+    public void testBlockedMailboxDoesNotStallOtherShard() throws Exception {
+        // "a"与"b"的哈希值奇偶不同，2个分片时分到不同分片
+        assertNotEquals(Math.floorMod("a".hashCode(), 2), Math.floorMod("b".hashCode(), 2));
+        bus = new MessageBus(100, 2, 4, MessageBus.OverflowPolicy.BLOCK);
+        GatedReceiver slow = new GatedReceiver();
+        CountDownLatch fastDone = new CountDownLatch(3);
+        bus.subscribe("a", slow);
+        bus.subscribe("b", msg -> fastDone.countDown());
+
+        bus.publishAsync(message("s", "a", "m0"));
+        slow.awaitFirst();
+        for (int i = 0; i < 3; i++) {
+            bus.publishAsync(message("s", "b", "n" + i));
+        }
+
+        assertTrue(fastDone.await(2, TimeUnit.SECONDS));
+        slow.release();
+        assertEquals(List.of("m0"), slow.awaitContents(1));
+    }
+
+    @Test
+    public void testRingBufferKeepsNewestUnderConcurrentWrites() throws Exception {
+        MessageRingBuffer buffer = new MessageRingBuffer(100);
+        int writers = 8;
+        int perWriter = 1000;
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    buffer.add(message("s", "r", "x"));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // 每个槽位最终都保留最后一圈的消息，快照恰好是最新的100条
+        assertEquals(100, buffer.size());
+        assertEquals(100, buffer.snapshot().size());
+    }
+
+    private static AgentMessage message(String sender, String receiver, String content) {
+        return new AgentMessage(sender, receiver, MessageType.TEXT, content);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 处理第一条消息时阻塞，直到测试放行，用于把邮箱填满
+     */
+    private static class GatedReceiver implements Consumer<AgentMessage> {
+        private final CountDownLatch firstStarted = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<String> contents = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void accept(AgentMessage message) {
+            firstStarted.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            contents.add((String) message.getContent());
+        }
+
+        void awaitFirst() throws InterruptedException {
+            assertTrue(firstStarted.await(2, TimeUnit.SECONDS));
+        }
+
+        void release() {
+            gate.countDown();
+        }
+
+        List<String> awaitContents(int expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 2000;
+            while (contents.size() < expected && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            synchronized (contents) {
+                return new ArrayList<>(contents);
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.leavesfly.tinyai.agent.pattern.recap;
 
+import io.leavesfly.tinyai.agent.context.TaskGraphExecutor;
 import io.leavesfly.tinyai.agent.pattern.Action;
 import io.leavesfly.tinyai.agent.pattern.AgentState;
 import io.leavesfly.tinyai.agent.pattern.BaseAgent;
@@ -22,7 +23,7 @@ import java.util.*;
  * 
  * @author 山泽
  */
-public class ReCapAgent extends BaseAgent {
+public class ReCapAgent extends BaseAgent implements AutoCloseable {
     
     // ========== 共享LLM上下文 (有界) ==========
     /** 高层意图 - 始终保持 */
@@ -63,6 +64,9 @@ public class ReCapAgent extends BaseAgent {
     /** 随机数生成器 */
     private final Random random;
     
+    /** 子任务执行器 - 声明了依赖的相邻原子任务并行执行，失败只取消依赖它的任务；close()释放其线程池 */
+    private final TaskGraphExecutor taskExecutor;
+    
     /**
      * 构造函数
      */
@@ -80,6 +84,7 @@ public class ReCapAgent extends BaseAgent {
         this.refiner = new PlanRefiner();
         this.promptBuilder = new ActivePromptBuilder();
         this.random = new Random();
+        this.taskExecutor = new TaskGraphExecutor(4, 30_000, false);
         this.parentStack = new ArrayDeque<>();
         this.keyInsights = new ArrayList<>();
         this.results = new ArrayList<>();
@@ -116,6 +121,24 @@ public class ReCapAgent extends BaseAgent {
         return result;
     }
     
+    /**
+     * 按给定计划处理 (计划中可用 SubTask.dependsOn 声明任务依赖)
+     */
+    public String process(String query, SubTaskList plan) {
+        initializeExecution(query);
+        
+        setState(AgentState.PLANNING);
+        addStep("init", "开始处理: " + query);
+        
+        this.currentPlan = plan;
+        addStep("plan", "完整计划:\n" + currentPlan.format());
+        
+        String result = executeLoop();
+        
+        setState(AgentState.DONE);
+        return result;
+    }
+    
     /**
      * 初始化执行状态
      */
@@ -151,14 +174,14 @@ public class ReCapAgent extends BaseAgent {
                 }
             }
             
-            // 弹出头部任务
-            SubTask headTask = currentPlan.popHead();
-            addStep("execute", String.format("[深度:%d] 执行任务: %s", currentDepth, headTask.getDescription()));
-            
-            setState(AgentState.THINKING);
-            
             // 判断是否需要递归分解
-            if (needsRecursiveDecomposition(headTask) && currentDepth < MAX_RECURSION_DEPTH) {
+            if (!canExecuteDirectly(currentPlan.peekHead())) {
+                // 弹出头部任务
+                SubTask headTask = currentPlan.popHead();
+                addStep("execute", String.format("[深度:%d] 执行任务: %s", currentDepth, headTask.getDescription()));
+                
+                setState(AgentState.THINKING);
+                
                 // 保存当前上下文到栈
                 pushCurrentContext(headTask);
                 
@@ -169,26 +192,41 @@ public class ReCapAgent extends BaseAgent {
                 
                 addStep("recurse", String.format("递归分解 [深度:%d]:\n%s", currentDepth, currentPlan.format()));
             } else {
-                // 原子执行
-                setState(AgentState.ACTING);
-                ExecutionResult result = executeAtomicTask(headTask);
-                results.add(result);
-                
-                // 标记完成
-                currentPlan.markCompleted(headTask);
-                
-                setState(AgentState.OBSERVING);
-                addStep("observation", result.getSummary());
+                // 弹出头部任务及其后可并行的任务，每个任务计一步
+                List<SubTask> batch = currentPlan.popReadyBatch(maxSteps - stepCount + 1, this::canExecuteDirectly);
+                stepCount += batch.size() - 1;
+                for (SubTask task : batch) {
+                    addStep("execute", String.format("[深度:%d] 执行任务: %s", currentDepth, task.getDescription()));
+                }
                 
-                // 更新最新思考
-                latestThought = generateThought(headTask, result);
+                setState(AgentState.THINKING);
                 
-                // 提取关键发现
-                extractKeyInsight(result);
+                // 原子执行
+                setState(AgentState.ACTING);
+                List<ExecutionResult> batchResults = executeAtomicTasks(batch);
                 
-                // 精炼剩余计划
-                setState(AgentState.REFLECTING);
-                currentPlan = refiner.refine(currentPlan, result, highLevelIntent);
+                // 按计划顺序观察结果并精炼
+                for (int i = 0; i < batch.size(); i++) {
+                    SubTask task = batch.get(i);
+                    ExecutionResult result = batchResults.get(i);
+                    results.add(result);
+                    
+                    // 标记完成
+                    currentPlan.markCompleted(task);
+                    
+                    setState(AgentState.OBSERVING);
+                    addStep("observation", result.getSummary());
+                    
+                    // 更新最新思考
+                    latestThought = generateThought(task, result);
+                    
+                    // 提取关键发现
+                    extractKeyInsight(result);
+                    
+                    // 精炼剩余计划
+                    setState(AgentState.REFLECTING);
+                    currentPlan = refiner.refine(currentPlan, result, highLevelIntent);
+                }
             }
         }
         
@@ -202,10 +240,62 @@ public class ReCapAgent extends BaseAgent {
         return task.needsDecomposition();
     }
     
+    /**
+     * 判断任务是否可直接执行 (不需要分解，或已达到最大递归深度)
+     */
+    private boolean canExecuteDirectly(SubTask task) {
+        return !needsRecursiveDecomposition(task) || currentDepth >= MAX_RECURSION_DEPTH;
+    }
+    
+    /**
+     * 执行一批原子任务
+     * 多个任务时按依赖图并行执行，依赖任务的输出并入后继任务的上下文；
+     * 失败或超时的任务及被取消的后继任务记为失败结果
+     */
+    private List<ExecutionResult> executeAtomicTasks(List<SubTask> batch) {
+        if (batch.size() == 1) {
+            return Collections.singletonList(executeAtomicTask(batch.get(0), latestThought));
+        }
+        
+        Set<String> batchIds = new HashSet<>();
+        for (SubTask task : batch) {
+            batchIds.add(task.getId());
+        }
+        String thought = latestThought;
+        TaskGraphExecutor.Graph<ExecutionResult> graph = new TaskGraphExecutor.Graph<>();
+        for (SubTask task : batch) {
+            List<String> dependencies = new ArrayList<>(task.getDependencies());
+            dependencies.retainAll(batchIds);
+            graph.add(task.getId(), dependencies, dependencyResults -> {
+                StringBuilder context = new StringBuilder(thought);
+                for (ExecutionResult dependency : dependencyResults.values()) {
+                    context.append("\n").append(dependency.getSummary());
+                }
+                return executeAtomicTask(task, context.toString());
+            });
+        }
+        TaskGraphExecutor.Report<ExecutionResult> report = taskExecutor.execute(graph);
+        addStep("parallel", String.format("并行执行%d个任务: 耗时%.1fms, 关键路径%.1fms, 累计%.1fms",
+                batch.size(), report.getWallMillis(), report.getCriticalPathMillis(), report.getTotalTaskMillis()));
+        
+        List<ExecutionResult> batchResults = new ArrayList<>(batch.size());
+        Map<String, Throwable> errors = report.getErrors();
+        for (SubTask task : batch) {
+            if (report.isCompleted(task.getId())) {
+                batchResults.add(report.getResult(task.getId()));
+            } else if (errors.containsKey(task.getId())) {
+                batchResults.add(ExecutionResult.failure(task.getId(), errors.get(task.getId()).getMessage()));
+            } else {
+                batchResults.add(ExecutionResult.failure(task.getId(), "依赖的任务失败，已取消"));
+            }
+        }
+        return batchResults;
+    }
+    
     /**
      * 执行原子任务
      */
-    private ExecutionResult executeAtomicTask(SubTask task) {
+    private ExecutionResult executeAtomicTask(SubTask task, String context) {
         long startTime = System.currentTimeMillis();
         
         String desc = task.getDescription();
@@ -213,7 +303,7 @@ public class ReCapAgent extends BaseAgent {
         
         Map<String, Object> args = new HashMap<>();
         args.put("query", desc);
-        args.put("context", latestThought);
+        args.put("context", context);
         
         Action action = new Action(toolName, args);
         Object result = callTool(action);
@@ -518,4 +608,12 @@ public class ReCapAgent extends BaseAgent {
         this.results.clear();
         this.currentDepth = 0;
     }
+    
+    /**
+     * 释放子任务执行线程池，之后不能再并行执行子任务
+     */
+    @Override
+    public void close() {
+        taskExecutor.shutdown();
+    }
 }
@@ -1,7 +1,10 @@
 package io.leavesfly.tinyai.agent.pattern.recap;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -35,6 +38,9 @@ public class SubTask {
     /** 所需工具 */
     private String requiredTool;
     
+    /** 依赖的任务ID (null表示未声明，按顺序在前一个任务之后执行) */
+    private Set<String> dependencies;
+    
     /**
      * 构造函数
      */
@@ -69,6 +75,7 @@ public class SubTask {
         copy.context.putAll(this.context);
         copy.complexity = this.complexity;
         copy.requiredTool = this.requiredTool;
+        copy.dependencies = this.dependencies != null ? new LinkedHashSet<>(this.dependencies) : null;
         return copy;
     }
     
@@ -138,6 +145,50 @@ public class SubTask {
         this.requiredTool = requiredTool;
     }
     
+    /**
+     * 声明依赖: 只依赖给定任务，可与其他无关任务并行执行
+     */
+    public SubTask dependsOn(SubTask... tasks) {
+        if (dependencies == null) {
+            dependencies = new LinkedHashSet<>();
+        }
+        for (SubTask task : tasks) {
+            dependencies.add(task.getId());
+        }
+        return this;
+    }
+    
+    /**
+     * 声明无依赖，可与前面的任务并行执行
+     */
+    public SubTask independent() {
+        if (dependencies == null) {
+            dependencies = new LinkedHashSet<>();
+        }
+        return this;
+    }
+    
+    public boolean hasDeclaredDependencies() {
+        return dependencies != null;
+    }
+    
+    public Set<String> getDependencies() {
+        return dependencies != null ? new LinkedHashSet<>(dependencies) : Collections.emptySet();
+    }
+    
+    /**
+     * 替换依赖中的任务ID (深拷贝后任务ID变化时使用)
+     */
+    void remapDependencies(Map<String, String> idMapping) {
+        if (dependencies != null) {
+            Set<String> remapped = new LinkedHashSet<>();
+            for (String id : dependencies) {
+                remapped.add(idMapping.getOrDefault(id, id));
+            }
+            dependencies = remapped;
+        }
+    }
+    
     @Override
     public String toString() {
         return String.format("[%s] %s (%s, %s)", id, description, type, status);
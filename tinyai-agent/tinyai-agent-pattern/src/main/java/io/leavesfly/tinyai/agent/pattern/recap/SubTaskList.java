@@ -1,8 +1,13 @@
 package io.leavesfly.tinyai.agent.pattern.recap;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 /**
@@ -65,6 +70,37 @@ public class SubTaskList {
         return head;
     }
     
+    /**
+     * 弹出头部可并行执行的一批任务
+     * 从头部开始连续取可直接执行的任务，除头部外每个任务都必须声明依赖，
+     * 且依赖均已完成或在本批之中；遇到未声明依赖或需要分解的任务即停止
+     * 
+     * @param maxSize 本批最多任务数
+     * @param executable 任务是否可直接执行 (不需要递归分解)
+     */
+    public List<SubTask> popReadyBatch(int maxSize, Predicate<SubTask> executable) {
+        List<SubTask> batch = new ArrayList<>();
+        if (tasks.isEmpty() || !executable.test(tasks.getFirst())) {
+            return batch;
+        }
+        Set<String> available = new HashSet<>();
+        for (SubTask task : completedTasks) {
+            available.add(task.getId());
+        }
+        while (!tasks.isEmpty() && batch.size() < Math.max(1, maxSize)) {
+            SubTask next = tasks.getFirst();
+            if (!batch.isEmpty() && (!next.hasDeclaredDependencies() || !executable.test(next)
+                    || !available.containsAll(next.getDependencies()))) {
+                break;
+            }
+            tasks.removeFirst();
+            next.setStatus(TaskStatus.RUNNING);
+            batch.add(next);
+            available.add(next.getId());
+        }
+        return batch;
+    }
+    
     /**
      * 查看头部任务 (不移除)
      */
@@ -113,11 +149,20 @@ public class SubTaskList {
      */
     public SubTaskList copy() {
         SubTaskList copy = new SubTaskList();
+        Map<String, String> idMapping = new HashMap<>();
         for (SubTask task : tasks) {
-            copy.add(task.copy());
+            SubTask taskCopy = task.copy();
+            idMapping.put(task.getId(), taskCopy.getId());
+            copy.add(taskCopy);
         }
         for (SubTask task : completedTasks) {
-            copy.completedTasks.add(task.copy());
+            SubTask taskCopy = task.copy();
+            idMapping.put(task.getId(), taskCopy.getId());
+            copy.completedTasks.add(taskCopy);
+        }
+        // 拷贝生成新的任务ID，依赖随之替换
+        for (SubTask task : copy.tasks) {
+            task.remapDependencies(idMapping);
         }
         return copy;
     }
@@ -1,6 +1,12 @@
 package io.leavesfly.tinyai.agent.pattern;
 
+import io.leavesfly.tinyai.agent.pattern.recap.ReCapAgent;
+import io.leavesfly.tinyai.agent.pattern.recap.SubTask;
+import io.leavesfly.tinyai.agent.pattern.recap.SubTaskList;
 import org.junit.Test;
+
+import java.util.Arrays;
+
 import static org.junit.Assert.*;
 
 /**
@@ -128,4 +134,21 @@ public class AgentPatternTest {
         System.out.println("天气: " + weatherResult);
         System.out.println("时间: " + timeResult);
     }
-}
\ No newline at end of file
+    
+    @Test
+    public void testReCapParallelSubTasks() {
+        try (ReCapAgent agent = new ReCapAgent("ReCap并行测试Agent")) {
+            // 两个独立的收集任务并行执行，综合任务依赖二者
+            SubTask first = new SubTask("收集市场信息");
+            SubTask second = new SubTask("收集技术信息").independent();
+            SubTask merge = new SubTask("综合结论").dependsOn(first, second);
+            SubTaskList plan = new SubTaskList(Arrays.asList(first, second, merge));
+            
+            String result = agent.process("调研并给出结论", plan);
+            assertNotNull("结果不应为空", result);
+            assertEquals("三个任务都应执行", 3, agent.getResults().size());
+            assertTrue("应有并行执行记录", agent.getSteps().stream()
+                    .anyMatch(step -> "parallel".equals(step.getStepType()) && step.getContent().contains("3个任务")));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import java.util.*;
+
+/**
+ * HNSW索引基准测试
+ * 在随机向量上比较不同 efSearch 下的 recall@k 与单次查询延迟，并与逐个比较的精确检索对照
+ *
+ * 用法: AnnBenchmark [文档数] [维度] [查询数]
+ */
+public class AnnBenchmark {
+
+    public static void main(String[] args) {
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int dim = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        int numQueries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int k = 10;
+
+        System.out.println("📊 HNSW基准测试: 文档数=" + numDocs + ", 维度=" + dim + ", 查询数=" + numQueries + ", k=" + k);
+        Random random = new Random(7);
+        float[][] data = randomVectors(random, numDocs, dim);
+        float[][] queries = randomVectors(random, numQueries, dim);
+
+        long start = System.nanoTime();
+        HnswIndex index = new HnswIndex();
+        for (int i = 0; i < numDocs; i++) {
+            index.add(String.valueOf(i), data[i]);
+        }
+        System.out.printf("构建耗时: %.1f s%n", (System.nanoTime() - start) / 1e9);
+
+        // 精确结果
+        float[] norms = new float[numDocs];
+        for (int i = 0; i < numDocs; i++) {
+            norms[i] = (float) Math.sqrt(dot(data[i], data[i]));
+        }
+        List<Set<String>> truth = new ArrayList<>();
+        start = System.nanoTime();
+        for (float[] query : queries) {
+            truth.add(exactTopK(data, norms, query, k));
+        }
+        double exactMs = (System.nanoTime() - start) / 1e6 / numQueries;
+        System.out.printf("精确检索: recall@%d=1.000, 延迟=%.3f ms/查询%n", k, exactMs);
+
+        for (int ef : new int[]{16, 32, 64, 128, 256}) {
+            int hits = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < numQueries; q++) {
+                for (HnswIndex.SearchResult result : index.search(queries[q], k, ef)) {
+                    if (truth.get(q).contains(result.getId())) {
+                        hits++;
+                    }
+                }
+            }
+            double ms = (System.nanoTime() - start) / 1e6 / numQueries;
+            System.out.printf("HNSW efSearch=%-4d recall@%d=%.3f, 延迟=%.3f ms/查询 (加速 %.1fx)%n",
+                    ef, k, (double) hits / (numQueries * k), ms, exactMs / ms);
+        }
+    }
+
+    private static Set<String> exactTopK(float[][] data, float[] norms, float[] query, int k) {
+        float queryNorm = (float) Math.sqrt(dot(query, query));
+        Integer[] order = new Integer[data.length];
+        float[] sims = new float[data.length];
+        for (int i = 0; i < data.length; i++) {
+            order[i] = i;
+            sims[i] = dot(data[i], query) / (norms[i] * queryNorm);
+        }
+        Arrays.sort(order, (a, b) -> Float.compare(sims[b], sims[a]));
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i < k; i++) {
+            result.add(String.valueOf(order[i]));
+        }
+        return result;
+    }
+
+    private static float[][] randomVectors(Random random, int n, int dim) {
+        float[][] vectors = new float[n][dim];
+        for (float[] vector : vectors) {
+            for (int j = 0; j < dim; j++) {
+                vector[j] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0.0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
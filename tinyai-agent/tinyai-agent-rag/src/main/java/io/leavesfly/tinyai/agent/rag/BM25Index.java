@@ -0,0 +1,474 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * BM25稀疏倒排索引
+ * 词项 -> 倒排表（文档内部编号、词频），按 BM25 打分，
+ * 查询使用 WAND 提前终止：每个词项维护得分上界，只完整计算可能进入 top-k 的文档。
+ *
+ * 文档可增量添加与删除，无需重新训练词表；删除为标记删除，
+ * 已删除文档过多时整理倒排表。查询之间可并发，写入与查询互斥。
+ */
+public class BM25Index {
+    public static final double DEFAULT_K1 = 1.2;
+    public static final double DEFAULT_B = 0.75;
+
+    private final double k1;
+    private final double b;
+    private final SimpleTokenizer tokenizer;
+
+    private final Map<String, PostingList> postings;    // 词项 -> 倒排表
+    private final Map<String, Integer> docIndex;         // 文档ID -> 内部编号
+    private final List<String> docIds;                   // 内部编号 -> 文档ID
+    private final List<String[]> docTerms;               // 内部编号 -> 文档包含的词项（删除时使用）
+    private int[] docLengths;
+    private final BitSet deleted;
+    private long totalLength;
+    private int deletedCount;
+    private final ReentrantReadWriteLock lock;
+
+    /**
+     * 默认构造函数
+     */
+    public BM25Index() {
+        this(DEFAULT_K1, DEFAULT_B);
+    }
+
+    /**
+     * 构造函数
+     * @param k1 词频饱和参数
+     * @param b 文档长度归一化参数
+     */
+    public BM25Index(double k1, double b) {
+        if (k1 < 0 || b < 0 || b > 1) {
+            throw new IllegalArgumentException("要求 k1 >= 0 且 0 <= b <= 1");
+        }
+        this.k1 = k1;
+        this.b = b;
+        this.tokenizer = new SimpleTokenizer();
+        this.postings = new HashMap<>();
+        this.docIndex = new HashMap<>();
+        this.docIds = new ArrayList<>();
+        this.docTerms = new ArrayList<>();
+        this.docLengths = new int[16];
+        this.deleted = new BitSet();
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * 添加或替换文档
+     * @param docId 文档ID
+     * @param content 文档内容
+     */
+    public void add(String docId, String content) {
+        List<String> tokens = tokenizer.tokenize(content);
+        Map<String, Integer> termFreqs = new HashMap<>();
+        for (String token : tokens) {
+            termFreqs.merge(token, 1, Integer::sum);
+        }
+
+        lock.writeLock().lock();
+        try {
+            removeInternal(docId);
+            // 内部编号单调递增，倒排表天然有序，直接追加
+            int internal = docIds.size();
+            docIds.add(docId);
+            docTerms.add(termFreqs.keySet().toArray(new String[0]));
+            docIndex.put(docId, internal);
+            if (internal == docLengths.length) {
+                docLengths = Arrays.copyOf(docLengths, internal * 2);
+            }
+            docLengths[internal] = tokens.size();
+            totalLength += tokens.size();
+            for (Map.Entry<String, Integer> entry : termFreqs.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), k -> new PostingList())
+                        .append(internal, entry.getValue(), tokens.size());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除文档
+     * @param docId 文档ID
+     * @return 是否存在并被删除
+     */
+    public boolean remove(String docId) {
+        lock.writeLock().lock();
+        try {
+            boolean removed = removeInternal(docId);
+            if (removed && deletedCount > 1024 && deletedCount * 2 > docIds.size()) {
+                purgeDeleted();
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 清空索引
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            docIndex.clear();
+            docIds.clear();
+            docTerms.clear();
+            docLengths = new int[16];
+            deleted.clear();
+            totalLength = 0;
+            deletedCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 top-k 检索（WAND提前终止）
+     * @param query 查询文本
+     * @param k 返回数量
+     * @return 按得分降序排列的结果
+     */
+    public List<HnswIndex.SearchResult> search(String query, int k) {
+        Map<String, Integer> queryTerms = queryTerms(query);
+        lock.readLock().lock();
+        try {
+            int liveDocs = docIndex.size();
+            if (k <= 0 || liveDocs == 0 || queryTerms.isEmpty()) {
+                return new ArrayList<>();
+            }
+            double avgLength = (double) totalLength / liveDocs;
+            List<Cursor> cursors = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : queryTerms.entrySet()) {
+                PostingList list = postings.get(entry.getKey());
+                if (list != null && list.liveCount > 0) {
+                    cursors.add(new Cursor(list, idf(list.liveCount, liveDocs) * entry.getValue(), avgLength));
+                }
+            }
+
+            // 小顶堆保存当前 top-k，堆顶得分即进入门槛
+            PriorityQueue<HnswIndex.SearchResult> heap = new PriorityQueue<>(k,
+                    Comparator.comparingDouble(HnswIndex.SearchResult::getSimilarity));
+            while (true) {
+                cursors.removeIf(Cursor::exhausted);
+                if (cursors.isEmpty()) {
+                    break;
+                }
+                cursors.sort(Comparator.comparingInt(Cursor::doc));
+                double threshold = heap.size() < k ? 0.0 : heap.peek().getSimilarity();
+
+                // 找到枢轴：前缀上界之和首次超过门槛的位置
+                double bound = 0.0;
+                int pivot = -1;
+                for (int i = 0; i < cursors.size(); i++) {
+                    bound += cursors.get(i).upperBound;
+                    if (bound > threshold) {
+                        pivot = i;
+                        break;
+                    }
+                }
+                if (pivot < 0) {
+                    break;
+                }
+                int pivotDoc = cursors.get(pivot).doc();
+                if (cursors.get(0).doc() == pivotDoc) {
+                    // 枢轴之前的游标都已对齐，完整打分
+                    double score = 0.0;
+                    for (Cursor cursor : cursors) {
+                        if (cursor.doc() != pivotDoc) {
+                            break;
+                        }
+                        score += cursor.score(docLengths[pivotDoc]);
+                        cursor.next();
+                    }
+                    if (!deleted.get(pivotDoc)) {
+                        if (heap.size() < k) {
+                            heap.add(new HnswIndex.SearchResult(docIds.get(pivotDoc), score));
+                        } else if (score > heap.peek().getSimilarity()) {
+                            heap.poll();
+                            heap.add(new HnswIndex.SearchResult(docIds.get(pivotDoc), score));
+                        }
+                    }
+                } else {
+                    // 跳过不可能超过门槛的文档
+                    for (int i = 0; i < pivot; i++) {
+                        cursors.get(i).skipTo(pivotDoc);
+                    }
+                }
+            }
+
+            List<HnswIndex.SearchResult> results = new ArrayList<>(heap);
+            results.sort((x, y) -> Double.compare(y.getSimilarity(), x.getSimilarity()));
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 逐个文档完整打分的检索，用于与 {@link #search} 对照
+     */
+    List<HnswIndex.SearchResult> searchExhaustive(String query, int k) {
+        Map<String, Integer> queryTerms = queryTerms(query);
+        lock.readLock().lock();
+        try {
+            int liveDocs = docIndex.size();
+            if (liveDocs == 0) {
+                return new ArrayList<>();
+            }
+            double avgLength = (double) totalLength / liveDocs;
+            Map<Integer, Double> scores = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : queryTerms.entrySet()) {
+                PostingList list = postings.get(entry.getKey());
+                if (list == null || list.liveCount == 0) {
+                    continue;
+                }
+                Cursor cursor = new Cursor(list, idf(list.liveCount, liveDocs) * entry.getValue(), avgLength);
+                for (; !cursor.exhausted(); cursor.next()) {
+                    if (!deleted.get(cursor.doc())) {
+                        scores.merge(cursor.doc(), cursor.score(docLengths[cursor.doc()]), Double::sum);
+                    }
+                }
+            }
+            List<HnswIndex.SearchResult> results = new ArrayList<>();
+            for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+                results.add(new HnswIndex.SearchResult(docIds.get(entry.getKey()), entry.getValue()));
+            }
+            results.sort((x, y) -> Double.compare(y.getSimilarity(), x.getSimilarity()));
+            return results.size() > k ? new ArrayList<>(results.subList(0, k)) : results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Map<String, Integer> queryTerms(String query) {
+        Map<String, Integer> terms = new HashMap<>();
+        for (String token : tokenizer.tokenize(query)) {
+            terms.merge(token, 1, Integer::sum);
+        }
+        return terms;
+    }
+
+    private boolean removeInternal(String docId) {
+        Integer internal = docIndex.remove(docId);
+        if (internal == null) {
+            return false;
+        }
+        deleted.set(internal);
+        deletedCount++;
+        totalLength -= docLengths[internal];
+        for (String term : docTerms.get(internal)) {
+            PostingList list = postings.get(term);
+            if (list != null) {
+                list.liveCount--;
+            }
+        }
+        docTerms.set(internal, null);
+        return true;
+    }
+
+    /**
+     * 从倒排表中移除已删除的文档并重新编号
+     */
+    private void purgeDeleted() {
+        int[] remap = new int[docIds.size()];
+        List<String> liveIds = new ArrayList<>();
+        List<String[]> liveTerms = new ArrayList<>();
+        int[] liveLengths = new int[Math.max(16, docIndex.size())];
+        for (int i = 0; i < docIds.size(); i++) {
+            if (deleted.get(i)) {
+                remap[i] = -1;
+            } else {
+                remap[i] = liveIds.size();
+                liveLengths[liveIds.size()] = docLengths[i];
+                liveIds.add(docIds.get(i));
+                liveTerms.add(docTerms.get(i));
+            }
+        }
+        Iterator<PostingList> it = postings.values().iterator();
+        while (it.hasNext()) {
+            PostingList list = it.next();
+            list.compact(remap, liveLengths);
+            if (list.size == 0) {
+                it.remove();
+            }
+        }
+        docIds.clear();
+        docIds.addAll(liveIds);
+        docTerms.clear();
+        docTerms.addAll(liveTerms);
+        docLengths = liveLengths;
+        docIndex.clear();
+        for (int i = 0; i < docIds.size(); i++) {
+            docIndex.put(docIds.get(i), i);
+        }
+        deleted.clear();
+        deletedCount = 0;
+    }
+
+    private static double idf(int docFreq, int docCount) {
+        return Math.log(1.0 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    /**
+     * 获取有效文档数
+     * @return 文档数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docIndex.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取词项数
+     * @return 词项数
+     */
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 检查是否包含指定文档
+     * @param docId 文档ID
+     * @return 是否包含
+     */
+    public boolean contains(String docId) {
+        lock.readLock().lock();
+        try {
+            return docIndex.containsKey(docId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 倒排表
+     */
+    private static class PostingList {
+        int[] docs = new int[4];
+        int[] freqs = new int[4];
+        int size;
+        int liveCount;          // 未删除的文档数（即文档频率）
+        int maxFreq;            // 最大词频，用于得分上界
+        int minLength = Integer.MAX_VALUE;  // 最短文档长度，用于得分上界
+
+        void append(int doc, int freq, int length) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+            liveCount++;
+            maxFreq = Math.max(maxFreq, freq);
+            minLength = Math.min(minLength, length);
+        }
+
+        void compact(int[] remap, int[] lengths) {
+            int count = 0;
+            maxFreq = 0;
+            minLength = Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                int doc = remap[docs[i]];
+                if (doc >= 0) {
+                    docs[count] = doc;
+                    freqs[count] = freqs[i];
+                    maxFreq = Math.max(maxFreq, freqs[i]);
+                    minLength = Math.min(minLength, lengths[doc]);
+                    count++;
+                }
+            }
+            size = count;
+            liveCount = count;
+        }
+    }
+
+    /**
+     * 查询时在倒排表上移动的游标
+     */
+    private class Cursor {
+        final PostingList list;
+        final double weight;        // idf × 查询词频
+        final double avgLength;
+        final double upperBound;
+        int position;
+
+        Cursor(PostingList list, double weight, double avgLength) {
+            this.list = list;
+            this.weight = weight;
+            this.avgLength = avgLength;
+            // 得分随词频递增、随文档长度递减，取最大词频与最短文档得到上界
+            this.upperBound = termScore(list.maxFreq, list.minLength);
+        }
+
+        boolean exhausted() {
+            return position >= list.size;
+        }
+
+        int doc() {
+            return list.docs[position];
+        }
+
+        double score(int length) {
+            return termScore(list.freqs[position], length);
+        }
+
+        double termScore(int freq, int length) {
+            double norm = k1 * (1 - b + b * length / avgLength);
+            return weight * freq * (k1 + 1) / (freq + norm);
+        }
+
+        void next() {
+            position++;
+        }
+
+        /**
+         * 跳到第一个不小于target的位置（倍增后二分）
+         */
+        void skipTo(int target) {
+            int low = position;
+            int step = 1;
+            int high = position;
+            while (high < list.size && list.docs[high] < target) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, list.size);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (list.docs[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            position = low;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BM25Index{" +
+                "documents=" + size() +
+                ", terms=" + getTermCount() +
+                ", k1=" + k1 +
+                ", b=" + b +
+                '}';
+    }
+}
@@ -12,7 +12,7 @@ public class Document {
     private String id;                          // 文档唯一标识
     private String content;                     // 文档内容
     private Map<String, Object> metadata;      // 文档元数据
-    private List<Double> embedding;             // 文档向量嵌入
+    private float[] embedding;                  // 文档向量嵌入（连续存储）
     private LocalDateTime createdAt;            // 创建时间
 
     /**
@@ -30,6 +30,14 @@ public class Document {
      */
     public Document(String id, String content, Map<String, Object> metadata, 
                    List<Double> embedding, LocalDateTime createdAt) {
+        this(id, content, metadata, VectorSimilarity.toFloatArray(embedding), createdAt);
+    }
+
+    /**
+     * 完整构造函数（float[]向量，不复制）
+     */
+    public Document(String id, String content, Map<String, Object> metadata,
+                   float[] embedding, LocalDateTime createdAt) {
         this.id = id;
         this.content = content;
         this.metadata = metadata;
@@ -62,14 +70,32 @@ public class Document {
         this.metadata = metadata;
     }
 
+    /**
+     * 获取向量嵌入（转换为列表，检索路径请使用 {@link #getVector()}）
+     */
     public List<Double> getEmbedding() {
-        return embedding;
+        return VectorSimilarity.toList(embedding);
     }
 
     public void setEmbedding(List<Double> embedding) {
+        this.embedding = VectorSimilarity.toFloatArray(embedding);
+    }
+
+    public float[] getVector() {
+        return embedding;
+    }
+
+    public void setVector(float[] embedding) {
         this.embedding = embedding;
     }
 
+    /**
+     * 是否有非空的向量嵌入
+     */
+    public boolean hasEmbedding() {
+        return embedding != null && embedding.length > 0;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -84,7 +110,7 @@ public class Document {
                 "id='" + id + '\'' +
                 ", content='" + (content.length() > 50 ? content.substring(0, 50) + "..." : content) + '\'' +
                 ", metadata=" + metadata +
-                ", embeddingSize=" + (embedding != null ? embedding.size() : 0) +
+                ", embeddingSize=" + (embedding != null ? embedding.length : 0) +
                 ", createdAt=" + createdAt +
                 '}';
     }
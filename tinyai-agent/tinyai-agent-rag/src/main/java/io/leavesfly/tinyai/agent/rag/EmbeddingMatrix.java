@@ -0,0 +1,168 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 嵌入矩阵
+ * 一个集合的所有向量按行连续存储在同一个 float[] 中，并预先计算每行的L2范数，
+ * 检索时一次遍历完成全部余弦打分，再用有界堆选出 top-k。
+ * 删除时用最后一行填补空位，保持矩阵紧凑。
+ */
+public class EmbeddingMatrix {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private float[] data;                       // 行优先存储的向量
+    private float[] norms;                      // 每行的L2范数
+    private String[] ids;                       // 每行对应的文档ID
+    private final Map<String, Integer> rowIndex;
+    private int rows;
+    private int dimension;
+    private final ReentrantReadWriteLock lock;
+
+    /**
+     * 构造函数
+     */
+    public EmbeddingMatrix() {
+        this.rowIndex = new HashMap<>();
+        this.dimension = -1;
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * 插入或替换一行
+     * @param id 文档ID
+     * @param vector 向量
+     */
+    public void put(String id, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            if (rows == 0 && (data == null || vector.length != dimension)) {
+                dimension = vector.length;
+                allocate(INITIAL_CAPACITY);
+            } else if (vector.length != dimension) {
+                throw new IllegalArgumentException("向量维度 " + vector.length + " 与矩阵维度 " + dimension + " 不一致");
+            }
+            Integer row = rowIndex.get(id);
+            if (row == null) {
+                if (rows == ids.length) {
+                    grow();
+                }
+                row = rows++;
+                rowIndex.put(id, row);
+                ids[row] = id;
+            }
+            System.arraycopy(vector, 0, data, row * dimension, dimension);
+            norms[row] = (float) VectorSimilarity.l2Norm(vector);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除一行
+     * @param id 文档ID
+     * @return 是否存在并被删除
+     */
+    public boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer row = rowIndex.remove(id);
+            if (row == null) {
+                return false;
+            }
+            int last = --rows;
+            if (row != last) {
+                System.arraycopy(data, last * dimension, data, row * dimension, dimension);
+                norms[row] = norms[last];
+                ids[row] = ids[last];
+                rowIndex.put(ids[row], row);
+            }
+            ids[last] = null;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 清空矩阵
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            rowIndex.clear();
+            if (ids != null) {
+                Arrays.fill(ids, null);
+            }
+            rows = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 余弦相似度 top-k 检索
+     * @param query 查询向量
+     * @param k 返回数量
+     * @param threshold 相似度阈值
+     * @return 按相似度降序排列的结果
+     */
+    public List<HnswIndex.SearchResult> search(float[] query, int k, double threshold) {
+        lock.readLock().lock();
+        try {
+            if (rows == 0 || query == null || query.length != dimension) {
+                return new ArrayList<>();
+            }
+            float[] scores = new float[rows];
+            VectorSimilarity.batchDot(data, rows, dimension, query, scores);
+            double queryNorm = VectorSimilarity.l2Norm(query);
+            for (int r = 0; r < rows; r++) {
+                double denominator = queryNorm * norms[r];
+                scores[r] = denominator == 0.0 ? 0.0f : (float) (scores[r] / denominator);
+            }
+            int[] top = VectorSimilarity.topK(scores, rows, k, threshold);
+            List<HnswIndex.SearchResult> results = new ArrayList<>(top.length);
+            for (int row : top) {
+                results.add(new HnswIndex.SearchResult(ids[row], scores[row]));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void allocate(int capacity) {
+        data = new float[capacity * dimension];
+        norms = new float[capacity];
+        ids = new String[capacity];
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        data = Arrays.copyOf(data, capacity * dimension);
+        norms = Arrays.copyOf(norms, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+    }
+
+    /**
+     * 获取行数
+     * @return 向量数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取向量维度
+     * @return 维度，尚无向量时返回-1
+     */
+    public int getDimension() {
+        return dimension;
+    }
+}
@@ -0,0 +1,540 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * HNSW近似最近邻索引
+ * 分层可导航小世界图（Hierarchical Navigable Small World），按余弦相似度检索。
+ * 向量插入时归一化，图中以内积作为相似度；每次查询只访问图中很小一部分节点，
+ * 复杂度约为 O(log N · efSearch · d)，代替逐个文档计算相似度。
+ *
+ * 支持增量插入与删除（删除为标记删除，已删除节点仍参与导航，删除过多时自动重建）。
+ * 查询之间可并发，插入与删除互斥。
+ */
+public class HnswIndex {
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+    public static final int DEFAULT_EF_SEARCH = 128;
+
+    private final int m;                        // 每层最大连接数
+    private final int maxM0;                    // 第0层最大连接数
+    private final int efConstruction;           // 构建时的候选集大小
+    private volatile int efSearch;              // 查询时的候选集大小
+    private final double levelMultiplier;       // 层数生成系数 1/ln(M)
+    private final Random random;
+
+    private final List<Node> nodes;
+    private final Map<String, Integer> idToNode;
+    private int entryPoint;
+    private int maxLevel;
+    private int dimension;
+    private int deletedCount;
+    private final ReentrantReadWriteLock lock;
+
+    /**
+     * 默认构造函数
+     */
+    public HnswIndex() {
+        this(DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH, 42L);
+    }
+
+    /**
+     * 构造函数
+     * @param m 每层最大连接数，越大召回越高、内存与构建时间越多
+     * @param efConstruction 构建时的候选集大小
+     * @param efSearch 查询时的候选集大小，越大召回越高、查询越慢
+     * @param seed 随机种子（决定节点层数）
+     */
+    public HnswIndex(int m, int efConstruction, int efSearch, long seed) {
+        if (m < 2 || efConstruction < 1 || efSearch < 1) {
+            throw new IllegalArgumentException("要求 m >= 2, efConstruction >= 1, efSearch >= 1");
+        }
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new Random(seed);
+        this.nodes = new ArrayList<>();
+        this.idToNode = new HashMap<>();
+        this.entryPoint = -1;
+        this.maxLevel = -1;
+        this.dimension = -1;
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * 插入或替换向量
+     * @param id 文档ID
+     * @param vector 向量（内部会复制并归一化）
+     */
+    public void add(String id, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            if (dimension < 0) {
+                dimension = vector.length;
+            } else if (vector.length != dimension) {
+                throw new IllegalArgumentException("向量维度 " + vector.length + " 与索引维度 " + dimension + " 不一致");
+            }
+            Integer existing = idToNode.remove(id);
+            if (existing != null) {
+                markDeleted(existing);
+            }
+            insert(id, normalize(vector));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 插入或替换向量
+     * @param id 文档ID
+     * @param vector 向量
+     */
+    public void add(String id, List<Double> vector) {
+        add(id, VectorSimilarity.toFloatArray(vector));
+    }
+
+    /**
+     * 删除向量（标记删除）
+     * @param id 文档ID
+     * @return 是否存在并被删除
+     */
+    public boolean remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer node = idToNode.remove(id);
+            if (node == null) {
+                return false;
+            }
+            markDeleted(node);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 清空索引
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            nodes.clear();
+            idToNode.clear();
+            entryPoint = -1;
+            maxLevel = -1;
+            dimension = -1;
+            deletedCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 近似最近邻查询
+     * @param query 查询向量
+     * @param k 返回数量
+     * @return 按相似度降序排列的结果
+     */
+    public List<SearchResult> search(float[] query, int k) {
+        return search(query, k, efSearch);
+    }
+
+    /**
+     * 近似最近邻查询
+     * @param query 查询向量
+     * @param k 返回数量
+     * @param ef 候选集大小（小于k时按k计）
+     * @return 按相似度降序排列的结果
+     */
+    public List<SearchResult> search(float[] query, int k, int ef) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) {
+                return new ArrayList<>();
+            }
+            if (query.length != dimension) {
+                throw new IllegalArgumentException("查询维度 " + query.length + " 与索引维度 " + dimension + " 不一致");
+            }
+            float[] q = normalize(query);
+            int current = entryPoint;
+            float currentSim = dot(q, nodes.get(current).vector);
+            for (int level = maxLevel; level > 0; level--) {
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    Node node = nodes.get(current);
+                    for (int i = 0; i < node.linkCounts[level]; i++) {
+                        int neighbor = node.links[level][i];
+                        float sim = dot(q, nodes.get(neighbor).vector);
+                        if (sim > currentSim) {
+                            currentSim = sim;
+                            current = neighbor;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+
+            // 已删除节点不计入结果，适当放大候选集
+            int candidates = Math.max(ef, k) + Math.min(deletedCount, Math.max(ef, k));
+            PriorityQueue<Candidate> found = searchLayer(q, current, candidates, 0);
+            List<SearchResult> results = new ArrayList<>(found.size());
+            while (!found.isEmpty()) {
+                Candidate c = found.poll();
+                Node node = nodes.get(c.node);
+                if (!node.deleted) {
+                    results.add(new SearchResult(node.id, c.similarity));
+                }
+            }
+            Collections.reverse(results);
+            return results.size() > k ? new ArrayList<>(results.subList(0, k)) : results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 近似最近邻查询
+     * @param query 查询向量
+     * @param k 返回数量
+     * @return 按相似度降序排列的结果
+     */
+    public List<SearchResult> search(List<Double> query, int k) {
+        return search(VectorSimilarity.toFloatArray(query), k, efSearch);
+    }
+
+    private void insert(String id, float[] vector) {
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        int nodeIndex = nodes.size();
+        Node node = new Node(id, vector, level, m, maxM0);
+        nodes.add(node);
+        idToNode.put(id, nodeIndex);
+
+        if (entryPoint < 0) {
+            entryPoint = nodeIndex;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        float currentSim = dot(vector, nodes.get(current).vector);
+        for (int l = maxLevel; l > level; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                Node cur = nodes.get(current);
+                for (int i = 0; i < cur.linkCounts[l]; i++) {
+                    int neighbor = cur.links[l][i];
+                    float sim = dot(vector, nodes.get(neighbor).vector);
+                    if (sim > currentSim) {
+                        currentSim = sim;
+                        current = neighbor;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            PriorityQueue<Candidate> found = searchLayer(vector, current, efConstruction, l);
+            List<Candidate> sorted = new ArrayList<>(found);
+            sorted.sort((a, b) -> Float.compare(b.similarity, a.similarity));
+            current = sorted.get(0).node;
+
+            int capacity = l == 0 ? maxM0 : m;
+            List<Candidate> selected = selectNeighbors(sorted, m);
+            for (Candidate c : selected) {
+                node.links[l][node.linkCounts[l]++] = c.node;
+                connect(c.node, nodeIndex, l, capacity);
+            }
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = nodeIndex;
+        }
+    }
+
+    /**
+     * 在 from 的邻接表中加入 to，超出容量时用启发式重新挑选邻居
+     */
+    private void connect(int from, int to, int level, int capacity) {
+        Node node = nodes.get(from);
+        if (node.linkCounts[level] < capacity) {
+            node.links[level][node.linkCounts[level]++] = to;
+            return;
+        }
+        List<Candidate> candidates = new ArrayList<>(capacity + 1);
+        for (int i = 0; i < node.linkCounts[level]; i++) {
+            int neighbor = node.links[level][i];
+            candidates.add(new Candidate(neighbor, dot(node.vector, nodes.get(neighbor).vector)));
+        }
+        candidates.add(new Candidate(to, dot(node.vector, nodes.get(to).vector)));
+        candidates.sort((a, b) -> Float.compare(b.similarity, a.similarity));
+        List<Candidate> selected = selectNeighbors(candidates, capacity);
+        node.linkCounts[level] = 0;
+        for (Candidate c : selected) {
+            node.links[level][node.linkCounts[level]++] = c.node;
+        }
+    }
+
+    /**
+     * 启发式邻居选择：优先保留彼此方向不同的邻居，保证图的连通性；不足时用剩余候选补齐
+     * @param sorted 按相似度降序排列的候选
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> sorted, int limit) {
+        List<Candidate> selected = new ArrayList<>(limit);
+        List<Candidate> pruned = new ArrayList<>();
+        for (Candidate c : sorted) {
+            if (selected.size() >= limit) {
+                break;
+            }
+            float[] vector = nodes.get(c.node).vector;
+            boolean diverse = true;
+            for (Candidate s : selected) {
+                if (dot(vector, nodes.get(s.node).vector) > c.similarity) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(c);
+            } else {
+                pruned.add(c);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < limit; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * 在指定层做束搜索
+     * @return 最小堆（堆顶为相似度最低者），大小不超过 ef
+     */
+    private PriorityQueue<Candidate> searchLayer(float[] query, int entry, int ef, int level) {
+        BitSet visited = new BitSet(nodes.size());
+        visited.set(entry);
+        Candidate start = new Candidate(entry, dot(query, nodes.get(entry).vector));
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>((a, b) -> Float.compare(b.similarity, a.similarity));
+        PriorityQueue<Candidate> found = new PriorityQueue<>((a, b) -> Float.compare(a.similarity, b.similarity));
+        candidates.add(start);
+        found.add(start);
+
+        while (!candidates.isEmpty()) {
+            Candidate c = candidates.poll();
+            if (found.size() >= ef && c.similarity < found.peek().similarity) {
+                break;
+            }
+            Node node = nodes.get(c.node);
+            for (int i = 0; i < node.linkCounts[level]; i++) {
+                int neighbor = node.links[level][i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float sim = dot(query, nodes.get(neighbor).vector);
+                if (found.size() < ef || sim > found.peek().similarity) {
+                    Candidate next = new Candidate(neighbor, sim);
+                    candidates.add(next);
+                    found.add(next);
+                    if (found.size() > ef) {
+                        found.poll();
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * 标记删除节点（删除与替换共用）；已删除节点超过一半时重建，避免图中充斥无效节点
+     */
+    private void markDeleted(int node) {
+        nodes.get(node).deleted = true;
+        deletedCount++;
+        if (deletedCount > 64 && deletedCount * 2 > nodes.size()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * 图中的节点数（含标记删除的节点）
+     */
+    int nodeCount() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 只用未删除的节点重建图
+     */
+    private void rebuild() {
+        List<Node> live = new ArrayList<>();
+        for (Node node : nodes) {
+            if (!node.deleted) {
+                live.add(node);
+            }
+        }
+        nodes.clear();
+        idToNode.clear();
+        entryPoint = -1;
+        maxLevel = -1;
+        deletedCount = 0;
+        for (Node node : live) {
+            insert(node.id, node.vector);
+        }
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0.0;
+        for (float v : vector) {
+            norm += (double) v * v;
+        }
+        float[] result = new float[vector.length];
+        if (norm > 0.0) {
+            float inv = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                result[i] = vector[i] * inv;
+            }
+        }
+        return result;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0.0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 设置查询时的候选集大小
+     * @param efSearch 候选集大小
+     */
+    public void setEfSearch(int efSearch) {
+        if (efSearch < 1) {
+            throw new IllegalArgumentException("efSearch必须为正数");
+        }
+        this.efSearch = efSearch;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    /**
+     * 获取有效向量数
+     * @return 未删除的向量数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return idToNode.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 检查是否包含指定ID
+     * @param id 文档ID
+     * @return 是否包含
+     */
+    public boolean contains(String id) {
+        lock.readLock().lock();
+        try {
+            return idToNode.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 图节点
+     */
+    private static class Node {
+        final String id;
+        final float[] vector;
+        final int[][] links;        // 每层的邻居
+        final int[] linkCounts;     // 每层的邻居数
+        boolean deleted;
+
+        Node(String id, float[] vector, int level, int m, int maxM0) {
+            this.id = id;
+            this.vector = vector;
+            this.links = new int[level + 1][];
+            this.linkCounts = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[l == 0 ? maxM0 : m];
+            }
+        }
+    }
+
+    /**
+     * 搜索候选
+     */
+    private static class Candidate {
+        final int node;
+        final float similarity;
+
+        Candidate(int node, float similarity) {
+            this.node = node;
+            this.similarity = similarity;
+        }
+    }
+
+    /**
+     * 查询结果
+     */
+    public static class SearchResult {
+        private final String id;
+        private final double similarity;
+
+        public SearchResult(String id, double similarity) {
+            this.id = id;
+            this.similarity = similarity;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        @Override
+        public String toString() {
+            return "SearchResult{id='" + id + "', similarity=" + similarity + '}';
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HnswIndex{" +
+                "size=" + size() +
+                ", m=" + m +
+                ", efConstruction=" + efConstruction +
+                ", efSearch=" + efSearch +
+                ", maxLevel=" + maxLevel +
+                '}';
+    }
+}
@@ -0,0 +1,474 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 流式文档导入流水线
+ * 读取与切分 -> 分词并增量更新文档频率 -> 向量化 -> 批量写入，阶段之间为有界队列，
+ * 分词与向量化阶段多线程并行，下游处理不过来时上游阻塞，内存占用与输入规模无关。
+ * 向量化器尚未训练时，先用前 bootstrapSize 个文本块确定特征，之后只增量更新文档频率；
+ * 内容未变的已索引文档直接跳过，不重新向量化
+ */
+public class IngestionPipeline {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_BOOTSTRAP_SIZE = 1000;
+    private static final int PARALLEL_THRESHOLD = 64;    // 少于该数量的输入在调用线程内顺序处理
+
+    private static final Chunk END = new Chunk(null, null, null);
+
+    private final TFIDFVectorizer vectorizer;
+    private final Consumer<List<Document>> sink;        // 批量写入（单线程调用）
+    private IndexedFilter indexedFilter;                // 已索引判断
+    private int workers;
+    private int chunkSize;                              // 文本块最大字符数，0表示不切分
+    private int chunkOverlap;
+    private int batchSize;
+    private int queueCapacity;
+    private int bootstrapSize;
+
+    /**
+     * 待导入的源文档
+     */
+    public static class SourceDocument {
+        private final String id;
+        private final String content;
+        private final Map<String, Object> metadata;
+
+        public SourceDocument(String id, String content, Map<String, Object> metadata) {
+            if (id == null || content == null) {
+                throw new IllegalArgumentException("文档ID和内容不能为空");
+            }
+            this.id = id;
+            this.content = content;
+            this.metadata = metadata != null ? metadata : new HashMap<>();
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public Map<String, Object> getMetadata() {
+            return metadata;
+        }
+    }
+
+    /**
+     * 已索引判断
+     */
+    public interface IndexedFilter {
+        /**
+         * @return 该文本块是否已索引且内容与元数据均未变化
+         */
+        boolean isIndexed(String id, String content, Map<String, Object> metadata);
+    }
+
+    /**
+     * 在各阶段之间传递的文本块
+     */
+    private static class Chunk {
+        final String id;
+        final String content;
+        final Map<String, Object> metadata;
+        List<String> tokens;
+        float[] vector;
+
+        Chunk(String id, String content, Map<String, Object> metadata) {
+            this.id = id;
+            this.content = content;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * 构造函数
+     * @param vectorizer 向量化器，未训练时由流水线用前若干文本块训练
+     * @param sink 批量写入回调，始终在同一线程中调用
+     */
+    public IngestionPipeline(TFIDFVectorizer vectorizer, Consumer<List<Document>> sink) {
+        this.vectorizer = vectorizer;
+        this.sink = sink;
+        this.indexedFilter = (id, content, metadata) -> false;
+        this.workers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        this.bootstrapSize = DEFAULT_BOOTSTRAP_SIZE;
+    }
+
+    /**
+     * 设置切分参数
+     * @param chunkSize 文本块最大字符数，0表示不切分
+     * @param chunkOverlap 相邻文本块重叠的字符数
+     */
+    public IngestionPipeline setChunking(int chunkSize, int chunkOverlap) {
+        if (chunkSize < 0 || chunkOverlap < 0 || (chunkSize > 0 && chunkOverlap >= chunkSize)) {
+            throw new IllegalArgumentException("切分参数无效: chunkSize=" + chunkSize + ", chunkOverlap=" + chunkOverlap);
+        }
+        this.chunkSize = chunkSize;
+        this.chunkOverlap = chunkOverlap;
+        return this;
+    }
+
+    /**
+     * 设置分词与向量化阶段各自的线程数
+     */
+    public IngestionPipeline setWorkers(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("线程数必须为正数: " + workers);
+        }
+        this.workers = workers;
+        return this;
+    }
+
+    public IngestionPipeline setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("批大小必须为正数: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public IngestionPipeline setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("队列容量必须为正数: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * 设置向量化器未训练时用于确定特征的文本块数
+     */
+    public IngestionPipeline setBootstrapSize(int bootstrapSize) {
+        if (bootstrapSize <= 0) {
+            throw new IllegalArgumentException("训练样本数必须为正数: " + bootstrapSize);
+        }
+        this.bootstrapSize = bootstrapSize;
+        return this;
+    }
+
+    /**
+     * 设置已索引判断，返回true的文本块直接跳过
+     */
+    public IngestionPipeline setIndexedFilter(IndexedFilter indexedFilter) {
+        this.indexedFilter = indexedFilter;
+        return this;
+    }
+
+    /**
+     * 导入文档列表，数量较少时在调用线程内顺序处理
+     */
+    public IngestionReport run(List<SourceDocument> sources) {
+        if (sources.size() < PARALLEL_THRESHOLD) {
+            return runSequential(sources.iterator());
+        }
+        return run(sources.iterator());
+    }
+
+    /**
+     * 流式导入，源文档在读取阶段按需获取（例如逐个读取文件）
+     */
+    public IngestionReport run(Iterator<SourceDocument> sources) {
+        IngestionReport report = new IngestionReport();
+        long start = System.nanoTime();
+        List<Chunk> bootstrap = bootstrapIfUntrained(sources, report);
+
+        BlockingQueue<Chunk> tokenizeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Chunk> embedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Chunk> writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger activeTokenizers = new AtomicInteger(workers);
+        AtomicInteger activeEmbedders = new AtomicInteger(workers);
+        ExecutorService executor = Executors.newFixedThreadPool(workers * 2 + 1, r -> {
+            Thread thread = new Thread(r, "rag-ingestion");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < workers; i++) {
+            executor.execute(() -> stage(failure, executor, () -> {
+                while (true) {
+                    Chunk chunk = tokenizeQueue.take();
+                    if (chunk == END) {
+                        break;
+                    }
+                    if (tokenize(chunk, report)) {
+                        embedQueue.put(chunk);
+                    }
+                }
+                if (activeTokenizers.decrementAndGet() == 0) {
+                    for (int j = 0; j < workers; j++) {
+                        embedQueue.put(END);
+                    }
+                }
+            }));
+            executor.execute(() -> stage(failure, executor, () -> {
+                while (true) {
+                    Chunk chunk = embedQueue.take();
+                    if (chunk == END) {
+                        break;
+                    }
+                    embed(chunk, report);
+                    writeQueue.put(chunk);
+                }
+                if (activeEmbedders.decrementAndGet() == 0) {
+                    writeQueue.put(END);
+                }
+            }));
+        }
+        executor.execute(() -> stage(failure, executor, () -> {
+            List<Chunk> batch = new ArrayList<>(batchSize);
+            while (true) {
+                Chunk chunk = writeQueue.take();
+                if (chunk != END) {
+                    batch.add(chunk);
+                }
+                if (batch.size() >= batchSize || (chunk == END && !batch.isEmpty())) {
+                    write(batch, report);
+                    batch = new ArrayList<>(batchSize);
+                }
+                if (chunk == END) {
+                    break;
+                }
+            }
+        }));
+
+        // 读取阶段在调用线程中执行，队列满时阻塞
+        try {
+            for (Chunk chunk : bootstrap) {
+                offer(embedQueue, chunk, failure);
+            }
+            while (failure.get() == null && sources.hasNext()) {
+                for (Chunk chunk : read(sources.next(), report)) {
+                    offer(tokenizeQueue, chunk, failure);
+                }
+            }
+            for (int i = 0; i < workers; i++) {
+                offer(tokenizeQueue, END, failure);
+            }
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+            executor.shutdownNow();
+        }
+
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (failure.get() != null) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("文档导入被中断", e);
+        }
+        rethrow(failure.get());
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * 在调用线程中依次执行各阶段（小批量时避免线程开销）
+     */
+    private IngestionReport runSequential(Iterator<SourceDocument> sources) {
+        IngestionReport report = new IngestionReport();
+        long start = System.nanoTime();
+        List<Chunk> batch = new ArrayList<>(bootstrapIfUntrained(sources, report));
+        for (Chunk chunk : batch) {
+            embed(chunk, report);
+        }
+        while (sources.hasNext()) {
+            for (Chunk chunk : read(sources.next(), report)) {
+                if (tokenize(chunk, report)) {
+                    embed(chunk, report);
+                    batch.add(chunk);
+                }
+            }
+        }
+        for (int from = 0; from < batch.size(); from += batchSize) {
+            write(batch.subList(from, Math.min(batch.size(), from + batchSize)), report);
+        }
+        report.setElapsedNanos(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * 向量化器未训练时读取前 bootstrapSize 个未索引的文本块训练特征，返回已分词的文本块
+     */
+    private List<Chunk> bootstrapIfUntrained(Iterator<SourceDocument> sources, IngestionReport report) {
+        if (vectorizer.isTrained()) {
+            return Collections.emptyList();
+        }
+        List<Chunk> chunks = new ArrayList<>();
+        while (chunks.size() < bootstrapSize && sources.hasNext()) {
+            for (Chunk chunk : read(sources.next(), report)) {
+                if (isIndexed(chunk, report)) {
+                    continue;
+                }
+                long t = System.nanoTime();
+                chunk.tokens = vectorizer.getTokenizer().tokenize(chunk.content);
+                report.tokenizeNanos.add(System.nanoTime() - t);
+                chunks.add(chunk);
+            }
+        }
+        if (!chunks.isEmpty()) {
+            List<List<String>> tokenized = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks) {
+                tokenized.add(chunk.tokens);
+            }
+            vectorizer.fitTokens(tokenized);
+        }
+        return chunks;
+    }
+
+    private List<Chunk> read(SourceDocument source, IngestionReport report) {
+        long t = System.nanoTime();
+        report.sourceCount.increment();
+        report.characterCount.add(source.getContent().length());
+        List<String> pieces = chunk(source.getContent(), chunkSize, chunkOverlap);
+        List<Chunk> chunks = new ArrayList<>(pieces.size());
+        if (pieces.size() == 1) {
+            chunks.add(new Chunk(source.getId(), pieces.get(0), source.getMetadata()));
+        } else {
+            for (int i = 0; i < pieces.size(); i++) {
+                Map<String, Object> metadata = new HashMap<>(source.getMetadata());
+                metadata.put("source_id", source.getId());
+                metadata.put("chunk_index", i);
+                chunks.add(new Chunk(source.getId() + "#" + i, pieces.get(i), metadata));
+            }
+        }
+        report.chunkCount.add(chunks.size());
+        report.readNanos.add(System.nanoTime() - t);
+        return chunks;
+    }
+
+    private boolean isIndexed(Chunk chunk, IngestionReport report) {
+        if (indexedFilter.isIndexed(chunk.id, chunk.content, chunk.metadata)) {
+            report.skippedCount.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 分词并计入文档频率，已索引的文本块返回false
+     */
+    private boolean tokenize(Chunk chunk, IngestionReport report) {
+        if (isIndexed(chunk, report)) {
+            return false;
+        }
+        long t = System.nanoTime();
+        chunk.tokens = vectorizer.getTokenizer().tokenize(chunk.content);
+        vectorizer.updateStatistics(chunk.tokens);
+        report.tokenizeNanos.add(System.nanoTime() - t);
+        return true;
+    }
+
+    private void embed(Chunk chunk, IngestionReport report) {
+        long t = System.nanoTime();
+        chunk.vector = vectorizer.transformTokens(chunk.tokens);
+        chunk.tokens = null;
+        report.embedNanos.add(System.nanoTime() - t);
+    }
+
+    private void write(List<Chunk> chunks, IngestionReport report) {
+        long t = System.nanoTime();
+        List<Document> documents = new ArrayList<>(chunks.size());
+        LocalDateTime now = LocalDateTime.now();
+        for (Chunk chunk : chunks) {
+            documents.add(new Document(chunk.id, chunk.content, chunk.metadata, chunk.vector, now));
+        }
+        sink.accept(documents);
+        report.indexedCount.add(documents.size());
+        report.writeNanos.add(System.nanoTime() - t);
+    }
+
+    /**
+     * 按字符数切分文本，尽量在句末或换行处断开，相邻块保留 overlap 个字符的重叠
+     * @param text 文本
+     * @param size 块的最大字符数，0表示不切分
+     * @param overlap 重叠字符数
+     * @return 文本块列表（至少一个）
+     */
+    public static List<String> chunk(String text, int size, int overlap) {
+        if (size <= 0 || text.length() <= size) {
+            return Collections.singletonList(text);
+        }
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + size);
+            if (end < text.length()) {
+                // 在窗口后四分之一内寻找断句位置
+                for (int i = end - 1; i > end - size / 4; i--) {
+                    if ("\n。！？；.!?;".indexOf(text.charAt(i)) >= 0) {
+                        end = i + 1;
+                        break;
+                    }
+                }
+            }
+            chunks.add(text.substring(start, end));
+            if (end == text.length()) {
+                break;
+            }
+            start = Math.max(start + 1, end - overlap);
+        }
+        return chunks;
+    }
+
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    private static void stage(AtomicReference<Throwable> failure, ExecutorService executor, StageBody body) {
+        try {
+            body.run();
+        } catch (InterruptedException e) {
+            // 其他阶段失败后被中断
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+            executor.shutdownNow();
+        }
+    }
+
+    private static void offer(BlockingQueue<Chunk> queue, Chunk chunk, AtomicReference<Throwable> failure) {
+        try {
+            while (failure.get() == null && !queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                // 等待下游消费，其他阶段失败时放弃
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("文档导入被中断", e);
+        }
+    }
+
+    private static void rethrow(Throwable t) {
+        if (t == null) {
+            return;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof IOException) {
+            throw new UncheckedIOException((IOException) t);
+        }
+        throw new IllegalStateException("文档导入失败", t);
+    }
+}
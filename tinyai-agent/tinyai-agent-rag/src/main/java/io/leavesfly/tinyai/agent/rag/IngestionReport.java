@@ -0,0 +1,87 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文档导入统计
+ * 记录一次导入的源文档数、文本块数、跳过数、写入数与各阶段累计耗时，并计算吞吐量
+ */
+public class IngestionReport {
+    final LongAdder sourceCount = new LongAdder();      // 读取的源文档数
+    final LongAdder chunkCount = new LongAdder();       // 切分出的文本块数
+    final LongAdder skippedCount = new LongAdder();     // 内容未变、跳过的文本块数
+    final LongAdder indexedCount = new LongAdder();     // 向量化并写入的文本块数
+    final LongAdder characterCount = new LongAdder();   // 读取的字符数
+    final LongAdder readNanos = new LongAdder();        // 读取与切分耗时
+    final LongAdder tokenizeNanos = new LongAdder();    // 分词与统计文档频率耗时（各线程累计）
+    final LongAdder embedNanos = new LongAdder();       // 向量化耗时（各线程累计）
+    final LongAdder writeNanos = new LongAdder();       // 写入耗时
+    private long elapsedNanos;                          // 总耗时
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getSourceCount() {
+        return sourceCount.sum();
+    }
+
+    public long getChunkCount() {
+        return chunkCount.sum();
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    public long getIndexedCount() {
+        return indexedCount.sum();
+    }
+
+    public long getCharacterCount() {
+        return characterCount.sum();
+    }
+
+    public double getElapsedMillis() {
+        return elapsedNanos / 1e6;
+    }
+
+    public double getReadMillis() {
+        return readNanos.sum() / 1e6;
+    }
+
+    public double getTokenizeMillis() {
+        return tokenizeNanos.sum() / 1e6;
+    }
+
+    public double getEmbedMillis() {
+        return embedNanos.sum() / 1e6;
+    }
+
+    public double getWriteMillis() {
+        return writeNanos.sum() / 1e6;
+    }
+
+    /**
+     * 每秒处理的文本块数
+     */
+    public double getChunksPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : getChunkCount() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * 每秒读取的字符数
+     */
+    public double getCharactersPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : getCharacterCount() * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("IngestionReport{sources=%d, chunks=%d, indexed=%d, skipped=%d, elapsed=%.1fms, "
+                        + "chunks/s=%.1f, chars/s=%.0f, read=%.1fms, tokenize=%.1fms, embed=%.1fms, write=%.1fms}",
+                getSourceCount(), getChunkCount(), getIndexedCount(), getSkippedCount(), getElapsedMillis(),
+                getChunksPerSecond(), getCharactersPerSecond(), getReadMillis(), getTokenizeMillis(),
+                getEmbedMillis(), getWriteMillis());
+    }
+}
@@ -0,0 +1,1023 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * 持久化向量存储
+ * 目录结构：
+ * - vectors-G.seg   追加写的向量段文件，按内存映射读取
+ * - documents-G.dat 追加写的文档内容、元数据与创建时间
+ * - wal.log         预写日志，记录插入与删除，每条带CRC32，重放到最后一条完整记录为止
+ * - index.ckpt      检查点，保存有效文档的位置信息，关闭或压缩时原子替换
+ * 其中G为代数，压缩时写入新一代文件，以检查点替换作为提交点。
+ *
+ * 重新打开只需读取检查点并重放日志，不需要重新向量化；文档内容按需读取，
+ * 检索（{@link #search}）直接在映射的向量段上打分，不把向量复制到堆上。
+ * 删除或覆盖产生的无效数据超过有效数据时，在后台线程中压缩：按条目快照复制数据时不持有读写锁，
+ * 只在补齐快照之后的写入并提交检查点时短暂持有写锁。
+ * 元数据值支持 String、Integer、Long、Double、Float、Boolean，其他类型按字符串保存。
+ */
+public class PersistentVectorStore implements Closeable {
+    private static final int WAL_MAGIC = 0x5741_4c31;         // "WAL1"
+    private static final int CHECKPOINT_MAGIC = 0x434b_5031;  // "CKP1"
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final int WAL_HEADER_SIZE = 12;
+    private static final long MAP_CHUNK_SIZE = 1L << 30;
+    private static final long MIN_COMPACT_BYTES = 1L << 20;
+    private static final long MAX_WAL_BYTES = 64L << 20;
+    private static final String CHECKPOINT_FILE = "index.ckpt";
+    private static final String WAL_FILE = "wal.log";
+
+    private final Path directory;
+    private final Map<String, Entry> entries;
+    private final ReentrantReadWriteLock lock;
+    private final ReentrantLock compactionLock;         // 压缩、清空与关闭互斥（它们会替换或截断数据文件）
+    private final ExecutorService maintenance;
+    private final AtomicBoolean maintenanceScheduled;
+
+    private long generation;
+    private FileChannel vectorChannel;
+    private FileChannel documentChannel;
+    private FileChannel walChannel;
+    private volatile MappedByteBuffer[] vectorChunks;   // 打开或压缩时映射的向量段
+    private volatile long mappedSize;
+    private long liveBytes;
+    private long deadBytes;
+    private boolean syncWrites;
+    private boolean closed;
+
+    /**
+     * 打开（或创建）持久化向量存储
+     * @param dbPath 存储目录
+     */
+    public PersistentVectorStore(String dbPath) {
+        this.directory = Paths.get(dbPath);
+        this.entries = new HashMap<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.compactionLock = new ReentrantLock();
+        this.maintenanceScheduled = new AtomicBoolean(false);
+        this.syncWrites = true;
+        this.maintenance = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "vector-store-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(directory);
+            open();
+        } catch (IOException e) {
+            maintenance.shutdownNow();
+            throw new UncheckedIOException("打开向量存储失败: " + dbPath, e);
+        }
+    }
+
+    private void open() throws IOException {
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            readCheckpoint(checkpoint);
+        }
+        vectorChannel = openChannel(vectorFile(generation));
+        documentChannel = openChannel(documentFile(generation));
+        deleteStaleGenerations();
+        replayWal();
+        mapVectors();
+
+        long totalBytes = vectorChannel.size() + documentChannel.size();
+        deadBytes = Math.max(0, totalBytes - liveBytes);
+    }
+
+    /**
+     * 写入或覆盖文档
+     * @param document 文档
+     */
+    public void put(Document document) {
+        putAll(Collections.singletonList(document));
+    }
+
+    /**
+     * 批量写入或覆盖文档，整批只刷盘一次
+     * @param documents 文档列表
+     */
+    public void putAll(List<Document> documents) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            List<Entry> written = new ArrayList<>(documents.size());
+            ByteArrayOutputStream wal = new ByteArrayOutputStream();
+            for (Document document : documents) {
+                Entry entry = appendData(document);
+                written.add(entry);
+                wal.write(walRecord(OP_PUT, entry.encode()));
+            }
+            // 先保证数据落盘，再写日志，日志中的记录总能找到对应数据
+            if (syncWrites) {
+                vectorChannel.force(false);
+                documentChannel.force(false);
+            }
+            appendWal(wal.toByteArray());
+            for (Entry entry : written) {
+                apply(entry);
+            }
+            extendMapping();
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入向量存储失败", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleMaintenanceIfNeeded();
+    }
+
+    /**
+     * 删除文档
+     * @param id 文档ID
+     * @return 是否存在并被删除
+     */
+    public boolean delete(String id) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (!entries.containsKey(id)) {
+                return false;
+            }
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            writeString(new DataOutputStream(payload), id);
+            appendWal(walRecord(OP_DELETE, payload.toByteArray()));
+            remove(id);
+        } catch (IOException e) {
+            throw new UncheckedIOException("删除文档失败: " + id, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleMaintenanceIfNeeded();
+        return true;
+    }
+
+    /**
+     * 读取文档（含向量）
+     * @param id 文档ID
+     * @return 文档，不存在返回null
+     */
+    public Document get(String id) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(entry.documentLength);
+            readFully(documentChannel, buffer, entry.documentOffset);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+            in.readInt();  // 记录长度
+            String docId = readString(in);
+            String content = readString(in);
+            LocalDateTime createdAt = LocalDateTime.parse(readString(in));
+            Map<String, Object> metadata = readMetadata(in);
+            return new Document(docId, content, metadata, readVector(entry), createdAt);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取文档失败: " + id, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 读取文档向量
+     * @param id 文档ID
+     * @return 向量，不存在或没有向量时返回null
+     */
+    public float[] getVector(String id) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            Entry entry = entries.get(id);
+            return entry == null ? null : readVector(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取向量失败: " + id, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 遍历所有文档向量（直接从映射的段文件读取）
+     * @param consumer 接收文档ID与向量
+     */
+    public void forEachVector(BiConsumer<String, float[]> consumer) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                float[] vector = readVector(e.getValue());
+                if (vector != null) {
+                    consumer.accept(e.getKey(), vector);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取向量失败", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 余弦相似度 top-k 检索，直接在映射的向量段上逐条打分
+     * @param query 查询向量
+     * @param k 返回数量
+     * @param threshold 相似度阈值
+     * @return 按相似度降序排列的结果（维度与查询不同的向量被跳过）
+     */
+    public List<HnswIndex.SearchResult> search(float[] query, int k, double threshold) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            if (query == null || query.length == 0 || entries.isEmpty()) {
+                return new ArrayList<>();
+            }
+            double queryNorm = VectorSimilarity.l2Norm(query);
+            String[] ids = new String[entries.size()];
+            float[] scores = new float[entries.size()];
+            int count = 0;
+            for (Entry entry : entries.values()) {
+                if (entry.vectorOffset < 0 || entry.dimension != query.length) {
+                    continue;
+                }
+                scores[count] = cosine(entry, query, queryNorm);
+                ids[count++] = entry.id;
+            }
+            int[] top = VectorSimilarity.topK(scores, count, k, threshold);
+            List<HnswIndex.SearchResult> results = new ArrayList<>(top.length);
+            for (int i : top) {
+                results.add(new HnswIndex.SearchResult(ids[i], scores[i]));
+            }
+            return results;
+        } catch (IOException e) {
+            throw new UncheckedIOException("检索向量失败", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 清空存储
+     */
+    public void clear() {
+        compactionLock.lock();
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            entries.clear();
+            liveBytes = 0;
+            deadBytes = 0;
+            writeCheckpoint(generation);
+            resetWal(generation);
+            vectorChunks = new MappedByteBuffer[0];
+            mappedSize = 0;
+            vectorChannel.truncate(0);
+            documentChannel.truncate(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("清空向量存储失败", e);
+        } finally {
+            lock.writeLock().unlock();
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * 写入检查点并清空日志，使下次打开无需重放
+     */
+    public void checkpoint() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            vectorChannel.force(false);
+            documentChannel.force(false);
+            writeCheckpoint(generation);
+            resetWal(generation);
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入检查点失败", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 压缩：把有效数据复制到新一代文件，丢弃已删除和被覆盖的数据
+     * 先按条目快照复制（数据文件只追加，快照中的记录不会改变），期间读写照常进行；
+     * 再在写锁内补齐快照之后写入或覆盖的记录，写入检查点并切换文件
+     */
+    public void compact() {
+        compactionLock.lock();
+        try {
+            Map<String, Entry> snapshot;
+            FileChannel sourceVectors;
+            FileChannel sourceDocuments;
+            long newGeneration;
+            lock.readLock().lock();
+            try {
+                ensureOpen();
+                snapshot = new HashMap<>(entries);
+                sourceVectors = vectorChannel;
+                sourceDocuments = documentChannel;
+                newGeneration = generation + 1;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            Path newVectorFile = vectorFile(newGeneration);
+            Path newDocumentFile = documentFile(newGeneration);
+            try (FileChannel vectors = FileChannel.open(newVectorFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 FileChannel documents = FileChannel.open(newDocumentFile, StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                Map<String, Entry> copied = new HashMap<>();
+                for (Entry entry : snapshot.values()) {
+                    copied.put(entry.id, copyRecord(entry, sourceDocuments, sourceVectors, documents, vectors));
+                }
+
+                lock.writeLock().lock();
+                try {
+                    Map<String, Entry> compacted = new HashMap<>();
+                    for (Entry entry : entries.values()) {
+                        // 快照之后写入或覆盖的记录在这里补齐；快照之后删除的记录不在entries中，直接丢弃
+                        Entry target = snapshot.get(entry.id) == entry ? copied.get(entry.id)
+                                : copyRecord(entry, documentChannel, vectorChannel, documents, vectors);
+                        compacted.put(entry.id, target);
+                    }
+                    vectors.force(true);
+                    documents.force(true);
+
+                    // 检查点替换即提交；之后日志以新一代重新开始
+                    Map<String, Entry> previous = new HashMap<>(entries);
+                    entries.clear();
+                    entries.putAll(compacted);
+                    try {
+                        writeCheckpoint(newGeneration);
+                    } catch (IOException e) {
+                        entries.clear();
+                        entries.putAll(previous);
+                        throw e;
+                    }
+                    long oldGeneration = generation;
+                    generation = newGeneration;
+                    resetWal(newGeneration);
+
+                    vectorChannel.close();
+                    documentChannel.close();
+                    vectorChannel = openChannel(newVectorFile);
+                    documentChannel = openChannel(newDocumentFile);
+                    deleteQuietly(vectorFile(oldGeneration));
+                    deleteQuietly(documentFile(oldGeneration));
+                    mapVectors();
+                    deadBytes = 0;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("压缩向量存储失败", e);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * 关闭存储：写入检查点并释放文件句柄
+     */
+    @Override
+    public void close() {
+        maintenance.shutdown();
+        compactionLock.lock();
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            vectorChannel.force(false);
+            documentChannel.force(false);
+            writeCheckpoint(generation);
+            resetWal(generation);
+            vectorChannel.close();
+            documentChannel.close();
+            walChannel.close();
+            vectorChunks = null;
+            closed = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("关闭向量存储失败", e);
+        } finally {
+            lock.writeLock().unlock();
+            compactionLock.unlock();
+        }
+    }
+
+    // ---------------- 数据文件 ----------------
+
+    private Entry appendData(Document document) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);  // 记录长度占位
+        writeString(out, document.getId());
+        writeString(out, document.getContent() != null ? document.getContent() : "");
+        writeString(out, (document.getCreatedAt() != null ? document.getCreatedAt() : LocalDateTime.now()).toString());
+        writeMetadata(out, document.getMetadata());
+        out.flush();
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        record.putInt(0, record.capacity());
+
+        long documentOffset = documentChannel.size();
+        writeFully(documentChannel, record, documentOffset);
+
+        long vectorOffset = -1;
+        int dimension = 0;
+        if (document.hasEmbedding()) {
+            float[] vector = document.getVector();
+            dimension = vector.length;
+            ByteBuffer buffer = ByteBuffer.allocate(4 + 4 * dimension);
+            buffer.putInt(dimension);
+            buffer.asFloatBuffer().put(vector);
+            buffer.rewind();
+            vectorOffset = vectorChannel.size();
+            writeFully(vectorChannel, buffer, vectorOffset);
+        }
+        return new Entry(document.getId(), documentOffset, record.capacity(), vectorOffset, dimension);
+    }
+
+    private static Entry copyRecord(Entry entry, FileChannel sourceDocuments, FileChannel sourceVectors,
+                                    FileChannel documents, FileChannel vectors) throws IOException {
+        long documentOffset = documents.position();
+        transfer(sourceDocuments, entry.documentOffset, entry.documentLength, documents);
+        long vectorOffset = -1;
+        if (entry.vectorOffset >= 0) {
+            vectorOffset = vectors.position();
+            transfer(sourceVectors, entry.vectorOffset, entry.vectorLength(), vectors);
+        }
+        return new Entry(entry.id, documentOffset, entry.documentLength, vectorOffset, entry.dimension);
+    }
+
+    /**
+     * 记录所在的映射块；映射之后追加或跨块的记录返回-1
+     */
+    private int mappedChunk(long start, long end) {
+        int chunk = (int) (start / MAP_CHUNK_SIZE);
+        return vectorChunks != null && end <= mappedSize && chunk == (int) ((end - 1) / MAP_CHUNK_SIZE) ? chunk : -1;
+    }
+
+    /**
+     * 向量与查询的余弦相似度，一次遍历同时累加点积与范数；映射范围内的向量直接在映射段上读取，不复制
+     */
+    private float cosine(Entry entry, float[] query, double queryNorm) throws IOException {
+        long start = entry.vectorOffset + 4;
+        int chunk = mappedChunk(start, start + 4L * entry.dimension);
+        double dot = 0.0;
+        double norm = 0.0;
+        if (chunk >= 0) {
+            MappedByteBuffer buffer = vectorChunks[chunk];
+            int base = (int) (start - chunk * MAP_CHUNK_SIZE);
+            for (int i = 0; i < entry.dimension; i++) {
+                float value = buffer.getFloat(base + 4 * i);
+                dot += value * query[i];
+                norm += value * value;
+            }
+        } else {
+            float[] vector = readVector(entry);
+            for (int i = 0; i < vector.length; i++) {
+                dot += vector[i] * query[i];
+                norm += vector[i] * vector[i];
+            }
+        }
+        double denominator = queryNorm * Math.sqrt(norm);
+        return denominator == 0.0 ? 0.0f : (float) (dot / denominator);
+    }
+
+    private float[] readVector(Entry entry) throws IOException {
+        if (entry.vectorOffset < 0) {
+            return null;
+        }
+        float[] vector = new float[entry.dimension];
+        long start = entry.vectorOffset + 4;
+        int chunk = mappedChunk(start, start + 4L * entry.dimension);
+        if (chunk >= 0) {
+            ByteBuffer view = vectorChunks[chunk].duplicate();
+            view.position((int) (start - chunk * MAP_CHUNK_SIZE));
+            view.asFloatBuffer().get(vector);
+        } else {
+            // 映射之后追加的数据或跨块的记录直接从文件读取
+            ByteBuffer buffer = ByteBuffer.allocate(4 * entry.dimension);
+            readFully(vectorChannel, buffer, start);
+            buffer.flip();
+            buffer.asFloatBuffer().get(vector);
+        }
+        return vector;
+    }
+
+    private void mapVectors() throws IOException {
+        long size = vectorChannel.size();
+        int count = (int) ((size + MAP_CHUNK_SIZE - 1) / MAP_CHUNK_SIZE);
+        MappedByteBuffer[] chunks = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long position = i * MAP_CHUNK_SIZE;
+            chunks[i] = vectorChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK_SIZE, size - position));
+        }
+        vectorChunks = chunks;
+        mappedSize = size;
+    }
+
+    /**
+     * 映射写入后增长的部分：已写满的块沿用，最后一个未满的块和新增的块重新映射
+     */
+    private void extendMapping() throws IOException {
+        long size = vectorChannel.size();
+        if (size <= mappedSize) {
+            return;
+        }
+        int reused = (int) (mappedSize / MAP_CHUNK_SIZE);
+        int count = (int) ((size + MAP_CHUNK_SIZE - 1) / MAP_CHUNK_SIZE);
+        MappedByteBuffer[] chunks = Arrays.copyOf(vectorChunks, count);
+        for (int i = reused; i < count; i++) {
+            long position = i * MAP_CHUNK_SIZE;
+            chunks[i] = vectorChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK_SIZE, size - position));
+        }
+        vectorChunks = chunks;
+        mappedSize = size;
+    }
+
+    private void apply(Entry entry) {
+        Entry previous = entries.put(entry.id, entry);
+        if (previous != null) {
+            liveBytes -= previous.totalBytes();
+            deadBytes += previous.totalBytes();
+        }
+        liveBytes += entry.totalBytes();
+    }
+
+    private void remove(String id) {
+        Entry previous = entries.remove(id);
+        if (previous != null) {
+            liveBytes -= previous.totalBytes();
+            deadBytes += previous.totalBytes();
+        }
+    }
+
+    // ---------------- 预写日志 ----------------
+
+    private void replayWal() throws IOException {
+        Path walPath = directory.resolve(WAL_FILE);
+        walChannel = FileChannel.open(walPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = walChannel.size();
+        if (size < WAL_HEADER_SIZE) {
+            resetWal(generation);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(WAL_HEADER_SIZE);
+        readFully(walChannel, header, 0);
+        // 日志属于更早的一代时，其内容已包含在检查点中
+        if (header.getInt(0) != WAL_MAGIC || header.getLong(4) != generation) {
+            resetWal(generation);
+            return;
+        }
+
+        long vectorSize = vectorChannel.size();
+        long documentSize = documentChannel.size();
+        long position = WAL_HEADER_SIZE;
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        while (position + 4 <= size) {
+            lengthBuffer.clear();
+            readFully(walChannel, lengthBuffer, position);
+            int length = lengthBuffer.getInt(0);
+            if (length <= 0 || position + 4 + length + 8 > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length + 8);
+            readFully(walChannel, record, position + 4);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, length);
+            if (crc.getValue() != record.getLong(length)) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array(), 1, length - 1));
+            byte op = record.get(0);
+            if (op == OP_PUT) {
+                Entry entry = Entry.decode(in);
+                if (entry.documentOffset + entry.documentLength > documentSize
+                        || entry.vectorOffset + entry.vectorLength() > vectorSize) {
+                    break;
+                }
+                apply(entry);
+            } else if (op == OP_DELETE) {
+                remove(readString(in));
+            } else {
+                break;
+            }
+            position += 4 + length + 8;
+        }
+        // 截掉崩溃时写了一半的记录
+        if (position < size) {
+            walChannel.truncate(position);
+        }
+        walChannel.position(position);
+    }
+
+    private byte[] walRecord(byte op, byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(4 + 1 + payload.length + 8);
+        record.putInt(1 + payload.length);
+        record.put(op);
+        record.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, 1 + payload.length);
+        record.putLong(crc.getValue());
+        return record.array();
+    }
+
+    private void appendWal(byte[] records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        while (buffer.hasRemaining()) {
+            walChannel.write(buffer);
+        }
+        if (syncWrites) {
+            walChannel.force(false);
+        }
+    }
+
+    private void resetWal(long walGeneration) throws IOException {
+        walChannel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(WAL_HEADER_SIZE);
+        header.putInt(WAL_MAGIC).putLong(walGeneration).flip();
+        writeFully(walChannel, header, 0);
+        walChannel.position(WAL_HEADER_SIZE);
+        walChannel.force(false);
+    }
+
+    // ---------------- 检查点 ----------------
+
+    private void writeCheckpoint(long checkpointGeneration) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeLong(checkpointGeneration);
+        out.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+            out.write(entry.encode());
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()), 0);
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readCheckpoint(Path checkpoint) throws IOException {
+        byte[] bytes = Files.readAllBytes(checkpoint);
+        if (bytes.length < 24) {
+            throw new IllegalStateException("检查点文件损坏: " + checkpoint);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+            throw new IllegalStateException("检查点校验失败: " + checkpoint);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        if (in.readInt() != CHECKPOINT_MAGIC) {
+            throw new IllegalStateException("不是有效的检查点文件: " + checkpoint);
+        }
+        generation = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            apply(Entry.decode(in));
+        }
+    }
+
+    // ---------------- 后台维护 ----------------
+
+    private void scheduleMaintenanceIfNeeded() {
+        if (!needsCompaction() && !needsCheckpoint()) {
+            return;
+        }
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            try {
+                maintenance.submit(() -> {
+                    try {
+                        if (needsCompaction()) {
+                            compact();
+                        } else if (needsCheckpoint()) {
+                            checkpoint();
+                        }
+                    } catch (RuntimeException e) {
+                        System.err.println("向量存储后台维护失败: " + e.getMessage());
+                    } finally {
+                        maintenanceScheduled.set(false);
+                    }
+                });
+            } catch (java.util.concurrent.RejectedExecutionException e) {
+                maintenanceScheduled.set(false);
+            }
+        }
+    }
+
+    private boolean needsCompaction() {
+        lock.readLock().lock();
+        try {
+            return !closed && deadBytes > MIN_COMPACT_BYTES && deadBytes > liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean needsCheckpoint() {
+        lock.readLock().lock();
+        try {
+            return !closed && walChannel.size() > MAX_WAL_BYTES;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------- 工具方法 ----------------
+
+    private Path vectorFile(long fileGeneration) {
+        return directory.resolve("vectors-" + fileGeneration + ".seg");
+    }
+
+    private Path documentFile(long fileGeneration) {
+        return directory.resolve("documents-" + fileGeneration + ".dat");
+    }
+
+    private void deleteStaleGenerations() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{vectors-*.seg,documents-*.dat}")) {
+            for (Path file : files) {
+                if (!file.equals(vectorFile(generation)) && !file.equals(documentFile(generation))) {
+                    deleteQuietly(file);
+                }
+            }
+        }
+    }
+
+    private static FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // 仍被映射时部分平台无法删除，下次打开时清理
+        }
+    }
+
+    private static void transfer(FileChannel source, long position, long count, FileChannel target) throws IOException {
+        long done = 0;
+        while (done < count) {
+            done += source.transferTo(position + done, count - done, target);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("读取位置超出文件末尾: " + position);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeMetadata(DataOutputStream out, Map<String, Object> metadata) throws IOException {
+        if (metadata == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, Object> e : metadata.entrySet()) {
+            writeString(out, e.getKey());
+            Object value = e.getValue();
+            if (value == null) {
+                out.writeByte(0);
+            } else if (value instanceof Integer) {
+                out.writeByte(1);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(2);
+                out.writeLong((Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(3);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(4);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(5);
+                out.writeBoolean((Boolean) value);
+            } else {
+                out.writeByte(6);
+                writeString(out, value.toString());
+            }
+        }
+    }
+
+    private static Map<String, Object> readMetadata(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, Object> metadata = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            byte type = in.readByte();
+            switch (type) {
+                case 0: metadata.put(key, null); break;
+                case 1: metadata.put(key, in.readInt()); break;
+                case 2: metadata.put(key, in.readLong()); break;
+                case 3: metadata.put(key, in.readDouble()); break;
+                case 4: metadata.put(key, in.readFloat()); break;
+                case 5: metadata.put(key, in.readBoolean()); break;
+                default: metadata.put(key, readString(in)); break;
+            }
+        }
+        return metadata;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("向量存储已关闭: " + directory);
+        }
+    }
+
+    /**
+     * 设置是否每次写入都刷盘（默认开启）
+     * 关闭后写入更快，但操作系统崩溃时可能丢失最近的写入；进程崩溃不受影响
+     * @param syncWrites 是否同步刷盘
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        lock.writeLock().lock();
+        try {
+            this.syncWrites = syncWrites;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 检查是否包含指定ID的文档
+     * @param id 文档ID
+     * @return 是否包含
+     */
+    public boolean contains(String id) {
+        lock.readLock().lock();
+        try {
+            return entries.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取所有文档ID
+     * @return 文档ID集合（副本）
+     */
+    public Set<String> ids() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(entries.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取文档数
+     * @return 文档数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取待压缩的无效数据量
+     * @return 字节数
+     */
+    public long getDeadBytes() {
+        lock.readLock().lock();
+        try {
+            return deadBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取当前文件代数（每次压缩加一）
+     * @return 代数
+     */
+    public long getGeneration() {
+        lock.readLock().lock();
+        try {
+            return generation;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 文档在数据文件中的位置
+     */
+    private static class Entry {
+        final String id;
+        final long documentOffset;
+        final int documentLength;
+        final long vectorOffset;    // 无向量时为-1
+        final int dimension;
+
+        Entry(String id, long documentOffset, int documentLength, long vectorOffset, int dimension) {
+            this.id = id;
+            this.documentOffset = documentOffset;
+            this.documentLength = documentLength;
+            this.vectorOffset = vectorOffset;
+            this.dimension = dimension;
+        }
+
+        long vectorLength() {
+            return vectorOffset < 0 ? 0 : 4 + 4L * dimension;
+        }
+
+        long totalBytes() {
+            return documentLength + vectorLength();
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, id);
+            out.writeLong(documentOffset);
+            out.writeInt(documentLength);
+            out.writeLong(vectorOffset);
+            out.writeInt(dimension);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        static Entry decode(DataInputStream in) throws IOException {
+            return new Entry(readString(in), in.readLong(), in.readInt(), in.readLong(), in.readInt());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentVectorStore{" +
+                "directory=" + directory +
+                ", size=" + size() +
+                ", generation=" + getGeneration() +
+                ", deadBytes=" + getDeadBytes() +
+                '}';
+    }
+}
@@ -1,12 +1,26 @@
 package io.leavesfly.tinyai.agent.rag;
 
-import java.time.LocalDateTime;
+import io.leavesfly.tinyai.agent.context.HybridSearch;
+import io.leavesfly.tinyai.agent.context.QueryCache;
+import io.leavesfly.tinyai.agent.context.RetrievalMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * RAG检索增强生成系统核心类
  * 整合分词、向量化、检索等功能，提供完整的RAG服务
+ * 生成上下文时使用BM25与向量并行的混合检索，结果按倒数排名融合并缓存，文档变更时缓存失效。
+ * 文档通过 {@link IngestionPipeline} 流式导入：向量化器只在首批文档上确定特征，之后增量更新文档频率，
+ * 已索引且内容未变的文档不会重新向量化
  */
 public class RAGSystem {
     
@@ -15,7 +29,9 @@ public class RAGSystem {
         COSINE,         // 余弦相似度
         EUCLIDEAN,      // 欧几里得距离转相似度
         MANHATTAN,      // 曼哈顿距离转相似度
-        PEARSON         // 皮尔逊相关系数
+        PEARSON,        // 皮尔逊相关系数
+        BM25,           // BM25关键词检索（倒排索引，得分不受相似度阈值约束）
+        HYBRID          // 混合检索（BM25与余弦并行，倒数排名融合，结果缓存）
     }
     
     private int vectorDim;                      // 向量维度
@@ -24,6 +40,16 @@ public class RAGSystem {
     // 核心组件
     private TFIDFVectorizer vectorizer;         // TF-IDF向量化器
     private VectorDatabase vectorDb;            // 向量数据库
+    private Path vectorizerFile;                // 向量化器保存位置（持久化模式）
+    private BM25Index keywordIndex;             // BM25关键词索引
+    private volatile boolean keywordIndexStale; // 关键词索引是否需要从存储重建
+    private volatile QueryCache<List<QueryResult>> queryCache; // 混合检索结果缓存
+    private final RetrievalMetrics metrics;     // 检索各阶段耗时
+    
+    private static final int HYBRID_CANDIDATES = 20;  // 每路检索参与融合的候选数
+    public static final int DEFAULT_CHUNK_SIZE = 1000;      // 目录导入时文本块的最大字符数
+    public static final int DEFAULT_CHUNK_OVERLAP = 100;    // 目录导入时相邻文本块的重叠字符数
+    private static final Set<String> DEFAULT_EXTENSIONS = new HashSet<>(Arrays.asList("txt", "md"));
     
     // 状态信息
     private boolean isTrained;                  // 是否已训练
@@ -41,12 +67,39 @@ public class RAGSystem {
         // 初始化组件
         this.vectorizer = new TFIDFVectorizer(vectorDim);
         this.vectorDb = new VectorDatabase();
+        this.keywordIndex = new BM25Index();
+        this.queryCache = new QueryCache<>();
+        this.metrics = new RetrievalMetrics();
         
         // 初始化状态
         this.isTrained = false;
         this.documentsCount = 0;
     }
 
+    /**
+     * 构造函数（持久化存储）
+     * 目录中已有数据时直接加载向量和已训练的向量化器，不重新训练和向量化
+     * @param vectorDim 向量维度
+     * @param similarityThreshold 相似度阈值
+     * @param dbPath 数据库目录
+     */
+    public RAGSystem(int vectorDim, double similarityThreshold, String dbPath) {
+        this(vectorDim, similarityThreshold);
+        this.vectorDb = new VectorDatabase(dbPath);
+        this.vectorizerFile = Paths.get(dbPath, "vectorizer.dat");
+        if (Files.exists(vectorizerFile)) {
+            try {
+                vectorizer.load(vectorizerFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException("加载向量化器失败: " + vectorizerFile, e);
+            }
+            isTrained = true;
+        }
+        this.documentsCount = vectorDb.countDocuments();
+        // 关键词索引在首次关键词检索时从存储的文档重建
+        this.keywordIndexStale = documentsCount > 0;
+    }
+
     /**
      * 默认构造函数
      */
@@ -61,20 +114,7 @@ public class RAGSystem {
     public void addDocuments(List<Map<String, Object>> documentsData) {
         System.out.println("正在添加 " + documentsData.size() + " 个文档...");
         
-        // 准备文档内容用于训练向量化器
-        List<String> contents = documentsData.stream()
-                .map(doc -> (String) doc.get("content"))
-                .collect(Collectors.toList());
-        
-        // 训练向量化器（如果还未训练）
-        if (!isTrained) {
-            System.out.println("训练向量化器...");
-            vectorizer.fit(contents);
-            isTrained = true;
-        }
-        
-        // 向量化文档并存储
-        List<Document> documents = new ArrayList<>();
+        List<IngestionPipeline.SourceDocument> sources = new ArrayList<>(documentsData.size());
         for (int i = 0; i < documentsData.size(); i++) {
             Map<String, Object> docData = documentsData.get(i);
             
@@ -82,24 +122,141 @@ public class RAGSystem {
             String content = (String) docData.get("content");
             @SuppressWarnings("unchecked")
             Map<String, Object> metadata = (Map<String, Object>) docData.getOrDefault("metadata", new HashMap<>());
-            
-            // 计算文档向量
-            List<Double> embedding = vectorizer.transform(content);
-            
-            // 创建文档对象
-            Document document = new Document(docId, content, metadata, embedding, LocalDateTime.now());
-            documents.add(document);
-            
-            if ((i + 1) % 10 == 0) { // 每10个文档显示一次进度
-                System.out.println("已处理 " + (i + 1) + "/" + documentsData.size() + " 个文档");
-            }
+            sources.add(new IngestionPipeline.SourceDocument(docId, content, metadata));
         }
         
-        // 批量存储到向量数据库
-        vectorDb.addDocuments(documents);
+        IngestionReport report = createPipeline(0, 0).run(sources);
+        if (report.getSkippedCount() > 0) {
+            System.out.println("跳过 " + report.getSkippedCount() + " 个内容未变的文档");
+        }
+        System.out.println("文档添加完成！当前共有 " + documentsCount + " 个文档");
+    }
+
+    /**
+     * 流式导入文档，源文档按需读取，长文本按字符数切分为多个文本块
+     * @param sources 源文档迭代器
+     * @param chunkSize 文本块最大字符数，0表示不切分
+     * @param chunkOverlap 相邻文本块的重叠字符数
+     * @return 导入统计
+     */
+    public IngestionReport ingest(Iterator<IngestionPipeline.SourceDocument> sources, int chunkSize, int chunkOverlap) {
+        return createPipeline(chunkSize, chunkOverlap).run(sources);
+    }
+
+    /**
+     * 一次性导入目录下的全部 txt/md 文件（递归），使用默认切分参数
+     * @param directory 目录
+     * @return 导入统计
+     */
+    public IngestionReport ingestDirectory(Path directory) {
+        return ingestDirectory(directory, DEFAULT_EXTENSIONS, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_OVERLAP);
+    }
+
+    /**
+     * 一次性导入目录下指定扩展名的文件（递归）
+     * 文件在读取阶段逐个读入，文档ID为相对路径，切分后为"相对路径#序号"
+     * @param directory 目录
+     * @param extensions 文件扩展名（不含点，小写）
+     * @param chunkSize 文本块最大字符数，0表示不切分
+     * @param chunkOverlap 相邻文本块的重叠字符数
+     * @return 导入统计
+     */
+    public IngestionReport ingestDirectory(Path directory, Set<String> extensions, int chunkSize, int chunkOverlap) {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("目录不存在: " + directory);
+        }
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(path -> extensions.contains(extensionOf(path)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("遍历目录失败: " + directory, e);
+        }
         
+        Iterator<Path> fileIterator = files.iterator();
+        Iterator<IngestionPipeline.SourceDocument> sources = new Iterator<IngestionPipeline.SourceDocument>() {
+            @Override
+            public boolean hasNext() {
+                return fileIterator.hasNext();
+            }
+
+            @Override
+            public IngestionPipeline.SourceDocument next() {
+                Path file = fileIterator.next();
+                String relative = directory.relativize(file).toString().replace('\\', '/');
+                try {
+                    String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                    Map<String, Object> metadata = new HashMap<>();
+                    metadata.put("source", relative);
+                    return new IngestionPipeline.SourceDocument(relative, content, metadata);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("读取文件失败: " + file, e);
+                }
+            }
+        };
+        IngestionReport report = ingest(sources, chunkSize, chunkOverlap);
+        System.out.println("目录导入完成: " + report);
+        return report;
+    }
+
+    private static String extensionOf(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+    }
+
+    /**
+     * 创建写入本系统的导入流水线
+     */
+    private IngestionPipeline createPipeline(int chunkSize, int chunkOverlap) {
+        boolean wasTrained = vectorizer.isTrained();
+        return new IngestionPipeline(vectorizer, documents -> {
+            writeDocuments(documents);
+            if (!wasTrained && !isTrained && vectorizer.isTrained()) {
+                isTrained = true;
+                saveVectorizer();
+            }
+        }).setChunking(chunkSize, chunkOverlap).setIndexedFilter(this::isIndexed);
+    }
+
+    /**
+     * 文档已索引且内容与元数据均未变化
+     */
+    private boolean isIndexed(String docId, String content, Map<String, Object> metadata) {
+        Document existing = vectorDb.getDocument(docId);
+        return existing != null && existing.hasEmbedding() && existing.getContent().equals(content)
+                && Objects.equals(existing.getMetadata(), metadata);
+    }
+
+    /**
+     * 写入一批已向量化的文档，被替换的旧内容从文档频率中扣除
+     */
+    private void writeDocuments(List<Document> documents) {
+        for (Document document : documents) {
+            Document existing = vectorDb.getDocument(document.getId());
+            if (existing != null) {
+                vectorizer.removeStatistics(vectorizer.getTokenizer().tokenize(existing.getContent()));
+            }
+        }
+        vectorDb.addDocuments(documents);
+        for (Document document : documents) {
+            keywordIndex.add(document.getId(), document.getContent());
+        }
+        queryCache.invalidateAll();
         documentsCount = vectorDb.countDocuments();
-        System.out.println("文档添加完成！当前共有 " + documentsCount + " 个文档");
+    }
+
+    private void saveVectorizer() {
+        if (vectorizerFile == null) {
+            return;
+        }
+        try {
+            vectorizer.save(vectorizerFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("保存向量化器失败: " + vectorizerFile, e);
+        }
     }
 
     /**
@@ -132,39 +289,132 @@ public class RAGSystem {
         
         System.out.println("检索查询: '" + query + "'");
         
+        if (similarityMethod == SimilarityMethod.BM25 || similarityMethod == SimilarityMethod.HYBRID) {
+            List<QueryResult> results = similarityMethod == SimilarityMethod.BM25
+                    ? keywordSearch(query, topK) : hybridSearch(query, topK);
+            System.out.println("找到 " + results.size() + " 个相关文档");
+            return results;
+        }
+        
         // 向量化查询
-        List<Double> queryEmbedding = vectorizer.transform(query);
+        float[] queryEmbedding = vectorizer.transformVector(query);
         
-        // 获取所有文档
-        List<Document> allDocuments = vectorDb.getAllDocuments();
+        // 余弦相似度交给向量数据库（启用索引时走HNSW近似检索）
+        if (similarityMethod == SimilarityMethod.COSINE) {
+            List<QueryResult> results = vectorDb.searchSimilar(queryEmbedding, topK, similarityThreshold);
+            System.out.println("找到 " + results.size() + " 个相关文档");
+            return results;
+        }
         
-        // 计算相似度
-        List<DocumentSimilarity> similarities = new ArrayList<>();
-        for (Document doc : allDocuments) {
-            if (doc.getEmbedding() != null && !doc.getEmbedding().isEmpty()) {
-                double similarity = calculateSimilarity(queryEmbedding, doc.getEmbedding(), similarityMethod);
-                
-                if (similarity >= similarityThreshold) {
-                    similarities.add(new DocumentSimilarity(doc, similarity));
-                }
+        // 其他相似度逐个计算，有界堆取 top-k
+        List<Document> allDocuments = new ArrayList<>();
+        for (Document doc : vectorDb.getAllDocuments()) {
+            if (doc.hasEmbedding()) {
+                allDocuments.add(doc);
             }
         }
-        
-        // 按相似度排序
-        similarities.sort((a, b) -> Double.compare(b.similarity, a.similarity));
+        float[] scores = new float[allDocuments.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = (float) calculateSimilarity(queryEmbedding, allDocuments.get(i).getVector(), similarityMethod);
+        }
         
         // 构建结果
         List<QueryResult> results = new ArrayList<>();
-        int count = Math.min(topK, similarities.size());
-        for (int i = 0; i < count; i++) {
-            DocumentSimilarity docSim = similarities.get(i);
-            results.add(new QueryResult(docSim.document, docSim.similarity, i + 1));
+        for (int i : VectorSimilarity.topK(scores, scores.length, topK, similarityThreshold)) {
+            results.add(new QueryResult(allDocuments.get(i), scores[i], results.size() + 1));
         }
         
         System.out.println("找到 " + results.size() + " 个相关文档");
         return results;
     }
 
+    /**
+     * BM25关键词检索
+     * @param query 查询文本
+     * @param topK 返回的文档数量
+     * @return 按BM25得分降序排列的查询结果
+     */
+    public List<QueryResult> keywordSearch(String query, int topK) {
+        ensureKeywordIndex();
+        List<QueryResult> results = new ArrayList<>();
+        for (HnswIndex.SearchResult hit : keywordIndex.search(query, topK)) {
+            Document document = vectorDb.getDocument(hit.getId());
+            if (document != null) {
+                results.add(new QueryResult(document, hit.getSimilarity(), results.size() + 1));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 混合检索
+     * BM25检索在线程池上与余弦向量检索并行执行，两路结果按倒数排名融合，得分为RRF得分；
+     * 相同查询命中缓存时不再扫描文档库
+     * @param query 查询文本
+     * @param topK 返回的文档数量
+     * @return 按融合得分降序排列的查询结果
+     */
+    public List<QueryResult> hybridSearch(String query, int topK) {
+        if (!isTrained) {
+            return new ArrayList<>();
+        }
+        String key = topK + ":" + query;
+        QueryCache<List<QueryResult>> cache = queryCache;
+        List<QueryResult> cached = cache.get(key);
+        if (cached != null) {
+            return copyResults(cached);
+        }
+        long generation = cache.getGeneration();
+        long start = System.nanoTime();
+        int candidates = Math.max(topK, HYBRID_CANDIDATES);
+        
+        CompletableFuture<List<QueryResult>> lexical = HybridSearch.submit(() -> {
+            long t = System.nanoTime();
+            List<QueryResult> hits = keywordSearch(query, candidates);
+            metrics.record(RetrievalMetrics.LEXICAL, System.nanoTime() - t);
+            return hits;
+        });
+        long vectorStart = System.nanoTime();
+        List<QueryResult> vector = vectorDb.searchSimilar(vectorizer.transformVector(query), candidates, similarityThreshold);
+        metrics.record(RetrievalMetrics.VECTOR, System.nanoTime() - vectorStart);
+        
+        long fusionStart = System.nanoTime();
+        List<QueryResult> results = new ArrayList<>();
+        for (Map.Entry<QueryResult, Double> entry : HybridSearch.reciprocalRankFusion(
+                Arrays.asList(lexical.join(), vector), r -> r.getDocument().getId(),
+                HybridSearch.DEFAULT_RRF_K, topK)) {
+            results.add(new QueryResult(entry.getKey().getDocument(), entry.getValue(), results.size() + 1));
+        }
+        long end = System.nanoTime();
+        metrics.record(RetrievalMetrics.FUSION, end - fusionStart);
+        metrics.record(RetrievalMetrics.TOTAL, end - start);
+        
+        cache.put(key, Collections.unmodifiableList(copyResults(results)), generation);
+        return results;
+    }
+
+    private static List<QueryResult> copyResults(List<QueryResult> results) {
+        List<QueryResult> copy = new ArrayList<>(results.size());
+        for (QueryResult result : results) {
+            copy.add(new QueryResult(result.getDocument(), result.getSimilarity(), result.getRank()));
+        }
+        return copy;
+    }
+
+    private void ensureKeywordIndex() {
+        if (!keywordIndexStale) {
+            return;
+        }
+        synchronized (this) {
+            if (keywordIndexStale) {
+                for (Document document : vectorDb.getAllDocuments()) {
+                    keywordIndex.add(document.getId(), document.getContent());
+                }
+                keywordIndexStale = false;
+            }
+        }
+    }
+
     /**
      * 检索相关文档（使用默认余弦相似度）
      * @param query 查询文本
@@ -191,7 +441,7 @@ public class RAGSystem {
      * @return 生成的上下文文本
      */
     public String generateContext(String query, int maxContextLength) {
-        List<QueryResult> searchResults = search(query, 5);
+        List<QueryResult> searchResults = hybridSearch(query, 5);
         
         if (searchResults.isEmpty()) {
             return "未找到相关内容。";
@@ -205,7 +455,7 @@ public class RAGSystem {
             String content = doc.getContent();
             
             // 添加文档信息头
-            String docHeader = String.format("[文档 %s, 相似度: %.3f]\n", doc.getId(), result.getSimilarity());
+            String docHeader = String.format("[文档 %s, 相关度: %.4f]\n", doc.getId(), result.getSimilarity());
             
             if (currentLength + docHeader.length() + content.length() <= maxContextLength) {
                 contextParts.add(docHeader + content);
@@ -245,6 +495,8 @@ public class RAGSystem {
         stats.put("vocabularySize", isTrained ? vectorizer.getTokenizer().getVocabSize() : 0);
         stats.put("similarityThreshold", similarityThreshold);
         stats.put("actualFeatureDimension", isTrained ? vectorizer.getFeatureDimension() : 0);
+        stats.put("queryCache", queryCache.getStats());
+        stats.put("retrievalMetrics", metrics.getStats());
         
         return stats;
     }
@@ -272,7 +524,13 @@ public class RAGSystem {
      * @return 是否删除成功
      */
     public boolean deleteDocument(String docId) {
+        Document existing = vectorDb.getDocument(docId);
+        if (existing != null) {
+            vectorizer.removeStatistics(vectorizer.getTokenizer().tokenize(existing.getContent()));
+        }
         boolean success = vectorDb.deleteDocument(docId);
+        keywordIndex.remove(docId);
+        queryCache.invalidateAll();
         if (success) {
             documentsCount = vectorDb.countDocuments();
         }
@@ -284,15 +542,65 @@ public class RAGSystem {
      */
     public void clearAllDocuments() {
         vectorDb.clearAllDocuments();
+        keywordIndex.clear();
+        keywordIndexStale = false;
+        queryCache.invalidateAll();
         documentsCount = 0;
     }
 
+    /**
+     * 启用HNSW近似最近邻索引，适用于大规模文档库
+     * @param m 每层最大连接数
+     * @param efConstruction 构建时的候选集大小
+     * @param efSearch 查询时的候选集大小
+     */
+    public void enableAnnIndex(int m, int efConstruction, int efSearch) {
+        vectorDb.enableAnnIndex(m, efConstruction, efSearch);
+        queryCache.invalidateAll();
+    }
+
+    /**
+     * 启用HNSW近似最近邻索引（使用默认参数）
+     */
+    public void enableAnnIndex() {
+        vectorDb.enableAnnIndex();
+        queryCache.invalidateAll();
+    }
+
+    /**
+     * 重新配置查询缓存（原有缓存条目丢弃）
+     * @param maxEntries 最大条目数，0表示禁用缓存
+     * @param ttlMillis 条目存活时间（毫秒）
+     */
+    public void configureQueryCache(int maxEntries, long ttlMillis) {
+        QueryCache<List<QueryResult>> old = queryCache;
+        queryCache = new QueryCache<>(maxEntries, ttlMillis);
+        old.invalidateAll();
+    }
+
+    /**
+     * 获取查询缓存（命中率等统计）
+     * @return 查询缓存
+     */
+    public QueryCache<List<QueryResult>> getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * 获取检索各阶段耗时统计
+     * @return 检索耗时统计
+     */
+    public RetrievalMetrics getRetrievalMetrics() {
+        return metrics;
+    }
+
     /**
      * 设置相似度阈值
      * @param threshold 新的相似度阈值
      */
     public void setSimilarityThreshold(double threshold) {
         this.similarityThreshold = threshold;
+        queryCache.invalidateAll();
     }
 
     /**
@@ -320,9 +628,12 @@ public class RAGSystem {
     }
 
     /**
-     * 关闭系统资源
+     * 关闭系统资源（持久化模式下保存增量更新后的文档频率）
      */
     public void close() {
+        if (vectorizer.isTrained()) {
+            saveVectorizer();
+        }
         if (vectorDb != null) {
             vectorDb.close();
         }
@@ -331,7 +642,7 @@ public class RAGSystem {
     /**
      * 计算两个向量的相似度
      */
-    private double calculateSimilarity(List<Double> vec1, List<Double> vec2, SimilarityMethod method) {
+    private double calculateSimilarity(float[] vec1, float[] vec2, SimilarityMethod method) {
         switch (method) {
             case COSINE:
                 return VectorSimilarity.cosineSimilarity(vec1, vec2);
@@ -348,19 +659,6 @@ public class RAGSystem {
         }
     }
 
-    /**
-     * 文档相似度内部类
-     */
-    private static class DocumentSimilarity {
-        final Document document;
-        final double similarity;
-        
-        DocumentSimilarity(Document document, double similarity) {
-            this.document = document;
-            this.similarity = similarity;
-        }
-    }
-
     @Override
     public String toString() {
         return "RAGSystem{" +
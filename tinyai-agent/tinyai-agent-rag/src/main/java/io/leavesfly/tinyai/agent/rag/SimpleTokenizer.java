@@ -63,11 +63,22 @@ public class SimpleTokenizer {
      * @param texts 文本列表
      */
     public void buildVocab(List<String> texts) {
+        List<List<String>> tokenized = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            tokenized.add(tokenize(text));
+        }
+        buildVocabFromTokens(tokenized);
+    }
+
+    /**
+     * 用已分词的文本构建词汇表
+     * @param tokenizedTexts 每个文本的分词结果
+     */
+    public void buildVocabFromTokens(List<List<String>> tokenizedTexts) {
         Map<String, Integer> wordCounts = new HashMap<>();
         
         // 统计词频
-        for (String text : texts) {
-            List<String> tokens = tokenize(text);
+        for (List<String> tokens : tokenizedTexts) {
             for (String token : tokens) {
                 wordCounts.put(token, wordCounts.getOrDefault(token, 0) + 1);
             }
@@ -87,6 +98,29 @@ public class SimpleTokenizer {
         System.out.println("构建词汇表完成，共 " + vocabSize + " 个词汇");
     }
 
+    /**
+     * 把新出现的词汇追加到词汇表末尾，已有词汇的ID不变
+     * @param tokens 词汇集合
+     */
+    void extendVocab(Collection<String> tokens) {
+        for (String token : tokens) {
+            if (!vocab.containsKey(token)) {
+                vocab.put(token, vocab.size());
+            }
+        }
+        vocabSize = vocab.size();
+    }
+
+    /**
+     * 恢复已保存的词汇表
+     * @param savedVocab 词汇表：词汇 -> ID
+     */
+    void restoreVocab(Map<String, Integer> savedVocab) {
+        vocab.clear();
+        vocab.putAll(savedVocab);
+        vocabSize = vocab.size();
+    }
+
     /**
      * 将词汇列表转换为ID列表
      * @param tokens 词汇列表
@@ -1,17 +1,26 @@
 package io.leavesfly.tinyai.agent.rag;
 
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /**
  * TF-IDF向量化器类
- * 将文本转换为TF-IDF特征向量
+ * 将文本转换为TF-IDF特征向量。
+ * 特征集合在 {@link #fit(List)} 时确定，之后保持不变，已生成的向量维度始终一致；
+ * 文档频率可通过 {@link #updateStatistics(Collection)} / {@link #removeStatistics(Collection)} 增量维护，
+ * 新文档与查询使用最新的IDF，已生成的向量不需要重新计算
  */
 public class TFIDFVectorizer {
     private int maxFeatures;                        // 最大特征数
     private SimpleTokenizer tokenizer;              // 分词器
-    private Map<String, Double> idfScores;          // IDF分数映射
+    private final Map<String, Integer> docFrequencies; // 文档频率（增量维护）
+    private int documentCount;                      // 参与统计的文档数
     private List<String> featureNames;              // 特征名称列表
-    private boolean isTrained;                      // 是否已训练
+    private volatile double[] featureIdf;           // 特征IDF快照，统计变化后置空并按需重算
+    private volatile boolean isTrained;             // 是否已训练
 
     /**
      * 构造函数
@@ -20,7 +29,7 @@ public class TFIDFVectorizer {
     public TFIDFVectorizer(int maxFeatures) {
         this.maxFeatures = maxFeatures;
         this.tokenizer = new SimpleTokenizer();
-        this.idfScores = new HashMap<>();
+        this.docFrequencies = new HashMap<>();
         this.featureNames = new ArrayList<>();
         this.isTrained = false;
     }
@@ -30,62 +39,139 @@ public class TFIDFVectorizer {
      * @param documents 文档列表
      */
     public void fit(List<String> documents) {
+        List<List<String>> tokenized = new ArrayList<>(documents.size());
+        for (String doc : documents) {
+            tokenized.add(tokenizer.tokenize(doc));
+        }
+        fitTokens(tokenized);
+    }
+
+    /**
+     * 用已分词的文档训练TF-IDF模型，重置文档频率并重新选择特征
+     * @param tokenizedDocuments 每个文档的分词结果
+     */
+    public synchronized void fitTokens(List<List<String>> tokenizedDocuments) {
         System.out.println("开始训练TF-IDF模型...");
         
         // 构建词汇表
-        tokenizer.buildVocab(documents);
+        tokenizer.buildVocabFromTokens(tokenizedDocuments);
         
         // 计算文档频率
-        Map<String, Integer> docFrequencies = new HashMap<>();
-        int totalDocs = documents.size();
-        
-        for (String doc : documents) {
-            List<String> tokens = tokenizer.tokenize(doc);
-            Set<String> uniqueTokens = new HashSet<>(tokens); // 去重
-            
-            for (String token : uniqueTokens) {
-                docFrequencies.put(token, docFrequencies.getOrDefault(token, 0) + 1);
+        docFrequencies.clear();
+        documentCount = tokenizedDocuments.size();
+        for (List<String> tokens : tokenizedDocuments) {
+            for (String token : new HashSet<>(tokens)) { // 去重
+                docFrequencies.merge(token, 1, Integer::sum);
             }
         }
         
-        // 计算IDF分数
-        idfScores.clear();
-        for (Map.Entry<String, Integer> entry : docFrequencies.entrySet()) {
-            String token = entry.getKey();
-            int df = entry.getValue();
-            double idf = Math.log((double) totalDocs / df);
-            idfScores.put(token, idf);
-        }
-        
         // 选择前maxFeatures个最重要的特征（按IDF分数排序）
-        List<Map.Entry<String, Double>> sortedFeatures = new ArrayList<>(idfScores.entrySet());
+        List<Map.Entry<String, Double>> sortedFeatures = new ArrayList<>(computeIdfScores().entrySet());
         sortedFeatures.sort((a, b) -> b.getValue().compareTo(a.getValue()));
         
         featureNames.clear();
         for (int i = 0; i < Math.min(maxFeatures, sortedFeatures.size()); i++) {
             featureNames.add(sortedFeatures.get(i).getKey());
         }
+        featureIdf = null;
         
         isTrained = true;
         System.out.println("TF-IDF模型训练完成，特征维度: " + featureNames.size());
     }
 
+    /**
+     * 增量计入一个新文档的文档频率，特征集合不变
+     * @param tokens 文档的分词结果
+     */
+    public synchronized void updateStatistics(Collection<String> tokens) {
+        Set<String> uniqueTokens = new HashSet<>(tokens);
+        for (String token : uniqueTokens) {
+            docFrequencies.merge(token, 1, Integer::sum);
+        }
+        tokenizer.extendVocab(uniqueTokens);
+        documentCount++;
+        featureIdf = null;
+    }
+
+    /**
+     * 从文档频率中扣除一个已删除（或被替换）的文档
+     * @param tokens 文档的分词结果
+     */
+    public synchronized void removeStatistics(Collection<String> tokens) {
+        if (documentCount == 0) {
+            return;
+        }
+        for (String token : new HashSet<>(tokens)) {
+            docFrequencies.computeIfPresent(token, (k, df) -> df > 1 ? df - 1 : null);
+        }
+        documentCount--;
+        featureIdf = null;
+    }
+
+    private double idf(String token) {
+        Integer df = docFrequencies.get(token);
+        return df == null || df == 0 ? 0.0 : Math.log((double) documentCount / df);
+    }
+
+    private Map<String, Double> computeIdfScores() {
+        Map<String, Double> scores = new HashMap<>();
+        for (String token : docFrequencies.keySet()) {
+            scores.put(token, idf(token));
+        }
+        return scores;
+    }
+
+    private double[] currentFeatureIdf() {
+        double[] idf = featureIdf;
+        if (idf != null) {
+            return idf;
+        }
+        synchronized (this) {
+            if (featureIdf == null) {
+                double[] values = new double[featureNames.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = idf(featureNames.get(i));
+                }
+                featureIdf = values;
+            }
+            return featureIdf;
+        }
+    }
+
     /**
      * 将单个文本转换为TF-IDF向量
      * @param text 输入文本
      * @return TF-IDF向量
      */
     public List<Double> transform(String text) {
+        return VectorSimilarity.toList(transformVector(text));
+    }
+
+    /**
+     * 将单个文本转换为连续存储的TF-IDF向量
+     * @param text 输入文本
+     * @return TF-IDF向量
+     */
+    public float[] transformVector(String text) {
+        return transformTokens(tokenizer.tokenize(text));
+    }
+
+    /**
+     * 将已分词的文本转换为TF-IDF向量，可被多个线程并发调用
+     * @param tokens 分词结果
+     * @return TF-IDF向量
+     */
+    public float[] transformTokens(List<String> tokens) {
         if (!isTrained) {
             throw new IllegalStateException("模型尚未训练，请先调用fit方法");
         }
         
         if (featureNames.isEmpty()) {
-            return Collections.nCopies(maxFeatures, 0.0);
+            return new float[maxFeatures];
         }
+        double[] idfValues = currentFeatureIdf();
         
-        // 分词并统计词频
-        List<String> tokens = tokenizer.tokenize(text);
+        // 统计词频
         Map<String, Integer> tokenCounts = new HashMap<>();
         for (String token : tokens) {
             tokenCounts.put(token, tokenCounts.getOrDefault(token, 0) + 1);
@@ -94,13 +180,12 @@ public class TFIDFVectorizer {
         int totalTokens = tokens.size();
         
         // 计算TF-IDF向量
-        List<Double> vector = new ArrayList<>();
-        for (String feature : featureNames) {
+        float[] vector = new float[featureNames.size()];
+        for (int i = 0; i < vector.length; i++) {
+            String feature = featureNames.get(i);
             int count = tokenCounts.getOrDefault(feature, 0);
             double tf = totalTokens > 0 ? (double) count / totalTokens : 0.0;
-            double idf = idfScores.getOrDefault(feature, 0.0);
-            double tfidf = tf * idf;
-            vector.add(tfidf);
+            vector[i] = (float) (tf * idfValues[i]);
         }
         
         return vector;
@@ -122,6 +207,66 @@ public class TFIDFVectorizer {
         return vectors;
     }
 
+    /**
+     * 保存训练结果（特征、文档频率与词汇表），先写临时文件再替换
+     * @param path 文件路径
+     */
+    public synchronized void save(Path path) throws IOException {
+        if (!isTrained) {
+            throw new IllegalStateException("模型尚未训练，请先调用fit方法");
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(maxFeatures);
+            out.writeInt(featureNames.size());
+            for (String feature : featureNames) {
+                out.writeUTF(feature);
+            }
+            out.writeInt(documentCount);
+            out.writeInt(docFrequencies.size());
+            for (Map.Entry<String, Integer> entry : docFrequencies.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            Map<String, Integer> vocab = tokenizer.getVocab();
+            out.writeInt(vocab.size());
+            for (Map.Entry<String, Integer> entry : vocab.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 加载训练结果，加载后无需再次调用fit
+     * @param path 文件路径
+     */
+    public synchronized void load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            maxFeatures = in.readInt();
+            featureNames.clear();
+            int featureCount = in.readInt();
+            for (int i = 0; i < featureCount; i++) {
+                featureNames.add(in.readUTF());
+            }
+            documentCount = in.readInt();
+            docFrequencies.clear();
+            int dfCount = in.readInt();
+            for (int i = 0; i < dfCount; i++) {
+                docFrequencies.put(in.readUTF(), in.readInt());
+            }
+            Map<String, Integer> vocab = new HashMap<>();
+            int vocabCount = in.readInt();
+            for (int i = 0; i < vocabCount; i++) {
+                vocab.put(in.readUTF(), in.readInt());
+            }
+            tokenizer.restoreVocab(vocab);
+        }
+        featureIdf = null;
+        isTrained = true;
+    }
+
     /**
      * 获取特征名称列表
      * @return 特征名称列表
@@ -134,8 +279,8 @@ public class TFIDFVectorizer {
      * 获取IDF分数映射
      * @return IDF分数映射
      */
-    public Map<String, Double> getIdfScores() {
-        return new HashMap<>(idfScores);
+    public synchronized Map<String, Double> getIdfScores() {
+        return computeIdfScores();
     }
 
     /**
@@ -175,8 +320,16 @@ public class TFIDFVectorizer {
      * @param feature 特征名称
      * @return IDF分数
      */
-    public double getIdfScore(String feature) {
-        return idfScores.getOrDefault(feature, 0.0);
+    public synchronized double getIdfScore(String feature) {
+        return idf(feature);
+    }
+
+    /**
+     * 获取参与文档频率统计的文档数
+     * @return 文档数
+     */
+    public synchronized int getDocumentCount() {
+        return documentCount;
     }
 
     @Override
@@ -8,26 +8,35 @@ import java.util.stream.Collectors;
 
 /**
  * 向量数据库类
- * 使用内存Map存储文档和向量嵌入信息（避免第三方依赖）
+ * 默认使用内存Map存储文档和向量嵌入信息（避免第三方依赖）；
+ * 指定路径时使用 {@link PersistentVectorStore} 持久化，重新打开时只读取检查点，
+ * 检索直接在映射的向量段上进行（不在堆上复制向量），文档内容按需读取并缓存
  */
 public class VectorDatabase {
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
     
-    private final Map<String, Document> documents;  // 内存存储文档映射
+    private final Map<String, Document> documents;  // 内存存储文档映射（持久化模式下为读取缓存）
+    private final PersistentVectorStore store;       // 持久化存储（内存模式为null）
+    private final EmbeddingMatrix matrix;            // 连续存储的向量矩阵（持久化模式为null）
+    private volatile HnswIndex annIndex;             // 近似最近邻索引（可选）
 
     /**
      * 默认构造函数（使用内存存储）
      */
     public VectorDatabase() {
         this.documents = new ConcurrentHashMap<>();
+        this.matrix = new EmbeddingMatrix();
+        this.store = null;
     }
 
     /**
-     * 构造函数（保持兼容性）
-     * @param dbPath 数据库路径（忽略，使用内存存储）
+     * 构造函数（持久化存储）
+     * @param dbPath 数据库目录，不存在时创建；已有数据时直接加载，无需重新向量化
      */
     public VectorDatabase(String dbPath) {
-        this(); // 使用内存存储
+        this.documents = new ConcurrentHashMap<>();
+        this.matrix = null;
+        this.store = new PersistentVectorStore(dbPath);
     }
 
     /**
@@ -35,7 +44,11 @@ public class VectorDatabase {
      * @param document 文档对象
      */
     public void addDocument(Document document) {
+        if (store != null) {
+            store.put(document);
+        }
         documents.put(document.getId(), document);
+        indexDocument(document);
     }
 
     /**
@@ -43,8 +56,12 @@ public class VectorDatabase {
      * @param documentsList 文档列表
      */
     public void addDocuments(List<Document> documentsList) {
+        if (store != null) {
+            store.putAll(documentsList);
+        }
         for (Document document : documentsList) {
             documents.put(document.getId(), document);
+            indexDocument(document);
         }
     }
 
@@ -54,7 +71,14 @@ public class VectorDatabase {
      * @return 文档对象，不存在则返回null
      */
     public Document getDocument(String docId) {
-        return documents.get(docId);
+        Document document = documents.get(docId);
+        if (document == null && store != null) {
+            document = store.get(docId);
+            if (document != null) {
+                documents.put(docId, document);
+            }
+        }
+        return document;
     }
 
     /**
@@ -62,7 +86,17 @@ public class VectorDatabase {
      * @return 文档列表
      */
     public List<Document> getAllDocuments() {
-        return new ArrayList<>(documents.values());
+        if (store == null) {
+            return new ArrayList<>(documents.values());
+        }
+        List<Document> result = new ArrayList<>();
+        for (String docId : store.ids()) {
+            Document document = getDocument(docId);
+            if (document != null) {
+                result.add(document);
+            }
+        }
+        return result;
     }
 
     /**
@@ -72,7 +106,7 @@ public class VectorDatabase {
      * @return 匹配的文档列表
      */
     public List<Document> getDocumentsByMetadata(String metadataKey, String metadataValue) {
-        return documents.values().stream()
+        return getAllDocuments().stream()
                 .filter(doc -> {
                     Map<String, Object> metadata = doc.getMetadata();
                     return metadata != null && metadataValue.equals(metadata.get(metadataKey));
@@ -86,7 +120,15 @@ public class VectorDatabase {
      * @return 是否删除成功
      */
     public boolean deleteDocument(String docId) {
-        return documents.remove(docId) != null;
+        boolean deleted = store != null && store.delete(docId);
+        if (matrix != null) {
+            matrix.remove(docId);
+        }
+        HnswIndex index = annIndex;
+        if (index != null) {
+            index.remove(docId);
+        }
+        return documents.remove(docId) != null || deleted;
     }
 
     /**
@@ -94,21 +136,155 @@ public class VectorDatabase {
      * @return 文档数量
      */
     public int countDocuments() {
-        return documents.size();
+        return store != null ? store.size() : documents.size();
     }
 
     /**
      * 清空所有文档
      */
     public void clearAllDocuments() {
+        if (store != null) {
+            store.clear();
+        }
         documents.clear();
+        if (matrix != null) {
+            matrix.clear();
+        }
+        HnswIndex index = annIndex;
+        if (index != null) {
+            index.clear();
+        }
     }
 
     /**
-     * 关闭数据库连接（内存实现无需关闭）
+     * 启用HNSW近似最近邻索引（使用默认参数），并索引已有文档
+     */
+    public void enableAnnIndex() {
+        enableAnnIndex(HnswIndex.DEFAULT_M, HnswIndex.DEFAULT_EF_CONSTRUCTION, HnswIndex.DEFAULT_EF_SEARCH);
+    }
+
+    /**
+     * 启用HNSW近似最近邻索引，并索引已有文档
+     * @param m 每层最大连接数
+     * @param efConstruction 构建时的候选集大小
+     * @param efSearch 查询时的候选集大小
+     */
+    public synchronized void enableAnnIndex(int m, int efConstruction, int efSearch) {
+        HnswIndex index = new HnswIndex(m, efConstruction, efSearch, 42L);
+        if (store != null) {
+            store.forEachVector(index::add);
+        } else {
+            for (Document document : documents.values()) {
+                if (document.hasEmbedding()) {
+                    index.add(document.getId(), document.getVector());
+                }
+            }
+        }
+        this.annIndex = index;
+    }
+
+    /**
+     * 停用近似最近邻索引，检索退回到逐个比较
+     */
+    public void disableAnnIndex() {
+        this.annIndex = null;
+    }
+
+    /**
+     * 获取近似最近邻索引
+     * @return 索引对象，未启用则返回null
+     */
+    public HnswIndex getAnnIndex() {
+        return annIndex;
+    }
+
+    /**
+     * 按余弦相似度检索最相近的文档
+     * 启用索引时先由HNSW取出 max(topK, efSearch) 个候选，再用原始向量精确计算相似度重排；
+     * 未启用时在连续存储的向量矩阵（持久化模式下为映射的向量段）上一次性打分
+     * @param queryEmbedding 查询向量
+     * @param topK 返回的文档数量
+     * @param similarityThreshold 相似度阈值
+     * @return 按相似度降序排列的查询结果
+     */
+    public List<QueryResult> searchSimilar(float[] queryEmbedding, int topK, double similarityThreshold) {
+        List<QueryResult> results = new ArrayList<>();
+        HnswIndex index = annIndex;
+        if (index != null) {
+            List<Document> candidates = new ArrayList<>();
+            int candidateCount = Math.max(topK, index.getEfSearch());
+            for (HnswIndex.SearchResult hit : index.search(queryEmbedding, candidateCount)) {
+                Document document = getDocument(hit.getId());
+                if (document != null && document.hasEmbedding()) {
+                    candidates.add(document);
+                }
+            }
+            float[] scores = new float[candidates.size()];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = (float) VectorSimilarity.cosineSimilarity(queryEmbedding, candidates.get(i).getVector());
+            }
+            for (int i : VectorSimilarity.topK(scores, scores.length, topK, similarityThreshold)) {
+                results.add(new QueryResult(candidates.get(i), scores[i], results.size() + 1));
+            }
+        } else {
+            List<HnswIndex.SearchResult> hits = store != null
+                    ? store.search(queryEmbedding, topK, similarityThreshold)
+                    : matrix.search(queryEmbedding, topK, similarityThreshold);
+            for (HnswIndex.SearchResult hit : hits) {
+                Document document = getDocument(hit.getId());
+                if (document != null) {
+                    results.add(new QueryResult(document, hit.getSimilarity(), results.size() + 1));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 按余弦相似度检索最相近的文档
+     * @param queryEmbedding 查询向量
+     * @param topK 返回的文档数量
+     * @param similarityThreshold 相似度阈值
+     * @return 按相似度降序排列的查询结果
+     */
+    public List<QueryResult> searchSimilar(List<Double> queryEmbedding, int topK, double similarityThreshold) {
+        return searchSimilar(VectorSimilarity.toFloatArray(queryEmbedding), topK, similarityThreshold);
+    }
+
+    private void indexDocument(Document document) {
+        HnswIndex index = annIndex;
+        if (document.hasEmbedding()) {
+            if (matrix != null) {
+                matrix.put(document.getId(), document.getVector());
+            }
+            if (index != null) {
+                index.add(document.getId(), document.getVector());
+            }
+        } else {
+            if (matrix != null) {
+                matrix.remove(document.getId());
+            }
+            if (index != null) {
+                index.remove(document.getId());
+            }
+        }
+    }
+
+    /**
+     * 关闭数据库连接（持久化模式下写入检查点，内存实现无需关闭）
      */
     public void close() {
-        // 内存实现无需关闭
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * 是否为持久化存储
+     * @return 是否持久化
+     */
+    public boolean isPersistent() {
+        return store != null;
     }
 
     /**
@@ -124,7 +300,7 @@ public class VectorDatabase {
      * @return 文档Map的大小
      */
     public int size() {
-        return documents.size();
+        return countDocuments();
     }
     
     /**
@@ -132,7 +308,7 @@ public class VectorDatabase {
      * @return 是否为空
      */
     public boolean isEmpty() {
-        return documents.isEmpty();
+        return countDocuments() == 0;
     }
     
     /**
@@ -141,6 +317,6 @@ public class VectorDatabase {
      * @return 是否包含
      */
     public boolean containsDocument(String docId) {
-        return documents.containsKey(docId);
+        return store != null ? store.contains(docId) : documents.containsKey(docId);
     }
 }
\ No newline at end of file
@@ -1,10 +1,12 @@
 package io.leavesfly.tinyai.agent.rag;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * 向量相似度计算类
- * 提供多种向量相似度和距离计算方法
+ * 提供多种向量相似度和距离计算方法。
+ * float[] 重载用于连续存储的嵌入向量，批量打分与 top-k 见 {@link #batchDot} 和 {@link #topK}
  */
 public class VectorSimilarity {
 
@@ -254,4 +256,253 @@ public class VectorSimilarity {
         
         return numerator / denominator;
     }
+
+    /**
+     * 计算余弦相似度
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 余弦相似度值
+     */
+    public static double cosineSimilarity(float[] vec1, float[] vec2) {
+        if (vec1 == null || vec2 == null || vec1.length != vec2.length || vec1.length == 0) {
+            return 0.0;
+        }
+        double norm1 = l2Norm(vec1);
+        double norm2 = l2Norm(vec2);
+        if (norm1 == 0.0 || norm2 == 0.0) {
+            return 0.0;
+        }
+        return dotProduct(vec1, vec2) / (norm1 * norm2);
+    }
+
+    /**
+     * 计算点积（内积）
+     * 四路展开、独立累加，便于JIT生成流水线友好的代码
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 点积值
+     */
+    public static double dotProduct(float[] vec1, float[] vec2) {
+        if (vec1 == null || vec2 == null || vec1.length != vec2.length) {
+            return 0.0;
+        }
+        return dot(vec1, 0, vec2, vec1.length);
+    }
+
+    /**
+     * 计算向量的L2范数
+     * @param vec 向量
+     * @return L2范数
+     */
+    public static double l2Norm(float[] vec) {
+        if (vec == null || vec.length == 0) {
+            return 0.0;
+        }
+        return Math.sqrt(dot(vec, 0, vec, vec.length));
+    }
+
+    /**
+     * 计算欧几里得距离
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 欧几里得距离
+     */
+    public static double euclideanDistance(float[] vec1, float[] vec2) {
+        if (vec1 == null || vec2 == null || vec1.length != vec2.length) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double sum = 0.0;
+        for (int i = 0; i < vec1.length; i++) {
+            double diff = vec1[i] - vec2[i];
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * 计算曼哈顿距离（L1距离）
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 曼哈顿距离
+     */
+    public static double manhattanDistance(float[] vec1, float[] vec2) {
+        if (vec1 == null || vec2 == null || vec1.length != vec2.length) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double sum = 0.0;
+        for (int i = 0; i < vec1.length; i++) {
+            sum += Math.abs(vec1[i] - vec2[i]);
+        }
+        return sum;
+    }
+
+    /**
+     * 计算皮尔逊相关系数
+     * @param vec1 向量1
+     * @param vec2 向量2
+     * @return 皮尔逊相关系数，范围[-1, 1]
+     */
+    public static double pearsonCorrelation(float[] vec1, float[] vec2) {
+        if (vec1 == null || vec2 == null || vec1.length != vec2.length || vec1.length < 2) {
+            return 0.0;
+        }
+        int n = vec1.length;
+        double mean1 = 0.0;
+        double mean2 = 0.0;
+        for (int i = 0; i < n; i++) {
+            mean1 += vec1[i];
+            mean2 += vec2[i];
+        }
+        mean1 /= n;
+        mean2 /= n;
+
+        double numerator = 0.0;
+        double sumSq1 = 0.0;
+        double sumSq2 = 0.0;
+        for (int i = 0; i < n; i++) {
+            double diff1 = vec1[i] - mean1;
+            double diff2 = vec2[i] - mean2;
+            numerator += diff1 * diff2;
+            sumSq1 += diff1 * diff1;
+            sumSq2 += diff2 * diff2;
+        }
+        double denominator = Math.sqrt(sumSq1 * sumSq2);
+        return denominator == 0.0 ? 0.0 : numerator / denominator;
+    }
+
+    /**
+     * 批量点积：一次遍历计算按行连续存储的矩阵与查询向量的点积
+     * @param matrix 行优先存储的矩阵，形状 (rows, dim)
+     * @param rows 行数
+     * @param dim 维度
+     * @param query 查询向量
+     * @param out 输出，长度至少为rows
+     */
+    public static void batchDot(float[] matrix, int rows, int dim, float[] query, float[] out) {
+        if (query.length != dim) {
+            throw new IllegalArgumentException("查询维度 " + query.length + " 与矩阵维度 " + dim + " 不一致");
+        }
+        for (int r = 0; r < rows; r++) {
+            out[r] = (float) dot(matrix, r * dim, query, dim);
+        }
+    }
+
+    /**
+     * 有界小顶堆选出分数最高的k个下标，O(n log k)，代替整体排序
+     * @param scores 分数
+     * @param count 有效分数个数
+     * @param k 返回数量
+     * @param threshold 分数阈值，低于阈值的不返回
+     * @return 按分数降序排列的下标
+     */
+    public static int[] topK(float[] scores, int count, int k, double threshold) {
+        if (k <= 0 || count == 0) {
+            return new int[0];
+        }
+        int[] heap = new int[Math.min(k, count)];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            float score = scores[i];
+            if (score < threshold) {
+                continue;
+            }
+            if (size < heap.length) {
+                heap[size] = i;
+                siftUp(heap, size++, scores);
+            } else if (score > scores[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, size, scores);
+            }
+        }
+        // 依次弹出堆顶，倒序写入得到降序结果
+        int[] result = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size, scores);
+        }
+        return result;
+    }
+
+    /**
+     * 转换为float数组
+     * @param vec 向量
+     * @return float数组，输入为null时返回null
+     */
+    public static float[] toFloatArray(List<Double> vec) {
+        if (vec == null) {
+            return null;
+        }
+        float[] result = new float[vec.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = vec.get(i).floatValue();
+        }
+        return result;
+    }
+
+    /**
+     * 转换为Double列表
+     * @param vec float数组
+     * @return 向量列表，输入为null时返回null
+     */
+    public static List<Double> toList(float[] vec) {
+        if (vec == null) {
+            return null;
+        }
+        List<Double> result = new ArrayList<>(vec.length);
+        for (float v : vec) {
+            result.add((double) v);
+        }
+        return result;
+    }
+
+    private static double dot(float[] a, int offset, float[] b, int length) {
+        float s0 = 0.0f, s1 = 0.0f, s2 = 0.0f, s3 = 0.0f;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[offset + i] * b[i];
+            s1 += a[offset + i + 1] * b[i + 1];
+            s2 += a[offset + i + 2] * b[i + 2];
+            s3 += a[offset + i + 3] * b[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[offset + i] * b[i];
+        }
+        return (double) s0 + s1 + s2 + s3;
+    }
+
+    private static void siftUp(int[] heap, int index, float[] scores) {
+        int item = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[heap[parent]] <= scores[item]) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = item;
+    }
+
+    private static void siftDown(int[] heap, int size, float[] scores) {
+        if (size == 0) {
+            return;
+        }
+        int item = heap[0];
+        int index = 0;
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && scores[heap[right]] < scores[heap[child]]) {
+                child = right;
+            }
+            if (scores[item] <= scores[heap[child]]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = item;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+/**
+ * BM25倒排索引单元测试
+ */
+public class TestBM25Index {
+
+    private static final String[] WORDS = {
+            "java", "python", "vector", "index", "search", "memory", "graph", "agent",
+            "model", "token", "query", "score", "cache", "disk", "thread", "batch"};
+
+    private static String randomText(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = 3 + random.nextInt(30);
+        for (int i = 0; i < length; i++) {
+            // 偏斜分布，使词频差异明显
+            int word = (int) (WORDS.length * Math.pow(random.nextDouble(), 2));
+            sb.append(WORDS[word]).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static void assertSameScores(List<HnswIndex.SearchResult> expected, List<HnswIndex.SearchResult> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            // 同分文档的先后顺序不作要求，只比较得分
+            assertEquals(expected.get(i).getSimilarity(), actual.get(i).getSimilarity(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testWandMatchesExhaustiveScoring() {
+        Random random = new Random(11);
+        BM25Index index = new BM25Index();
+        for (int i = 0; i < 3000; i++) {
+            index.add("d" + i, randomText(random));
+        }
+        // 增量删除与替换
+        for (int i = 0; i < 3000; i += 3) {
+            index.remove("d" + i);
+        }
+        for (int i = 1; i < 300; i += 3) {
+            index.add("d" + i, randomText(random));
+        }
+        assertEquals(2000, index.size());
+
+        for (String query : new String[]{"java vector", "graph agent memory", "disk", "batch thread cache token", "unknown"}) {
+            List<HnswIndex.SearchResult> expected = index.searchExhaustive(query, 10);
+            List<HnswIndex.SearchResult> actual = index.search(query, 10);
+            assertSameScores(expected, actual);
+            for (HnswIndex.SearchResult result : actual) {
+                assertTrue(index.contains(result.getId()));
+            }
+        }
+    }
+
+    @Test
+    public void testScoringAndPurge() {
+        BM25Index index = new BM25Index();
+        index.add("a", "vector search vector index");
+        index.add("b", "graph search");
+        index.add("c", "memory cache");
+
+        List<HnswIndex.SearchResult> results = index.search("vector", 5);
+        assertEquals(1, results.size());
+        assertEquals("a", results.get(0).getId());
+
+        // 稀有词权重更高
+        results = index.search("graph search", 5);
+        assertEquals("b", results.get(0).getId());
+        assertEquals(2, results.size());
+
+        assertTrue(index.remove("b"));
+        assertFalse(index.remove("b"));
+        assertEquals(1, index.search("graph search", 5).size());
+        assertTrue(index.search("graph", 5).isEmpty());
+
+        // 大量删除后整理倒排表，结果不变
+        Random random = new Random(5);
+        for (int i = 0; i < 3000; i++) {
+            index.add("x" + i, randomText(random));
+        }
+        for (int i = 0; i < 3000; i++) {
+            index.remove("x" + i);
+        }
+        assertEquals(2, index.size());
+        assertEquals("a", index.search("vector", 5).get(0).getId());
+        assertEquals("c", index.search("cache memory", 5).get(0).getId());
+    }
+
+    @Test
+    public void testRagSystemKeywordSearch() {
+        RAGSystem rag = new RAGSystem(100, 0.05);
+        List<Map<String, Object>> docs = new ArrayList<>();
+        String[][] contents = {
+                {"java", "Java是一种面向对象的编程语言"},
+                {"ml", "机器学习从数据中学习模式"},
+                {"db", "数据库用于存储和查询数据"}};
+        for (String[] content : contents) {
+            Map<String, Object> doc = new HashMap<>();
+            doc.put("id", content[0]);
+            doc.put("content", content[1]);
+            docs.add(doc);
+        }
+        rag.addDocuments(docs);
+
+        List<QueryResult> results = rag.search("查询数据库", 2, RAGSystem.SimilarityMethod.BM25);
+        assertEquals("db", results.get(0).getDocument().getId());
+        assertEquals(1, results.get(0).getRank());
+
+        rag.deleteDocument("db");
+        for (QueryResult result : rag.keywordSearch("查询数据库", 3)) {
+            assertNotEquals("db", result.getDocument().getId());
+        }
+    }
+}
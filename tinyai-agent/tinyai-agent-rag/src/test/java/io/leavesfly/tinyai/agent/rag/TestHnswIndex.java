@@ -0,0 +1,181 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * HNSW近似最近邻索引单元测试
+ */
+public class TestHnswIndex {
+
+    private static float[][] randomVectors(Random random, int n, int dim) {
+        float[][] vectors = new float[n][dim];
+        for (float[] vector : vectors) {
+            for (int j = 0; j < dim; j++) {
+                vector[j] = (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    private static List<Double> toList(float[] vector) {
+        List<Double> list = new ArrayList<>(vector.length);
+        for (float v : vector) {
+            list.add((double) v);
+        }
+        return list;
+    }
+
+    private static Set<String> exactTopK(Map<String, float[]> data, float[] query, int k) {
+        List<String> ids = new ArrayList<>(data.keySet());
+        Map<String, Double> sims = new HashMap<>();
+        for (String id : ids) {
+            sims.put(id, VectorSimilarity.cosineSimilarity(toList(data.get(id)), toList(query)));
+        }
+        ids.sort((a, b) -> Double.compare(sims.get(b), sims.get(a)));
+        return new HashSet<>(ids.subList(0, k));
+    }
+
+    @Test
+    public void testRecallAgainstBruteForce() {
+        Random random = new Random(1);
+        float[][] vectors = randomVectors(random, 2000, 32);
+        HnswIndex index = new HnswIndex(16, 100, 64, 3L);
+        Map<String, float[]> data = new HashMap<>();
+        for (int i = 0; i < vectors.length; i++) {
+            index.add("d" + i, vectors[i]);
+            data.put("d" + i, vectors[i]);
+        }
+        assertEquals(2000, index.size());
+
+        int k = 10;
+        int hits = 0;
+        float[][] queries = randomVectors(random, 50, 32);
+        for (float[] query : queries) {
+            Set<String> truth = exactTopK(data, query, k);
+            List<HnswIndex.SearchResult> results = index.search(query, k);
+            assertEquals(k, results.size());
+            for (int i = 1; i < results.size(); i++) {
+                assertTrue(results.get(i - 1).getSimilarity() >= results.get(i).getSimilarity());
+            }
+            for (HnswIndex.SearchResult result : results) {
+                if (truth.contains(result.getId())) {
+                    hits++;
+                }
+            }
+        }
+        double recall = (double) hits / (queries.length * k);
+        assertTrue("recall@10 = " + recall, recall >= 0.9);
+    }
+
+    @Test
+    public void testIncrementalDeleteAndReplace() {
+        Random random = new Random(2);
+        float[][] vectors = randomVectors(random, 300, 16);
+        HnswIndex index = new HnswIndex(8, 50, 32, 5L);
+        for (int i = 0; i < vectors.length; i++) {
+            index.add("d" + i, vectors[i]);
+        }
+
+        // 自身查询应命中自己
+        assertEquals("d7", index.search(vectors[7], 1).get(0).getId());
+
+        assertTrue(index.remove("d7"));
+        assertFalse(index.remove("d7"));
+        assertFalse(index.contains("d7"));
+        for (HnswIndex.SearchResult result : index.search(vectors[7], 10)) {
+            assertNotEquals("d7", result.getId());
+        }
+
+        // 替换向量后按新向量检索
+        index.add("d8", vectors[7]);
+        assertEquals("d8", index.search(vectors[7], 1).get(0).getId());
+        assertEquals(299, index.size());
+
+        // 大量删除触发重建后仍能正确检索
+        for (int i = 100; i < 300; i++) {
+            index.remove("d" + i);
+        }
+        assertEquals(99, index.size());
+        assertEquals("d42", index.search(vectors[42], 1).get(0).getId());
+    }
+
+    @Test
+    public void testRepeatedUpsertsCompactGraph() {
+        Random random = new Random(3);
+        float[][] vectors = randomVectors(random, 100, 16);
+        HnswIndex index = new HnswIndex(8, 50, 32, 7L);
+        for (int i = 0; i < vectors.length; i++) {
+            index.add("d" + i, vectors[i]);
+        }
+
+        // 反复替换同一批ID，被替换的旧节点触发重建，图规模不随替换次数增长
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < vectors.length; i++) {
+                index.add("d" + i, vectors[(i + round) % vectors.length]);
+            }
+        }
+        assertEquals(100, index.size());
+        assertTrue("节点数应保持有界: " + index.nodeCount(), index.nodeCount() <= 2 * index.size() + 64);
+        assertEquals("d91", index.search(vectors[0], 1).get(0).getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsDimensionMismatch() {
+        HnswIndex index = new HnswIndex();
+        index.add("a", new float[]{1, 0, 0});
+        index.add("b", new float[]{1, 0});
+    }
+
+    @Test
+    public void testVectorDatabaseRerankMatchesExactSearch() {
+        Random random = new Random(4);
+        float[][] vectors = randomVectors(random, 500, 24);
+        VectorDatabase exact = new VectorDatabase();
+        VectorDatabase indexed = new VectorDatabase();
+        indexed.enableAnnIndex(16, 100, 100);
+        for (int i = 0; i < vectors.length; i++) {
+            Document doc = new Document("d" + i, "content " + i, new HashMap<>(), toList(vectors[i]), LocalDateTime.now());
+            exact.addDocument(doc);
+            indexed.addDocument(doc);
+        }
+        assertEquals(500, indexed.getAnnIndex().size());
+
+        List<Double> query = toList(vectors[11]);
+        List<QueryResult> expected = exact.searchSimilar(query, 5, -1.0);
+        List<QueryResult> actual = indexed.searchSimilar(query, 5, -1.0);
+        assertEquals(5, actual.size());
+        assertEquals("d11", actual.get(0).getDocument().getId());
+        assertEquals(1, actual.get(0).getRank());
+        // 重排使用精确相似度，与逐个比较得到的分数一致
+        assertEquals(expected.get(0).getSimilarity(), actual.get(0).getSimilarity(), 1e-6);
+
+        indexed.deleteDocument("d11");
+        assertFalse(indexed.getAnnIndex().contains("d11"));
+        assertNotEquals("d11", indexed.searchSimilar(query, 1, -1.0).get(0).getDocument().getId());
+
+        indexed.clearAllDocuments();
+        assertTrue(indexed.searchSimilar(query, 5, -1.0).isEmpty());
+    }
+
+    @Test
+    public void testRagSystemWithAnnIndex() {
+        RAGSystem rag = new RAGSystem(100, 0.05);
+        rag.enableAnnIndex();
+        List<Map<String, Object>> docs = new ArrayList<>();
+        String[][] contents = {{"java", "Java是一种面向对象的编程语言"}, {"ml", "机器学习从数据中学习模式"}};
+        for (String[] content : contents) {
+            Map<String, Object> doc = new HashMap<>();
+            doc.put("id", content[0]);
+            doc.put("content", content[1]);
+            docs.add(doc);
+        }
+        rag.addDocuments(docs);
+        List<QueryResult> results = rag.search("机器学习", 1);
+        assertEquals(1, results.size());
+        assertEquals("ml", results.get(0).getDocument().getId());
+    }
+}
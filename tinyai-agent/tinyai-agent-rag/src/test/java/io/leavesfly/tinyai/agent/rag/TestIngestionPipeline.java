@@ -0,0 +1,155 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * 流式文档导入单元测试
+ */
+public class TestIngestionPipeline {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String[] TOPICS = {"机器学习", "数据库", "编程语言", "神经网络", "操作系统", "分布式"};
+
+    private static List<Map<String, Object>> documents(int count, String suffix) {
+        List<Map<String, Object>> docs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> doc = new HashMap<>();
+            doc.put("id", "doc_" + i);
+            doc.put("content", "第" + i + "篇关于" + TOPICS[i % TOPICS.length] + "的文档" + suffix);
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    @Test
+    public void testParallelIngestionSkipsIndexedDocuments() {
+        RAGSystem rag = new RAGSystem(64, 0.0);
+        rag.addDocuments(documents(300, ""));
+        assertEquals(300, rag.getDocumentsCount());
+        int dimension = (Integer) rag.getStatistics().get("actualFeatureDimension");
+        for (Document document : rag.getAllDocuments()) {
+            assertEquals(dimension, document.getVector().length);
+        }
+
+        // 再次导入相同内容：全部跳过，不重新向量化
+        List<IngestionPipeline.SourceDocument> sources = new ArrayList<>();
+        for (Map<String, Object> doc : documents(300, "")) {
+            sources.add(new IngestionPipeline.SourceDocument((String) doc.get("id"), (String) doc.get("content"), null));
+        }
+        IngestionReport report = rag.ingest(sources.iterator(), 0, 0);
+        assertEquals(300, report.getSkippedCount());
+        assertEquals(0, report.getIndexedCount());
+
+        // 修改一篇文档：只处理这一篇，文档频率统计数不变
+        Map<String, Object> changed = new HashMap<>();
+        changed.put("id", "doc_7");
+        changed.put("content", "修改后的分布式数据库文档");
+        rag.addDocuments(Collections.singletonList(changed));
+        assertEquals(300, rag.getDocumentsCount());
+        assertEquals("修改后的分布式数据库文档", rag.getDocument("doc_7").getContent());
+
+        assertTrue(rag.deleteDocument("doc_8"));
+        assertEquals("doc_7", rag.search("修改后的分布式数据库", 1).get(0).getDocument().getId());
+        rag.close();
+    }
+
+    @Test
+    public void testDocumentFrequencyIsIncremental() {
+        TFIDFVectorizer vectorizer = new TFIDFVectorizer(50);
+        List<Document> written = new ArrayList<>();
+        IngestionPipeline pipeline = new IngestionPipeline(vectorizer, written::addAll)
+                .setWorkers(3).setQueueCapacity(8).setBatchSize(16).setBootstrapSize(20);
+        List<IngestionPipeline.SourceDocument> sources = new ArrayList<>();
+        for (Map<String, Object> doc : documents(200, "")) {
+            sources.add(new IngestionPipeline.SourceDocument((String) doc.get("id"), (String) doc.get("content"), null));
+        }
+
+        IngestionReport report = pipeline.run(sources.iterator());
+        assertEquals(200, report.getIndexedCount());
+        assertEquals(200, written.size());
+        assertEquals(200, vectorizer.getDocumentCount());
+
+        // 与一次性训练得到的文档频率一致
+        TFIDFVectorizer full = new TFIDFVectorizer(50);
+        List<String> contents = new ArrayList<>();
+        for (IngestionPipeline.SourceDocument source : sources) {
+            contents.add(source.getContent());
+        }
+        full.fit(contents);
+        for (String term : Arrays.asList("机", "数", "文", "篇")) {
+            assertEquals(full.getIdfScore(term), vectorizer.getIdfScore(term), 1e-12);
+        }
+    }
+
+    @Test
+    public void testChunking() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("这是第").append(i).append("句话。");
+        }
+        String text = sb.toString();
+        List<String> chunks = IngestionPipeline.chunk(text, 60, 10);
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertTrue(chunk.length() <= 60);
+        }
+        assertTrue(text.startsWith(chunks.get(0)));
+        assertTrue(text.endsWith(chunks.get(chunks.size() - 1)));
+        assertEquals(Collections.singletonList("短文本"), IngestionPipeline.chunk("短文本", 60, 10));
+    }
+
+    @Test
+    public void testIngestDirectory() throws IOException {
+        File dir = folder.newFolder("docs");
+        new File(dir, "sub").mkdirs();
+        Files.write(new File(dir, "a.txt").toPath(), "Java是一种面向对象的编程语言".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "sub/b.md").toPath(), "数据库用于存储和查询数据".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "c.bin").toPath(), new byte[]{1, 2, 3});
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append("机器学习从数据中学习模式。");
+        }
+        Files.write(new File(dir, "long.txt").toPath(), longText.toString().getBytes(StandardCharsets.UTF_8));
+
+        RAGSystem rag = new RAGSystem(100, 0.0);
+        IngestionReport report = rag.ingestDirectory(dir.toPath());
+        assertEquals(3, report.getSourceCount());
+        assertTrue(report.getChunkCount() > 3);
+        assertEquals(report.getChunkCount(), report.getIndexedCount());
+        assertTrue(report.getChunksPerSecond() > 0);
+        assertNotNull(rag.getDocument("sub/b.md"));
+        assertEquals("long.txt", rag.getDocument("long.txt#1").getMetadata().get("source_id"));
+
+        // 再次导入同一目录不重复处理
+        assertEquals(report.getChunkCount(), rag.ingestDirectory(dir.toPath()).getSkippedCount());
+    }
+
+    @Test
+    public void testFailureIsPropagated() {
+        TFIDFVectorizer vectorizer = new TFIDFVectorizer(50);
+        IngestionPipeline pipeline = new IngestionPipeline(vectorizer, documents -> {
+            throw new IllegalStateException("写入失败");
+        }).setWorkers(2).setQueueCapacity(4).setBatchSize(8).setBootstrapSize(10);
+        List<IngestionPipeline.SourceDocument> sources = new ArrayList<>();
+        for (Map<String, Object> doc : documents(500, "")) {
+            sources.add(new IngestionPipeline.SourceDocument((String) doc.get("id"), (String) doc.get("content"), null));
+        }
+        try {
+            pipeline.run(sources.iterator());
+            fail("写入失败应抛出异常");
+        } catch (IllegalStateException e) {
+            assertEquals("写入失败", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package io.leavesfly.tinyai.agent.rag;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 持久化向量存储单元测试
+ */
+public class TestPersistentVectorStore {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Document document(String id, float... vector) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("source", "test");
+        metadata.put("page", 3);
+        metadata.put("score", 0.5);
+        return new Document(id, "内容 " + id, metadata, vector, LocalDateTime.of(2024, 1, 2, 3, 4, 5));
+    }
+
+    @Test
+    public void testReopenAfterCloseAndAfterCrash() throws IOException {
+        String path = folder.newFolder("db").getPath();
+        PersistentVectorStore store = new PersistentVectorStore(path);
+        store.putAll(Arrays.asList(document("a", 1, 0, 0), document("b", 0, 1, 0)));
+        store.close();
+
+        // 正常关闭后从检查点加载
+        PersistentVectorStore reopened = new PersistentVectorStore(path);
+        assertEquals(2, reopened.size());
+        Document a = reopened.get("a");
+        assertEquals("内容 a", a.getContent());
+        assertEquals(3, a.getMetadata().get("page"));
+        assertEquals(0.5, a.getMetadata().get("score"));
+        assertEquals(LocalDateTime.of(2024, 1, 2, 3, 4, 5), a.getCreatedAt());
+        assertArrayEquals(new float[]{1, 0, 0}, a.getVector(), 0.0f);
+
+        // 未关闭（模拟崩溃）时从日志重放
+        reopened.put(document("c", 0, 0, 1));
+        reopened.delete("b");
+        PersistentVectorStore recovered = new PersistentVectorStore(path);
+        assertEquals(new HashSet<>(Arrays.asList("a", "c")), recovered.ids());
+        assertArrayEquals(new float[]{0, 0, 1}, recovered.getVector("c"), 0.0f);
+        assertNull(recovered.get("b"));
+        recovered.close();
+    }
+
+    @Test
+    public void testTornWalTailIsIgnored() throws IOException {
+        String path = folder.newFolder("torn").getPath();
+        PersistentVectorStore store = new PersistentVectorStore(path);
+        store.put(document("a", 1, 2));
+        store.put(document("b", 3, 4));
+
+        // 日志末尾写入一半的记录
+        Path wal = new java.io.File(path, "wal.log").toPath();
+        Files.write(wal, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        PersistentVectorStore recovered = new PersistentVectorStore(path);
+        assertEquals(2, recovered.size());
+        recovered.put(document("c", 5, 6));
+        recovered.close();
+
+        PersistentVectorStore reopened = new PersistentVectorStore(path);
+        assertEquals(3, reopened.size());
+        assertArrayEquals(new float[]{5, 6}, reopened.getVector("c"), 0.0f);
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactionDropsDeletedData() throws IOException {
+        String path = folder.newFolder("compact").getPath();
+        PersistentVectorStore store = new PersistentVectorStore(path);
+        store.setSyncWrites(false);
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            documents.add(document("d" + i, i, i + 1, i + 2, i + 3));
+        }
+        store.putAll(documents);
+        for (int i = 0; i < 150; i++) {
+            store.delete("d" + i);
+        }
+        // 覆盖写入也会产生无效数据
+        store.put(document("d199", 9, 9, 9, 9));
+        assertTrue(store.getDeadBytes() > 0);
+
+        store.compact();
+        assertEquals(1, store.getGeneration());
+        assertEquals(0, store.getDeadBytes());
+        assertEquals(50, store.size());
+        assertArrayEquals(new float[]{160, 161, 162, 163}, store.getVector("d160"), 0.0f);
+        assertArrayEquals(new float[]{9, 9, 9, 9}, store.getVector("d199"), 0.0f);
+        assertFalse(Files.exists(new java.io.File(path, "vectors-0.seg").toPath()));
+
+        // 压缩后未关闭即重新打开
+        store.put(document("new", 1, 1, 1, 1));
+        PersistentVectorStore reopened = new PersistentVectorStore(path);
+        assertEquals(51, reopened.size());
+        assertEquals("内容 d170", reopened.get("d170").getContent());
+        assertNotNull(reopened.get("new"));
+        reopened.close();
+    }
+
+    @Test
+    public void testSearchScoresMappedVectors() throws IOException {
+        String path = folder.newFolder("search").getPath();
+        Random random = new Random(11);
+        PersistentVectorStore store = new PersistentVectorStore(path);
+        store.setSyncWrites(false);
+        Map<String, float[]> vectors = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            float[] vector = randomVector(random, 8);
+            vectors.put("d" + i, vector);
+            store.put(document("d" + i, vector));
+        }
+        store.put(new Document("plain", "无向量", null));
+        float[] query = randomVector(random, 8);
+        assertSearchMatchesBruteForce(store, vectors, query);
+        store.close();
+
+        // 重新打开后在映射段上检索，之后追加的向量同样参与检索
+        PersistentVectorStore reopened = new PersistentVectorStore(path);
+        assertSearchMatchesBruteForce(reopened, vectors, query);
+        float[] best = query.clone();
+        vectors.put("best", best);
+        reopened.put(document("best", best));
+        assertEquals("best", reopened.search(query, 1, -1.0).get(0).getId());
+        assertSearchMatchesBruteForce(reopened, vectors, query);
+        reopened.close();
+    }
+
+    @Test
+    public void testWritesDuringCompactionArePreserved() throws Exception {
+        String path = folder.newFolder("compact-concurrent").getPath();
+        PersistentVectorStore store = new PersistentVectorStore(path);
+        store.setSyncWrites(false);
+        for (int i = 0; i < 2000; i++) {
+            store.put(document("d" + i, i, i, i));
+        }
+
+        // 压缩与写入、覆盖、删除并发进行，压缩补齐快照之后的变化
+        AtomicBoolean done = new AtomicBoolean();
+        Thread compactor = new Thread(() -> {
+            while (!done.get()) {
+                store.compact();
+            }
+        });
+        compactor.start();
+        for (int i = 0; i < 2000; i++) {
+            if (i % 3 == 0) {
+                store.delete("d" + i);
+            } else if (i % 3 == 1) {
+                store.put(document("d" + i, -i, -i, -i));
+            }
+            store.put(document("n" + i, i, 0, 0));
+        }
+        done.set(true);
+        compactor.join();
+        assertTrue(store.getGeneration() > 0);
+
+        store.compact();
+        assertEquals(0, store.getDeadBytes());
+        assertStoreContents(store);
+        store.close();
+        PersistentVectorStore reopened = new PersistentVectorStore(path);
+        assertStoreContents(reopened);
+        reopened.close();
+    }
+
+    private static void assertStoreContents(PersistentVectorStore store) {
+        assertEquals(2000 - 667 + 2000, store.size());
+        for (int i = 0; i < 2000; i++) {
+            float[] vector = store.getVector("d" + i);
+            if (i % 3 == 0) {
+                assertNull(vector);
+            } else {
+                float value = i % 3 == 1 ? -i : i;
+                assertArrayEquals(new float[]{value, value, value}, vector, 0.0f);
+            }
+            assertArrayEquals(new float[]{i, 0, 0}, store.getVector("n" + i), 0.0f);
+            assertEquals("内容 n" + i, store.get("n" + i).getContent());
+        }
+    }
+
+    private static void assertSearchMatchesBruteForce(PersistentVectorStore store, Map<String, float[]> vectors,
+                                                      float[] query) {
+        List<Map.Entry<String, float[]>> expected = new ArrayList<>(vectors.entrySet());
+        expected.sort((x, y) -> Double.compare(VectorSimilarity.cosineSimilarity(query, y.getValue()),
+                VectorSimilarity.cosineSimilarity(query, x.getValue())));
+        List<HnswIndex.SearchResult> results = store.search(query, 5, -1.0);
+        assertEquals(5, results.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expected.get(i).getKey(), results.get(i).getId());
+            assertEquals(VectorSimilarity.cosineSimilarity(query, expected.get(i).getValue()),
+                    results.get(i).getSimilarity(), 1e-5);
+        }
+    }
+
+    private static float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    @Test
+    public void testRagSystemReopensWithoutRetraining() throws IOException {
+        String path = folder.newFolder("rag").getPath();
+        RAGSystem rag = new RAGSystem(100, 0.05, path);
+        List<Map<String, Object>> docs = new ArrayList<>();
+        String[][] contents = {
+                {"java", "Java是一种面向对象的编程语言"},
+                {"ml", "机器学习从数据中学习模式"},
+                {"db", "数据库用于存储和查询数据"}};
+        for (String[] content : contents) {
+            Map<String, Object> doc = new HashMap<>();
+            doc.put("id", content[0]);
+            doc.put("content", content[1]);
+            docs.add(doc);
+        }
+        rag.addDocuments(docs);
+        List<QueryResult> before = rag.search("机器学习", 2);
+        rag.close();
+
+        RAGSystem reopened = new RAGSystem(100, 0.05, path);
+        assertTrue(reopened.isTrained());
+        assertEquals(3, reopened.getDocumentsCount());
+        List<QueryResult> after = reopened.search("机器学习", 2);
+        assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            assertEquals(before.get(i).getDocument().getId(), after.get(i).getDocument().getId());
+            assertEquals(before.get(i).getSimilarity(), after.get(i).getSimilarity(), 1e-6);
+        }
+        assertTrue(reopened.deleteDocument("java"));
+        assertNull(reopened.getDocument("java"));
+        reopened.close();
+    }
+}
@@ -130,6 +130,47 @@ public class TestRag {
         System.out.println("VectorSimilarity测试通过");
     }
 
+    @Test
+    public void testEmbeddingMatrixTopK() {
+        System.out.println("测试EmbeddingMatrix...");
+
+        Random random = new Random(3);
+        EmbeddingMatrix matrix = new EmbeddingMatrix();
+        Map<String, float[]> vectors = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            float[] vector = new float[13];
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] = (float) random.nextGaussian();
+            }
+            vectors.put("v" + i, vector);
+            matrix.put("v" + i, vector);
+        }
+        matrix.remove("v0");
+        vectors.remove("v0");
+        assertEquals(99, matrix.size());
+
+        // 与逐个计算余弦相似度再整体排序的结果一致
+        float[] query = vectors.get("v5");
+        List<String> expected = new ArrayList<>(vectors.keySet());
+        expected.sort((a, b) -> Double.compare(
+                VectorSimilarity.cosineSimilarity(query, vectors.get(b)),
+                VectorSimilarity.cosineSimilarity(query, vectors.get(a))));
+        List<HnswIndex.SearchResult> results = matrix.search(query, 5, -1.0);
+        assertEquals(5, results.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expected.get(i), results.get(i).getId());
+            assertEquals(VectorSimilarity.cosineSimilarity(query, vectors.get(expected.get(i))),
+                    results.get(i).getSimilarity(), 1e-5);
+        }
+
+        // 阈值过滤与k大于数量的情况
+        assertEquals(1, matrix.search(query, 5, 0.999).size());
+        int[] top = VectorSimilarity.topK(new float[]{0.1f, 0.9f, 0.5f}, 3, 10, 0.0);
+        assertArrayEquals(new int[]{1, 2, 0}, top);
+
+        System.out.println("EmbeddingMatrix测试通过");
+    }
+
     @Test
     public void testVectorDatabase() {
         System.out.println("测试VectorDatabase...");
@@ -232,6 +273,44 @@ public class TestRag {
         System.out.println("Document操作测试通过");
     }
 
+    @Test
+    public void testHybridSearchCache() {
+        System.out.println("测试混合检索与缓存...");
+        
+        ragSystem.addDocuments(testDocuments);
+        
+        List<QueryResult> first = ragSystem.hybridSearch("机器学习", 2);
+        assertFalse("混合检索结果不应为空", first.isEmpty());
+        assertEquals("排名应从1开始", 1, first.get(0).getRank());
+        assertEquals("首次检索应未命中缓存", 1, ragSystem.getQueryCache().getMissCount());
+        
+        // 相同查询命中缓存，结果一致
+        List<QueryResult> second = ragSystem.search("机器学习", 2, RAGSystem.SimilarityMethod.HYBRID);
+        assertEquals("应命中缓存", 1, ragSystem.getQueryCache().getHitCount());
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).getDocument().getId(), second.get(i).getDocument().getId());
+            assertEquals(first.get(i).getSimilarity(), second.get(i).getSimilarity(), 0.0);
+        }
+        assertEquals("每阶段各记录一次", 1, ragSystem.getRetrievalMetrics().getCount("lexical"));
+        assertEquals(1, ragSystem.getRetrievalMetrics().getCount("vector"));
+        
+        // 删除文档后缓存失效
+        String topId = first.get(0).getDocument().getId();
+        ragSystem.deleteDocument(topId);
+        assertEquals("删除后缓存应清空", 0, ragSystem.getQueryCache().size());
+        for (QueryResult result : ragSystem.hybridSearch("机器学习", 2)) {
+            assertNotEquals("已删除文档不应出现", topId, result.getDocument().getId());
+        }
+        
+        Map<String, Object> stats = ragSystem.getStatistics();
+        assertTrue("统计信息应包含缓存命中率", stats.containsKey("queryCache"));
+        assertTrue("统计信息应包含检索耗时", stats.containsKey("retrievalMetrics"));
+        
+        ragSystem.close();
+        System.out.println("混合检索与缓存测试通过");
+    }
+
     @Test
     public void testQueryResult() {
         System.out.println("测试QueryResult...");
@@ -346,6 +346,7 @@ public abstract class Function implements Serializable {
      * 只有在以下条件都满足时才构建计算图：
      * <ol>
      *   <li>当前处于训练模式(Config.train = true)</li>
+     *   <li>不在无梯度作用域内({@link NoGrad})</li>
      *   <li>至少有一个输入变量需要计算梯度(requireGrad = true)</li>
      * </ol>
      * 
@@ -353,7 +354,7 @@ public abstract class Function implements Serializable {
      * @return 如果需要构建计算图则为true，否则为false
      */
     protected boolean shouldBuildGraph(Variable[] vars) {
-        if (!Config.train) {
+        if (!Config.train || NoGrad.isActive()) {
             return false;
         }
         return Arrays.stream(vars).anyMatch(v -> v != null && v.isRequireGrad());
@@ -0,0 +1,83 @@
+package io.leavesfly.tinyai.func;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 无梯度作用域
+ * <p>
+ * 作用域内 {@link Function#call} / {@link Function#callMulti} 不再构建计算图：
+ * 输出变量不设置creator，函数也不保留输入/输出引用，前向结束后中间结果即可被回收。
+ * 适用于冻结的参考模型、旧策略打分、采样生成等只需要前向数值的场景。
+ * <p>
+ * 与 {@code Config.train} 不同，无梯度作用域不影响Dropout等训练/推理行为的切换。
+ * 作用域可以嵌套，且只对进入它的线程生效，其他线程上并发进行的训练仍正常构建计算图。
+ * 需要在工作线程上沿用调用方作用域的线程池，应通过 {@link #wrap(Callable)} 显式传递。
+ *
+ * <p><b>使用示例</b>：
+ * <pre>{@code
+ * try (NoGrad ignored = NoGrad.enter()) {
+ *     Variable refLogits = referenceModel.predict(input);
+ * }
+ * }</pre>
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public final class NoGrad implements AutoCloseable {
+
+    private static final ThreadLocal<int[]> DEPTH = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final int[] depth;
+
+    private boolean closed;
+
+    private NoGrad(int[] depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * 进入无梯度作用域
+     *
+     * @return 作用域句柄，关闭时退出
+     */
+    public static NoGrad enter() {
+        int[] depth = DEPTH.get();
+        depth[0]++;
+        return new NoGrad(depth);
+    }
+
+    /**
+     * 当前线程是否处于无梯度作用域
+     */
+    public static boolean isActive() {
+        return DEPTH.get()[0] > 0;
+    }
+
+    /**
+     * 捕获调用线程当前的作用域：调用方处于无梯度作用域时，返回的任务在执行线程上同样进入该作用域
+     *
+     * @param task 要提交到其他线程执行的任务
+     * @return 携带调用方作用域的任务
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        if (!isActive()) {
+            return task;
+        }
+        return () -> {
+            try (NoGrad ignored = enter()) {
+                return task.call();
+            }
+        };
+    }
+
+    /**
+     * 退出作用域（重复关闭无效）
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            depth[0]--;
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package io.leavesfly.tinyai.func.matrix;
+
+import io.leavesfly.tinyai.func.Function;
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * 融合的缩放点积注意力（Flash Attention风格）Function
+ * <p>
+ * 计算 Attention(Q, K, V) = softmax(Q·K^T·scale + bias + mask)·V，
+ * 但不物化 [B, H, Tq, Tk] 的注意力分数矩阵：
+ * <ul>
+ *   <li>前向：对每个查询行按键块(blockSize)扫描，用在线softmax维护行最大值m与归一化因子l，
+ *       只额外保存每行的logsumexp（B·H·Tq个float）</li>
+ *   <li>反向：按键块重算注意力概率 P = exp(S - logsumexp)，直接累加dQ、dK、dV</li>
+ *   <li>因果掩码隐式实现：查询i（绝对位置 causalOffset + i）只能看到键 j ≤ causalOffset + i</li>
+ *   <li>键填充掩码隐式实现：keyPaddingMask[b, j] > 0.5 的键被跳过</li>
+ *   <li>文档分段（序列打包）隐式实现：segmentIds[b, j] 中连续相同的ID构成一个文档，
+ *       查询只扫描自身所在文档的键区间，得到块对角（因果）注意力，被跳过的键不参与计算</li>
+ *   <li>可选的加性bias输入（如任意注意力掩码），视为常量不求梯度</li>
+ *   <li>注意力dropout由(seed, 位置)的确定性哈希生成，反向时重算而不保存掩码</li>
+ *   <li>分组查询注意力(GQA/MQA)：K、V 可只有 Hkv 个头（H 为 Hkv 的整数倍），
+ *       第 h 个查询头读取第 h / (H / Hkv) 个KV头，不复制K、V</li>
+ *   <li>前向在 batch×head 之间并行；反向在 batch×KV头 之间并行，同组查询头串行累加共享的dK、dV</li>
+ * </ul>
+ * 额外显存为 O(B·H·T)，而非朴素实现的 O(B·H·T²)。
+ * <p>
+ * 输入：
+ * <ul>
+ *   <li>inputs[0]: Q [B, H, Tq, D]</li>
+ *   <li>inputs[1]: K [B, Hkv, Tk, D]</li>
+ *   <li>inputs[2]: V [B, Hkv, Tk, Dv]</li>
+ *   <li>inputs[3]: bias（可选）[Tq, Tk] 或 [B|1, H|1, Tq, Tk]</li>
+ * </ul>
+ * 输出：[B, H, Tq, Dv]
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class FlashAttention extends Function {
+
+    /**
+     * 默认键块大小
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    /**
+     * 单次调用的计算量（Tq·Tk·D）低于该值时不并行
+     */
+    private static final long PARALLEL_THRESHOLD = 1L << 14;
+
+    private final float scale;
+    private final boolean causal;
+    private final int causalOffset;
+    private final float[] keyPaddingMask;
+    private final int[] segmentIds;
+    private final float dropout;
+    private final long dropoutSeed;
+    private final int blockSize;
+
+    // 前向缓存：每个查询行的 logsumexp，fully-masked 行为 -inf
+    private float[] logSumExp;
+
+    // 由segmentIds得到的每个键位置所在文档的区间 [segmentStart, segmentEnd)
+    private int[] segmentStart;
+    private int[] segmentEnd;
+
+    /**
+     * 构造函数
+     *
+     * @param scale  分数缩放因子，通常为 1/sqrt(D)
+     * @param causal 是否应用因果掩码
+     */
+    public FlashAttention(float scale, boolean causal) {
+        this(scale, causal, 0, null);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param scale          分数缩放因子，通常为 1/sqrt(D)
+     * @param causal         是否应用因果掩码
+     * @param causalOffset   第一个查询的绝对位置（KV-Cache增量推理时为已缓存长度）
+     * @param keyPaddingMask 键填充掩码 [B, Tk]，1表示padding，可为null
+     */
+    public FlashAttention(float scale, boolean causal, int causalOffset, float[] keyPaddingMask) {
+        this(scale, causal, causalOffset, keyPaddingMask, 0.0f, 0L, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * 完整构造函数
+     *
+     * @param scale          分数缩放因子，通常为 1/sqrt(D)
+     * @param causal         是否应用因果掩码
+     * @param causalOffset   第一个查询的绝对位置
+     * @param keyPaddingMask 键填充掩码 [B, Tk]，1表示padding，可为null
+     * @param dropout        注意力权重的dropout比率，范围 [0, 1)
+     * @param dropoutSeed    dropout随机种子
+     * @param blockSize      键块大小
+     */
+    public FlashAttention(float scale, boolean causal, int causalOffset, float[] keyPaddingMask,
+                          float dropout, long dropoutSeed, int blockSize) {
+        this(scale, causal, causalOffset, keyPaddingMask, null, dropout, dropoutSeed, blockSize);
+    }
+
+    /**
+     * 带文档分段的完整构造函数（序列打包）
+     * <p>
+     * segmentIds[b, j] 为第b行第j个键所属文档的ID，同一文档必须连续；
+     * 第i个查询的文档由其绝对位置 causalOffset + i 决定，只与同一文档内的键计算注意力。
+     *
+     * @param scale          分数缩放因子，通常为 1/sqrt(D)
+     * @param causal         是否应用因果掩码
+     * @param causalOffset   第一个查询的绝对位置
+     * @param keyPaddingMask 键填充掩码 [B, Tk]，1表示padding，可为null
+     * @param segmentIds     文档ID [B, Tk]，可为null
+     * @param dropout        注意力权重的dropout比率，范围 [0, 1)
+     * @param dropoutSeed    dropout随机种子
+     * @param blockSize      键块大小
+     */
+    public FlashAttention(float scale, boolean causal, int causalOffset, float[] keyPaddingMask,
+                          int[] segmentIds, float dropout, long dropoutSeed, int blockSize) {
+        if (dropout < 0 || dropout >= 1) {
+            throw new IllegalArgumentException("Dropout probability must be in [0, 1), got: " + dropout);
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive, got: " + blockSize);
+        }
+        if (causalOffset < 0) {
+            throw new IllegalArgumentException("causalOffset must be non-negative, got: " + causalOffset);
+        }
+        this.scale = scale;
+        this.causal = causal;
+        this.causalOffset = causalOffset;
+        this.keyPaddingMask = keyPaddingMask;
+        this.segmentIds = segmentIds;
+        this.dropout = dropout;
+        this.dropoutSeed = dropoutSeed;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * 前向传播：按键块的在线softmax
+     *
+     * @param inputs Q, K, V, [bias]
+     * @return 注意力输出 [B, H, Tq, Dv]
+     */
+    @Override
+    public NdArray forward(NdArray... inputs) {
+        Dims d = resolveDims(inputs);
+        float[] q = inputs[0].getArray();
+        float[] k = inputs[1].getArray();
+        float[] v = inputs[2].getArray();
+        float[] bias = d.hasBias ? inputs[3].getArray() : null;
+
+        float[] out = new float[d.batch * d.heads * d.tq * d.dv];
+        logSumExp = new float[d.batch * d.heads * d.tq];
+
+        forEachParallel(d.batch * d.heads, d, bh -> forwardHead(bh, d, q, k, v, bias, out));
+
+        return NdArray.of(out, Shape.of(d.batch, d.heads, d.tq, d.dv));
+    }
+
+    private void forwardHead(int bh, Dims d, float[] q, float[] k, float[] v, float[] bias, float[] out) {
+        int b = bh / d.heads;
+        int h = bh % d.heads;
+        int kvHead = b * d.kvHeads + h / d.groupSize;
+        int qBase = bh * d.tq * d.dk;
+        int kBase = kvHead * d.tk * d.dk;
+        int vBase = kvHead * d.tk * d.dv;
+        int biasBase = b * d.biasBatchStride + h * d.biasHeadStride;
+        float keepScale = 1.0f / (1.0f - dropout);
+
+        float[] scores = new float[blockSize];
+        float[] acc = new float[d.dv];
+
+        for (int i = 0; i < d.tq; i++) {
+            int qOff = qBase + i * d.dk;
+            int kvStart = keyStart(b, i, d);
+            int kvEnd = keyEnd(b, i, d);
+            float m = Float.NEGATIVE_INFINITY;
+            float l = 0.0f;
+            Arrays.fill(acc, 0.0f);
+
+            for (int j0 = kvStart; j0 < kvEnd; j0 += blockSize) {
+                int j1 = Math.min(j0 + blockSize, kvEnd);
+
+                // 1. 当前块的分数与块内最大值
+                float blockMax = Float.NEGATIVE_INFINITY;
+                for (int j = j0; j < j1; j++) {
+                    if (isPadded(b, j, d.tk)) {
+                        scores[j - j0] = Float.NEGATIVE_INFINITY;
+                        continue;
+                    }
+                    float s = dot(q, qOff, k, kBase + j * d.dk, d.dk) * scale;
+                    if (bias != null) {
+                        s += bias[biasBase + i * d.tk + j];
+                    }
+                    scores[j - j0] = s;
+                    if (s > blockMax) {
+                        blockMax = s;
+                    }
+                }
+                if (blockMax == Float.NEGATIVE_INFINITY) {
+                    continue;
+                }
+
+                // 2. 在线softmax：按新的最大值修正已累积的l与acc
+                float newM = Math.max(m, blockMax);
+                float correction = (float) Math.exp(m - newM);
+                l *= correction;
+                for (int c = 0; c < d.dv; c++) {
+                    acc[c] *= correction;
+                }
+
+                // 3. 累加当前块
+                for (int j = j0; j < j1; j++) {
+                    float s = scores[j - j0];
+                    if (s == Float.NEGATIVE_INFINITY) {
+                        continue;
+                    }
+                    float p = (float) Math.exp(s - newM);
+                    l += p;
+                    if (dropout > 0) {
+                        if (isDropped(bh, i, j, d)) {
+                            continue;
+                        }
+                        p *= keepScale;
+                    }
+                    int vOff = vBase + j * d.dv;
+                    for (int c = 0; c < d.dv; c++) {
+                        acc[c] += p * v[vOff + c];
+                    }
+                }
+                m = newM;
+            }
+
+            int outOff = (bh * d.tq + i) * d.dv;
+            if (l > 0) {
+                float invL = 1.0f / l;
+                for (int c = 0; c < d.dv; c++) {
+                    out[outOff + c] = acc[c] * invL;
+                }
+                logSumExp[bh * d.tq + i] = m + (float) Math.log(l);
+            } else {
+                // 所有键都被屏蔽：输出为0
+                logSumExp[bh * d.tq + i] = Float.NEGATIVE_INFINITY;
+            }
+        }
+    }
+
+    /**
+     * 反向传播：按键块重算注意力概率
+     * <p>
+     * 设 P = softmax(S)，O = P·V，则：
+     * <pre>
+     * dV = P^T·dO
+     * dP = dO·V^T
+     * dS = P ∘ (dP - rowsum(dO ∘ O))
+     * dQ = dS·K·scale,  dK = dS^T·Q·scale
+     * </pre>
+     *
+     * @param yGrad 输出梯度 [B, H, Tq, Dv]
+     * @return [dQ, dK, dV, (bias梯度为null)]
+     */
+    @Override
+    public List<NdArray> backward(NdArray yGrad) {
+        NdArray[] values = new NdArray[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            values[i] = inputs[i].getValue();
+        }
+        Dims d = resolveDims(values);
+        float[] q = values[0].getArray();
+        float[] k = values[1].getArray();
+        float[] v = values[2].getArray();
+        float[] bias = d.hasBias ? values[3].getArray() : null;
+        float[] o = getOutput().getValue().getArray();
+        float[] dO = yGrad.getArray();
+
+        float[] dQ = new float[q.length];
+        float[] dK = new float[k.length];
+        float[] dV = new float[v.length];
+
+        // 同一KV头被一组查询头共享：按KV头并行，组内查询头串行累加dK、dV，避免写冲突
+        forEachParallel(d.batch * d.kvHeads, d, kvHead -> {
+            int b = kvHead / d.kvHeads;
+            int firstHead = (kvHead % d.kvHeads) * d.groupSize;
+            for (int g = 0; g < d.groupSize; g++) {
+                backwardHead(b * d.heads + firstHead + g, d, q, k, v, bias, o, dO, dQ, dK, dV);
+            }
+        });
+
+        NdArray dQArr = NdArray.of(dQ, values[0].getShape());
+        NdArray dKArr = NdArray.of(dK, values[1].getShape());
+        NdArray dVArr = NdArray.of(dV, values[2].getShape());
+        if (d.hasBias) {
+            return Arrays.asList(dQArr, dKArr, dVArr, null);
+        }
+        return Arrays.asList(dQArr, dKArr, dVArr);
+    }
+
+    private void backwardHead(int bh, Dims d, float[] q, float[] k, float[] v, float[] bias,
+                              float[] o, float[] dO, float[] dQ, float[] dK, float[] dV) {
+        int b = bh / d.heads;
+        int h = bh % d.heads;
+        int kvHead = b * d.kvHeads + h / d.groupSize;
+        int qBase = bh * d.tq * d.dk;
+        int kBase = kvHead * d.tk * d.dk;
+        int vBase = kvHead * d.tk * d.dv;
+        int oBase = bh * d.tq * d.dv;
+        int biasBase = b * d.biasBatchStride + h * d.biasHeadStride;
+        float keepScale = 1.0f / (1.0f - dropout);
+
+        // rowsum(dO ∘ O)
+        float[] delta = new float[d.tq];
+        for (int i = 0; i < d.tq; i++) {
+            delta[i] = dot(dO, oBase + i * d.dv, o, oBase + i * d.dv, d.dv);
+        }
+
+        // 外层按键块，内层遍历查询：同一键块的K、V、dK、dV在块内复用
+        for (int j0 = 0; j0 < d.tk; j0 += blockSize) {
+            for (int i = 0; i < d.tq; i++) {
+                float lse = logSumExp[bh * d.tq + i];
+                if (lse == Float.NEGATIVE_INFINITY) {
+                    continue;
+                }
+                int kvEnd = keyEnd(b, i, d);
+                int j1 = Math.min(j0 + blockSize, kvEnd);
+                int jStart = Math.max(j0, keyStart(b, i, d));
+                int qOff = qBase + i * d.dk;
+                int dOOff = oBase + i * d.dv;
+
+                for (int j = jStart; j < j1; j++) {
+                    if (isPadded(b, j, d.tk)) {
+                        continue;
+                    }
+                    int kOff = kBase + j * d.dk;
+                    int vOff = vBase + j * d.dv;
+                    float s = dot(q, qOff, k, kOff, d.dk) * scale;
+                    if (bias != null) {
+                        s += bias[biasBase + i * d.tk + j];
+                    }
+                    float p = (float) Math.exp(s - lse);
+
+                    float dp = 0.0f;
+                    float z = dropout > 0 ? (isDropped(bh, i, j, d) ? 0.0f : keepScale) : 1.0f;
+                    if (z != 0.0f) {
+                        float pz = p * z;
+                        for (int c = 0; c < d.dv; c++) {
+                            dV[vOff + c] += pz * dO[dOOff + c];
+                        }
+                        dp = z * dot(dO, dOOff, v, vOff, d.dv);
+                    }
+
+                    float ds = p * (dp - delta[i]) * scale;
+                    for (int c = 0; c < d.dk; c++) {
+                        dQ[qOff + c] += ds * k[kOff + c];
+                        dK[kOff + c] += ds * q[qOff + c];
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int requireInputNum() {
+        return -1;  // Q、K、V 以及可选的 bias
+    }
+
+    // =============================================================================
+    // 辅助方法
+    // =============================================================================
+
+    private void forEachParallel(int count, Dims d, IntConsumer task) {
+        long work = (long) d.tq * d.tk * Math.max(d.dk, d.dv);
+        if (count > 1 && work >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, count).parallel().forEach(task);
+        } else {
+            for (int i = 0; i < count; i++) {
+                task.accept(i);
+            }
+        }
+    }
+
+    /**
+     * 第b行第i个查询可见键区间的起点（含）
+     */
+    private int keyStart(int b, int i, Dims d) {
+        return segmentStart != null ? segmentStart[b * d.tk + causalOffset + i] : 0;
+    }
+
+    /**
+     * 第b行第i个查询可见键区间的终点（不含）
+     */
+    private int keyEnd(int b, int i, Dims d) {
+        int end = causal ? Math.min(d.tk, causalOffset + i + 1) : d.tk;
+        if (segmentEnd != null) {
+            end = Math.min(end, segmentEnd[b * d.tk + causalOffset + i]);
+        }
+        return end;
+    }
+
+    /**
+     * 由segmentIds计算每个位置所在文档的区间
+     */
+    private void resolveSegments(Dims d) {
+        if (segmentIds.length != d.batch * d.tk) {
+            throw new IllegalArgumentException(String.format(
+                    "segmentIds length %d does not match [B=%d, Tk=%d]", segmentIds.length, d.batch, d.tk));
+        }
+        if (causalOffset + d.tq > d.tk) {
+            throw new IllegalArgumentException(String.format(
+                    "segmentIds require causalOffset + Tq <= Tk, got %d + %d > %d", causalOffset, d.tq, d.tk));
+        }
+        segmentStart = new int[segmentIds.length];
+        segmentEnd = new int[segmentIds.length];
+        for (int b = 0; b < d.batch; b++) {
+            int row = b * d.tk;
+            int start = 0;
+            for (int j = 1; j <= d.tk; j++) {
+                if (j == d.tk || segmentIds[row + j] != segmentIds[row + start]) {
+                    Arrays.fill(segmentStart, row + start, row + j, start);
+                    Arrays.fill(segmentEnd, row + start, row + j, j);
+                    start = j;
+                }
+            }
+        }
+    }
+
+    private boolean isPadded(int b, int j, int tk) {
+        return keyPaddingMask != null && keyPaddingMask[b * tk + j] > 0.5f;
+    }
+
+    /**
+     * 基于(seed, 位置)的确定性dropout判定（SplitMix64哈希）
+     */
+    private boolean isDropped(int bh, int i, int j, Dims d) {
+        long z = dropoutSeed + (((long) bh * d.tq + i) * d.tk + j + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        float u = (z >>> 40) * 0x1.0p-24f;
+        return u < dropout;
+    }
+
+    private static float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+        float sum = 0.0f;
+        for (int c = 0; c < len; c++) {
+            sum += a[aOff + c] * b[bOff + c];
+        }
+        return sum;
+    }
+
+    private Dims resolveDims(NdArray[] inputs) {
+        if (inputs.length != 3 && inputs.length != 4) {
+            throw new IllegalArgumentException("FlashAttention requires Q, K, V and an optional bias, got "
+                    + inputs.length + " inputs");
+        }
+        int[] qDims = inputs[0].getShape().getShapeDims();
+        int[] kDims = inputs[1].getShape().getShapeDims();
+        int[] vDims = inputs[2].getShape().getShapeDims();
+        if (qDims.length != 4 || kDims.length != 4 || vDims.length != 4) {
+            throw new IllegalArgumentException("Q, K, V must be 4D [B, H, T, D], got Q="
+                    + Arrays.toString(qDims) + ", K=" + Arrays.toString(kDims) + ", V=" + Arrays.toString(vDims));
+        }
+        if (qDims[0] != kDims[0] || kDims[0] != vDims[0]
+                || kDims[1] != vDims[1] || qDims[1] % kDims[1] != 0) {
+            throw new IllegalArgumentException("Q, K, V batch/head dims mismatch (Q heads must be a multiple of KV heads): Q="
+                    + Arrays.toString(qDims) + ", K=" + Arrays.toString(kDims) + ", V=" + Arrays.toString(vDims));
+        }
+        if (qDims[3] != kDims[3] || kDims[2] != vDims[2]) {
+            throw new IllegalArgumentException("Q/K head dim or K/V sequence length mismatch: Q="
+                    + Arrays.toString(qDims) + ", K=" + Arrays.toString(kDims) + ", V=" + Arrays.toString(vDims));
+        }
+
+        Dims d = new Dims();
+        d.batch = qDims[0];
+        d.heads = qDims[1];
+        d.kvHeads = kDims[1];
+        d.groupSize = d.heads / d.kvHeads;
+        d.tq = qDims[2];
+        d.dk = qDims[3];
+        d.tk = kDims[2];
+        d.dv = vDims[3];
+
+        if (keyPaddingMask != null && keyPaddingMask.length != d.batch * d.tk) {
+            throw new IllegalArgumentException(String.format(
+                    "keyPaddingMask length %d does not match [B=%d, Tk=%d]", keyPaddingMask.length, d.batch, d.tk));
+        }
+        if (segmentIds != null && segmentStart == null) {
+            resolveSegments(d);
+        }
+
+        d.hasBias = inputs.length == 4;
+        if (d.hasBias) {
+            int[] bDims = inputs[3].getShape().getShapeDims();
+            boolean ok;
+            if (bDims.length == 2) {
+                ok = bDims[0] == d.tq && bDims[1] == d.tk;
+            } else if (bDims.length == 4) {
+                ok = (bDims[0] == 1 || bDims[0] == d.batch) && (bDims[1] == 1 || bDims[1] == d.heads)
+                        && bDims[2] == d.tq && bDims[3] == d.tk;
+                if (ok) {
+                    d.biasHeadStride = bDims[1] == 1 ? 0 : d.tq * d.tk;
+                    d.biasBatchStride = bDims[0] == 1 ? 0 : bDims[1] * d.tq * d.tk;
+                }
+            } else {
+                ok = false;
+            }
+            if (!ok) {
+                throw new IllegalArgumentException(String.format(
+                        "bias shape %s cannot broadcast to [%d, %d, %d, %d]",
+                        Arrays.toString(bDims), d.batch, d.heads, d.tq, d.tk));
+            }
+        }
+        return d;
+    }
+
+    /**
+     * 一次调用的维度信息
+     */
+    private static final class Dims {
+        int batch;
+        int heads;
+        int kvHeads;
+        int groupSize;
+        int tq;
+        int tk;
+        int dk;
+        int dv;
+        boolean hasBias;
+        int biasBatchStride;
+        int biasHeadStride;
+    }
+}
@@ -22,6 +22,9 @@ import java.util.List;
  * 
  * 其中 θ = position * freq[i]
  * 
+ * position 默认为 startPos + s；序列打包时可传入逐token的位置ID [B, L]，
+ * 每个文档的位置从0重新开始
+ * 
  * @author TinyAI Team
  * @version 1.0
  */
@@ -38,6 +41,7 @@ public class RotaryEmbedding extends Function {
     // 缓存用于反向传播的信息
     private Shape inputShape;
     private int startPos;
+    private float[] positionIds;  // 逐token位置ID [B, L]，为null时使用 startPos + s
 
     /**
      * 构造函数
@@ -66,6 +70,22 @@ public class RotaryEmbedding extends Function {
         this(dim, maxSeqLen, 10000.0f);
     }
 
+    /**
+     * 复制构造函数：共享预计算的 cos/sin 缓存
+     * <p>
+     * Function 实例在计算图中保存本次调用的输入，同一实例不能被多次 call（如分别作用于 Q 和 K），
+     * 否则先前输出的反向传播会路由到后一次调用的输入。该构造函数以极低开销为每次调用创建新实例。
+     *
+     * @param other 已预计算缓存的实例
+     */
+    public RotaryEmbedding(RotaryEmbedding other) {
+        this.dim = other.dim;
+        this.maxSeqLen = other.maxSeqLen;
+        this.theta = other.theta;
+        this.cosCache = other.cosCache;
+        this.sinCache = other.sinCache;
+    }
+
     /**
      * 预计算频率的 cos 和 sin 值
      */
@@ -99,13 +119,15 @@ public class RotaryEmbedding extends Function {
      * 前向传播
      * 
      * @param inputs inputs[0]: 输入张量 [batch_size, seq_len, dim] 或 [batch_size, num_heads, seq_len, head_dim]
-     *               inputs[1]: 起始位置 scalar (可选，默认0)
+     *               inputs[1]: 起始位置 scalar (可选，默认0)，或逐token位置ID [B, L]
      * @return 应用 RoPE 后的张量
      */
     @Override
     public NdArray forward(NdArray... inputs) {
         NdArray x = inputs[0];
-        this.startPos = inputs.length > 1 ? (int) inputs[1].getNumber().floatValue() : 0;
+        boolean hasPositionIds = inputs.length > 1 && inputs[1].getShape().size() > 1;
+        this.positionIds = hasPositionIds ? inputs[1].getArray() : null;
+        this.startPos = inputs.length > 1 && !hasPositionIds ? (int) inputs[1].getNumber().floatValue() : 0;
         this.inputShape = x.getShape();
         
         int[] shape = inputShape.getShapeDims();
@@ -139,7 +161,21 @@ public class RotaryEmbedding extends Function {
             );
         }
         
-        if (startPos + seqLen > maxSeqLen) {
+        if (positionIds != null) {
+            if (positionIds.length != batchSize * seqLen) {
+                throw new IllegalArgumentException(
+                    "positionIds length " + positionIds.length + " does not match [B=" + batchSize
+                        + ", L=" + seqLen + "]"
+                );
+            }
+            for (float p : positionIds) {
+                if (p < 0 || p >= maxSeqLen) {
+                    throw new IllegalArgumentException(
+                        "Position id out of range: " + (int) p + ", maxSeqLen=" + maxSeqLen
+                    );
+                }
+            }
+        } else if (startPos + seqLen > maxSeqLen) {
             throw new IllegalArgumentException(
                 "Sequence too long: startPos=" + startPos + ", seqLen=" + seqLen + 
                 ", maxSeqLen=" + maxSeqLen
@@ -164,7 +200,7 @@ public class RotaryEmbedding extends Function {
         if (is3D) {
             for (int b = 0; b < batchSize; b++) {
                 for (int s = 0; s < seqLen; s++) {
-                    int pos = startPos + s;
+                    int pos = position(b, s, seqLen);
                     applyRotationToVector(xData, output, b * seqLen * dim + s * dim,
                                         cosData, sinData, pos * halfDim, halfDim);
                 }
@@ -174,7 +210,7 @@ public class RotaryEmbedding extends Function {
             for (int b = 0; b < batchSize; b++) {
                 for (int h = 0; h < numHeads; h++) {
                     for (int s = 0; s < seqLen; s++) {
-                        int pos = startPos + s;
+                        int pos = position(b, s, seqLen);
                         int offset = ((b * numHeads + h) * seqLen + s) * dim;
                         applyRotationToVector(xData, output, offset,
                                             cosData, sinData, pos * halfDim, halfDim);
@@ -185,6 +221,13 @@ public class RotaryEmbedding extends Function {
         }
     }
 
+    /**
+     * 第b个样本第s个token的位置
+     */
+    private int position(int b, int s, int seqLen) {
+        return positionIds != null ? (int) positionIds[b * seqLen + s] : startPos + s;
+    }
+
     /**
      * 对单个向量应用旋转
      */
@@ -248,7 +291,7 @@ public class RotaryEmbedding extends Function {
         if (is3D) {
             for (int b = 0; b < batchSize; b++) {
                 for (int s = 0; s < seqLen; s++) {
-                    int pos = startPos + s;
+                    int pos = position(b, s, seqLen);
                     applyInverseRotationToVector(gradData, xGrad, b * seqLen * dim + s * dim,
                                                 cosData, sinData, pos * halfDim, halfDim);
                 }
@@ -258,7 +301,7 @@ public class RotaryEmbedding extends Function {
             for (int b = 0; b < batchSize; b++) {
                 for (int h = 0; h < numHeads; h++) {
                     for (int s = 0; s < seqLen; s++) {
-                        int pos = startPos + s;
+                        int pos = position(b, s, seqLen);
                         int offset = ((b * numHeads + h) * seqLen + s) * dim;
                         applyInverseRotationToVector(gradData, xGrad, offset,
                                                     cosData, sinData, pos * halfDim, halfDim);
@@ -11,7 +11,8 @@ import java.util.List;
  * 分散累加算子
  * <p>
  * 将源张量的值根据索引分散到目标张量的指定位置，并累加
- * 用于Embedding层的梯度回传
+ * 输入: input [..., N, ...]、索引 [M]、src [..., M, ...] -> 输出: [..., N, ...]
+ * 用于Embedding层的梯度回传以及MoE专家输出的回写
  */
 public class ScatterAdd extends Function {
 
@@ -19,6 +20,7 @@ public class ScatterAdd extends Function {
     private int[] indices;
     private Shape inputShape;
     private Shape indexShape;
+    private Shape srcShape;
 
     public ScatterAdd(int dim) {
         this.dim = dim;
@@ -32,6 +34,7 @@ public class ScatterAdd extends Function {
 
         inputShape = input.getShape();
         indexShape = index.getShape();
+        srcShape = src.getShape();
         int[] inputDims = inputShape.getShapeDims();
 
         // 处理负数维度
@@ -82,8 +85,7 @@ public class ScatterAdd extends Function {
         // dInput
         NdArray gradInput = yGrad;
 
-        // dSrc: 需要从yGrad中选择对应的元素
-        // 简化实现：使用IndexSelect的逻辑
+        // dSrc: 按索引从yGrad中选择对应的切片
         NdArray gradSrc = selectFromGrad(yGrad);
 
         return java.util.Arrays.asList(
@@ -95,52 +97,68 @@ public class ScatterAdd extends Function {
 
     /**
      * 执行分散累加
+     * <p>
+     * src与input除dim维外形状一致，src在dim维上的第i个切片累加到input的indices[i]切片上
      */
     private void scatterAddElements(float[] result, float[] src, int dim,
                                      int[] inputDims, int[] inputStrides,
                                      int[] srcDims, int[] srcStrides) {
-        // 遍历src的所有元素
-        int[] srcIdx = new int[srcDims.length];
-        for (int i = 0; i < src.length; i++) {
-            // 计算src的索引
-            int pos = i;
-            for (int d = srcDims.length - 1; d >= 0; d--) {
-                srcIdx[d] = pos % srcDims[d];
-                pos /= srcDims[d];
-            }
+        if (srcDims.length != inputDims.length) {
+            throw new IllegalArgumentException("ScatterAdd: src rank must match input rank");
+        }
+        if (srcDims[dim] != indices.length) {
+            throw new IllegalArgumentException(
+                "ScatterAdd: src size " + srcDims[dim] + " at dim " + dim
+                    + " does not match index size " + indices.length);
+        }
 
-            // 计算对应的input索引
-            int[] inputIdx = new int[inputDims.length];
-            int flatSrcIdx = 0;
-            for (int d = 0; d < srcDims.length; d++) {
-                if (d < dim) {
-                    inputIdx[d] = srcIdx[d];
-                } else if (d > dim) {
-                    inputIdx[d] = srcIdx[d - 1]; // 跳过dim维度
+        // 以dim为界把张量看作 [outer, dimSize, inner]，逐块拷贝累加
+        int inner = inputStrides[dim];
+        int outer = 1;
+        for (int d = 0; d < dim; d++) {
+            outer *= inputDims[d];
+        }
+        int inputDimSize = inputDims[dim];
+        int srcDimSize = srcDims[dim];
+
+        for (int o = 0; o < outer; o++) {
+            for (int i = 0; i < srcDimSize; i++) {
+                int srcBase = (o * srcDimSize + i) * inner;
+                int dstBase = (o * inputDimSize + indices[i]) * inner;
+                for (int j = 0; j < inner; j++) {
+                    result[dstBase + j] += src[srcBase + j];
                 }
-                flatSrcIdx += srcIdx[d] * srcStrides[d];
             }
-            inputIdx[dim] = indices[srcIdx[0]]; // 假设索引在第一个维度
-
-            // 计算input位置
-            int inputPos = 0;
-            for (int d = 0; d < inputDims.length; d++) {
-                inputPos += inputIdx[d] * inputStrides[d];
-            }
-
-            // 累加
-            result[inputPos] += src[flatSrcIdx];
         }
     }
 
     /**
      * 从梯度中选择元素（用于dSrc）
+     * <p>
+     * dSrc[..., i, ...] = dY[..., indices[i], ...]
      */
     private NdArray selectFromGrad(NdArray yGrad) {
-        // 简化实现：返回与src相同形状的梯度
-        // 完整实现需要根据索引选择
-        Shape srcShape = inputs[2].getValue().getShape();
-        return yGrad.broadcastTo(srcShape);
+        int[] inputDims = inputShape.getShapeDims();
+        int actualDim = dim < 0 ? inputDims.length + dim : dim;
+        int[] inputStrides = computeStrides(inputDims);
+
+        int inner = inputStrides[actualDim];
+        int outer = 1;
+        for (int d = 0; d < actualDim; d++) {
+            outer *= inputDims[d];
+        }
+        int inputDimSize = inputDims[actualDim];
+        int srcDimSize = indices.length;
+
+        float[] yGradData = yGrad.getArray();
+        float[] gradSrc = new float[srcShape.size()];
+        for (int o = 0; o < outer; o++) {
+            for (int i = 0; i < srcDimSize; i++) {
+                System.arraycopy(yGradData, (o * inputDimSize + indices[i]) * inner,
+                    gradSrc, (o * srcDimSize + i) * inner, inner);
+            }
+        }
+        return NdArray.of(gradSrc, srcShape);
     }
 
     /**
@@ -0,0 +1,98 @@
+package io.leavesfly.tinyai.func;
+
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.util.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * NoGrad作用域的单元测试
+ *
+ * @author leavesfly
+ */
+public class NoGradTest {
+
+    private boolean originalTrainMode;
+
+    @Before
+    public void setUp() {
+        originalTrainMode = Config.train;
+        Config.train = true;
+    }
+
+    @After
+    public void tearDown() {
+        Config.train = originalTrainMode;
+    }
+
+    @Test
+    public void testNoGraphInsideScope() {
+        Variable x = new Variable(NdArray.of(new float[]{1, 2, 3}));
+        Variable y;
+        try (NoGrad ignored = NoGrad.enter()) {
+            assertTrue(NoGrad.isActive());
+            y = x.mul(x).sum();
+        }
+        assertFalse(NoGrad.isActive());
+        assertNull(y.getCreator());
+        assertEquals(14.0f, y.getValue().getNumber().floatValue(), 1e-6f);
+
+        // 作用域外恢复正常构建计算图
+        Variable z = x.mul(x).sum();
+        assertNotNull(z.getCreator());
+        z.backward();
+        assertArrayEquals(new float[]{2, 4, 6}, x.getGrad().getArray(), 1e-6f);
+    }
+
+    @Test
+    public void testNestedScopes() {
+        NoGrad outer = NoGrad.enter();
+        try (NoGrad inner = NoGrad.enter()) {
+            assertTrue(NoGrad.isActive());
+        }
+        assertTrue(NoGrad.isActive());
+        outer.close();
+        outer.close();
+        assertFalse(NoGrad.isActive());
+    }
+
+    @Test
+    public void testScopeIsPerThread() throws Exception {
+        AtomicReference<Variable> other = new AtomicReference<>();
+        try (NoGrad ignored = NoGrad.enter()) {
+            Thread thread = new Thread(() -> {
+                Variable x = new Variable(NdArray.of(new float[]{1, 2}));
+                other.set(x.mul(x).sum());
+            });
+            thread.start();
+            thread.join();
+        }
+        // 其他线程不受当前线程作用域影响，仍构建计算图
+        assertNotNull(other.get().getCreator());
+    }
+
+    @Test
+    public void testWrapCarriesScopeToWorker() throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Callable<Boolean> probe = NoGrad::isActive;
+            assertFalse(pool.submit(NoGrad.wrap(probe)).get());
+            try (NoGrad ignored = NoGrad.enter()) {
+                assertFalse(pool.submit(probe).get());
+                assertTrue(pool.submit(NoGrad.wrap(probe)).get());
+            }
+            // 工作线程执行完后退出作用域
+            assertFalse(pool.submit(probe).get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -388,7 +388,30 @@ public class AdvancedMatrixOperationsTest {
         assertNotNull(output);
         assertEquals(Shape.of(3, 2), output.getShape());
         
-        // ScatterAdd实现可能有差异，只验证形状
+        assertArrayEquals(new float[]{11f, 21f, 1f, 1f, 31f, 41f}, output.getArray(), 1e-6f);
+    }
+
+    @Test
+    public void testScatterAddDuplicateIndexAndBackward() {
+        Variable input = new Variable(NdArray.zeros(Shape.of(3, 2)));
+        Variable indices = new Variable(NdArray.of(new float[]{1f, 1f, 0f}));
+        indices.setRequireGrad(false);
+        Variable src = new Variable(NdArray.of(new float[][]{
+            {1f, 2f},
+            {3f, 4f},
+            {5f, 6f}
+        }));
+
+        Variable output = input.scatterAdd(0, indices, src);
+        assertArrayEquals(new float[]{5f, 6f, 4f, 6f, 0f, 0f}, output.getValue().getArray(), 1e-6f);
+
+        // 对输出乘以不同行权重后求和，src梯度应等于对应目标行的权重
+        Variable rowWeights = new Variable(NdArray.of(new float[][]{{1f}, {2f}, {3f}}));
+        rowWeights.setRequireGrad(false);
+        output.mul(rowWeights).sum().backward();
+
+        assertArrayEquals(new float[]{2f, 2f, 2f, 2f, 1f, 1f}, src.getGrad().getArray(), 1e-6f);
+        assertArrayEquals(new float[]{1f, 1f, 2f, 2f, 3f, 3f}, input.getGrad().getArray(), 1e-6f);
     }
 
     // IndexSelect backward测试因backward实现限制跳过
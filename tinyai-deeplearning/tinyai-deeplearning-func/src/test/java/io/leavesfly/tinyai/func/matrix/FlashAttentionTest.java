@@ -0,0 +1,316 @@
+package io.leavesfly.tinyai.func.matrix;
+
+import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+import io.leavesfly.tinyai.util.Config;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FlashAttention融合注意力的单元测试
+ * <p>
+ * 以朴素的 softmax(QK^T·scale + mask)·V 实现作为参考，
+ * 反向传播使用有限差分校验。
+ *
+ * @author leavesfly
+ */
+public class FlashAttentionTest {
+
+    private static final float DELTA = 1e-4f;
+    private boolean originalTrainMode;
+
+    @Before
+    public void setUp() {
+        originalTrainMode = Config.train;
+        Config.train = true;
+    }
+
+    @After
+    public void tearDown() {
+        Config.train = originalTrainMode;
+    }
+
+    private static NdArray random(Random rnd, int... dims) {
+        Shape shape = Shape.of(dims);
+        float[] data = new float[shape.size()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float) rnd.nextGaussian();
+        }
+        return NdArray.of(data, shape);
+    }
+
+    /**
+     * 朴素参考实现：物化完整的分数矩阵
+     */
+    private static float[] naiveAttention(NdArray q, NdArray k, NdArray v, float scale,
+                                          boolean causal, int offset, float[] padding, float[] bias) {
+        int[] qd = q.getShape().getShapeDims();
+        int[] kd = k.getShape().getShapeDims();
+        int[] vd = v.getShape().getShapeDims();
+        int batch = qd[0], heads = qd[1], tq = qd[2], dk = qd[3], tk = kd[2], dv = vd[3];
+        float[] qa = q.getArray(), ka = k.getArray(), va = v.getArray();
+        float[] out = new float[batch * heads * tq * dv];
+        for (int b = 0; b < batch; b++) {
+            for (int h = 0; h < heads; h++) {
+                int bh = b * heads + h;
+                for (int i = 0; i < tq; i++) {
+                    double[] s = new double[tk];
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (int j = 0; j < tk; j++) {
+                        boolean masked = (causal && j > offset + i) || (padding != null && padding[b * tk + j] > 0.5f);
+                        if (masked) {
+                            s[j] = Double.NEGATIVE_INFINITY;
+                            continue;
+                        }
+                        double dot = 0;
+                        for (int c = 0; c < dk; c++) {
+                            dot += qa[(bh * tq + i) * dk + c] * ka[(bh * tk + j) * dk + c];
+                        }
+                        s[j] = dot * scale + (bias != null ? bias[i * tk + j] : 0);
+                        max = Math.max(max, s[j]);
+                    }
+                    if (max == Double.NEGATIVE_INFINITY) {
+                        continue;
+                    }
+                    double sum = 0;
+                    for (int j = 0; j < tk; j++) {
+                        s[j] = Math.exp(s[j] - max);
+                        sum += s[j];
+                    }
+                    for (int j = 0; j < tk; j++) {
+                        for (int c = 0; c < dv; c++) {
+                            out[(bh * tq + i) * dv + c] += (float) (s[j] / sum * va[(bh * tk + j) * dv + c]);
+                        }
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void testForwardMatchesNaiveAcrossBlocks() {
+        Random rnd = new Random(1);
+        NdArray q = random(rnd, 2, 3, 5, 4);
+        NdArray k = random(rnd, 2, 3, 7, 4);
+        NdArray v = random(rnd, 2, 3, 7, 6);
+        float scale = 0.5f;
+
+        // 块大小3，使7个键跨越多个块，覆盖在线softmax的修正路径
+        FlashAttention attention = new FlashAttention(scale, false, 0, null, 0.0f, 0L, 3);
+        NdArray out = attention.forward(q, k, v);
+
+        assertEquals(Shape.of(2, 3, 5, 6), out.getShape());
+        assertArrayEquals(naiveAttention(q, k, v, scale, false, 0, null, null), out.getArray(), DELTA);
+    }
+
+    @Test
+    public void testCausalWithOffsetAndPadding() {
+        Random rnd = new Random(2);
+        NdArray q = random(rnd, 2, 2, 3, 4);
+        NdArray k = random(rnd, 2, 2, 6, 4);
+        NdArray v = random(rnd, 2, 2, 6, 4);
+        // 查询位于绝对位置3..5，第二个样本的最后一个键为padding
+        float[] padding = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1};
+
+        FlashAttention attention = new FlashAttention(0.5f, true, 3, padding, 0.0f, 0L, 2);
+        NdArray out = attention.forward(q, k, v);
+
+        assertArrayEquals(naiveAttention(q, k, v, 0.5f, true, 3, padding, null), out.getArray(), DELTA);
+    }
+
+    @Test
+    public void testAdditiveBiasMatchesNaive() {
+        Random rnd = new Random(3);
+        NdArray q = random(rnd, 1, 2, 4, 4);
+        NdArray k = random(rnd, 1, 2, 4, 4);
+        NdArray v = random(rnd, 1, 2, 4, 4);
+        float[] bias = new float[16];
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                bias[i * 4 + j] = j > i ? -1e9f : 0.1f * (i - j);
+            }
+        }
+
+        NdArray out = new FlashAttention(0.5f, false).forward(q, k, v, NdArray.of(bias, Shape.of(4, 4)));
+
+        assertArrayEquals(naiveAttention(q, k, v, 0.5f, false, 0, null, bias), out.getArray(), DELTA);
+    }
+
+    @Test
+    public void testFullyMaskedRowOutputsZero() {
+        Random rnd = new Random(4);
+        NdArray q = random(rnd, 1, 1, 2, 2);
+        NdArray k = random(rnd, 1, 1, 2, 2);
+        NdArray v = random(rnd, 1, 1, 2, 2);
+
+        NdArray out = new FlashAttention(1.0f, false, 0, new float[]{1, 1}).forward(q, k, v);
+
+        for (float value : out.getArray()) {
+            assertEquals(0.0f, value, 0.0f);
+        }
+    }
+
+    @Test
+    public void testBackwardMatchesFiniteDifference() {
+        checkGradients(0.0f, 4);
+    }
+
+    @Test
+    public void testBackwardWithDropoutMatchesFiniteDifference() {
+        // dropout掩码由种子确定性生成，前向重复执行结果一致，可直接做有限差分
+        checkGradients(0.3f, 4);
+    }
+
+    @Test
+    public void testGroupedQueryBackwardMatchesFiniteDifference() {
+        // GQA：4个查询头共享2个KV头；MQA：共享1个KV头
+        checkGradients(0.0f, 2);
+        checkGradients(0.2f, 1);
+    }
+
+    @Test
+    public void testGroupedQueryMatchesRepeatedKeyValue() {
+        Random rnd = new Random(7);
+        NdArray q = random(rnd, 2, 4, 3, 4);
+        NdArray k = random(rnd, 2, 2, 5, 4);
+        NdArray v = random(rnd, 2, 2, 5, 4);
+
+        // 参考：显式复制KV头到4个查询头
+        NdArray kRepeated = repeatHeads(k, 2);
+        NdArray vRepeated = repeatHeads(v, 2);
+        float[] expected = naiveAttention(q, kRepeated, vRepeated, 0.5f, true, 2, null, null);
+
+        NdArray out = new FlashAttention(0.5f, true, 2, null).forward(q, k, v);
+
+        assertEquals(Shape.of(2, 4, 3, 4), out.getShape());
+        assertArrayEquals(expected, out.getArray(), DELTA);
+    }
+
+    @Test
+    public void testSegmentIdsMatchBlockDiagonalBias() {
+        Random rnd = new Random(8);
+        int tq = 7;
+        NdArray q = random(rnd, 2, 2, tq, 4);
+        NdArray k = random(rnd, 2, 2, tq, 4);
+        NdArray v = random(rnd, 2, 2, tq, 4);
+        NdArray g = random(rnd, 2, 2, tq, 4);
+        // 每行打包了多个文档：第一行 [3, 4]，第二行 [2, 2, 3]
+        int[] segmentIds = {0, 0, 0, 1, 1, 1, 1, 5, 5, 6, 6, 7, 7, 7};
+
+        // 参考：显式的块对角加性bias [B, 1, T, T]
+        float[] bias = new float[2 * tq * tq];
+        for (int b = 0; b < 2; b++) {
+            for (int i = 0; i < tq; i++) {
+                for (int j = 0; j < tq; j++) {
+                    if (segmentIds[b * tq + i] != segmentIds[b * tq + j]) {
+                        bias[(b * tq + i) * tq + j] = -1e9f;
+                    }
+                }
+            }
+        }
+        Variable qRef = new Variable(q), kRef = new Variable(k), vRef = new Variable(v);
+        Variable expected = new FlashAttention(0.5f, true, 0, null, 0.0f, 0L, 2)
+                .call(qRef, kRef, vRef, new Variable(NdArray.of(bias, Shape.of(2, 1, tq, tq))));
+        expected.mul(new Variable(g)).sum().backward();
+
+        Variable qSeg = new Variable(q), kSeg = new Variable(k), vSeg = new Variable(v);
+        Variable actual = new FlashAttention(0.5f, true, 0, null, segmentIds, 0.0f, 0L, 2)
+                .call(qSeg, kSeg, vSeg);
+        actual.mul(new Variable(g)).sum().backward();
+
+        assertArrayEquals(expected.getValue().getArray(), actual.getValue().getArray(), DELTA);
+        assertArrayEquals(qRef.getGrad().getArray(), qSeg.getGrad().getArray(), DELTA);
+        assertArrayEquals(kRef.getGrad().getArray(), kSeg.getGrad().getArray(), DELTA);
+        assertArrayEquals(vRef.getGrad().getArray(), vSeg.getGrad().getArray(), DELTA);
+    }
+
+    @Test
+    public void testSegmentIdsEqualSeparateDocuments() {
+        Random rnd = new Random(9);
+        NdArray q = random(rnd, 1, 1, 5, 4);
+        NdArray k = random(rnd, 1, 1, 5, 4);
+        NdArray v = random(rnd, 1, 1, 5, 4);
+
+        NdArray packed = new FlashAttention(0.5f, true, 0, null, new int[]{0, 0, 1, 1, 1}, 0.0f, 0L, 4)
+                .forward(q, k, v);
+
+        // 第二个文档单独计算应与打包结果的后3行一致
+        NdArray q2 = NdArray.of(Arrays.copyOfRange(q.getArray(), 8, 20), Shape.of(1, 1, 3, 4));
+        NdArray k2 = NdArray.of(Arrays.copyOfRange(k.getArray(), 8, 20), Shape.of(1, 1, 3, 4));
+        NdArray v2 = NdArray.of(Arrays.copyOfRange(v.getArray(), 8, 20), Shape.of(1, 1, 3, 4));
+        float[] separate = naiveAttention(q2, k2, v2, 0.5f, true, 0, null, null);
+        assertArrayEquals(separate, Arrays.copyOfRange(packed.getArray(), 8, 20), DELTA);
+    }
+
+    private static NdArray repeatHeads(NdArray x, int groups) {
+        int[] dims = x.getShape().getShapeDims();
+        int headSize = dims[2] * dims[3];
+        float[] src = x.getArray();
+        float[] dst = new float[src.length * groups];
+        for (int b = 0; b < dims[0]; b++) {
+            for (int h = 0; h < dims[1] * groups; h++) {
+                System.arraycopy(src, (b * dims[1] + h / groups) * headSize,
+                        dst, (b * dims[1] * groups + h) * headSize, headSize);
+            }
+        }
+        return NdArray.of(dst, Shape.of(dims[0], dims[1] * groups, dims[2], dims[3]));
+    }
+
+    private void checkGradients(float dropout, int kvHeads) {
+        Random rnd = new Random(5);
+        int[] qDims = {1, 4, 4, 3};
+        int[] kvDims = {1, kvHeads, 5, 3};
+        NdArray q = random(rnd, qDims);
+        NdArray k = random(rnd, kvDims);
+        NdArray v = random(rnd, kvDims);
+        NdArray g = random(rnd, qDims);
+        float[] padding = {0, 0, 0, 0, 1};
+
+        Variable qv = new Variable(q);
+        Variable kv = new Variable(k);
+        Variable vv = new Variable(v);
+        Variable out = new FlashAttention(0.7f, true, 1, padding, dropout, 42L, 2).call(qv, kv, vv);
+        out.mul(new Variable(g)).sum().backward();
+
+        NdArray[] params = {q, k, v};
+        Variable[] vars = {qv, kv, vv};
+        for (int p = 0; p < params.length; p++) {
+            float[] data = params[p].getArray();
+            float[] grad = vars[p].getGrad().getArray();
+            for (int idx = 0; idx < data.length; idx++) {
+                float original = data[idx];
+                float eps = 1e-2f;
+                data[idx] = original + eps;
+                double plus = weightedSum(q, k, v, g, padding, dropout);
+                data[idx] = original - eps;
+                double minus = weightedSum(q, k, v, g, padding, dropout);
+                data[idx] = original;
+                assertEquals("input " + p + " index " + idx, (plus - minus) / (2 * eps), grad[idx], 2e-2);
+            }
+        }
+    }
+
+    private static double weightedSum(NdArray q, NdArray k, NdArray v, NdArray g, float[] padding, float dropout) {
+        float[] out = new FlashAttention(0.7f, true, 1, padding, dropout, 42L, 2).forward(q, k, v).getArray();
+        float[] ga = g.getArray();
+        double sum = 0;
+        for (int i = 0; i < out.length; i++) {
+            sum += out[i] * ga[i];
+        }
+        return sum;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsMismatchedHeadDim() {
+        Random rnd = new Random(6);
+        new FlashAttention(1.0f, false).forward(random(rnd, 1, 1, 2, 4), random(rnd, 1, 1, 2, 3), random(rnd, 1, 1, 2, 3));
+    }
+}
@@ -49,6 +49,26 @@ public abstract class ArrayDataset extends DataSet {
         return batches;
     }
 
+    /**
+     * 按给定的样本下标划分批次（批次大小可以不同）
+     *
+     * @param indexBatches 每个批次的样本下标
+     * @return 批次列表
+     */
+    public List<Batch> getBatches(List<int[]> indexBatches) {
+        List<Batch> batches = new ArrayList<>(indexBatches.size());
+        for (int[] indices : indexBatches) {
+            NdArray[] batchXs = new NdArray[indices.length];
+            NdArray[] batchYs = new NdArray[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                batchXs[i] = xs[indices[i]];
+                batchYs[i] = ys[indices[i]];
+            }
+            batches.add(new Batch(batchXs, batchYs));
+        }
+        return batches;
+    }
+
     @Override
     public Map<String, DataSet> splitDataset(float trainRatio, float testRatio, float validaRation) {
 
@@ -0,0 +1,258 @@
+package io.leavesfly.tinyai.ml.dataset;
+
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * 批量分词结果（紧凑int存储）
+ * <p>
+ * 所有文本的 token ID 依次存放在一个 int[] 中，第 i 条文本位于
+ * [offsets[i], offsets[i+1]) 区间，避免 List&lt;Integer&gt; 的装箱开销。
+ * 可直接填充/截断到预分配的 [batch, maxLen] 数组并构造 NdArray。
+ * <p>
+ * 通过 {@link #encode(List, Encoder)} 在 ForkJoinPool 上并行编码，结果顺序与输入一致。
+ *
+ * <p><b>使用示例</b>：
+ * <pre>{@code
+ * BatchEncoding batch = BatchEncoding.encode(texts, tokenizer::encodeIds);
+ * NdArray inputIds = batch.toNdArray(128, padId);
+ * NdArray mask = batch.toAttentionMask(128);
+ * }</pre>
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class BatchEncoding {
+
+    /**
+     * 单条文本编码函数
+     */
+    @FunctionalInterface
+    public interface Encoder {
+        /**
+         * @param text 文本
+         * @return token ID
+         */
+        int[] encode(String text);
+    }
+
+    private final int[] ids;
+    private final int[] offsets;
+
+    /**
+     * 构造函数
+     *
+     * @param ids     紧凑存储的 token ID
+     * @param offsets 每条文本的起始偏移，长度为 batch+1，最后一个元素为 ids 的有效长度
+     */
+    public BatchEncoding(int[] ids, int[] offsets) {
+        if (offsets == null || offsets.length == 0 || offsets[offsets.length - 1] > ids.length) {
+            throw new IllegalArgumentException("offsets与ids不匹配");
+        }
+        this.ids = ids;
+        this.offsets = offsets;
+    }
+
+    /**
+     * 由逐条编码结果构造
+     *
+     * @param sequences 每条文本的 token ID
+     * @return 批量编码结果
+     */
+    public static BatchEncoding of(int[][] sequences) {
+        int[] offsets = new int[sequences.length + 1];
+        for (int i = 0; i < sequences.length; i++) {
+            offsets[i + 1] = offsets[i] + sequences[i].length;
+        }
+        int[] ids = new int[offsets[sequences.length]];
+        for (int i = 0; i < sequences.length; i++) {
+            System.arraycopy(sequences[i], 0, ids, offsets[i], sequences[i].length);
+        }
+        return new BatchEncoding(ids, offsets);
+    }
+
+    /**
+     * 在公共 ForkJoinPool 上并行编码
+     *
+     * @param texts   文本列表
+     * @param encoder 编码函数（必须是线程安全的）
+     * @return 批量编码结果
+     */
+    public static BatchEncoding encode(List<String> texts, Encoder encoder) {
+        return encode(texts, encoder, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 在指定 ForkJoinPool 上并行编码
+     *
+     * @param texts   文本列表
+     * @param encoder 编码函数（必须是线程安全的）
+     * @param pool    线程池，为 null 时在当前线程顺序编码
+     * @return 批量编码结果
+     */
+    public static BatchEncoding encode(List<String> texts, Encoder encoder, ForkJoinPool pool) {
+        int[][] sequences = new int[texts.size()][];
+        if (pool == null || texts.size() < 2) {
+            for (int i = 0; i < sequences.length; i++) {
+                sequences[i] = encoder.encode(texts.get(i));
+            }
+        } else {
+            invoke(pool, () -> IntStream.range(0, sequences.length).parallel()
+                .forEach(i -> sequences[i] = encoder.encode(texts.get(i))));
+        }
+        return of(sequences);
+    }
+
+    /**
+     * 在指定 ForkJoinPool 上并行编码文本流（保持流的顺序）
+     *
+     * @param texts   文本流
+     * @param encoder 编码函数（必须是线程安全的）
+     * @param pool    线程池
+     * @return 批量编码结果
+     */
+    public static BatchEncoding encode(Stream<String> texts, Encoder encoder, ForkJoinPool pool) {
+        int[][][] holder = new int[1][][];
+        invoke(pool, () -> holder[0] = texts.parallel().map(encoder::encode).toArray(int[][]::new));
+        return of(holder[0]);
+    }
+
+    private static void invoke(ForkJoinPool pool, Runnable task) {
+        try {
+            // 在目标池中启动并行流，子任务会留在该池中执行
+            pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("批量编码被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("批量编码失败", cause);
+        }
+    }
+
+    /**
+     * 批量大小
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * 所有文本的 token 总数
+     */
+    public int getTotalTokens() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * 第 i 条文本的 token 数
+     */
+    public int length(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * 最长文本的 token 数
+     */
+    public int getMaxLength() {
+        int max = 0;
+        for (int i = 0; i < size(); i++) {
+            max = Math.max(max, length(i));
+        }
+        return max;
+    }
+
+    /**
+     * 获取第 i 条文本的 token ID（拷贝）
+     */
+    public int[] get(int i) {
+        return Arrays.copyOfRange(ids, offsets[i], offsets[i + 1]);
+    }
+
+    /**
+     * 紧凑存储的 token ID（不拷贝）
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    /**
+     * 每条文本的起始偏移（长度为 batch+1，不拷贝）
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * 填充/截断为 [batch, maxLen] 的行主序数组
+     *
+     * @param maxLen 每行长度，不大于0时取最长文本长度
+     * @param padId  填充 token ID
+     * @return 长度为 batch * maxLen 的数组
+     */
+    public int[] toPaddedArray(int maxLen, int padId) {
+        int len = resolveLength(maxLen);
+        int[] result = new int[size() * len];
+        if (padId != 0) {
+            Arrays.fill(result, padId);
+        }
+        for (int i = 0; i < size(); i++) {
+            System.arraycopy(ids, offsets[i], result, i * len, Math.min(length(i), len));
+        }
+        return result;
+    }
+
+    /**
+     * 填充/截断为 [batch, maxLen] 的 NdArray
+     *
+     * @param maxLen 每行长度，不大于0时取最长文本长度
+     * @param padId  填充 token ID
+     * @return 形状为 [batch, maxLen] 的 token ID 张量
+     */
+    public NdArray toNdArray(int maxLen, int padId) {
+        int len = resolveLength(maxLen);
+        float[] data = new float[size() * len];
+        if (padId != 0) {
+            Arrays.fill(data, padId);
+        }
+        for (int i = 0; i < size(); i++) {
+            int n = Math.min(length(i), len);
+            int src = offsets[i];
+            int dst = i * len;
+            for (int j = 0; j < n; j++) {
+                data[dst + j] = ids[src + j];
+            }
+        }
+        return NdArray.of(data, Shape.of(size(), len));
+    }
+
+    /**
+     * 与 {@link #toNdArray(int, int)} 对应的注意力掩码（有效位置为1，填充位置为0）
+     *
+     * @param maxLen 每行长度，不大于0时取最长文本长度
+     * @return 形状为 [batch, maxLen] 的掩码
+     */
+    public NdArray toAttentionMask(int maxLen) {
+        int len = resolveLength(maxLen);
+        float[] data = new float[size() * len];
+        for (int i = 0; i < size(); i++) {
+            Arrays.fill(data, i * len, i * len + Math.min(length(i), len), 1.0f);
+        }
+        return NdArray.of(data, Shape.of(size(), len));
+    }
+
+    private int resolveLength(int maxLen) {
+        int len = maxLen > 0 ? maxLen : getMaxLength();
+        return Math.max(len, 1);
+    }
+}
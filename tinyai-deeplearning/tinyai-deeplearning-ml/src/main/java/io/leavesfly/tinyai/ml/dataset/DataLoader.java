@@ -12,6 +12,7 @@ import java.util.concurrent.*;
  *   <li>数据打乱(shuffle)</li>
  *   <li>多线程异步预取(prefetch)</li>
  *   <li>自定义采样器</li>
+ *   <li>批采样器：如按长度分桶、按token预算组批的 {@link LengthBucketSampler}</li>
  * </ul>
  *
  * <p><b>使用示例</b>：
@@ -40,6 +41,8 @@ public class DataLoader implements Iterable<Batch>, AutoCloseable {
     private int numWorkers;
     private boolean dropLast;
     private Sampler sampler;
+    private BatchSampler batchSampler;
+    private int lastNumBatches = -1;
     
     // 多线程预取相关
     private ExecutorService executorService;
@@ -121,6 +124,23 @@ public class DataLoader implements Iterable<Batch>, AutoCloseable {
         return this;
     }
 
+    /**
+     * 设置批采样器
+     * <p>
+     * 设置后每个epoch由批采样器决定批次的划分（批次大小可变），
+     * 不再调用数据集的shuffle，batchSize与dropLast也不再生效。仅支持 {@link ArrayDataset}。
+     *
+     * @param batchSampler 批采样器
+     * @return 当前DataLoader实例（支持链式调用）
+     */
+    public DataLoader batchSampler(BatchSampler batchSampler) {
+        if (batchSampler != null && !(dataset instanceof ArrayDataset)) {
+            throw new IllegalArgumentException("BatchSampler requires an ArrayDataset");
+        }
+        this.batchSampler = batchSampler;
+        return this;
+    }
+
     /**
      * 获取迭代器
      *
@@ -137,21 +157,18 @@ public class DataLoader implements Iterable<Batch>, AutoCloseable {
     }
 
     /**
-     * 同步迭代器（单线程）
+     * 准备一个epoch的批次数据
      */
-    private class SyncIterator implements Iterator<Batch> {
-        private final List<Batch> batches;
-        private int currentIndex;
-
-        public SyncIterator() {
-            // 准备数据
+    private List<Batch> loadBatches() {
+        List<Batch> batches;
+        if (batchSampler != null) {
+            batches = ((ArrayDataset) dataset).getBatches(batchSampler.batches(dataset.getSize()));
+        } else {
             if (shuffle) {
                 dataset.shuffle();
             }
-            
-            // 获取批次数据
-            this.batches = dataset.getBatches();
-            
+            batches = dataset.getBatches();
+
             // 如果需要丢弃最后一个不完整批次
             if (dropLast && !batches.isEmpty()) {
                 Batch lastBatch = batches.get(batches.size() - 1);
@@ -159,7 +176,20 @@ public class DataLoader implements Iterable<Batch>, AutoCloseable {
                     batches.remove(batches.size() - 1);
                 }
             }
-            
+        }
+        lastNumBatches = batches.size();
+        return batches;
+    }
+
+    /**
+     * 同步迭代器（单线程）
+     */
+    private class SyncIterator implements Iterator<Batch> {
+        private final List<Batch> batches;
+        private int currentIndex;
+
+        public SyncIterator() {
+            this.batches = loadBatches();
             this.currentIndex = 0;
         }
 
@@ -187,21 +217,7 @@ public class DataLoader implements Iterable<Batch>, AutoCloseable {
         private final CountDownLatch producerLatch;
 
         public PrefetchIterator() {
-            // 准备数据
-            if (shuffle) {
-                dataset.shuffle();
-            }
-            
-            this.batches = dataset.getBatches();
-            
-            // 如果需要丢弃最后一个不完整批次
-            if (dropLast && !batches.isEmpty()) {
-                Batch lastBatch = batches.get(batches.size() - 1);
-                if (lastBatch.getSize() < batchSize) {
-                    batches.remove(batches.size() - 1);
-                }
-            }
-            
+            this.batches = loadBatches();
             this.currentIndex = 0;
             this.isShutdown = false;
             this.producerLatch = new CountDownLatch(1);
@@ -292,10 +308,15 @@ public class DataLoader implements Iterable<Batch>, AutoCloseable {
 
     /**
      * 获取批次数量
+     * <p>
+     * 使用批采样器时批次数随epoch变化，返回最近一次迭代的批次数（尚未迭代时为-1）。
      *
      * @return 批次数量
      */
     public int getNumBatches() {
+        if (batchSampler != null) {
+            return lastNumBatches;
+        }
         int datasetSize = dataset.getSize();
         if (dropLast) {
             return datasetSize / batchSize;
@@ -317,6 +338,19 @@ public class DataLoader implements Iterable<Batch>, AutoCloseable {
         List<Integer> sample(int datasetSize);
     }
 
+    /**
+     * 批采样器接口：直接生成一个epoch内每个批次的样本下标
+     */
+    public interface BatchSampler {
+        /**
+         * 生成批次
+         *
+         * @param datasetSize 数据集大小
+         * @return 每个批次的样本下标
+         */
+        List<int[]> batches(int datasetSize);
+    }
+
     /**
      * 随机采样器
      */
@@ -0,0 +1,169 @@
+package io.leavesfly.tinyai.ml.dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 按长度分桶、按token预算组批的批采样器
+ * <p>
+ * 固定样本数的批次在变长文本上会产生大量填充。该采样器每个epoch：
+ * <ol>
+ *   <li>打乱全部样本下标，按 bucketSize 切分为若干桶</li>
+ *   <li>桶内按长度排序，依次装入批次，直到 批内样本数 × 批内最大长度 超过 maxTokens</li>
+ *   <li>打乱所有批次的顺序</li>
+ * </ol>
+ * 同一批次内的样本长度接近，填充比例大幅下降；桶的划分与批次顺序每个epoch都重新随机，
+ * 保留了epoch级的随机性。长度超过 maxTokens 的单个样本单独成批。
+ *
+ * <p><b>使用示例</b>：
+ * <pre>{@code
+ * LengthBucketSampler sampler = new LengthBucketSampler(lengths, 4096);
+ * for (int[] batch : sampler.sampleBatches()) {
+ *     // batch 为样本下标
+ * }
+ * }</pre>
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class LengthBucketSampler implements DataLoader.BatchSampler {
+
+    /**
+     * 默认每个桶包含的样本数
+     */
+    public static final int DEFAULT_BUCKET_SIZE = 1024;
+
+    private final int[] lengths;
+    private final int maxTokens;
+    private final int maxBatchSize;
+    private final int bucketSize;
+    private final boolean shuffle;
+    private final Random random;
+
+    /**
+     * 构造函数（随机分桶，批次样本数不设上限）
+     *
+     * @param lengths   每个样本的长度（token数）
+     * @param maxTokens 每批的token预算（按填充后的 样本数 × 最大长度 计）
+     */
+    public LengthBucketSampler(int[] lengths, int maxTokens) {
+        this(lengths, maxTokens, 0, DEFAULT_BUCKET_SIZE, true, new Random().nextLong());
+    }
+
+    /**
+     * 完整构造函数
+     *
+     * @param lengths      每个样本的长度（token数）
+     * @param maxTokens    每批的token预算（按填充后的 样本数 × 最大长度 计）
+     * @param maxBatchSize 每批样本数上限，不大于0表示不限
+     * @param bucketSize   每个桶包含的样本数，越大填充越少、随机性越弱
+     * @param shuffle      是否每个epoch打乱（否则按原顺序分桶，批次顺序固定）
+     * @param seed         随机种子
+     */
+    public LengthBucketSampler(int[] lengths, int maxTokens, int maxBatchSize,
+                               int bucketSize, boolean shuffle, long seed) {
+        if (maxTokens <= 0 || bucketSize <= 0) {
+            throw new IllegalArgumentException("maxTokens与bucketSize必须为正数");
+        }
+        this.lengths = lengths.clone();
+        this.maxTokens = maxTokens;
+        this.maxBatchSize = maxBatchSize;
+        this.bucketSize = bucketSize;
+        this.shuffle = shuffle;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 生成一个epoch的批次（每次调用重新随机）
+     *
+     * @return 每个批次的样本下标
+     */
+    public List<int[]> sampleBatches() {
+        int n = lengths.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        if (shuffle) {
+            Collections.shuffle(Arrays.asList(order), random);
+        }
+
+        List<int[]> batches = new ArrayList<>();
+        int[] current = new int[Math.max(1, maxBatchSize > 0 ? maxBatchSize : 16)];
+        for (int start = 0; start < n; start += bucketSize) {
+            int end = Math.min(start + bucketSize, n);
+            // 桶内按长度升序（稳定排序）
+            Arrays.sort(order, start, end, (a, b) -> Integer.compare(lengths[a], lengths[b]));
+
+            int count = 0;
+            int batchMax = 0;
+            for (int k = start; k < end; k++) {
+                int index = order[k];
+                int newMax = Math.max(batchMax, lengths[index]);
+                boolean full = maxBatchSize > 0 && count >= maxBatchSize;
+                if (count > 0 && (full || (long) (count + 1) * newMax > maxTokens)) {
+                    batches.add(Arrays.copyOf(current, count));
+                    count = 0;
+                    newMax = lengths[index];
+                }
+                if (count == current.length) {
+                    current = Arrays.copyOf(current, count * 2);
+                }
+                current[count++] = index;
+                batchMax = newMax;
+            }
+            if (count > 0) {
+                batches.add(Arrays.copyOf(current, count));
+            }
+        }
+
+        if (shuffle) {
+            Collections.shuffle(batches, random);
+        }
+        return batches;
+    }
+
+    @Override
+    public List<int[]> batches(int datasetSize) {
+        if (datasetSize != lengths.length) {
+            throw new IllegalArgumentException("数据集大小 " + datasetSize + " 与长度数组 " + lengths.length + " 不一致");
+        }
+        return sampleBatches();
+    }
+
+    /**
+     * 批次的填充效率：有效token数 / 填充后的token数
+     *
+     * @param batches 每个批次的样本下标
+     * @param lengths 每个样本的长度
+     * @return 效率，批次为空时为0
+     */
+    public static float paddingEfficiency(List<int[]> batches, int[] lengths) {
+        long real = 0;
+        long padded = 0;
+        for (int[] batch : batches) {
+            int max = 0;
+            for (int index : batch) {
+                real += lengths[index];
+                max = Math.max(max, lengths[index]);
+            }
+            padded += (long) max * batch.length;
+        }
+        return padded == 0 ? 0.0f : (float) real / padded;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getBucketSize() {
+        return bucketSize;
+    }
+}
@@ -0,0 +1,186 @@
+package io.leavesfly.tinyai.ml.dataset;
+
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+
+import java.util.Arrays;
+
+/**
+ * 序列打包结果
+ * <p>
+ * 所有数组均为 [rows, rowLength] 的行主序存储：
+ * <ul>
+ *   <li>inputIds / labels：输入与目标 token，填充位置为 padId</li>
+ *   <li>lossMask：参与损失计算的位置为1，填充位置为0</li>
+ *   <li>positionIds：每个文档内从0开始的位置</li>
+ *   <li>segmentIds：行内文档序号，同一文档连续；行尾填充为单独一段</li>
+ * </ul>
+ * 由 {@link SequencePacker#pack} 生成，可按行切分为训练批次。
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class PackedBatch {
+
+    private final int rows;
+    private final int rowLength;
+    private final int[] inputIds;
+    private final int[] labels;
+    private final float[] lossMask;
+    private final int[] positionIds;
+    private final int[] segmentIds;
+    private final int[] rowDocuments;
+    private final int[] rowTokens;
+
+    /**
+     * 构造函数
+     *
+     * @param rows         行数
+     * @param rowLength    每行长度
+     * @param inputIds     输入 token
+     * @param labels       目标 token
+     * @param lossMask     损失掩码
+     * @param positionIds  文档内位置ID
+     * @param segmentIds   文档分段ID
+     * @param rowDocuments 每行的文档数
+     * @param rowTokens    每行的有效token数
+     */
+    public PackedBatch(int rows, int rowLength, int[] inputIds, int[] labels, float[] lossMask,
+                       int[] positionIds, int[] segmentIds, int[] rowDocuments, int[] rowTokens) {
+        int size = rows * rowLength;
+        if (inputIds.length != size || labels.length != size || lossMask.length != size
+                || positionIds.length != size || segmentIds.length != size) {
+            throw new IllegalArgumentException("打包数组长度应为 rows * rowLength = " + size);
+        }
+        if (rowDocuments.length != rows || rowTokens.length != rows) {
+            throw new IllegalArgumentException("rowDocuments与rowTokens长度应为 rows = " + rows);
+        }
+        this.rows = rows;
+        this.rowLength = rowLength;
+        this.inputIds = inputIds;
+        this.labels = labels;
+        this.lossMask = lossMask;
+        this.positionIds = positionIds;
+        this.segmentIds = segmentIds;
+        this.rowDocuments = rowDocuments;
+        this.rowTokens = rowTokens;
+    }
+
+    /**
+     * 截取 [fromRow, toRow) 行
+     *
+     * @param fromRow 起始行（含）
+     * @param toRow   结束行（不含）
+     * @return 子批次
+     */
+    public PackedBatch slice(int fromRow, int toRow) {
+        if (fromRow < 0 || toRow > rows || fromRow > toRow) {
+            throw new IllegalArgumentException("行区间越界: [" + fromRow + ", " + toRow + "), rows=" + rows);
+        }
+        int from = fromRow * rowLength;
+        int to = toRow * rowLength;
+        return new PackedBatch(toRow - fromRow, rowLength,
+                Arrays.copyOfRange(inputIds, from, to),
+                Arrays.copyOfRange(labels, from, to),
+                Arrays.copyOfRange(lossMask, from, to),
+                Arrays.copyOfRange(positionIds, from, to),
+                Arrays.copyOfRange(segmentIds, from, to),
+                Arrays.copyOfRange(rowDocuments, fromRow, toRow),
+                Arrays.copyOfRange(rowTokens, fromRow, toRow));
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getRowLength() {
+        return rowLength;
+    }
+
+    /**
+     * 打包的文档数
+     */
+    public int getNumDocuments() {
+        return Arrays.stream(rowDocuments).sum();
+    }
+
+    /**
+     * 有效（非填充）token数
+     */
+    public int getRealTokens() {
+        return Arrays.stream(rowTokens).sum();
+    }
+
+    /**
+     * 打包效率：有效token数 / (rows * rowLength)
+     */
+    public float getEfficiency() {
+        int capacity = rows * rowLength;
+        return capacity == 0 ? 0.0f : (float) getRealTokens() / capacity;
+    }
+
+    public int[] getInputIds() {
+        return inputIds;
+    }
+
+    public int[] getLabels() {
+        return labels;
+    }
+
+    public float[] getLossMask() {
+        return lossMask;
+    }
+
+    public int[] getPositionIds() {
+        return positionIds;
+    }
+
+    /**
+     * 文档分段ID [rows * rowLength]，可直接作为注意力的块对角掩码
+     */
+    public int[] getSegmentIds() {
+        return segmentIds;
+    }
+
+    /**
+     * 输入 token 张量 [rows, rowLength]
+     */
+    public NdArray toInputNdArray() {
+        return toNdArray(inputIds);
+    }
+
+    /**
+     * 目标 token 张量 [rows, rowLength]
+     */
+    public NdArray toLabelNdArray() {
+        return toNdArray(labels);
+    }
+
+    /**
+     * 损失掩码张量 [rows, rowLength]
+     */
+    public NdArray toLossMaskNdArray() {
+        return NdArray.of(lossMask.clone(), Shape.of(rows, rowLength));
+    }
+
+    /**
+     * 位置ID张量 [rows, rowLength]
+     */
+    public NdArray toPositionIdsNdArray() {
+        return toNdArray(positionIds);
+    }
+
+    private NdArray toNdArray(int[] values) {
+        float[] data = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = values[i];
+        }
+        return NdArray.of(data, Shape.of(rows, rowLength));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PackedBatch{rows=%d, rowLength=%d, documents=%d, efficiency=%.3f}",
+                rows, rowLength, getNumDocuments(), getEfficiency());
+    }
+}
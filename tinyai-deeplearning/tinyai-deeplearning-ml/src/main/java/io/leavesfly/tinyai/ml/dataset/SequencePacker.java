@@ -0,0 +1,175 @@
+package io.leavesfly.tinyai.ml.dataset;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 序列打包器
+ * <p>
+ * 将长短不一的文档拼接到固定长度 rowLength 的行中，代替逐条填充到最大长度：
+ * <ul>
+ *   <li>按长度降序的最佳适配（Best-Fit Decreasing）装箱，每个文档放入剩余空间最小且放得下的行</li>
+ *   <li>每行记录文档分段ID，注意力据此使用块对角因果掩码，文档之间互不可见</li>
+ *   <li>位置ID在每个文档开头重新从0计数</li>
+ *   <li>行尾填充部分单独成为一个分段，损失掩码为0</li>
+ * </ul>
+ * 打包效率 = 有效token数 / (行数 * rowLength)，见 {@link PackedBatch#getEfficiency()}。
+ * <p>
+ * 文档以已错位的 (input, label) 形式给出（label[t] 为 input[t] 的下一个 token），
+ * 因此不同文档拼接时不会产生跨文档的预测目标。
+ *
+ * <p><b>使用示例</b>：
+ * <pre>{@code
+ * SequencePacker packer = new SequencePacker(512, padId);
+ * PackedBatch packed = packer.pack(inputs, labels, lossMasks);
+ * System.out.println("packing efficiency: " + packed.getEfficiency());
+ * }</pre>
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class SequencePacker {
+
+    private final int rowLength;
+    private final int padId;
+
+    /**
+     * 构造函数
+     *
+     * @param rowLength 每行长度
+     * @param padId     填充 token ID
+     */
+    public SequencePacker(int rowLength, int padId) {
+        if (rowLength <= 0) {
+            throw new IllegalArgumentException("rowLength必须为正数: " + rowLength);
+        }
+        this.rowLength = rowLength;
+        this.padId = padId;
+    }
+
+    /**
+     * 打包一组文档
+     *
+     * @param inputs    每个文档的输入 token（长度超过 rowLength 的部分被截断）
+     * @param labels    每个文档的目标 token，与输入等长
+     * @param lossMasks 每个文档的损失掩码，与输入等长；为 null 时全部为1
+     * @return 打包结果，行按装箱顺序排列，行内文档按装入顺序排列
+     */
+    public PackedBatch pack(List<int[]> inputs, List<int[]> labels, List<float[]> lossMasks) {
+        int numDocs = inputs.size();
+        if (labels.size() != numDocs || (lossMasks != null && lossMasks.size() != numDocs)) {
+            throw new IllegalArgumentException("inputs、labels与lossMasks的数量必须一致");
+        }
+        int[] lengths = new int[numDocs];
+        for (int i = 0; i < numDocs; i++) {
+            if (labels.get(i).length != inputs.get(i).length
+                    || (lossMasks != null && lossMasks.get(i).length != inputs.get(i).length)) {
+                throw new IllegalArgumentException("第" + i + "个文档的input、label与lossMask长度不一致");
+            }
+            lengths[i] = Math.min(inputs.get(i).length, rowLength);
+        }
+
+        List<List<Integer>> rows = assignRows(lengths);
+
+        int numRows = rows.size();
+        int size = numRows * rowLength;
+        int[] inputIds = new int[size];
+        int[] labelIds = new int[size];
+        float[] lossMask = new float[size];
+        int[] positionIds = new int[size];
+        int[] segmentIds = new int[size];
+        Arrays.fill(inputIds, padId);
+        Arrays.fill(labelIds, padId);
+
+        int[] rowDocuments = new int[numRows];
+        int[] rowTokens = new int[numRows];
+        for (int r = 0; r < numRows; r++) {
+            int cursor = r * rowLength;
+            int segment = 0;
+            for (int doc : rows.get(r)) {
+                int len = lengths[doc];
+                if (len == 0) {
+                    continue;
+                }
+                System.arraycopy(inputs.get(doc), 0, inputIds, cursor, len);
+                System.arraycopy(labels.get(doc), 0, labelIds, cursor, len);
+                if (lossMasks != null) {
+                    System.arraycopy(lossMasks.get(doc), 0, lossMask, cursor, len);
+                } else {
+                    Arrays.fill(lossMask, cursor, cursor + len, 1.0f);
+                }
+                for (int t = 0; t < len; t++) {
+                    positionIds[cursor + t] = t;
+                }
+                Arrays.fill(segmentIds, cursor, cursor + len, segment++);
+                cursor += len;
+                rowTokens[r] += len;
+            }
+            rowDocuments[r] = segment;
+            // 行尾填充单独成段，位置ID同样从0开始
+            int rowEnd = (r + 1) * rowLength;
+            for (int t = 0; cursor + t < rowEnd; t++) {
+                positionIds[cursor + t] = t;
+                segmentIds[cursor + t] = segment;
+            }
+        }
+
+        return new PackedBatch(numRows, rowLength, inputIds, labelIds, lossMask,
+                positionIds, segmentIds, rowDocuments, rowTokens);
+    }
+
+    /**
+     * 最佳适配递减装箱
+     *
+     * @param lengths 文档长度
+     * @return 每行包含的文档下标
+     */
+    private List<List<Integer>> assignRows(int[] lengths) {
+        Integer[] order = new Integer[lengths.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // 稳定排序：等长文档保持原有顺序
+        Arrays.sort(order, (a, b) -> Integer.compare(lengths[b], lengths[a]));
+
+        List<List<Integer>> rows = new ArrayList<>();
+        // 剩余空间 -> 具有该剩余空间的行
+        TreeMap<Integer, Deque<Integer>> byRemaining = new TreeMap<>();
+        for (int doc : order) {
+            int len = lengths[doc];
+            Map.Entry<Integer, Deque<Integer>> entry = byRemaining.ceilingEntry(Math.max(len, 1));
+            int row;
+            int remaining;
+            if (entry == null) {
+                row = rows.size();
+                rows.add(new ArrayList<>());
+                remaining = rowLength;
+            } else {
+                row = entry.getValue().pollFirst();
+                remaining = entry.getKey();
+                if (entry.getValue().isEmpty()) {
+                    byRemaining.remove(remaining);
+                }
+            }
+            rows.get(row).add(doc);
+            remaining -= len;
+            if (remaining > 0) {
+                byRemaining.computeIfAbsent(remaining, k -> new ArrayDeque<>()).addLast(row);
+            }
+        }
+        return rows;
+    }
+
+    public int getRowLength() {
+        return rowLength;
+    }
+
+    public int getPadId() {
+        return padId;
+    }
+}
@@ -0,0 +1,92 @@
+package io.leavesfly.tinyai.ml.inference;
+
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+
+import java.util.function.Function;
+
+/**
+ * 自回归语言模型的统一抽象
+ * <p>
+ * 对一段 token 序列做一次前向传播，返回指定位置之后每个位置的下一个 token 的 logits。
+ * 投机解码（{@link SpeculativeDecoder}）通过该接口组合不同模块中的草稿模型与目标模型，
+ * 只要求二者共享同一个词表。
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+@FunctionalInterface
+public interface CausalLanguageModel {
+
+    /**
+     * 对完整序列做一次前向传播
+     *
+     * @param tokens  输入 token 序列
+     * @param fromPos 起始位置
+     * @return 位置 [fromPos, tokens.length) 的 logits，每行长度为词表大小
+     */
+    float[][] logits(int[] tokens, int fromPos);
+
+    /**
+     * 模型支持的最大序列长度
+     *
+     * @return 最大序列长度，默认不限制
+     */
+    default int getMaxSeqLen() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * 由 NdArray 前向函数创建语言模型
+     * <p>
+     * 前向函数的输入为 [1, seq_len] 的 token IDs，输出为 [1, seq_len, vocab_size]
+     * 或 [seq_len, vocab_size] 的 logits。
+     *
+     * @param forward   前向函数
+     * @param maxSeqLen 最大序列长度
+     * @return 语言模型
+     */
+    static CausalLanguageModel of(Function<NdArray, NdArray> forward, int maxSeqLen) {
+        return new CausalLanguageModel() {
+            @Override
+            public float[][] logits(int[] tokens, int fromPos) {
+                float[] ids = new float[tokens.length];
+                for (int i = 0; i < tokens.length; i++) {
+                    ids[i] = tokens[i];
+                }
+                NdArray output = forward.apply(NdArray.of(ids, Shape.of(1, tokens.length)));
+                return sliceLogits(output, fromPos);
+            }
+
+            @Override
+            public int getMaxSeqLen() {
+                return maxSeqLen;
+            }
+        };
+    }
+
+    /**
+     * 从 [1, seq_len, vocab_size] 或 [seq_len, vocab_size] 的 logits 中取出 fromPos 之后的行
+     *
+     * @param logits  logits 张量
+     * @param fromPos 起始位置
+     * @return 每个位置的 logits
+     */
+    static float[][] sliceLogits(NdArray logits, int fromPos) {
+        int[] dims = logits.getShape().getShapeDims();
+        if (dims.length != 2 && !(dims.length == 3 && dims[0] == 1)) {
+            throw new IllegalArgumentException("logits形状必须为[1, seq_len, vocab_size]或[seq_len, vocab_size]");
+        }
+        int seqLen = dims[dims.length - 2];
+        int vocabSize = dims[dims.length - 1];
+        if (fromPos < 0 || fromPos >= seqLen) {
+            throw new IllegalArgumentException("fromPos超出序列范围: " + fromPos);
+        }
+        float[] data = logits.getArray();
+        float[][] rows = new float[seqLen - fromPos][vocabSize];
+        for (int i = 0; i < rows.length; i++) {
+            System.arraycopy(data, (fromPos + i) * vocabSize, rows[i], 0, vocabSize);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,319 @@
+package io.leavesfly.tinyai.ml.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 投机解码生成器（Speculative Decoding）
+ * <p>
+ * 小的草稿模型自回归地提出 k 个候选 token，大的目标模型对 "前缀 + 候选" 做一次前向传播，
+ * 同时得到 k+1 个位置的分布，再按接受-拒绝采样逐个验证：
+ * <ul>
+ *   <li>候选 x 以概率 min(1, p(x) / q(x)) 被接受，p、q 分别为目标与草稿分布</li>
+ *   <li>首个被拒绝的位置从残差分布 norm(max(0, p - q)) 中重新采样，并结束本轮</li>
+ *   <li>k 个候选全部接受时，额外从目标模型第 k+1 个位置的分布中采样一个 token</li>
+ * </ul>
+ * 该过程得到的序列与直接从目标模型采样同分布；temperature = 0 时退化为贪婪验证，
+ * 输出与目标模型的贪婪解码完全一致。每轮至少产出一个 token，目标模型的前向次数
+ * 约为普通自回归解码的 1 / (1 + 平均接受数)。
+ *
+ * <p><b>使用示例</b>：
+ * <pre>{@code
+ * SpeculativeDecoder decoder = new SpeculativeDecoder(draft, target, 4, 0.8f);
+ * SpeculativeResult result = decoder.generate(promptIds, 64);
+ * System.out.println(result.getAcceptanceRate());
+ * }</pre>
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class SpeculativeDecoder {
+
+    private final CausalLanguageModel draftModel;
+    private final CausalLanguageModel targetModel;
+    private final int numDraftTokens;
+    private final float temperature;
+    private final int topK;
+    private final int eosTokenId;
+    private final Random random;
+
+    /**
+     * 构造函数
+     *
+     * @param draftModel     草稿模型
+     * @param targetModel    目标模型
+     * @param numDraftTokens 每轮草稿 token 数 k
+     * @param temperature    温度参数（0 表示贪婪）
+     * @param topK           Top-K 过滤（0 表示不使用），草稿与目标分布使用同一过滤
+     * @param eosTokenId     结束符 ID（负数表示不检测）
+     * @param random         随机数生成器
+     */
+    public SpeculativeDecoder(CausalLanguageModel draftModel, CausalLanguageModel targetModel,
+                              int numDraftTokens, float temperature, int topK, int eosTokenId, Random random) {
+        if (draftModel == null || targetModel == null) {
+            throw new IllegalArgumentException("草稿模型和目标模型不能为空");
+        }
+        if (numDraftTokens <= 0) {
+            throw new IllegalArgumentException("numDraftTokens必须为正数");
+        }
+        if (temperature < 0) {
+            throw new IllegalArgumentException("temperature不能为负数");
+        }
+        this.draftModel = draftModel;
+        this.targetModel = targetModel;
+        this.numDraftTokens = numDraftTokens;
+        this.temperature = temperature;
+        this.topK = topK;
+        this.eosTokenId = eosTokenId;
+        this.random = random;
+    }
+
+    /**
+     * 构造函数（不使用Top-K，不检测结束符）
+     *
+     * @param draftModel     草稿模型
+     * @param targetModel    目标模型
+     * @param numDraftTokens 每轮草稿 token 数 k
+     * @param temperature    温度参数（0 表示贪婪）
+     */
+    public SpeculativeDecoder(CausalLanguageModel draftModel, CausalLanguageModel targetModel,
+                              int numDraftTokens, float temperature) {
+        this(draftModel, targetModel, numDraftTokens, temperature, 0, -1, new Random());
+    }
+
+    /**
+     * 投机解码生成
+     *
+     * @param promptIds    提示词 token 序列
+     * @param maxNewTokens 最大生成 token 数
+     * @return 生成结果与统计信息
+     */
+    public SpeculativeResult generate(int[] promptIds, int maxNewTokens) {
+        checkPrompt(promptIds);
+        int maxLen = Math.min(draftModel.getMaxSeqLen(), targetModel.getMaxSeqLen());
+        List<Integer> tokens = toList(promptIds);
+        long start = System.nanoTime();
+        int generated = 0;
+        long proposed = 0;
+        long accepted = 0;
+        long targetCalls = 0;
+        long draftCalls = 0;
+
+        while (generated < maxNewTokens && tokens.size() < maxLen) {
+            // 每轮最多产出 k+1 个 token，k 受剩余生成数与最大长度约束
+            int prefixLen = tokens.size();
+            int k = Math.min(numDraftTokens, Math.min(maxNewTokens - generated, maxLen - prefixLen) - 1);
+
+            // 1. 草稿模型自回归提出 k 个候选
+            int[] sequence = new int[prefixLen + k];
+            fill(sequence, tokens);
+            float[][] draftProbs = new float[k][];
+            int drafted = 0;
+            while (drafted < k) {
+                float[] logits = draftModel.logits(Arrays.copyOf(sequence, prefixLen + drafted),
+                        prefixLen + drafted - 1)[0];
+                draftCalls++;
+                draftProbs[drafted] = toProbs(logits);
+                int candidate = temperature == 0 ? argmax(draftProbs[drafted]) : sample(draftProbs[drafted]);
+                sequence[prefixLen + drafted] = candidate;
+                drafted++;
+                if (candidate == eosTokenId) {
+                    break;
+                }
+            }
+
+            // 2. 目标模型一次前向验证全部候选，得到 drafted+1 个位置的分布
+            float[][] targetLogits = targetModel.logits(Arrays.copyOf(sequence, prefixLen + drafted), prefixLen - 1);
+            targetCalls++;
+            proposed += drafted;
+
+            // 3. 逐个接受-拒绝
+            int emitted = 0;
+            boolean rejected = false;
+            for (int i = 0; i < drafted; i++) {
+                float[] targetProbs = toProbs(targetLogits[i]);
+                int candidate = sequence[prefixLen + i];
+                if (accept(candidate, targetProbs, draftProbs[i])) {
+                    tokens.add(candidate);
+                    accepted++;
+                    emitted++;
+                    if (candidate == eosTokenId) {
+                        break;
+                    }
+                } else {
+                    tokens.add(temperature == 0 ? argmax(targetProbs) : sample(residual(targetProbs, draftProbs[i])));
+                    emitted++;
+                    rejected = true;
+                    break;
+                }
+            }
+
+            // 4. 全部接受时从目标模型的下一个位置额外采样一个 token
+            if (!rejected && !endsWithEos(tokens)) {
+                float[] targetProbs = toProbs(targetLogits[drafted]);
+                tokens.add(temperature == 0 ? argmax(targetProbs) : sample(targetProbs));
+                emitted++;
+            }
+
+            generated += emitted;
+            if (endsWithEos(tokens)) {
+                break;
+            }
+        }
+
+        return new SpeculativeResult(toArray(tokens), generated, proposed, accepted,
+                targetCalls, draftCalls, System.nanoTime() - start);
+    }
+
+    /**
+     * 仅使用目标模型的普通自回归生成（与投机解码采用相同的采样设置）
+     * <p>
+     * 用作基线，以 {@link SpeculativeResult#getSpeedupOver(SpeculativeResult)} 计算加速比。
+     *
+     * @param promptIds    提示词 token 序列
+     * @param maxNewTokens 最大生成 token 数
+     * @return 生成结果与统计信息
+     */
+    public SpeculativeResult generateAutoregressive(int[] promptIds, int maxNewTokens) {
+        checkPrompt(promptIds);
+        List<Integer> tokens = toList(promptIds);
+        long start = System.nanoTime();
+        int generated = 0;
+        while (generated < maxNewTokens && tokens.size() < targetModel.getMaxSeqLen()) {
+            float[] probs = toProbs(targetModel.logits(toArray(tokens), tokens.size() - 1)[0]);
+            tokens.add(temperature == 0 ? argmax(probs) : sample(probs));
+            generated++;
+            if (endsWithEos(tokens)) {
+                break;
+            }
+        }
+        return new SpeculativeResult(toArray(tokens), generated, 0, 0,
+                generated, 0, System.nanoTime() - start);
+    }
+
+    private boolean accept(int candidate, float[] targetProbs, float[] draftProbs) {
+        if (temperature == 0) {
+            return candidate == argmax(targetProbs);
+        }
+        float q = draftProbs[candidate];
+        float p = targetProbs[candidate];
+        return q <= 0 || random.nextFloat() < Math.min(1.0f, p / q);
+    }
+
+    /**
+     * 残差分布 norm(max(0, p - q))，p 与 q 完全重合时退回 p
+     */
+    private static float[] residual(float[] targetProbs, float[] draftProbs) {
+        float[] result = new float[targetProbs.length];
+        double sum = 0;
+        for (int i = 0; i < result.length; i++) {
+            result[i] = Math.max(0.0f, targetProbs[i] - draftProbs[i]);
+            sum += result[i];
+        }
+        if (sum <= 0) {
+            return targetProbs;
+        }
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (float) (result[i] / sum);
+        }
+        return result;
+    }
+
+    /**
+     * logits -> 概率分布（应用温度与Top-K）
+     */
+    private float[] toProbs(float[] logits) {
+        int vocabSize = logits.length;
+        float threshold = Float.NEGATIVE_INFINITY;
+        if (topK > 0 && topK < vocabSize) {
+            float[] sorted = logits.clone();
+            Arrays.sort(sorted);
+            threshold = sorted[vocabSize - topK];
+        }
+        float scale = temperature > 0 ? 1.0f / temperature : 1.0f;
+        double max = Double.NEGATIVE_INFINITY;
+        for (float logit : logits) {
+            max = Math.max(max, logit * scale);
+        }
+        float[] probs = new float[vocabSize];
+        double sum = 0;
+        for (int i = 0; i < vocabSize; i++) {
+            if (logits[i] >= threshold) {
+                probs[i] = (float) Math.exp(logits[i] * scale - max);
+                sum += probs[i];
+            }
+        }
+        for (int i = 0; i < vocabSize; i++) {
+            probs[i] = (float) (probs[i] / sum);
+        }
+        return probs;
+    }
+
+    private int sample(float[] probs) {
+        float rand = random.nextFloat();
+        float cumSum = 0.0f;
+        for (int i = 0; i < probs.length; i++) {
+            cumSum += probs[i];
+            if (rand < cumSum) {
+                return i;
+            }
+        }
+        // 浮点误差兜底：返回最后一个非零概率的 token
+        for (int i = probs.length - 1; i >= 0; i--) {
+            if (probs[i] > 0) {
+                return i;
+            }
+        }
+        return probs.length - 1;
+    }
+
+    private static int argmax(float[] values) {
+        int maxIdx = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[maxIdx]) {
+                maxIdx = i;
+            }
+        }
+        return maxIdx;
+    }
+
+    private boolean endsWithEos(List<Integer> tokens) {
+        return eosTokenId >= 0 && tokens.get(tokens.size() - 1) == eosTokenId;
+    }
+
+    private static void checkPrompt(int[] promptIds) {
+        if (promptIds == null || promptIds.length == 0) {
+            throw new IllegalArgumentException("提示词不能为空");
+        }
+    }
+
+    private static List<Integer> toList(int[] ids) {
+        List<Integer> list = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static void fill(int[] target, List<Integer> tokens) {
+        for (int i = 0; i < tokens.size(); i++) {
+            target[i] = tokens.get(i);
+        }
+    }
+
+    private static int[] toArray(List<Integer> tokens) {
+        int[] result = new int[tokens.size()];
+        fill(result, tokens);
+        return result;
+    }
+
+    public int getNumDraftTokens() {
+        return numDraftTokens;
+    }
+
+    public float getTemperature() {
+        return temperature;
+    }
+}
@@ -0,0 +1,108 @@
+package io.leavesfly.tinyai.ml.inference;
+
+/**
+ * 投机解码的生成结果与统计信息
+ * <p>
+ * 除生成的 token 序列外，记录草稿 token 的接受率、目标模型前向次数与吞吐量，
+ * 可与 {@link SpeculativeDecoder#generateAutoregressive(int[], int)} 的基线结果对比得到加速比。
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class SpeculativeResult {
+
+    private final int[] tokens;
+    private final int generatedTokens;
+    private final long proposedTokens;
+    private final long acceptedTokens;
+    private final long targetForwardCalls;
+    private final long draftForwardCalls;
+    private final long elapsedNanos;
+
+    public SpeculativeResult(int[] tokens, int generatedTokens, long proposedTokens, long acceptedTokens,
+                             long targetForwardCalls, long draftForwardCalls, long elapsedNanos) {
+        this.tokens = tokens;
+        this.generatedTokens = generatedTokens;
+        this.proposedTokens = proposedTokens;
+        this.acceptedTokens = acceptedTokens;
+        this.targetForwardCalls = targetForwardCalls;
+        this.draftForwardCalls = draftForwardCalls;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * 获取完整 token 序列（提示词 + 生成部分）
+     */
+    public int[] getTokens() {
+        return tokens;
+    }
+
+    public int getGeneratedTokens() {
+        return generatedTokens;
+    }
+
+    public long getProposedTokens() {
+        return proposedTokens;
+    }
+
+    public long getAcceptedTokens() {
+        return acceptedTokens;
+    }
+
+    public long getTargetForwardCalls() {
+        return targetForwardCalls;
+    }
+
+    public long getDraftForwardCalls() {
+        return draftForwardCalls;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * 草稿 token 接受率
+     *
+     * @return 接受数 / 提出数，未提出任何草稿时为0
+     */
+    public double getAcceptanceRate() {
+        return proposedTokens == 0 ? 0.0 : (double) acceptedTokens / proposedTokens;
+    }
+
+    /**
+     * 平均每次目标模型前向产出的 token 数（普通自回归解码为1）
+     */
+    public double getTokensPerTargetCall() {
+        return targetForwardCalls == 0 ? 0.0 : (double) generatedTokens / targetForwardCalls;
+    }
+
+    /**
+     * 生成吞吐量
+     *
+     * @return tokens/sec
+     */
+    public double getTokensPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : generatedTokens * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * 相对基线的吞吐量加速比
+     *
+     * @param baseline 基线结果（通常为目标模型的普通自回归生成）
+     * @return 本结果 tokens/sec 与基线 tokens/sec 之比
+     */
+    public double getSpeedupOver(SpeculativeResult baseline) {
+        double baselineTps = baseline.getTokensPerSecond();
+        return baselineTps == 0 ? 0.0 : getTokensPerSecond() / baselineTps;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "SpeculativeResult{generated=%d, acceptanceRate=%.3f, tokensPerTargetCall=%.2f, " +
+                        "targetCalls=%d, draftCalls=%d, tokensPerSecond=%.1f}",
+                generatedTokens, getAcceptanceRate(), getTokensPerTargetCall(),
+                targetForwardCalls, draftForwardCalls, getTokensPerSecond());
+    }
+}
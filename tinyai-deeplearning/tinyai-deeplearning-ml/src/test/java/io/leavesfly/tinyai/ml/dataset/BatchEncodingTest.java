@@ -0,0 +1,80 @@
+package io.leavesfly.tinyai.ml.dataset;
+
+import io.leavesfly.tinyai.ndarr.NdArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * BatchEncoding 的单元测试
+ *
+ * @author leavesfly
+ */
+public class BatchEncodingTest {
+
+    private static int[] codePoints(String text) {
+        return text.chars().toArray();
+    }
+
+    @Test
+    public void testPackedLayout() {
+        BatchEncoding batch = BatchEncoding.of(new int[][]{{1, 2, 3}, {}, {4, 5}});
+
+        assertEquals(3, batch.size());
+        assertEquals(5, batch.getTotalTokens());
+        assertArrayEquals(new int[]{0, 3, 3, 5}, batch.getOffsets());
+        assertArrayEquals(new int[]{1, 2, 3, 4, 5}, batch.getIds());
+        assertArrayEquals(new int[]{4, 5}, batch.get(2));
+        assertEquals(0, batch.length(1));
+        assertEquals(3, batch.getMaxLength());
+    }
+
+    @Test
+    public void testPaddingAndTruncation() {
+        BatchEncoding batch = BatchEncoding.of(new int[][]{{1, 2, 3}, {4}});
+
+        assertArrayEquals(new int[]{1, 2, 3, 4, 9, 9}, batch.toPaddedArray(0, 9));
+        assertArrayEquals(new int[]{1, 2, 4, 0}, batch.toPaddedArray(2, 0));
+
+        NdArray ids = batch.toNdArray(4, 0);
+        assertArrayEquals(new int[]{2, 4}, ids.getShape().getShapeDims());
+        assertArrayEquals(new float[]{1, 2, 3, 0, 4, 0, 0, 0}, ids.getArray(), 0f);
+        NdArray mask = batch.toAttentionMask(4);
+        assertArrayEquals(new float[]{1, 1, 1, 0, 1, 0, 0, 0}, mask.getArray(), 0f);
+    }
+
+    @Test
+    public void testParallelEncodingKeepsOrder() {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            texts.add("doc-" + i + "-" + "x".repeat(i % 7));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BatchEncoding parallel = BatchEncoding.encode(texts, BatchEncodingTest::codePoints, pool);
+            BatchEncoding sequential = BatchEncoding.encode(texts, BatchEncodingTest::codePoints, null);
+            BatchEncoding streamed = BatchEncoding.encode(texts.stream(), BatchEncodingTest::codePoints, pool);
+
+            assertArrayEquals(sequential.getIds(), parallel.getIds());
+            assertArrayEquals(sequential.getOffsets(), parallel.getOffsets());
+            assertArrayEquals(sequential.getIds(), streamed.getIds());
+            for (int i = 0; i < texts.size(); i++) {
+                assertArrayEquals(codePoints(texts.get(i)), parallel.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEncoderFailurePropagates() {
+        BatchEncoding.encode(Arrays.asList("a", "b", "c"), text -> {
+            throw new IllegalStateException("boom");
+        });
+    }
+}
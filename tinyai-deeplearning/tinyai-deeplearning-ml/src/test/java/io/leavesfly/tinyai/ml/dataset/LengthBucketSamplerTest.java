@@ -0,0 +1,146 @@
+package io.leavesfly.tinyai.ml.dataset;
+
+import io.leavesfly.tinyai.ndarr.NdArray;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * LengthBucketSampler 的单元测试
+ *
+ * @author leavesfly
+ */
+public class LengthBucketSamplerTest {
+
+    private static int[] randomLengths(int n, int maxLen, long seed) {
+        Random rnd = new Random(seed);
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            lengths[i] = 1 + rnd.nextInt(maxLen);
+        }
+        return lengths;
+    }
+
+    @Test
+    public void testEveryIndexOnceWithinBudget() {
+        int[] lengths = randomLengths(500, 128, 1);
+        LengthBucketSampler sampler = new LengthBucketSampler(lengths, 512, 0, 64, true, 7);
+
+        List<int[]> batches = sampler.sampleBatches();
+        int[] seen = new int[lengths.length];
+        for (int[] batch : batches) {
+            int max = 0;
+            for (int index : batch) {
+                seen[index]++;
+                max = Math.max(max, lengths[index]);
+            }
+            assertTrue((long) max * batch.length <= 512);
+        }
+        for (int count : seen) {
+            assertEquals(1, count);
+        }
+    }
+
+    @Test
+    public void testMaxBatchSizeAndOversizedSample() {
+        int[] lengths = {2, 2, 2, 2, 2, 100};
+        LengthBucketSampler sampler = new LengthBucketSampler(lengths, 50, 3, 1024, false, 0);
+
+        List<int[]> batches = sampler.sampleBatches();
+        // [0,1,2] [3,4] [5]：样本数上限为3，超出预算的样本单独成批
+        assertEquals(3, batches.size());
+        assertArrayEquals(new int[]{0, 1, 2}, batches.get(0));
+        assertArrayEquals(new int[]{3, 4}, batches.get(1));
+        assertArrayEquals(new int[]{5}, batches.get(2));
+    }
+
+    @Test
+    public void testPaddingEfficiencyBeatsFixedBatches() {
+        int[] lengths = randomLengths(1000, 256, 2);
+        LengthBucketSampler sampler = new LengthBucketSampler(lengths, 16 * 256, 0, 256, true, 3);
+
+        List<int[]> fixed = new ArrayList<>();
+        for (int i = 0; i < lengths.length; i += 16) {
+            int[] batch = new int[Math.min(16, lengths.length - i)];
+            for (int j = 0; j < batch.length; j++) {
+                batch[j] = i + j;
+            }
+            fixed.add(batch);
+        }
+
+        float bucketed = LengthBucketSampler.paddingEfficiency(sampler.sampleBatches(), lengths);
+        float baseline = LengthBucketSampler.paddingEfficiency(fixed, lengths);
+        assertTrue(bucketed > 0.8f);
+        assertTrue(bucketed > baseline + 0.2f);
+    }
+
+    @Test
+    public void testEpochsAreReshuffled() {
+        int[] lengths = randomLengths(200, 32, 4);
+        LengthBucketSampler sampler = new LengthBucketSampler(lengths, 128, 0, 50, true, 5);
+
+        List<int[]> first = sampler.sampleBatches();
+        List<int[]> second = sampler.sampleBatches();
+        boolean same = first.size() == second.size();
+        for (int i = 0; same && i < first.size(); i++) {
+            same = Arrays.equals(first.get(i), second.get(i));
+        }
+        assertFalse(same);
+    }
+
+    @Test
+    public void testDataLoaderWithBatchSampler() {
+        int n = 10;
+        NdArray[] dataX = new NdArray[n];
+        NdArray[] dataY = new NdArray[n];
+        int[] lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            dataX[i] = NdArray.of(new float[][]{{i}});
+            dataY[i] = NdArray.of(new float[][]{{i}});
+            lengths[i] = i < 5 ? 4 : 8;
+        }
+        ArrayDataset dataset = new ArrayDataset(2) {
+            {
+                this.xs = dataX;
+                this.ys = dataY;
+            }
+
+            @Override
+            protected DataSet build(int batchSize, NdArray[] xs, NdArray[] ys) {
+                return null;
+            }
+
+            @Override
+            public void doPrepare() {
+            }
+        };
+
+        DataLoader loader = new DataLoader(dataset)
+                .batchSampler(new LengthBucketSampler(lengths, 16, 0, 1024, false, 0));
+        int total = 0;
+        int batches = 0;
+        for (Batch batch : loader) {
+            total += batch.getSize();
+            batches++;
+            int max = 0;
+            for (NdArray x : batch.getX()) {
+                max = Math.max(max, lengths[x.getNumber().intValue()]);
+            }
+            assertTrue(max * batch.getSize() <= 16);
+        }
+        assertEquals(n, total);
+        // [0,1,2,3] [4,5] [6,7] [8,9]
+        assertEquals(4, batches);
+        assertEquals(4, loader.getNumBatches());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsMismatchedDatasetSize() {
+        new LengthBucketSampler(new int[]{1, 2, 3}, 8).batches(4);
+    }
+}
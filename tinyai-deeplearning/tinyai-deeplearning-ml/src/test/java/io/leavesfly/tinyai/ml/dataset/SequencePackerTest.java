@@ -0,0 +1,118 @@
+package io.leavesfly.tinyai.ml.dataset;
+
+import io.leavesfly.tinyai.ndarr.NdArray;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * SequencePacker 的单元测试
+ *
+ * @author leavesfly
+ */
+public class SequencePackerTest {
+
+    private static int[] range(int from, int len) {
+        int[] result = new int[len];
+        for (int i = 0; i < len; i++) {
+            result[i] = from + i;
+        }
+        return result;
+    }
+
+    @Test
+    public void testBestFitDecreasingLayout() {
+        // 长度 5, 3, 2, 4, 2 打包到长度8的行：[5,3] [4,2,2]
+        List<int[]> inputs = Arrays.asList(range(10, 5), range(20, 3), range(30, 2), range(40, 4), range(50, 2));
+        List<int[]> labels = Arrays.asList(range(11, 5), range(21, 3), range(31, 2), range(41, 4), range(51, 2));
+
+        PackedBatch packed = new SequencePacker(8, 0).pack(inputs, labels, null);
+
+        assertEquals(2, packed.getRows());
+        assertEquals(5, packed.getNumDocuments());
+        assertEquals(16, packed.getRealTokens());
+        assertEquals(1.0f, packed.getEfficiency(), 1e-6f);
+        assertArrayEquals(new int[]{10, 11, 12, 13, 14, 20, 21, 22, 40, 41, 42, 43, 30, 31, 50, 51},
+                packed.getInputIds());
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 0, 1, 2, 0, 1, 2, 3, 0, 1, 0, 1}, packed.getPositionIds());
+        assertArrayEquals(new int[]{0, 0, 0, 0, 0, 1, 1, 1, 0, 0, 0, 0, 1, 1, 2, 2}, packed.getSegmentIds());
+    }
+
+    @Test
+    public void testPaddingSegmentAndLossMask() {
+        List<int[]> inputs = Arrays.asList(range(1, 3), range(5, 2));
+        List<int[]> labels = Arrays.asList(range(2, 3), range(6, 2));
+        List<float[]> masks = Arrays.asList(new float[]{0, 1, 1}, new float[]{1, 1});
+
+        PackedBatch packed = new SequencePacker(7, -1).pack(inputs, labels, masks);
+
+        assertEquals(1, packed.getRows());
+        assertArrayEquals(new int[]{1, 2, 3, 5, 6, -1, -1}, packed.getInputIds());
+        assertArrayEquals(new int[]{2, 3, 4, 6, 7, -1, -1}, packed.getLabels());
+        assertArrayEquals(new float[]{0, 1, 1, 1, 1, 0, 0}, packed.getLossMask(), 0.0f);
+        // 行尾填充成为单独的一段
+        assertArrayEquals(new int[]{0, 0, 0, 1, 1, 2, 2}, packed.getSegmentIds());
+        assertEquals(5.0f / 7, packed.getEfficiency(), 1e-6f);
+
+        NdArray positions = packed.toPositionIdsNdArray();
+        assertArrayEquals(new int[]{1, 7}, positions.getShape().getShapeDims());
+        assertArrayEquals(new float[]{0, 1, 2, 0, 1, 0, 1}, positions.getArray(), 0.0f);
+    }
+
+    @Test
+    public void testTruncationAndSlice() {
+        List<int[]> inputs = Arrays.asList(range(0, 6), range(100, 2), range(200, 3));
+        PackedBatch packed = new SequencePacker(4, 0).pack(inputs, inputs, null);
+
+        // 6截断为4，独占一行；2与3无法合并
+        assertEquals(3, packed.getRows());
+        assertEquals(9, packed.getRealTokens());
+
+        PackedBatch tail = packed.slice(1, 3);
+        assertEquals(2, tail.getRows());
+        assertEquals(2, tail.getNumDocuments());
+        assertEquals(5, tail.getRealTokens());
+        assertArrayEquals(new int[]{200, 201, 202, 0, 100, 101, 0, 0}, tail.getInputIds());
+    }
+
+    @Test
+    public void testEveryDocumentPackedOnce() {
+        Random rnd = new Random(3);
+        int numDocs = 200;
+        int[][] docs = new int[numDocs][];
+        for (int i = 0; i < numDocs; i++) {
+            docs[i] = new int[1 + rnd.nextInt(31)];
+            Arrays.fill(docs[i], i + 1);
+        }
+        List<int[]> inputs = Arrays.asList(docs);
+        PackedBatch packed = new SequencePacker(32, 0).pack(inputs, inputs, null);
+
+        Set<Integer> seen = new HashSet<>();
+        int[] ids = packed.getInputIds();
+        int[] segments = packed.getSegmentIds();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != 0) {
+                seen.add(ids[i]);
+                boolean docStart = i % 32 == 0 || segments[i - 1] != segments[i];
+                assertEquals(docStart, packed.getPositionIds()[i] == 0);
+            }
+        }
+        assertEquals(numDocs, seen.size());
+        assertEquals(numDocs, packed.getNumDocuments());
+        // 朴素填充的效率远低于打包
+        float paddedEfficiency = (float) packed.getRealTokens() / (numDocs * 32);
+        assertTrue(packed.getEfficiency() > 0.9f);
+        assertTrue(packed.getEfficiency() > paddedEfficiency);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsMismatchedLabels() {
+        new SequencePacker(4, 0).pack(Arrays.asList(range(0, 3)), Arrays.asList(range(0, 2)), null);
+    }
+}
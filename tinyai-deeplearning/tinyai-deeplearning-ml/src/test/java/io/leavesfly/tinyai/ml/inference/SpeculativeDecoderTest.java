@@ -0,0 +1,143 @@
+package io.leavesfly.tinyai.ml.inference;
+
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * SpeculativeDecoder 投机解码的单元测试
+ * <p>
+ * 使用二元语法（bigram）玩具模型：下一个 token 的 logits 只取决于当前 token。
+ *
+ * @author leavesfly
+ */
+public class SpeculativeDecoderTest {
+
+    private static final float[][] TARGET_TABLE = {
+            {0.1f, 1.2f, 0.3f, -0.5f},
+            {0.8f, -0.2f, 1.0f, 0.4f},
+            {-0.3f, 0.6f, 0.2f, 1.1f},
+            {1.0f, 0.0f, -0.4f, 0.5f}
+    };
+
+    private static final float[][] DRAFT_TABLE = {
+            {0.5f, 0.9f, -0.1f, 0.0f},
+            {0.2f, 0.3f, 0.9f, 0.1f},
+            {0.0f, 1.0f, 0.1f, 0.6f},
+            {0.7f, 0.4f, 0.0f, 0.2f}
+    };
+
+    private static CausalLanguageModel bigram(float[][] table) {
+        return (tokens, fromPos) -> {
+            float[][] rows = new float[tokens.length - fromPos][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = table[tokens[fromPos + i]].clone();
+            }
+            return rows;
+        };
+    }
+
+    private static double[] softmax(float[] logits) {
+        double[] probs = new double[logits.length];
+        double sum = 0;
+        for (int i = 0; i < logits.length; i++) {
+            probs[i] = Math.exp(logits[i]);
+            sum += probs[i];
+        }
+        for (int i = 0; i < probs.length; i++) {
+            probs[i] /= sum;
+        }
+        return probs;
+    }
+
+    @Test
+    public void testGreedyMatchesTargetAutoregressive() {
+        SpeculativeDecoder decoder = new SpeculativeDecoder(bigram(DRAFT_TABLE), bigram(TARGET_TABLE), 3, 0.0f);
+
+        SpeculativeResult speculative = decoder.generate(new int[]{0}, 12);
+        SpeculativeResult baseline = decoder.generateAutoregressive(new int[]{0}, 12);
+
+        assertArrayEquals(baseline.getTokens(), speculative.getTokens());
+        assertEquals(12, speculative.getGeneratedTokens());
+        assertEquals(12, baseline.getTargetForwardCalls());
+        assertTrue(speculative.getTargetForwardCalls() < baseline.getTargetForwardCalls());
+    }
+
+    @Test
+    public void testIdenticalDraftAcceptsEverything() {
+        CausalLanguageModel model = bigram(TARGET_TABLE);
+        SpeculativeDecoder decoder = new SpeculativeDecoder(model, model, 4, 1.0f, 0, -1, new Random(1));
+
+        SpeculativeResult result = decoder.generate(new int[]{2}, 10);
+
+        assertEquals(10, result.getGeneratedTokens());
+        assertEquals(1.0, result.getAcceptanceRate(), 1e-9);
+        // 每轮 4 个草稿 + 1 个额外 token：5 + 5
+        assertEquals(2, result.getTargetForwardCalls());
+        assertEquals(5.0, result.getTokensPerTargetCall(), 1e-9);
+    }
+
+    @Test
+    public void testSamplingPreservesTargetDistribution() {
+        SpeculativeDecoder decoder = new SpeculativeDecoder(bigram(DRAFT_TABLE), bigram(TARGET_TABLE),
+                2, 1.0f, 0, -1, new Random(7));
+        int trials = 20000;
+        int[] firstCounts = new int[4];
+        int[] secondCounts = new int[4];
+        long proposed = 0;
+        long accepted = 0;
+        for (int t = 0; t < trials; t++) {
+            SpeculativeResult result = decoder.generate(new int[]{0}, 3);
+            firstCounts[result.getTokens()[1]]++;
+            secondCounts[result.getTokens()[2]]++;
+            proposed += result.getProposedTokens();
+            accepted += result.getAcceptedTokens();
+        }
+
+        double[] first = softmax(TARGET_TABLE[0]);
+        double[] second = new double[4];
+        for (int a = 0; a < 4; a++) {
+            double[] next = softmax(TARGET_TABLE[a]);
+            for (int b = 0; b < 4; b++) {
+                second[b] += first[a] * next[b];
+            }
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(first[i], firstCounts[i] / (double) trials, 0.015);
+            assertEquals(second[i], secondCounts[i] / (double) trials, 0.015);
+        }
+        // 草稿与目标分布不同，接受率应介于0和1之间
+        double acceptanceRate = accepted / (double) proposed;
+        assertTrue(acceptanceRate > 0.0 && acceptanceRate < 1.0);
+    }
+
+    @Test
+    public void testStopsAtEosAndMaxSeqLen() {
+        // 目标模型在 token 1 之后必然输出结束符 3
+        float[][] table = {{-9f, 9f, -9f, -9f}, {-9f, -9f, -9f, 9f}, {9f, -9f, -9f, -9f}, {9f, -9f, -9f, -9f}};
+        SpeculativeDecoder decoder = new SpeculativeDecoder(bigram(DRAFT_TABLE), bigram(table),
+                4, 0.0f, 0, 3, new Random(3));
+        assertArrayEquals(new int[]{2, 0, 1, 3}, decoder.generate(new int[]{2}, 20).getTokens());
+
+        CausalLanguageModel limited = CausalLanguageModel.of(ids -> {
+            int seqLen = ids.getShape().getShapeDims()[1];
+            float[] logits = new float[seqLen * 4];
+            for (int i = 0; i < seqLen; i++) {
+                logits[i * 4 + 1] = 5f;
+            }
+            return NdArray.of(logits, Shape.of(1, seqLen, 4));
+        }, 6);
+        SpeculativeResult result = new SpeculativeDecoder(limited, limited, 4, 0.0f).generate(new int[]{0, 0}, 20);
+        assertEquals(6, result.getTokens().length);
+        assertEquals(4, result.getGeneratedTokens());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyPrompt() {
+        new SpeculativeDecoder(bigram(DRAFT_TABLE), bigram(TARGET_TABLE), 2, 0.0f).generate(new int[0], 4);
+    }
+}
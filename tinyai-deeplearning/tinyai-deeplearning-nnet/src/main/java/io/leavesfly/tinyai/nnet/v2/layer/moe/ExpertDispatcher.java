@@ -0,0 +1,354 @@
+package io.leavesfly.tinyai.nnet.v2.layer.moe;
+
+import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+import io.leavesfly.tinyai.nnet.v2.core.Module;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+/**
+ * MoE稀疏专家分发器（Token-to-Expert Dispatch）
+ * <p>
+ * 将路由结果转换为"专家 → token行"的分发表，每个专家只处理被路由到它的token：
+ * <pre>
+ * 1. Gather:  x_e = indexSelect(x, tokens_e)          [n_e, inDim]
+ * 2. Expert:  y_e = Expert_e(x_e)                     [n_e, outDim]
+ * 3. Scatter: out = scatterAdd(out, tokens_e, w_e·y_e) [numTokens, outDim]
+ * </pre>
+ * 计算量从 numExperts × 稠密FFN 降为 topK × 稠密FFN。
+ * Gather/Scatter均为Variable算子，梯度可经由分发路径回传到输入和专家参数。
+ * <p>
+ * 可选的容量因子(capacity factor)限制每个专家最多处理
+ * ceil(capacityFactor × numTokens × topK / numExperts) 个token，溢出的路由槽位被丢弃
+ * （该token在此专家上的贡献为0，由残差连接透传）。
+ * 传入 {@link ExpertParallelExecutor} 时各专家在工作线程池上并发执行，
+ * scatter阶段仍按专家顺序在调用线程上完成，结果与顺序执行一致。
+ * <p>
+ * 本类为无状态工具类，供DeepSeek、Qwen3、MiniMind等模型的MoE层复用。
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public final class ExpertDispatcher {
+
+    private ExpertDispatcher() {
+        // 工具类不允许实例化
+    }
+
+    /**
+     * 根据Top-K路由结果构建分发表（不限制专家容量）
+     *
+     * @param topKIndices 每个token选中的专家索引 [numTokens][topK]
+     * @param topKWeights 每个token对应的专家权重 [numTokens][topK]
+     * @param numExperts  专家数量
+     * @return 分发表
+     */
+    public static DispatchPlan plan(int[][] topKIndices, float[][] topKWeights, int numExperts) {
+        return plan(topKIndices, topKWeights, numExperts, 0.0f);
+    }
+
+    /**
+     * 根据Top-K路由结果构建分发表
+     *
+     * @param topKIndices    每个token选中的专家索引 [numTokens][topK]
+     * @param topKWeights    每个token对应的专家权重 [numTokens][topK]
+     * @param numExperts     专家数量
+     * @param capacityFactor 容量因子，小于等于0表示不限制容量
+     * @return 分发表
+     */
+    public static DispatchPlan plan(int[][] topKIndices, float[][] topKWeights,
+                                    int numExperts, float capacityFactor) {
+        Objects.requireNonNull(topKIndices, "topKIndices cannot be null");
+        Objects.requireNonNull(topKWeights, "topKWeights cannot be null");
+        int numTokens = topKIndices.length;
+        int topK = numTokens > 0 ? topKIndices[0].length : 0;
+        int capacity = computeCapacity(numTokens, topK, numExperts, capacityFactor);
+
+        // 第一遍：统计每个专家分到的token数（超出容量的部分计为丢弃）
+        int[] routed = new int[numExperts];
+        for (int t = 0; t < numTokens; t++) {
+            for (int expertIdx : topKIndices[t]) {
+                routed[expertIdx]++;
+            }
+        }
+        int[] counts = new int[numExperts];
+        int[] dropped = new int[numExperts];
+        for (int e = 0; e < numExperts; e++) {
+            counts[e] = capacity > 0 ? Math.min(routed[e], capacity) : routed[e];
+            dropped[e] = routed[e] - counts[e];
+        }
+
+        int[][] tokenIndices = new int[numExperts][];
+        float[][] weights = new float[numExperts][];
+        for (int e = 0; e < numExperts; e++) {
+            tokenIndices[e] = new int[counts[e]];
+            weights[e] = new float[counts[e]];
+        }
+
+        // 第二遍：按token顺序填充分发表，专家已满时丢弃后续token
+        int[] cursor = new int[numExperts];
+        for (int t = 0; t < numTokens; t++) {
+            int[] experts = topKIndices[t];
+            for (int k = 0; k < experts.length; k++) {
+                int e = experts[k];
+                if (cursor[e] >= counts[e]) {
+                    continue;
+                }
+                tokenIndices[e][cursor[e]] = t;
+                weights[e][cursor[e]] = topKWeights[t][k];
+                cursor[e]++;
+            }
+        }
+
+        return new DispatchPlan(numTokens, topK, capacity, tokenIndices, weights, dropped);
+    }
+
+    /**
+     * 计算专家容量: ceil(capacityFactor × numTokens × topK / numExperts)
+     *
+     * @return 容量上限，未启用时返回-1
+     */
+    public static int computeCapacity(int numTokens, int topK, int numExperts, float capacityFactor) {
+        if (capacityFactor <= 0 || numExperts <= 0) {
+            return -1;
+        }
+        return Math.max(1, (int) Math.ceil(capacityFactor * numTokens * topK / numExperts));
+    }
+
+    /**
+     * 根据三维Top-K路由结果构建分发表（token按 b * seqLen + t 展平）
+     *
+     * @param topKIndices 专家索引 [batch][seq][topK]
+     * @param topKWeights 专家权重 [batch][seq][topK]
+     * @param numExperts  专家数量
+     * @return 分发表
+     */
+    public static DispatchPlan plan(int[][][] topKIndices, float[][][] topKWeights, int numExperts) {
+        return plan(topKIndices, topKWeights, numExperts, 0.0f);
+    }
+
+    /**
+     * 根据三维Top-K路由结果构建带容量限制的分发表（token按 b * seqLen + t 展平）
+     *
+     * @param topKIndices    专家索引 [batch][seq][topK]
+     * @param topKWeights    专家权重 [batch][seq][topK]
+     * @param numExperts     专家数量
+     * @param capacityFactor 容量因子，小于等于0表示不限制容量
+     * @return 分发表
+     */
+    public static DispatchPlan plan(int[][][] topKIndices, float[][][] topKWeights,
+                                    int numExperts, float capacityFactor) {
+        int batchSize = topKIndices.length;
+        int seqLen = batchSize > 0 ? topKIndices[0].length : 0;
+        int[][] flatIndices = new int[batchSize * seqLen][];
+        float[][] flatWeights = new float[batchSize * seqLen][];
+        for (int b = 0; b < batchSize; b++) {
+            for (int t = 0; t < seqLen; t++) {
+                flatIndices[b * seqLen + t] = topKIndices[b][t];
+                flatWeights[b * seqLen + t] = topKWeights[b][t];
+            }
+        }
+        return plan(flatIndices, flatWeights, numExperts, capacityFactor);
+    }
+
+    /**
+     * 执行稀疏分发：每个专家仅在其路由到的token上前向计算，再加权scatter回原位置
+     *
+     * @param flatInput 展平后的输入 [numTokens, inDim]
+     * @param plan      分发表
+     * @param experts   专家列表（下标与专家索引一致）
+     * @param outputDim 专家输出维度
+     * @return 组合后的输出 [numTokens, outputDim]
+     */
+    public static Variable dispatch(Variable flatInput, DispatchPlan plan,
+                                    List<? extends Module> experts, int outputDim) {
+        return dispatch(flatInput, plan, experts, outputDim, null).getOutput();
+    }
+
+    /**
+     * 在执行器上并发执行各专家，并统计专家利用率
+     *
+     * @param flatInput 展平后的输入 [numTokens, inDim]
+     * @param plan      分发表
+     * @param experts   专家列表（下标与专家索引一致）
+     * @param outputDim 专家输出维度
+     * @param executor  专家并行执行器，为null时在调用线程上顺序执行
+     * @return 组合输出及专家利用率
+     */
+    public static DispatchResult dispatch(Variable flatInput, DispatchPlan plan,
+                                          List<? extends Module> experts, int outputDim,
+                                          ExpertParallelExecutor executor) {
+        Objects.requireNonNull(flatInput, "flatInput cannot be null");
+        if (flatInput.getValue().getShape().getDimNum() != 2) {
+            throw new IllegalArgumentException("ExpertDispatcher: input must be 2D [numTokens, dim]");
+        }
+        long start = System.nanoTime();
+
+        // 按token数从多到少排序专家，使线程池按负载贪心均衡
+        int numExperts = plan.getNumExperts();
+        List<Integer> activeExperts = new ArrayList<>();
+        for (int e = 0; e < numExperts; e++) {
+            if (plan.getTokenCount(e) > 0) {
+                activeExperts.add(e);
+            }
+        }
+        activeExperts.sort((a, b) -> Integer.compare(plan.getTokenCount(b), plan.getTokenCount(a)));
+
+        long[] expertNanos = new long[numExperts];
+        List<Callable<Variable>> tasks = new ArrayList<>(activeExperts.size());
+        for (int e : activeExperts) {
+            Module expert = experts.get(e);
+            tasks.add(() -> {
+                long t0 = System.nanoTime();
+                Variable out = runExpert(flatInput, plan, e, expert);
+                expertNanos[e] = System.nanoTime() - t0;
+                return out;
+            });
+        }
+        ExpertParallelExecutor runner = executor != null ? executor : ExpertParallelExecutor.sequential();
+        List<Variable> weightedOutputs = runner.invokeAll(tasks);
+
+        // scatter阶段按专家顺序执行，保证结果确定
+        Variable[] byExpert = new Variable[numExperts];
+        for (int i = 0; i < activeExperts.size(); i++) {
+            byExpert[activeExperts.get(i)] = weightedOutputs.get(i);
+        }
+        Variable output = new Variable(NdArray.zeros(Shape.of(plan.getNumTokens(), outputDim)));
+        output.setRequireGrad(false);
+        for (int e = 0; e < numExperts; e++) {
+            if (byExpert[e] != null) {
+                output = output.scatterAdd(0, plan.indexVariable(e), byExpert[e]);
+            }
+        }
+
+        ExpertUtilization utilization = new ExpertUtilization(
+            plan.getNumTokens(), plan.getTopK(), plan.getCapacity(),
+            plan.getTokenCounts(), plan.getDroppedTokens(), expertNanos, System.nanoTime() - start);
+        return new DispatchResult(output, utilization);
+    }
+
+    /**
+     * 在单个专家上执行 gather → forward → 加权
+     *
+     * @return 加权后的专家输出 [n_e, outputDim]
+     */
+    static Variable runExpert(Variable flatInput, DispatchPlan plan, int expertIdx, Module expert) {
+        int count = plan.getTokenCount(expertIdx);
+        Variable expertInput = flatInput.indexSelect(0, plan.indexVariable(expertIdx));
+        Variable expertOut = expert.forward(expertInput);
+
+        Variable weightVar = new Variable(NdArray.of(plan.getWeights(expertIdx), Shape.of(count, 1)));
+        weightVar.setRequireGrad(false);
+        return expertOut.mul(weightVar);
+    }
+
+    /**
+     * 分发表：记录每个专家负责的token行及其门控权重
+     */
+    public static class DispatchPlan {
+        private final int numTokens;
+        private final int topK;
+        private final int capacity;
+        private final int[][] tokenIndices;  // [numExperts][n_e]
+        private final float[][] weights;     // [numExperts][n_e]
+        private final int[] droppedTokens;   // [numExperts]
+
+        public DispatchPlan(int numTokens, int topK, int capacity, int[][] tokenIndices,
+                            float[][] weights, int[] droppedTokens) {
+            this.numTokens = numTokens;
+            this.topK = topK;
+            this.capacity = capacity;
+            this.tokenIndices = tokenIndices;
+            this.weights = weights;
+            this.droppedTokens = droppedTokens;
+        }
+
+        public int getNumTokens() {
+            return numTokens;
+        }
+
+        public int getTopK() {
+            return topK;
+        }
+
+        /**
+         * 获取专家容量，-1表示未启用容量限制
+         */
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * 获取每个专家因超出容量而丢弃的token数
+         */
+        public int[] getDroppedTokens() {
+            return droppedTokens.clone();
+        }
+
+        public int getNumExperts() {
+            return tokenIndices.length;
+        }
+
+        public int getTokenCount(int expertIdx) {
+            return tokenIndices[expertIdx].length;
+        }
+
+        /**
+         * 获取每个专家分到的token数
+         */
+        public int[] getTokenCounts() {
+            int[] counts = new int[tokenIndices.length];
+            for (int e = 0; e < counts.length; e++) {
+                counts[e] = tokenIndices[e].length;
+            }
+            return counts;
+        }
+
+        public int[] getTokenIndices(int expertIdx) {
+            return tokenIndices[expertIdx];
+        }
+
+        public float[] getWeights(int expertIdx) {
+            return weights[expertIdx];
+        }
+
+        /**
+         * 将专家的token索引包装为不可导的索引Variable
+         */
+        Variable indexVariable(int expertIdx) {
+            int[] indices = tokenIndices[expertIdx];
+            float[] data = new float[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                data[i] = indices[i];
+            }
+            Variable indexVar = new Variable(NdArray.of(data));
+            indexVar.setRequireGrad(false);
+            return indexVar;
+        }
+    }
+
+    /**
+     * 分发结果：组合输出与专家利用率统计
+     */
+    public static class DispatchResult {
+        private final Variable output;
+        private final ExpertUtilization utilization;
+
+        public DispatchResult(Variable output, ExpertUtilization utilization) {
+            this.output = output;
+            this.utilization = utilization;
+        }
+
+        public Variable getOutput() {
+            return output;
+        }
+
+        public ExpertUtilization getUtilization() {
+            return utilization;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package io.leavesfly.tinyai.nnet.v2.layer.moe;
+
+import io.leavesfly.tinyai.func.NoGrad;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MoE专家并行执行器
+ * <p>
+ * 将各专家的前向计算提交到固定大小的工作线程池并发执行。
+ * 任务按专家分到的token数从多到少提交（最长处理时间优先，LPT），
+ * 线程池的FIFO队列据此实现按负载的贪心均衡。
+ * <p>
+ * numThreads为1时不创建线程池，直接在调用线程上顺序执行。
+ * 调用线程处于 {@link NoGrad} 作用域时，提交的任务在工作线程上沿用该作用域。
+ * 线程均为守护线程，可通过 {@link #shared()} 在多个MoE层之间共享同一个线程池。
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class ExpertParallelExecutor implements AutoCloseable {
+
+    private static final ExpertParallelExecutor SEQUENTIAL = new ExpertParallelExecutor(1);
+
+    private static volatile ExpertParallelExecutor sharedInstance;
+
+    private final int numThreads;
+    private final ExecutorService executorService;
+
+    /**
+     * 构造函数
+     *
+     * @param numThreads 工作线程数，小于等于1表示顺序执行
+     */
+    public ExpertParallelExecutor(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        if (this.numThreads > 1) {
+            AtomicInteger threadIndex = new AtomicInteger();
+            this.executorService = Executors.newFixedThreadPool(this.numThreads, r -> {
+                Thread t = new Thread(r, "MoE-Expert-Worker-" + threadIndex.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.executorService = null;
+        }
+    }
+
+    /**
+     * 获取进程内共享的执行器（线程数为可用CPU核数）
+     */
+    public static ExpertParallelExecutor shared() {
+        if (sharedInstance == null) {
+            synchronized (ExpertParallelExecutor.class) {
+                if (sharedInstance == null) {
+                    sharedInstance = new ExpertParallelExecutor(Runtime.getRuntime().availableProcessors());
+                }
+            }
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * 顺序执行器（不创建线程）
+     */
+    public static ExpertParallelExecutor sequential() {
+        return SEQUENTIAL;
+    }
+
+    /**
+     * 按给定顺序提交任务并等待全部完成
+     *
+     * @param tasks 任务列表，调用方应按负载从大到小排序
+     * @return 与任务顺序一致的结果列表
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (executorService == null || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException("专家任务执行失败", e);
+                }
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(executorService.submit(NoGrad.wrap(task)));
+        }
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("专家并行执行被中断", e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("专家任务执行失败", cause);
+        }
+        return results;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public boolean isParallel() {
+        return executorService != null;
+    }
+
+    /**
+     * 关闭线程池（共享执行器不应被关闭）
+     */
+    @Override
+    public void close() {
+        if (executorService != null && this != sharedInstance) {
+            executorService.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExpertParallelExecutor{numThreads=%d}", numThreads);
+    }
+}
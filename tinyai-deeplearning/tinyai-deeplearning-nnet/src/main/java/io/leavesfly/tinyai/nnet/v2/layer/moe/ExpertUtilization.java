@@ -0,0 +1,117 @@
+package io.leavesfly.tinyai.nnet.v2.layer.moe;
+
+/**
+ * 单次MoE前向中各专家的利用率统计
+ * <p>
+ * 与负载均衡损失一起导出，用于观察路由是否均衡以及容量限制的影响：
+ * <ul>
+ *   <li>tokenCounts - 每个专家实际处理的token数</li>
+ *   <li>droppedTokens - 超出容量被丢弃的token数</li>
+ *   <li>capacity - 每个专家的容量上限（未启用时为-1）</li>
+ *   <li>expertNanos - 每个专家的前向计算耗时</li>
+ * </ul>
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class ExpertUtilization {
+
+    private final int numTokens;
+    private final int topK;
+    private final int capacity;
+    private final int[] tokenCounts;
+    private final int[] droppedTokens;
+    private final long[] expertNanos;
+    private final long wallNanos;
+
+    public ExpertUtilization(int numTokens, int topK, int capacity, int[] tokenCounts,
+                             int[] droppedTokens, long[] expertNanos, long wallNanos) {
+        this.numTokens = numTokens;
+        this.topK = topK;
+        this.capacity = capacity;
+        this.tokenCounts = tokenCounts;
+        this.droppedTokens = droppedTokens;
+        this.expertNanos = expertNanos;
+        this.wallNanos = wallNanos;
+    }
+
+    public int getNumExperts() {
+        return tokenCounts.length;
+    }
+
+    public int getNumTokens() {
+        return numTokens;
+    }
+
+    /**
+     * 获取专家容量，-1表示未启用容量限制
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int[] getTokenCounts() {
+        return tokenCounts.clone();
+    }
+
+    public int[] getDroppedTokens() {
+        return droppedTokens.clone();
+    }
+
+    public int getTotalDropped() {
+        int total = 0;
+        for (int d : droppedTokens) {
+            total += d;
+        }
+        return total;
+    }
+
+    /**
+     * 被丢弃的路由槽位占全部 numTokens × topK 槽位的比例
+     */
+    public float getDropRate() {
+        int slots = numTokens * topK;
+        return slots > 0 ? (float) getTotalDropped() / slots : 0.0f;
+    }
+
+    /**
+     * 专家利用率：启用容量限制时为 tokens / capacity，否则为 tokens / 均匀分配时的token数
+     */
+    public float getUtilization(int expertIdx) {
+        float denominator = capacity > 0
+            ? capacity
+            : (float) numTokens * topK / tokenCounts.length;
+        return denominator > 0 ? tokenCounts[expertIdx] / denominator : 0.0f;
+    }
+
+    public long[] getExpertNanos() {
+        return expertNanos.clone();
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * 专家计算总耗时与墙钟耗时之比，近似反映并行加速
+     */
+    public double getParallelSpeedup() {
+        long total = 0;
+        for (long nanos : expertNanos) {
+            total += nanos;
+        }
+        return wallNanos > 0 ? (double) total / wallNanos : 1.0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ExpertUtilization{\n");
+        for (int e = 0; e < tokenCounts.length; e++) {
+            sb.append(String.format("  Expert%d: tokens=%d, dropped=%d, util=%.2f%%, time=%.3fms\n",
+                e, tokenCounts[e], droppedTokens[e], getUtilization(e) * 100, expertNanos[e] / 1e6));
+        }
+        sb.append(String.format("  capacity=%d, dropRate=%.2f%%, speedup=%.2fx\n}",
+            capacity, getDropRate() * 100, getParallelSpeedup()));
+        return sb.toString();
+    }
+}
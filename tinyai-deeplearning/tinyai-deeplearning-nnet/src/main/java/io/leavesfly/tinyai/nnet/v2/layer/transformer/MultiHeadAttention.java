@@ -1,6 +1,7 @@
 package io.leavesfly.tinyai.nnet.v2.layer.transformer;
 
 import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.func.matrix.FlashAttention;
 import io.leavesfly.tinyai.func.matrix.Permute;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
@@ -8,6 +9,8 @@ import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Dropout;
 
+import java.util.Random;
+
 /**
  * V2版本的MultiHeadAttention层（增强版）
  * <p>
@@ -34,14 +37,20 @@ import io.leavesfly.tinyai.nnet.v2.layer.dnn.Dropout;
  * - 支持attnMask（注意力掩码，如因果掩码）
  * - 支持keyPaddingMask（键填充掩码）
  * - 提供生成因果掩码的静态方法
+ * - 默认使用融合注意力（{@link FlashAttention}），不物化 (batch, heads, seq_len, seq_len) 的分数矩阵，
+ *   因果掩码与键填充掩码在核内隐式处理；{@link #forwardCausal(Variable)} 无需构造显式掩码
+ * - 支持分组查询注意力（GQA）/多查询注意力（MQA）：numKVHeads个KV头被
+ *   numHeads / numKVHeads 个查询头共享，K/V投影与KV缓存按比例缩小，
+ *   融合核内直接按组索引KV头，不物化复制后的K/V
  *
  * @author leavesfly
- * @version 2.1
+ * @version 2.3
  */
 public class MultiHeadAttention extends Module {
 
     private final int dModel;      // 模型维度
     private final int numHeads;    // 注意力头数
+    private final int numKVHeads;  // 键/值头数（GQA/MQA时小于numHeads）
     private final int dK;          // 每个头的键/查询维度
     private final int dV;          // 每个头的值维度
     private final float dropout;   // dropout比率
@@ -53,6 +62,9 @@ public class MultiHeadAttention extends Module {
     private Linear outputProjection; // 输出投影
     private final Dropout attnDropout; // 注意力权重dropout
 
+    private boolean useFusedAttention = true;          // 是否使用融合注意力
+    private final Random dropoutSeedRandom = new Random(); // 融合注意力dropout的种子来源
+
     /**
      * 构造函数
      *
@@ -62,23 +74,41 @@ public class MultiHeadAttention extends Module {
      * @param dropout  dropout比率
      */
     public MultiHeadAttention(String name, int dModel, int numHeads, float dropout) {
+        this(name, dModel, numHeads, numHeads, dropout);
+    }
+
+    /**
+     * 构造函数（分组查询注意力）
+     *
+     * @param name       层名称
+     * @param dModel     模型维度
+     * @param numHeads   查询头数
+     * @param numKVHeads 键/值头数，numKVHeads == numHeads 为标准多头，1 为多查询注意力
+     * @param dropout    dropout比率
+     */
+    public MultiHeadAttention(String name, int dModel, int numHeads, int numKVHeads, float dropout) {
         super(name);
 
         if (dModel % numHeads != 0) {
             throw new IllegalArgumentException(
                     String.format("d_model (%d) must be divisible by num_heads (%d)", dModel, numHeads));
         }
+        if (numKVHeads <= 0 || numHeads % numKVHeads != 0) {
+            throw new IllegalArgumentException(
+                    String.format("num_heads (%d) must be divisible by num_kv_heads (%d)", numHeads, numKVHeads));
+        }
 
         this.dModel = dModel;
         this.numHeads = numHeads;
+        this.numKVHeads = numKVHeads;
         this.dK = dModel / numHeads;
         this.dV = dModel / numHeads;
         this.dropout = dropout;
 
-        // 创建投影层
+        // 创建投影层，K/V只投影到 numKVHeads 个头
         queryProjection = new Linear("q_proj", dModel, dModel, true);
-        keyProjection = new Linear("k_proj", dModel, dModel, true);
-        valueProjection = new Linear("v_proj", dModel, dModel, true);
+        keyProjection = new Linear("k_proj", dModel, numKVHeads * dK, true);
+        valueProjection = new Linear("v_proj", dModel, numKVHeads * dV, true);
         outputProjection = new Linear("o_proj", dModel, dModel, true);
         attnDropout = new Dropout("attn_dropout", dropout);
 
@@ -117,6 +147,35 @@ public class MultiHeadAttention extends Module {
         Variable attnMask = inputs.length > 3 ? inputs[3] : null;
         Variable keyPaddingMask = inputs.length > 4 ? inputs[4] : null;
 
+        return forwardInternal(query, key, value, attnMask, keyPaddingMask, false);
+    }
+
+    /**
+     * 因果自注意力前向传播
+     * <p>
+     * 每个位置只能看到自身及之前的位置。融合注意力下因果掩码在核内隐式处理，
+     * 不需要生成 (seq_len, seq_len) 的掩码张量。
+     *
+     * @param x 输入张量 (batch, seq_len, d_model)
+     * @return 自注意力输出
+     */
+    public Variable forwardCausal(Variable x) {
+        return forwardCausal(x, null);
+    }
+
+    /**
+     * 带键填充掩码的因果自注意力前向传播
+     *
+     * @param x              输入张量 (batch, seq_len, d_model)
+     * @param keyPaddingMask 键填充掩码 (batch, seq_len)，1表示padding，可为null
+     * @return 自注意力输出
+     */
+    public Variable forwardCausal(Variable x, Variable keyPaddingMask) {
+        return forwardInternal(x, x, x, null, keyPaddingMask, true);
+    }
+
+    private Variable forwardInternal(Variable query, Variable key, Variable value,
+                                     Variable attnMask, Variable keyPaddingMask, boolean causal) {
         int[] queryShape = query.getValue().getShape().getShapeDims();
         int batchSize = queryShape[0];
         int seqLen = queryShape[1];
@@ -124,18 +183,30 @@ public class MultiHeadAttention extends Module {
 
         // 1. 线性投影 Q, K, V
         Variable Q = queryProjection.forward(query);   // (batch, seq_len, d_model)
-        Variable K = keyProjection.forward(key);       // (batch, key_seq_len, d_model)
-        Variable V = valueProjection.forward(value);   // (batch, key_seq_len, d_model)
+        Variable K = keyProjection.forward(key);       // (batch, key_seq_len, num_kv_heads * d_k)
+        Variable V = valueProjection.forward(value);   // (batch, key_seq_len, num_kv_heads * d_v)
 
         // 2. 分割成多头
-        // 需要将 (batch, seq_len, d_model) 重塑为 (batch, seq_len, num_heads, d_k)
-        // 然后转置为 (batch, num_heads, seq_len, d_k)
-        Q = splitHeads(Q, batchSize, seqLen);
-        K = splitHeads(K, batchSize, keySeqLen);
-        V = splitHeads(V, batchSize, keySeqLen);
+        // 需要将 (batch, seq_len, heads * d_k) 重塑为 (batch, seq_len, heads, d_k)
+        // 然后转置为 (batch, heads, seq_len, d_k)
+        Q = splitHeads(Q, batchSize, seqLen, numHeads);
+        K = splitHeads(K, batchSize, keySeqLen, numKVHeads);
+        V = splitHeads(V, batchSize, keySeqLen, numKVHeads);
 
         // 3. 计算缩放点积注意力（带掩码）
-        Variable attention = scaledDotProductAttention(Q, K, V, attnMask, keyPaddingMask);
+        Variable attention;
+        if (useFusedAttention && canFuseMask(attnMask)) {
+            attention = fusedAttention(Q, K, V, attnMask, keyPaddingMask, causal);
+        } else {
+            if (causal) {
+                attnMask = generateCausalMaskBatched(seqLen);
+            }
+            if (numKVHeads != numHeads) {
+                K = repeatKeyValueHeads(K);
+                V = repeatKeyValueHeads(V);
+            }
+            attention = scaledDotProductAttention(Q, K, V, attnMask, keyPaddingMask);
+        }
 
         // 4. 合并多头
         Variable concat = mergeHeads(attention, batchSize, seqLen);
@@ -164,20 +235,41 @@ public class MultiHeadAttention extends Module {
     /**
      * 分割成多头
      * <p>
-     * 输入: (batch, seq_len, d_model)
-     * 输出: (batch, num_heads, seq_len, d_k)
+     * 输入: (batch, seq_len, heads * d_k)
+     * 输出: (batch, heads, seq_len, d_k)
      *
      * @param x         输入变量
      * @param batchSize 批次大小
      * @param seqLen    序列长度
+     * @param heads     头数
      * @return 分割后的张量
      */
-    private Variable splitHeads(Variable x, int batchSize, int seqLen) {
-        // (batch, seq_len, d_model) -> (batch, num_heads, seq_len, d_k)
-        Variable reshaped = x.reshape(Shape.of(batchSize, seqLen, numHeads, dK));
+    private Variable splitHeads(Variable x, int batchSize, int seqLen, int heads) {
+        // (batch, seq_len, heads * d_k) -> (batch, heads, seq_len, d_k)
+        Variable reshaped = x.reshape(Shape.of(batchSize, seqLen, heads, dK));
         return new Permute(0, 2, 1, 3).call(reshaped);
     }
 
+    /**
+     * 将KV头按组复制到查询头数，仅用于显式（非融合）注意力路径
+     * <p>
+     * 输入: (batch, num_kv_heads, seq_len, d_k)
+     * 输出: (batch, num_heads, seq_len, d_k)
+     *
+     * @param kv 键或值张量
+     * @return 复制后的张量
+     */
+    private Variable repeatKeyValueHeads(Variable kv) {
+        int groupSize = numHeads / numKVHeads;
+        float[] headIndices = new float[numHeads];
+        for (int h = 0; h < numHeads; h++) {
+            headIndices[h] = h / groupSize;
+        }
+        Variable index = new Variable(NdArray.of(headIndices));
+        index.setRequireGrad(false);
+        return kv.indexSelect(1, index);
+    }
+
     /**
      * 合并多头
      * <p>
@@ -195,6 +287,44 @@ public class MultiHeadAttention extends Module {
         return permuted.reshape(Shape.of(batchSize, seqLen, dModel));
     }
 
+    /**
+     * 融合缩放点积注意力
+     * <p>
+     * 注意力掩码作为加性bias传入融合核，键填充掩码与因果掩码在核内隐式处理，
+     * 注意力dropout也在核内完成。
+     *
+     * @param Q              查询张量 (batch, heads, seq_len, d_k)
+     * @param K              键张量 (batch, kv_heads, key_seq_len, d_k)
+     * @param V              值张量 (batch, kv_heads, key_seq_len, d_v)
+     * @param attnMask       注意力掩码（可选）
+     * @param keyPaddingMask 键填充掩码（可选）
+     * @param causal         是否应用因果掩码
+     * @return 注意力输出 (batch, heads, seq_len, d_v)
+     */
+    private Variable fusedAttention(Variable Q, Variable K, Variable V,
+                                    Variable attnMask, Variable keyPaddingMask, boolean causal) {
+        float scale = (float) (1.0 / Math.sqrt(dK));
+        float[] padding = keyPaddingMask != null ? keyPaddingMask.getValue().getArray() : null;
+        float attnDropoutRate = isTraining() ? dropout : 0.0f;
+        FlashAttention attention = new FlashAttention(scale, causal, 0, padding,
+                attnDropoutRate, dropoutSeedRandom.nextLong(), FlashAttention.DEFAULT_BLOCK_SIZE);
+        if (attnMask != null) {
+            return attention.call(Q, K, V, attnMask);
+        }
+        return attention.call(Q, K, V);
+    }
+
+    /**
+     * 判断注意力掩码能否作为融合核的bias：需为 (q_len, k_len) 或 4D可广播形状
+     */
+    private boolean canFuseMask(Variable attnMask) {
+        if (attnMask == null) {
+            return true;
+        }
+        int rank = attnMask.getValue().getShape().getShapeDims().length;
+        return rank == 2 || rank == 4;
+    }
+
     /**
      * 缩放点积注意力（带掩码）
      * <p>
@@ -268,7 +398,12 @@ public class MultiHeadAttention extends Module {
             result[i] = data[i] > 0.5f ? -1e9f : 0f;
         }
 
-        Variable resultVar = new Variable(NdArray.of(result, maskData.getShape()));
+        // (batch, key_seq_len) -> (batch, 1, 1, key_seq_len)，广播到所有头和查询位置
+        int[] maskDims = maskData.getShape().getShapeDims();
+        Shape resultShape = maskDims.length == 2
+                ? Shape.of(maskDims[0], 1, 1, maskDims[1])
+                : maskData.getShape();
+        Variable resultVar = new Variable(NdArray.of(result, resultShape));
         resultVar.setRequireGrad(false);  // 掩码不需要梯度
         return resultVar;
     }
@@ -281,6 +416,10 @@ public class MultiHeadAttention extends Module {
         return numHeads;
     }
 
+    public int getNumKVHeads() {
+        return numKVHeads;
+    }
+
     public int getDK() {
         return dK;
     }
@@ -293,12 +432,28 @@ public class MultiHeadAttention extends Module {
         return dropout;
     }
 
+    public boolean isUseFusedAttention() {
+        return useFusedAttention;
+    }
+
+    /**
+     * 设置是否使用融合注意力
+     * <p>
+     * 关闭后回退到显式计算 softmax(QK^T / sqrt(d_k) + mask) V 的实现，主要用于对比验证。
+     *
+     * @param useFusedAttention 是否使用融合注意力
+     */
+    public void setUseFusedAttention(boolean useFusedAttention) {
+        this.useFusedAttention = useFusedAttention;
+    }
+
     @Override
     public String toString() {
         return "MultiHeadAttention{" +
                 "name='" + name + '\'' +
                 ", dModel=" + dModel +
                 ", numHeads=" + numHeads +
+                ", numKVHeads=" + numKVHeads +
                 ", dK=" + dK +
                 ", dV=" + dV +
                 ", dropout=" + dropout +
@@ -0,0 +1,180 @@
+package io.leavesfly.tinyai.nnet.v2.layer.moe;
+
+import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+import io.leavesfly.tinyai.nnet.v2.core.Module;
+import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
+import io.leavesfly.tinyai.util.Config;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ExpertDispatcher稀疏分发的单元测试
+ */
+public class ExpertDispatcherTest {
+
+    private static List<Linear> createExperts(int numExperts, int inDim, int outDim) {
+        List<Linear> experts = new ArrayList<>();
+        for (int i = 0; i < numExperts; i++) {
+            experts.add(new Linear("expert_" + i, inDim, outDim, true));
+        }
+        return experts;
+    }
+
+    @Test
+    public void testPlanGroupsTokensByExpert() {
+        int[][] indices = {{0, 2}, {2, 1}, {0, 1}};
+        float[][] weights = {{0.7f, 0.3f}, {0.6f, 0.4f}, {0.5f, 0.5f}};
+
+        ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(indices, weights, 4);
+
+        assertEquals(3, plan.getNumTokens());
+        assertArrayEquals(new int[]{2, 2, 2, 0}, plan.getTokenCounts());
+        assertArrayEquals(new int[]{0, 2}, plan.getTokenIndices(0));
+        assertArrayEquals(new int[]{1, 2}, plan.getTokenIndices(1));
+        assertArrayEquals(new int[]{0, 1}, plan.getTokenIndices(2));
+        assertArrayEquals(new float[]{0.3f, 0.6f}, plan.getWeights(2), 1e-6f);
+    }
+
+    @Test
+    public void testDispatchMatchesDenseCombination() {
+        int numTokens = 5;
+        int dim = 4;
+        List<Linear> experts = createExperts(3, dim, dim);
+        int[][] indices = {{0, 1}, {1, 2}, {2, 0}, {0, 1}, {2, 1}};
+        float[][] weights = {{0.6f, 0.4f}, {0.5f, 0.5f}, {0.9f, 0.1f}, {0.2f, 0.8f}, {0.3f, 0.7f}};
+
+        Variable input = new Variable(NdArray.randn(Shape.of(numTokens, dim)));
+        ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(indices, weights, 3);
+        Variable sparse = ExpertDispatcher.dispatch(input, plan, experts, dim);
+
+        // 稠密参考实现：所有专家处理全部token再按权重组合
+        float[] expected = new float[numTokens * dim];
+        for (int e = 0; e < experts.size(); e++) {
+            float[] dense = experts.get(e).forward(input).getValue().getArray();
+            for (int t = 0; t < numTokens; t++) {
+                for (int k = 0; k < indices[t].length; k++) {
+                    if (indices[t][k] == e) {
+                        for (int d = 0; d < dim; d++) {
+                            expected[t * dim + d] += weights[t][k] * dense[t * dim + d];
+                        }
+                    }
+                }
+            }
+        }
+
+        assertEquals(Shape.of(numTokens, dim), sparse.getShape());
+        assertArrayEquals(expected, sparse.getValue().getArray(), 1e-5f);
+    }
+
+    @Test
+    public void testDispatchBackpropagatesToInputAndSelectedExperts() {
+        boolean originalTrain = Config.train;
+        Config.train = true;
+        try {
+            int dim = 3;
+            List<Linear> experts = createExperts(3, dim, dim);
+            // 专家2未被任何token选中
+            int[][] indices = {{0}, {1}, {0}};
+            float[][] weights = {{1.0f}, {1.0f}, {1.0f}};
+
+            Variable input = new Variable(NdArray.randn(Shape.of(3, dim)));
+            ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(indices, weights, 3);
+            Variable output = ExpertDispatcher.dispatch(input, plan, experts, dim);
+            output.sum().backward();
+
+            assertNotNull(input.getGrad());
+            assertEquals(Shape.of(3, dim), input.getGrad().getShape());
+            assertNotNull(experts.get(0).getWeight().getGrad());
+            assertNotNull(experts.get(1).getWeight().getGrad());
+            assertNull(experts.get(2).getWeight().getGrad());
+
+            // 专家0的bias梯度为其处理的token数
+            float[] biasGrad = experts.get(0).getBias().getGrad().getArray();
+            for (float g : biasGrad) {
+                assertEquals(2.0f, g, 1e-5f);
+            }
+        } finally {
+            Config.train = originalTrain;
+        }
+    }
+
+    @Test
+    public void testDispatchRejectsNon2DInput() {
+        List<? extends Module> experts = createExperts(2, 2, 2);
+        ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(
+            new int[][]{{0}}, new float[][]{{1.0f}}, 2);
+        Variable input = new Variable(NdArray.randn(Shape.of(1, 1, 2)));
+
+        assertThrows(IllegalArgumentException.class,
+            () -> ExpertDispatcher.dispatch(input, plan, experts, 2));
+    }
+
+    @Test
+    public void testCapacityFactorDropsOverflowTokens() {
+        // 4个token、top1、2个专家，容量因子1.0 -> 每个专家容量为2
+        int[][] indices = {{0}, {0}, {0}, {1}};
+        float[][] weights = {{1.0f}, {1.0f}, {1.0f}, {1.0f}};
+
+        ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(indices, weights, 2, 1.0f);
+
+        assertEquals(2, plan.getCapacity());
+        assertArrayEquals(new int[]{2, 1}, plan.getTokenCounts());
+        assertArrayEquals(new int[]{1, 0}, plan.getDroppedTokens());
+        // 按token顺序保留，最后到达的token被丢弃
+        assertArrayEquals(new int[]{0, 1}, plan.getTokenIndices(0));
+
+        List<Linear> experts = createExperts(2, 3, 3);
+        Variable input = new Variable(NdArray.randn(Shape.of(4, 3)));
+        ExpertDispatcher.DispatchResult result = ExpertDispatcher.dispatch(
+            input, plan, experts, 3, ExpertParallelExecutor.sequential());
+
+        // 被丢弃的token输出为0
+        float[] out = result.getOutput().getValue().getArray();
+        for (int d = 0; d < 3; d++) {
+            assertEquals(0.0f, out[2 * 3 + d], 1e-6f);
+        }
+        ExpertUtilization utilization = result.getUtilization();
+        assertEquals(1, utilization.getTotalDropped());
+        assertEquals(0.25f, utilization.getDropRate(), 1e-6f);
+        assertEquals(1.0f, utilization.getUtilization(0), 1e-6f);
+        assertEquals(0.5f, utilization.getUtilization(1), 1e-6f);
+    }
+
+    @Test
+    public void testParallelDispatchMatchesSequential() {
+        int numTokens = 16;
+        int dim = 8;
+        int numExperts = 4;
+        List<Linear> experts = createExperts(numExperts, dim, dim);
+        int[][] indices = new int[numTokens][2];
+        float[][] weights = new float[numTokens][2];
+        for (int t = 0; t < numTokens; t++) {
+            indices[t][0] = t % numExperts;
+            indices[t][1] = (t * 3 + 1) % numExperts == indices[t][0]
+                ? (indices[t][0] + 1) % numExperts
+                : (t * 3 + 1) % numExperts;
+            weights[t][0] = 0.75f;
+            weights[t][1] = 0.25f;
+        }
+        Variable input = new Variable(NdArray.randn(Shape.of(numTokens, dim)));
+        ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(indices, weights, numExperts);
+
+        Variable sequential = ExpertDispatcher.dispatch(input, plan, experts, dim);
+        try (ExpertParallelExecutor executor = new ExpertParallelExecutor(3)) {
+            assertTrue(executor.isParallel());
+            ExpertDispatcher.DispatchResult parallel = ExpertDispatcher.dispatch(
+                input, plan, experts, dim, executor);
+
+            assertArrayEquals(sequential.getValue().getArray(),
+                parallel.getOutput().getValue().getArray(), 1e-6f);
+            assertEquals(numExperts, parallel.getUtilization().getNumExperts());
+            assertEquals(-1, parallel.getUtilization().getCapacity());
+        }
+    }
+}
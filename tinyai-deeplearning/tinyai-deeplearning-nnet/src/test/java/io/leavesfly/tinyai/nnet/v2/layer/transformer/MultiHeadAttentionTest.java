@@ -4,6 +4,7 @@ import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
 import io.leavesfly.tinyai.nnet.v2.util.GradientChecker;
+import io.leavesfly.tinyai.util.Config;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -48,5 +49,86 @@ public class MultiHeadAttentionTest {
         // 使用 GradientChecker 检查计算图连通性（自注意力：Q=K=V）
         GradientChecker.checkGraphConnectivity(attention, input, input, input);
     }
-}
 
+    @Test
+    public void testFusedCausalAttentionMatchesExplicitMask() {
+        boolean originalTrain = Config.train;
+        Config.train = true;
+        try {
+            MultiHeadAttention attention = new MultiHeadAttention("attn", 16, 4, 0.0f);
+            NdArray inputData = NdArray.randn(Shape.of(2, 6, 16));
+
+            // 融合注意力：隐式因果掩码
+            Variable fusedInput = new Variable(inputData);
+            Variable fused = attention.forwardCausal(fusedInput);
+            fused.sum().backward();
+            float[] fusedWeightGrad = attention.getModule("q_proj").getParameter("weight").getGrad().getArray().clone();
+
+            // 显式实现：物化分数矩阵并加上因果掩码
+            attention.clearGrads();
+            attention.setUseFusedAttention(false);
+            Variable explicitInput = new Variable(inputData);
+            Variable explicit = attention.forward(explicitInput, explicitInput, explicitInput,
+                    MultiHeadAttention.generateCausalMaskBatched(6));
+            explicit.sum().backward();
+
+            assertArrayEquals(explicit.getValue().getArray(), fused.getValue().getArray(), 1e-4f);
+            assertArrayEquals(explicitInput.getGrad().getArray(), fusedInput.getGrad().getArray(), 1e-3f);
+            assertArrayEquals(attention.getModule("q_proj").getParameter("weight").getGrad().getArray(),
+                    fusedWeightGrad, 1e-3f);
+        } finally {
+            Config.train = originalTrain;
+        }
+    }
+
+    @Test
+    public void testFusedAttentionWithKeyPaddingMask() {
+        MultiHeadAttention attention = new MultiHeadAttention("attn", 16, 2, 0.0f);
+        Variable input = new Variable(NdArray.randn(Shape.of(2, 5, 16)));
+        Variable paddingMask = MultiHeadAttention.generatePaddingMask(2, 5, new int[]{5, 3});
+
+        Variable fused = attention.forward(input, input, input, null, paddingMask);
+        attention.setUseFusedAttention(false);
+        Variable explicit = attention.forward(input, input, input, null, paddingMask);
+
+        assertArrayEquals(explicit.getValue().getArray(), fused.getValue().getArray(), 1e-4f);
+    }
+
+    @Test
+    public void testGroupedQueryAttentionMatchesRepeatedKeyValue() {
+        boolean originalTrain = Config.train;
+        Config.train = true;
+        try {
+            // 4个查询头共享2个KV头
+            MultiHeadAttention attention = new MultiHeadAttention("attn", 16, 4, 2, 0.0f);
+            assertEquals(2, attention.getNumKVHeads());
+            assertEquals(Shape.of(8, 16), attention.getModule("k_proj").getParameter("weight").getValue().getShape());
+            NdArray inputData = NdArray.randn(Shape.of(2, 5, 16));
+
+            Variable fusedInput = new Variable(inputData);
+            Variable fused = attention.forwardCausal(fusedInput);
+            fused.sum().backward();
+            float[] fusedKeyGrad = attention.getModule("k_proj").getParameter("weight").getGrad().getArray().clone();
+
+            // 显式实现：复制KV头后物化分数矩阵
+            attention.clearGrads();
+            attention.setUseFusedAttention(false);
+            Variable explicitInput = new Variable(inputData);
+            Variable explicit = attention.forwardCausal(explicitInput);
+            explicit.sum().backward();
+
+            assertEquals(Shape.of(2, 5, 16), fused.getShape());
+            assertArrayEquals(explicit.getValue().getArray(), fused.getValue().getArray(), 1e-4f);
+            assertArrayEquals(explicitInput.getGrad().getArray(), fusedInput.getGrad().getArray(), 1e-3f);
+            assertArrayEquals(attention.getModule("k_proj").getParameter("weight").getGrad().getArray(),
+                    fusedKeyGrad, 1e-3f);
+        } finally {
+            Config.train = originalTrain;
+        }
+    }
+
+    @Test
+    public void testRejectsIndivisibleKeyValueHeads() {
+        assertThrows(IllegalArgumentException.class, () -> new MultiHeadAttention("attn", 16, 4, 3, 0.0f));
+    }
+}
@@ -91,15 +91,12 @@ public class DeepSeekR1TransformerBlock extends Module {
         }
         
         Variable x = inputs[0];
-        int seqLen = x.getValue().getShape().getDimension(1);
-        
-        // 生成因果掩码（下三角矩阵）
-        Variable causalMask = MultiHeadAttention.generateCausalMaskBatched(seqLen);
         
         // ===== 注意力子层 (Pre-LN) =====
         // LN -> MultiHeadAttention -> Dropout -> Add
         Variable normalized1 = layerNorm1.forward(x);
-        Variable attnOutput = attention.forward(normalized1, normalized1, normalized1, causalMask, null);
+        // 因果掩码由融合注意力核隐式处理
+        Variable attnOutput = attention.forwardCausal(normalized1);
         attnOutput = attnDropout.forward(attnOutput);
         Variable residual1 = x.add(attnOutput);
         
@@ -14,6 +14,8 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 /**
  * DeepSeek-R1强化学习训练器 (RLVR - Reinforcement Learning from Verifiable Rewards)
@@ -35,10 +37,13 @@ import java.util.*;
  * 3. 基于二值奖励进行策略优化
  * 4. 更新模型参数
  * 
+ * 验证在 {@link VerifierPool} 上按批次并发执行, 与损失的前向计算重叠,
+ * 只有在需要按正确率缩放损失时才等待验证结果。训练器持有验证线程池, 用完后应调用 {@link #close()}。
+ * 
  * @author leavesfly
  * @version 1.0
  */
-public class DeepSeekR1RLVRTrainer {
+public class DeepSeekR1RLVRTrainer implements AutoCloseable {
     
     private final DeepSeekR1Model model;
     private final DeepSeekR1RLVRDataset dataset;
@@ -46,6 +51,7 @@ public class DeepSeekR1RLVRTrainer {
     
     // 验证器映射
     private final Map<String, Verifier> verifiers;
+    private final VerifierPool verifierPool;
     
     // 训练参数
     private int maxEpochs;
@@ -84,6 +90,8 @@ public class DeepSeekR1RLVRTrainer {
         this.verifiers.put("math", new MathVerifier());
         this.verifiers.put("code", new CodeVerifier());
         this.verifiers.put("logic", new LogicVerifier());
+        this.verifierPool = new VerifierPool(verifiers, "math",
+            Runtime.getRuntime().availableProcessors(), 5000, 4096);
         
         // RLVR训练参数（与RLHF类似但更激进）
         this.maxEpochs = 5;
@@ -179,31 +187,21 @@ public class DeepSeekR1RLVRTrainer {
             Variable inputVar = new Variable(batch.getInputIds());
             DeepSeekR1Model.ReasoningOutput result = model.performReasoning(inputVar);
             
-            // 计算可验证奖励
-            float batchCorrectness = 0.0f;
+            // 计算可验证奖励（异步并发验证，未知类型使用数学验证器）
             String[] groundTruths = batch.getGroundTruths();
             String[] verifierTypes = batch.getVerifierTypes();
-            
-            // 为每个样本计算奖励
+            List<String> modelOutputs = new ArrayList<>(batch.getBatchSize());
             for (int i = 0; i < batch.getBatchSize(); i++) {
                 // 从模型logits解码生成输出
-                String modelOutput = generateOutputFromLogits(result.logits, i);
-                
-                // 选择验证器
-                Verifier verifier = verifiers.get(verifierTypes[i]);
-                if (verifier == null) {
-                    verifier = verifiers.get("math"); // 默认使用数学验证器
-                }
-                
-                // 执行验证
-                VerificationResult verification = verifier.verify(modelOutput, groundTruths[i]);
-                
-                // 累计正确性
-                batchCorrectness += verification.getReward();
+                modelOutputs.add(generateOutputFromLogits(result.logits, i));
             }
+            CompletableFuture<List<VerificationResult>> verifications = verifierPool.verifyAsync(
+                modelOutputs,
+                Arrays.asList(groundTruths).subList(0, batch.getBatchSize()),
+                Arrays.asList(verifierTypes).subList(0, batch.getBatchSize()));
             
-            // 平均正确性奖励
-            float avgCorrectness = batchCorrectness / batch.getBatchSize();
+            // 平均正确性奖励（在损失缩放时才等待验证完成）
+            Supplier<Float> avgCorrectnessSupplier = () -> VerifierPool.averageReward(verifications.join());
             
             // 推理质量评分
             DeepSeekR1ReflectionBlock.QualityScore qualityScore = result.qualityScore;
@@ -212,16 +210,17 @@ public class DeepSeekR1RLVRTrainer {
             // 验证完整性评分（基于推理步数）
             float verificationScore = Math.min(1.0f, result.numSteps / 7.0f);
             
+            // ========== RLVR核心改进: 基于目标答案的监督损失 ==========
+            // 原问题: 仅用奖励值做反向传播，没有与模型输出建立计算图连接
+            // 解决方案: 使用交叉熵损失引导模型学习正确答案的token分布
+            Variable loss = computeRLVRLoss(result.logits, groundTruths, batch.getBatchSize(), avgCorrectnessSupplier);
+            float avgCorrectness = avgCorrectnessSupplier.get();
+            
             // 综合奖励（用于监控）
             float totalReward = correctnessWeight * avgCorrectness +
                                reasoningQualityWeight * qualityReward +
                                verificationWeight * verificationScore;
             
-            // ========== RLVR核心改进: 基于目标答案的监督损失 ==========
-            // 原问题: 仅用奖励值做反向传播，没有与模型输出建立计算图连接
-            // 解决方案: 使用交叉熵损失引导模型学习正确答案的token分布
-            Variable loss = computeRLVRLoss(result.logits, groundTruths, batch.getBatchSize(), avgCorrectness);
-            
             // 调试输出：每10步打印损失值和预测信息
             if (globalStep % 10 == 0) {
                 float lossVal = loss.getValue().getNumber().floatValue();
@@ -381,10 +380,11 @@ public class DeepSeekR1RLVRTrainer {
      * @param logits 模型输出的logits
      * @param groundTruths 标准答案数组
      * @param batchSize 批次大小
-     * @param currentCorrectness 当前正确率（用于奖励缩放）
+     * @param currentCorrectness 当前正确率（用于奖励缩放，在交叉熵前向计算之后才读取）
      * @return 损失变量
      */
-    private Variable computeRLVRLoss(Variable logits, String[] groundTruths, int batchSize, float currentCorrectness) {
+    private Variable computeRLVRLoss(Variable logits, String[] groundTruths, int batchSize,
+                                     Supplier<Float> currentCorrectness) {
         // 获取形状信息
         int[] shape = logits.getValue().getShape().getShapeDims();
         int vocabSize = shape[shape.length - 1];
@@ -434,7 +434,7 @@ public class DeepSeekR1RLVRTrainer {
         Variable loss = lastPosLogits.softmaxCrossEntropy(target);
         
         // 根据当前正确率动态调整损失权重
-        float rewardScale = 1.0f + (1.0f - currentCorrectness) * 2.0f;
+        float rewardScale = 1.0f + (1.0f - currentCorrectness.get()) * 2.0f;
         Variable scaleVar = new Variable(NdArray.of(rewardScale));
         
         return loss.mul(scaleVar);
@@ -565,6 +565,13 @@ public class DeepSeekR1RLVRTrainer {
         return sum / values.size();
     }
     
+    /**
+     * 获取验证器并发执行池
+     */
+    public VerifierPool getVerifierPool() {
+        return verifierPool;
+    }
+    
     /**
      * 获取训练统计
      */
@@ -576,4 +583,12 @@ public class DeepSeekR1RLVRTrainer {
         stats.put("avg_quality", calculateAverage(qualityHistory));
         return stats;
     }
+    
+    /**
+     * 关闭验证线程池
+     */
+    @Override
+    public void close() {
+        verifierPool.close();
+    }
 }
@@ -1,5 +1,6 @@
 package io.leavesfly.tinyai.deepseek.r1.training.dataset;
 
+import io.leavesfly.tinyai.ml.dataset.LengthBucketSampler;
 import io.leavesfly.tinyai.ndarr.NdArray;
 
 import java.util.ArrayList;
@@ -12,6 +13,9 @@ import java.util.Random;
  * 
  * 支持预训练、后训练和强化学习三种模式的数据加载
  * 
+ * 默认按 batchSize 组批并填充到 maxSeqLength;设置 {@link #setMaxTokensPerBatch(int)} 后
+ * 按长度分桶、按token预算组批,每批只填充到批内最长序列
+ * 
  * @author leavesfly
  * @version 1.0
  */
@@ -27,6 +31,12 @@ public class DeepSeekR1Dataset {
     private int currentIndex;
     private List<Integer> indices;
     
+    // 按长度分桶的动态批次(每批token预算), 0表示按固定样本数组批
+    private int maxTokensPerBatch;
+    private List<int[]> batchPlan;
+    private int currentBatch;
+    private final Random random = new Random();
+    
     /**
      * 构造函数（预训练模式）
      * 
@@ -86,16 +96,34 @@ public class DeepSeekR1Dataset {
      * @param shouldShuffle 是否打乱
      */
     public void prepare(boolean shouldShuffle) {
-        if (shouldShuffle && shuffle) {
+        if (maxTokensPerBatch > 0) {
+            batchPlan = new LengthBucketSampler(inputLengths(), maxTokensPerBatch, 0,
+                LengthBucketSampler.DEFAULT_BUCKET_SIZE, shouldShuffle && shuffle, random.nextLong()).sampleBatches();
+        } else if (shouldShuffle && shuffle) {
             Collections.shuffle(indices, new Random());
         }
         currentIndex = 0;
+        currentBatch = 0;
+    }
+    
+    /**
+     * 每个样本的输入长度(截断到 maxSeqLength 后去掉最后一个token)
+     */
+    private int[] inputLengths() {
+        int[] lengths = new int[sequences.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = Math.max(Math.min(sequences.get(i).length, maxSeqLength) - 1, 1);
+        }
+        return lengths;
     }
     
     /**
      * 是否还有下一批数据
      */
     public boolean hasNext() {
+        if (batchPlan != null) {
+            return currentBatch < batchPlan.size();
+        }
         return currentIndex < sequences.size();
     }
     
@@ -105,17 +133,32 @@ public class DeepSeekR1Dataset {
      * @return 批次数据
      */
     public Batch nextBatch() {
-        int endIndex = Math.min(currentIndex + batchSize, sequences.size());
-        int actualBatchSize = endIndex - currentIndex;
+        int[] batchIndices;
+        int padLen = maxSeqLength;
+        if (batchPlan != null) {
+            batchIndices = batchPlan.get(currentBatch++);
+            padLen = 1;
+            for (int dataIndex : batchIndices) {
+                padLen = Math.max(padLen, Math.min(sequences.get(dataIndex).length, maxSeqLength) - 1);
+            }
+        } else {
+            int endIndex = Math.min(currentIndex + batchSize, sequences.size());
+            batchIndices = new int[endIndex - currentIndex];
+            for (int i = 0; i < batchIndices.length; i++) {
+                batchIndices[i] = indices.get(currentIndex + i);
+            }
+            currentIndex = endIndex;
+        }
+        int actualBatchSize = batchIndices.length;
         
         // 准备输入和目标
-        float[][] inputData = new float[actualBatchSize][maxSeqLength];
-        float[][] targetData = new float[actualBatchSize][maxSeqLength];
+        float[][] inputData = new float[actualBatchSize][padLen];
+        float[][] targetData = new float[actualBatchSize][padLen];
         String[] reasoningTexts = new String[actualBatchSize];
         float[] rewardScores = new float[actualBatchSize];
         
         for (int i = 0; i < actualBatchSize; i++) {
-            int dataIndex = indices.get(currentIndex + i);
+            int dataIndex = batchIndices[i];
             int[] sequence = sequences.get(dataIndex);
             
             // 填充或截断序列
@@ -140,8 +183,6 @@ public class DeepSeekR1Dataset {
             }
         }
         
-        currentIndex = endIndex;
-        
         NdArray inputIds = NdArray.of(inputData);
         NdArray targetIds = NdArray.of(targetData);
         
@@ -153,6 +194,26 @@ public class DeepSeekR1Dataset {
      */
     public void reset() {
         currentIndex = 0;
+        currentBatch = 0;
+    }
+    
+    /**
+     * 设置每批的token预算(下次 prepare 时生效)
+     * 
+     * 大于0时使用 {@link LengthBucketSampler} 将长度相近的序列分到同一批次,
+     * 批内样本数 × 批内最大长度 不超过该预算;为0时按 batchSize 组批
+     * 
+     * @param maxTokensPerBatch token预算
+     */
+    public void setMaxTokensPerBatch(int maxTokensPerBatch) {
+        this.maxTokensPerBatch = maxTokensPerBatch;
+        if (maxTokensPerBatch <= 0) {
+            batchPlan = null;
+        }
+    }
+    
+    public int getMaxTokensPerBatch() {
+        return maxTokensPerBatch;
     }
     
     /**
@@ -166,6 +227,9 @@ public class DeepSeekR1Dataset {
      * 获取批次数量
      */
     public int getBatchCount() {
+        if (batchPlan != null) {
+            return batchPlan.size();
+        }
         return (sequences.size() + batchSize - 1) / batchSize;
     }
     
@@ -214,6 +214,7 @@ public class DeepSeekR1RLVRDemo {
         // 4. 开始训练
         System.out.println("\n开始RLVR训练...");
         trainer.train();
+        trainer.close();
         
         // 5. 查看训练统计
         System.out.println("\n训练统计:");
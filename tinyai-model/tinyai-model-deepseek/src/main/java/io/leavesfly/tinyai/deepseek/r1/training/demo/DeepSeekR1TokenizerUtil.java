@@ -1,6 +1,9 @@
 package io.leavesfly.tinyai.deepseek.r1.training.demo;
 
+import io.leavesfly.tinyai.ml.dataset.BatchEncoding;
+
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * DeepSeek-R1简单分词器工具类
@@ -31,28 +34,49 @@ public class DeepSeekR1TokenizerUtil {
      * 编码文本为token ID序列
      */
     public List<Integer> encode(String text) {
+        List<Integer> tokens = new ArrayList<>();
+        for (int id : encodeIds(text)) {
+            tokens.add(id);
+        }
+        return tokens;
+    }
+    
+    /**
+     * 编码文本为int数组（不装箱）
+     */
+    public int[] encodeIds(String text) {
         String[] words = text.toLowerCase()
             .replaceAll("[^a-z0-9\\s]", " ")
             .split("\\s+");
         
-        List<Integer> tokens = new ArrayList<>();
+        int[] tokens = new int[words.length];
+        int size = 0;
         for (String word : words) {
             if (word.isEmpty()) continue;
             
-            if (!vocab.containsKey(word)) {
+            Integer id = vocab.get(word);
+            if (id == null) {
                 if (!frozen) {
+                    id = nextId;
                     vocab.put(word, nextId);
                     reverseVocab.put(nextId, word);
                     nextId++;
                 } else {
                     // 冻结后使用UNK token (id=1)
-                    tokens.add(1);
-                    continue;
+                    id = 1;
                 }
             }
-            tokens.add(vocab.get(word));
+            tokens[size++] = id;
         }
-        return tokens;
+        return size == tokens.length ? tokens : Arrays.copyOf(tokens, size);
+    }
+    
+    /**
+     * 批量编码为紧凑int存储
+     * 冻结后在公共ForkJoinPool上并行编码；未冻结时词汇表会增长，按顺序编码以保证ID分配确定
+     */
+    public BatchEncoding batchEncode(List<String> texts) {
+        return BatchEncoding.encode(texts, this::encodeIds, frozen ? ForkJoinPool.commonPool() : null);
     }
     
     /**
@@ -373,6 +373,7 @@ public class DeepSeekR1TrainDemoV2 {
         System.out.println("\n📝 开始RLVR强化学习训练...");
         System.out.println("-".repeat(80));
         rlvrTrainer.train();
+        rlvrTrainer.close();
         System.out.println("-".repeat(80));
         
         System.out.println("\n✅ RLVR训练完成!");
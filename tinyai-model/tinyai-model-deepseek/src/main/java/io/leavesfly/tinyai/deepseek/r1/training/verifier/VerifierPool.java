@@ -0,0 +1,234 @@
+package io.leavesfly.tinyai.deepseek.r1.training.verifier;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 验证器并发执行池
+ *
+ * 将一个批次的可验证奖励计算提交到固定大小的守护线程池并发执行：
+ * - 每个样本从提交时开始计时（排队时间计入），超过 timeoutMillis 仍未完成的样本判为错误（奖励0）
+ *   并取消其任务，因此忽略中断的验证器占满线程池时，排队中的样本也会按时返回
+ * - 相同的 (验证器类型, 模型输出, 标准答案) 只计算一次，结果保存在有界LRU缓存中，
+ *   同一批次内的重复样本也共享同一个计算任务
+ * - {@link #verifyAsync} 立即返回，调用方可以在等待奖励的同时继续生成下一批输出
+ *
+ * numThreads小于等于1时在调用线程上顺序执行（此时不做超时控制）。
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class VerifierPool implements AutoCloseable {
+
+    private final Map<String, Verifier> verifiers;
+    private final String defaultType;
+    private final int numThreads;
+    private final long timeoutMillis;
+    private final ExecutorService executorService;
+
+    // LRU缓存: 访问顺序的LinkedHashMap, 所有访问都在this上同步
+    private final Map<String, CompletableFuture<VerificationResult>> cache;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * 构造函数
+     *
+     * @param verifiers 验证器映射（类型 -> 验证器），验证器必须是线程安全的
+     * @param defaultType 类型未知时使用的验证器类型
+     * @param numThreads 工作线程数，小于等于1表示顺序执行
+     * @param timeoutMillis 单个样本的超时时间（毫秒）
+     * @param cacheSize 结果缓存容量，0表示不缓存
+     */
+    public VerifierPool(Map<String, Verifier> verifiers, String defaultType,
+                        int numThreads, long timeoutMillis, int cacheSize) {
+        if (!verifiers.containsKey(defaultType)) {
+            throw new IllegalArgumentException("未注册默认验证器: " + defaultType);
+        }
+        if (timeoutMillis <= 0 || cacheSize < 0) {
+            throw new IllegalArgumentException("timeoutMillis必须为正数, cacheSize不能为负数");
+        }
+        this.verifiers = verifiers;
+        this.defaultType = defaultType;
+        this.numThreads = Math.max(1, numThreads);
+        this.timeoutMillis = timeoutMillis;
+        this.cache = new LinkedHashMap<String, CompletableFuture<VerificationResult>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<VerificationResult>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        if (this.numThreads > 1) {
+            AtomicInteger threadIndex = new AtomicInteger();
+            this.executorService = Executors.newFixedThreadPool(this.numThreads, r -> {
+                Thread t = new Thread(r, "RLVR-Verifier-Worker-" + threadIndex.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.executorService = null;
+        }
+    }
+
+    /**
+     * 异步验证一个批次
+     *
+     * @param modelOutputs 模型输出
+     * @param groundTruths 标准答案
+     * @param verifierTypes 验证器类型（为null时全部使用默认验证器）
+     * @return 与输入顺序一致的验证结果
+     */
+    public CompletableFuture<List<VerificationResult>> verifyAsync(List<String> modelOutputs,
+                                                                   List<String> groundTruths,
+                                                                   List<String> verifierTypes) {
+        if (modelOutputs.size() != groundTruths.size()
+                || (verifierTypes != null && verifierTypes.size() != modelOutputs.size())) {
+            throw new IllegalArgumentException("模型输出、标准答案与验证器类型的数量必须一致");
+        }
+        List<CompletableFuture<VerificationResult>> futures = new ArrayList<>(modelOutputs.size());
+        for (int i = 0; i < modelOutputs.size(); i++) {
+            String type = verifierTypes == null ? defaultType : verifierTypes.get(i);
+            futures.add(verifyOne(type, modelOutputs.get(i), groundTruths.get(i)));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .thenApply(ignored -> {
+                List<VerificationResult> results = new ArrayList<>(futures.size());
+                for (CompletableFuture<VerificationResult> future : futures) {
+                    results.add(future.join());
+                }
+                return results;
+            });
+    }
+
+    /**
+     * 同步验证一个批次
+     *
+     * @see #verifyAsync(List, List, List)
+     */
+    public List<VerificationResult> verifyAll(List<String> modelOutputs, List<String> groundTruths,
+                                              List<String> verifierTypes) {
+        return verifyAsync(modelOutputs, groundTruths, verifierTypes).join();
+    }
+
+    /**
+     * 批次平均奖励
+     */
+    public static float averageReward(List<VerificationResult> results) {
+        if (results.isEmpty()) {
+            return 0.0f;
+        }
+        float sum = 0.0f;
+        for (VerificationResult result : results) {
+            sum += result.getReward();
+        }
+        return sum / results.size();
+    }
+
+    /**
+     * 验证单个样本（命中缓存或共享进行中的任务时不重复计算）
+     */
+    private CompletableFuture<VerificationResult> verifyOne(String type, String modelOutput, String groundTruth) {
+        Verifier verifier = verifiers.get(type);
+        if (verifier == null) {
+            type = defaultType;
+            verifier = verifiers.get(type);
+        }
+        String key = type + '\u0000' + modelOutput + '\u0000' + groundTruth;
+        CompletableFuture<VerificationResult> result;
+        synchronized (this) {
+            result = cache.get(key);
+            if (result != null) {
+                cacheHits.incrementAndGet();
+                return result;
+            }
+            result = new CompletableFuture<>();
+            cache.put(key, result);
+        }
+
+        final Verifier selected = verifier;
+        final CompletableFuture<VerificationResult> target = result;
+        if (executorService == null) {
+            target.complete(runVerifier(selected, modelOutput, groundTruth));
+        } else {
+            VerificationResult timeoutResult = new VerificationResult(
+                false, "", groundTruth, "验证超时(" + timeoutMillis + "ms)");
+            // 提交时即开始计时, 避免排队中的样本在工作线程全被占用时永远等待
+            target.completeOnTimeout(timeoutResult, timeoutMillis, TimeUnit.MILLISECONDS);
+            Future<?> task = executorService.submit(
+                () -> target.complete(runVerifier(selected, modelOutput, groundTruth)));
+            // 返回记账之后的阶段, 调用方拿到结果时超时计数与缓存清理已经完成
+            return target.whenComplete((r, e) -> {
+                if (r == timeoutResult) {
+                    timeouts.incrementAndGet();
+                    task.cancel(true);
+                    // 超时可能是偶发的, 不缓存
+                    synchronized (this) {
+                        cache.remove(key, target);
+                    }
+                }
+            });
+        }
+        return target;
+    }
+
+    private static VerificationResult runVerifier(Verifier verifier, String modelOutput, String groundTruth) {
+        try {
+            return verifier.verify(modelOutput, groundTruth);
+        } catch (RuntimeException e) {
+            return new VerificationResult(false, "", groundTruth, "验证失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 清空结果缓存
+     */
+    public synchronized void clearCache() {
+        cache.clear();
+    }
+
+    public synchronized int getCacheSize() {
+        return cache.size();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * 关闭线程池
+     */
+    @Override
+    public void close() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("VerifierPool{numThreads=%d, timeoutMillis=%d, cacheSize=%d, cacheHits=%d, timeouts=%d}",
+            numThreads, timeoutMillis, getCacheSize(), getCacheHits(), getTimeouts());
+    }
+}
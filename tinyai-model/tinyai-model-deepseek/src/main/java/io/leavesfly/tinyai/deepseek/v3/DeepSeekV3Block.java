@@ -4,6 +4,7 @@ import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertUtilization;
 import io.leavesfly.tinyai.nnet.v2.layer.norm.LayerNorm;
 
 import java.util.ArrayList;
@@ -145,11 +146,13 @@ public class DeepSeekV3Block extends Module {
         
         // 2. Transformer层堆叠（收集MoE损失）
         double totalMoELoss = 0.0;
+        List<ExpertUtilization> expertUtilizations = new ArrayList<>();
         for (DeepSeekV3TransformerBlock block : transformerBlocks) {
             DeepSeekV3TransformerBlock.DetailedForwardResult blockResult = 
                 block.forwardWithDetails(x, taskType);
             x = blockResult.output;
             totalMoELoss += blockResult.getLoadBalanceLoss();
+            expertUtilizations.add(blockResult.getExpertUtilization());
         }
         double avgMoELoss = totalMoELoss / transformerBlocks.size();
         
@@ -173,7 +176,8 @@ public class DeepSeekV3Block extends Module {
             logits, 
             reasoningResult,
             codeResult,
-            avgMoELoss
+            avgMoELoss,
+            expertUtilizations
         );
     }
     
@@ -261,15 +265,26 @@ public class DeepSeekV3Block extends Module {
         public final DeepSeekV3CodeBlock.CodeAnalysisResult codeResult;
         /** 平均MoE负载均衡损失 */
         public final double avgMoELoss;
+        /** 每层MoE的专家利用率统计 */
+        public final List<ExpertUtilization> expertUtilizations;
         
         public DetailedForwardResult(Variable logits,
                                     DeepSeekV3ReasoningBlock.ReasoningResult reasoningResult,
                                     DeepSeekV3CodeBlock.CodeAnalysisResult codeResult,
                                     double avgMoELoss) {
+            this(logits, reasoningResult, codeResult, avgMoELoss, new ArrayList<>());
+        }
+        
+        public DetailedForwardResult(Variable logits,
+                                    DeepSeekV3ReasoningBlock.ReasoningResult reasoningResult,
+                                    DeepSeekV3CodeBlock.CodeAnalysisResult codeResult,
+                                    double avgMoELoss,
+                                    List<ExpertUtilization> expertUtilizations) {
             this.logits = logits;
             this.reasoningResult = reasoningResult;
             this.codeResult = codeResult;
             this.avgMoELoss = avgMoELoss;
+            this.expertUtilizations = expertUtilizations;
         }
         
         @Override
@@ -60,6 +60,12 @@ public class DeepSeekV3Config {
     /** 专家dropout概率，默认0.1 */
     private double expertDropout = 0.1;
     
+    /** 专家容量因子，每个专家最多处理 ceil(因子 × token数 × topK / 专家数) 个token，0表示不限制 */
+    private double expertCapacityFactor = 0.0;
+    
+    /** 是否在工作线程池上并发执行各专家，默认关闭（并发构建计算图尚未验证与顺序执行梯度一致） */
+    private boolean expertParallel = false;
+    
     // ==================== 任务感知配置 ====================
     
     /** 是否启用任务感知路由，默认启用 */
@@ -299,6 +305,9 @@ public class DeepSeekV3Config {
         if (loadBalanceLossWeight < 0) {
             throw new IllegalArgumentException("负载均衡损失权重必须非负，实际: " + loadBalanceLossWeight);
         }
+        if (expertCapacityFactor < 0) {
+            throw new IllegalArgumentException("专家容量因子必须非负，实际: " + expertCapacityFactor);
+        }
         if (residPdrop < 0 || residPdrop >= 1) {
             throw new IllegalArgumentException("残差dropout概率必须在[0,1)范围内，实际: " + residPdrop);
         }
@@ -515,6 +524,22 @@ public class DeepSeekV3Config {
         this.expertDropout = expertDropout;
     }
     
+    public double getExpertCapacityFactor() {
+        return expertCapacityFactor;
+    }
+    
+    public void setExpertCapacityFactor(double expertCapacityFactor) {
+        this.expertCapacityFactor = expertCapacityFactor;
+    }
+    
+    public boolean isExpertParallel() {
+        return expertParallel;
+    }
+    
+    public void setExpertParallel(boolean expertParallel) {
+        this.expertParallel = expertParallel;
+    }
+    
     public boolean isEnableTaskAwareRouting() {
         return enableTaskAwareRouting;
     }
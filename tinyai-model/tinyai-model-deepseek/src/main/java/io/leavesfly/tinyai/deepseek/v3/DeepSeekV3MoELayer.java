@@ -8,6 +8,9 @@ import io.leavesfly.tinyai.nnet.v2.core.Parameter;
 import io.leavesfly.tinyai.nnet.v2.layer.activation.GELU;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Dropout;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertDispatcher;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertParallelExecutor;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertUtilization;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -42,6 +45,9 @@ public class DeepSeekV3MoELayer extends Module {
     // Dropout层
     private Dropout expertDropout;
     
+    // 最近一次前向的专家利用率
+    private ExpertUtilization lastUtilization;
+    
     /**
      * 构造函数
      * 
@@ -138,12 +144,14 @@ public class DeepSeekV3MoELayer extends Module {
         TopKResult topKResult = selectTopK(gatingProbs, config.getTopK());
         
         // 5. 专家计算
-        Variable expertOutputs = computeExpertOutputs(input, topKResult);
+        ExpertDispatcher.DispatchResult dispatchResult = computeExpertOutputs(input, topKResult);
+        lastUtilization = dispatchResult.getUtilization();
         
         // 6. 计算负载均衡损失
         double loadBalanceLoss = computeLoadBalanceLoss(gatingProbs);
         
-        return new MoEOutput(expertOutputs, gatingProbs, topKResult, loadBalanceLoss);
+        return new MoEOutput(dispatchResult.getOutput(), gatingProbs, topKResult,
+                             loadBalanceLoss, lastUtilization);
     }
     
     /**
@@ -263,114 +271,44 @@ public class DeepSeekV3MoELayer extends Module {
     }
     
     /**
-     * 计算所有专家的输出并加权组合
+     * 计算专家输出并加权组合（稀疏分发）
      * 
-     * ✅ 优化方案：批量计算，完全在Variable层面
      * 策略：
-     * 1. 让所有专家并行处理整个batch的输入
-     * 2. 根据TopK结果构建权重矩阵
-     * 3. 使用Variable算子进行加权组合
+     * 1. 将输入展平为 [batch_size * seq_len, nEmbd] 的token行
+     * 2. 根据TopK结果为每个专家收集被路由到它的token（gather），超出容量的token被丢弃
+     * 3. 各专家在工作线程池上并发地只对自己的token前向计算
+     * 4. 按门控权重加权后scatter-add回原token位置
      * 
-     * 这样既保证了梯度回传，又避免了逐位置的循环
+     * 计算量为 topK 个专家而非全部专家，gather/scatter均可反向传播
      */
-    private Variable computeExpertOutputs(Variable input, TopKResult topKResult) {
-        int batchSize = input.getValue().getShape().getDimension(0);
-        int seqLen = input.getValue().getShape().getDimension(1);
-        int nEmbd = input.getValue().getShape().getDimension(2);
-        int numExperts = config.getNumExperts();
-        
-        // ✅ 方案1：所有专家并行计算（推荐用于推理）
-        // 存储所有专家的输出
-        List<Variable> expertOutputs = new ArrayList<>();
-        for (int i = 0; i < numExperts; i++) {
-            // 每个专家处理整个batch
-            Variable expertOut = experts.get(i).forward(input);
-            expertOutputs.add(expertOut);
-        }
-        
-        // ✅ 构建专家选择和权重矩阵
-        // 对于每个位置(b,t)，根据TopK结果加权组合对应的专家输出
-        Variable result = createWeightedExpertCombination(
-            expertOutputs, topKResult, batchSize, seqLen, nEmbd
+    private ExpertDispatcher.DispatchResult computeExpertOutputs(Variable input, TopKResult topKResult) {
+        Shape inputShape = input.getValue().getShape();
+        int batchSize = inputShape.getDimension(0);
+        int seqLen = inputShape.getDimension(1);
+        int nEmbd = inputShape.getDimension(2);
+        
+        Variable flatInput = input.reshape(Shape.of(batchSize * seqLen, nEmbd));
+        ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(
+            topKResult.indices, topKResult.weights, config.getNumExperts(),
+            (float) config.getExpertCapacityFactor()
         );
         
-        return result;
-    }
-    
-    /**
-     * ✅ 根据TopK结果加权组合专家输出（在Variable层面）
-     */
-    private Variable createWeightedExpertCombination(
-            List<Variable> expertOutputs,
-            TopKResult topKResult,
-            int batchSize,
-            int seqLen,
-            int nEmbd) {
-        
-        // 初始化输出为零
-        NdArray outputArray = NdArray.zeros(Shape.of(batchSize, seqLen, nEmbd));
-        Variable output = new Variable(outputArray);
-        
-        // 对每个专家，构建其权重mask并累加
-        for (int expertIdx = 0; expertIdx < expertOutputs.size(); expertIdx++) {
-            // 构建该专家的权重矩阵 [batch_size, seq_len, 1]
-            Variable weightMask = createExpertWeightMask(
-                expertIdx, topKResult, batchSize, seqLen
-            );
-            
-            // 如果该专家没有被任何位置选中，跳过
-            if (isZeroMask(weightMask)) {
-                continue;
-            }
-            
-            // 获取该专家的输出并加权
-            Variable expertOut = expertOutputs.get(expertIdx);
-            
-            // 使用广播乘法: [batch, seq, 1] × [batch, seq, nEmbd]
-            // 避免使用repeat创建大量中间变量
-            Variable weightedOut = expertOut.mul(weightMask);
-            
-            // ✅ 累加到输出（在Variable层面）
-            output = output.add(weightedOut);
-        }
-        
-        return output;
-    }
-    
-    /**
-     * 为指定专家创建权重mask
-     * 返回 [batch_size, seq_len, 1] 的权重矩阵
-     */
-    private Variable createExpertWeightMask(
-            int expertIdx,
-            TopKResult topKResult,
-            int batchSize,
-            int seqLen) {
-        
-        float[][][] weights = new float[batchSize][seqLen][1];
-        
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < seqLen; t++) {
-                // 检查该位置的TopK中是否包含当前专家
-                for (int k = 0; k < config.getTopK(); k++) {
-                    if (topKResult.indices[b][t][k] == expertIdx) {
-                        weights[b][t][0] = topKResult.weights[b][t][k];
-                        break;
-                    }
-                }
-            }
-        }
-        
-        return new Variable(NdArray.of(weights));
+        ExpertParallelExecutor executor = config.isExpertParallel()
+            ? ExpertParallelExecutor.shared()
+            : ExpertParallelExecutor.sequential();
+        ExpertDispatcher.DispatchResult result = ExpertDispatcher.dispatch(
+            flatInput, plan, experts, nEmbd, executor
+        );
+        return new ExpertDispatcher.DispatchResult(
+            result.getOutput().reshape(inputShape), result.getUtilization()
+        );
     }
     
     /**
-     * 检查权重mask是否全为0
+     * 获取最近一次前向传播的专家利用率统计
      */
-    private boolean isZeroMask(Variable mask) {
-        NdArray arr = mask.getValue();
-        float sum = arr.sum().getNumber().floatValue();
-        return Math.abs(sum) < 1e-9f;
+    public ExpertUtilization getLastUtilization() {
+        return lastUtilization;
     }
     
     /**
@@ -471,20 +409,29 @@ public class DeepSeekV3MoELayer extends Module {
         public final TopKResult topKResult;
         /** 负载均衡损失 */
         public final double loadBalanceLoss;
+        /** 专家利用率统计 */
+        public final ExpertUtilization utilization;
         
         public MoEOutput(Variable output, Variable gatingProbs, 
                         TopKResult topKResult, double loadBalanceLoss) {
+            this(output, gatingProbs, topKResult, loadBalanceLoss, null);
+        }
+        
+        public MoEOutput(Variable output, Variable gatingProbs, TopKResult topKResult,
+                        double loadBalanceLoss, ExpertUtilization utilization) {
             this.output = output;
             this.gatingProbs = gatingProbs;
             this.topKResult = topKResult;
             this.loadBalanceLoss = loadBalanceLoss;
+            this.utilization = utilization;
         }
         
         @Override
         public String toString() {
             return String.format(
-                "MoEOutput{loadBalanceLoss=%.6f, outputShape=%s}",
+                "MoEOutput{loadBalanceLoss=%.6f, dropRate=%.4f, outputShape=%s}",
                 loadBalanceLoss,
+                utilization != null ? utilization.getDropRate() : 0.0f,
                 output.getValue().getShape()
             );
         }
@@ -3,6 +3,7 @@ package io.leavesfly.tinyai.deepseek.v3;
 import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Dropout;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertUtilization;
 import io.leavesfly.tinyai.nnet.v2.layer.norm.LayerNorm;
 import io.leavesfly.tinyai.nnet.v2.layer.transformer.MultiHeadAttention;
 
@@ -84,7 +85,6 @@ public class DeepSeekV3TransformerBlock extends Module {
         }
         
         Variable x = inputs[0];
-        int seqLen = x.getValue().getShape().getDimension(1);
         
         // 提取任务类型（如果提供）
         TaskType taskType = null;
@@ -92,13 +92,10 @@ public class DeepSeekV3TransformerBlock extends Module {
             // 实际使用中需要从Variable中提取TaskType
         }
         
-        // 生成因果掩码（下三角矩阵）
-        Variable causalMask = MultiHeadAttention.generateCausalMaskBatched(seqLen);
-        
         // ===== 注意力子层 (Pre-LN) =====
         // LN -> MultiHeadAttention -> Dropout -> Add
         Variable normalized1 = layerNorm1.forward(x);
-        Variable attnOutput = attention.forward(normalized1, normalized1, normalized1, causalMask, null);
+        Variable attnOutput = attention.forwardCausal(normalized1);
         attnOutput = attnDropout.forward(attnOutput);
         Variable residual1 = x.add(attnOutput);
         
@@ -127,14 +124,9 @@ public class DeepSeekV3TransformerBlock extends Module {
      * @return 详细输出结果
      */
     public DetailedForwardResult forwardWithDetails(Variable input, TaskType taskType) {
-        int seqLen = input.getValue().getShape().getDimension(1);
-        
-        // 生成因果掩码
-        Variable causalMask = MultiHeadAttention.generateCausalMaskBatched(seqLen);
-        
         // ===== 注意力子层 =====
         Variable normalized1 = layerNorm1.forward(input);
-        Variable attnOutput = attention.forward(normalized1, normalized1, normalized1, causalMask, null);
+        Variable attnOutput = attention.forwardCausal(normalized1);
         attnOutput = attnDropout.forward(attnOutput);
         Variable residual1 = input.add(attnOutput);
         
@@ -181,6 +173,13 @@ public class DeepSeekV3TransformerBlock extends Module {
             return moeOutput.loadBalanceLoss;
         }
         
+        /**
+         * 获取专家利用率统计
+         */
+        public ExpertUtilization getExpertUtilization() {
+            return moeOutput.utilization;
+        }
+        
         @Override
         public String toString() {
             return String.format(
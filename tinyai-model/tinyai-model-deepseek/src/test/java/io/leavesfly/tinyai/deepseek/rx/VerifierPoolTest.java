@@ -0,0 +1,162 @@
+package io.leavesfly.tinyai.deepseek.rx;
+
+import io.leavesfly.tinyai.deepseek.r1.training.verifier.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * VerifierPool单元测试
+ * 
+ * 测试范围：
+ * 1. 并发验证结果与逐条顺序验证一致
+ * 2. 相同(输出, 标准答案)只计算一次
+ * 3. 单样本超时判为错误（排队中的样本同样计时）
+ * 4. 未知验证器类型回退到默认验证器
+ * 
+ * @author leavesfly
+ */
+public class VerifierPoolTest {
+    
+    /**
+     * 计数并可选延迟的验证器
+     */
+    private static class CountingVerifier implements Verifier {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final long sleepMillis;
+        
+        CountingVerifier(long sleepMillis) {
+            this.sleepMillis = sleepMillis;
+        }
+        
+        @Override
+        public VerificationResult verify(String modelOutput, String groundTruth) {
+            calls.incrementAndGet();
+            if (sleepMillis > 0 && modelOutput.contains("slow")) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new VerificationResult(modelOutput.endsWith(groundTruth));
+        }
+        
+        @Override
+        public String getVerifierType() {
+            return "counting";
+        }
+        
+        @Override
+        public String extractAnswer(String modelOutput) {
+            return modelOutput;
+        }
+    }
+    
+    @Test
+    public void testParallelMatchesSequential() {
+        Map<String, Verifier> verifiers = new HashMap<>();
+        verifiers.put("math", new MathVerifier());
+        verifiers.put("logic", new LogicVerifier());
+        
+        List<String> outputs = new ArrayList<>();
+        List<String> truths = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            outputs.add("Let me solve this step by step. The answer is " + i + ".");
+            truths.add(String.valueOf(i % 3 == 0 ? i : i + 1));
+            types.add(i % 5 == 0 ? "unknown" : "math");
+        }
+        
+        try (VerifierPool parallel = new VerifierPool(verifiers, "math", 4, 5000, 128);
+             VerifierPool sequential = new VerifierPool(verifiers, "math", 1, 5000, 0)) {
+            List<VerificationResult> expected = sequential.verifyAll(outputs, truths, types);
+            List<VerificationResult> actual = parallel.verifyAsync(outputs, truths, types).join();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).isCorrect(), actual.get(i).isCorrect(), "样本 " + i);
+                assertEquals(i % 3 == 0, actual.get(i).isCorrect(), "样本 " + i);
+            }
+            assertEquals(14 / 40.0f, VerifierPool.averageReward(actual), 1e-6f);
+        }
+    }
+    
+    @Test
+    public void testDuplicatesAreMemoized() {
+        CountingVerifier verifier = new CountingVerifier(0);
+        Map<String, Verifier> verifiers = Collections.singletonMap("math", verifier);
+        
+        try (VerifierPool pool = new VerifierPool(verifiers, "math", 4, 5000, 16)) {
+            List<String> outputs = Arrays.asList("a 1", "a 1", "b 2", "a 1", "b 3");
+            List<String> truths = Arrays.asList("1", "1", "2", "1", "2");
+            List<VerificationResult> results = pool.verifyAll(outputs, truths, null);
+            assertEquals(3, verifier.calls.get());
+            assertTrue(results.get(0).isCorrect());
+            assertFalse(results.get(4).isCorrect());
+            
+            pool.verifyAll(Collections.singletonList("a 1"), Collections.singletonList("1"), null);
+            assertEquals(3, verifier.calls.get());
+            assertEquals(3, pool.getCacheHits());
+            
+            pool.clearCache();
+            pool.verifyAll(Collections.singletonList("a 1"), Collections.singletonList("1"), null);
+            assertEquals(4, verifier.calls.get());
+        }
+    }
+    
+    @Test
+    public void testTimeoutMarksSampleIncorrect() {
+        CountingVerifier verifier = new CountingVerifier(10_000);
+        Map<String, Verifier> verifiers = Collections.singletonMap("code", verifier);
+        
+        try (VerifierPool pool = new VerifierPool(verifiers, "code", 2, 100, 16)) {
+            long start = System.currentTimeMillis();
+            List<VerificationResult> results = pool.verifyAll(
+                Arrays.asList("slow 1", "fast 1"), Arrays.asList("1", "1"), null);
+            assertTrue(System.currentTimeMillis() - start < 5000, "超时样本不应阻塞整个批次");
+            assertFalse(results.get(0).isCorrect());
+            assertTrue(results.get(0).getVerificationDetails().contains("超时"));
+            assertTrue(results.get(1).isCorrect());
+            assertEquals(1, pool.getTimeouts());
+            // 超时结果不缓存
+            assertEquals(1, pool.getCacheSize());
+        }
+    }
+    
+    @Test
+    public void testQueuedSamplesTimeOutWhenWorkersHang() {
+        // 忽略中断的验证器占满全部工作线程, 排队中的样本也必须按时超时返回
+        CountDownLatch release = new CountDownLatch(1);
+        Verifier hanging = new CountingVerifier(0) {
+            @Override
+            public VerificationResult verify(String modelOutput, String groundTruth) {
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                        // 故意忽略中断
+                    }
+                }
+                return new VerificationResult(true);
+            }
+        };
+        Map<String, Verifier> verifiers = Collections.singletonMap("code", hanging);
+        
+        try (VerifierPool pool = new VerifierPool(verifiers, "code", 2, 200, 16)) {
+            long start = System.currentTimeMillis();
+            List<VerificationResult> results = pool.verifyAll(
+                Arrays.asList("a", "b", "c", "d", "e"), Collections.nCopies(5, "x"), null);
+            assertTrue(System.currentTimeMillis() - start < 3000, "排队中的样本应在超时后返回");
+            for (VerificationResult result : results) {
+                assertFalse(result.isCorrect());
+            }
+            assertEquals(5, pool.getTimeouts());
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -57,11 +57,8 @@ public class GPT1TransformerBlock extends Module {
     @Override
     public Variable forward(Variable... inputs) {
         Variable x = inputs[0];
-        int seqLen = x.getValue().getShape().getDimension(1);
-        Variable causalMask = MultiHeadAttention.generateCausalMaskBatched(seqLen);
-        
         // Post-LayerNorm: Attention -> Add -> LN -> FFN -> Add -> LN
-        Variable attnOutput = attention.forward(x, x, x, causalMask, null);
+        Variable attnOutput = attention.forwardCausal(x);
         attnOutput = attnDropout.forward(attnOutput);
         Variable residual1 = layerNorm1.forward(x.add(attnOutput));
         
@@ -1,9 +1,14 @@
 package io.leavesfly.tinyai.gpt1.training;
 
+import io.leavesfly.tinyai.func.NoGrad;
 import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.gpt1.GPT1Model;
+import io.leavesfly.tinyai.ml.inference.CausalLanguageModel;
+import io.leavesfly.tinyai.ml.inference.SpeculativeDecoder;
+import io.leavesfly.tinyai.ml.inference.SpeculativeResult;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
+import io.leavesfly.tinyai.nnet.v2.core.Module;
 
 import java.util.*;
 
@@ -16,6 +21,7 @@ import java.util.*;
  * 3. Top-P采样 (Nucleus Sampling)
  * 4. 温度采样 (Temperature Sampling)
  * 5. Beam Search
+ * 6. 投机解码 (Speculative Decoding)
  * 
  * @author TinyAI
  * @since 2024
@@ -371,6 +377,47 @@ public class GPT1Inference {
         return toArray(beams.get(0).tokens);
     }
     
+    /**
+     * 投机解码生成
+     * <p>
+     * 由小的草稿模型（如MiniMind）每轮提出numDraftTokens个候选，本模型一次前向批量验证，
+     * 输出分布与直接从本模型采样一致。
+     * 
+     * @param promptIds 提示词token序列
+     * @param maxNewTokens 最大生成token数
+     * @param draftModel 草稿模型（需与本模型共享词表）
+     * @param numDraftTokens 每轮草稿token数
+     * @param temperature 温度参数(0表示贪婪)
+     * @return 生成序列及接受率、吞吐量等统计
+     */
+    public SpeculativeResult generateSpeculative(int[] promptIds, int maxNewTokens,
+                                                 CausalLanguageModel draftModel, int numDraftTokens,
+                                                 float temperature) {
+        SpeculativeDecoder decoder = new SpeculativeDecoder(draftModel, asCausalLanguageModel(),
+            numDraftTokens, temperature, 0, -1, new Random());
+        return decoder.generate(promptIds, maxNewTokens);
+    }
+    
+    /**
+     * 将GPT-1模型包装为投机解码可用的语言模型
+     * 
+     * 每次前向临时切换到推理模式并在 {@link NoGrad} 作用域内执行，结束后恢复原来的模式
+     * 
+     * @return 语言模型视图
+     */
+    public CausalLanguageModel asCausalLanguageModel() {
+        Module module = model.getModule();
+        return CausalLanguageModel.of(ids -> {
+            boolean wasTraining = module.isTraining();
+            module.eval();
+            try (NoGrad ignored = NoGrad.enter()) {
+                return model.predict(new Variable(ids)).getValue();
+            } finally {
+                module.train(wasTraining);
+            }
+        }, maxSeqLen);
+    }
+    
     // ========== 辅助方法 ==========
     
     /**
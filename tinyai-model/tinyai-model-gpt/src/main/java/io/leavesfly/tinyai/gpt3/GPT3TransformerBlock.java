@@ -95,16 +95,13 @@ public class GPT3TransformerBlock extends Module {
     public Variable forward(Variable... inputs) {
         Variable x = inputs[0];  // (batch_size, seq_len, n_embd)
         
-        // 获取序列长度并生成因果掩码
-        int seqLen = x.getValue().getShape().getDimension(1);
-        Variable causalMask = MultiHeadAttention.generateCausalMaskBatched(seqLen);
-        
+        // 因果掩码由注意力层的融合核隐式处理
         if (config.isParallelAttention()) {
             // GPT-3并行架构
-            return forwardParallel(x, causalMask);
+            return forwardParallel(x);
         } else {
             // 回退到GPT-2串行架构（兼容模式）
-            return forwardSequential(x, causalMask);
+            return forwardSequential(x);
         }
     }
     
@@ -113,13 +110,12 @@ public class GPT3TransformerBlock extends Module {
      * 同时计算注意力和MLP，然后合并
      * 
      * @param x 输入变量
-     * @param causalMask 因果掩码
      * @return 输出变量
      */
-    private Variable forwardParallel(Variable x, Variable causalMask) {
+    private Variable forwardParallel(Variable x) {
         // 注意力分支：LayerNorm -> Attention
         Variable attnInput = layerNorm1.forward(x);
-        Variable attnOutput = attention.forward(attnInput, attnInput, attnInput, causalMask, null);
+        Variable attnOutput = attention.forwardCausal(attnInput);
         attnOutput = attnDropout.forward(attnOutput);
         
         // MLP分支：LayerNorm -> Linear -> GELU -> Linear
@@ -139,13 +135,12 @@ public class GPT3TransformerBlock extends Module {
      * GPT-2风格的串行前向传播（兼容模式）
      * 
      * @param x 输入变量
-     * @param causalMask 因果掩码
      * @return 输出变量
      */
-    private Variable forwardSequential(Variable x, Variable causalMask) {
+    private Variable forwardSequential(Variable x) {
         // 第一个子层：LayerNorm -> Attention -> Residual
         Variable normalized1 = layerNorm1.forward(x);
-        Variable attnOutput = attention.forward(normalized1, normalized1, normalized1, causalMask, null);
+        Variable attnOutput = attention.forwardCausal(normalized1);
         attnOutput = attnDropout.forward(attnOutput);
         Variable residual1 = x.add(attnOutput);
         
@@ -1,9 +1,12 @@
 package io.leavesfly.tinyai.nlp;
 
+import io.leavesfly.tinyai.ml.dataset.BatchEncoding;
+
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * 中文分词器 - 专门用于古诗词文本处理
@@ -212,6 +215,59 @@ public class ChineseTokenizer {
         return tokenIds;
     }
     
+    /**
+     * 编码文本为int数组（不装箱）
+     * 
+     * @param text 输入文本
+     * @param addSpecialTokens 是否添加特殊token（BOS/EOS）
+     * @return token ID数组
+     */
+    public int[] encodeIds(String text, boolean addSpecialTokens) {
+        int[] tokenIds = new int[text.length() + (addSpecialTokens ? 2 : 0)];
+        int pos = 0;
+        
+        if (addSpecialTokens) {
+            tokenIds[pos++] = BOS_TOKEN_ID;
+        }
+        
+        // 与 tokenizeToChars 一致：逐字符编码，跳过空白字符
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (!Character.isWhitespace(ch)) {
+                tokenIds[pos++] = tokenToId.getOrDefault(String.valueOf(ch), UNK_TOKEN_ID);
+            }
+        }
+        
+        if (addSpecialTokens) {
+            tokenIds[pos++] = EOS_TOKEN_ID;
+        }
+        
+        return pos == tokenIds.length ? tokenIds : Arrays.copyOf(tokenIds, pos);
+    }
+    
+    /**
+     * 并行批量编码
+     * 
+     * @param texts 文本列表
+     * @param addSpecialTokens 是否添加特殊token（BOS/EOS）
+     * @return 批量编码结果（紧凑int存储）
+     */
+    public BatchEncoding batchEncode(List<String> texts, boolean addSpecialTokens) {
+        return batchEncode(texts, addSpecialTokens, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * 在指定线程池上并行批量编码（编码期间不要修改词汇表）
+     * 
+     * @param texts 文本列表
+     * @param addSpecialTokens 是否添加特殊token（BOS/EOS）
+     * @param pool 线程池
+     * @return 批量编码结果（紧凑int存储）
+     */
+    public BatchEncoding batchEncode(List<String> texts, boolean addSpecialTokens, ForkJoinPool pool) {
+        return BatchEncoding.encode(texts, text -> encodeIds(text, addSpecialTokens), pool);
+    }
+    
     /**
      * 编码文本为token ID序列（默认添加特殊token）
      * 
@@ -1,6 +1,9 @@
 package io.leavesfly.tinyai.nlp;
 
+import io.leavesfly.tinyai.ml.dataset.BatchEncoding;
+
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 
 /**
@@ -191,26 +194,51 @@ public class SimpleTokenizer {
      */
     public int[] encode(String text, boolean addSpecialTokens) {
         List<String> tokens = tokenize(text);
-        List<Integer> tokenIds = new ArrayList<>();
+        int[] tokenIds = new int[tokens.size() + (addSpecialTokens ? 2 : 0)];
+        int pos = 0;
         
         // 添加开始token
         if (addSpecialTokens) {
-            tokenIds.add(BOS_ID);
+            tokenIds[pos++] = BOS_ID;
         }
         
         // 转换token为ID
         for (String token : tokens) {
-            int tokenId = vocab.getOrDefault(token, UNK_ID);
-            tokenIds.add(tokenId);
+            tokenIds[pos++] = vocab.getOrDefault(token, UNK_ID);
         }
         
         // 添加结束token
         if (addSpecialTokens) {
-            tokenIds.add(EOS_ID);
+            tokenIds[pos] = EOS_ID;
         }
         
-        // 转换为数组
-        return tokenIds.stream().mapToInt(Integer::intValue).toArray();
+        return tokenIds;
+    }
+    
+    /**
+     * 并行批量编码
+     * 
+     * 在公共ForkJoinPool上逐条编码，结果以紧凑int数组存储，
+     * 可通过 {@link BatchEncoding#toNdArray(int, int)} 填充为 [batch, maxLen] 的输入。
+     * 
+     * @param texts 文本列表
+     * @param addSpecialTokens 是否添加特殊token
+     * @return 批量编码结果
+     */
+    public BatchEncoding batchEncode(List<String> texts, boolean addSpecialTokens) {
+        return batchEncode(texts, addSpecialTokens, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * 在指定线程池上并行批量编码（编码期间不要修改词汇表）
+     * 
+     * @param texts 文本列表
+     * @param addSpecialTokens 是否添加特殊token
+     * @param pool 线程池
+     * @return 批量编码结果
+     */
+    public BatchEncoding batchEncode(List<String> texts, boolean addSpecialTokens, ForkJoinPool pool) {
+        return BatchEncoding.encode(texts, text -> encode(text, addSpecialTokens), pool);
     }
     
     /**
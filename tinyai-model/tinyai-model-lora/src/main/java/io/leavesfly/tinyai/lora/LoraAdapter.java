@@ -73,7 +73,47 @@ public class LoraAdapter {
         this.matrixB = new Parameter(initB);
         this.matrixB.setName("lora_B");
     }
-    
+
+    /**
+     * 从已训练的矩阵构造LoRA适配器（用于推理时加载适配器）
+     *
+     * @param matrixA 下降矩阵A，形状 (input_dim, rank)
+     * @param matrixB 上升矩阵B，形状 (rank, output_dim)
+     * @param config LoRA配置，rank需与矩阵一致
+     */
+    public LoraAdapter(NdArray matrixA, NdArray matrixB, LoraConfig config) {
+        int rank = config.getRank();
+        if (matrixA.getShape().getDimNum() != 2 || matrixB.getShape().getDimNum() != 2
+                || matrixA.getShape().getDimension(1) != rank || matrixB.getShape().getDimension(0) != rank) {
+            throw new IllegalArgumentException(String.format(
+                    "LoRA矩阵形状与rank=%d不匹配: A=%s, B=%s", rank, matrixA.getShape(), matrixB.getShape()));
+        }
+        this.config = config;
+        this.scaling = (double) config.getAlpha() / rank;
+        this.matrixA = new Parameter(matrixA, false);
+        this.matrixA.setName("lora_A");
+        this.matrixB = new Parameter(matrixB, false);
+        this.matrixB.setName("lora_B");
+    }
+
+    /**
+     * 输入维度
+     *
+     * @return 矩阵A的行数
+     */
+    public int getInputDim() {
+        return matrixA.getValue().getShape().getDimension(0);
+    }
+
+    /**
+     * 输出维度
+     *
+     * @return 矩阵B的列数
+     */
+    public int getOutputDim() {
+        return matrixB.getValue().getShape().getDimension(1);
+    }
+
     /**
      * LoRA前向传播
      * 计算 x * A * B * scaling
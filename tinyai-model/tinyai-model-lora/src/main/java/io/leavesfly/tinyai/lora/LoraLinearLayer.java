@@ -6,9 +6,15 @@ import io.leavesfly.tinyai.ndarr.Shape;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.core.Parameter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * LoRA线性层 - 集成了LoRA适配器的线性层
@@ -21,6 +27,11 @@ import java.util.Map;
  * - A, B 是可训练的低秩矩阵
  * <p>
  * 在微调过程中，原始权重W保持冻结，只训练LoRA参数A和B。
+ * <p>
+ * 推理时可以在同一冻结权重上并排加载多个命名适配器（{@link #loadAdapter}），
+ * 同一批次中的不同样本可以使用不同的适配器（{@link #forwardWithAdapters}）。
+ * 也可以将某个适配器原地合并进冻结权重（{@link #mergeInPlace()}），推理时省去低秩计算，
+ * 之后再原地拆分（{@link #unmergeInPlace()}）恢复基础权重。
  *
  * @author leavesfly
  * @version 1.0
@@ -60,6 +71,16 @@ public class LoraLinearLayer extends Module {
      */
     private boolean freezeOriginalWeights = true;
 
+    /**
+     * 推理时加载的命名适配器，可在运行时增删
+     */
+    private final Map<String, LoraAdapter> servingAdapters = new ConcurrentHashMap<>();
+
+    /**
+     * 已原地合并进冻结权重的适配器（合并时的参数快照），null表示未合并
+     */
+    private volatile LoraAdapter mergedAdapter;
+
     /**
      * 构造函数 - 从头开始创建LoRA线性层
      *
@@ -154,11 +175,14 @@ public class LoraLinearLayer extends Module {
         // 1. 计算原始线性变换: input * W_frozen
         Variable originalOutput = input.matMul(frozenWeight);
 
-        // 2. 计算LoRA增量: input * A * B * scaling
-        Variable loraOutput = loraAdapter.forward(input);
+        // 2. 计算LoRA增量: input * A * B * scaling（已合并时权重中已包含增量）
+        Variable combinedOutput = originalOutput;
+        if (mergedAdapter == null) {
+            Variable loraOutput = loraAdapter.forward(input);
 
-        // 3. 合并输出: (W_frozen + ΔW) * input = W_frozen * input + ΔW * input
-        Variable combinedOutput = originalOutput.add(loraOutput);
+            // 3. 合并输出: (W_frozen + ΔW) * input = W_frozen * input + ΔW * input
+            combinedOutput = originalOutput.add(loraOutput);
+        }
 
         // 4. 添加偏置项
         if (bias != null) {
@@ -168,6 +192,147 @@ public class LoraLinearLayer extends Module {
         return combinedOutput;
     }
 
+    /**
+     * 加载命名适配器（不影响冻结权重与训练用的适配器），同名适配器会被替换
+     *
+     * @param adapterName 适配器名称
+     * @param adapter     适配器，输入输出维度需与本层一致
+     */
+    public void loadAdapter(String adapterName, LoraAdapter adapter) {
+        if (adapter.getInputDim() != inputDim || adapter.getOutputDim() != outputDim) {
+            throw new IllegalArgumentException(String.format(
+                    "适配器 %s 维度(%d, %d)与层 %s 维度(%d, %d)不一致", adapterName,
+                    adapter.getInputDim(), adapter.getOutputDim(), getName(), inputDim, outputDim));
+        }
+        servingAdapters.put(adapterName, adapter);
+    }
+
+    /**
+     * 卸载命名适配器
+     *
+     * @param adapterName 适配器名称
+     * @return 被卸载的适配器，不存在时为null
+     */
+    public LoraAdapter unloadAdapter(String adapterName) {
+        return servingAdapters.remove(adapterName);
+    }
+
+    /**
+     * 获取命名适配器
+     *
+     * @param adapterName 适配器名称
+     * @return 适配器，不存在时为null
+     */
+    public LoraAdapter getAdapter(String adapterName) {
+        return servingAdapters.get(adapterName);
+    }
+
+    /**
+     * 获取已加载的适配器名称
+     *
+     * @return 适配器名称集合（只读）
+     */
+    public Set<String> getAdapterNames() {
+        return Collections.unmodifiableSet(servingAdapters.keySet());
+    }
+
+    /**
+     * 多适配器前向传播：每个样本按名称选择适配器
+     *
+     * @param input        输入，形状 (batch, ..., input_dim)
+     * @param rowAdapters  每个样本的适配器名称，null表示只使用冻结权重
+     * @return 输出，形状 (batch, ..., output_dim)
+     * @see #forwardWithAdapters(Variable, LoraAdapter[])
+     */
+    public Variable forwardWithAdapters(Variable input, String[] rowAdapters) {
+        LoraAdapter[] adapters = new LoraAdapter[rowAdapters.length];
+        for (int i = 0; i < rowAdapters.length; i++) {
+            if (rowAdapters[i] != null) {
+                adapters[i] = servingAdapters.get(rowAdapters[i]);
+                if (adapters[i] == null) {
+                    throw new IllegalArgumentException("层 " + getName() + " 未加载适配器: " + rowAdapters[i]);
+                }
+            }
+        }
+        return forwardWithAdapters(input, adapters);
+    }
+
+    /**
+     * 多适配器前向传播（推理路径，不构建计算图）
+     * <p>
+     * 先对整个批次做一次基础矩阵乘法 x * W，再把使用同一适配器的样本聚成一组，
+     * 每组做一次低秩乘法 (x_g * A) * B * scaling 并加回对应的行：
+     * 冻结权重只读一遍，低秩部分的计算量与适配器种类数无关。
+     *
+     * @param input       输入，形状 (batch, ..., input_dim)
+     * @param rowAdapters 每个样本的适配器，null表示只使用冻结权重
+     * @return 输出，形状 (batch, ..., output_dim)
+     */
+    public Variable forwardWithAdapters(Variable input, LoraAdapter[] rowAdapters) {
+        if (mergedAdapter != null) {
+            throw new IllegalStateException("层 " + getName() + " 已合并适配器，请先 unmergeInPlace");
+        }
+        NdArray x = input.getValue();
+        int[] dims = x.getShape().getShapeDims();
+        if (dims[dims.length - 1] != inputDim) {
+            throw new IllegalArgumentException("输入最后一维应为 " + inputDim + ", 实际为 " + x.getShape());
+        }
+        int rows = x.getShape().size() / inputDim;
+        if (rowAdapters.length == 0 || rows % rowAdapters.length != 0) {
+            throw new IllegalArgumentException("适配器数量 " + rowAdapters.length + " 与批次行数 " + rows + " 不匹配");
+        }
+        int rowsPerSample = rows / rowAdapters.length;
+
+        // 1. 基础矩阵乘法，整个批次共享
+        float[] xData = x.getArray();
+        float[] out = NdArray.of(xData, Shape.of(rows, inputDim)).dot(frozenWeight.getValue()).getArray();
+        if (bias != null) {
+            float[] b = bias.getValue().getArray();
+            for (int r = 0; r < rows; r++) {
+                int offset = r * outputDim;
+                for (int j = 0; j < outputDim; j++) {
+                    out[offset + j] += b[j];
+                }
+            }
+        }
+
+        // 2. 按适配器分组，每组一次低秩乘法
+        Map<LoraAdapter, List<Integer>> groups = new IdentityHashMap<>();
+        for (int i = 0; i < rowAdapters.length; i++) {
+            if (rowAdapters[i] != null) {
+                groups.computeIfAbsent(rowAdapters[i], k -> new ArrayList<>()).add(i);
+            }
+        }
+        for (Map.Entry<LoraAdapter, List<Integer>> group : groups.entrySet()) {
+            LoraAdapter adapter = group.getKey();
+            List<Integer> samples = group.getValue();
+            int groupRows = samples.size() * rowsPerSample;
+            float[] gathered = new float[groupRows * inputDim];
+            int cursor = 0;
+            for (int sample : samples) {
+                int length = rowsPerSample * inputDim;
+                System.arraycopy(xData, sample * length, gathered, cursor, length);
+                cursor += length;
+            }
+            float[] delta = NdArray.of(gathered, Shape.of(groupRows, inputDim))
+                    .dot(adapter.getMatrixA().getValue())
+                    .dot(adapter.getMatrixB().getValue())
+                    .getArray();
+            float scaling = (float) adapter.getScaling();
+            cursor = 0;
+            for (int sample : samples) {
+                int offset = sample * rowsPerSample * outputDim;
+                for (int k = 0; k < rowsPerSample * outputDim; k++) {
+                    out[offset + k] += scaling * delta[cursor++];
+                }
+            }
+        }
+
+        int[] outDims = dims.clone();
+        outDims[outDims.length - 1] = outputDim;
+        return new Variable(NdArray.of(out, Shape.of(outDims)));
+    }
+
     /**
      * 启用LoRA适配器
      */
@@ -224,6 +389,9 @@ public class LoraLinearLayer extends Module {
      * @return 合并后的权重矩阵
      */
     public NdArray mergeLoraWeights() {
+        if (mergedAdapter != null) {
+            throw new IllegalStateException("层 " + getName() + " 已原地合并适配器");
+        }
         if (!loraAdapter.isEnabled()) {
             return frozenWeight.getValue();
         }
@@ -239,6 +407,92 @@ public class LoraLinearLayer extends Module {
         return frozenWeight.getValue().add(deltaW.getValue());
     }
 
+    /**
+     * 将训练中的LoRA适配器原地合并进冻结权重：W += scaling * A * B
+     * <p>
+     * 不分配新的权重矩阵；合并后前向传播只做一次矩阵乘法。合并使用参数快照，
+     * {@link #unmergeInPlace()} 减去的是同一份增量。
+     */
+    public void mergeInPlace() {
+        mergeInPlace(loraAdapter);
+    }
+
+    /**
+     * 将命名适配器原地合并进冻结权重
+     *
+     * @param adapterName 已加载的适配器名称
+     */
+    public void mergeInPlace(String adapterName) {
+        LoraAdapter adapter = servingAdapters.get(adapterName);
+        if (adapter == null) {
+            throw new IllegalArgumentException("层 " + getName() + " 未加载适配器: " + adapterName);
+        }
+        mergeInPlace(adapter);
+    }
+
+    private synchronized void mergeInPlace(LoraAdapter adapter) {
+        if (mergedAdapter != null) {
+            throw new IllegalStateException("层 " + getName() + " 已合并适配器，请先 unmergeInPlace");
+        }
+        LoraAdapter snapshot = new LoraAdapter(copyOf(adapter.getMatrixA().getValue()),
+                copyOf(adapter.getMatrixB().getValue()), adapter.getConfig());
+        applyDelta(snapshot, 1.0f);
+        mergedAdapter = snapshot;
+    }
+
+    /**
+     * 从冻结权重中原地减去已合并的增量：W -= scaling * A * B
+     * <p>
+     * 合并与拆分按完全相同的顺序计算增量，恢复后的权重与原权重的差异在一次浮点舍入以内。
+     * 未合并时什么也不做。
+     */
+    public synchronized void unmergeInPlace() {
+        if (mergedAdapter == null) {
+            return;
+        }
+        applyDelta(mergedAdapter, -1.0f);
+        mergedAdapter = null;
+    }
+
+    /**
+     * 是否已有适配器原地合并进冻结权重
+     *
+     * @return 是否已合并
+     */
+    public boolean isMerged() {
+        return mergedAdapter != null;
+    }
+
+    /**
+     * 逐行累加 sign * scaling * A * B 到冻结权重，只使用一行大小的临时缓冲
+     */
+    private void applyDelta(LoraAdapter adapter, float sign) {
+        float[] w = frozenWeight.getValue().getArray();
+        float[] a = adapter.getMatrixA().getValue().getArray();
+        float[] b = adapter.getMatrixB().getValue().getArray();
+        int rank = adapter.getConfig().getRank();
+        float scale = (float) adapter.getScaling();
+        float[] rowDelta = new float[outputDim];
+        for (int i = 0; i < inputDim; i++) {
+            Arrays.fill(rowDelta, 0.0f);
+            for (int r = 0; r < rank; r++) {
+                float coeff = scale * a[i * rank + r];
+                int bOffset = r * outputDim;
+                for (int j = 0; j < outputDim; j++) {
+                    rowDelta[j] += coeff * b[bOffset + j];
+                }
+            }
+            int wOffset = i * outputDim;
+            for (int j = 0; j < outputDim; j++) {
+                w[wOffset + j] += sign * rowDelta[j];
+            }
+        }
+    }
+
+    private static NdArray copyOf(NdArray array) {
+        return NdArray.of(array.getArray().clone(), array.getShape());
+    }
+
     /**
      * 获取可训练参数数量
      *
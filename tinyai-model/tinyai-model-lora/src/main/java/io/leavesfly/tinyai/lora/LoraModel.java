@@ -7,9 +7,12 @@ import io.leavesfly.tinyai.nnet.v2.core.Parameter;
 import io.leavesfly.tinyai.nnet.v2.layer.activation.ReLU;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * LoRA模型 - 展示完整的LoRA微调流程
@@ -19,6 +22,11 @@ import java.util.Map;
  * 1. 大幅减少可训练参数
  * 2. 保持模型性能
  * 3. 快速适应新任务
+ * <p>
+ * 推理服务时，同一份冻结的基础权重上可以加载多个命名适配器（{@link #loadAdapter}），
+ * 适配器的加载与卸载无需重新加载基础权重；同一批次内的样本可以使用不同的适配器
+ * （{@link #forwardWithAdapters}）。也可以把某个适配器原地合并进基础权重（{@link #mergeInPlace()}），
+ * 在基础模型与合并后的模型之间切换不需要额外的权重副本。
  *
  * @author leavesfly
  * @version 1.0
@@ -50,6 +58,11 @@ public class LoraModel extends Module {
      */
     private final boolean useOutputActivation;
 
+    /**
+     * 已在所有层完成加载的适配器名称
+     */
+    private final Set<String> adapterNames = ConcurrentHashMap.newKeySet();
+
     /**
      * 构造函数 - 创建多层LoRA模型
      *
@@ -126,6 +139,111 @@ public class LoraModel extends Module {
         return x;
     }
 
+    /**
+     * 多适配器前向传播（推理路径，不构建计算图）
+     * <p>
+     * 每个样本按名称选择适配器，null表示只使用基础权重。各层适配器在计算开始前一次性解析，
+     * 计算过程中并发卸载不会影响本次请求。
+     *
+     * @param x          输入，形状 (batch, input_dim)
+     * @param adapterIds 每个样本的适配器名称
+     * @return 模型输出
+     */
+    public Variable forwardWithAdapters(Variable x, String[] adapterIds) {
+        LoraAdapter[][] resolved = new LoraAdapter[loraLayers.size()][adapterIds.length];
+        for (int i = 0; i < adapterIds.length; i++) {
+            String adapterId = adapterIds[i];
+            if (adapterId == null) {
+                continue;
+            }
+            if (!adapterNames.contains(adapterId)) {
+                throw new IllegalArgumentException("未加载的适配器: " + adapterId);
+            }
+            for (int l = 0; l < loraLayers.size(); l++) {
+                resolved[l][i] = loraLayers.get(l).getAdapter(adapterId);
+                if (resolved[l][i] == null) {
+                    throw new IllegalStateException("适配器 " + adapterId + " 正在卸载");
+                }
+            }
+        }
+
+        int activationIdx = 0;
+        for (int i = 0; i < loraLayers.size(); i++) {
+            x = loraLayers.get(i).forwardWithAdapters(x, resolved[i]);
+            if (i < loraLayers.size() - 1 || useOutputActivation) {
+                if (activationIdx < activationLayers.size()) {
+                    x = activationLayers.get(activationIdx).forward(x);
+                    activationIdx++;
+                }
+            }
+        }
+        return x;
+    }
+
+    /**
+     * 加载命名适配器，使用模型的LoRA配置
+     *
+     * @param adapterName 适配器名称
+     * @param state       适配器参数，格式同 {@link #saveLoraState()}
+     * @see #loadAdapter(String, Map, LoraConfig)
+     */
+    public void loadAdapter(String adapterName, Map<String, NdArray> state) {
+        loadAdapter(adapterName, state, config);
+    }
+
+    /**
+     * 加载命名适配器
+     * <p>
+     * 只加载各层的 lora_A / lora_B，基础权重与偏置保持不变；同名适配器会被替换。
+     * 所有层加载完成后适配器才对 {@link #forwardWithAdapters} 可见。
+     *
+     * @param adapterName   适配器名称
+     * @param state         适配器参数，格式同 {@link #saveLoraState()}
+     * @param adapterConfig 适配器的LoRA配置（rank与alpha）
+     */
+    public void loadAdapter(String adapterName, Map<String, NdArray> state, LoraConfig adapterConfig) {
+        if (adapterName == null) {
+            throw new IllegalArgumentException("适配器名称不能为空");
+        }
+        List<LoraAdapter> adapters = new ArrayList<>(loraLayers.size());
+        for (int i = 0; i < loraLayers.size(); i++) {
+            String prefix = String.format("layer_%d", i);
+            NdArray loraA = state.get(prefix + ".lora_A");
+            NdArray loraB = state.get(prefix + ".lora_B");
+            if (loraA == null || loraB == null) {
+                throw new IllegalArgumentException("适配器 " + adapterName + " 缺少 " + prefix + " 的LoRA参数");
+            }
+            adapters.add(new LoraAdapter(loraA, loraB, adapterConfig));
+        }
+        for (int i = 0; i < loraLayers.size(); i++) {
+            loraLayers.get(i).loadAdapter(adapterName, adapters.get(i));
+        }
+        adapterNames.add(adapterName);
+    }
+
+    /**
+     * 卸载命名适配器
+     *
+     * @param adapterName 适配器名称
+     * @return 是否存在并被卸载
+     */
+    public boolean unloadAdapter(String adapterName) {
+        boolean removed = adapterNames.remove(adapterName);
+        for (LoraLinearLayer layer : loraLayers) {
+            layer.unloadAdapter(adapterName);
+        }
+        return removed;
+    }
+
+    /**
+     * 获取已加载的适配器名称
+     *
+     * @return 适配器名称集合（只读）
+     */
+    public Set<String> getAdapterNames() {
+        return Collections.unmodifiableSet(adapterNames);
+    }
+
     /**
      * 从预训练模型创建LoRA模型
      *
@@ -259,6 +377,51 @@ public class LoraModel extends Module {
         return mergedWeights;
     }
 
+    /**
+     * 将所有层训练中的LoRA适配器原地合并进冻结权重（各层并行）
+     *
+     * @see LoraLinearLayer#mergeInPlace()
+     */
+    public void mergeInPlace() {
+        checkNotMerged();
+        loraLayers.parallelStream().forEach(LoraLinearLayer::mergeInPlace);
+    }
+
+    /**
+     * 将命名适配器原地合并进所有层的冻结权重（各层并行）
+     *
+     * @param adapterName 已加载的适配器名称
+     */
+    public void mergeInPlace(String adapterName) {
+        if (!adapterNames.contains(adapterName)) {
+            throw new IllegalArgumentException("未加载的适配器: " + adapterName);
+        }
+        checkNotMerged();
+        loraLayers.parallelStream().forEach(layer -> layer.mergeInPlace(adapterName));
+    }
+
+    /**
+     * 从所有层的冻结权重中原地拆分已合并的适配器（各层并行），恢复基础模型
+     */
+    public void unmergeInPlace() {
+        loraLayers.parallelStream().forEach(LoraLinearLayer::unmergeInPlace);
+    }
+
+    /**
+     * 是否有层处于合并状态
+     *
+     * @return 是否已合并
+     */
+    public boolean isMerged() {
+        return loraLayers.stream().anyMatch(LoraLinearLayer::isMerged);
+    }
+
+    private void checkNotMerged() {
+        if (isMerged()) {
+            throw new IllegalStateException("模型已合并适配器，请先 unmergeInPlace");
+        }
+    }
+
     /**
      * 保存LoRA参数到映射中
      *
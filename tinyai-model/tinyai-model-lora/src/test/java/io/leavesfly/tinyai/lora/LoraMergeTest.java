@@ -0,0 +1,81 @@
+package io.leavesfly.tinyai.lora;
+
+import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * LoRA原地合并/拆分的单元测试
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class LoraMergeTest {
+
+    private static LoraModel createTrainedModel(int[] layerSizes) {
+        LoraModel model = new LoraModel("merge", layerSizes, new LoraConfig(2, 4.0), false);
+        for (int i = 0; i < layerSizes.length - 1; i++) {
+            // B默认为0，填入非零值模拟训练后的适配器
+            model.getLoraLayer(i).getLoraAdapter().getMatrixB()
+                    .setValue(NdArray.likeRandomN(Shape.of(2, layerSizes[i + 1]), 30 + i));
+        }
+        return model;
+    }
+
+    @Test
+    public void testMergeMatchesLoraForwardAndUnmergeRestores() {
+        int[] layerSizes = {8, 6, 4};
+        LoraModel model = createTrainedModel(layerSizes);
+        Variable x = new Variable(NdArray.likeRandomN(Shape.of(3, 8), 1));
+
+        float[] loraOutput = model.forward(x).getValue().getArray();
+        NdArray weight = model.getLoraLayer(0).getFrozenWeight().getValue();
+        float[] original = weight.getArray().clone();
+
+        model.mergeInPlace();
+        assertTrue(model.isMerged());
+        // 原地修改，没有新的权重矩阵
+        assertSame(weight, model.getLoraLayer(0).getFrozenWeight().getValue());
+        assertArrayEquals(loraOutput, model.forward(x).getValue().getArray(), 1e-4f);
+
+        model.unmergeInPlace();
+        assertFalse(model.isMerged());
+        assertArrayEquals(original, weight.getArray(), 1e-6f);
+        assertArrayEquals(loraOutput, model.forward(x).getValue().getArray(), 1e-4f);
+    }
+
+    @Test
+    public void testSwitchBetweenNamedAdapters() {
+        int[] layerSizes = {5, 3};
+        LoraModel model = new LoraModel("switch", layerSizes, new LoraConfig(2, 2.0), false);
+        for (String name : new String[]{"a", "b"}) {
+            Map<String, NdArray> state = new HashMap<>();
+            state.put("layer_0.lora_A", NdArray.likeRandomN(Shape.of(5, 2), name.hashCode()));
+            state.put("layer_0.lora_B", NdArray.likeRandomN(Shape.of(2, 3), name.hashCode() + 1));
+            model.loadAdapter(name, state);
+        }
+        Variable x = new Variable(NdArray.likeRandomN(Shape.of(2, 5), 9));
+        float[] expectedA = model.forwardWithAdapters(x, new String[]{"a", "a"}).getValue().getArray();
+        float[] expectedB = model.forwardWithAdapters(x, new String[]{"b", "b"}).getValue().getArray();
+
+        model.mergeInPlace("a");
+        assertArrayEquals(expectedA, model.forward(x).getValue().getArray(), 1e-4f);
+        model.unmergeInPlace();
+        model.mergeInPlace("b");
+        assertArrayEquals(expectedB, model.forward(x).getValue().getArray(), 1e-4f);
+        model.unmergeInPlace();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRejectsDoubleMerge() {
+        LoraModel model = createTrainedModel(new int[]{4, 3});
+        model.mergeInPlace();
+        model.mergeInPlace();
+    }
+}
@@ -0,0 +1,118 @@
+package io.leavesfly.tinyai.lora;
+
+import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多适配器推理的单元测试
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class LoraMultiAdapterTest {
+
+    private static Map<String, NdArray> randomAdapterState(int[] layerSizes, int rank, long seed) {
+        Map<String, NdArray> state = new HashMap<>();
+        for (int i = 0; i < layerSizes.length - 1; i++) {
+            state.put("layer_" + i + ".lora_A", NdArray.likeRandomN(Shape.of(layerSizes[i], rank), seed + i));
+            state.put("layer_" + i + ".lora_B", NdArray.likeRandomN(Shape.of(rank, layerSizes[i + 1]), seed + 100 + i));
+        }
+        return state;
+    }
+
+    private static float[] row(NdArray array, int row) {
+        int cols = array.getShape().getDimension(1);
+        float[] result = new float[cols];
+        System.arraycopy(array.getArray(), row * cols, result, 0, cols);
+        return result;
+    }
+
+    @Test
+    public void testLayerMatchesDenseComputation() {
+        LoraConfig config = new LoraConfig(2, 4.0);
+        LoraLinearLayer layer = new LoraLinearLayer("fc", 6, 4, config, true);
+        layer.getBias().setValue(NdArray.likeRandomN(Shape.of(1, 4), 7));
+        LoraAdapter adapter = new LoraAdapter(NdArray.likeRandomN(Shape.of(6, 2), 1),
+                NdArray.likeRandomN(Shape.of(2, 4), 2), config);
+        layer.loadAdapter("a", adapter);
+
+        NdArray x = NdArray.likeRandomN(Shape.of(3, 6), 3);
+        NdArray out = layer.forwardWithAdapters(new Variable(x), new String[]{"a", null, "a"}).getValue();
+
+        NdArray base = x.dot(layer.getFrozenWeight().getValue()).add(layer.getBias().getValue().broadcastTo(Shape.of(3, 4)));
+        NdArray tuned = base.add(x.dot(adapter.getMatrixA().getValue()).dot(adapter.getMatrixB().getValue()).mulNum(2.0));
+        assertArrayEquals(row(tuned, 0), row(out, 0), 1e-4f);
+        assertArrayEquals(row(base, 1), row(out, 1), 1e-4f);
+        assertArrayEquals(row(tuned, 2), row(out, 2), 1e-4f);
+    }
+
+    @Test
+    public void testHeterogeneousBatchMatchesPerSampleForward() {
+        int[] layerSizes = {8, 6, 3};
+        LoraModel model = new LoraModel("multi", layerSizes, new LoraConfig(2, 2.0), false);
+        model.loadAdapter("task_a", randomAdapterState(layerSizes, 2, 10));
+        model.loadAdapter("task_b", randomAdapterState(layerSizes, 4, 20), new LoraConfig(4, 8.0));
+
+        String[] adapterIds = {"task_a", null, "task_b", "task_a"};
+        NdArray x = NdArray.likeRandomN(Shape.of(4, 8), 5);
+        NdArray batched = model.forwardWithAdapters(new Variable(x), adapterIds).getValue();
+        assertArrayEquals(new int[]{4, 3}, batched.getShape().getShapeDims());
+
+        for (int i = 0; i < adapterIds.length; i++) {
+            NdArray single = NdArray.of(row(x, i), Shape.of(1, 8));
+            NdArray expected = model.forwardWithAdapters(new Variable(single), new String[]{adapterIds[i]}).getValue();
+            assertArrayEquals(expected.getArray(), row(batched, i), 1e-4f);
+        }
+
+        // 不使用适配器的样本与禁用LoRA的基础模型一致
+        model.disableAllLora();
+        NdArray base = model.forward(new Variable(NdArray.of(row(x, 1), Shape.of(1, 8)))).getValue();
+        assertArrayEquals(base.getArray(), row(batched, 1), 1e-4f);
+    }
+
+    @Test
+    public void testHotSwapKeepsBaseWeights() {
+        int[] layerSizes = {4, 3};
+        LoraModel model = new LoraModel("swap", layerSizes, new LoraConfig(2, 2.0), false);
+        NdArray frozen = model.getLoraLayer(0).getFrozenWeight().getValue();
+        float[] frozenBefore = frozen.getArray().clone();
+
+        model.loadAdapter("a", randomAdapterState(layerSizes, 2, 1));
+        model.loadAdapter("b", randomAdapterState(layerSizes, 2, 2));
+        assertEquals(2, model.getAdapterNames().size());
+
+        assertTrue(model.unloadAdapter("a"));
+        assertFalse(model.unloadAdapter("a"));
+        assertEquals(1, model.getAdapterNames().size());
+        assertNull(model.getLoraLayer(0).getAdapter("a"));
+
+        // 基础权重未被复制或修改
+        assertSame(frozen, model.getLoraLayer(0).getFrozenWeight().getValue());
+        assertArrayEquals(frozenBefore, frozen.getArray(), 0.0f);
+
+        Variable x = new Variable(NdArray.ones(Shape.of(1, 4)));
+        try {
+            model.forwardWithAdapters(x, new String[]{"a"});
+            fail("已卸载的适配器不应可用");
+        } catch (IllegalArgumentException expected) {
+            // 预期异常
+        }
+        assertNotNull(model.forwardWithAdapters(x, new String[]{"b"}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsIncompleteAdapterState() {
+        int[] layerSizes = {4, 3, 2};
+        LoraModel model = new LoraModel("bad", layerSizes, new LoraConfig(2, 2.0), false);
+        Map<String, NdArray> state = randomAdapterState(layerSizes, 2, 1);
+        state.remove("layer_1.lora_B");
+        model.loadAdapter("broken", state);
+    }
+}
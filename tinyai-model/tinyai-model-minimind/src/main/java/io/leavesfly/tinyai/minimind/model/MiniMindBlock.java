@@ -4,6 +4,7 @@ import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.minimind.model.attention.KVCache;
 import io.leavesfly.tinyai.minimind.model.embedding.TokenEmbedding;
 import io.leavesfly.tinyai.minimind.model.transformer.MiniMindTransformerLayer;
+import io.leavesfly.tinyai.minimind.training.lora.LoRALinear;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
@@ -12,6 +13,7 @@ import io.leavesfly.tinyai.nnet.v2.layer.norm.LayerNorm;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * MiniMind 模型主体结构
@@ -54,11 +56,6 @@ public class MiniMindBlock extends Module {
      */
     private final Linear lmHead;
 
-    /**
-     * 是否处于训练模式
-     */
-    private boolean training = true;
-
     /**
      * 构造 MiniMindBlock
      *
@@ -79,6 +76,7 @@ public class MiniMindBlock extends Module {
                 "layer_" + i,
                 config.getHiddenSize(),
                 config.getNumHeads(),
+                config.getNumKVHeads(),
                 config.getFfnHiddenSize(),
                 config.getMaxSeqLen(),
                 config.getDropout(),
@@ -122,6 +120,20 @@ public class MiniMindBlock extends Module {
      * @return 输出 logits,形状 [batch_size, seq_len, vocab_size]
      */
     public Variable forwardWithCache(Variable tokenIds, List<KVCache> kvCaches, int startPos) {
+        return forwardWithCache(tokenIds, kvCaches, startPos, null);
+    }
+
+    /**
+     * 带 KV-Cache 与键填充掩码的前向传播（左填充的批量生成）
+     *
+     * @param tokenIds       Token IDs,形状 [batch_size, seq_len]
+     * @param kvCaches       KV-Cache 列表（每层一个）,可为 null
+     * @param startPos       起始位置（用于 RoPE 和因果掩码）
+     * @param keyPaddingMask 键填充掩码 [batch_size, kv_len]（kv_len 含已缓存长度）,1 表示填充,可为 null
+     * @return 输出 logits,形状 [batch_size, seq_len, vocab_size]
+     */
+    public Variable forwardWithCache(Variable tokenIds, List<KVCache> kvCaches, int startPos,
+                                     float[] keyPaddingMask) {
         // 1. Token Embedding: [batch, seq_len] -> [batch, seq_len, hidden_size]
         Variable x = tokenEmbedding.forward(tokenIds);
 
@@ -129,7 +141,7 @@ public class MiniMindBlock extends Module {
         for (int i = 0; i < layers.size(); i++) {
             MiniMindTransformerLayer layer = layers.get(i);
             KVCache kvCache = (kvCaches != null && i < kvCaches.size()) ? kvCaches.get(i) : null;
-            x = layer.forwardWithCache(x, kvCache, startPos);
+            x = layer.forwardWithCache(x, kvCache, startPos, keyPaddingMask);
         }
 
         // 3. 最终归一化
@@ -141,6 +153,42 @@ public class MiniMindBlock extends Module {
         return logits;
     }
 
+    /**
+     * 序列打包的前向传播
+     * <p>
+     * 每行拼接多个文档，位置ID在文档内从0开始，注意力限制在同一文档内（块对角因果掩码），
+     * 结果与逐个文档单独前向一致。
+     *
+     * @param tokenIds    Token IDs,形状 [batch_size, seq_len]
+     * @param positionIds 位置ID,形状 [batch_size, seq_len]
+     * @param segmentIds  文档分段ID [batch_size * seq_len],同一文档连续
+     * @return 输出 logits,形状 [batch_size, seq_len, vocab_size]
+     */
+    public Variable forwardPacked(Variable tokenIds, NdArray positionIds, int[] segmentIds) {
+        Variable x = tokenEmbedding.forward(tokenIds);
+        for (MiniMindTransformerLayer layer : layers) {
+            x = layer.forwardPacked(x, positionIds, segmentIds);
+        }
+        x = finalNorm.forward(x);
+        return lmHead.forward(x);
+    }
+
+    /**
+     * 多适配器前向（推理路径）：批次内每个样本使用各自的 LoRA 适配器
+     *
+     * @param tokenIds Token IDs,形状 [batch_size, seq_len]
+     * @param adapters LoRA 投影层 -> 每个样本的适配器
+     * @return 输出 logits,形状 [batch_size, seq_len, vocab_size]
+     */
+    public Variable forwardWithAdapters(Variable tokenIds, Map<Module, LoRALinear.Adapter[]> adapters) {
+        Variable x = tokenEmbedding.forward(tokenIds);
+        for (MiniMindTransformerLayer layer : layers) {
+            x = layer.forwardWithAdapters(x, adapters);
+        }
+        x = finalNorm.forward(x);
+        return lmHead.forward(x);
+    }
+
     /**
      * 生成时的前向传播（使用 KV-Cache 优化）
      * <p>
@@ -164,9 +212,10 @@ public class MiniMindBlock extends Module {
     public List<KVCache> createKVCaches(int batchSize) {
         List<KVCache> kvCaches = new ArrayList<>();
         for (int i = 0; i < config.getNumLayers(); i++) {
+            // GQA 下缓存只保存 numKVHeads 个头
             KVCache cache = new KVCache(
                 batchSize,
-                config.getNumHeads(),
+                config.getNumKVHeads(),
                 config.getHiddenSize() / config.getNumHeads(),
                 config.getMaxSeqLen()
             );
@@ -189,15 +238,12 @@ public class MiniMindBlock extends Module {
     }
 
     /**
-     * 设置训练模式
+     * 设置训练模式（等价于 {@link #train(boolean)}，递归作用于所有子模块）
      *
      * @param training 是否为训练模式
      */
     public void setTraining(boolean training) {
-        this.training = training;
-        for (MiniMindTransformerLayer layer : layers) {
-            layer.setTraining(training);
-        }
+        train(training);
     }
 
     /**
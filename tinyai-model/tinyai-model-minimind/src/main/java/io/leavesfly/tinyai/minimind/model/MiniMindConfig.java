@@ -40,6 +40,11 @@ public class MiniMindConfig {
      */
     private int numHeads = 16;
 
+    /**
+     * 键/值头数(分组查询注意力 GQA)，0 表示与 numHeads 相同
+     */
+    private int numKVHeads = 0;
+
     /**
      * 前馈网络隐藏层维度(FFN hidden size)
      */
@@ -224,6 +229,15 @@ public class MiniMindConfig {
         return hiddenSize / numHeads;
     }
 
+    /**
+     * 获取键/值头数
+     *
+     * @return 键/值头数，未设置时等于 numHeads
+     */
+    public int getNumKVHeads() {
+        return numKVHeads > 0 ? numKVHeads : numHeads;
+    }
+
     /**
      * 验证配置的有效性
      *
@@ -248,6 +262,9 @@ public class MiniMindConfig {
         if (hiddenSize % numHeads != 0) {
             throw new IllegalStateException("hiddenSize must be divisible by numHeads");
         }
+        if (numKVHeads < 0 || numHeads % getNumKVHeads() != 0) {
+            throw new IllegalStateException("numHeads must be divisible by numKVHeads");
+        }
         if (dropout < 0 || dropout >= 1) {
             throw new IllegalStateException("dropout must be in [0, 1)");
         }
@@ -291,8 +308,9 @@ public class MiniMindConfig {
 
         // Transformer Layers
         for (int i = 0; i < numLayers; i++) {
-            // Attention: QKV projections + Output projection
-            params += (long) hiddenSize * hiddenSize * 4;
+            // Attention: Q/Output projections + K/V projections (GQA 下按 KV 头数缩小)
+            params += (long) hiddenSize * hiddenSize * 2;
+            params += (long) hiddenSize * getNumKVHeads() * (hiddenSize / numHeads) * 2;
 
             // FFN
             if (useMoE) {
@@ -335,6 +353,8 @@ public class MiniMindConfig {
     public int getNumHeads() { return numHeads; }
     public void setNumHeads(int numHeads) { this.numHeads = numHeads; }
 
+    public void setNumKVHeads(int numKVHeads) { this.numKVHeads = numKVHeads; }
+
     public int getFfnHiddenSize() { return ffnHiddenSize; }
     public void setFfnHiddenSize(int ffnHiddenSize) { this.ffnHiddenSize = ffnHiddenSize; }
 
@@ -391,6 +411,7 @@ public class MiniMindConfig {
                 ", hiddenSize=" + hiddenSize +
                 ", numLayers=" + numLayers +
                 ", numHeads=" + numHeads +
+                ", numKVHeads=" + getNumKVHeads() +
                 ", ffnHiddenSize=" + ffnHiddenSize +
                 ", dropout=" + dropout +
                 ", activation='" + activationFunction + '\'' +
@@ -1,6 +1,10 @@
 package io.leavesfly.tinyai.minimind.model;
 
+import io.leavesfly.tinyai.func.NoGrad;
 import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.ml.inference.CausalLanguageModel;
+import io.leavesfly.tinyai.ml.inference.SpeculativeDecoder;
+import io.leavesfly.tinyai.ml.inference.SpeculativeResult;
 import io.leavesfly.tinyai.ml.model.Model;
 import io.leavesfly.tinyai.minimind.model.attention.KVCache;
 import io.leavesfly.tinyai.minimind.model.attention.MultiHeadAttention;
@@ -9,13 +13,20 @@ import io.leavesfly.tinyai.minimind.training.lora.LoRAConfig;
 import io.leavesfly.tinyai.minimind.training.lora.LoRALinear;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
+import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.core.Parameter;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * MiniMind 语言模型
@@ -47,6 +58,13 @@ public class MiniMindModel extends Model {
      */
     private final MiniMindBlock miniMindBlock;
 
+    /**
+     * 推理作用域：进行中的推理调用数及进入前的训练模式
+     */
+    private final Object inferenceLock = new Object();
+    private int inferenceDepth;
+    private boolean trainingBeforeInference;
+
     /**
      * 构造 MiniMind 模型
      *
@@ -101,6 +119,19 @@ public class MiniMindModel extends Model {
         return miniMindBlock.forward(tokenIds);
     }
 
+    /**
+     * 序列打包的预测（每行拼接多个文档）
+     *
+     * @param tokenIds    Token IDs,形状 [batch_size, seq_len]
+     * @param positionIds 文档内位置ID,形状 [batch_size, seq_len]
+     * @param segmentIds  文档分段ID [batch_size * seq_len]
+     * @return Logits,形状 [batch_size, seq_len, vocab_size]
+     * @see io.leavesfly.tinyai.ml.dataset.SequencePacker
+     */
+    public Variable predictPacked(Variable tokenIds, NdArray positionIds, int[] segmentIds) {
+        return miniMindBlock.forwardPacked(tokenIds, positionIds, segmentIds);
+    }
+
     /**
      * 预测（从 NdArray）
      *
@@ -201,6 +232,64 @@ public class MiniMindModel extends Model {
         return result;
     }
     
+    /**
+     * 投机解码生成（本模型作为目标模型）
+     * <p>
+     * 草稿模型每轮提出 numDraftTokens 个候选，本模型对 "前缀 + 候选" 一次前向批量验证，
+     * 按接受-拒绝采样保证输出分布不变。作为草稿模型时使用 {@link #asCausalLanguageModel()}。
+     *
+     * @param promptTokenIds 提示词 token IDs
+     * @param maxNewTokens   最大生成 token 数量
+     * @param draftModel     草稿模型（需与本模型共享词表）
+     * @param numDraftTokens 每轮草稿 token 数
+     * @param temperature    温度参数（0.0 = 贪婪）
+     * @param topK           Top-K 采样参数（0 表示不使用）
+     * @return 生成的 token IDs 及接受率、吞吐量等统计
+     */
+    public SpeculativeResult generateSpeculative(int[] promptTokenIds, int maxNewTokens,
+                                                 CausalLanguageModel draftModel, int numDraftTokens,
+                                                 float temperature, int topK) {
+        // 与 generate 一致，EOS token ID 为 2
+        SpeculativeDecoder decoder = new SpeculativeDecoder(draftModel, asCausalLanguageModel(),
+                numDraftTokens, temperature, topK, 2, new Random());
+        return decoder.generate(promptTokenIds, maxNewTokens);
+    }
+
+    /**
+     * 将模型包装为 {@link CausalLanguageModel}
+     * <p>
+     * 可作为 Qwen3、GPT 等更大模型投机解码的草稿模型。
+     * 每次前向临时切换到推理模式并在 {@link NoGrad} 作用域内执行，结束后恢复原来的模式，
+     * 创建视图本身不改变模型状态。
+     *
+     * @return 语言模型视图
+     */
+    public CausalLanguageModel asCausalLanguageModel() {
+        return CausalLanguageModel.of(ids -> inference(() -> predict(ids)), config.getMaxSeqLen());
+    }
+
+    /**
+     * 在推理作用域内执行：切换到推理模式并在 {@link NoGrad} 作用域内运行，结束后恢复原来的模式。
+     * 并发的推理调用共用同一次切换，最后一个退出的调用负责恢复，避免互相把模式切回
+     */
+    private <T> T inference(Supplier<T> body) {
+        synchronized (inferenceLock) {
+            if (inferenceDepth++ == 0) {
+                trainingBeforeInference = miniMindBlock.isTraining();
+                miniMindBlock.setTraining(false);
+            }
+        }
+        try (NoGrad ignored = NoGrad.enter()) {
+            return body.get();
+        } finally {
+            synchronized (inferenceLock) {
+                if (--inferenceDepth == 0) {
+                    miniMindBlock.setTraining(trainingBeforeInference);
+                }
+            }
+        }
+    }
+
     /**
      * 应用重复惩罚
      */
@@ -432,6 +521,13 @@ public class MiniMindModel extends Model {
         miniMindBlock.setTraining(training);
     }
 
+    /**
+     * 是否处于训练模式
+     */
+    public boolean isTraining() {
+        return miniMindBlock.isTraining();
+    }
+
     /**
      * 获取模型配置
      */
@@ -496,7 +592,7 @@ public class MiniMindModel extends Model {
                         "value_proj_lora", 
                         originalLinear, 
                         hiddenSize, 
-                        hiddenSize, 
+                        attention.getNumKVHeads() * attention.getHeadDim(), 
                         loraConfig
                     );
                     attention.setValueProj(loraLinear);
@@ -537,6 +633,147 @@ public class MiniMindModel extends Model {
         return loraLinear;
     }
     
+    /**
+     * 获取所有 LoRA 层
+     * 
+     * @return 键为 "layer_{i}.query_proj" / "layer_{i}.value_proj" 的 LoRA 层(按层序)
+     */
+    public Map<String, LoRALinear> getLoRALayers() {
+        Map<String, LoRALinear> loraLayers = new LinkedHashMap<>();
+        List<MiniMindTransformerLayer> layers = miniMindBlock.getLayers();
+        for (int i = 0; i < layers.size(); i++) {
+            MultiHeadAttention attention = layers.get(i).getAttention();
+            if (attention.getQueryProj() instanceof LoRALinear) {
+                loraLayers.put("layer_" + i + ".query_proj", (LoRALinear) attention.getQueryProj());
+            }
+            if (attention.getValueProj() instanceof LoRALinear) {
+                loraLayers.put("layer_" + i + ".value_proj", (LoRALinear) attention.getValueProj());
+            }
+        }
+        return loraLayers;
+    }
+    
+    /**
+     * 导出当前 LoRA 参数, 可作为适配器通过 {@link #loadLoRAAdapter} 加载
+     * 
+     * @return 键为 "{LoRA层}.lora_A" / "{LoRA层}.lora_B" 的参数副本
+     */
+    public Map<String, NdArray> exportLoRAState() {
+        Map<String, NdArray> state = new HashMap<>();
+        for (Map.Entry<String, LoRALinear> entry : getLoRALayers().entrySet()) {
+            state.put(entry.getKey() + ".lora_A", copyOf(entry.getValue().getLoraA().data()));
+            state.put(entry.getKey() + ".lora_B", copyOf(entry.getValue().getLoraB().data()));
+        }
+        return state;
+    }
+    
+    private static NdArray copyOf(NdArray array) {
+        return NdArray.of(array.getArray().clone(), array.getShape());
+    }
+    
+    /**
+     * 加载命名 LoRA 适配器(需先 {@link #applyLoRA} 注入 LoRA 层)
+     * <p>
+     * 基础权重保持不变, 多个适配器可并存, 同名适配器会被替换
+     * 
+     * @param adapterName 适配器名称
+     * @param state       适配器参数, 格式同 {@link #exportLoRAState()}
+     * @param alpha       适配器的缩放因子
+     */
+    public void loadLoRAAdapter(String adapterName, Map<String, NdArray> state, float alpha) {
+        Map<String, LoRALinear> loraLayers = getLoRALayers();
+        if (loraLayers.isEmpty()) {
+            throw new IllegalStateException("模型未注入 LoRA 层, 请先调用 applyLoRA");
+        }
+        for (String key : loraLayers.keySet()) {
+            if (!state.containsKey(key + ".lora_A") || !state.containsKey(key + ".lora_B")) {
+                throw new IllegalArgumentException("适配器 " + adapterName + " 缺少 " + key + " 的LoRA参数");
+            }
+        }
+        for (Map.Entry<String, LoRALinear> entry : loraLayers.entrySet()) {
+            entry.getValue().loadAdapter(adapterName,
+                state.get(entry.getKey() + ".lora_A"), state.get(entry.getKey() + ".lora_B"), alpha);
+        }
+    }
+    
+    /**
+     * 卸载命名 LoRA 适配器
+     * 
+     * @return 是否存在并被卸载
+     */
+    public boolean unloadLoRAAdapter(String adapterName) {
+        boolean removed = false;
+        for (LoRALinear lora : getLoRALayers().values()) {
+            removed |= lora.unloadAdapter(adapterName);
+        }
+        return removed;
+    }
+    
+    /**
+     * 多适配器预测: 批次内每个样本使用各自的适配器
+     * <p>
+     * 基础投影整批计算一次, 低秩部分按适配器分组计算。适配器在调用开始时解析并随前向传入,
+     * 不修改任何层的状态, 不同请求可并发调用; 在推理模式与 {@link NoGrad} 作用域内执行
+     * 
+     * @param tokenIds   Token IDs,形状 [batch_size, seq_len]
+     * @param adapterIds 每个样本的适配器名称, null 表示只使用基础权重
+     * @return Logits,形状 [batch_size, seq_len, vocab_size]
+     */
+    public Variable predictWithAdapters(Variable tokenIds, String[] adapterIds) {
+        int batchSize = tokenIds.getValue().getShape().getDimension(0);
+        if (adapterIds.length != batchSize) {
+            throw new IllegalArgumentException("适配器数量 " + adapterIds.length + " 与批次大小 " + batchSize + " 不一致");
+        }
+        Map<Module, LoRALinear.Adapter[]> adapters = new IdentityHashMap<>();
+        for (LoRALinear lora : getLoRALayers().values()) {
+            adapters.put(lora, lora.resolveAdapters(adapterIds));
+        }
+        return inference(() -> miniMindBlock.forwardWithAdapters(tokenIds, adapters));
+    }
+    
+    /**
+     * 将所有 LoRA 层的当前参数原地合并进冻结权重(各层并行)
+     * <p>
+     * 合并后推理不再有低秩计算开销, 也不额外占用权重内存; 用 {@link #unmergeLoRA()} 恢复基础模型
+     */
+    public void mergeLoRA() {
+        checkLoRANotMerged();
+        getLoRALayers().values().parallelStream().forEach(LoRALinear::mergeInPlace);
+    }
+    
+    /**
+     * 将命名适配器原地合并进所有 LoRA 层的冻结权重(各层并行)
+     * 
+     * @param adapterName 已加载的适配器名称
+     */
+    public void mergeLoRA(String adapterName) {
+        Map<String, LoRALinear> loraLayers = getLoRALayers();
+        for (Map.Entry<String, LoRALinear> entry : loraLayers.entrySet()) {
+            if (!entry.getValue().hasAdapter(adapterName)) {
+                throw new IllegalArgumentException(entry.getKey() + " 未加载适配器: " + adapterName);
+            }
+        }
+        checkLoRANotMerged();
+        loraLayers.values().parallelStream().forEach(lora -> lora.mergeInPlace(adapterName));
+    }
+    
+    /**
+     * 从所有 LoRA 层的冻结权重中原地拆分已合并的适配器(各层并行)
+     */
+    public void unmergeLoRA() {
+        getLoRALayers().values().parallelStream().forEach(LoRALinear::unmergeInPlace);
+    }
+    
+    public boolean isLoRAMerged() {
+        return getLoRALayers().values().stream().anyMatch(LoRALinear::isMerged);
+    }
+    
+    private void checkLoRANotMerged() {
+        if (isLoRAMerged()) {
+            throw new IllegalStateException("LoRA 已合并, 请先调用 unmergeLoRA");
+        }
+    }
+    
     /**
      * 获取 LoRA 参数统计
      */
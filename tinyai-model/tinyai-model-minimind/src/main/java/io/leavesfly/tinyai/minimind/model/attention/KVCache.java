@@ -40,7 +40,7 @@ public class KVCache {
     /**
      * 批次大小
      */
-    private final int batchSize;
+    private int batchSize;
 
     /**
      * 注意力头数
@@ -187,6 +187,43 @@ public class KVCache {
         return NdArray.of(result, Shape.of(batch, heads, newSeqLen, dim));
     }
 
+    /**
+     * 按行重排批次：保留并按给定顺序排列缓存中的序列
+     * <p>
+     * 行号可以重复，用于将同一提示词的缓存复制给多个采样序列；
+     * 也用于批量生成时剔除已结束的序列。
+     *
+     * @param rows 新批次中每一行对应的旧行号
+     */
+    public void selectRows(int[] rows) {
+        if (!isEmpty()) {
+            cachedK = gatherBatch(cachedK, rows);
+            cachedV = gatherBatch(cachedV, rows);
+        }
+        batchSize = rows.length;
+    }
+
+    private NdArray gatherBatch(NdArray data, int[] rows) {
+        int[] shape = data.getShape().getShapeDims();
+        int rowSize = shape[1] * shape[2] * shape[3];
+        float[] srcData = ((io.leavesfly.tinyai.ndarr.cpu.NdArrayCpu) data).buffer;
+        float[] result = new float[rows.length * rowSize];
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] < 0 || rows[i] >= shape[0]) {
+                throw new IllegalArgumentException("行号越界: " + rows[i]);
+            }
+            System.arraycopy(srcData, rows[i] * rowSize, result, i * rowSize, rowSize);
+        }
+        return NdArray.of(result, Shape.of(rows.length, shape[1], shape[2], shape[3]));
+    }
+
+    /**
+     * 获取批次大小
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
     /**
      * 清空缓存
      */
@@ -1,13 +1,19 @@
 package io.leavesfly.tinyai.minimind.model.attention;
 
 import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.func.matrix.FlashAttention;
+import io.leavesfly.tinyai.func.matrix.Permute;
 import io.leavesfly.tinyai.minimind.model.embedding.RotaryPositionEmbedding;
+import io.leavesfly.tinyai.minimind.training.lora.LoRALinear;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.core.Parameter;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
 
+import java.util.Map;
+import java.util.Random;
+
 /**
  * 多头注意力机制（Multi-Head Attention）
  * <p>
@@ -16,18 +22,18 @@ import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
  * - 集成 RoPE 旋转位置编码
  * - 支持因果掩码(Causal Mask)
  * - 支持 KV-Cache 增量推理
- * - Scaled Dot-Product Attention
+ * - 融合的 Scaled Dot-Product Attention（{@link FlashAttention}），训练模式下注意力 dropout 在核内完成
+ * - 支持分组查询注意力（GQA）：numKVHeads 个 KV 头被多个查询头共享，
+ *   K/V 投影与 KV-Cache 按 numHeads / numKVHeads 倍缩小
  * <p>
  * 计算流程：
  * 1. Q = X @ W_Q, K = X @ W_K, V = X @ W_V
- * 2. 应用 RoPE 位置编码到 Q、K
- * 3. 多头分割：reshape 为 [batch, numHeads, seqLen, headDim]
- * 4. 计算注意力分数：scores = (Q @ K^T) / sqrt(headDim)
- * 5. 应用因果掩码
- * 6. Softmax 归一化
- * 7. 应用注意力权重：output = scores @ V
- * 8. 多头合并：reshape 为 [batch, seqLen, hiddenSize]
- * 9. 输出投影：output @ W_O
+ * 2. 多头分割：Q reshape 为 [batch, numHeads, seqLen, headDim]，K/V 为 [batch, numKVHeads, seqLen, headDim]
+ * 3. 应用 RoPE 位置编码到 Q、K
+ * 4. 融合注意力：softmax((Q @ K^T) / sqrt(headDim) + causalMask) @ V，
+ *    按键块在线 softmax，不物化 [batch, numHeads, seqLen, kvSeqLen] 的分数矩阵，因果掩码隐式处理
+ * 5. 多头合并：reshape 为 [batch, seqLen, hiddenSize]
+ * 6. 输出投影：output @ W_O
  *
  * @author leavesfly
  * @version 1.0
@@ -44,6 +50,11 @@ public class MultiHeadAttention extends Module {
      */
     private final int numHeads;
 
+    /**
+     * 键/值头数（GQA 时小于 numHeads）
+     */
+    private final int numKVHeads;
+
     /**
      * 每个头的维度
      */
@@ -75,14 +86,14 @@ public class MultiHeadAttention extends Module {
     private final RotaryPositionEmbedding rope;
 
     /**
-     * Dropout 比例
+     * 注意力权重的 Dropout 比例（仅训练模式生效）
      */
     private final float dropoutRate;
 
     /**
-     * 是否处于训练模式
+     * 融合注意力 dropout 的种子来源
      */
-    private boolean training = true;
+    private final Random dropoutSeedRandom = new Random();
 
     /**
      * 构造多头注意力层
@@ -94,21 +105,40 @@ public class MultiHeadAttention extends Module {
      * @param dropoutRate Dropout 比例
      */
     public MultiHeadAttention(String name, int hiddenSize, int numHeads, int maxSeqLen, float dropoutRate) {
+        this(name, hiddenSize, numHeads, numHeads, maxSeqLen, dropoutRate);
+    }
+
+    /**
+     * 构造分组查询注意力层
+     *
+     * @param name        层名称
+     * @param hiddenSize  隐藏层维度
+     * @param numHeads    查询头数
+     * @param numKVHeads  键/值头数，需整除 numHeads
+     * @param maxSeqLen   最大序列长度
+     * @param dropoutRate Dropout 比例
+     */
+    public MultiHeadAttention(String name, int hiddenSize, int numHeads, int numKVHeads,
+                              int maxSeqLen, float dropoutRate) {
         super(name);
 
         if (hiddenSize % numHeads != 0) {
             throw new IllegalArgumentException("hiddenSize must be divisible by numHeads");
         }
+        if (numKVHeads <= 0 || numHeads % numKVHeads != 0) {
+            throw new IllegalArgumentException("numHeads must be divisible by numKVHeads");
+        }
 
         this.hiddenSize = hiddenSize;
         this.numHeads = numHeads;
+        this.numKVHeads = numKVHeads;
         this.headDim = hiddenSize / numHeads;
         this.dropoutRate = dropoutRate;
 
-        // 创建投影层（使用 V2 Linear）
+        // 创建投影层（使用 V2 Linear），K/V 只投影到 numKVHeads 个头
         this.queryProj = new Linear("query_proj", hiddenSize, hiddenSize, false);
-        this.keyProj = new Linear("key_proj", hiddenSize, hiddenSize, false);
-        this.valueProj = new Linear("value_proj", hiddenSize, hiddenSize, false);
+        this.keyProj = new Linear("key_proj", hiddenSize, numKVHeads * headDim, false);
+        this.valueProj = new Linear("value_proj", hiddenSize, numKVHeads * headDim, false);
         this.outputProj = new Linear("output_proj", hiddenSize, hiddenSize, false);
 
         // 注册子模块
@@ -140,26 +170,76 @@ public class MultiHeadAttention extends Module {
      * @return 输出 Variable
      */
     public Variable forwardWithCache(Variable x, KVCache kvCache, int startPos) {
+        return forwardWithCache(x, kvCache, startPos, null);
+    }
+
+    /**
+     * 带 KV-Cache 与键填充掩码的前向传播
+     * <p>
+     * 用于左填充的批量生成：各序列的填充位置被跳过。RoPE 只依赖查询与键的相对位置，
+     * 因此左填充后整体平移的绝对位置不影响有效 token 之间的注意力。
+     *
+     * @param x              输入 Variable
+     * @param kvCache        KV-Cache 对象（可为 null）
+     * @param startPos       起始位置（用于 RoPE 和因果掩码）
+     * @param keyPaddingMask 键填充掩码 [batch, kvSeqLen]（含缓存部分），1 表示填充，可为 null
+     * @return 输出 Variable
+     */
+    public Variable forwardWithCache(Variable x, KVCache kvCache, int startPos, float[] keyPaddingMask) {
+        return attend(x, kvCache, new Variable(NdArray.of(new float[]{startPos})), keyPaddingMask, null, null);
+    }
+
+    /**
+     * 多适配器前向（推理路径）
+     * <p>
+     * 路由表中出现的 LoRA 投影层按批次内每个样本的适配器计算，其余投影层照常前向。
+     * 路由随调用传入而不保存在层上，不同请求可并发使用各自的适配器。
+     *
+     * @param x        输入 Variable [batch, seqLen, hiddenSize]
+     * @param adapters LoRA 投影层 -> 每个样本的适配器
+     * @return 输出 Variable
+     */
+    public Variable forwardWithAdapters(Variable x, Map<Module, LoRALinear.Adapter[]> adapters) {
+        return attend(x, null, new Variable(NdArray.of(new float[]{0})), null, null, adapters);
+    }
+
+    /**
+     * 序列打包的前向传播
+     * <p>
+     * 一行中拼接了多个文档：RoPE 使用每个文档内从0开始的位置ID，
+     * 注意力按文档分段使用块对角因果掩码，文档之间互不可见。
+     *
+     * @param x           输入 Variable [batch, seqLen, hiddenSize]
+     * @param positionIds 位置ID [batch, seqLen]
+     * @param segmentIds  文档分段ID [batch * seqLen]，同一文档连续
+     * @return 输出 Variable
+     */
+    public Variable forwardPacked(Variable x, NdArray positionIds, int[] segmentIds) {
+        return attend(x, null, new Variable(positionIds), null, segmentIds, null);
+    }
+
+    private Variable attend(Variable x, KVCache kvCache, Variable positions, float[] keyPaddingMask,
+                            int[] segmentIds, Map<Module, LoRALinear.Adapter[]> adapters) {
 
         // 1. Q、K、V 投影
-        Variable Q = queryProj.forward(x);
-        Variable K = keyProj.forward(x);
-        Variable V = valueProj.forward(x);
+        Variable Q = project(queryProj, x, adapters);
+        Variable K = project(keyProj, x, adapters);
+        Variable V = project(valueProj, x, adapters);
 
         // 获取输入形状
         int[] qShape = Q.getValue().getShape().getShapeDims();
         int batchSize = qShape[0];
         int seqLen = qShape[1];
 
-        // 2. 多头分割：[batch, seqLen, hiddenSize] -> [batch, numHeads, seqLen, headDim]
+        // 2. 多头分割：[batch, seqLen, heads * headDim] -> [batch, heads, seqLen, headDim]
         //    先分割，RoPE 需要 headDim 维度的输入
-        Variable qSplit = reshapeForMultiHead(Q, batchSize, seqLen);
-        Variable kSplit = reshapeForMultiHead(K, batchSize, seqLen);
-        Variable vSplit = reshapeForMultiHead(V, batchSize, seqLen);
+        Variable qSplit = reshapeForMultiHead(Q, batchSize, seqLen, numHeads);
+        Variable kSplit = reshapeForMultiHead(K, batchSize, seqLen, numKVHeads);
+        Variable vSplit = reshapeForMultiHead(V, batchSize, seqLen, numKVHeads);
 
         // 3. 应用 RoPE 位置编码（在 headDim 维度上）
-        qSplit = rope.forward(qSplit, new Variable(NdArray.of(new float[]{startPos})));
-        kSplit = rope.forward(kSplit, new Variable(NdArray.of(new float[]{startPos})));
+        qSplit = rope.forward(qSplit, positions);
+        kSplit = rope.forward(kSplit, positions);
 
         // 4. KV-Cache 处理
         if (kvCache != null) {
@@ -168,72 +248,46 @@ public class MultiHeadAttention extends Module {
             vSplit = new Variable(updated[1]);
         }
 
+        // 5. 融合注意力（因果掩码隐式处理，GQA 下核内按组共享 KV 头）
+        //    查询 i 的绝对位置为 kvSeqLen - seqLen + i，使用 KV-Cache（含滑动截断）时同样成立
         int kvSeqLen = kSplit.getShape().getShapeDims()[2];
+        if (keyPaddingMask != null && keyPaddingMask.length != batchSize * kvSeqLen) {
+            throw new IllegalArgumentException("keyPaddingMask长度应为 batch * kvSeqLen = "
+                    + batchSize * kvSeqLen + ", 实际为 " + keyPaddingMask.length);
+        }
+        float scale = (float) (1.0 / Math.sqrt(headDim));
+        float attnDropoutRate = isTraining() ? dropoutRate : 0.0f;
+        Variable attnOutput = new FlashAttention(scale, true, kvSeqLen - seqLen, keyPaddingMask, segmentIds,
+                attnDropoutRate, dropoutSeedRandom.nextLong(), FlashAttention.DEFAULT_BLOCK_SIZE)
+                .call(qSplit, kSplit, vSplit);
 
-        // 5-9. 注意力计算：使用 Variable 层面操作
-        Variable attnOutput = computeAttentionWithVariable(qSplit, kSplit, vSplit, 
-                                                   batchSize, seqLen, kvSeqLen, startPos, 
-                                                   kvCache == null);
-
-        // 10. 多头合并：[batch, numHeads, seqLen, headDim] -> [batch, seqLen, hiddenSize]
+        // 6. 多头合并：[batch, numHeads, seqLen, headDim] -> [batch, seqLen, hiddenSize]
         Variable merged = mergeMultiHead(attnOutput, batchSize, seqLen);
 
-        // 11. 输出投影
-        Variable output = outputProj.forward(merged);
+        // 7. 输出投影
+        Variable output = project(outputProj, merged, adapters);
 
         return output;
     }
 
     /**
-     * 使用 Variable 层面操作计算注意力
+     * 投影层前向；投影层在适配器路由表中时按每个样本的适配器计算
      */
-    private Variable computeAttentionWithVariable(Variable Q, Variable K, Variable V,
-                                         int batchSize, int seqLen, int kvSeqLen, int startPos,
-                                         boolean applyMask) {
-        // Q: [batch, numHeads, seqLen, headDim]
-        // K: [batch, numHeads, kvSeqLen, headDim]
-        // V: [batch, numHeads, kvSeqLen, headDim]
-        
-        // 5. 计算注意力分数：scores = (Q @ K^T) / sqrt(headDim)
-        // K^T: [batch, numHeads, headDim, kvSeqLen]
-        Variable KT = transposeLastTwoDims(K);  // [batch, numHeads, headDim, kvSeqLen]
-        
-        // 批量矩阵乘法: [batch*numHeads, seqLen, headDim] @ [batch*numHeads, headDim, kvSeqLen]
-        // -> [batch*numHeads, seqLen, kvSeqLen]
-        Variable scores = batchedMatMul(Q, KT, batchSize, numHeads, seqLen, headDim, kvSeqLen);
-        
-        // 缩放
-        float scale = (float) (1.0 / Math.sqrt(headDim));
-        Variable scaleVar = new Variable(scale);
-        scaleVar.setRequireGrad(false);
-        scores = scores.mul(scaleVar);
-        
-        // 6. 应用因果掩码
-        if (training || applyMask) {
-            scores = applyCausalMaskVar(scores, batchSize, numHeads, seqLen, kvSeqLen, startPos);
+    private static Variable project(Module proj, Variable x, Map<Module, LoRALinear.Adapter[]> adapters) {
+        LoRALinear.Adapter[] rowAdapters = adapters != null ? adapters.get(proj) : null;
+        if (rowAdapters != null) {
+            return ((LoRALinear) proj).forwardWithAdapters(x, rowAdapters);
         }
-        
-        // 7. Softmax 归一化 (在最后一个维度上)
-        Variable attnWeights = softmaxLastDim(scores, batchSize, numHeads, seqLen, kvSeqLen);
-        
-        // 8. Dropout（训练时）- 简化实现，略过
-        // TODO: 实现 Variable 层面的 dropout
-        
-        // 9. 应用注意力权重：output = attnWeights @ V
-        // [batch*numHeads, seqLen, kvSeqLen] @ [batch*numHeads, kvSeqLen, headDim]
-        // -> [batch*numHeads, seqLen, headDim]
-        Variable attended = batchedMatMul(attnWeights, V, batchSize, numHeads, seqLen, kvSeqLen, headDim);
-        
-        return attended;
+        return proj.forward(x);
     }
 
     // 已删除旧的 NdArray 直接操作方法，改用 Variable 算子
 
     /**
-     * 设置训练模式
+     * 设置训练模式（等价于 {@link #train(boolean)}）
      */
     public void setTraining(boolean training) {
-        this.training = training;
+        train(training);
     }
 
     /**
@@ -243,6 +297,13 @@ public class MultiHeadAttention extends Module {
         return numHeads;
     }
 
+    /**
+     * 获取键/值头数
+     */
+    public int getNumKVHeads() {
+        return numKVHeads;
+    }
+
     /**
      * 获取每个头的维度
      */
@@ -300,165 +361,24 @@ public class MultiHeadAttention extends Module {
     // =============================================================================
     
     /**
-     * 多头分割（使用 Variable.reshape）
-     * [batch, seqLen, hiddenSize] -> [batch, numHeads, seqLen, headDim]
+     * 多头分割
+     * [batch, seqLen, heads * headDim] -> [batch, heads, seqLen, headDim]
      */
-    private Variable reshapeForMultiHead(Variable input, int batchSize, int seqLen) {
-        // [batch, seqLen, hiddenSize] -> [batch, seqLen, numHeads, headDim]
-        Variable reshaped1 = input.reshape(Shape.of(batchSize, seqLen, numHeads, headDim));
-        // 转置为 [batch, numHeads, seqLen, headDim]
-        // 由于 Variable 暂不支持多维转置，使用 NdArray 操作
-        NdArray data = reshaped1.getValue();
-        NdArray transposed = transposeAxes(data, new int[]{0, 2, 1, 3});
-        return new Variable(transposed);
+    private Variable reshapeForMultiHead(Variable input, int batchSize, int seqLen, int heads) {
+        // [batch, seqLen, heads * headDim] -> [batch, seqLen, heads, headDim]
+        Variable reshaped = input.reshape(Shape.of(batchSize, seqLen, heads, headDim));
+        // 转置为 [batch, heads, seqLen, headDim]（Permute 保持计算图连通）
+        return new Permute(0, 2, 1, 3).call(reshaped);
     }
     
     /**
-     * 多头合并（使用 Variable.reshape）
+     * 多头合并
      * [batch, numHeads, seqLen, headDim] -> [batch, seqLen, hiddenSize]
      */
     private Variable mergeMultiHead(Variable input, int batchSize, int seqLen) {
         // [batch, numHeads, seqLen, headDim] -> [batch, seqLen, numHeads, headDim]
-        NdArray data = input.getValue();
-        NdArray transposed = transposeAxes(data, new int[]{0, 2, 1, 3});
-        Variable transposedVar = new Variable(transposed);
+        Variable transposed = new Permute(0, 2, 1, 3).call(input);
         // [batch, seqLen, numHeads, headDim] -> [batch, seqLen, hiddenSize]
-        return transposedVar.reshape(Shape.of(batchSize, seqLen, hiddenSize));
-    }
-    
-    /**
-     * 转置张量的最后两个维度
-     */
-    private Variable transposeLastTwoDims(Variable input) {
-        int[] shape = input.getShape().getShapeDims();
-        int ndim = shape.length;
-        int[] perm = new int[ndim];
-        for (int i = 0; i < ndim - 2; i++) {
-            perm[i] = i;
-        }
-        perm[ndim - 2] = ndim - 1;
-        perm[ndim - 1] = ndim - 2;
-        
-        NdArray transposed = transposeAxes(input.getValue(), perm);
-        return new Variable(transposed);
-    }
-    
-    /**
-     * 批量矩阵乘法（使用 Variable.bmm）
-     */
-    private Variable batchedMatMul(Variable a, Variable b, int batchSize, int numHeads,
-                                   int m, int k, int n) {
-        // a: [batch, numHeads, m, k]
-        // b: [batch, numHeads, k, n]
-        // -> [batch, numHeads, m, n]
-        
-        // Reshape 为 3D: [batch*numHeads, m, k] 和 [batch*numHeads, k, n]
-        Variable a3d = a.reshape(Shape.of(batchSize * numHeads, m, k));
-        Variable b3d = b.reshape(Shape.of(batchSize * numHeads, k, n));
-        
-        // 批量矩阵乘法
-        Variable result3d = a3d.bmm(b3d);  // [batch*numHeads, m, n]
-        
-        // Reshape 回 4D
-        return result3d.reshape(Shape.of(batchSize, numHeads, m, n));
-    }
-    
-    /**
-     * 应用因果掩码（使用 Variable.maskedFill）
-     */
-    private Variable applyCausalMaskVar(Variable scores, int batchSize, int numHeads,
-                                        int qSeqLen, int kvSeqLen, int startPos) {
-        // scores: [batch, numHeads, qSeqLen, kvSeqLen]
-        // 创建因果掩码矩阵
-        NdArray maskData = NdArray.zeros(Shape.of(batchSize, numHeads, qSeqLen, kvSeqLen));
-        float[] maskBuffer = ((io.leavesfly.tinyai.ndarr.cpu.NdArrayCpu) maskData).buffer;
-        
-        for (int b = 0; b < batchSize; b++) {
-            for (int h = 0; h < numHeads; h++) {
-                for (int i = 0; i < qSeqLen; i++) {
-                    for (int j = 0; j < kvSeqLen; j++) {
-                        int currentPos = startPos + i;
-                        if (j > currentPos) {
-                            int idx = ((b * numHeads + h) * qSeqLen + i) * kvSeqLen + j;
-                            maskBuffer[idx] = 1.0f;  // 标记需要掩码的位置
-                        }
-                    }
-                }
-            }
-        }
-        
-        Variable mask = new Variable(maskData);
-        mask.setRequireGrad(false);
-        
-        // 使用 maskedFill 将掩码位置填充为较大的负数（避免使用负无穷导致 NaN）
-        return scores.maskedFill(mask, -1e9f);
-    }
-    
-    /**
-     * 在最后一个维度上应用 Softmax
-     */
-    private Variable softmaxLastDim(Variable input, int batchSize, int numHeads,
-                                    int qSeqLen, int kvSeqLen) {
-        // input: [batch, numHeads, qSeqLen, kvSeqLen]
-        // Reshape 为 3D: [batch*numHeads*qSeqLen, kvSeqLen]
-        Variable reshaped = input.reshape(Shape.of(batchSize * numHeads * qSeqLen, kvSeqLen));
-        
-        // 应用 softmax
-        Variable softmaxed = reshaped.softMax();
-        
-        // Reshape 回 4D
-        return softmaxed.reshape(Shape.of(batchSize, numHeads, qSeqLen, kvSeqLen));
-    }
-    
-    /**
-     * 转置张量的轴
-     */
-    private NdArray transposeAxes(NdArray input, int[] perm) {
-        int[] shape = input.getShape().getShapeDims();
-        int[] newShape = new int[perm.length];
-        for (int i = 0; i < perm.length; i++) {
-            newShape[i] = shape[perm[i]];
-        }
-        
-        float[] inputBuffer = ((io.leavesfly.tinyai.ndarr.cpu.NdArrayCpu) input).buffer;
-        float[] outputBuffer = new float[inputBuffer.length];
-        
-        // 计算步长
-        int[] strides = new int[perm.length];
-        strides[perm.length - 1] = 1;
-        for (int i = perm.length - 2; i >= 0; i--) {
-            strides[i] = strides[i + 1] * shape[i + 1];
-        }
-        
-        int[] newStrides = new int[perm.length];
-        newStrides[perm.length - 1] = 1;
-        for (int i = perm.length - 2; i >= 0; i--) {
-            newStrides[i] = newStrides[i + 1] * newShape[i + 1];
-        }
-        
-        // 转置
-        int totalSize = inputBuffer.length;
-        for (int i = 0; i < totalSize; i++) {
-            int[] indices = new int[perm.length];
-            int remainder = i;
-            for (int j = 0; j < perm.length; j++) {
-                indices[j] = remainder / strides[j];
-                remainder %= strides[j];
-            }
-            
-            int[] newIndices = new int[perm.length];
-            for (int j = 0; j < perm.length; j++) {
-                newIndices[j] = indices[perm[j]];
-            }
-            
-            int newIdx = 0;
-            for (int j = 0; j < perm.length; j++) {
-                newIdx += newIndices[j] * newStrides[j];
-            }
-            
-            outputBuffer[newIdx] = inputBuffer[i];
-        }
-        
-        return NdArray.of(outputBuffer, Shape.of(newShape));
+        return transposed.reshape(Shape.of(batchSize, seqLen, hiddenSize));
     }
 }
@@ -21,7 +21,7 @@ public class RotaryPositionEmbedding extends Module {
     private final int maxSeqLen;     // 最大序列长度
     private final float theta;       // 频率基数(默认 10000)
     
-    // 使用 RotaryEmbedding Function 实现完整的自动微分
+    // 预计算了 cos/sin 缓存的 RotaryEmbedding Function，每次调用复制出新实例以保证计算图正确
     private final RotaryEmbedding ropeFunction;
 
     /**
@@ -69,11 +69,11 @@ public class RotaryPositionEmbedding extends Module {
         // 提取 startPos（如果提供）
         if (inputs.length > 1) {
             // 使用 RotaryEmbedding Function 的完整自动微分实现
-            return ropeFunction.call(x, inputs[1]);
+            return new RotaryEmbedding(ropeFunction).call(x, inputs[1]);
         } else {
             // 默认 startPos = 0
             Variable startPosVar = new Variable(NdArray.of(new float[]{0}));
-            return ropeFunction.call(x, startPosVar);
+            return new RotaryEmbedding(ropeFunction).call(x, startPosVar);
         }
     }
 
@@ -8,6 +8,7 @@ import io.leavesfly.tinyai.minimind.moe.MoEConfig;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertUtilization;
 import io.leavesfly.tinyai.nnet.v2.layer.norm.LayerNorm;
 
 import java.util.ArrayList;
@@ -74,6 +75,11 @@ public class MiniMindMoEBlock extends Module {
      */
     private float totalBalanceLoss = 0.0f;
 
+    /**
+     * 最近一次前向各层的专家利用率
+     */
+    private List<ExpertUtilization> expertUtilizations = new ArrayList<>();
+
     /**
      * 构造 MiniMindMoEBlock
      *
@@ -154,6 +160,7 @@ public class MiniMindMoEBlock extends Module {
     public MoEOutput forwardWithCache(Variable tokenIds, List<KVCache> kvCaches, int startPos) {
         // 重置负载均衡损失
         totalBalanceLoss = 0.0f;
+        List<ExpertUtilization> utilizations = new ArrayList<>(layers.size());
 
         // 1. Token Embedding: [batch, seq_len] -> [batch, seq_len, hidden_size]
         Variable x = tokenEmbedding.forward(tokenIds);
@@ -168,7 +175,9 @@ public class MiniMindMoEBlock extends Module {
             
             x = layerOutput.getOutput();
             totalBalanceLoss += layerOutput.getBalanceLoss();
+            utilizations.add(layerOutput.getUtilization());
         }
+        expertUtilizations = utilizations;
 
         // 3. 最终归一化
         x = finalNorm.forward(x);
@@ -176,7 +185,7 @@ public class MiniMindMoEBlock extends Module {
         // 4. LM Head: [batch, seq_len, hidden_size] -> [batch, seq_len, vocab_size]
         Variable logits = lmHead.forward(x);
 
-        return new MoEOutput(logits, totalBalanceLoss);
+        return new MoEOutput(logits, totalBalanceLoss, utilizations);
     }
 
     /**
@@ -200,9 +209,10 @@ public class MiniMindMoEBlock extends Module {
     public List<KVCache> createKVCaches(int batchSize) {
         List<KVCache> kvCaches = new ArrayList<>();
         for (int i = 0; i < config.getNumLayers(); i++) {
+            // GQA 下缓存只保存 numKVHeads 个头
             KVCache cache = new KVCache(
                 batchSize,
-                config.getNumHeads(),
+                config.getNumKVHeads(),
                 config.getHiddenSize() / config.getNumHeads(),
                 config.getMaxSeqLen()
             );
@@ -271,6 +281,13 @@ public class MiniMindMoEBlock extends Module {
         return totalBalanceLoss;
     }
 
+    /**
+     * 获取最近一次前向传播各层的专家利用率
+     */
+    public List<ExpertUtilization> getExpertUtilizations() {
+        return expertUtilizations;
+    }
+
     /**
      * 获取专家使用统计
      */
@@ -340,8 +357,9 @@ public class MiniMindMoEBlock extends Module {
         int numExperts = config.getNumExperts();
         
         for (int i = 0; i < config.getNumLayers(); i++) {
-            // Attention (QKV + Output)
-            params += (long) hiddenSize * hiddenSize * 4;
+            // Attention (Q/Output + GQA 下缩小的 K/V)
+            params += (long) hiddenSize * hiddenSize * 2;
+            params += (long) hiddenSize * config.getNumKVHeads() * (hiddenSize / numHeads) * 2;
             
             // MoE FFN (每个专家)
             long expertParams = (long) hiddenSize * ffnHidden + (long) ffnHidden * hiddenSize;
@@ -374,10 +392,16 @@ public class MiniMindMoEBlock extends Module {
     public static class MoEOutput {
         private final Variable output;
         private final float balanceLoss;
+        private final List<ExpertUtilization> utilizations;
 
         public MoEOutput(Variable output, float balanceLoss) {
+            this(output, balanceLoss, new ArrayList<>());
+        }
+
+        public MoEOutput(Variable output, float balanceLoss, List<ExpertUtilization> utilizations) {
             this.output = output;
             this.balanceLoss = balanceLoss;
+            this.utilizations = utilizations;
         }
 
         public Variable getOutput() {
@@ -388,6 +412,13 @@ public class MiniMindMoEBlock extends Module {
             return balanceLoss;
         }
 
+        /**
+         * 获取各层的专家利用率统计
+         */
+        public List<ExpertUtilization> getUtilizations() {
+            return utilizations;
+        }
+
         @Override
         public String toString() {
             return String.format("MoEOutput(shape=%s, balance_loss=%.6f)",
@@ -7,6 +7,8 @@ import io.leavesfly.tinyai.minimind.model.attention.MultiHeadAttention;
 import io.leavesfly.tinyai.minimind.moe.*;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertParallelExecutor;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertUtilization;
 import io.leavesfly.tinyai.nnet.v2.layer.norm.LayerNorm;
 
 /**
@@ -77,6 +79,7 @@ public class MiniMindMoETransformerLayer extends Module {
 
         int hiddenSize = config.getHiddenSize();
         int numHeads = config.getNumHeads();
+        int numKVHeads = config.getNumKVHeads();
         int maxSeqLen = config.getMaxSeqLen();
         float epsilon = config.getEpsilon();
 
@@ -89,6 +92,7 @@ public class MiniMindMoETransformerLayer extends Module {
             name + "_attn",
             hiddenSize,
             numHeads,
+            numKVHeads,
             maxSeqLen,
             0.0f  // dropout
         );
@@ -107,6 +111,10 @@ public class MiniMindMoETransformerLayer extends Module {
             moeConfig.getTopK(),
             moeConfig.getNoiseFactor()
         );
+        moeLayer.setCapacityFactor(moeConfig.getCapacityFactor());
+        moeLayer.setExecutor(moeConfig.isExpertParallel()
+            ? ExpertParallelExecutor.shared()
+            : ExpertParallelExecutor.sequential());
         registerModule("moe", moeLayer);
 
         // 5. 负载均衡损失
@@ -145,10 +153,10 @@ public class MiniMindMoETransformerLayer extends Module {
         
         // 获取 Router 输出（用于计算负载均衡损失）
         ExpertRouter router = moeLayer.getRouter();
-        ExpertRouter.RouterOutput routerOutput = router.forwardRouter(norm2Output);
+        ExpertRouter.RouterOutput routerOutput = router.forwardRouter(moeLayer.flatten(norm2Output));
         
-        // MoE 前向传播
-        Variable moeOutput = moeLayer.forwardVar(norm2Output);
+        // MoE 前向传播（复用同一次路由结果）
+        Variable moeOutput = moeLayer.forwardVar(norm2Output, routerOutput);
         Variable output = afterAttn.add(moeOutput);
 
         // 3. 计算负载均衡损失
@@ -158,7 +166,7 @@ public class MiniMindMoETransformerLayer extends Module {
             balanceLoss = loadBalanceLoss.computeLoss(stats, moeConfig.getNumExperts());
         }
 
-        return new LayerOutput(output, balanceLoss);
+        return new LayerOutput(output, balanceLoss, moeLayer.getLastUtilization());
     }
 
     /**
@@ -208,10 +216,16 @@ public class MiniMindMoETransformerLayer extends Module {
     public static class LayerOutput {
         private final Variable output;
         private final float balanceLoss;
+        private final ExpertUtilization utilization;
 
         public LayerOutput(Variable output, float balanceLoss) {
+            this(output, balanceLoss, null);
+        }
+
+        public LayerOutput(Variable output, float balanceLoss, ExpertUtilization utilization) {
             this.output = output;
             this.balanceLoss = balanceLoss;
+            this.utilization = utilization;
         }
 
         public Variable getOutput() {
@@ -222,6 +236,13 @@ public class MiniMindMoETransformerLayer extends Module {
             return balanceLoss;
         }
 
+        /**
+         * 获取专家利用率统计
+         */
+        public ExpertUtilization getUtilization() {
+            return utilization;
+        }
+
         @Override
         public String toString() {
             return String.format("LayerOutput(shape=%s, balance_loss=%.6f)",
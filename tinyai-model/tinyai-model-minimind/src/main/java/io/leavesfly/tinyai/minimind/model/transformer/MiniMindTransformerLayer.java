@@ -3,11 +3,15 @@ package io.leavesfly.tinyai.minimind.model.transformer;
 import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.minimind.model.attention.KVCache;
 import io.leavesfly.tinyai.minimind.model.attention.MultiHeadAttention;
+import io.leavesfly.tinyai.minimind.training.lora.LoRALinear;
+import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.layer.activation.SiLU;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
 import io.leavesfly.tinyai.nnet.v2.layer.norm.LayerNorm;
 
+import java.util.Map;
+
 /**
  * MiniMind Transformer 层
  * <p>
@@ -82,6 +86,24 @@ public class MiniMindTransformerLayer extends Module {
     public MiniMindTransformerLayer(String name, int hiddenSize, int numHeads, 
                                     int ffnHiddenSize, int maxSeqLen, 
                                     float dropoutRate, float epsilon) {
+        this(name, hiddenSize, numHeads, numHeads, ffnHiddenSize, maxSeqLen, dropoutRate, epsilon);
+    }
+
+    /**
+     * 构造使用分组查询注意力的 Transformer 层
+     *
+     * @param name          层名称
+     * @param hiddenSize    隐藏层维度
+     * @param numHeads      查询头数
+     * @param numKVHeads    键/值头数
+     * @param ffnHiddenSize 前馈网络隐藏层维度
+     * @param maxSeqLen     最大序列长度
+     * @param dropoutRate   Dropout 比例
+     * @param epsilon       LayerNorm 的 epsilon
+     */
+    public MiniMindTransformerLayer(String name, int hiddenSize, int numHeads, int numKVHeads,
+                                    int ffnHiddenSize, int maxSeqLen, 
+                                    float dropoutRate, float epsilon) {
         super(name);
 
         this.hiddenSize = hiddenSize;
@@ -92,7 +114,7 @@ public class MiniMindTransformerLayer extends Module {
         registerModule("attention_norm", attentionNorm);
 
         // 2. 多头注意力层
-        this.attention = new MultiHeadAttention("attention", hiddenSize, numHeads, maxSeqLen, dropoutRate);
+        this.attention = new MultiHeadAttention("attention", hiddenSize, numHeads, numKVHeads, maxSeqLen, dropoutRate);
         registerModule("attention", attention);
 
         // 3. 前馈网络前的 LayerNorm
@@ -132,13 +154,55 @@ public class MiniMindTransformerLayer extends Module {
      * @return 输出 Variable
      */
     public Variable forwardWithCache(Variable x, KVCache kvCache, int startPos) {
+        return forwardWithCache(x, kvCache, startPos, null);
+    }
+
+    /**
+     * 带 KV-Cache 与键填充掩码的前向传播
+     *
+     * @param x              输入 Variable
+     * @param kvCache        KV-Cache 对象（可为 null）
+     * @param startPos       起始位置（用于 RoPE 和因果掩码）
+     * @param keyPaddingMask 键填充掩码 [batch, kvSeqLen]，1 表示填充，可为 null
+     * @return 输出 Variable
+     */
+    public Variable forwardWithCache(Variable x, KVCache kvCache, int startPos, float[] keyPaddingMask) {
         // 1. 注意力子层
         // x_norm1 = LayerNorm(x)
         Variable xNorm1 = attentionNorm.forward(x);
 
         // attn_out = MultiHeadAttention(x_norm1, kvCache, startPos)
-        Variable attnOut = attention.forwardWithCache(xNorm1, kvCache, startPos);
+        Variable attnOut = attention.forwardWithCache(xNorm1, kvCache, startPos, keyPaddingMask);
+
+        return residualFeedForward(x, attnOut);
+    }
+
+    /**
+     * 序列打包的前向传播（文档内位置ID + 块对角因果注意力）
+     *
+     * @param x           输入 Variable
+     * @param positionIds 位置ID [batch, seqLen]
+     * @param segmentIds  文档分段ID [batch * seqLen]
+     * @return 输出 Variable
+     */
+    public Variable forwardPacked(Variable x, NdArray positionIds, int[] segmentIds) {
+        Variable attnOut = attention.forwardPacked(attentionNorm.forward(x), positionIds, segmentIds);
+        return residualFeedForward(x, attnOut);
+    }
+
+    /**
+     * 多适配器前向（推理路径），见 {@link MultiHeadAttention#forwardWithAdapters}
+     *
+     * @param x        输入 Variable
+     * @param adapters LoRA 投影层 -> 每个样本的适配器
+     * @return 输出 Variable
+     */
+    public Variable forwardWithAdapters(Variable x, Map<Module, LoRALinear.Adapter[]> adapters) {
+        Variable attnOut = attention.forwardWithAdapters(attentionNorm.forward(x), adapters);
+        return residualFeedForward(x, attnOut);
+    }
 
+    private Variable residualFeedForward(Variable x, Variable attnOut) {
         // 残差连接: x = x + attn_out
         x = x.add(attnOut);
 
@@ -180,12 +244,12 @@ public class MiniMindTransformerLayer extends Module {
     }
 
     /**
-     * 设置训练模式
+     * 设置训练模式（等价于 {@link #train(boolean)}，递归作用于所有子模块）
      *
      * @param training 是否为训练模式
      */
     public void setTraining(boolean training) {
-        attention.setTraining(training);
+        train(training);
     }
 
     /**
@@ -29,6 +29,10 @@ public class MoEConfig {
     private boolean sharedExperts;  // 是否使用共享专家
     private float dropoutRate;      // Dropout比率
     
+    // ========== 执行配置 ==========
+    private float capacityFactor;   // 专家容量因子(<=0表示不限制)
+    private boolean expertParallel; // 是否并发执行各专家
+    
     /**
      * 私有构造函数(使用Builder创建)
      */
@@ -143,6 +147,14 @@ public class MoEConfig {
         return dropoutRate;
     }
     
+    public float getCapacityFactor() {
+        return capacityFactor;
+    }
+    
+    public boolean isExpertParallel() {
+        return expertParallel;
+    }
+    
     /**
      * 计算参数数量
      */
@@ -210,6 +222,8 @@ public class MoEConfig {
             config.enableLoadBalance = true;
             config.sharedExperts = false;
             config.dropoutRate = 0.0f;
+            config.capacityFactor = 0.0f;
+            config.expertParallel = false;
         }
         
         public Builder inputDim(int inputDim) {
@@ -267,6 +281,16 @@ public class MoEConfig {
             return this;
         }
         
+        public Builder capacityFactor(float capacityFactor) {
+            config.capacityFactor = capacityFactor;
+            return this;
+        }
+        
+        public Builder expertParallel(boolean expertParallel) {
+            config.expertParallel = expertParallel;
+            return this;
+        }
+        
         public MoEConfig build() {
             validate();
             return config;
@@ -291,6 +315,9 @@ public class MoEConfig {
             if (config.noiseFactor < 0) {
                 throw new IllegalArgumentException("noiseFactor must be >= 0");
             }
+            if (config.capacityFactor < 0) {
+                throw new IllegalArgumentException("capacityFactor must be >= 0");
+            }
         }
     }
 }
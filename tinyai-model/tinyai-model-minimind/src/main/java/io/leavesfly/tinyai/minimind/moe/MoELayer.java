@@ -5,6 +5,9 @@ import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.core.Parameter;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertDispatcher;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertParallelExecutor;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertUtilization;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -17,9 +20,9 @@ import java.util.Map;
  * 
  * 工作流程:
  * 1. Router计算Top-K专家和权重
- * 2. 将输入路由到选中的专家
- * 3. 专家并行处理
- * 4. 按权重加权合并输出
+ * 2. 将token行分发(gather)到选中的专家
+ * 3. 每个专家仅处理分配给它的token
+ * 4. 按权重加权并scatter-add合并输出
  * 
  * 核心公式:
  * output = Σ(w_i · Expert_i(x)) for i in Top-K
@@ -38,9 +41,14 @@ public class MoELayer extends Module {
     private final ExpertRouter router;
     private final List<ExpertNetwork> experts;
     
+    // 执行配置
+    private float capacityFactor = 0.0f;  // 专家容量因子(<=0表示不限制)
+    private ExpertParallelExecutor executor = ExpertParallelExecutor.sequential();
+    
     // 统计信息
     private long[] expertUsageCount;  // 每个专家被使用次数
     private long totalCalls;          // 总调用次数
+    private ExpertUtilization lastUtilization;  // 最近一次前向的专家利用率
     
     /**
      * 构造函数
@@ -102,61 +110,71 @@ public class MoELayer extends Module {
     /**
      * 前向传播(Variable版本)
      * 
-     * @param input 输入 [batch_size, input_dim]
-     * @return 输出 [batch_size, output_dim]
+     * @param input 输入 [batch_size, input_dim] 或 [batch_size, seq_len, input_dim]
+     * @return 输出 [batch_size, output_dim] 或 [batch_size, seq_len, output_dim]
      */
     public Variable forwardVar(Variable input) {
-        int batchSize = input.getShape().getDimension(0);
+        Variable flatInput = flatten(input);
+        ExpertRouter.RouterOutput routerOutput = router.forwardRouter(flatInput);
+        return forwardVar(input, routerOutput);
+    }
+    
+    /**
+     * 使用已计算的路由结果进行前向传播
+     * <p>
+     * 便于调用方复用同一次路由结果计算负载均衡损失，避免重复路由
+     * 
+     * @param input 输入 [batch_size, input_dim] 或 [batch_size, seq_len, input_dim]
+     * @param routerOutput 基于展平输入 [num_tokens, input_dim] 的路由结果
+     * @return 输出，前导维度与输入一致
+     */
+    public Variable forwardVar(Variable input, ExpertRouter.RouterOutput routerOutput) {
+        Variable flatInput = flatten(input);
+        int numTokens = flatInput.getShape().getDimension(0);
         
-        // 1. Router计算Top-K专家和权重
-        ExpertRouter.RouterOutput routerOutput = router.forwardRouter(input);
-        int[][] topKIndices = routerOutput.getTopKIndices();
-        float[][] topKWeights = routerOutput.getTopKWeights();
+        // 1. 根据Top-K路由结果构建分发表(超出容量的token被丢弃)
+        ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(
+            routerOutput.getTopKIndices(), routerOutput.getTopKWeights(), numExperts, capacityFactor);
         
-        // 2. 准备输出变量 (初始化为零)
-        Variable output = Variable.zeros(Shape.of(batchSize, outputDim));
+        // 2. 每个专家只处理被路由到它的token(可并发)，加权后scatter回原位置
+        ExpertDispatcher.DispatchResult result =
+            ExpertDispatcher.dispatch(flatInput, plan, experts, outputDim, executor);
+        Variable output = result.getOutput();
+        lastUtilization = result.getUtilization();
         
-        // 3. 对每个样本路由到对应专家
-        for (int b = 0; b < batchSize; b++) {
-            // 提取当前样本: 使用 indexSelect
-            Variable batchIndexVar = new Variable(NdArray.of(new float[]{b}));
-            batchIndexVar.setRequireGrad(false);
-            Variable sampleInput = input.indexSelect(0, batchIndexVar);  // [1, input_dim]
-            
-            // 累加Top-K专家的输出
-            Variable sampleOutput = Variable.zeros(Shape.of(1, outputDim));
-            
-            for (int k = 0; k < topK; k++) {
-                int expertIdx = topKIndices[b][k];
-                float weight = topKWeights[b][k];
-                
-                // 专家前向传播
-                ExpertNetwork expert = experts.get(expertIdx);
-                Variable expertOutput = expert.forwardVar(sampleInput);  // [1, output_dim]
-                
-                // 加权累加: 使用 Variable 算子
-                Variable weightVar = new Variable(weight);
-                weightVar.setRequireGrad(false);
-                Variable weightedOutput = expertOutput.mul(weightVar);
-                sampleOutput = sampleOutput.add(weightedOutput);
-                
-                // 更新统计
-                expertUsageCount[expertIdx]++;
-            }
-            
-            // 将样本输出写入总输出 (使用 scatterAdd 或直接赋值)
-            // 简化实现: 直接操作 NdArray (因为这是写入操作，不影响梯度)
-            NdArray outputData = output.getValue();
-            NdArray sampleOutputData = sampleOutput.getValue();
-            float[] outputBuffer = ((io.leavesfly.tinyai.ndarr.cpu.NdArrayCpu) outputData).buffer;
-            float[] sampleBuffer = ((io.leavesfly.tinyai.ndarr.cpu.NdArrayCpu) sampleOutputData).buffer;
-            System.arraycopy(sampleBuffer, 0, outputBuffer, b * outputDim, outputDim);
+        // 3. 更新统计
+        int[] tokenCounts = plan.getTokenCounts();
+        for (int e = 0; e < numExperts; e++) {
+            expertUsageCount[e] += tokenCounts[e];
         }
+        totalCalls += numTokens;
         
-        totalCalls += batchSize;
-        
-        // 4. 返回结果
-        return output;
+        return unflatten(output, input);
+    }
+    
+    /**
+     * 将输入展平为 [num_tokens, input_dim]
+     */
+    public Variable flatten(Variable input) {
+        Shape shape = input.getShape();
+        if (shape.getDimNum() == 2) {
+            return input;
+        }
+        int lastDim = shape.getDimension(shape.getDimNum() - 1);
+        return input.reshape(Shape.of(shape.size() / lastDim, lastDim));
+    }
+    
+    /**
+     * 将展平的输出恢复为与输入一致的前导维度
+     */
+    private Variable unflatten(Variable output, Variable input) {
+        Shape shape = input.getShape();
+        if (shape.getDimNum() == 2) {
+            return output;
+        }
+        int[] dims = shape.getShapeDims().clone();
+        dims[dims.length - 1] = outputDim;
+        return output.reshape(Shape.of(dims));
     }
     
     /**
@@ -236,6 +254,31 @@ public class MoELayer extends Module {
         totalCalls = 0;
     }
     
+    /**
+     * 设置专家容量因子
+     * 
+     * @param capacityFactor 每个专家最多处理 ceil(因子 × token数 × topK / 专家数) 个token，<=0表示不限制
+     */
+    public void setCapacityFactor(float capacityFactor) {
+        this.capacityFactor = capacityFactor;
+    }
+    
+    /**
+     * 设置专家并行执行器
+     * 
+     * @param executor 执行器，为null时顺序执行
+     */
+    public void setExecutor(ExpertParallelExecutor executor) {
+        this.executor = executor != null ? executor : ExpertParallelExecutor.sequential();
+    }
+    
+    /**
+     * 获取最近一次前向传播的专家利用率统计
+     */
+    public ExpertUtilization getLastUtilization() {
+        return lastUtilization;
+    }
+    
     /**
      * 获取Router
      */
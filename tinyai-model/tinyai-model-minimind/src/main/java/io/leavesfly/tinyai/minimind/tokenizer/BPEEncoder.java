@@ -0,0 +1,396 @@
+package io.leavesfly.tinyai.minimind.tokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于合并优先级的 BPE 编码器
+ * <p>
+ * 构造时将 merge 规则预处理为 "符号ID对 -> (优先级, 合并后符号ID)" 的哈希表，
+ * 符号对打包为一个 long 作为键。编码时在 int 数组上操作：
+ * <ul>
+ *   <li>相邻符号用双向链表（prev/next 数组）连接</li>
+ *   <li>所有可合并的相邻对按 (优先级, 位置) 放入最小堆，每次弹出优先级最小的对进行合并，
+ *       并只重新检查合并点左右两个新产生的对</li>
+ * </ul>
+ * 单个块的复杂度为 O(n log n)。弹出顺序与按 merge 列表顺序逐条从左到右应用规则完全一致，
+ * 因此编码结果与逐条应用 merge 的朴素实现相同。
+ * <p>
+ * merge 规则的组成部分不含空白字符时，文本按空白切分为块分别编码（空白不参与合并），
+ * 块的编码结果放入 LRU 缓存，重复出现的词无需再次合并。
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class BPEEncoder {
+
+    /**
+     * 默认 LRU 缓存容量（块数）
+     */
+    public static final int DEFAULT_CACHE_SIZE = 16384;
+
+    private static final int DELETED = Integer.MIN_VALUE;
+
+    /**
+     * 单字符 -> 符号ID，-1 表示该字符不参与任何合并
+     */
+    private final int[] charSymbols = new int[Character.MAX_VALUE + 1];
+
+    /**
+     * 符号ID -> 词汇表ID
+     */
+    private final int[] symbolVocabIds;
+
+    /**
+     * 符号对 -> (优先级, 合并后符号)
+     */
+    private final PairTable pairTable;
+
+    /**
+     * 是否可以按空白切块（merge 组成部分不含空白时成立）
+     */
+    private final boolean chunkByWhitespace;
+
+    private final Vocabulary vocabulary;
+    private final Map<String, int[]> cache;
+    private final int cacheSize;
+
+    /**
+     * 构造函数
+     *
+     * @param merges     merge 规则，格式 "a b"，列表顺序即优先级
+     * @param vocabulary 词汇表
+     * @param cacheSize  LRU 缓存容量，0 表示不缓存
+     */
+    public BPEEncoder(List<String> merges, Vocabulary vocabulary, int cacheSize) {
+        this.vocabulary = vocabulary;
+        this.cacheSize = cacheSize;
+        Arrays.fill(charSymbols, -1);
+
+        Map<String, Integer> symbolIds = new HashMap<>();
+        List<String> symbols = new ArrayList<>();
+        this.pairTable = new PairTable(merges.size());
+        boolean whitespaceFree = true;
+
+        for (int rank = 0; rank < merges.size(); rank++) {
+            String[] pair = merges.get(rank).split(" ");
+            if (pair.length != 2) {
+                continue;
+            }
+            int left = symbolId(pair[0], symbolIds, symbols);
+            int right = symbolId(pair[1], symbolIds, symbols);
+            int merged = symbolId(pair[0] + pair[1], symbolIds, symbols);
+            // 重复的规则只有第一次出现生效
+            pairTable.putIfAbsent(pack(left, right), rank, merged);
+            whitespaceFree &= !containsWhitespace(pair[0]) && !containsWhitespace(pair[1]);
+        }
+        this.chunkByWhitespace = whitespaceFree;
+
+        this.symbolVocabIds = new int[symbols.size()];
+        for (int id = 0; id < symbols.size(); id++) {
+            String symbol = symbols.get(id);
+            symbolVocabIds[id] = vocabulary.getTokenId(symbol);
+            if (symbol.length() == 1) {
+                charSymbols[symbol.charAt(0)] = id;
+            }
+        }
+
+        this.cache = cacheSize > 0
+            ? Collections.synchronizedMap(new LinkedHashMap<String, int[]>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                    return size() > BPEEncoder.this.cacheSize;
+                }
+            })
+            : null;
+    }
+
+    /**
+     * 使用默认缓存容量构造
+     */
+    public BPEEncoder(List<String> merges, Vocabulary vocabulary) {
+        this(merges, vocabulary, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * 编码文本（不做归一化，不添加特殊token）
+     *
+     * @param text 文本
+     * @return 词汇表ID
+     */
+    public int[] encode(String text) {
+        if (!chunkByWhitespace) {
+            return encodeChunk(text);
+        }
+        int[] output = new int[Math.max(16, text.length())];
+        int size = 0;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                output[size++] = vocabulary.getTokenId(String.valueOf(c));
+                i++;
+                continue;
+            }
+            int end = i + 1;
+            while (end < n && !Character.isWhitespace(text.charAt(end))) {
+                end++;
+            }
+            int[] chunkIds = cachedChunk(text.substring(i, end));
+            // 合并只会减少token数，输出长度不会超过字符数
+            System.arraycopy(chunkIds, 0, output, size, chunkIds.length);
+            size += chunkIds.length;
+            i = end;
+        }
+        return Arrays.copyOf(output, size);
+    }
+
+    private int[] cachedChunk(String chunk) {
+        if (cache == null) {
+            return encodeChunk(chunk);
+        }
+        int[] ids = cache.get(chunk);
+        if (ids == null) {
+            ids = encodeChunk(chunk);
+            cache.put(chunk, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * 对单个块执行优先级合并
+     */
+    private int[] encodeChunk(String chunk) {
+        int n = chunk.length();
+        int[] symbols = new int[n];
+        int[] prev = new int[n];
+        int[] next = new int[n];
+        for (int i = 0; i < n; i++) {
+            char c = chunk.charAt(i);
+            int symbol = charSymbols[c];
+            // 不参与合并的字符编码为负数，保留原字符
+            symbols[i] = symbol >= 0 ? symbol : -1 - c;
+            prev[i] = i - 1;
+            next[i] = i + 1;
+        }
+
+        LongHeap heap = new LongHeap(Math.max(4, n));
+        for (int i = 0; i + 1 < n; i++) {
+            int slot = pairTable.find(symbols[i], symbols[i + 1]);
+            if (slot >= 0) {
+                heap.push(entry(pairTable.ranks[slot], i));
+            }
+        }
+
+        while (!heap.isEmpty()) {
+            long top = heap.pop();
+            int rank = (int) (top >>> 32);
+            int pos = (int) top;
+            if (symbols[pos] == DELETED || next[pos] >= n) {
+                continue;
+            }
+            int right = next[pos];
+            int slot = pairTable.find(symbols[pos], symbols[right]);
+            if (slot < 0 || pairTable.ranks[slot] != rank) {
+                // 过期条目：该位置的符号对已被之前的合并改变
+                continue;
+            }
+
+            symbols[pos] = pairTable.merged[slot];
+            symbols[right] = DELETED;
+            next[pos] = next[right];
+            if (next[pos] < n) {
+                prev[next[pos]] = pos;
+            }
+
+            // 只检查新产生的两个对；优先级不高于当前的对在逐条应用时已错过，不再合并
+            if (prev[pos] >= 0) {
+                pushIfLater(heap, symbols[prev[pos]], symbols[pos], prev[pos], rank);
+            }
+            if (next[pos] < n) {
+                pushIfLater(heap, symbols[pos], symbols[next[pos]], pos, rank);
+            }
+        }
+
+        int[] ids = new int[n];
+        int size = 0;
+        for (int i = 0; i < n; i = next[i]) {
+            int symbol = symbols[i];
+            ids[size++] = symbol >= 0
+                ? symbolVocabIds[symbol]
+                : vocabulary.getTokenId(String.valueOf((char) (-1 - symbol)));
+        }
+        return size == n ? ids : Arrays.copyOf(ids, size);
+    }
+
+    private void pushIfLater(LongHeap heap, int left, int right, int pos, int currentRank) {
+        int slot = pairTable.find(left, right);
+        if (slot >= 0 && pairTable.ranks[slot] > currentRank) {
+            heap.push(entry(pairTable.ranks[slot], pos));
+        }
+    }
+
+    /**
+     * 清空编码缓存
+     */
+    public void clearCache() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * 当前缓存的块数
+     */
+    public int getCacheSize() {
+        return cache != null ? cache.size() : 0;
+    }
+
+    /**
+     * 可合并的符号对数量
+     */
+    public int getNumPairs() {
+        return pairTable.size;
+    }
+
+    private static int symbolId(String symbol, Map<String, Integer> symbolIds, List<String> symbols) {
+        Integer id = symbolIds.get(symbol);
+        if (id == null) {
+            id = symbols.size();
+            symbolIds.put(symbol, id);
+            symbols.add(symbol);
+        }
+        return id;
+    }
+
+    private static boolean containsWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long pack(int left, int right) {
+        return ((long) left << 32) | (right & 0xFFFFFFFFL);
+    }
+
+    private static long entry(int rank, int pos) {
+        return ((long) rank << 32) | pos;
+    }
+
+    /**
+     * 开放寻址哈希表：打包的符号对 -> (优先级, 合并后符号)
+     */
+    private static final class PairTable {
+        private final long[] keys;
+        private final boolean[] used;
+        private final int[] ranks;
+        private final int[] merged;
+        private final int mask;
+        private int size;
+
+        PairTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+            this.keys = new long[capacity];
+            this.used = new boolean[capacity];
+            this.ranks = new int[capacity];
+            this.merged = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        void putIfAbsent(long key, int rank, int mergedSymbol) {
+            int slot = slot(key);
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            ranks[slot] = rank;
+            merged[slot] = mergedSymbol;
+            size++;
+        }
+
+        int find(int left, int right) {
+            if (left < 0 || right < 0) {
+                return -1;
+            }
+            long key = pack(left, right);
+            int slot = slot(key);
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+
+    /**
+     * long 最小堆，条目为 (优先级 << 32 | 位置)，相同优先级按位置从左到右弹出
+     */
+    private static final class LongHeap {
+        private long[] data;
+        private int size;
+
+        LongHeap(int capacity) {
+            this.data = new long[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(long value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (data[parent] <= value) {
+                    break;
+                }
+                data[i] = data[parent];
+                i = parent;
+            }
+            data[i] = value;
+        }
+
+        long pop() {
+            long top = data[0];
+            long last = data[--size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && data[child + 1] < data[child]) {
+                    child++;
+                }
+                if (last <= data[child]) {
+                    break;
+                }
+                data[i] = data[child];
+                i = child;
+            }
+            data[i] = last;
+            return top;
+        }
+    }
+}
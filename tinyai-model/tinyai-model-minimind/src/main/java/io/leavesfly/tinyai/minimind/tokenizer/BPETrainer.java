@@ -3,6 +3,7 @@ package io.leavesfly.tinyai.minimind.tokenizer;
 import java.io.*;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * BPE (Byte Pair Encoding) 训练器
@@ -19,6 +20,11 @@ import java.util.stream.Collectors;
  * 3. 合并: 选择频率最高的token对进行合并
  * 4. 迭代: 重复步骤2-3直到达到目标词汇表大小
  * 
+ * <p>实现:
+ * - 词以int符号数组存储，词频与初始pair频率按语料分片并行统计
+ * - 维护pair频率表与 pair -> 词 的倒排索引，每次合并只更新包含该pair的词
+ * - 最高频pair由惰性删除的优先队列选出，频率相同时取字典序较小的pair
+ * 
  * @author leavesfly
  * @since 2024
  */
@@ -92,47 +98,37 @@ public class BPETrainer {
         Map<String, Integer> wordFreqs = getWordFrequencies(corpus);
         System.out.println("统计得到 " + wordFreqs.size() + " 个不同的词");
         
-        // 3. 将words转换为字符序列
-        Map<List<String>, Integer> wordTokens = initializeWordTokens(wordFreqs);
+        // 3. 将words转换为符号序列，并行统计初始pair频率与倒排索引
+        PairIndex index = new PairIndex(wordFreqs);
         
         // 4. 迭代合并高频pair
         int numMerges = vocabSize - vocab.size();
         System.out.println("需要进行 " + numMerges + " 次合并");
         
         for (int i = 0; i < numMerges; i++) {
-            // 统计所有pair的频率
-            Map<String, Integer> pairFreqs = computePairFrequencies(wordTokens);
+            // 选择频率最高的pair
+            PairEntry best = index.pollBest();
             
-            if (pairFreqs.isEmpty()) {
+            if (best == null) {
                 System.out.println("没有更多的pair可以合并,训练提前结束");
                 break;
             }
             
-            // 选择频率最高的pair
-            Map.Entry<String, Integer> bestPair = Collections.max(
-                pairFreqs.entrySet(),
-                Map.Entry.comparingByValue()
-            );
-            
-            String pair = bestPair.getKey();
-            int freq = bestPair.getValue();
+            String pair = index.pairString(best.pair);
+            int freq = best.count;
             
             if (freq < minFrequency) {
                 System.out.println("最高频率 " + freq + " 小于阈值 " + minFrequency + ",训练提前结束");
                 break;
             }
             
-            // 合并pair
-            String[] tokens = pair.split(" ");
-            String mergedToken = tokens[0] + tokens[1];
+            // 合并pair, 增量更新包含该pair的词
+            String mergedToken = index.merge(best.pair);
             
             // 更新词汇表
             vocab.put(mergedToken, vocab.size());
             merges.add(pair);
             
-            // 更新word tokens
-            wordTokens = mergePairInWords(wordTokens, tokens[0], tokens[1], mergedToken);
-            
             // 进度回调
             if ((i + 1) % 100 == 0 || i == numMerges - 1) {
                 float progress = (float) (i + 1) / numMerges * 100;
@@ -181,111 +177,252 @@ public class BPETrainer {
     }
     
     /**
-     * 统计语料中的word频率
+     * 统计语料中的word频率(按语料分片并行)
      */
     private Map<String, Integer> getWordFrequencies(List<String> corpus) {
-        Map<String, Integer> wordFreqs = new HashMap<>();
-        
-        for (String text : corpus) {
+        return corpus.parallelStream()
             // 简单的分词:按空格和标点分割
-            String[] words = text.split("\\s+|(?<=[,.!?;:])|(?=[,.!?;:])");
-            
-            for (String word : words) {
-                if (!word.trim().isEmpty()) {
-                    wordFreqs.put(word, wordFreqs.getOrDefault(word, 0) + 1);
-                }
-            }
-        }
-        
-        return wordFreqs;
+            .flatMap(text -> Arrays.stream(text.split("\\s+|(?<=[,.!?;:])|(?=[,.!?;:])")))
+            .filter(word -> !word.trim().isEmpty())
+            .collect(Collectors.toConcurrentMap(word -> word, word -> 1, Integer::sum));
     }
     
     /**
-     * 将words转换为字符序列(带频率)
+     * 打包pair的两个符号ID
      */
-    private Map<List<String>, Integer> initializeWordTokens(Map<String, Integer> wordFreqs) {
-        Map<List<String>, Integer> wordTokens = new HashMap<>();
+    private static long pack(int left, int right) {
+        return ((long) left << 32) | (right & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * 优先队列条目(pair及入队时的频率)
+     */
+    private static final class PairEntry {
+        final long pair;
+        final int count;
         
-        for (Map.Entry<String, Integer> entry : wordFreqs.entrySet()) {
-            String word = entry.getKey();
-            int freq = entry.getValue();
-            
-            // 将word拆分为字符列表
-            List<String> tokens = new ArrayList<>();
-            for (char c : word.toCharArray()) {
-                tokens.add(String.valueOf(c));
-            }
-            
-            wordTokens.put(tokens, freq);
+        PairEntry(long pair, int count) {
+            this.pair = pair;
+            this.count = count;
         }
-        
-        return wordTokens;
     }
     
     /**
-     * 计算所有pair的频率
+     * 统计分片的局部结果
      */
-    private Map<String, Integer> computePairFrequencies(Map<List<String>, Integer> wordTokens) {
-        Map<String, Integer> pairFreqs = new HashMap<>();
+    private static final class ShardStats {
+        final Map<Long, Integer> counts = new HashMap<>();
+        final Map<Long, List<Integer>> words = new HashMap<>();
+    }
+    
+    /**
+     * pair频率表 + pair -> 词 倒排索引
+     * 
+     * <p>合并pair时只重写倒排索引中记录的词，并按词内pair计数的前后差值乘以词频更新全局频率，
+     * 频率有变化的pair重新入队，队列中频率与当前值不一致的条目在出队时丢弃。
+     */
+    private static final class PairIndex {
+        
+        private static final int SHARD_SIZE = 4096;
         
-        for (Map.Entry<List<String>, Integer> entry : wordTokens.entrySet()) {
-            List<String> tokens = entry.getKey();
-            int freq = entry.getValue();
+        private final List<String> symbols = new ArrayList<>();
+        private final Map<String, Integer> symbolIds = new HashMap<>();
+        private final int[][] words;
+        private final int[] freqs;
+        private final Map<Long, Integer> pairCounts = new HashMap<>();
+        private final Map<Long, Set<Integer>> pairWords = new HashMap<>();
+        private final PriorityQueue<PairEntry> queue;
+        
+        PairIndex(Map<String, Integer> wordFreqs) {
+            this.words = new int[wordFreqs.size()][];
+            this.freqs = new int[wordFreqs.size()];
+            int w = 0;
+            for (Map.Entry<String, Integer> entry : wordFreqs.entrySet()) {
+                String word = entry.getKey();
+                int[] tokens = new int[word.length()];
+                for (int i = 0; i < tokens.length; i++) {
+                    tokens[i] = symbolId(String.valueOf(word.charAt(i)));
+                }
+                words[w] = tokens;
+                freqs[w] = entry.getValue();
+                w++;
+            }
             
-            // 统计相邻token pairs
-            for (int i = 0; i < tokens.size() - 1; i++) {
-                String pair = tokens.get(i) + " " + tokens.get(i + 1);
-                pairFreqs.put(pair, pairFreqs.getOrDefault(pair, 0) + freq);
+            // 按词分片并行统计, 再合并各分片结果
+            int numShards = (words.length + SHARD_SIZE - 1) / SHARD_SIZE;
+            List<ShardStats> shards = IntStream.range(0, numShards).parallel()
+                .mapToObj(this::countShard)
+                .collect(Collectors.toList());
+            for (ShardStats shard : shards) {
+                shard.counts.forEach((pair, count) -> pairCounts.merge(pair, count, Integer::sum));
+                shard.words.forEach((pair, ids) ->
+                    pairWords.computeIfAbsent(pair, k -> new HashSet<>()).addAll(ids));
             }
+            
+            this.queue = new PriorityQueue<>(Math.max(16, pairCounts.size()), this::compareEntries);
+            pairCounts.forEach((pair, count) -> queue.add(new PairEntry(pair, count)));
         }
         
-        return pairFreqs;
-    }
-    
-    /**
-     * 在所有words中合并指定的token pair
-     */
-    private Map<List<String>, Integer> mergePairInWords(
-            Map<List<String>, Integer> wordTokens,
-            String token1,
-            String token2,
-            String mergedToken) {
+        private ShardStats countShard(int shard) {
+            ShardStats stats = new ShardStats();
+            int end = Math.min(words.length, (shard + 1) * SHARD_SIZE);
+            for (int w = shard * SHARD_SIZE; w < end; w++) {
+                int[] tokens = words[w];
+                for (int i = 0; i < tokens.length - 1; i++) {
+                    long pair = pack(tokens[i], tokens[i + 1]);
+                    stats.counts.merge(pair, freqs[w], Integer::sum);
+                    List<Integer> ids = stats.words.computeIfAbsent(pair, k -> new ArrayList<>());
+                    if (ids.isEmpty() || ids.get(ids.size() - 1) != w) {
+                        ids.add(w);
+                    }
+                }
+            }
+            return stats;
+        }
         
-        Map<List<String>, Integer> newWordTokens = new HashMap<>();
+        /**
+         * 频率高者优先, 频率相同时按(左符号, 右符号)字典序
+         */
+        private int compareEntries(PairEntry a, PairEntry b) {
+            if (a.count != b.count) {
+                return Integer.compare(b.count, a.count);
+            }
+            int cmp = symbols.get(left(a.pair)).compareTo(symbols.get(left(b.pair)));
+            return cmp != 0 ? cmp : symbols.get(right(a.pair)).compareTo(symbols.get(right(b.pair)));
+        }
         
-        for (Map.Entry<List<String>, Integer> entry : wordTokens.entrySet()) {
-            List<String> tokens = entry.getKey();
-            int freq = entry.getValue();
+        /**
+         * 取出当前频率最高的pair, 没有pair时返回null
+         */
+        PairEntry pollBest() {
+            PairEntry entry;
+            while ((entry = queue.poll()) != null) {
+                Integer current = pairCounts.get(entry.pair);
+                if (current != null && current == entry.count) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+        
+        /**
+         * 在所有包含该pair的词中合并, 返回合并后的token
+         */
+        String merge(long pair) {
+            int a = left(pair);
+            int b = right(pair);
+            String mergedToken = symbols.get(a) + symbols.get(b);
+            int merged = symbolId(mergedToken);
+            
+            Set<Integer> affected = pairWords.remove(pair);
+            pairCounts.remove(pair);
+            if (affected == null) {
+                return mergedToken;
+            }
             
-            // 合并tokens中的pair
-            List<String> newTokens = mergePair(tokens, token1, token2, mergedToken);
-            newWordTokens.put(newTokens, freq);
+            Set<Long> changed = new HashSet<>();
+            for (int w : affected) {
+                int[] tokens = words[w];
+                int[] newTokens = mergePair(tokens, a, b, merged);
+                if (newTokens.length == tokens.length) {
+                    continue;
+                }
+                words[w] = newTokens;
+                
+                Map<Long, Integer> delta = localPairCounts(newTokens);
+                localPairCounts(tokens).forEach((p, count) -> delta.merge(p, -count, Integer::sum));
+                for (Map.Entry<Long, Integer> entry : delta.entrySet()) {
+                    long p = entry.getKey();
+                    int diff = entry.getValue();
+                    if (diff == 0 || p == pair) {
+                        continue;
+                    }
+                    int count = pairCounts.getOrDefault(p, 0) + diff * freqs[w];
+                    if (count > 0) {
+                        pairCounts.put(p, count);
+                    } else {
+                        pairCounts.remove(p);
+                    }
+                    changed.add(p);
+                    if (diff > 0) {
+                        pairWords.computeIfAbsent(p, k -> new HashSet<>()).add(w);
+                    } else if (!containsPair(newTokens, p)) {
+                        Set<Integer> ids = pairWords.get(p);
+                        if (ids != null) {
+                            ids.remove(w);
+                        }
+                    }
+                }
+            }
+            
+            for (long p : changed) {
+                Integer count = pairCounts.get(p);
+                if (count != null) {
+                    queue.add(new PairEntry(p, count));
+                } else {
+                    pairWords.remove(p);
+                }
+            }
+            return mergedToken;
         }
         
-        return newWordTokens;
-    }
-    
-    /**
-     * 在token列表中合并指定pair
-     */
-    private List<String> mergePair(List<String> tokens, String token1, String token2, String mergedToken) {
-        List<String> newTokens = new ArrayList<>();
+        String pairString(long pair) {
+            return symbols.get(left(pair)) + " " + symbols.get(right(pair));
+        }
         
-        int i = 0;
-        while (i < tokens.size()) {
-            // 检查是否匹配pair
-            if (i < tokens.size() - 1 && 
-                tokens.get(i).equals(token1) && 
-                tokens.get(i + 1).equals(token2)) {
-                newTokens.add(mergedToken);
-                i += 2;
-            } else {
-                newTokens.add(tokens.get(i));
-                i += 1;
+        private int symbolId(String symbol) {
+            Integer id = symbolIds.get(symbol);
+            if (id == null) {
+                id = symbols.size();
+                symbolIds.put(symbol, id);
+                symbols.add(symbol);
             }
+            return id;
+        }
+        
+        private static int left(long pair) {
+            return (int) (pair >>> 32);
         }
         
-        return newTokens;
+        private static int right(long pair) {
+            return (int) pair;
+        }
+        
+        private static Map<Long, Integer> localPairCounts(int[] tokens) {
+            Map<Long, Integer> counts = new HashMap<>();
+            for (int i = 0; i < tokens.length - 1; i++) {
+                counts.merge(pack(tokens[i], tokens[i + 1]), 1, Integer::sum);
+            }
+            return counts;
+        }
+        
+        private static boolean containsPair(int[] tokens, long pair) {
+            for (int i = 0; i < tokens.length - 1; i++) {
+                if (pack(tokens[i], tokens[i + 1]) == pair) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * 在符号数组中从左到右合并指定pair
+         */
+        private static int[] mergePair(int[] tokens, int a, int b, int merged) {
+            int[] result = new int[tokens.length];
+            int size = 0;
+            int i = 0;
+            while (i < tokens.length) {
+                if (i < tokens.length - 1 && tokens[i] == a && tokens[i + 1] == b) {
+                    result[size++] = merged;
+                    i += 2;
+                } else {
+                    result[size++] = tokens[i];
+                    i += 1;
+                }
+            }
+            return size == tokens.length ? tokens : Arrays.copyOf(result, size);
+        }
     }
     
     /**
@@ -1,8 +1,11 @@
 package io.leavesfly.tinyai.minimind.tokenizer;
 
+import io.leavesfly.tinyai.ml.dataset.BatchEncoding;
+
 import java.io.*;
 import java.text.Normalizer;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 
 /**
@@ -11,7 +14,7 @@ import java.util.regex.Pattern;
  * 功能：
  * - 文本归一化
  * - BPE 分词（支持完整 BPE 训练）
- * - 批量编码/解码
+ * - 批量编码/解码（支持并行编码为紧凑int数组）
  * - 特殊 Token 处理
  * <p>
  * 支持两种模式：
@@ -46,6 +49,11 @@ public class MiniMindTokenizer implements Serializable {
      */
     private final boolean useBPE;
     
+    /**
+     * BPE编码器（merge优先级表 + LRU缓存），首次编码时构建
+     */
+    private transient volatile BPEEncoder bpeEncoder;
+    
     /**
      * 是否使用单词级分词
      */
@@ -299,101 +307,84 @@ public class MiniMindTokenizer implements Serializable {
      * @return Token IDs
      */
     public List<Integer> encode(String text, boolean addBos, boolean addEos) {
-        List<Integer> tokenIds = new ArrayList<>();
-        
-        // 添加 BOS token
-        if (addBos) {
-            tokenIds.add(vocabulary.getBosTokenId());
+        int[] ids = encodeIds(text, addBos, addEos);
+        List<Integer> tokenIds = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            tokenIds.add(id);
         }
-        
+        return tokenIds;
+    }
+    
+    /**
+     * 编码文本为int数组（不装箱）
+     *
+     * @param text         文本
+     * @param addBos       是否添加 BOS token
+     * @param addEos       是否添加 EOS token
+     * @return Token IDs，长度不超过 maxSeqLen
+     */
+    public int[] encodeIds(String text, boolean addBos, boolean addEos) {
         // 归一化
         text = normalize(text);
         
+        int[] body;
         if (useBPE) {
             // 使用BPE编码
-            List<Integer> bpeIds = encodeBPE(text);
-            tokenIds.addAll(bpeIds);
+            body = getBPEEncoder().encode(text);
         } else if (useWordLevel) {
             // 单词级编码
             List<Integer> wordIds = encodeWordLevel(text);
-            tokenIds.addAll(wordIds);
+            body = new int[wordIds.size()];
+            for (int i = 0; i < body.length; i++) {
+                body[i] = wordIds.get(i);
+            }
         } else {
             // 字符级编码
-            for (char c : text.toCharArray()) {
-                String token = String.valueOf(c);
-                tokenIds.add(vocabulary.getTokenId(token));
+            body = new int[text.length()];
+            for (int i = 0; i < body.length; i++) {
+                body[i] = vocabulary.getTokenId(String.valueOf(text.charAt(i)));
             }
         }
         
-        // 添加 EOS token
-        if (addEos) {
-            tokenIds.add(vocabulary.getEosTokenId());
-        }
+        int length = body.length + (addBos ? 1 : 0) + (addEos ? 1 : 0);
+        int[] tokenIds = new int[Math.min(length, maxSeqLen)];
+        int pos = 0;
         
-        // 截断到最大长度
-        if (tokenIds.size() > maxSeqLen) {
-            tokenIds = tokenIds.subList(0, maxSeqLen);
-        }
-        
-        return tokenIds;
-    }
-    
-    /**
-     * BPE编码
-     * 
-     * @param text 文本
-     * @return Token IDs
-     */
-    private List<Integer> encodeBPE(String text) {
-        // 1. 初始化: 将文本拆分为字符列表
-        List<String> tokens = new ArrayList<>();
-        for (char c : text.toCharArray()) {
-            tokens.add(String.valueOf(c));
+        // 添加 BOS token
+        if (addBos && pos < tokenIds.length) {
+            tokenIds[pos++] = vocabulary.getBosTokenId();
         }
         
-        // 2. 应用BPE merge规则
-        for (String merge : bpeMerges) {
-            String[] pair = merge.split(" ");
-            if (pair.length != 2) continue;
-            
-            String token1 = pair[0];
-            String token2 = pair[1];
-            String mergedToken = token1 + token2;
-            
-            // 合并token pair
-            tokens = mergePair(tokens, token1, token2, mergedToken);
-        }
+        // 截断到最大长度
+        int copy = Math.min(body.length, tokenIds.length - pos);
+        System.arraycopy(body, 0, tokenIds, pos, copy);
+        pos += copy;
         
-        // 3. 将tokens转换为IDs
-        List<Integer> tokenIds = new ArrayList<>();
-        for (String token : tokens) {
-            tokenIds.add(vocabulary.getTokenId(token));
+        // 添加 EOS token
+        if (addEos && pos < tokenIds.length) {
+            tokenIds[pos] = vocabulary.getEosTokenId();
         }
         
         return tokenIds;
     }
     
     /**
-     * 合并token列表中的指定 pair
-     */
-    private List<String> mergePair(List<String> tokens, String token1, String token2, String mergedToken) {
-        List<String> newTokens = new ArrayList<>();
-        
-        int i = 0;
-        while (i < tokens.size()) {
-            // 检查是否匹配pair
-            if (i < tokens.size() - 1 && 
-                tokens.get(i).equals(token1) && 
-                tokens.get(i + 1).equals(token2)) {
-                newTokens.add(mergedToken);
-                i += 2;
-            } else {
-                newTokens.add(tokens.get(i));
-                i += 1;
+     * 获取BPE编码器（延迟构建，反序列化后同样可用）
+     * <p>
+     * 由 {@link BPEEncoder} 按merge优先级在int数组上合并，结果与逐条应用merge规则一致。
+     */
+    private BPEEncoder getBPEEncoder() {
+        BPEEncoder encoder = bpeEncoder;
+        if (encoder == null) {
+            synchronized (this) {
+                encoder = bpeEncoder;
+                if (encoder == null) {
+                    encoder = new BPEEncoder(bpeMerges, vocabulary);
+                    bpeEncoder = encoder;
+                }
             }
         }
-        
-        return newTokens;
+        return encoder;
     }
     
     /**
@@ -526,56 +517,68 @@ public class MiniMindTokenizer implements Serializable {
      * @return 编码结果（包含 input_ids 和 attention_mask）
      */
     public EncodingResult batchEncode(List<String> texts, boolean padding, boolean truncation) {
-        List<List<Integer>> allInputIds = new ArrayList<>();
-        List<List<Integer>> allAttentionMasks = new ArrayList<>();
-        
-        int maxLen = 0;
-        
-        // 编码所有文本
-        for (String text : texts) {
-            List<Integer> inputIds = encode(text);
+        // encode 已按 maxSeqLen 截断
+        BatchEncoding batch = batchEncodeIds(texts, true, true);
+        int maxLen = batch.getMaxLength();
+        int[] ids = batch.getIds();
+        int[] offsets = batch.getOffsets();
+        
+        List<List<Integer>> allInputIds = new ArrayList<>(batch.size());
+        List<List<Integer>> allAttentionMasks = new ArrayList<>(batch.size());
+        for (int b = 0; b < batch.size(); b++) {
+            int length = batch.length(b);
+            int rowLen = padding ? maxLen : length;
+            List<Integer> inputIds = new ArrayList<>(rowLen);
+            List<Integer> attentionMask = new ArrayList<>(rowLen);
             
-            // 截断
-            if (truncation && inputIds.size() > maxSeqLen) {
-                inputIds = inputIds.subList(0, maxSeqLen);
+            // 原始部分的 mask 为 1
+            for (int i = offsets[b]; i < offsets[b + 1]; i++) {
+                inputIds.add(ids[i]);
+                attentionMask.add(1);
             }
             
-            maxLen = Math.max(maxLen, inputIds.size());
-            allInputIds.add(inputIds);
-        }
-        
-        // 填充
-        if (padding) {
-            for (List<Integer> inputIds : allInputIds) {
-                List<Integer> attentionMask = new ArrayList<>();
-                
-                // 原始部分的 mask 为 1
-                for (int i = 0; i < inputIds.size(); i++) {
-                    attentionMask.add(1);
-                }
-                
-                // 填充部分
-                int padLen = maxLen - inputIds.size();
-                for (int i = 0; i < padLen; i++) {
-                    inputIds.add(vocabulary.getPadTokenId());
-                    attentionMask.add(0);
-                }
-                
-                allAttentionMasks.add(attentionMask);
-            }
-        } else {
-            // 不填充时，attention mask 全为 1
-            for (List<Integer> inputIds : allInputIds) {
-                List<Integer> attentionMask = new ArrayList<>();
-                for (int i = 0; i < inputIds.size(); i++) {
-                    attentionMask.add(1);
-                }
-                allAttentionMasks.add(attentionMask);
+            // 填充部分
+            for (int i = length; i < rowLen; i++) {
+                inputIds.add(vocabulary.getPadTokenId());
+                attentionMask.add(0);
             }
+            
+            allInputIds.add(inputIds);
+            allAttentionMasks.add(attentionMask);
         }
         
         return new EncodingResult(allInputIds, allAttentionMasks);
     }
+    
+    /**
+     * 并行批量编码为紧凑int存储
+     * <p>
+     * 在公共 ForkJoinPool 上逐条调用 {@link #encodeIds(String, boolean, boolean)}；
+     * 单词级模式且词汇表未冻结时会动态扩充词汇表，此时退化为顺序编码以保证 ID 分配确定。
+     * 结果可通过 {@link BatchEncoding#toNdArray(int, int)} 直接得到 [batch, maxLen] 的输入。
+     *
+     * @param texts  文本列表
+     * @param addBos 是否添加 BOS token
+     * @param addEos 是否添加 EOS token
+     * @return 批量编码结果
+     */
+    public BatchEncoding batchEncodeIds(List<String> texts, boolean addBos, boolean addEos) {
+        return batchEncodeIds(texts, addBos, addEos, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * 在指定线程池上并行批量编码为紧凑int存储
+     *
+     * @param texts  文本列表
+     * @param addBos 是否添加 BOS token
+     * @param addEos 是否添加 EOS token
+     * @param pool   线程池
+     * @return 批量编码结果
+     */
+    public BatchEncoding batchEncodeIds(List<String> texts, boolean addBos, boolean addEos, ForkJoinPool pool) {
+        boolean mutatesVocab = useWordLevel && !useBPE && !frozen;
+        return BatchEncoding.encode(texts, text -> encodeIds(text, addBos, addEos), mutatesVocab ? null : pool);
+    }
 
     /**
      * 获取词汇表
@@ -605,6 +608,16 @@ public class MiniMindTokenizer implements Serializable {
         return useBPE;
     }
     
+    /**
+     * 清空BPE编码缓存
+     */
+    public void clearEncodeCache() {
+        BPEEncoder encoder = bpeEncoder;
+        if (encoder != null) {
+            encoder.clearCache();
+        }
+    }
+    
     /**
      * 获取BPE merge规则数量
      */
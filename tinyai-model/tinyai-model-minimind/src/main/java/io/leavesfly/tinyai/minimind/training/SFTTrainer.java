@@ -159,8 +159,10 @@ public class SFTTrainer {
         Variable input = new Variable(inputArray);
         Variable labels = new Variable(labelArray);
         
-        // 前向传播
-        Variable logits = model.predict(input);
+        // 前向传播（打包批次使用文档内位置ID与块对角因果注意力）
+        Variable logits = batch.isPacked()
+            ? model.predictPacked(input, batch.getPositionIds(), batch.getSegmentIds())
+            : model.predict(input);
         
         // SoftmaxCE 需要 2D 输入，将 [batch, seqLen, vocabSize] reshape 为 [batch*seqLen, vocabSize]
         int[] logitsShape = logits.getValue().getShape().getShapeDims();
@@ -1,12 +1,14 @@
 package io.leavesfly.tinyai.minimind.training.dataset;
 
 import io.leavesfly.tinyai.minimind.tokenizer.MiniMindTokenizer;
+import io.leavesfly.tinyai.ml.dataset.LengthBucketSampler;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 /**
  *  数据集
@@ -18,6 +20,9 @@ import java.util.List;
  * 
  * DPO不需要奖励模型,直接从偏好数据优化策略
  * 
+ * 默认每个批次填充到 maxSeqLen;设置 {@link #setMaxTokensPerBatch(int)} 后按长度分桶组批,
+ * 批次只填充到批内最长序列
+ * 
  * @author leavesfly
  * @since 2024
  */
@@ -27,16 +32,26 @@ public class DPODataset {
      * DPO偏好对样本
      */
     public static class PreferencePair {
+        private final int id;
         private final String prompt;
         private final String chosenResponse;
         private final String rejectedResponse;
         
         public PreferencePair(String prompt, String chosenResponse, String rejectedResponse) {
+            this(-1, prompt, chosenResponse, rejectedResponse);
+        }
+        
+        public PreferencePair(int id, String prompt, String chosenResponse, String rejectedResponse) {
+            this.id = id;
             this.prompt = prompt;
             this.chosenResponse = chosenResponse;
             this.rejectedResponse = rejectedResponse;
         }
         
+        /**
+         * 样本ID(按添加顺序编号,打乱后保持不变)
+         */
+        public int getId() { return id; }
         public String getPrompt() { return prompt; }
         public String getChosenResponse() { return chosenResponse; }
         public String getRejectedResponse() { return rejectedResponse; }
@@ -59,10 +74,18 @@ public class DPODataset {
         private final NdArray rejectedInput;      // Rejected序列输入
         private final NdArray rejectedLabels;     // Rejected序列标签
         private final NdArray promptMask;         // Prompt掩码(不计算prompt的损失)
+        private final int[] sampleIds;            // 批次内每行对应的样本ID
         
         public Batch(NdArray chosenInput, NdArray chosenLabels,
                      NdArray rejectedInput, NdArray rejectedLabels,
                      NdArray promptMask) {
+            this(chosenInput, chosenLabels, rejectedInput, rejectedLabels, promptMask, null);
+        }
+        
+        public Batch(NdArray chosenInput, NdArray chosenLabels,
+                     NdArray rejectedInput, NdArray rejectedLabels,
+                     NdArray promptMask, int[] sampleIds) {
+            this.sampleIds = sampleIds;
             this.chosenInput = chosenInput;
             this.chosenLabels = chosenLabels;
             this.rejectedInput = rejectedInput;
@@ -75,6 +98,7 @@ public class DPODataset {
         public NdArray getRejectedInput() { return rejectedInput; }
         public NdArray getRejectedLabels() { return rejectedLabels; }
         public NdArray getPromptMask() { return promptMask; }
+        public int[] getSampleIds() { return sampleIds; }
     }
     
     private final List<PreferencePair> samples;
@@ -84,6 +108,12 @@ public class DPODataset {
     
     private List<Batch> batches;
     private int currentBatchIndex;
+    private int nextId;
+    
+    // 按长度分桶的动态批次(每批token预算), 0表示按固定样本数组批
+    private int maxTokensPerBatch;
+    private float paddingEfficiency;
+    private final Random random = new Random();
     
     /**
      * 构造函数
@@ -109,7 +139,7 @@ public class DPODataset {
      * @param rejectedResponse 较差的响应
      */
     public void addSample(String prompt, String chosenResponse, String rejectedResponse) {
-        samples.add(new PreferencePair(prompt, chosenResponse, rejectedResponse));
+        samples.add(new PreferencePair(nextId++, prompt, chosenResponse, rejectedResponse));
     }
     
     /**
@@ -125,66 +155,127 @@ public class DPODataset {
         batches.clear();
         currentBatchIndex = 0;
         
+        // 编码所有偏好对, 长度取chosen与rejected中较长者
+        List<EncodedPair> encoded = new ArrayList<>(samples.size());
+        int[] lengths = new int[samples.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            encoded.add(encode(samples.get(i)));
+            lengths[i] = encoded.get(i).length();
+        }
+        
         // 分批处理
-        for (int i = 0; i < samples.size(); i += batchSize) {
-            int end = Math.min(i + batchSize, samples.size());
-            List<PreferencePair> batchSamples = samples.subList(i, end);
-            
-            Batch batch = createBatch(batchSamples);
-            batches.add(batch);
+        List<int[]> indexBatches;
+        if (maxTokensPerBatch > 0) {
+            indexBatches = new LengthBucketSampler(lengths, maxTokensPerBatch, 0,
+                LengthBucketSampler.DEFAULT_BUCKET_SIZE, shuffle, random.nextLong()).sampleBatches();
+        } else {
+            indexBatches = new ArrayList<>();
+            for (int i = 0; i < lengths.length; i += batchSize) {
+                int[] indices = new int[Math.min(batchSize, lengths.length - i)];
+                for (int j = 0; j < indices.length; j++) {
+                    indices[j] = i + j;
+                }
+                indexBatches.add(indices);
+            }
+        }
+        
+        long realTokens = 0;
+        long totalTokens = 0;
+        for (int[] indices : indexBatches) {
+            List<EncodedPair> batchSamples = new ArrayList<>(indices.length);
+            int padLen = 0;
+            for (int index : indices) {
+                batchSamples.add(encoded.get(index));
+                padLen = Math.max(padLen, lengths[index]);
+                realTokens += lengths[index];
+            }
+            if (maxTokensPerBatch <= 0) {
+                padLen = maxSeqLen;
+            }
+            totalTokens += (long) padLen * indices.length;
+            batches.add(createBatch(batchSamples, Math.max(padLen, 1)));
+        }
+        paddingEfficiency = totalTokens > 0 ? (float) realTokens / totalTokens : 0.0f;
+    }
+    
+    /**
+     * 已编码的偏好对
+     */
+    private static class EncodedPair {
+        final int id;
+        final int promptLen;
+        final List<Integer> chosenTokens;
+        final List<Integer> rejectedTokens;
+        final int maxSeqLen;
+        
+        EncodedPair(int id, int promptLen, List<Integer> chosenTokens, List<Integer> rejectedTokens, int maxSeqLen) {
+            this.id = id;
+            this.promptLen = promptLen;
+            this.chosenTokens = chosenTokens;
+            this.rejectedTokens = rejectedTokens;
+            this.maxSeqLen = maxSeqLen;
+        }
+        
+        int length() {
+            return Math.min(Math.max(chosenTokens.size(), rejectedTokens.size()), maxSeqLen);
         }
     }
     
+    private EncodedPair encode(PreferencePair pair) {
+        // 编码prompt(用于确定掩码位置)
+        List<Integer> promptTokens = tokenizer.encode(pair.getPrompt(), false, false);
+        int promptLen = Math.min(promptTokens.size(), maxSeqLen);
+        List<Integer> chosenTokens = tokenizer.encode(pair.getChosenFullText(), false, false);
+        List<Integer> rejectedTokens = tokenizer.encode(pair.getRejectedFullText(), false, false);
+        return new EncodedPair(pair.getId(), promptLen, chosenTokens, rejectedTokens, maxSeqLen);
+    }
+    
     /**
      * 创建单个批次
+     * 
+     * @param batchSamples 已编码的偏好对
+     * @param padLen 批次序列长度
      */
-    private Batch createBatch(List<PreferencePair> batchSamples) {
+    private Batch createBatch(List<EncodedPair> batchSamples, int padLen) {
         int actualBatchSize = batchSamples.size();
         
         // 初始化数组
-        float[] chosenInputData = new float[actualBatchSize * maxSeqLen];
-        float[] chosenLabelsData = new float[actualBatchSize * maxSeqLen];
-        float[] rejectedInputData = new float[actualBatchSize * maxSeqLen];
-        float[] rejectedLabelsData = new float[actualBatchSize * maxSeqLen];
-        float[] promptMaskData = new float[actualBatchSize * maxSeqLen];
+        float[] chosenInputData = new float[actualBatchSize * padLen];
+        float[] chosenLabelsData = new float[actualBatchSize * padLen];
+        float[] rejectedInputData = new float[actualBatchSize * padLen];
+        float[] rejectedLabelsData = new float[actualBatchSize * padLen];
+        float[] promptMaskData = new float[actualBatchSize * padLen];
+        int[] sampleIds = new int[actualBatchSize];
         
         // 处理每个样本
         for (int i = 0; i < actualBatchSize; i++) {
-            PreferencePair pair = batchSamples.get(i);
+            EncodedPair pair = batchSamples.get(i);
+            sampleIds[i] = pair.id;
             
-            // 编码prompt(用于确定掩码位置)
-            List<Integer> promptTokens = tokenizer.encode(pair.getPrompt(), false, false);
-            int promptLen = Math.min(promptTokens.size(), maxSeqLen);
-            
-            // 编码chosen序列
-            List<Integer> chosenTokens = tokenizer.encode(pair.getChosenFullText(), false, false);
-            processSequence(chosenTokens, i, chosenInputData, chosenLabelsData, 
-                          promptMaskData, promptLen);
-            
-            // 编码rejected序列
-            List<Integer> rejectedTokens = tokenizer.encode(pair.getRejectedFullText(), false, false);
-            processSequence(rejectedTokens, i, rejectedInputData, rejectedLabelsData, 
-                          promptMaskData, promptLen);
+            processSequence(pair.chosenTokens, i, padLen, chosenInputData, chosenLabelsData,
+                          promptMaskData, pair.promptLen);
+            processSequence(pair.rejectedTokens, i, padLen, rejectedInputData, rejectedLabelsData,
+                          promptMaskData, pair.promptLen);
         }
         
         // 创建NdArray
-        NdArray chosenInput = NdArray.of(chosenInputData, Shape.of(actualBatchSize, maxSeqLen));
-        NdArray chosenLabels = NdArray.of(chosenLabelsData, Shape.of(actualBatchSize, maxSeqLen));
-        NdArray rejectedInput = NdArray.of(rejectedInputData, Shape.of(actualBatchSize, maxSeqLen));
-        NdArray rejectedLabels = NdArray.of(rejectedLabelsData, Shape.of(actualBatchSize, maxSeqLen));
-        NdArray promptMask = NdArray.of(promptMaskData, Shape.of(actualBatchSize, maxSeqLen));
+        NdArray chosenInput = NdArray.of(chosenInputData, Shape.of(actualBatchSize, padLen));
+        NdArray chosenLabels = NdArray.of(chosenLabelsData, Shape.of(actualBatchSize, padLen));
+        NdArray rejectedInput = NdArray.of(rejectedInputData, Shape.of(actualBatchSize, padLen));
+        NdArray rejectedLabels = NdArray.of(rejectedLabelsData, Shape.of(actualBatchSize, padLen));
+        NdArray promptMask = NdArray.of(promptMaskData, Shape.of(actualBatchSize, padLen));
         
-        return new Batch(chosenInput, chosenLabels, rejectedInput, rejectedLabels, promptMask);
+        return new Batch(chosenInput, chosenLabels, rejectedInput, rejectedLabels, promptMask, sampleIds);
     }
     
     /**
      * 处理单个序列
      */
-    private void processSequence(List<Integer> tokens, int batchIdx, 
+    private void processSequence(List<Integer> tokens, int batchIdx, int padLen,
                                  float[] inputData, float[] labelsData,
                                  float[] maskData, int promptLen) {
-        int seqLen = Math.min(tokens.size(), maxSeqLen);
-        int offset = batchIdx * maxSeqLen;
+        int seqLen = Math.min(tokens.size(), padLen);
+        int offset = batchIdx * padLen;
         
         // 填充输入和标签
         for (int j = 0; j < seqLen - 1; j++) {
@@ -203,7 +294,7 @@ public class DPODataset {
         }
         
         // 填充剩余部分
-        for (int j = seqLen; j < maxSeqLen; j++) {
+        for (int j = seqLen; j < padLen; j++) {
             inputData[offset + j] = 0;
             labelsData[offset + j] = 0;
             maskData[offset + j] = 0.0f;
@@ -241,6 +332,28 @@ public class DPODataset {
         return samples.size();
     }
     
+    /**
+     * 最大序列长度
+     */
+    public int getMaxSeqLen() {
+        return maxSeqLen;
+    }
+    
+    /**
+     * 样本内容指纹: 由全部偏好对(ID与文本)和最大序列长度计算,
+     * 用于判断离线缓存是否对应同一份数据
+     */
+    public long fingerprint() {
+        long hash = maxSeqLen;
+        for (PreferencePair pair : samples) {
+            hash = hash * 31 + pair.getId();
+            hash = hash * 31 + pair.getPrompt().hashCode();
+            hash = hash * 31 + pair.getChosenResponse().hashCode();
+            hash = hash * 31 + pair.getRejectedResponse().hashCode();
+        }
+        return hash;
+    }
+    
     /**
      * 获取批次数量
      */
@@ -248,6 +361,29 @@ public class DPODataset {
         return batches.size();
     }
     
+    /**
+     * 设置每批的token预算(下次 prepare 时生效)
+     * 
+     * 大于0时使用 {@link LengthBucketSampler} 将长度相近的偏好对分到同一批次,
+     * 批内样本数 × 批内最大长度 不超过该预算;为0时按 batchSize 组批并填充到 maxSeqLen
+     * 
+     * @param maxTokensPerBatch token预算
+     */
+    public void setMaxTokensPerBatch(int maxTokensPerBatch) {
+        this.maxTokensPerBatch = maxTokensPerBatch;
+    }
+    
+    public int getMaxTokensPerBatch() {
+        return maxTokensPerBatch;
+    }
+    
+    /**
+     * 最近一次 prepare 的填充效率: 有效token数 / 批次总token数
+     */
+    public float getPaddingEfficiency() {
+        return paddingEfficiency;
+    }
+    
     /**
      * 清空数据集
      */
@@ -255,5 +391,6 @@ public class DPODataset {
         samples.clear();
         batches.clear();
         currentBatchIndex = 0;
+        nextId = 0;
     }
 }
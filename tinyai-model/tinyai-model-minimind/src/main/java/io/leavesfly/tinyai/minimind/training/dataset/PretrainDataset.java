@@ -1,6 +1,8 @@
 package io.leavesfly.tinyai.minimind.training.dataset;
 
 import io.leavesfly.tinyai.minimind.tokenizer.MiniMindTokenizer;
+import io.leavesfly.tinyai.ml.dataset.PackedBatch;
+import io.leavesfly.tinyai.ml.dataset.SequencePacker;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
 
@@ -18,6 +20,9 @@ import java.util.stream.Collectors;
  * 负责加载文本数据并转换为模型训练所需的Token序列
  * 支持因果语言建模(Causal Language Modeling)任务
  * 
+ * 开启序列打包({@link #setPacking(boolean)})后,多个样本拼接到长度为 maxSeqLen 的行中,
+ * 批次携带位置ID与文档分段ID,训练时使用块对角因果注意力,减少填充带来的无效计算
+ * 
  * @author leavesfly
  * @since 2024
  */
@@ -36,6 +41,10 @@ public class PretrainDataset implements Serializable {
     private List<Batch> batches;
     private int currentBatchIndex;
     
+    // 序列打包
+    private boolean packing;
+    private float packingEfficiency;
+    
     /**
      * 构造函数
      * 
@@ -144,16 +153,55 @@ public class PretrainDataset implements Serializable {
             Collections.shuffle(workingSamples);
         }
         
+        if (packing) {
+            preparePacked(workingSamples);
+            return;
+        }
+        
         // 创建批次
+        long realTokens = 0;
+        long totalTokens = 0;
         for (int i = 0; i < workingSamples.size(); i += batchSize) {
             int endIdx = Math.min(i + batchSize, workingSamples.size());
             List<int[]> batchSamples = workingSamples.subList(i, endIdx);
-            batches.add(createBatch(batchSamples));
+            Batch batch = createBatch(batchSamples);
+            batches.add(batch);
+            for (int[] sample : batchSamples) {
+                realTokens += sample.length - 1;
+            }
+            totalTokens += (long) batch.getBatchSize() * batch.getSeqLen();
         }
+        packingEfficiency = totalTokens > 0 ? (float) realTokens / totalTokens : 0.0f;
         
         System.out.println("批次准备完成,共 " + batches.size() + " 个批次");
     }
     
+    /**
+     * 打包模式下准备批次: 样本拼接到长度为 maxSeqLen 的行, 每 batchSize 行为一个批次
+     * 
+     * @param workingSamples 样本列表
+     */
+    private void preparePacked(List<int[]> workingSamples) {
+        List<int[]> inputs = new ArrayList<>(workingSamples.size());
+        List<int[]> targets = new ArrayList<>(workingSamples.size());
+        for (int[] sample : workingSamples) {
+            inputs.add(Arrays.copyOfRange(sample, 0, sample.length - 1));
+            targets.add(Arrays.copyOfRange(sample, 1, sample.length));
+        }
+        
+        int padTokenId = tokenizer.getVocabulary().getPadTokenId();
+        PackedBatch packed = new SequencePacker(maxSeqLen, padTokenId).pack(inputs, targets, null);
+        for (int i = 0; i < packed.getRows(); i += batchSize) {
+            PackedBatch rows = packed.slice(i, Math.min(i + batchSize, packed.getRows()));
+            batches.add(new Batch(rows.toInputNdArray(), rows.toLabelNdArray(), rows.getRows(),
+                maxSeqLen, rows.toPositionIdsNdArray(), rows.getSegmentIds()));
+        }
+        packingEfficiency = packed.getEfficiency();
+        
+        System.out.println(String.format("批次准备完成(序列打包),共 %d 个批次, %d 个样本打包为 %d 行, 打包效率 %.1f%%",
+            batches.size(), workingSamples.size(), packed.getRows(), packingEfficiency * 100));
+    }
+    
     /**
      * 创建单个批次
      * 
@@ -268,6 +316,28 @@ public class PretrainDataset implements Serializable {
         return samples.size();
     }
     
+    /**
+     * 设置是否启用序列打包(下次 prepare 时生效)
+     * 
+     * @param packing 是否打包
+     */
+    public void setPacking(boolean packing) {
+        this.packing = packing;
+    }
+    
+    public boolean isPacking() {
+        return packing;
+    }
+    
+    /**
+     * 最近一次 prepare 的填充效率: 有效token数 / 批次总token数
+     * 
+     * @return 效率,未准备批次时为0
+     */
+    public float getPackingEfficiency() {
+        return packingEfficiency;
+    }
+    
     /**
      * 批次数据类
      */
@@ -276,12 +346,21 @@ public class PretrainDataset implements Serializable {
         private final NdArray target;     // [batchSize, seqLen]
         private final int batchSize;
         private final int seqLen;
+        private final NdArray positionIds;  // [batchSize, seqLen],仅打包批次
+        private final int[] segmentIds;     // [batchSize * seqLen],仅打包批次
         
         public Batch(NdArray input, NdArray target, int batchSize, int seqLen) {
+            this(input, target, batchSize, seqLen, null, null);
+        }
+        
+        public Batch(NdArray input, NdArray target, int batchSize, int seqLen,
+                     NdArray positionIds, int[] segmentIds) {
             this.input = input;
             this.target = target;
             this.batchSize = batchSize;
             this.seqLen = seqLen;
+            this.positionIds = positionIds;
+            this.segmentIds = segmentIds;
         }
         
         public NdArray getInput() {
@@ -299,5 +378,20 @@ public class PretrainDataset implements Serializable {
         public int getSeqLen() {
             return seqLen;
         }
+        
+        public NdArray getPositionIds() {
+            return positionIds;
+        }
+        
+        public int[] getSegmentIds() {
+            return segmentIds;
+        }
+        
+        /**
+         * 是否为序列打包的批次
+         */
+        public boolean isPacked() {
+            return segmentIds != null;
+        }
     }
 }
@@ -1,6 +1,9 @@
 package io.leavesfly.tinyai.minimind.training.dataset;
 
 import io.leavesfly.tinyai.minimind.tokenizer.MiniMindTokenizer;
+import io.leavesfly.tinyai.ml.dataset.LengthBucketSampler;
+import io.leavesfly.tinyai.ml.dataset.PackedBatch;
+import io.leavesfly.tinyai.ml.dataset.SequencePacker;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
 
@@ -22,6 +25,9 @@ import org.json.*;
  *   "output": "期望的输出"
  * }
  * 
+ * 开启序列打包({@link #setPacking(boolean)})后,多条对话拼接到长度为 maxSeqLen 的行中,
+ * 每条对话仍只在assistant部分计算损失,注意力限制在各自对话内部
+ * 
  * @author leavesfly
  * @since 2024
  */
@@ -42,6 +48,14 @@ public class SFTDataset implements Serializable {
     private List<Batch> batches;
     private int currentBatchIndex;
     
+    // 序列打包
+    private boolean packing;
+    private float packingEfficiency;
+    
+    // 按长度分桶的动态批次(每批token预算), 0表示按固定样本数组批
+    private int maxTokensPerBatch;
+    private final Random random = new Random();
+    
     /**
      * SFT样本
      */
@@ -136,20 +150,135 @@ public class SFTDataset implements Serializable {
             Collections.shuffle(workingSamples);
         }
         
-        // 创建批次
-        for (int i = 0; i < workingSamples.size(); i += batchSize) {
-            int endIdx = Math.min(i + batchSize, workingSamples.size());
-            List<SFTSample> batchSamples = workingSamples.subList(i, endIdx);
+        if (packing) {
+            preparePacked(workingSamples);
+            return;
+        }
+        
+        List<int[][]> encoded = new ArrayList<>(workingSamples.size());
+        int[] lengths = new int[workingSamples.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            encoded.add(encodeSample(workingSamples.get(i)));
+            lengths[i] = encoded.get(i)[0].length;
+        }
+        
+        // 划分批次: 按token预算分桶, 或按固定样本数顺序切分
+        List<int[]> indexBatches;
+        if (maxTokensPerBatch > 0) {
+            indexBatches = new LengthBucketSampler(lengths, maxTokensPerBatch, 0,
+                LengthBucketSampler.DEFAULT_BUCKET_SIZE, shuffle, random.nextLong()).sampleBatches();
+        } else {
+            indexBatches = new ArrayList<>();
+            for (int i = 0; i < lengths.length; i += batchSize) {
+                int[] indices = new int[Math.min(batchSize, lengths.length - i)];
+                for (int j = 0; j < indices.length; j++) {
+                    indices[j] = i + j;
+                }
+                indexBatches.add(indices);
+            }
+        }
+        
+        for (int[] indices : indexBatches) {
+            List<int[][]> batchSamples = new ArrayList<>(indices.length);
+            for (int index : indices) {
+                batchSamples.add(encoded.get(index));
+            }
             batches.add(createBatch(batchSamples));
         }
+        packingEfficiency = LengthBucketSampler.paddingEfficiency(indexBatches, lengths);
+        
+        System.out.printf("SFT批次准备完成,共 %d 个批次, 填充效率 %.1f%%%n", batches.size(), packingEfficiency * 100);
+    }
+    
+    /**
+     * 打包模式下准备批次: 对话拼接到长度为 maxSeqLen 的行, 每 batchSize 行为一个批次
+     */
+    private void preparePacked(List<SFTSample> workingSamples) {
+        List<int[]> inputs = new ArrayList<>(workingSamples.size());
+        List<int[]> labels = new ArrayList<>(workingSamples.size());
+        List<float[]> masks = new ArrayList<>(workingSamples.size());
+        for (SFTSample sample : workingSamples) {
+            int[][] encoded = encodeSample(sample);
+            inputs.add(encoded[0]);
+            labels.add(encoded[1]);
+            float[] mask = new float[encoded[2].length];
+            for (int i = 0; i < mask.length; i++) {
+                mask[i] = encoded[2][i];
+            }
+            masks.add(mask);
+        }
+        
+        int padTokenId = tokenizer.getVocabulary().getPadTokenId();
+        PackedBatch packed = new SequencePacker(maxSeqLen, padTokenId).pack(inputs, labels, masks);
+        for (int i = 0; i < packed.getRows(); i += batchSize) {
+            PackedBatch rows = packed.slice(i, Math.min(i + batchSize, packed.getRows()));
+            batches.add(new Batch(rows.toInputNdArray(), rows.toLabelNdArray(), rows.toLossMaskNdArray(),
+                rows.getRows(), maxSeqLen, rows.toPositionIdsNdArray(), rows.getSegmentIds()));
+        }
+        packingEfficiency = packed.getEfficiency();
+        
+        System.out.printf("SFT批次准备完成(序列打包),共 %d 个批次, %d 条对话打包为 %d 行, 打包效率 %.1f%%%n",
+            batches.size(), workingSamples.size(), packed.getRows(), packingEfficiency * 100);
+    }
+    
+    /**
+     * 编码单条对话
+     * 
+     * @param sample SFT样本
+     * @return {输入, 标签, 损失掩码},三者等长(完整token数 - 1)
+     */
+    private int[][] encodeSample(SFTSample sample) {
+        // 构建对话文本
+        String prompt = sample.formatPrompt();
+        String response = sample.output;
+        String fullText = String.format(CHAT_TEMPLATE, prompt, response);
+        
+        // 编码整个对话
+        List<Integer> fullTokenIds = tokenizer.encode(fullText, false, false);
+        
+        // 编码用户部分(用于确定掩码位置)
+        String userPart = String.format("<|im_start|>user\n%s<|im_end|>\n<|im_start|>assistant\n", prompt);
+        List<Integer> userTokenIds = tokenizer.encode(userPart, false, false);
+        int promptLen = userTokenIds.size();
+        
+        // 截断到最大长度
+        if (fullTokenIds.size() > maxSeqLen) {
+            fullTokenIds = fullTokenIds.subList(0, maxSeqLen);
+        }
+        
+        int seqLen = fullTokenIds.size();
+        
+        // 输入: 前n-1个token
+        int[] input = new int[seqLen - 1];
+        for (int i = 0; i < seqLen - 1; i++) {
+            input[i] = fullTokenIds.get(i);
+        }
+        
+        // 标签: 后n-1个token
+        int[] labels = new int[seqLen - 1];
+        for (int i = 0; i < seqLen - 1; i++) {
+            labels[i] = fullTokenIds.get(i + 1);
+        }
+        
+        // 损失掩码: 只计算assistant部分的损失
+        int[] mask = new int[seqLen - 1];
+        for (int i = 0; i < seqLen - 1; i++) {
+            if (i >= promptLen - 1) {
+                mask[i] = 1;  // 计算损失
+            } else {
+                mask[i] = 0;  // 忽略损失
+            }
+        }
         
-        System.out.println("SFT批次准备完成,共 " + batches.size() + " 个批次");
+        return new int[][]{input, labels, mask};
     }
     
     /**
      * 创建批次
+     * 
+     * @param batchSamples 已编码的样本 {输入, 标签, 损失掩码}
      */
-    private Batch createBatch(List<SFTSample> batchSamples) {
+    private Batch createBatch(List<int[][]> batchSamples) {
         int actualBatchSize = batchSamples.size();
         
         List<int[]> inputIds = new ArrayList<>();
@@ -158,53 +287,11 @@ public class SFTDataset implements Serializable {
         
         int maxLen = 0;
         
-        for (SFTSample sample : batchSamples) {
-            // 构建对话文本
-            String prompt = sample.formatPrompt();
-            String response = sample.output;
-            String fullText = String.format(CHAT_TEMPLATE, prompt, response);
-            
-            // 编码整个对话
-            List<Integer> fullTokenIds = tokenizer.encode(fullText, false, false);
-            
-            // 编码用户部分(用于确定掩码位置)
-            String userPart = String.format("<|im_start|>user\n%s<|im_end|>\n<|im_start|>assistant\n", prompt);
-            List<Integer> userTokenIds = tokenizer.encode(userPart, false, false);
-            int promptLen = userTokenIds.size();
-            
-            // 截断到最大长度
-            if (fullTokenIds.size() > maxSeqLen) {
-                fullTokenIds = fullTokenIds.subList(0, maxSeqLen);
-            }
-            
-            int seqLen = fullTokenIds.size();
-            maxLen = Math.max(maxLen, seqLen);
-            
-            // 输入: 前n-1个token
-            int[] input = new int[seqLen - 1];
-            for (int i = 0; i < seqLen - 1; i++) {
-                input[i] = fullTokenIds.get(i);
-            }
-            
-            // 标签: 后n-1个token
-            int[] labels = new int[seqLen - 1];
-            for (int i = 0; i < seqLen - 1; i++) {
-                labels[i] = fullTokenIds.get(i + 1);
-            }
-            
-            // 损失掩码: 只计算assistant部分的损失
-            int[] mask = new int[seqLen - 1];
-            for (int i = 0; i < seqLen - 1; i++) {
-                if (i >= promptLen - 1) {
-                    mask[i] = 1;  // 计算损失
-                } else {
-                    mask[i] = 0;  // 忽略损失
-                }
-            }
-            
-            inputIds.add(input);
-            labelIds.add(labels);
-            lossMasks.add(mask);
+        for (int[][] encoded : batchSamples) {
+            inputIds.add(encoded[0]);
+            labelIds.add(encoded[1]);
+            lossMasks.add(encoded[2]);
+            maxLen = Math.max(maxLen, encoded[0].length + 1);
         }
         
         // 填充到maxLen-1
@@ -277,6 +364,41 @@ public class SFTDataset implements Serializable {
         return samples.size();
     }
     
+    /**
+     * 设置是否启用序列打包(下次 prepare 时生效)
+     */
+    public void setPacking(boolean packing) {
+        this.packing = packing;
+    }
+    
+    public boolean isPacking() {
+        return packing;
+    }
+    
+    /**
+     * 设置每批的token预算(下次 prepare 时生效)
+     * 
+     * 大于0时使用 {@link LengthBucketSampler} 将长度相近的对话分到同一批次,
+     * 批内样本数 × 批内最大长度 不超过该预算,批次大小随长度变化;为0时按 batchSize 组批
+     * 
+     * @param maxTokensPerBatch token预算
+     */
+    public void setMaxTokensPerBatch(int maxTokensPerBatch) {
+        this.maxTokensPerBatch = maxTokensPerBatch;
+    }
+    
+    public int getMaxTokensPerBatch() {
+        return maxTokensPerBatch;
+    }
+    
+    /**
+     * 最近一次 prepare 的填充效率: 有效token数 / 批次总token数
+     * (打包模式下为打包效率)
+     */
+    public float getPackingEfficiency() {
+        return packingEfficiency;
+    }
+    
     /**
      * SFT批次数据
      */
@@ -286,14 +408,23 @@ public class SFTDataset implements Serializable {
         private final NdArray lossMask;  // 损失掩码,1表示计算损失,0表示忽略
         private final int batchSize;
         private final int seqLen;
+        private final NdArray positionIds;  // [batchSize, seqLen],仅打包批次
+        private final int[] segmentIds;     // [batchSize * seqLen],仅打包批次
         
         public Batch(NdArray input, NdArray labels, NdArray lossMask,
                      int batchSize, int seqLen) {
+            this(input, labels, lossMask, batchSize, seqLen, null, null);
+        }
+        
+        public Batch(NdArray input, NdArray labels, NdArray lossMask, int batchSize, int seqLen,
+                     NdArray positionIds, int[] segmentIds) {
             this.input = input;
             this.labels = labels;
             this.lossMask = lossMask;
             this.batchSize = batchSize;
             this.seqLen = seqLen;
+            this.positionIds = positionIds;
+            this.segmentIds = segmentIds;
         }
         
         public NdArray getInput() {
@@ -315,5 +446,20 @@ public class SFTDataset implements Serializable {
         public int getSeqLen() {
             return seqLen;
         }
+        
+        public NdArray getPositionIds() {
+            return positionIds;
+        }
+        
+        public int[] getSegmentIds() {
+            return segmentIds;
+        }
+        
+        /**
+         * 是否为序列打包的批次
+         */
+        public boolean isPacked() {
+            return segmentIds != null;
+        }
     }
 }
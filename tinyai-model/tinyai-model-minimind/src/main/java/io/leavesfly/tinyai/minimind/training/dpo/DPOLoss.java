@@ -124,20 +124,34 @@ public class DPOLoss {
      * @return 每个序列的平均对数概率
      */
     public Variable computeLogProbs(Variable logits, Variable labels, Variable mask) {
+        float[][] stats = computeSequenceLogProbStats(logits.getValue(), labels.getValue(), mask.getValue());
+        return new Variable(NdArray.of(averageLogProb(stats[0], stats[1])));
+    }
+    
+    /**
+     * 计算每个序列response部分的对数概率之和与有效token数
+     * 
+     * 按序列保存,便于缓存参考模型的结果后按任意批次组合重新求平均
+     * 
+     * @param logits 模型输出logits [batch, seq_len, vocab_size]
+     * @param labels 标签 [batch, seq_len]
+     * @param mask 掩码 [batch, seq_len]
+     * @return 长度为2的数组: [0]为每个序列的对数概率之和 [batch], [1]为每个序列的有效token数 [batch]
+     */
+    public float[][] computeSequenceLogProbStats(NdArray logits, NdArray labels, NdArray mask) {
         // 获取维度信息
-        int[] logitsShape = logits.getValue().getShape().getShapeDims();
+        int[] logitsShape = logits.getShape().getShapeDims();
         int batchSize = logitsShape[0];
         int seqLen = logitsShape[1];
         int vocabSize = logitsShape[2];
         
         // 获取原始数据
-        float[] logitsData = logits.getValue().getArray();
-        float[] labelsData = labels.getValue().getArray();
-        float[] maskData = mask.getValue().getArray();
+        float[] logitsData = logits.getArray();
+        float[] labelsData = labels.getArray();
+        float[] maskData = mask.getArray();
         
-        // 计算每个 token 的 log 概率
-        float totalLogProb = 0.0f;
-        int validTokens = 0;
+        float[] sums = new float[batchSize];
+        float[] counts = new float[batchSize];
         
         for (int b = 0; b < batchSize; b++) {
             for (int s = 0; s < seqLen; s++) {
@@ -148,7 +162,7 @@ public class DPOLoss {
                     int labelIdx = (int) labelsData[flatIdx];
                     
                     // 提取当前位置的 logits
-                    int logitsOffset = (b * seqLen + s) * vocabSize;
+                    int logitsOffset = flatIdx * vocabSize;
                     
                     // 计算 log softmax
                     float maxLogit = Float.NEGATIVE_INFINITY;
@@ -163,15 +177,28 @@ public class DPOLoss {
                     float logSumExp = maxLogit + (float) Math.log(sumExp);
                     
                     // log 概率 = logit - log_sum_exp
-                    float logProb = logitsData[logitsOffset + labelIdx] - logSumExp;
-                    totalLogProb += logProb;
-                    validTokens++;
+                    sums[b] += logitsData[logitsOffset + labelIdx] - logSumExp;
+                    counts[b]++;
                 }
             }
         }
-        
-        // 返回平均 log 概率
-        float avgLogProb = validTokens > 0 ? totalLogProb / validTokens : 0.0f;
-        return new Variable(NdArray.of(avgLogProb));
+        return new float[][]{sums, counts};
+    }
+    
+    /**
+     * 由序列级统计计算批次的平均对数概率(所有有效token的平均)
+     * 
+     * @param sums 每个序列的对数概率之和
+     * @param counts 每个序列的有效token数
+     * @return 平均对数概率,没有有效token时为0
+     */
+    public static float averageLogProb(float[] sums, float[] counts) {
+        float totalLogProb = 0.0f;
+        float validTokens = 0.0f;
+        for (int b = 0; b < sums.length; b++) {
+            totalLogProb += sums[b];
+            validTokens += counts[b];
+        }
+        return validTokens > 0 ? totalLogProb / validTokens : 0.0f;
     }
 }
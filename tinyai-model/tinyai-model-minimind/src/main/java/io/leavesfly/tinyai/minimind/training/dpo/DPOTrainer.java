@@ -1,5 +1,6 @@
 package io.leavesfly.tinyai.minimind.training.dpo;
 
+import io.leavesfly.tinyai.func.NoGrad;
 import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.minimind.model.MiniMindConfig;
 import io.leavesfly.tinyai.minimind.model.MiniMindModel;
@@ -8,9 +9,11 @@ import io.leavesfly.tinyai.ml.optimize.Adam;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.nnet.v2.core.Parameter;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * DPO (Direct Preference Optimization) 训练器
@@ -26,6 +29,10 @@ import java.util.Map;
  *    - 计算DPO损失
  *    - 反向传播更新策略模型
  * 
+ * 参考模型的前向在 {@link NoGrad} 作用域内执行,不构建计算图;
+ * 也可以通过 {@link #precomputeReferenceLogProbs(String)} 训练前一次性计算并缓存到磁盘,
+ * 之后每步只需策略模型的前向。
+ * 
  * @author leavesfly
  * @since 2024
  */
@@ -38,6 +45,7 @@ public class DPOTrainer {
     private final DPOConfig dpoConfig;
     private final DPOLoss dpoLoss;
     private final Adam optimizer;
+    private ReferenceLogProbCache referenceCache;  // 参考模型对数概率缓存(可选)
     
     // 训练配置
     private int maxEpochs;
@@ -262,19 +270,29 @@ public class DPOTrainer {
         Variable policyChosenLogits = policyModel.predict(chosenInputVar);
         Variable policyRejectedLogits = policyModel.predict(rejectedInputVar);
         
-        // 2. 参考模型前向传播(不计算梯度)
-        Variable refChosenLogits = referenceModel.predict(chosenInputVar);
-        Variable refRejectedLogits = referenceModel.predict(rejectedInputVar);
-        
-        // 3. 计算log概率
+        // 2. 计算log概率
         Variable maskVar = new Variable(promptMask);
         Variable chosenLabelsVar = new Variable(chosenLabels);
         Variable rejectedLabelsVar = new Variable(rejectedLabels);
         
         Variable policyChosenLogProbs = dpoLoss.computeLogProbs(policyChosenLogits, chosenLabelsVar, maskVar);
         Variable policyRejectedLogProbs = dpoLoss.computeLogProbs(policyRejectedLogits, rejectedLabelsVar, maskVar);
-        Variable refChosenLogProbs = dpoLoss.computeLogProbs(refChosenLogits, chosenLabelsVar, maskVar);
-        Variable refRejectedLogProbs = dpoLoss.computeLogProbs(refRejectedLogits, rejectedLabelsVar, maskVar);
+        
+        // 3. 参考模型log概率(优先查缓存,否则在无梯度作用域内前向)
+        Variable refChosenLogProbs;
+        Variable refRejectedLogProbs;
+        int[] sampleIds = batch.getSampleIds();
+        if (referenceCache != null && referenceCache.containsAll(sampleIds)) {
+            refChosenLogProbs = new Variable(NdArray.of(referenceCache.chosenLogProb(sampleIds)));
+            refRejectedLogProbs = new Variable(NdArray.of(referenceCache.rejectedLogProb(sampleIds)));
+        } else {
+            try (NoGrad ignored = NoGrad.enter()) {
+                Variable refChosenLogits = referenceModel.predict(chosenInputVar);
+                Variable refRejectedLogits = referenceModel.predict(rejectedInputVar);
+                refChosenLogProbs = dpoLoss.computeLogProbs(refChosenLogits, chosenLabelsVar, maskVar);
+                refRejectedLogProbs = dpoLoss.computeLogProbs(refRejectedLogits, rejectedLabelsVar, maskVar);
+            }
+        }
         
         // 4. 计算DPO损失
         Variable loss = dpoLoss.loss(policyChosenLogProbs, policyRejectedLogProbs, 
@@ -300,6 +318,84 @@ public class DPOTrainer {
         return new float[]{lossValue, accuracy};
     }
     
+    /**
+     * 预计算整个数据集上参考模型的对数概率
+     * 
+     * cacheFile存在且指纹(数据集内容、序列长度、参考模型参数)与样本数都一致时直接加载;
+     * 否则对数据集做一次无梯度前向,结果写入cacheFile(为null时只保存在内存中)。
+     * 之后训练步不再运行参考模型。
+     * 
+     * @param cacheFile 缓存文件路径,可为null
+     * @return 参考模型对数概率缓存
+     */
+    public ReferenceLogProbCache precomputeReferenceLogProbs(String cacheFile) {
+        int numSamples = dataset.getSampleCount();
+        long fingerprint = referenceFingerprint();
+        if (cacheFile != null && new File(cacheFile).exists()) {
+            try {
+                ReferenceLogProbCache loaded = ReferenceLogProbCache.load(new File(cacheFile));
+                if (loaded.size() == numSamples && loaded.getFingerprint() == fingerprint) {
+                    log("加载参考模型对数概率缓存: " + cacheFile);
+                    this.referenceCache = loaded;
+                    return loaded;
+                }
+                log("缓存与当前数据集/参考模型不一致(样本数 " + loaded.size() + "/" + numSamples
+                    + ", 指纹 " + Long.toHexString(loaded.getFingerprint()) + "/" + Long.toHexString(fingerprint)
+                    + "),重新计算");
+            } catch (Exception e) {
+                log("加载参考模型缓存失败,重新计算: " + e.getMessage());
+            }
+        }
+        
+        ReferenceLogProbCache cache = new ReferenceLogProbCache(numSamples, fingerprint);
+        dataset.prepare(false);
+        try (NoGrad ignored = NoGrad.enter()) {
+            while (dataset.hasNext()) {
+                DPODataset.Batch batch = dataset.nextBatch();
+                NdArray refChosenLogits = referenceModel.predict(batch.getChosenInput());
+                NdArray refRejectedLogits = referenceModel.predict(batch.getRejectedInput());
+                cache.put(batch.getSampleIds(),
+                    dpoLoss.computeSequenceLogProbStats(refChosenLogits, batch.getChosenLabels(), batch.getPromptMask()),
+                    dpoLoss.computeSequenceLogProbStats(refRejectedLogits, batch.getRejectedLabels(), batch.getPromptMask()));
+            }
+        }
+        dataset.reset();
+        
+        if (cacheFile != null) {
+            try {
+                cache.save(new File(cacheFile));
+                log("参考模型对数概率缓存已保存: " + cacheFile);
+            } catch (Exception e) {
+                log("保存参考模型缓存失败: " + e.getMessage());
+            }
+        }
+        this.referenceCache = cache;
+        return cache;
+    }
+    
+    /**
+     * 参考模型缓存的指纹: 数据集内容与序列长度、参考模型全部参数
+     */
+    private long referenceFingerprint() {
+        long hash = dataset.fingerprint();
+        hash = hash * 31 + dataset.getMaxSeqLen();
+        for (Map.Entry<String, Parameter> entry : new TreeMap<>(referenceModel.getAllParams()).entrySet()) {
+            hash = hash * 31 + entry.getKey().hashCode();
+            float[] buffer = ((io.leavesfly.tinyai.ndarr.cpu.NdArrayCpu) entry.getValue().getValue()).buffer;
+            for (float value : buffer) {
+                hash = hash * 31 + Float.floatToIntBits(value);
+            }
+        }
+        return hash;
+    }
+    
+    /**
+     * 训练日志输出
+     */
+    private void log(String message) {
+        System.out.println(message);
+    }
+    
     /**
      * 梯度裁剪
      */
@@ -370,6 +466,10 @@ public class DPOTrainer {
     
     // Getters
     
+    public ReferenceLogProbCache getReferenceCache() {
+        return referenceCache;
+    }
+    
     public List<Float> getLossHistory() {
         return new ArrayList<>(lossHistory);
     }
@@ -0,0 +1,191 @@
+package io.leavesfly.tinyai.minimind.training.dpo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 参考模型对数概率缓存
+ *
+ * DPO的参考模型是冻结的,它在每个偏好对上的对数概率在整个训练过程中不变。
+ * 训练前对整个数据集做一次前向,按样本ID保存chosen/rejected序列的
+ * 对数概率之和与有效token数,训练时按批次查表组合,省去每步参考模型的两次前向。
+ *
+ * 文件格式(大端): MAGIC, 指纹, 样本数, 之后每个样本依次为
+ * chosenSum, chosenCount, rejectedSum, rejectedCount。
+ * 指纹由数据集内容、序列长度与参考模型参数计算,加载方据此判断缓存是否仍然有效
+ *
+ * @author leavesfly
+ * @since 2024
+ */
+public class ReferenceLogProbCache {
+
+    private static final int MAGIC = 0x44504F32;  // "DPO2",带指纹的格式
+
+    private final float[] chosenSums;
+    private final float[] chosenCounts;
+    private final float[] rejectedSums;
+    private final float[] rejectedCounts;
+    private final boolean[] filled;
+    private final long fingerprint;
+    private int filledCount;
+
+    /**
+     * 构造函数
+     *
+     * @param numSamples 样本数(样本ID范围为 [0, numSamples))
+     */
+    public ReferenceLogProbCache(int numSamples) {
+        this(numSamples, 0L);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param numSamples 样本数(样本ID范围为 [0, numSamples))
+     * @param fingerprint 数据集与参考模型的指纹
+     */
+    public ReferenceLogProbCache(int numSamples, long fingerprint) {
+        this.fingerprint = fingerprint;
+        this.chosenSums = new float[numSamples];
+        this.chosenCounts = new float[numSamples];
+        this.rejectedSums = new float[numSamples];
+        this.rejectedCounts = new float[numSamples];
+        this.filled = new boolean[numSamples];
+    }
+
+    /**
+     * 写入一个批次的序列级统计
+     *
+     * @param sampleIds 样本ID
+     * @param chosenStats chosen序列的 {对数概率之和, 有效token数}
+     * @param rejectedStats rejected序列的 {对数概率之和, 有效token数}
+     */
+    public void put(int[] sampleIds, float[][] chosenStats, float[][] rejectedStats) {
+        for (int i = 0; i < sampleIds.length; i++) {
+            int id = sampleIds[i];
+            chosenSums[id] = chosenStats[0][i];
+            chosenCounts[id] = chosenStats[1][i];
+            rejectedSums[id] = rejectedStats[0][i];
+            rejectedCounts[id] = rejectedStats[1][i];
+            if (!filled[id]) {
+                filled[id] = true;
+                filledCount++;
+            }
+        }
+    }
+
+    /**
+     * 是否包含批次内全部样本
+     */
+    public boolean containsAll(int[] sampleIds) {
+        if (sampleIds == null) {
+            return false;
+        }
+        for (int id : sampleIds) {
+            if (id < 0 || id >= filled.length || !filled[id]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 批次内chosen序列的平均对数概率(与 {@link DPOLoss#computeLogProbs} 一致)
+     */
+    public float chosenLogProb(int[] sampleIds) {
+        return average(sampleIds, chosenSums, chosenCounts);
+    }
+
+    /**
+     * 批次内rejected序列的平均对数概率(与 {@link DPOLoss#computeLogProbs} 一致)
+     */
+    public float rejectedLogProb(int[] sampleIds) {
+        return average(sampleIds, rejectedSums, rejectedCounts);
+    }
+
+    private static float average(int[] sampleIds, float[] sums, float[] counts) {
+        float[] batchSums = new float[sampleIds.length];
+        float[] batchCounts = new float[sampleIds.length];
+        for (int i = 0; i < sampleIds.length; i++) {
+            batchSums[i] = sums[sampleIds[i]];
+            batchCounts[i] = counts[sampleIds[i]];
+        }
+        return DPOLoss.averageLogProb(batchSums, batchCounts);
+    }
+
+    /**
+     * 样本数
+     */
+    public int size() {
+        return filled.length;
+    }
+
+    /**
+     * 数据集与参考模型的指纹
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * 是否所有样本都已计算
+     */
+    public boolean isComplete() {
+        return filledCount == filled.length;
+    }
+
+    /**
+     * 保存到文件
+     */
+    public void save(File file) throws IOException {
+        if (!isComplete()) {
+            throw new IllegalStateException("缓存未完整计算: " + filledCount + "/" + filled.length);
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("无法创建目录: " + parent);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(fingerprint);
+            out.writeInt(filled.length);
+            for (int i = 0; i < filled.length; i++) {
+                out.writeFloat(chosenSums[i]);
+                out.writeFloat(chosenCounts[i]);
+                out.writeFloat(rejectedSums[i]);
+                out.writeFloat(rejectedCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * 从文件加载
+     */
+    public static ReferenceLogProbCache load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是参考模型对数概率缓存文件: " + file);
+            }
+            long fingerprint = in.readLong();
+            int numSamples = in.readInt();
+            ReferenceLogProbCache cache = new ReferenceLogProbCache(numSamples, fingerprint);
+            for (int i = 0; i < numSamples; i++) {
+                cache.chosenSums[i] = in.readFloat();
+                cache.chosenCounts[i] = in.readFloat();
+                cache.rejectedSums[i] = in.readFloat();
+                cache.rejectedCounts[i] = in.readFloat();
+                cache.filled[i] = true;
+            }
+            cache.filledCount = numSamples;
+            return cache;
+        }
+    }
+}
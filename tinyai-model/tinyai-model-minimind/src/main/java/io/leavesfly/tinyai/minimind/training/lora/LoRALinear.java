@@ -8,6 +8,14 @@ import io.leavesfly.tinyai.nnet.v2.core.Parameter;
 import io.leavesfly.tinyai.nnet.v2.init.Initializers;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Dropout;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * LoRA线性层
  * 
@@ -20,6 +28,10 @@ import io.leavesfly.tinyai.nnet.v2.layer.dnn.Dropout;
  * - r是LoRA秩
  * - α是缩放因子
  * 
+ * 推理服务时可在同一份冻结权重上加载多个命名适配器({@link #loadAdapter}),
+ * 每次调用 {@link #forwardWithAdapters(Variable, String[])} 为批次内每个样本指定适配器(路由不保存在层上, 可并发调用);
+ * 也可以把适配器原地合并进冻结权重({@link #mergeInPlace()}), 推理时省去低秩计算
+ * 
  * @author leavesfly
  * @since 2024
  */
@@ -44,6 +56,12 @@ public class LoRALinear extends Module {
     // Dropout层(可选)
     private Dropout dropout;
     
+    // 推理时加载的命名适配器
+    private final Map<String, Adapter> servingAdapters = new ConcurrentHashMap<>();
+    
+    // 已原地合并进冻结权重的适配器快照, null表示未合并
+    private volatile Adapter mergedAdapter;
+    
     /**
      * 构造函数
      * 
@@ -181,6 +199,11 @@ public class LoRALinear extends Module {
             y = y.add(new Variable(originalBias.data()));
         }
         
+        // 已合并时权重中已包含LoRA增量
+        if (mergedAdapter != null) {
+            return y;
+        }
+        
         // 3. LoRA低秩调整: delta = x * A^T * B^T * (α/r)
         // Step 3.1: x * A^T -> (batch, r)
         Variable loraX = x.matMul(transposeWeight(loraA.data()));
@@ -202,6 +225,225 @@ public class LoRALinear extends Module {
         return y;
     }
     
+    /**
+     * 多适配器前向: 按名称解析每个样本的适配器后计算
+     * 
+     * @param input 输入, 第一维为批次
+     * @param adapterNames 每个样本的适配器名称, null元素表示只使用冻结权重
+     * @see #forwardWithAdapters(Variable, Adapter[])
+     */
+    public Variable forwardWithAdapters(Variable input, String[] adapterNames) {
+        return forwardWithAdapters(input, resolveAdapters(adapterNames));
+    }
+    
+    /**
+     * 多适配器前向(推理路径, 不构建计算图)
+     * 
+     * 整个批次先做一次 xW^T, 再把使用同一适配器的样本聚成一组做一次低秩乘法并加回
+     * 
+     * @param input 输入, 第一维为批次
+     * @param adapters 每个样本的适配器(由 {@link #resolveAdapters} 解析), null元素表示只使用冻结权重
+     */
+    public Variable forwardWithAdapters(Variable input, Adapter[] adapters) {
+        if (mergedAdapter != null) {
+            throw new IllegalStateException("层 " + name + " 已合并适配器, 请先 unmergeInPlace");
+        }
+        NdArray x = input.getValue();
+        int[] dims = x.getShape().getShapeDims();
+        int rows = x.getShape().size() / inFeatures;
+        if (rows % adapters.length != 0) {
+            throw new IllegalArgumentException("适配器数量 " + adapters.length + " 与批次行数 " + rows + " 不匹配");
+        }
+        int rowsPerSample = rows / adapters.length;
+        
+        float[] xData = x.getArray();
+        float[] out = NdArray.of(xData, Shape.of(rows, inFeatures))
+            .dot(originalWeight.data().transpose()).getArray();
+        if (originalBias != null) {
+            float[] bias = originalBias.data().getArray();
+            for (int r = 0; r < rows; r++) {
+                for (int j = 0; j < outFeatures; j++) {
+                    out[r * outFeatures + j] += bias[j];
+                }
+            }
+        }
+        
+        Map<Adapter, List<Integer>> groups = new IdentityHashMap<>();
+        for (int i = 0; i < adapters.length; i++) {
+            if (adapters[i] != null) {
+                groups.computeIfAbsent(adapters[i], k -> new ArrayList<>()).add(i);
+            }
+        }
+        int sampleIn = rowsPerSample * inFeatures;
+        int sampleOut = rowsPerSample * outFeatures;
+        for (Map.Entry<Adapter, List<Integer>> group : groups.entrySet()) {
+            Adapter adapter = group.getKey();
+            List<Integer> samples = group.getValue();
+            float[] gathered = new float[samples.size() * sampleIn];
+            for (int g = 0; g < samples.size(); g++) {
+                System.arraycopy(xData, samples.get(g) * sampleIn, gathered, g * sampleIn, sampleIn);
+            }
+            float[] delta = NdArray.of(gathered, Shape.of(samples.size() * rowsPerSample, inFeatures))
+                .dot(adapter.loraAT).dot(adapter.loraBT).getArray();
+            for (int g = 0; g < samples.size(); g++) {
+                int offset = samples.get(g) * sampleOut;
+                for (int k = 0; k < sampleOut; k++) {
+                    out[offset + k] += adapter.scaling * delta[g * sampleOut + k];
+                }
+            }
+        }
+        
+        int[] outDims = dims.clone();
+        outDims[outDims.length - 1] = outFeatures;
+        return new Variable(NdArray.of(out, Shape.of(outDims)));
+    }
+    
+    /**
+     * 加载命名适配器(不影响冻结权重与训练中的LoRA参数), 同名适配器会被替换
+     * 
+     * @param adapterName 适配器名称
+     * @param loraA 矩阵A, 形状 (r, in_features)
+     * @param loraB 矩阵B, 形状 (out_features, r)
+     * @param alpha 缩放因子, scaling = alpha / r
+     */
+    public void loadAdapter(String adapterName, NdArray loraA, NdArray loraB, float alpha) {
+        int[] aShape = loraA.getShape().getShapeDims();
+        int[] bShape = loraB.getShape().getShapeDims();
+        if (aShape.length != 2 || bShape.length != 2 || aShape[1] != inFeatures
+                || bShape[0] != outFeatures || aShape[0] != bShape[1]) {
+            throw new IllegalArgumentException(String.format(
+                "适配器 %s 形状不匹配: A=%s, B=%s, 层维度 (%d -> %d)",
+                adapterName, loraA.getShape(), loraB.getShape(), inFeatures, outFeatures));
+        }
+        servingAdapters.put(adapterName, new Adapter(loraA.transpose(), loraB.transpose(), alpha / aShape[0]));
+    }
+    
+    /**
+     * 卸载命名适配器
+     * 
+     * @return 是否存在并被卸载
+     */
+    public boolean unloadAdapter(String adapterName) {
+        return servingAdapters.remove(adapterName) != null;
+    }
+    
+    public boolean hasAdapter(String adapterName) {
+        return servingAdapters.containsKey(adapterName);
+    }
+    
+    public Set<String> getAdapterNames() {
+        return Collections.unmodifiableSet(servingAdapters.keySet());
+    }
+    
+    /**
+     * 将每个样本的适配器名称解析为已加载的适配器; 解析结果是快照, 之后卸载或替换同名适配器不影响它
+     * 
+     * @param adapterNames 每个样本的适配器名称(null元素表示只使用冻结权重)
+     * @return 每个样本的适配器
+     */
+    public Adapter[] resolveAdapters(String[] adapterNames) {
+        Adapter[] resolved = new Adapter[adapterNames.length];
+        for (int i = 0; i < adapterNames.length; i++) {
+            if (adapterNames[i] != null) {
+                resolved[i] = servingAdapters.get(adapterNames[i]);
+                if (resolved[i] == null) {
+                    throw new IllegalArgumentException("层 " + name + " 未加载适配器: " + adapterNames[i]);
+                }
+            }
+        }
+        return resolved;
+    }
+    
+    /**
+     * 将当前LoRA参数原地合并进冻结权重: W += (α/r) * B * A
+     * 
+     * 不分配新的权重矩阵; 合并使用参数快照, {@link #unmergeInPlace()} 减去同一份增量
+     */
+    public void mergeInPlace() {
+        mergeInPlace(new Adapter(loraA.data().transpose(), loraB.data().transpose(), scaling));
+    }
+    
+    /**
+     * 将命名适配器原地合并进冻结权重
+     * 
+     * @param adapterName 已加载的适配器名称
+     */
+    public void mergeInPlace(String adapterName) {
+        Adapter adapter = servingAdapters.get(adapterName);
+        if (adapter == null) {
+            throw new IllegalArgumentException("层 " + name + " 未加载适配器: " + adapterName);
+        }
+        mergeInPlace(adapter);
+    }
+    
+    private synchronized void mergeInPlace(Adapter adapter) {
+        if (mergedAdapter != null) {
+            throw new IllegalStateException("层 " + name + " 已合并适配器, 请先 unmergeInPlace");
+        }
+        applyDelta(adapter, 1.0f);
+        mergedAdapter = adapter;
+    }
+    
+    /**
+     * 从冻结权重中原地减去已合并的增量, 恢复基础权重
+     * 
+     * 合并与拆分按相同顺序计算增量, 恢复误差在一次浮点舍入以内; 未合并时什么也不做
+     */
+    public synchronized void unmergeInPlace() {
+        if (mergedAdapter == null) {
+            return;
+        }
+        applyDelta(mergedAdapter, -1.0f);
+        mergedAdapter = null;
+    }
+    
+    public boolean isMerged() {
+        return mergedAdapter != null;
+    }
+    
+    /**
+     * 逐行累加 sign * scaling * B * A 到冻结权重 (out_features, in_features)
+     */
+    private void applyDelta(Adapter adapter, float sign) {
+        float[] w = originalWeight.data().getArray();
+        float[] aT = adapter.loraAT.getArray();  // (in_features, r)
+        float[] bT = adapter.loraBT.getArray();  // (r, out_features)
+        int r = aT.length / inFeatures;
+        float[] coeff = new float[r];
+        float[] rowDelta = new float[inFeatures];
+        for (int o = 0; o < outFeatures; o++) {
+            for (int k = 0; k < r; k++) {
+                coeff[k] = adapter.scaling * bT[k * outFeatures + o];
+            }
+            for (int i = 0; i < inFeatures; i++) {
+                float sum = 0.0f;
+                for (int k = 0; k < r; k++) {
+                    sum += coeff[k] * aT[i * r + k];
+                }
+                rowDelta[i] = sum;
+            }
+            int offset = o * inFeatures;
+            for (int i = 0; i < inFeatures; i++) {
+                w[offset + i] += sign * rowDelta[i];
+            }
+        }
+    }
+    
+    /**
+     * 推理用的命名适配器(矩阵以转置形式保存, 便于直接右乘)
+     */
+    public static final class Adapter {
+        final NdArray loraAT;  // (in_features, r)
+        final NdArray loraBT;  // (r, out_features)
+        final float scaling;
+        
+        Adapter(NdArray loraAT, NdArray loraBT, float scaling) {
+            this.loraAT = loraAT;
+            this.loraBT = loraBT;
+            this.scaling = scaling;
+        }
+    }
+    
     /**
      * 转置权重矩阵
      */
@@ -218,6 +460,9 @@ public class LoRALinear extends Module {
      * @return 合并后的权重
      */
     public NdArray mergeWeights() {
+        if (mergedAdapter != null) {
+            throw new IllegalStateException("层 " + name + " 已原地合并适配器");
+        }
         // 计算 B * A (使用Variable进行矩阵乘法)
         Variable loraBVar = new Variable(loraB.data());
         Variable loraAVar = new Variable(loraA.data());
@@ -1,10 +1,13 @@
 package io.leavesfly.tinyai.minimind.training.rlaif.grpo;
 
+import io.leavesfly.tinyai.func.NoGrad;
 import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.minimind.model.MiniMindModel;
 
 import io.leavesfly.tinyai.minimind.training.dataset.RLAIFDataset;
 import io.leavesfly.tinyai.minimind.training.rlaif.ppo.ValueNetwork;
+import io.leavesfly.tinyai.minimind.training.rlaif.rollout.RolloutBatch;
+import io.leavesfly.tinyai.minimind.training.rlaif.rollout.RolloutEngine;
 import io.leavesfly.tinyai.ml.optimize.Adam;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.nnet.v2.core.Parameter;
@@ -28,6 +31,9 @@ import java.util.Map;
  * 3. 多轮GRPO更新
  * 4. 更新Actor和Critic
  * 
+ * 在线采样: {@link #collectRollouts(List, int)} 通过 {@link RolloutEngine} 一次批量生成
+ * 所有提示词的K个候选, 再由 {@link #trainOnRollouts(RolloutBatch, float[])} 用奖励更新策略
+ * 
  * @author leavesfly
  * @since 2024
  */
@@ -41,6 +47,7 @@ public class GRPOTrainer {
     
     private final Adam actorOptimizer;
     private final Adam criticOptimizer;
+    private final RolloutEngine rolloutEngine;
     
     private int maxEpochs;
     private int logInterval;
@@ -65,6 +72,7 @@ public class GRPOTrainer {
                                        0.9f, 0.999f, 1e-8f);
         // critic不是Model类型,暂不使用优化器
         this.criticOptimizer = null;
+        this.rolloutEngine = new RolloutEngine(actor, config.getTemperature());
         
         this.maxEpochs = 1;
         this.logInterval = 10;
@@ -154,17 +162,19 @@ public class GRPOTrainer {
         float[] oldLogProbs = new float[batchSize * numCandidates];
         
         int idx = 0;
-        for (int k = 0; k < numCandidates; k++) {
-            Variable inputVar = new Variable(candidateInputs[k]);
-            Variable labelVar = new Variable(candidateLabels[k]);
-            
-            Variable logits = actor.predict(inputVar);
-            Variable logProb = computeLogProb(logits, labelVar);
-            
-            float logProbValue = logProb.getValue().getNumber().floatValue();
-            
-            for (int i = 0; i < batchSize; i++) {
-                oldLogProbs[idx++] = logProbValue;
+        try (NoGrad ignored = NoGrad.enter()) {
+            for (int k = 0; k < numCandidates; k++) {
+                Variable inputVar = new Variable(candidateInputs[k]);
+                Variable labelVar = new Variable(candidateLabels[k]);
+                
+                Variable logits = actor.predict(inputVar);
+                Variable logProb = computeLogProb(logits, labelVar);
+                
+                float logProbValue = logProb.getValue().getNumber().floatValue();
+                
+                for (int i = 0; i < batchSize; i++) {
+                    oldLogProbs[idx++] = logProbValue;
+                }
             }
         }
         
@@ -201,6 +211,55 @@ public class GRPOTrainer {
             }
         }
         
+        return applyGrpoLoss(newLogProbs, oldLogProbs, rewards);
+    }
+    
+    /**
+     * 批量采样rollout(每个提示词生成numCandidates个候选)
+     * 
+     * @param prompts 提示词token IDs
+     * @param maxNewTokens 每个候选最多生成的token数
+     * @return rollout结果(token、对数概率、掩码)
+     */
+    public RolloutBatch collectRollouts(List<int[]> prompts, int maxNewTokens) {
+        return rolloutEngine.generate(prompts, config.getNumCandidates(), maxNewTokens);
+    }
+    
+    /**
+     * 基于rollout的GRPO更新
+     * 
+     * 采样时记录的序列对数概率作为旧策略概率, 每轮用当前策略批量重新打分
+     * 
+     * @param rollouts rollout结果
+     * @param rewards 每条序列的奖励 [numPrompts * numCandidates]
+     * @return 平均损失
+     */
+    public float trainOnRollouts(RolloutBatch rollouts, float[] rewards) {
+        float[] oldLogProbs = rollouts.getSequenceLogProbs();
+        float[][] groupRewards = rollouts.toGroupMatrix(rewards);
+        
+        float avgLoss = 0.0f;
+        for (int epoch = 0; epoch < config.getGrpoEpochs(); epoch++) {
+            float[] newLogProbs = rollouts.sumPerSequence(rolloutEngine.score(rollouts));
+            actor.setTraining(true);
+            avgLoss += applyGrpoLoss(newLogProbs, oldLogProbs, groupRewards);
+        }
+        avgLoss /= config.getGrpoEpochs();
+        
+        currentStep++;
+        lossHistory.add(avgLoss);
+        float meanReward = 0.0f;
+        for (float r : rewards) {
+            meanReward += r;
+        }
+        rewardHistory.add(meanReward / rewards.length);
+        return avgLoss;
+    }
+    
+    /**
+     * 计算GRPO损失并更新参数
+     */
+    private float applyGrpoLoss(float[] newLogProbs, float[] oldLogProbs, float[][] rewards) {
         // 2. 计算损失
         Variable newLogProbsVar = new Variable(NdArray.of(newLogProbs));
         Variable oldLogProbsVar = new Variable(NdArray.of(oldLogProbs));
@@ -1,9 +1,12 @@
 package io.leavesfly.tinyai.minimind.training.rlaif.ppo;
 
+import io.leavesfly.tinyai.func.NoGrad;
 import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.minimind.model.MiniMindModel;
 
 import io.leavesfly.tinyai.minimind.training.dataset.RLAIFDataset;
+import io.leavesfly.tinyai.minimind.training.rlaif.rollout.RolloutBatch;
+import io.leavesfly.tinyai.minimind.training.rlaif.rollout.RolloutEngine;
 import io.leavesfly.tinyai.ml.optimize.Adam;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
@@ -39,6 +42,7 @@ public class PPOTrainer {
     
     private final Adam actorOptimizer;
     private final Adam criticOptimizer;
+    private final RolloutEngine rolloutEngine;
     
     private int maxEpochs;
     private int logInterval;
@@ -65,6 +69,7 @@ public class PPOTrainer {
                                        0.9f, 0.999f, 1e-8f);
         // Critic优化器设为null(简化实现)
         this.criticOptimizer = null;
+        this.rolloutEngine = new RolloutEngine(actor, config.getTemperature());
         
         this.maxEpochs = 1;
         this.logInterval = 10;
@@ -141,6 +146,27 @@ public class PPOTrainer {
         dataset.reset();
     }
     
+    /**
+     * 批量采样rollout(每个提示词生成numCandidates个候选)
+     * 
+     * 所有候选共用一次预填充与KV-Cache批量增量解码, 返回的token、对数概率与掩码为紧凑数组,
+     * 序列级对数概率可直接作为PPO的旧策略概率
+     * 
+     * @param prompts 提示词token IDs
+     * @param maxNewTokens 每个候选最多生成的token数
+     * @return rollout结果
+     */
+    public RolloutBatch collectRollouts(List<int[]> prompts, int maxNewTokens) {
+        return rolloutEngine.generate(prompts, config.getNumCandidates(), maxNewTokens);
+    }
+    
+    /**
+     * 获取rollout引擎
+     */
+    public RolloutEngine getRolloutEngine() {
+        return rolloutEngine;
+    }
+    
     /**
      * 收集经验
      */
@@ -155,28 +181,31 @@ public class PPOTrainer {
         
         ExperienceBuffer buffer = new ExperienceBuffer(batchSize * numCandidates);
         
-        // 对每个候选收集经验
-        for (int k = 0; k < numCandidates; k++) {
-            Variable inputVar = new Variable(candidateInputs[k]);
-            Variable labelVar = new Variable(candidateLabels[k]);
-            
-            // Actor前向传播
-            Variable logits = actor.predict(inputVar);
-            Variable logProb = computeLogProb(logits, labelVar);
-            
-            // Critic前向传播(简化:使用最后一层隐藏状态)
-            Variable hidden = extractHiddenState(inputVar);
-            Variable value = critic.forward(hidden);
-            
-            // 存储经验
-            for (int i = 0; i < batchSize; i++) {
-                buffer.add(
-                    logProb.getValue().getNumber().floatValue(),
-                    value.getValue().getNumber().floatValue(),
-                    rewards[i][k],
-                    logits.getValue(),
-                    hidden.getValue()
-                );
+        // 旧策略只需要前向数值,不构建计算图
+        try (NoGrad ignored = NoGrad.enter()) {
+            // 对每个候选收集经验
+            for (int k = 0; k < numCandidates; k++) {
+                Variable inputVar = new Variable(candidateInputs[k]);
+                Variable labelVar = new Variable(candidateLabels[k]);
+                
+                // Actor前向传播
+                Variable logits = actor.predict(inputVar);
+                Variable logProb = computeLogProb(logits, labelVar);
+                
+                // Critic前向传播(简化:使用最后一层隐藏状态)
+                Variable hidden = extractHiddenState(inputVar);
+                Variable value = critic.forward(hidden);
+                
+                // 存储经验
+                for (int i = 0; i < batchSize; i++) {
+                    buffer.add(
+                        logProb.getValue().getNumber().floatValue(),
+                        value.getValue().getNumber().floatValue(),
+                        rewards[i][k],
+                        logits.getValue(),
+                        hidden.getValue()
+                    );
+                }
             }
         }
         
@@ -0,0 +1,189 @@
+package io.leavesfly.tinyai.minimind.training.rlaif.rollout;
+
+import io.leavesfly.tinyai.ml.dataset.BatchEncoding;
+
+import java.util.Arrays;
+
+/**
+ * 批量 rollout 结果（紧凑存储）
+ * <p>
+ * 共 numPrompts * numSamples 条序列，第 n 条序列对应提示词 n / numSamples。
+ * 生成的 token 与其对数概率按序列依次紧凑存放（共用 {@link BatchEncoding} 的偏移），
+ * 可展开为 [N, maxNewTokens] 的填充数组与掩码；序列级对数概率与
+ * {@link #toGroupMatrix(float[])} 得到的 [numPrompts, numSamples] 奖励矩阵可直接交给 GRPOLoss / PPOLoss。
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class RolloutBatch {
+
+    private final int[][] prompts;
+    private final int numSamples;
+    private final int maxNewTokens;
+    private final BatchEncoding completions;
+    private final float[] tokenLogProbs;
+    private final boolean[] finishedWithEos;
+    private final int forwardCalls;
+
+    public RolloutBatch(int[][] prompts, int numSamples, int maxNewTokens, BatchEncoding completions,
+                        float[] tokenLogProbs, boolean[] finishedWithEos, int forwardCalls) {
+        if (completions.size() != prompts.length * numSamples) {
+            throw new IllegalArgumentException("序列数应为 numPrompts * numSamples");
+        }
+        if (tokenLogProbs.length != completions.getTotalTokens()) {
+            throw new IllegalArgumentException("tokenLogProbs 应与生成 token 一一对应");
+        }
+        this.prompts = prompts;
+        this.numSamples = numSamples;
+        this.maxNewTokens = maxNewTokens;
+        this.completions = completions;
+        this.tokenLogProbs = tokenLogProbs;
+        this.finishedWithEos = finishedWithEos;
+        this.forwardCalls = forwardCalls;
+    }
+
+    public int getNumPrompts() {
+        return prompts.length;
+    }
+
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * 序列总数 numPrompts * numSamples
+     */
+    public int size() {
+        return completions.size();
+    }
+
+    public int getMaxNewTokens() {
+        return maxNewTokens;
+    }
+
+    /**
+     * 第 n 条序列对应的提示词下标
+     */
+    public int getPromptIndex(int n) {
+        return n / numSamples;
+    }
+
+    public int[] getPrompt(int promptIndex) {
+        return prompts[promptIndex];
+    }
+
+    /**
+     * 生成部分（紧凑 token ID + 偏移）
+     */
+    public BatchEncoding getCompletions() {
+        return completions;
+    }
+
+    /**
+     * 第 n 条序列生成的 token
+     */
+    public int[] getCompletion(int n) {
+        return completions.get(n);
+    }
+
+    /**
+     * 第 n 条序列的完整 token（提示词 + 生成部分）
+     */
+    public int[] getSequence(int n) {
+        int[] prompt = prompts[getPromptIndex(n)];
+        int[] sequence = Arrays.copyOf(prompt, prompt.length + completions.length(n));
+        System.arraycopy(completions.getIds(), completions.getOffsets()[n], sequence, prompt.length,
+                completions.length(n));
+        return sequence;
+    }
+
+    /**
+     * 生成 token 的对数概率（与 {@link BatchEncoding#getIds()} 对齐）
+     */
+    public float[] getTokenLogProbs() {
+        return tokenLogProbs;
+    }
+
+    /**
+     * 每条序列生成部分的对数概率之和 [N]
+     */
+    public float[] getSequenceLogProbs() {
+        return sumPerSequence(tokenLogProbs);
+    }
+
+    /**
+     * 按序列对 token 级数值求和
+     *
+     * @param tokenValues 与生成 token 对齐的数值（如 {@link RolloutEngine#score(RolloutBatch)} 的结果）
+     * @return 每条序列的和 [N]
+     */
+    public float[] sumPerSequence(float[] tokenValues) {
+        if (tokenValues.length != completions.getTotalTokens()) {
+            throw new IllegalArgumentException("数值应与生成 token 一一对应");
+        }
+        int[] offsets = completions.getOffsets();
+        float[] result = new float[size()];
+        for (int n = 0; n < result.length; n++) {
+            float sum = 0.0f;
+            for (int i = offsets[n]; i < offsets[n + 1]; i++) {
+                sum += tokenValues[i];
+            }
+            result[n] = sum;
+        }
+        return result;
+    }
+
+    /**
+     * 填充为 [N, maxNewTokens] 的对数概率（填充位置为0）
+     */
+    public float[] getPaddedLogProbs() {
+        int[] offsets = completions.getOffsets();
+        float[] result = new float[size() * maxNewTokens];
+        for (int n = 0; n < size(); n++) {
+            System.arraycopy(tokenLogProbs, offsets[n], result, n * maxNewTokens, completions.length(n));
+        }
+        return result;
+    }
+
+    /**
+     * [N, maxNewTokens] 的生成掩码（有效 token 为1）
+     */
+    public float[] getCompletionMask() {
+        float[] mask = new float[size() * maxNewTokens];
+        for (int n = 0; n < size(); n++) {
+            Arrays.fill(mask, n * maxNewTokens, n * maxNewTokens + completions.length(n), 1.0f);
+        }
+        return mask;
+    }
+
+    /**
+     * 第 n 条序列是否以结束符结束（否则为达到最大长度）
+     */
+    public boolean isFinishedWithEos(int n) {
+        return finishedWithEos[n];
+    }
+
+    /**
+     * 生成过程中模型前向传播的次数（整个批次共享）
+     */
+    public int getForwardCalls() {
+        return forwardCalls;
+    }
+
+    /**
+     * 将按序列排列的数值（如奖励）整理为 [numPrompts, numSamples]
+     *
+     * @param perSequence 长度为 N 的数组
+     * @return 分组矩阵
+     */
+    public float[][] toGroupMatrix(float[] perSequence) {
+        if (perSequence.length != size()) {
+            throw new IllegalArgumentException("数组长度应为序列数 " + size());
+        }
+        float[][] matrix = new float[getNumPrompts()][numSamples];
+        for (int p = 0; p < matrix.length; p++) {
+            System.arraycopy(perSequence, p * numSamples, matrix[p], 0, numSamples);
+        }
+        return matrix;
+    }
+}
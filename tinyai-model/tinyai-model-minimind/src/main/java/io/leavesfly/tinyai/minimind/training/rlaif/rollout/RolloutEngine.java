@@ -0,0 +1,356 @@
+package io.leavesfly.tinyai.minimind.training.rlaif.rollout;
+
+import io.leavesfly.tinyai.func.NoGrad;
+import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.minimind.model.MiniMindBlock;
+import io.leavesfly.tinyai.minimind.model.MiniMindModel;
+import io.leavesfly.tinyai.minimind.model.attention.KVCache;
+import io.leavesfly.tinyai.ml.dataset.BatchEncoding;
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 批量 rollout 生成引擎（GRPO / PPO 等强化学习训练的采样阶段）
+ * <p>
+ * 一次为所有提示词各采样 numSamples 个候选，整个批次共用一组 KV-Cache：
+ * <ul>
+ *   <li>提示词左填充到相同长度，填充位置通过键填充掩码跳过；RoPE 只依赖相对位置，
+ *       结果与逐条生成一致</li>
+ *   <li>每个提示词只做一次预填充，再把缓存行复制给它的 numSamples 个候选</li>
+ *   <li>每步对所有未结束序列做一次 [B, 1] 的增量前向；序列遇到结束符或达到长度上限后
+ *       从批次与缓存中剔除，不再参与后续计算</li>
+ * </ul>
+ * 采样时记录每个 token 在采样分布（温度、Top-K 之后）下的对数概率，作为旧策略概率；
+ * {@link #score(RolloutBatch)} 以同一分布对已有 rollout 做一次批量前向，得到当前策略概率。
+ * temperature = 0 时为贪婪解码，对数概率按温度1计算。
+ *
+ * @author leavesfly
+ * @version 1.0
+ */
+public class RolloutEngine {
+
+    private final MiniMindModel model;
+    private final float temperature;
+    private final int topK;
+    private final int eosTokenId;
+    private final int padTokenId;
+    private final Random random;
+
+    /**
+     * 构造函数
+     *
+     * @param model       策略模型
+     * @param temperature 采样温度（0 表示贪婪）
+     * @param topK        Top-K 过滤（0 表示不使用）
+     * @param eosTokenId  结束符 ID（负数表示不检测）
+     * @param padTokenId  填充符 ID
+     * @param random      随机数生成器
+     */
+    public RolloutEngine(MiniMindModel model, float temperature, int topK,
+                         int eosTokenId, int padTokenId, Random random) {
+        if (temperature < 0) {
+            throw new IllegalArgumentException("temperature不能为负数");
+        }
+        this.model = model;
+        this.temperature = temperature;
+        this.topK = topK;
+        this.eosTokenId = eosTokenId;
+        this.padTokenId = padTokenId;
+        this.random = random;
+    }
+
+    /**
+     * 构造函数（与 MiniMindModel.generate 一致：EOS 为 2，PAD 为 0）
+     */
+    public RolloutEngine(MiniMindModel model, float temperature) {
+        this(model, temperature, 0, 2, 0, new Random());
+    }
+
+    /**
+     * 批量生成 rollout
+     *
+     * @param prompts      提示词列表
+     * @param numSamples   每个提示词的候选数 G
+     * @param maxNewTokens 每个候选最多生成的 token 数
+     * @return 生成结果（序列 n 对应提示词 n / numSamples）
+     */
+    public RolloutBatch generate(List<int[]> prompts, int numSamples, int maxNewTokens) {
+        // 采样只需要前向数值,不构建计算图
+        try (NoGrad ignored = NoGrad.enter()) {
+            return doGenerate(prompts, numSamples, maxNewTokens);
+        }
+    }
+
+    private RolloutBatch doGenerate(List<int[]> prompts, int numSamples, int maxNewTokens) {
+        if (prompts.isEmpty() || numSamples <= 0 || maxNewTokens <= 0) {
+            throw new IllegalArgumentException("prompts不能为空, numSamples与maxNewTokens必须为正数");
+        }
+        int numPrompts = prompts.size();
+        int promptLen = 0;
+        for (int[] prompt : prompts) {
+            if (prompt.length == 0) {
+                throw new IllegalArgumentException("提示词不能为空");
+            }
+            promptLen = Math.max(promptLen, prompt.length);
+        }
+        int maxSeqLen = model.getConfig().getMaxSeqLen();
+        int maxNew = Math.min(maxNewTokens, maxSeqLen - promptLen);
+        if (maxNew <= 0) {
+            throw new IllegalArgumentException("提示词长度 " + promptLen + " 已达到最大序列长度 " + maxSeqLen);
+        }
+
+        MiniMindBlock block = model.getMiniMindBlock();
+        block.setTraining(false);
+        List<KVCache> caches = block.createKVCaches(numPrompts);
+        int forwardCalls = 0;
+
+        // 1. 左填充后一次预填充全部提示词
+        int[] padCounts = new int[numPrompts];
+        float[] promptData = new float[numPrompts * promptLen];
+        Arrays.fill(promptData, padTokenId);
+        for (int p = 0; p < numPrompts; p++) {
+            int[] prompt = prompts.get(p);
+            padCounts[p] = promptLen - prompt.length;
+            for (int i = 0; i < prompt.length; i++) {
+                promptData[p * promptLen + padCounts[p] + i] = prompt[i];
+            }
+        }
+        NdArray prefillLogits = block.forwardWithCache(
+                new Variable(NdArray.of(promptData, Shape.of(numPrompts, promptLen))),
+                caches, 0, paddingMask(padCounts, promptLen)).getValue();
+        forwardCalls++;
+
+        // 2. 复制缓存行：序列 n 使用提示词 n / numSamples 的缓存
+        int total = numPrompts * numSamples;
+        int[] rows = new int[total];
+        for (int n = 0; n < total; n++) {
+            rows[n] = n / numSamples;
+        }
+        for (KVCache cache : caches) {
+            cache.selectRows(rows);
+        }
+
+        int[][] tokens = new int[total][maxNew];
+        float[][] logProbs = new float[total][maxNew];
+        int[] lengths = new int[total];
+        boolean[] finishedWithEos = new boolean[total];
+
+        // active[i] 为当前批次第 i 行对应的序列号
+        int[] active = new int[total];
+        int[] activePads = new int[total];
+        float[][] stepLogits = new float[total][];
+        float[] prefillData = prefillLogits.getArray();
+        int vocabSize = prefillLogits.getShape().getShapeDims()[2];
+        for (int n = 0; n < total; n++) {
+            active[n] = n;
+            activePads[n] = padCounts[rows[n]];
+            int offset = (rows[n] * promptLen + promptLen - 1) * vocabSize;
+            stepLogits[n] = Arrays.copyOfRange(prefillData, offset, offset + vocabSize);
+        }
+        int numActive = total;
+
+        // 3. 逐步采样；未结束的序列做一次批量增量前向
+        for (int step = 0; step < maxNew && numActive > 0; step++) {
+            int kept = 0;
+            float[] nextTokens = new float[numActive];
+            for (int i = 0; i < numActive; i++) {
+                int n = active[i];
+                float[] logp = logSoftmax(stepLogits[i]);
+                int token = temperature == 0 ? argmax(logp) : sample(logp);
+                tokens[n][step] = token;
+                logProbs[n][step] = logp[token];
+                lengths[n] = step + 1;
+                if (token == eosTokenId) {
+                    finishedWithEos[n] = true;
+                } else if (step + 1 < maxNew) {
+                    // 保留仍需继续生成的行
+                    active[kept] = n;
+                    activePads[kept] = activePads[i];
+                    nextTokens[kept] = token;
+                    rows[kept] = i;
+                    kept++;
+                }
+            }
+            if (kept == 0) {
+                break;
+            }
+            if (kept < numActive) {
+                int[] keptRows = Arrays.copyOf(rows, kept);
+                for (KVCache cache : caches) {
+                    cache.selectRows(keptRows);
+                }
+            }
+            numActive = kept;
+
+            int position = promptLen + step;
+            NdArray logits = block.forwardWithCache(
+                    new Variable(NdArray.of(Arrays.copyOf(nextTokens, numActive), Shape.of(numActive, 1))),
+                    caches, position, paddingMask(Arrays.copyOf(activePads, numActive), position + 1)).getValue();
+            forwardCalls++;
+            float[] data = logits.getArray();
+            for (int i = 0; i < numActive; i++) {
+                stepLogits[i] = Arrays.copyOfRange(data, i * vocabSize, (i + 1) * vocabSize);
+            }
+        }
+        block.clearKVCaches(caches);
+
+        // 4. 紧凑存储
+        int[][] completions = new int[total][];
+        int totalTokens = 0;
+        for (int n = 0; n < total; n++) {
+            completions[n] = Arrays.copyOf(tokens[n], lengths[n]);
+            totalTokens += lengths[n];
+        }
+        float[] packedLogProbs = new float[totalTokens];
+        int pos = 0;
+        for (int n = 0; n < total; n++) {
+            System.arraycopy(logProbs[n], 0, packedLogProbs, pos, lengths[n]);
+            pos += lengths[n];
+        }
+        return new RolloutBatch(prompts.toArray(new int[0][]), numSamples, maxNew,
+                BatchEncoding.of(completions), packedLogProbs, finishedWithEos, forwardCalls);
+    }
+
+    /**
+     * 用当前模型对已有 rollout 的生成部分重新计算对数概率（一次批量前向，不使用缓存）
+     * <p>
+     * 提示词左填充、生成部分右填充；因果掩码保证右侧填充不影响有效位置。
+     * 采样分布与 {@link #generate(List, int, int)} 相同。
+     *
+     * @param rollouts rollout 结果
+     * @return 与 {@link RolloutBatch#getTokenLogProbs()} 对齐的对数概率
+     */
+    public float[] score(RolloutBatch rollouts) {
+        try (NoGrad ignored = NoGrad.enter()) {
+            return doScore(rollouts);
+        }
+    }
+
+    private float[] doScore(RolloutBatch rollouts) {
+        int total = rollouts.size();
+        int promptLen = 0;
+        for (int p = 0; p < rollouts.getNumPrompts(); p++) {
+            promptLen = Math.max(promptLen, rollouts.getPrompt(p).length);
+        }
+        BatchEncoding completions = rollouts.getCompletions();
+        int seqLen = promptLen + Math.max(1, completions.getMaxLength());
+
+        float[] data = new float[total * seqLen];
+        Arrays.fill(data, padTokenId);
+        int[] padCounts = new int[total];
+        for (int n = 0; n < total; n++) {
+            int[] prompt = rollouts.getPrompt(rollouts.getPromptIndex(n));
+            padCounts[n] = promptLen - prompt.length;
+            for (int i = 0; i < prompt.length; i++) {
+                data[n * seqLen + padCounts[n] + i] = prompt[i];
+            }
+            int[] completion = completions.get(n);
+            for (int i = 0; i < completion.length; i++) {
+                data[n * seqLen + promptLen + i] = completion[i];
+            }
+        }
+
+        model.getMiniMindBlock().setTraining(false);
+        NdArray logits = model.getMiniMindBlock().forwardWithCache(
+                new Variable(NdArray.of(data, Shape.of(total, seqLen))),
+                null, 0, paddingMask(padCounts, seqLen)).getValue();
+        float[] logitsData = logits.getArray();
+        int vocabSize = logits.getShape().getShapeDims()[2];
+
+        // 第 i 个生成 token 由位置 promptLen + i - 1 的 logits 预测
+        float[] result = new float[completions.getTotalTokens()];
+        int pos = 0;
+        for (int n = 0; n < total; n++) {
+            int[] completion = completions.get(n);
+            for (int i = 0; i < completion.length; i++) {
+                int offset = (n * seqLen + promptLen + i - 1) * vocabSize;
+                float[] logp = logSoftmax(Arrays.copyOfRange(logitsData, offset, offset + vocabSize));
+                result[pos++] = logp[completion[i]];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 左填充的键填充掩码 [batch, kvLen]
+     */
+    private static float[] paddingMask(int[] padCounts, int kvLen) {
+        float[] mask = new float[padCounts.length * kvLen];
+        for (int b = 0; b < padCounts.length; b++) {
+            Arrays.fill(mask, b * kvLen, b * kvLen + padCounts[b], 1.0f);
+        }
+        return mask;
+    }
+
+    /**
+     * 采样分布的对数概率（应用温度与 Top-K，被过滤的 token 为负无穷）
+     */
+    private float[] logSoftmax(float[] logits) {
+        int vocabSize = logits.length;
+        float threshold = Float.NEGATIVE_INFINITY;
+        if (topK > 0 && topK < vocabSize) {
+            float[] sorted = logits.clone();
+            Arrays.sort(sorted);
+            threshold = sorted[vocabSize - topK];
+        }
+        float scale = temperature > 0 ? 1.0f / temperature : 1.0f;
+        double max = Double.NEGATIVE_INFINITY;
+        for (float logit : logits) {
+            if (logit >= threshold) {
+                max = Math.max(max, logit * scale);
+            }
+        }
+        double sum = 0;
+        for (float logit : logits) {
+            if (logit >= threshold) {
+                sum += Math.exp(logit * scale - max);
+            }
+        }
+        double logSum = max + Math.log(sum);
+        float[] result = new float[vocabSize];
+        for (int i = 0; i < vocabSize; i++) {
+            result[i] = logits[i] >= threshold ? (float) (logits[i] * scale - logSum) : Float.NEGATIVE_INFINITY;
+        }
+        return result;
+    }
+
+    private int sample(float[] logProbs) {
+        float rand = random.nextFloat();
+        float cumSum = 0.0f;
+        int last = 0;
+        for (int i = 0; i < logProbs.length; i++) {
+            if (logProbs[i] == Float.NEGATIVE_INFINITY) {
+                continue;
+            }
+            cumSum += (float) Math.exp(logProbs[i]);
+            last = i;
+            if (rand < cumSum) {
+                return i;
+            }
+        }
+        // 浮点误差兜底
+        return last;
+    }
+
+    private static int argmax(float[] values) {
+        int maxIdx = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[maxIdx]) {
+                maxIdx = i;
+            }
+        }
+        return maxIdx;
+    }
+
+    public float getTemperature() {
+        return temperature;
+    }
+
+    public int getEosTokenId() {
+        return eosTokenId;
+    }
+}
@@ -214,4 +214,27 @@ public class MiniMindBlockTest {
         assertEquals(1, shape[1], "seq_len维度应为1");
         assertEquals(config.getVocabSize(), shape[2], "vocab_size应匹配");
     }
+    
+    @Test
+    public void testForwardPackedMatchesSeparateDocuments() {
+        // 一行打包两个文档 [1,2,3] 与 [4,5,6,7],位置ID在文档内重新计数
+        float[] packedIds = {1, 2, 3, 4, 5, 6, 7};
+        NdArray positions = NdArray.of(new float[]{0, 1, 2, 0, 1, 2, 3}, Shape.of(1, 7));
+        int[] segments = {0, 0, 0, 1, 1, 1, 1};
+        
+        float[] packed = block.forwardPacked(new Variable(NdArray.of(packedIds, Shape.of(1, 7))),
+            positions, segments).getValue().getArray();
+        float[] first = block.forward(new Variable(NdArray.of(new float[]{1, 2, 3}, Shape.of(1, 3))))
+            .getValue().getArray();
+        float[] second = block.forward(new Variable(NdArray.of(new float[]{4, 5, 6, 7}, Shape.of(1, 4))))
+            .getValue().getArray();
+        
+        int vocab = config.getVocabSize();
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], packed[i], 1e-4f, "第一个文档的logits应与单独前向一致");
+        }
+        for (int i = 0; i < second.length; i++) {
+            assertEquals(second[i], packed[3 * vocab + i], 1e-4f, "第二个文档的logits应与单独前向一致");
+        }
+    }
 }
@@ -131,6 +131,23 @@ public class MiniMindConfigTest {
         assertThrows(IllegalStateException.class, () -> config.getHeadDim());
     }
 
+    @Test
+    public void testNumKVHeads() {
+        MiniMindConfig config = MiniMindConfig.createSmallConfig();
+        // 未设置时与查询头数相同
+        assertEquals(16, config.getNumKVHeads());
+        long mhaParams = config.estimateParameters();
+
+        config.setNumKVHeads(4);
+        assertEquals(4, config.getNumKVHeads());
+        assertDoesNotThrow(() -> config.validate());
+        assertTrue(config.estimateParameters() < mhaParams);
+
+        // 不能整除查询头数
+        config.setNumKVHeads(5);
+        assertThrows(IllegalStateException.class, () -> config.validate());
+    }
+
     @Test
     public void testToString() {
         MiniMindConfig config = MiniMindConfig.createSmallConfig();
@@ -0,0 +1,113 @@
+package io.leavesfly.tinyai.minimind.model;
+
+import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.minimind.training.lora.LoRAConfig;
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 多适配器推理测试：批次内按样本路由适配器，并发请求互不干扰
+ *
+ * @author leavesfly
+ */
+public class MiniMindLoRAServingTest {
+
+    private static MiniMindModel createModel() {
+        MiniMindConfig config = new MiniMindConfig();
+        config.setVocabSize(50);
+        config.setMaxSeqLen(32);
+        config.setHiddenSize(16);
+        config.setNumLayers(2);
+        config.setNumHeads(2);
+        config.setFfnHiddenSize(32);
+        MiniMindModel model = new MiniMindModel("serving", config);
+        model.applyLoRA(new LoRAConfig(4, 8.0f, 0.0f, new String[]{"queryProj", "valueProj"}, true));
+        return model;
+    }
+
+    private static Map<String, NdArray> randomAdapter(MiniMindModel model, long seed) {
+        Random random = new Random(seed);
+        Map<String, NdArray> state = model.exportLoRAState();
+        for (NdArray array : state.values()) {
+            float[] data = array.getArray();
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (float) random.nextGaussian() * 0.5f;
+            }
+        }
+        return state;
+    }
+
+    private static Variable tokens(int[][] ids) {
+        int seqLen = ids[0].length;
+        float[] data = new float[ids.length * seqLen];
+        for (int b = 0; b < ids.length; b++) {
+            for (int t = 0; t < seqLen; t++) {
+                data[b * seqLen + t] = ids[b][t];
+            }
+        }
+        return new Variable(NdArray.of(data, Shape.of(ids.length, seqLen)));
+    }
+
+    @Test
+    public void testConcurrentRequestsKeepTheirOwnAdapters() throws Exception {
+        MiniMindModel model = createModel();
+        model.loadLoRAAdapter("a", randomAdapter(model, 1), 8.0f);
+        model.loadLoRAAdapter("b", randomAdapter(model, 2), 8.0f);
+        model.setTraining(true);
+
+        int[][] ids = {{3, 4, 5, 6}, {7, 8, 9, 10}};
+        String[][] routings = {{"a", "b"}, {"b", "a"}, {null, "a"}, {"b", null}};
+        float[][] expected = new float[routings.length][];
+        for (int r = 0; r < routings.length; r++) {
+            expected[r] = model.predictWithAdapters(tokens(ids), routings[r]).getValue().getArray();
+        }
+        assertFalse(Arrays.equals(expected[0], expected[1]), "不同路由应得到不同的输出");
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int r = t % routings.length;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 20; i++) {
+                        Variable out = model.predictWithAdapters(tokens(ids), routings[r]);
+                        assertArrayEquals(expected[r], out.getValue().getArray(), 1e-5f);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // 推理结束后恢复原来的训练模式
+        assertTrue(model.isTraining());
+    }
+
+    @Test
+    public void testUnknownAdapterRejectedBeforeForward() {
+        MiniMindModel model = createModel();
+        model.loadLoRAAdapter("a", randomAdapter(model, 1), 8.0f);
+
+        assertThrows(IllegalArgumentException.class,
+            () -> model.predictWithAdapters(tokens(new int[][]{{1, 2}}), new String[]{"missing"}));
+        assertThrows(IllegalArgumentException.class,
+            () -> model.predictWithAdapters(tokens(new int[][]{{1, 2}}), new String[]{"a", "a"}));
+        assertTrue(model.isTraining());
+    }
+}
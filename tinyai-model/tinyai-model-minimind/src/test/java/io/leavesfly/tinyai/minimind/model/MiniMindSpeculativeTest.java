@@ -0,0 +1,88 @@
+package io.leavesfly.tinyai.minimind.model;
+
+import io.leavesfly.tinyai.ml.inference.CausalLanguageModel;
+import io.leavesfly.tinyai.ml.inference.SpeculativeResult;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MiniMind 投机解码测试
+ *
+ * @author leavesfly
+ */
+public class MiniMindSpeculativeTest {
+
+    @Test
+    public void testSpeculativeGeneration() {
+        MiniMindConfig targetConfig = new MiniMindConfig();
+        targetConfig.setVocabSize(50);
+        targetConfig.setMaxSeqLen(32);
+        targetConfig.setHiddenSize(32);
+        targetConfig.setNumLayers(2);
+        targetConfig.setNumHeads(4);
+        targetConfig.setFfnHiddenSize(64);
+        MiniMindModel target = new MiniMindModel("target", targetConfig);
+
+        MiniMindConfig draftConfig = new MiniMindConfig();
+        draftConfig.setVocabSize(50);
+        draftConfig.setMaxSeqLen(32);
+        draftConfig.setHiddenSize(16);
+        draftConfig.setNumLayers(1);
+        draftConfig.setNumHeads(2);
+        draftConfig.setFfnHiddenSize(32);
+        MiniMindModel draft = new MiniMindModel("draft", draftConfig);
+
+        int[] prompt = {3, 4, 5};
+
+        // 草稿即目标时贪婪验证全部接受
+        SpeculativeResult self = target.generateSpeculative(prompt, 8, target.asCausalLanguageModel(), 3, 0.0f, 0);
+        assertEquals(1.0, self.getAcceptanceRate(), 1e-9);
+
+        // 贪婪投机解码的输出只取决于目标模型，与草稿模型无关
+        SpeculativeResult speculative = target.generateSpeculative(prompt, 8, draft.asCausalLanguageModel(), 3, 0.0f, 0);
+        assertArrayEquals(self.getTokens(), speculative.getTokens());
+        assertTrue(speculative.getTargetForwardCalls() <= speculative.getGeneratedTokens());
+        System.out.println("Speculative: " + speculative);
+    }
+
+    @Test
+    public void testCausalViewKeepsTrainingMode() {
+        MiniMindConfig config = new MiniMindConfig();
+        config.setVocabSize(50);
+        config.setMaxSeqLen(32);
+        config.setHiddenSize(16);
+        config.setNumLayers(1);
+        config.setNumHeads(2);
+        config.setFfnHiddenSize(32);
+        MiniMindModel model = new MiniMindModel("draft", config);
+        model.setTraining(true);
+
+        // 创建视图与前向都不改变训练模式
+        CausalLanguageModel view = model.asCausalLanguageModel();
+        assertTrue(model.isTraining());
+        float[][] first = view.logits(new int[]{3, 4, 5}, 0);
+        assertTrue(model.isTraining());
+
+        // 前向在推理模式下执行，结果确定
+        assertArrayEquals(first[2], view.logits(new int[]{3, 4, 5}, 2)[0], 1e-6f);
+    }
+
+    @Test
+    public void testCausalViewRestoresEvalModeSetByModule() {
+        MiniMindConfig config = new MiniMindConfig();
+        config.setVocabSize(50);
+        config.setMaxSeqLen(32);
+        config.setHiddenSize(16);
+        config.setNumLayers(1);
+        config.setNumHeads(2);
+        config.setFfnHiddenSize(32);
+        MiniMindModel model = new MiniMindModel("draft", config);
+
+        // 通过 Module.eval() 切到推理模式，前向后不应被切回训练模式
+        model.getMiniMindBlock().eval();
+        model.asCausalLanguageModel().logits(new int[]{3, 4, 5}, 0);
+        assertFalse(model.isTraining());
+        assertFalse(model.getMiniMindBlock().getLayers().get(0).getAttention().isTraining());
+    }
+}
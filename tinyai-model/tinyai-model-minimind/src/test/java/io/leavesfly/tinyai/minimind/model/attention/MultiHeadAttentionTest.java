@@ -7,6 +7,8 @@ import io.leavesfly.tinyai.nnet.v2.util.GradientChecker;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 
+import java.util.Arrays;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -151,4 +153,53 @@ public class MultiHeadAttentionTest {
         // 使用 GradientChecker 检查计算图连通性
         GradientChecker.checkGraphConnectivity(attention, input);
     }
+
+    @Test
+    public void testGroupedQueryAttentionWithCache() {
+        // 4个查询头共享2个KV头
+        MultiHeadAttention gqa = new MultiHeadAttention("gqa_attention", dimModel, numHeads, 2, maxSeqLen, 0.0f);
+        assertEquals(2, gqa.getNumKVHeads());
+
+        NdArray inputData = NdArray.randn(Shape.of(1, 4, dimModel));
+        float[] full = gqa.forwardWithCache(new Variable(inputData), null, 0).getValue().getArray();
+
+        // 前3个token预填充，第4个token增量解码
+        float[] data = inputData.getArray();
+        float[] prefix = new float[3 * dimModel];
+        float[] last = new float[dimModel];
+        System.arraycopy(data, 0, prefix, 0, prefix.length);
+        System.arraycopy(data, prefix.length, last, 0, dimModel);
+
+        KVCache kvCache = new KVCache(1, 2, headDim, maxSeqLen);
+        gqa.forwardWithCache(new Variable(NdArray.of(prefix, Shape.of(1, 3, dimModel))), kvCache, 0);
+        float[] step = gqa.forwardWithCache(new Variable(NdArray.of(last, Shape.of(1, 1, dimModel))), kvCache, 3)
+            .getValue().getArray();
+
+        assertArrayEquals(new int[]{1, 2, 4, headDim}, kvCache.getCachedK().getShape().getShapeDims(),
+            "KV-Cache只应保存KV头");
+        for (int d = 0; d < dimModel; d++) {
+            assertEquals(full[3 * dimModel + d], step[d], 1e-4f, "增量解码结果应与完整前向一致");
+        }
+    }
+
+    @Test
+    public void testAttentionDropoutOnlyInTraining() {
+        MultiHeadAttention dropAttention = new MultiHeadAttention("drop_attention", dimModel, numHeads, maxSeqLen, 0.5f);
+        float[] data = new float[2 * 6 * dimModel];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (float) Math.sin(i * 0.37);
+        }
+        NdArray input = NdArray.of(data, Shape.of(2, 6, dimModel));
+
+        // 训练模式：每次前向使用不同的 dropout 掩码
+        float[] train1 = dropAttention.forward(new Variable(input)).getValue().getArray();
+        float[] train2 = dropAttention.forward(new Variable(input)).getValue().getArray();
+        assertFalse(Arrays.equals(train1, train2), "训练模式下注意力dropout应生效");
+
+        // 推理模式：关闭 dropout，输出确定
+        dropAttention.setTraining(false);
+        float[] eval1 = dropAttention.forward(new Variable(input)).getValue().getArray();
+        float[] eval2 = dropAttention.forward(new Variable(input)).getValue().getArray();
+        assertArrayEquals(eval1, eval2, 0.0f, "推理模式下不应有dropout");
+    }
 }
@@ -0,0 +1,170 @@
+package io.leavesfly.tinyai.minimind.tokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BPEEncoder单元测试
+ * <p>
+ * 以逐条应用merge规则的朴素实现为参照，验证优先级合并的结果完全一致。
+ *
+ * @author leavesfly
+ */
+public class BPEEncoderTest {
+
+    /**
+     * 朴素实现：按merge列表顺序逐条从左到右合并
+     */
+    private static int[] naiveEncode(String text, List<String> merges, Vocabulary vocab) {
+        List<String> tokens = new ArrayList<>();
+        for (char c : text.toCharArray()) {
+            tokens.add(String.valueOf(c));
+        }
+        for (String merge : merges) {
+            String[] pair = merge.split(" ");
+            if (pair.length != 2) {
+                continue;
+            }
+            List<String> merged = new ArrayList<>();
+            int i = 0;
+            while (i < tokens.size()) {
+                if (i < tokens.size() - 1 && tokens.get(i).equals(pair[0]) && tokens.get(i + 1).equals(pair[1])) {
+                    merged.add(pair[0] + pair[1]);
+                    i += 2;
+                } else {
+                    merged.add(tokens.get(i));
+                    i++;
+                }
+            }
+            tokens = merged;
+        }
+        int[] ids = new int[tokens.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = vocab.getTokenId(tokens.get(i));
+        }
+        return ids;
+    }
+
+    private static Vocabulary vocabOf(List<String> merges, String alphabet) {
+        Vocabulary vocab = new Vocabulary(1000);
+        for (char c : alphabet.toCharArray()) {
+            vocab.addToken(String.valueOf(c));
+        }
+        for (String merge : merges) {
+            String[] pair = merge.split(" ");
+            vocab.addToken(pair[0] + pair[1]);
+        }
+        return vocab;
+    }
+
+    @Test
+    public void testOverlappingMerges() {
+        List<String> merges = Arrays.asList("a a", "aa a", "b c", "a b", "ab c", "aa aa");
+        Vocabulary vocab = vocabOf(merges, "abc ");
+        BPEEncoder encoder = new BPEEncoder(merges, vocab);
+
+        for (String text : new String[]{"aaaa", "aaa", "aaaaa", "abc", "aabc", "abcabc aaaaaaa", "  a  "}) {
+            assertArrayEquals(naiveEncode(text, merges, vocab), encoder.encode(text), text);
+        }
+        assertEquals(1, encoder.encode("aaaa").length, "aa aa 应在 aa a 之后仍能合并");
+    }
+
+    @Test
+    public void testUnknownCharactersAndMissingComponents() {
+        // "xy" 不在词汇表中，但作为中间符号仍需参与后续合并
+        List<String> merges = Arrays.asList("x y", "xy z");
+        Vocabulary vocab = new Vocabulary(100);
+        vocab.addToken("x");
+        vocab.addToken("xyz");
+        BPEEncoder encoder = new BPEEncoder(merges, vocab);
+
+        String text = "xyz xy q你";
+        assertArrayEquals(naiveEncode(text, merges, vocab), encoder.encode(text));
+        assertEquals(vocab.getTokenId("xyz"), encoder.encode("xyz")[0]);
+        assertEquals(vocab.getUnkTokenId(), encoder.encode("q")[0]);
+    }
+
+    @Test
+    public void testMatchesNaiveOnTrainedMerges() {
+        List<String> corpus = Arrays.asList(
+            "the quick brown fox jumps over the lazy dog",
+            "the dog barks and the fox runs",
+            "quick quick brown brown fox fox",
+            "lower lowest newer newest wider widest"
+        );
+        BPETrainer trainer = new BPETrainer(120, 1);
+        Vocabulary vocab = trainer.train(corpus);
+        List<String> merges = trainer.getMerges();
+        BPEEncoder encoder = new BPEEncoder(merges, vocab);
+
+        Random random = new Random(42);
+        String alphabet = "abcdefghijklmnopqrstuvwxyz   ";
+        for (String text : corpus) {
+            assertArrayEquals(naiveEncode(text, merges, vocab), encoder.encode(text), text);
+        }
+        for (int t = 0; t < 200; t++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 1 + random.nextInt(40);
+            for (int i = 0; i < len; i++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String text = sb.toString();
+            assertArrayEquals(naiveEncode(text, merges, vocab), encoder.encode(text), text);
+        }
+    }
+
+    @Test
+    public void testWhitespaceMergeDisablesChunking() {
+        List<String> merges = Arrays.asList("a \t", "a\t b");
+        Vocabulary vocab = vocabOf(merges, "ab \t");
+        BPEEncoder encoder = new BPEEncoder(merges, vocab);
+
+        String text = "a\tb a\tba";
+        assertArrayEquals(naiveEncode(text, merges, vocab), encoder.encode(text));
+        assertEquals(vocab.getTokenId("a\tb"), encoder.encode(text)[0]);
+        assertEquals(0, encoder.getCacheSize());
+    }
+
+    @Test
+    public void testLruCacheIsBounded() {
+        List<String> merges = Arrays.asList("a b", "ab c");
+        Vocabulary vocab = vocabOf(merges, "abc ");
+        BPEEncoder encoder = new BPEEncoder(merges, vocab, 2);
+
+        int[] first = encoder.encode("abc ab");
+        assertEquals(2, encoder.getCacheSize());
+        assertArrayEquals(first, encoder.encode("abc ab"));
+
+        encoder.encode("c cab abca");
+        assertEquals(2, encoder.getCacheSize());
+        assertArrayEquals(naiveEncode("abc ab", merges, vocab), encoder.encode("abc ab"));
+
+        encoder.clearCache();
+        assertEquals(0, encoder.getCacheSize());
+        assertEquals(2, encoder.getNumPairs());
+    }
+
+    @Test
+    public void testTokenizerUsesRankedEncoder() {
+        List<String> corpus = Arrays.asList("hello world", "hello there", "world wide web");
+        BPETrainer trainer = new BPETrainer(80, 1);
+        Vocabulary vocab = trainer.train(corpus);
+        MiniMindTokenizer tokenizer = MiniMindTokenizer.fromBPETrainer(trainer, 64);
+
+        List<Integer> ids = tokenizer.encode("hello world", false, false);
+        int[] expected = naiveEncode("hello world", trainer.getMerges(), vocab);
+        assertEquals(expected.length, ids.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], ids.get(i));
+        }
+        assertEquals(ids, tokenizer.encode("hello world", false, false));
+        tokenizer.clearEncodeCache();
+        assertEquals(ids, tokenizer.encode("hello world", false, false));
+    }
+}
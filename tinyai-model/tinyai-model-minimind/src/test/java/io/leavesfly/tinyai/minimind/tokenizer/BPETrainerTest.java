@@ -0,0 +1,135 @@
+package io.leavesfly.tinyai.minimind.tokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BPETrainer单元测试
+ * <p>
+ * 按训练得到的merge顺序逐步重放朴素算法，验证每一步选中的pair都是当时频率最高的pair。
+ *
+ * @author leavesfly
+ */
+public class BPETrainerTest {
+
+    private static List<String> randomCorpus(long seed, int lines) {
+        Random random = new Random(seed);
+        String[] stems = {"low", "new", "wid", "tall", "fast", "slow", "quick", "bright"};
+        String[] suffixes = {"", "er", "est", "ly", "ness", "ing"};
+        List<String> corpus = new ArrayList<>();
+        for (int l = 0; l < lines; l++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 3 + random.nextInt(8);
+            for (int i = 0; i < len; i++) {
+                sb.append(stems[random.nextInt(stems.length)])
+                  .append(suffixes[random.nextInt(suffixes.length)])
+                  .append(random.nextInt(5) == 0 ? ", " : " ");
+            }
+            corpus.add(sb.toString());
+        }
+        return corpus;
+    }
+
+    private static Map<List<String>, Integer> naiveWords(List<String> corpus) {
+        Map<List<String>, Integer> words = new HashMap<>();
+        for (String text : corpus) {
+            for (String word : text.split("\\s+|(?<=[,.!?;:])|(?=[,.!?;:])")) {
+                if (word.trim().isEmpty()) {
+                    continue;
+                }
+                List<String> tokens = new ArrayList<>();
+                for (char c : word.toCharArray()) {
+                    tokens.add(String.valueOf(c));
+                }
+                words.merge(tokens, 1, Integer::sum);
+            }
+        }
+        return words;
+    }
+
+    private static Map<String, Integer> naivePairCounts(Map<List<String>, Integer> words) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<List<String>, Integer> entry : words.entrySet()) {
+            List<String> tokens = entry.getKey();
+            for (int i = 0; i < tokens.size() - 1; i++) {
+                counts.merge(tokens.get(i) + " " + tokens.get(i + 1), entry.getValue(), Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    private static Map<List<String>, Integer> naiveMerge(Map<List<String>, Integer> words, String a, String b) {
+        Map<List<String>, Integer> result = new HashMap<>();
+        for (Map.Entry<List<String>, Integer> entry : words.entrySet()) {
+            List<String> tokens = entry.getKey();
+            List<String> merged = new ArrayList<>();
+            int i = 0;
+            while (i < tokens.size()) {
+                if (i < tokens.size() - 1 && tokens.get(i).equals(a) && tokens.get(i + 1).equals(b)) {
+                    merged.add(a + b);
+                    i += 2;
+                } else {
+                    merged.add(tokens.get(i++));
+                }
+            }
+            result.put(merged, entry.getValue());
+        }
+        return result;
+    }
+
+    @Test
+    public void testEachMergeIsMostFrequentPair() {
+        List<String> corpus = randomCorpus(7, 300);
+        BPETrainer trainer = new BPETrainer(260, 2);
+        trainer.train(corpus);
+        List<String> merges = trainer.getMerges();
+        assertFalse(merges.isEmpty());
+
+        Map<List<String>, Integer> words = naiveWords(corpus);
+        for (String merge : merges) {
+            Map<String, Integer> counts = naivePairCounts(words);
+            int best = Collections.max(counts.values());
+            assertEquals(best, (int) counts.get(merge), "merge " + merge + " 不是当前频率最高的pair");
+            assertTrue(best >= 2);
+            String[] pair = merge.split(" ");
+            words = naiveMerge(words, pair[0], pair[1]);
+        }
+    }
+
+    @Test
+    public void testTieBreakIsDeterministic() {
+        // "ab" 与 "cd" 频率相同，按字典序先合并 "a b"
+        List<String> corpus = Arrays.asList("cd ab", "ab cd");
+        BPETrainer first = new BPETrainer(200, 1);
+        first.train(corpus);
+        assertEquals("a b", first.getMerges().get(0));
+        assertEquals("c d", first.getMerges().get(1));
+
+        List<String> big = randomCorpus(11, 200);
+        BPETrainer a = new BPETrainer(250, 1);
+        BPETrainer b = new BPETrainer(250, 1);
+        a.train(big);
+        b.train(big);
+        assertEquals(a.getMerges(), b.getMerges());
+        assertEquals(a.getVocab(), b.getVocab());
+    }
+
+    @Test
+    public void testStopsWhenNoPairsRemain() {
+        BPETrainer trainer = new BPETrainer(1000, 1);
+        Vocabulary vocab = trainer.train(Arrays.asList("aaaa", "aaaa"));
+
+        // a a -> aa, aa aa -> aaaa, 之后没有可合并的pair
+        assertEquals(Arrays.asList("a a", "aa aa"), trainer.getMerges());
+        assertTrue(vocab.containsToken("aaaa"));
+    }
+}
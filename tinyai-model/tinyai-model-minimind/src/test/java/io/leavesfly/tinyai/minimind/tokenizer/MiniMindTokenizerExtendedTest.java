@@ -1,5 +1,7 @@
 package io.leavesfly.tinyai.minimind.tokenizer;
 
+import io.leavesfly.tinyai.ml.dataset.BatchEncoding;
+import io.leavesfly.tinyai.ndarr.NdArray;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 
@@ -143,6 +145,30 @@ public class MiniMindTokenizerExtendedTest {
         assertEquals(inputIds.get(1).size(), masks.get(1).size(), "mask长度应匹配");
     }
     
+    @Test
+    public void testBatchEncodeIdsMatchesEncode() {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            texts.add("hello " + i + " hell");
+        }
+        
+        for (MiniMindTokenizer tokenizer : new MiniMindTokenizer[]{charTokenizer, bpeTokenizer}) {
+            BatchEncoding batch = tokenizer.batchEncodeIds(texts, true, true);
+            assertEquals(texts.size(), batch.size());
+            for (int i = 0; i < texts.size(); i++) {
+                List<Integer> expected = tokenizer.encode(texts.get(i), true, true);
+                int[] actual = batch.get(i);
+                assertEquals(expected.size(), actual.length);
+                for (int j = 0; j < actual.length; j++) {
+                    assertEquals(expected.get(j), actual[j]);
+                }
+            }
+            
+            NdArray inputIds = batch.toNdArray(8, tokenizer.getVocabulary().getPadTokenId());
+            assertArrayEquals(new int[]{texts.size(), 8}, inputIds.getShape().getShapeDims());
+        }
+    }
+    
     @Test
     public void testTruncation() {
         // 创建一个很长的文本
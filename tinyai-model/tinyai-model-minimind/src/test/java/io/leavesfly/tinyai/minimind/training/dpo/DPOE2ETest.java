@@ -4,8 +4,14 @@ import io.leavesfly.tinyai.minimind.model.MiniMindConfig;
 import io.leavesfly.tinyai.minimind.model.MiniMindModel;
 import io.leavesfly.tinyai.minimind.tokenizer.MiniMindTokenizer;
 import io.leavesfly.tinyai.minimind.training.dataset.DPODataset;
+import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.ndarr.NdArray;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -178,7 +184,34 @@ public class DPOE2ETest {
         
         assertEquals(dataset.getBatchCount(), batchCount);
     }
-    
+
+    @Test
+    public void testDPOLengthBucketedBatches() {
+        dataset = new DPODataset(tokenizer, 32, 2);
+        dataset.addSample("Q:", " A", " B");
+        dataset.addSample("Q:", " C", " D");
+        dataset.addSample("Longer Q:", " a longer answer", " other answer");
+        dataset.addSample("Longer Q:", " second answer", " one more answer");
+        dataset.setMaxTokensPerBatch(64);
+
+        dataset.prepare(true);
+
+        int samples = 0;
+        while (dataset.hasNext()) {
+            DPODataset.Batch batch = dataset.nextBatch();
+            int[] dims = batch.getChosenInput().getShape().getShapeDims();
+            // 每批只填充到批内最长序列, 且不超过token预算
+            assertTrue(dims[1] < 32);
+            assertTrue(dims[0] * dims[1] <= 64);
+            assertArrayEquals(dims, batch.getRejectedInput().getShape().getShapeDims());
+            assertArrayEquals(dims, batch.getPromptMask().getShape().getShapeDims());
+            samples += dims[0];
+        }
+
+        assertEquals(4, samples);
+        assertTrue(dataset.getPaddingEfficiency() > 0.5f);
+    }
+
     @Test
     public void testDPOLossComputation() {
         DPOLoss loss = new DPOLoss(0.1f, 0.0f);
@@ -207,4 +240,73 @@ public class DPOE2ETest {
             System.out.println("Beta = " + beta + " 的训练器创建成功");
         }
     }
+    
+    @Test
+    public void testReferenceLogProbCache(@TempDir Path tempDir) {
+        dataset = new DPODataset(tokenizer, 32, 2);
+        dataset.addSample("What is AI?", " A field of computer science.", " No idea.");
+        dataset.addSample("Hi", " Hello there!", " ...");
+        dataset.addSample("2+2?", " 4", " 5");
+        
+        DPOTrainer trainer = new DPOTrainer(model, dataset, dpoConfig);
+        String cacheFile = tempDir.resolve("ref_logprobs.bin").toString();
+        ReferenceLogProbCache cache = trainer.precomputeReferenceLogProbs(cacheFile);
+        assertTrue(cache.isComplete());
+        assertTrue(new File(cacheFile).exists());
+        
+        // 打乱后按样本ID查表,与直接对参考模型(此时与策略模型参数相同)前向的结果一致
+        DPOLoss dpoLoss = new DPOLoss(dpoConfig.getBeta(), dpoConfig.getLabelSmoothing());
+        dataset.prepare(true);
+        while (dataset.hasNext()) {
+            DPODataset.Batch batch = dataset.nextBatch();
+            Variable mask = new Variable(batch.getPromptMask());
+            float expectedChosen = dpoLoss.computeLogProbs(
+                new Variable(model.predict(batch.getChosenInput())),
+                new Variable(batch.getChosenLabels()), mask).getValue().getNumber().floatValue();
+            float expectedRejected = dpoLoss.computeLogProbs(
+                new Variable(model.predict(batch.getRejectedInput())),
+                new Variable(batch.getRejectedLabels()), mask).getValue().getNumber().floatValue();
+            assertTrue(cache.containsAll(batch.getSampleIds()));
+            assertEquals(expectedChosen, cache.chosenLogProb(batch.getSampleIds()), 1e-4f);
+            assertEquals(expectedRejected, cache.rejectedLogProb(batch.getSampleIds()), 1e-4f);
+        }
+        dataset.reset();
+        
+        // 第二次直接从磁盘加载
+        DPOTrainer reloaded = new DPOTrainer(model, dataset, dpoConfig);
+        ReferenceLogProbCache loaded = reloaded.precomputeReferenceLogProbs(cacheFile);
+        int[] all = {0, 1, 2};
+        assertEquals(cache.chosenLogProb(all), loaded.chosenLogProb(all), 0.0f);
+        assertEquals(cache.rejectedLogProb(all), loaded.rejectedLogProb(all), 0.0f);
+        
+        reloaded.configure(1, 1e-4f, 1.0f);
+        reloaded.train();
+        assertEquals(2, reloaded.getLossHistory().size());
+        assertFalse(Float.isNaN(reloaded.getLossHistory().get(0)));
+    }
+    
+    @Test
+    public void testReferenceCacheFingerprintMismatch(@TempDir Path tempDir) {
+        dataset = new DPODataset(tokenizer, 32, 2);
+        dataset.addSample("What is AI?", " A field of computer science.", " No idea.");
+        dataset.addSample("Hi", " Hello there!", " ...");
+        String cacheFile = tempDir.resolve("ref_logprobs.bin").toString();
+        ReferenceLogProbCache cache = new DPOTrainer(model, dataset, dpoConfig).precomputeReferenceLogProbs(cacheFile);
+        
+        // 样本数相同但内容不同的数据集不能复用缓存
+        DPODataset other = new DPODataset(tokenizer, 32, 2);
+        other.addSample("2+2?", " 4", " 5");
+        other.addSample("Capital of France?", " Paris", " London");
+        ReferenceLogProbCache recomputed = new DPOTrainer(model, other, dpoConfig).precomputeReferenceLogProbs(cacheFile);
+        assertNotEquals(cache.getFingerprint(), recomputed.getFingerprint());
+        int[] all = {0, 1};
+        assertNotEquals(cache.chosenLogProb(all), recomputed.chosenLogProb(all), 0.0f);
+        
+        // 序列长度不同同样重新计算
+        DPODataset shorter = new DPODataset(tokenizer, 16, 2);
+        shorter.addSample("2+2?", " 4", " 5");
+        shorter.addSample("Capital of France?", " Paris", " London");
+        assertNotEquals(recomputed.getFingerprint(),
+            new DPOTrainer(model, shorter, dpoConfig).precomputeReferenceLogProbs(cacheFile).getFingerprint());
+    }
 }
@@ -236,4 +236,60 @@ public class LoRALinearTest {
         // 使用 GradientChecker 检查计算图连通性
         GradientChecker.checkGraphConnectivity(loraLinear, input);
     }
+
+    @Test
+    public void testRowAdaptersMatchSingleAdapterForward() {
+        LoRALinear loraLinear = new LoRALinear("lora_fc", 6, 5, true, 2, 4.0f, 0.0f);
+        float[] loraB = loraLinear.getLoraB().data().getArray();
+        System.arraycopy(NdArray.randn(Shape.of(5, 2)).getArray(), 0, loraB, 0, loraB.length);
+        
+        // (batch=3, seq=4, features=6)
+        Variable input = new Variable(NdArray.randn(Shape.of(3, 4, 6)));
+        float[] tuned = loraLinear.forward(input).getValue().getArray();
+        
+        loraLinear.loadAdapter("tuned", loraLinear.getLoraA().data(), loraLinear.getLoraB().data(), 4.0f);
+        loraLinear.loadAdapter("zero", loraLinear.getLoraA().data(), NdArray.zeros(Shape.of(5, 2)), 4.0f);
+        
+        float[] base = loraLinear.forwardWithAdapters(input, new String[]{null, null, null}).getValue().getArray();
+        Variable mixed = loraLinear.forwardWithAdapters(input, new String[]{"tuned", null, "zero"});
+        // 路由不保存在层上，普通前向仍走训练路径
+        assertArrayEquals(tuned, loraLinear.forward(input).getValue().getArray(), 1e-6f);
+        
+        assertArrayEquals(new int[]{3, 4, 5}, mixed.getShape().getShapeDims());
+        float[] out = mixed.getValue().getArray();
+        int sample = 4 * 5;
+        for (int k = 0; k < out.length; k++) {
+            float expected = k < sample ? tuned[k] : base[k];
+            assertEquals(expected, out[k], 1e-4f);
+        }
+        
+        // 卸载后不能再被选择
+        assertTrue(loraLinear.unloadAdapter("tuned"));
+        assertThrows(IllegalArgumentException.class,
+            () -> loraLinear.resolveAdapters(new String[]{"tuned", null, null}));
+        assertThrows(IllegalArgumentException.class,
+            () -> loraLinear.loadAdapter("bad", NdArray.zeros(Shape.of(2, 7)), NdArray.zeros(Shape.of(5, 2)), 4.0f));
+    }
+
+    @Test
+    public void testMergeInPlaceAndUnmerge() {
+        LoRALinear loraLinear = new LoRALinear("lora_fc", 6, 5, true, 2, 4.0f, 0.0f);
+        float[] loraB = loraLinear.getLoraB().data().getArray();
+        System.arraycopy(NdArray.randn(Shape.of(5, 2)).getArray(), 0, loraB, 0, loraB.length);
+        
+        Variable input = new Variable(NdArray.randn(Shape.of(3, 6)));
+        float[] expected = loraLinear.forward(input).getValue().getArray();
+        float[] weight = loraLinear.getOriginalWeight().data().getArray();
+        float[] original = weight.clone();
+        
+        loraLinear.mergeInPlace();
+        assertTrue(loraLinear.isMerged());
+        assertSame(weight, loraLinear.getOriginalWeight().data().getArray());
+        assertArrayEquals(expected, loraLinear.forward(input).getValue().getArray(), 1e-4f);
+        assertThrows(IllegalStateException.class, loraLinear::mergeInPlace);
+        
+        loraLinear.unmergeInPlace();
+        assertFalse(loraLinear.isMerged());
+        assertArrayEquals(original, weight, 1e-6f);
+    }
 }
@@ -3,6 +3,7 @@ package io.leavesfly.tinyai.minimind.training.pretrain;
 import io.leavesfly.tinyai.minimind.model.MiniMindConfig;
 import io.leavesfly.tinyai.minimind.model.MiniMindModel;
 import io.leavesfly.tinyai.minimind.tokenizer.MiniMindTokenizer;
+import io.leavesfly.tinyai.minimind.training.dataset.PretrainDataset;
 import io.leavesfly.tinyai.func.Variable;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
@@ -128,6 +129,50 @@ public class PretrainE2ETest {
         System.out.println("✅ 预训练端到端测试通过!");
     }
     
+    @Test
+    public void testPackedPretrainDataset() {
+        MiniMindConfig config = new MiniMindConfig();
+        config.setHiddenSize(32);
+        config.setNumLayers(1);
+        config.setNumHeads(2);
+        config.setFfnHiddenSize(64);
+        config.setVocabSize(512);
+        config.setMaxSeqLen(32);
+        config.setDropout(0.0f);
+        MiniMindTokenizer tokenizer = MiniMindTokenizer.createCharLevelTokenizer(
+            config.getVocabSize(), config.getMaxSeqLen());
+        
+        // 长短不一的文本: 逐条填充时大量位置是padding
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            texts.add("深度学习模型" + "训练数据".repeat(1 + i % 7) + i);
+        }
+        PretrainDataset dataset = new PretrainDataset(tokenizer, config.getMaxSeqLen(), 4);
+        dataset.loadFromTexts(texts);
+        
+        dataset.prepare(false);
+        float paddedEfficiency = dataset.getPackingEfficiency();
+        int paddedBatches = dataset.getBatchCount();
+        
+        dataset.setPacking(true);
+        dataset.prepare(true);
+        assertTrue(dataset.getPackingEfficiency() > paddedEfficiency, "打包效率应高于逐条填充");
+        assertTrue(dataset.getBatchCount() <= paddedBatches, "打包后批次数不应增加");
+        
+        PretrainDataset.Batch batch = dataset.getNextBatch();
+        assertTrue(batch.isPacked());
+        assertEquals(config.getMaxSeqLen(), batch.getSeqLen());
+        
+        MiniMindModel model = new MiniMindModel("minimind_packed", config);
+        Variable logits = model.predictPacked(new Variable(batch.getInput()),
+            batch.getPositionIds(), batch.getSegmentIds());
+        int[] shape = logits.getValue().getShape().getShapeDims();
+        assertArrayEquals(new int[]{batch.getBatchSize(), config.getMaxSeqLen(), config.getVocabSize()}, shape);
+        for (float value : logits.getValue().getArray()) {
+            assertTrue(Float.isFinite(value));
+        }
+    }
+    
     /**
      * 创建token IDs数组
      */
@@ -0,0 +1,151 @@
+package io.leavesfly.tinyai.minimind.training.rlaif.rollout;
+
+import io.leavesfly.tinyai.minimind.model.MiniMindConfig;
+import io.leavesfly.tinyai.minimind.model.MiniMindModel;
+import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.ndarr.Shape;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RolloutEngine单元测试
+ * <p>
+ * 以逐条、不使用缓存的贪婪解码为参照，验证左填充 + KV-Cache 批量生成结果一致。
+ *
+ * @author leavesfly
+ */
+public class RolloutEngineTest {
+
+    private MiniMindModel model;
+
+    @BeforeEach
+    public void setUp() {
+        MiniMindConfig config = new MiniMindConfig();
+        config.setVocabSize(50);
+        config.setMaxSeqLen(32);
+        config.setHiddenSize(32);
+        config.setNumLayers(2);
+        config.setNumHeads(4);
+        config.setFfnHiddenSize(64);
+        model = new MiniMindModel("rollout", config);
+        model.getMiniMindBlock().setTraining(false);
+    }
+
+    /**
+     * 参照实现：每步对完整序列做一次前向，取最后位置的argmax
+     */
+    private int[] naiveGreedy(int[] prompt, int maxNewTokens, int eosTokenId) {
+        int[] sequence = prompt.clone();
+        for (int step = 0; step < maxNewTokens; step++) {
+            float[] data = new float[sequence.length];
+            for (int i = 0; i < sequence.length; i++) {
+                data[i] = sequence[i];
+            }
+            NdArray logits = model.predict(NdArray.of(data, Shape.of(1, sequence.length)));
+            int vocabSize = logits.getShape().getShapeDims()[2];
+            float[] values = logits.getArray();
+            int offset = (sequence.length - 1) * vocabSize;
+            int best = 0;
+            for (int v = 1; v < vocabSize; v++) {
+                if (values[offset + v] > values[offset + best]) {
+                    best = v;
+                }
+            }
+            sequence = Arrays.copyOf(sequence, sequence.length + 1);
+            sequence[sequence.length - 1] = best;
+            if (best == eosTokenId) {
+                break;
+            }
+        }
+        return Arrays.copyOfRange(sequence, prompt.length, sequence.length);
+    }
+
+    @Test
+    public void testGreedyMatchesSequentialDecoding() {
+        List<int[]> prompts = Arrays.asList(new int[]{3, 4, 5, 6, 7}, new int[]{8, 9}, new int[]{10, 11, 12});
+
+        // 取第一个提示词第3步生成的token作为结束符，使部分序列提前结束并从批次中剔除
+        int eos = naiveGreedy(prompts.get(0), 6, -1)[2];
+        RolloutEngine engine = new RolloutEngine(model, 0.0f, 0, eos, 0, new Random(1));
+        RolloutBatch batch = engine.generate(prompts, 2, 6);
+
+        assertEquals(6, batch.size());
+        assertEquals(3, batch.getNumPrompts());
+        for (int n = 0; n < batch.size(); n++) {
+            int[] prompt = prompts.get(batch.getPromptIndex(n));
+            int[] expected = naiveGreedy(prompt, 6, eos);
+            assertArrayEquals(expected, batch.getCompletion(n), "序列 " + n);
+            assertEquals(expected[expected.length - 1] == eos, batch.isFinishedWithEos(n));
+            assertEquals(prompt.length + expected.length, batch.getSequence(n).length);
+        }
+        assertTrue(batch.isFinishedWithEos(0));
+        assertTrue(batch.getCompletion(0).length <= 3);
+        assertTrue(batch.getForwardCalls() <= 6);
+    }
+
+    @Test
+    public void testScoreMatchesSamplingLogProbs() {
+        List<int[]> prompts = Arrays.asList(new int[]{3, 4, 5}, new int[]{6, 7, 8, 9, 10, 11});
+        RolloutEngine engine = new RolloutEngine(model, 0.8f, 10, 2, 0, new Random(7));
+        RolloutBatch batch = engine.generate(prompts, 3, 5);
+
+        float[] sampled = batch.getTokenLogProbs();
+        float[] scored = engine.score(batch);
+        assertEquals(sampled.length, scored.length);
+        for (int i = 0; i < sampled.length; i++) {
+            assertTrue(sampled[i] <= 0.0f && !Float.isInfinite(sampled[i]));
+            assertEquals(sampled[i], scored[i], 1e-3f, "token " + i);
+        }
+
+        float[] seqLogProbs = batch.getSequenceLogProbs();
+        float[] rescored = batch.sumPerSequence(scored);
+        for (int n = 0; n < batch.size(); n++) {
+            assertEquals(seqLogProbs[n], rescored[n], 1e-3f);
+        }
+    }
+
+    @Test
+    public void testPaddedViewsAndGroupMatrix() {
+        List<int[]> prompts = Arrays.asList(new int[]{3, 4}, new int[]{5, 6, 7});
+        RolloutEngine engine = new RolloutEngine(model, 1.0f, 0, 2, 0, new Random(3));
+        RolloutBatch batch = engine.generate(prompts, 4, 4);
+
+        int maxNew = batch.getMaxNewTokens();
+        float[] mask = batch.getCompletionMask();
+        float[] padded = batch.getPaddedLogProbs();
+        assertEquals(8 * maxNew, mask.length);
+        assertEquals(8 * maxNew, padded.length);
+        for (int n = 0; n < batch.size(); n++) {
+            int len = batch.getCompletion(n).length;
+            assertTrue(len >= 1 && len <= maxNew);
+            for (int t = 0; t < maxNew; t++) {
+                assertEquals(t < len ? 1.0f : 0.0f, mask[n * maxNew + t]);
+            }
+        }
+
+        float[] rewards = new float[batch.size()];
+        for (int n = 0; n < rewards.length; n++) {
+            rewards[n] = n;
+        }
+        float[][] groups = batch.toGroupMatrix(rewards);
+        assertEquals(2, groups.length);
+        assertArrayEquals(new float[]{4, 5, 6, 7}, groups[1]);
+        assertThrows(IllegalArgumentException.class, () -> batch.toGroupMatrix(new float[3]));
+    }
+
+    @Test
+    public void testMaxNewTokensClampedToMaxSeqLen() {
+        RolloutEngine engine = new RolloutEngine(model, 0.0f, 0, -1, 0, new Random(1));
+        RolloutBatch batch = engine.generate(Arrays.asList(new int[28]), 1, 10);
+        assertEquals(4, batch.getMaxNewTokens());
+        assertEquals(4, batch.getCompletion(0).length);
+        assertThrows(IllegalArgumentException.class,
+                () -> engine.generate(Arrays.asList(new int[32]), 1, 1));
+    }
+}
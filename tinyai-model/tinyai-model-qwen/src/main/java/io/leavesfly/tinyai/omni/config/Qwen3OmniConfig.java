@@ -125,6 +125,12 @@ public class Qwen3OmniConfig {
     /** 负载损失系数，默认0.01 */
     private float expertLoadCoef = 0.01f;
     
+    /** 专家容量因子，每个专家最多处理 ceil(因子 × token数 × topK / 专家数) 个token，0表示不限制 */
+    private float expertCapacityFactor = 0.0f;
+    
+    /** 是否在工作线程池上并发执行各专家，默认false（并发构建计算图尚未验证与顺序执行梯度一致） */
+    private boolean expertParallel = false;
+    
     // ==================== Dropout配置 ====================
     
     /** 残差dropout概率，默认0.1 */
@@ -717,4 +723,20 @@ public class Qwen3OmniConfig {
     public void setExpertLoadCoef(float expertLoadCoef) {
         this.expertLoadCoef = expertLoadCoef;
     }
+    
+    public float getExpertCapacityFactor() {
+        return expertCapacityFactor;
+    }
+    
+    public void setExpertCapacityFactor(float expertCapacityFactor) {
+        this.expertCapacityFactor = expertCapacityFactor;
+    }
+    
+    public boolean isExpertParallel() {
+        return expertParallel;
+    }
+    
+    public void setExpertParallel(boolean expertParallel) {
+        this.expertParallel = expertParallel;
+    }
 }
@@ -7,6 +7,9 @@ import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.layer.activation.SiLU;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Dropout;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertDispatcher;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertParallelExecutor;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertUtilization;
 import io.leavesfly.tinyai.omni.config.Qwen3OmniConfig;
 import io.leavesfly.tinyai.omni.config.ModalityType;
 
@@ -44,6 +47,7 @@ public class Qwen3OmniMoELayer extends Module {
     // 统计信息
     private long[] expertUsageCount;
     private long totalCalls;
+    private ExpertUtilization lastUtilization;
     
     /**
      * 构造函数
@@ -149,7 +153,8 @@ public class Qwen3OmniMoELayer extends Module {
         TopKResult topKResult = selectTopK(gatingProbs, config.getExpertTopK());
         
         // 5. 专家计算和加权组合
-        Variable expertOutputs = computeExpertOutputs(input, topKResult);
+        ExpertDispatcher.DispatchResult dispatchResult = computeExpertOutputs(input, topKResult);
+        lastUtilization = dispatchResult.getUtilization();
         
         // 6. 计算负载均衡损失
         double loadBalanceLoss = 0.0;
@@ -157,7 +162,8 @@ public class Qwen3OmniMoELayer extends Module {
             loadBalanceLoss = computeLoadBalanceLoss(gatingProbs);
         }
         
-        return new MoEOutput(expertOutputs, gatingProbs, topKResult, loadBalanceLoss);
+        return new MoEOutput(dispatchResult.getOutput(), gatingProbs, topKResult,
+                             loadBalanceLoss, lastUtilization);
     }
     
     /**
@@ -274,107 +280,40 @@ public class Qwen3OmniMoELayer extends Module {
     }
     
     /**
-     * 计算所有专家的输出并加权组合
+     * 计算专家输出并加权组合（稀疏分发）
      * 
-     * 优化策略：批量计算，完全在Variable层面
+     * 每个专家只处理被路由到它的token（超出容量的被丢弃），
+     * 各专家在工作线程池上并发执行，加权结果scatter-add回原位置
      */
-    private Variable computeExpertOutputs(Variable input, TopKResult topKResult) {
-        int batchSize = input.getValue().getShape().getDimension(0);
-        int seqLen = input.getValue().getShape().getDimension(1);
-        int hiddenSize = input.getValue().getShape().getDimension(2);
-        int numExperts = config.getNumExperts();
-        
-        // 所有专家并行计算
-        List<Variable> expertOutputs = new ArrayList<>();
-        for (int i = 0; i < numExperts; i++) {
-            Variable expertOut = experts.get(i).forward(input);
-            expertOutputs.add(expertOut);
-        }
+    private ExpertDispatcher.DispatchResult computeExpertOutputs(Variable input, TopKResult topKResult) {
+        Shape shape = input.getValue().getShape();
+        int batchSize = shape.getDimension(0);
+        int seqLen = shape.getDimension(1);
+        int hiddenSize = shape.getDimension(2);
+        
+        Variable flatInput = input.reshape(Shape.of(batchSize * seqLen, hiddenSize));
+        ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(
+            topKResult.indices, topKResult.weights, config.getNumExperts(),
+            config.getExpertCapacityFactor()
+        );
         
-        // 根据TopK结果加权组合
-        Variable result = createWeightedExpertCombination(
-            expertOutputs, topKResult, batchSize, seqLen, hiddenSize
+        ExpertParallelExecutor executor = config.isExpertParallel()
+            ? ExpertParallelExecutor.shared()
+            : ExpertParallelExecutor.sequential();
+        ExpertDispatcher.DispatchResult result = ExpertDispatcher.dispatch(
+            flatInput, plan, experts, hiddenSize, executor
         );
         
-        return result;
-    }
-    
-    /**
-     * 根据TopK结果加权组合专家输出
-     */
-    private Variable createWeightedExpertCombination(
-            List<Variable> expertOutputs,
-            TopKResult topKResult,
-            int batchSize,
-            int seqLen,
-            int hiddenSize) {
-        
-        // 初始化输出为零
-        NdArray outputArray = NdArray.zeros(Shape.of(batchSize, seqLen, hiddenSize));
-        Variable output = new Variable(outputArray);
-        
-        // 对每个专家，构建其权重mask并累加
-        for (int expertIdx = 0; expertIdx < expertOutputs.size(); expertIdx++) {
-            // 构建该专家的权重矩阵 [batch_size, seq_len, 1]
-            Variable weightMask = createExpertWeightMask(
-                expertIdx, topKResult, batchSize, seqLen
-            );
-            
-            // 如果该专家没有被任何位置选中，跳过
-            if (isZeroMask(weightMask)) {
-                continue;
-            }
-            
-            // 获取该专家的输出并加权
-            Variable expertOut = expertOutputs.get(expertIdx);
-            
-            // 使用广播乘法: [batch, seq, 1] × [batch, seq, hidden]
-            Variable weightedOut = expertOut.mul(weightMask);
-            
-            // 累加到输出
-            output = output.add(weightedOut);
-            
-            // 更新统计
-            expertUsageCount[expertIdx]++;
+        // 更新统计（按实际处理的token数）
+        int[] tokenCounts = plan.getTokenCounts();
+        for (int e = 0; e < tokenCounts.length; e++) {
+            expertUsageCount[e] += tokenCounts[e];
         }
-        
         totalCalls += batchSize * seqLen;
         
-        return output;
-    }
-    
-    /**
-     * 为指定专家创建权重mask
-     */
-    private Variable createExpertWeightMask(
-            int expertIdx,
-            TopKResult topKResult,
-            int batchSize,
-            int seqLen) {
-        
-        float[][][] weights = new float[batchSize][seqLen][1];
-        
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < seqLen; t++) {
-                for (int k = 0; k < config.getExpertTopK(); k++) {
-                    if (topKResult.indices[b][t][k] == expertIdx) {
-                        weights[b][t][0] = topKResult.weights[b][t][k];
-                        break;
-                    }
-                }
-            }
-        }
-        
-        return new Variable(NdArray.of(weights));
-    }
-    
-    /**
-     * 检查权重mask是否全为0
-     */
-    private boolean isZeroMask(Variable mask) {
-        NdArray arr = mask.getValue();
-        float sum = arr.sum().getNumber().floatValue();
-        return Math.abs(sum) < 1e-9f;
+        return new ExpertDispatcher.DispatchResult(
+            result.getOutput().reshape(shape), result.getUtilization()
+        );
     }
     
     /**
@@ -429,6 +368,13 @@ public class Qwen3OmniMoELayer extends Module {
         return new ExpertUsageStats(expertUsageCount.clone(), usageRate, totalCalls);
     }
     
+    /**
+     * 获取最近一次前向传播的专家利用率统计
+     */
+    public ExpertUtilization getLastUtilization() {
+        return lastUtilization;
+    }
+    
     /**
      * 重置统计信息
      */
@@ -497,20 +443,28 @@ public class Qwen3OmniMoELayer extends Module {
         public final Variable gatingProbs;
         public final TopKResult topKResult;
         public final double loadBalanceLoss;
+        public final ExpertUtilization utilization;
         
         public MoEOutput(Variable output, Variable gatingProbs, 
                         TopKResult topKResult, double loadBalanceLoss) {
+            this(output, gatingProbs, topKResult, loadBalanceLoss, null);
+        }
+        
+        public MoEOutput(Variable output, Variable gatingProbs, TopKResult topKResult,
+                        double loadBalanceLoss, ExpertUtilization utilization) {
             this.output = output;
             this.gatingProbs = gatingProbs;
             this.topKResult = topKResult;
             this.loadBalanceLoss = loadBalanceLoss;
+            this.utilization = utilization;
         }
         
         @Override
         public String toString() {
             return String.format(
-                "MoEOutput{loadBalanceLoss=%.6f, outputShape=%s}",
+                "MoEOutput{loadBalanceLoss=%.6f, dropRate=%.4f, outputShape=%s}",
                 loadBalanceLoss,
+                utilization != null ? utilization.getDropRate() : 0.0f,
                 output.getValue().getShape()
             );
         }
@@ -1,7 +1,9 @@
 package io.leavesfly.tinyai.qwen3;
 
 import io.leavesfly.tinyai.func.Variable;
-import io.leavesfly.tinyai.ndarr.NdArray;
+import io.leavesfly.tinyai.func.matrix.FlashAttention;
+import io.leavesfly.tinyai.func.matrix.Permute;
+import io.leavesfly.tinyai.ndarr.Shape;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
 
@@ -11,7 +13,7 @@ import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
  * 特性：
  * 1. 分组查询注意力(GQA) - 减少KV缓存内存占用
  * 2. 旋转位置编码(RoPE) - 相对位置编码
- * 3. 因果掩码 - 自回归生成
+ * 3. 因果掩码 - 自回归生成（融合注意力核内隐式处理）
  * 
  * @author leavesfly
  * @version 1.0
@@ -86,7 +88,11 @@ public class Qwen3AttentionBlock extends Module {
     }
     
     /**
-     * 前向传播（简化版本，不实现完整的RoPE和GQA）
+     * 前向传播
+     * <p>
+     * 多头分割后使用融合注意力（{@link FlashAttention}）计算因果自注意力，
+     * 不物化 [batch, num_heads, seq_len, seq_len] 的分数矩阵。
+     * GQA下每组查询头在核内共享同一个KV头，不物化复制后的K/V。RoPE位置编码尚未接入。
      * 
      * @param inputs inputs[0]为输入隐藏状态 [batch_size, seq_len, hidden_size]
      * @return 输出隐藏状态 [batch_size, seq_len, hidden_size]
@@ -98,30 +104,42 @@ public class Qwen3AttentionBlock extends Module {
         }
         
         Variable hiddenStates = inputs[0];
+        int[] dims = hiddenStates.getShape().getShapeDims();
+        // 单token输入时嵌入层输出为2D [batch_size, hidden_size]，按 seq_len=1 处理
+        boolean singleToken = dims.length == 2;
+        if (singleToken) {
+            hiddenStates = hiddenStates.reshape(Shape.of(dims[0], 1, dims[1]));
+        } else if (dims.length != 3) {
+            throw new IllegalArgumentException("注意力输入必须为2D或3D [batch_size, seq_len, hidden_size]");
+        }
+        int batchSize = dims[0];
+        int seqLen = singleToken ? 1 : dims[1];
         
-        // 1. QKV投影
-        Variable query = qProj.forward(hiddenStates);
-        Variable key = kProj.forward(hiddenStates);
-        Variable value = vProj.forward(hiddenStates);
+        // 1. QKV投影并分割为多头：[batch, heads, seq_len, head_dim]
+        Variable query = splitHeads(qProj.forward(hiddenStates), batchSize, seqLen, numHeads);
+        Variable key = splitHeads(kProj.forward(hiddenStates), batchSize, seqLen, numKeyValueHeads);
+        Variable value = splitHeads(vProj.forward(hiddenStates), batchSize, seqLen, numKeyValueHeads);
         
-        // 2. 简化的自注意力计算（完整实现需要RoPE和GQA）
-        // 这里使用简化版本：直接使用投影结果
-        // 实际应用中需要：
-        // - 重塑为多头形状
-        // - 应用RoPE位置编码
-        // - 计算注意力分数
-        // - 应用因果掩码
-        // - Softmax归一化
-        // - 与Value加权求和
+        // 2. 融合的因果注意力，GQA下KV头直接按组共享，不复制
+        float scale = (float) (1.0 / Math.sqrt(headDim));
+        Variable attnOutput = new FlashAttention(scale, true).call(query, key, value);
         
-        // 简化版本：直接使用Query作为注意力输出的近似
-        // （仅用于演示框架结构，实际应用需要完整实现）
-        Variable attnOutput = query;
+        // 3. 合并多头：[batch, seq_len, num_heads * head_dim]
+        Variable merged = new Permute(0, 2, 1, 3).call(attnOutput)
+            .reshape(Shape.of(batchSize, seqLen, numHeads * headDim));
         
-        // 3. 输出投影
-        Variable output = oProj.forward(attnOutput);
+        // 4. 输出投影
+        Variable output = oProj.forward(merged);
         
-        return output;
+        return singleToken ? output.reshape(Shape.of(batchSize, config.getHiddenSize())) : output;
+    }
+    
+    /**
+     * [batch, seq_len, heads * head_dim] -> [batch, heads, seq_len, head_dim]
+     */
+    private Variable splitHeads(Variable x, int batchSize, int seqLen, int heads) {
+        Variable reshaped = x.reshape(Shape.of(batchSize, seqLen, heads, headDim));
+        return new Permute(0, 2, 1, 3).call(reshaped);
     }
     
     @Override
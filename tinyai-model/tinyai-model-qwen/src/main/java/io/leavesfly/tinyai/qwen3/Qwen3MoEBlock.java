@@ -5,6 +5,7 @@ import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
 import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.nnet.v2.layer.dnn.Linear;
+import io.leavesfly.tinyai.nnet.v2.layer.moe.ExpertDispatcher;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -178,142 +179,36 @@ public class Qwen3MoEBlock extends Module {
     }
     
     /**
-     * 计算专家输出并加权组合
+     * 计算专家输出并加权组合（稀疏分发）
      * 
-     * ✅ 优化方案：批量计算，完全在Variable层面
      * 策略：
-     * 1. 让所有专家并行处理整个batch的输入
-     * 2. 根据TopK结果构建权重矩阵
-     * 3. 使用Variable算子进行加权组合
+     * 1. 将输入展平为 [batch * seq, hidden] 的token行
+     * 2. 根据TopK结果为每个专家收集其token（gather）
+     * 3. 每个专家只在自己的token上前向计算
+     * 4. 加权后scatter-add回原token位置
      * 
-     * 这样既保证了梯度回传，又避免了逐位置的循环
+     * gather/scatter均为Variable算子，保持计算图完整性
      */
     private Variable computeExpertOutputs(Variable input, TopKResult topKResult) {
-        NdArray inputArray = input.getValue();
-        Shape shape = inputArray.getShape();
+        Shape shape = input.getValue().getShape();
         int batchSize = shape.getDimension(0);
         int seqLen = shape.getDimension(1);
         int hiddenSize = shape.getDimension(2);
-        int numExperts = experts.size();
         
-        // ✅ 步骤1：所有专家并行计算
-        List<Variable> expertOutputs = new ArrayList<>();
-        for (int i = 0; i < numExperts; i++) {
-            // 每个专家处理整个batch
-            Variable expertOut = experts.get(i).forward(input);
-            expertOutputs.add(expertOut);
-        }
-        
-        // ✅ 步骤2：在Variable层面进行加权组合
-        Variable output = createWeightedExpertCombination(
-            expertOutputs, topKResult, batchSize, seqLen, hiddenSize
+        Variable flatInput = input.reshape(Shape.of(batchSize * seqLen, hiddenSize));
+        ExpertDispatcher.DispatchPlan plan = ExpertDispatcher.plan(
+            topKResult.indices, topKResult.weights, experts.size()
         );
         
-        return output;
-    }
-    
-    /**
-     * ✅ 根据TopK结果加权组合专家输出（完全在Variable层面）
-     * 
-     * 关键：使用Variable算子(mul, add)保持计算图完整性
-     */
-    private Variable createWeightedExpertCombination(
-            List<Variable> expertOutputs,
-            TopKResult topKResult,
-            int batchSize,
-            int seqLen,
-            int hiddenSize) {
-        
-        // 初始化输出为零
-        NdArray outputArray = NdArray.zeros(Shape.of(batchSize, seqLen, hiddenSize));
-        Variable output = new Variable(outputArray);
-        
-        // 对每个专家，构建其权重mask并累加
-        for (int expertIdx = 0; expertIdx < expertOutputs.size(); expertIdx++) {
-            // 构建该专家的权重矩阵 [batch_size, seq_len, 1]
-            Variable weightMask = createExpertWeightMask(
-                expertIdx, topKResult, batchSize, seqLen
-            );
-            
-            // 如果该专家没有被任何位置选中，跳过
-            if (isZeroMask(weightMask)) {
-                continue;
-            }
-            
-            // 更新统计信息
-            updateExpertUsageStats(expertIdx, topKResult, batchSize, seqLen);
-            
-            // 获取该专家的输出
-            Variable expertOut = expertOutputs.get(expertIdx);
-            
-            // ✅ 使用Variable算子进行加权：[batch, seq, 1] × [batch, seq, hidden]
-            // 广播机制自动扩展维度
-            Variable weightedOut = expertOut.mul(weightMask);
-            
-            // ✅ 使用Variable算子累加（保持计算图）
-            output = output.add(weightedOut);
+        // 更新统计信息
+        int[] tokenCounts = plan.getTokenCounts();
+        for (int e = 0; e < tokenCounts.length; e++) {
+            expertUsageCount[e] += tokenCounts[e];
         }
-        
         totalCalls += batchSize * seqLen;
         
-        return output;
-    }
-    
-    /**
-     * 为指定专家创建权重mask
-     * 返回 [batch_size, seq_len, 1] 的权重矩阵
-     */
-    private Variable createExpertWeightMask(
-            int expertIdx,
-            TopKResult topKResult,
-            int batchSize,
-            int seqLen) {
-        
-        float[][][] weights = new float[batchSize][seqLen][1];
-        
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < seqLen; t++) {
-                // 检查该位置的TopK中是否包含当前专家
-                for (int k = 0; k < config.getExpertTopK(); k++) {
-                    if (topKResult.indices[b][t][k] == expertIdx) {
-                        weights[b][t][0] = topKResult.weights[b][t][k];
-                        break;
-                    }
-                }
-            }
-        }
-        
-        return new Variable(NdArray.of(weights));
-    }
-    
-    /**
-     * 检查权重mask是否全为0
-     */
-    private boolean isZeroMask(Variable mask) {
-        NdArray arr = mask.getValue();
-        float sum = arr.sum().getNumber().floatValue();
-        return Math.abs(sum) < 1e-9f;
-    }
-    
-    /**
-     * 更新专家使用统计
-     */
-    private void updateExpertUsageStats(
-            int expertIdx,
-            TopKResult topKResult,
-            int batchSize,
-            int seqLen) {
-        
-        for (int b = 0; b < batchSize; b++) {
-            for (int t = 0; t < seqLen; t++) {
-                for (int k = 0; k < config.getExpertTopK(); k++) {
-                    if (topKResult.indices[b][t][k] == expertIdx) {
-                        expertUsageCount[expertIdx]++;
-                        break;
-                    }
-                }
-            }
-        }
+        Variable output = ExpertDispatcher.dispatch(flatInput, plan, experts, hiddenSize);
+        return output.reshape(shape);
     }
     
     /**
@@ -1,8 +1,13 @@
 package io.leavesfly.tinyai.qwen3.training;
 
+import io.leavesfly.tinyai.func.NoGrad;
 import io.leavesfly.tinyai.func.Variable;
+import io.leavesfly.tinyai.ml.inference.CausalLanguageModel;
+import io.leavesfly.tinyai.ml.inference.SpeculativeDecoder;
+import io.leavesfly.tinyai.ml.inference.SpeculativeResult;
 import io.leavesfly.tinyai.ndarr.NdArray;
 import io.leavesfly.tinyai.ndarr.Shape;
+import io.leavesfly.tinyai.nnet.v2.core.Module;
 import io.leavesfly.tinyai.qwen3.Qwen3Model;
 
 import java.util.ArrayList;
@@ -17,6 +22,7 @@ import java.util.Random;
  * - Top-K：Top-K采样
  * - Top-P：核采样(Nucleus Sampling)
  * - Temperature：温度采样
+ * - Speculative：投机解码（小模型起草、本模型批量验证）
  * 
  * @author leavesfly
  * @version 1.0
@@ -140,6 +146,48 @@ public class Qwen3Inference {
         return tokens.stream().mapToInt(Integer::intValue).toArray();
     }
     
+    /**
+     * 投机解码生成
+     * <p>
+     * 由小的草稿模型（如MiniMind）每轮提出numDraftTokens个候选，本模型一次前向批量验证，
+     * 输出分布与直接从本模型采样一致。遇到EOS时停止，结果中保留EOS。
+     * 
+     * @param inputIds 输入token IDs
+     * @param maxNewTokens 最大生成token数
+     * @param draftModel 草稿模型（需与本模型共享词表）
+     * @param numDraftTokens 每轮草稿token数
+     * @param temperature 温度参数(0表示贪婪)
+     * @param topK Top-K值(0表示不使用)
+     * @return 生成的token IDs及接受率、吞吐量等统计
+     */
+    public SpeculativeResult generateSpeculative(int[] inputIds, int maxNewTokens,
+                                                 CausalLanguageModel draftModel, int numDraftTokens,
+                                                 float temperature, int topK) {
+        SpeculativeDecoder decoder = new SpeculativeDecoder(draftModel, asCausalLanguageModel(),
+            numDraftTokens, temperature, topK, getEosToken(), random);
+        return decoder.generate(inputIds, maxNewTokens);
+    }
+    
+    /**
+     * 将Qwen3模型包装为投机解码可用的语言模型
+     * 
+     * 每次前向临时切换到推理模式并在 {@link NoGrad} 作用域内执行，结束后恢复原来的模式
+     * 
+     * @return 语言模型视图
+     */
+    public CausalLanguageModel asCausalLanguageModel() {
+        Module module = model.getModule();
+        return CausalLanguageModel.of(ids -> {
+            boolean wasTraining = module.isTraining();
+            module.eval();
+            try (NoGrad ignored = NoGrad.enter()) {
+                return model.forward(new Variable(ids)).getValue();
+            } finally {
+                module.train(wasTraining);
+            }
+        }, model.getConfig().getMaxPositionEmbeddings());
+    }
+    
     /**
      * 预测下一个token
      */